@@ -472,6 +472,8 @@ public class Request
             readResponseBody(ret, in, notify);
           }
       }
+    // Leave any following data on the connection
+    in.release();
     return ret;
   }
 
@@ -32,6 +32,7 @@ import java.net.InetSocketAddress;
 import java.net.ProtocolException;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
@@ -46,10 +47,15 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -84,6 +90,12 @@ import gnu.inet.util.TraceLevel;
  * IMAP events that occur during the processing of the command, since a
  * single command may result in multiple events possibly unrelated to the
  * intent of the caller (alerts, new message updates, etc).
+ * <p>
+ * The FETCH, STORE and COPY commands may also be pipelined: their
+ * asynchronous variants send the command and return a future without
+ * waiting for the server. Responses are read in order as futures are
+ * waited on; untagged responses are delivered to the callback of the
+ * oldest outstanding command.
  * @version 1.2
  * @author <a href='mailto:dog@gnu.org'>Chris Burdess</a>
  */
@@ -133,6 +145,17 @@ public class IMAPConnection
    */
   private Socket socket;
 
+  /**
+   * The channel of the underlying network socket.
+   */
+  private SocketChannel channel;
+
+  /**
+   * Whether the streams decode a TLS or SASL security layer, so that data
+   * arriving on the channel need not be a complete response.
+   */
+  private boolean layered;
+
   /**
    * The tokenizer used to read IMAP stream tokens from.
    */
@@ -150,6 +173,33 @@ public class IMAPConnection
    */
   private int tagIndex = 0;
 
+  /**
+   * Commands that have been sent but not yet completed, in the order
+   * they were sent.
+   */
+  private final LinkedList<PendingCommand> pending =
+    new LinkedList<PendingCommand>();
+
+  /**
+   * The maximum number of outstanding commands.
+   */
+  private int pipelineDepth = 32;
+
+  /**
+   * Whether commands have been written but not flushed.
+   */
+  private boolean unflushed;
+
+  /**
+   * The outstanding IDLE command, if any.
+   */
+  private PendingCommand idle;
+
+  /**
+   * Whether the server has accepted the IDLE command.
+   */
+  private boolean idling;
+
   private List<String> capabilities = new ArrayList<String>();
 
   private static final SimpleDateFormat DATETIME_FORMAT =
@@ -234,7 +284,8 @@ public class IMAPConnection
     // Set up socket
     try
       {
-        socket = new Socket();
+        channel = SocketChannel.open();
+        socket = channel.socket();
         InetSocketAddress address = new InetSocketAddress(host, port);
         if (connectionTimeout > 0)
           {
@@ -258,6 +309,7 @@ public class IMAPConnection
             ss.setUseClientMode(true);
             ss.startHandshake();
             socket = ss;
+            layered = true;
           }
       }
     catch (GeneralSecurityException e)
@@ -318,11 +370,29 @@ public class IMAPConnection
       }
   }
 
+  /**
+   * Sets the maximum number of pipelined commands that may be
+   * outstanding at any one time.
+   * @param depth the pipeline depth (at least 1)
+   */
+  public void setPipelineDepth(int depth)
+  {
+    pipelineDepth = Math.max(1, depth);
+  }
+
   /**
    * Sends the specified IMAP tagged command to the server.
    */
   private void sendCommand(String tag, String command)
     throws IOException
+  {
+    writeCommand(tag, command);
+    out.flush();
+    unflushed = false;
+  }
+
+  private void writeCommand(String tag, String command)
+    throws IOException
   {
     if (socket == null)
       {
@@ -337,7 +407,6 @@ public class IMAPConnection
     out.write(' ');
     out.write(command);
     out.writeln();
-    out.flush();
   }
 
   /**
@@ -349,48 +418,273 @@ public class IMAPConnection
   private boolean invokeSimpleCommand(String command, IMAPCallback callback)
     throws IOException
   {
-    String tag = newTag();
-    sendCommand(tag, command);
-    return handleSimpleResponse(tag, callback);
+    return submit(command, callback, true).await();
+  }
+
+  /**
+   * Sends the specified IMAP command without waiting for its completion.
+   * If the pipeline is full, responses are read until a slot is free.
+   * @param command the command
+   * @param flush whether to flush the command to the server immediately
+   */
+  private synchronized PendingCommand submit(String command,
+                                             IMAPCallback callback,
+                                             boolean flush)
+    throws IOException
+  {
+    if (idle != null)
+      {
+        done();
+      }
+    while (pending.size() >= pipelineDepth)
+      {
+        readResponse();
+      }
+    PendingCommand ret = new PendingCommand(newTag(), callback);
+    if (flush)
+      {
+        sendCommand(ret.tag, command);
+      }
+    else
+      {
+        writeCommand(ret.tag, command);
+        unflushed = true;
+      }
+    pending.add(ret);
+    return ret;
+  }
+
+  /**
+   * Reads responses until all outstanding commands have completed.
+   */
+  private synchronized void drain()
+    throws IOException
+  {
+    if (idle != null)
+      {
+        done();
+      }
+    while (!pending.isEmpty())
+      {
+        readResponse();
+      }
   }
 
-  private boolean handleSimpleResponse(String tag, IMAPCallback callback)
+  /**
+   * Reads a single response line from the server.
+   * Untagged responses are delivered to the callback of the oldest
+   * outstanding command; a tagged response completes the command with
+   * that tag.
+   */
+  private void readResponse()
     throws IOException
   {
-    while (true)
+    if (unflushed)
+      {
+        out.flush();
+        unflushed = false;
+      }
+    try
       {
+        PendingCommand command;
         Token token = in.next();
         switch (token.type)
           {
           case Token.TAG:
-            boolean match = tag.equals(token.stringValue());
-            boolean result = parseRespCondState(callback);
-            in.collectToEOL();
-            in.reset();
-            if (match)
+            command = remove(token.stringValue());
+            PendingCommand target =
+              (command == null) ? pending.getFirst() : command;
+            try
               {
-                return result;
+                boolean result = parseRespCondState(target.callback);
+                in.collectToEOL();
+                in.reset();
+                if (command != null)
+                  {
+                    command.complete(result, null);
+                  }
+              }
+            catch (IMAPException e)
+              {
+                in.collectToEOL();
+                in.reset();
+                target.complete(false, e);
+                if (target != command)
+                  {
+                    pending.remove(target);
+                  }
               }
             break;
           case Token.UNTAGGED_RESPONSE:
+            command = pending.getFirst();
             token = in.next();
             switch (token.type)
               {
               case Token.NUMBER:
                 int number = token.intValue();
-                parseUntaggedNumber(number, callback);
+                parseUntaggedNumber(number, command.callback);
                 break;
               case Token.ATOM:
-                parseUntaggedAtom(token, callback);
+                parseUntaggedAtom(token, command.callback);
                 break;
               }
             in.collectToEOL();
             in.reset();
             break;
+          case Token.CONTINUATION:
+            if (idle == null || idling)
+              {
+                throw createException("err.unexpected_token", token);
+              }
+            in.collectToEOL();
+            in.reset();
+            idling = true;
+            break;
           default:
             throw createException("err.unexpected_token", token);
           }
       }
+    catch (IOException e)
+      {
+        // The stream is no longer usable: fail every outstanding command
+        for (PendingCommand command : pending)
+          {
+            command.complete(false, e);
+          }
+        pending.clear();
+        idle = null;
+        idling = false;
+        throw e;
+      }
+  }
+
+  private PendingCommand remove(String tag)
+  {
+    for (Iterator<PendingCommand> i = pending.iterator(); i.hasNext(); )
+      {
+        PendingCommand command = i.next();
+        if (tag.equals(command.tag))
+          {
+            i.remove();
+            return command;
+          }
+      }
+    return null;
+  }
+
+  /**
+   * A command that has been sent to the server.
+   * Waiting for the result reads responses on the calling thread until
+   * the command's tagged response arrives.
+   */
+  final class PendingCommand
+    implements Future<Boolean>
+  {
+
+    final String tag;
+    final IMAPCallback callback;
+    private boolean done;
+    private boolean result;
+    private IOException exception;
+
+    PendingCommand(String tag, IMAPCallback callback)
+    {
+      this.tag = tag;
+      this.callback = callback;
+    }
+
+    void complete(boolean result, IOException exception)
+    {
+      this.result = result;
+      this.exception = exception;
+      done = true;
+    }
+
+    /**
+     * Reads responses until this command completes.
+     * @return true if OK was received, or false if NO was received
+     * @exception IOException if BAD was received or an I/O error occurred
+     */
+    boolean await()
+      throws IOException
+    {
+      synchronized (IMAPConnection.this)
+        {
+          while (!done)
+            {
+              readResponse();
+            }
+        }
+      if (exception != null)
+        {
+          throw exception;
+        }
+      return result;
+    }
+
+    public Boolean get()
+      throws InterruptedException, ExecutionException
+    {
+      try
+        {
+          return Boolean.valueOf(await());
+        }
+      catch (IOException e)
+        {
+          throw new ExecutionException(e);
+        }
+    }
+
+    /**
+     * The timeout is checked between responses: a single response
+     * that is slow to arrive is subject to the socket timeout instead.
+     */
+    public Boolean get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException
+    {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      synchronized (IMAPConnection.this)
+        {
+          try
+            {
+              while (!done)
+                {
+                  if (System.nanoTime() - deadline >= 0L)
+                    {
+                      throw new TimeoutException(tag);
+                    }
+                  readResponse();
+                }
+            }
+          catch (IOException e)
+            {
+              throw new ExecutionException(e);
+            }
+        }
+      return get();
+    }
+
+    /**
+     * Commands cannot be withdrawn once sent.
+     */
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+      return false;
+    }
+
+    public boolean isCancelled()
+    {
+      return false;
+    }
+
+    public boolean isDone()
+    {
+      synchronized (IMAPConnection.this)
+        {
+          return done;
+        }
+    }
+
   }
 
   private IOException createException(String key, Object... args)
@@ -1330,6 +1624,109 @@ public class IMAPConnection
     invokeSimpleCommand(NOOP, callback);
   }
 
+  /**
+   * Enters the IDLE state (RFC 2177).
+   * The server may then send untagged responses at any time; they are
+   * read by {@link #readIdleResponses} and delivered to the callback.
+   * Any other command ends the IDLE state first.
+   * @return true if the server accepted the command, false if NO was
+   * received
+   */
+  public synchronized boolean idle(IMAPCallback callback)
+    throws IOException
+  {
+    if (idle != null)
+      {
+        return true;
+      }
+    drain();
+    PendingCommand command = new PendingCommand(newTag(), callback);
+    sendCommand(command.tag, IDLE);
+    pending.add(command);
+    idle = command;
+    while (!idling && !command.isDone())
+      {
+        readResponse();
+      }
+    if (!idling)
+      {
+        idle = null;
+        return command.await();
+      }
+    return true;
+  }
+
+  /**
+   * Indicates whether this connection is in the IDLE state.
+   */
+  public synchronized boolean isIdle()
+  {
+    return idle != null;
+  }
+
+  /**
+   * Reads the responses that the server has sent while idling, without
+   * waiting for more.
+   * @return false if the server has ended the IDLE state
+   */
+  public synchronized boolean readIdleResponses()
+    throws IOException
+  {
+    while (idle != null && !idle.isDone() && in.available() > 0)
+      {
+        readResponse();
+      }
+    return idle != null && !idle.isDone();
+  }
+
+  /**
+   * Ends the IDLE state.
+   * Any remaining untagged responses are delivered to the callback
+   * passed to {@link #idle}.
+   * @return true if the IDLE command completed with OK
+   */
+  public synchronized boolean done()
+    throws IOException
+  {
+    PendingCommand command = idle;
+    if (command == null)
+      {
+        return true;
+      }
+    try
+      {
+        if (!command.isDone())
+          {
+            if (isDebug())
+              {
+                debug("> " + DONE);
+              }
+            out.write(DONE);
+            out.writeln();
+            out.flush();
+          }
+        return command.await();
+      }
+    finally
+      {
+        idle = null;
+        idling = false;
+      }
+  }
+
+  /**
+   * Returns the channel of the underlying network socket, which may be
+   * used to wait for data from the server while idling. The channel
+   * must be in blocking mode whenever this connection is used.
+   * Returns null once a TLS or SASL security layer is in use: readiness
+   * of the channel then says nothing about whether a response can be
+   * read, and data may already be buffered by the layer.
+   */
+  public SocketChannel getChannel()
+  {
+    return layered ? null : channel;
+  }
+
   /**
    * Returns a configured SSLSocketFactory to use in creating new SSL
    * sockets.
@@ -1392,6 +1789,7 @@ public class IMAPConnection
         OutputStream os = ss.getOutputStream();
         os = new BufferedOutputStream(os);
         out = new CRLFOutputStream(os);
+        layered = true;
         return true;
       }
     catch (GeneralSecurityException e)
@@ -1476,6 +1874,7 @@ public class IMAPConnection
             buf.append(' ');
             buf.append(new String(ir, US_ASCII));
           }
+        drain(); // challenges must not interleave with other responses
         String tag = newTag();
         sendCommand(tag, buf.toString());
         while (true)
@@ -1532,6 +1931,7 @@ public class IMAPConnection
                             os = new BufferedOutputStream(os);
                             os = new SaslOutputStream(sasl, os);
                             out = new CRLFOutputStream(os);
+                            layered = true;
                           }
                       }
                     return result;
@@ -1781,7 +2181,6 @@ public class IMAPConnection
       {
         return false;
       }
-    String tag = newTag();
     StringBuilder buf = new StringBuilder(APPEND)
       .append(' ')
       .append(quote(UTF7imap.encode(mailbox)))
@@ -1809,18 +2208,26 @@ public class IMAPConnection
     buf.append('{');
     buf.append(content.length);
     buf.append('}');
-    sendCommand(tag, buf.toString());
-    Token token = in.next();
-    if (token.type != Token.CONTINUATION)
+    PendingCommand command;
+    synchronized (this)
       {
-        throw createException("err.expected_continuation", token);
+        // The continuation request must be the next response
+        drain();
+        command = new PendingCommand(newTag(), callback);
+        sendCommand(command.tag, buf.toString());
+        Token token = in.next();
+        if (token.type != Token.CONTINUATION)
+          {
+            throw createException("err.expected_continuation", token);
+          }
+        in.collectToEOL();
+        in.reset();
+        out.write(content);         // write the message body
+        out.writeln();
+        out.flush();
+        pending.add(command);
       }
-    in.collectToEOL();
-    in.reset();
-    out.write(content);         // write the message body
-    out.writeln();
-    out.flush();
-    return handleSimpleResponse(tag, callback);
+    return command.await();
   }
 
   /**
@@ -1904,7 +2311,26 @@ public class IMAPConnection
     throws IOException
   {
     String ids = (messages == null) ? "*" : messages.toString();
-    return fetchImpl(FETCH, ids, fetchCommands, callback);
+    return invokeSimpleCommand(fetchCommand(FETCH, ids, fetchCommands),
+                               callback);
+  }
+
+  /**
+   * Sends a FETCH command without waiting for its completion.
+   * Fetch responses are delivered to the callback when the returned
+   * future is waited on, or when the responses to later commands are read.
+   * @param messages the message set, or null for all messages
+   * @param fetchCommands the fetch commands, e.g. FLAGS
+   * @return a future for the command's result: true if OK was received,
+   * or false if NO was received
+   */
+  public Future<Boolean> fetchAsync(MessageSet messages,
+                                    List<String> fetchCommands,
+                                    IMAPCallback callback)
+    throws IOException
+  {
+    String ids = (messages == null) ? "*" : messages.toString();
+    return submit(fetchCommand(FETCH, ids, fetchCommands), callback, false);
   }
 
   /**
@@ -1917,13 +2343,28 @@ public class IMAPConnection
     throws IOException
   {
     String ids = (uids == null) ? "*" : uids.toString();
-    return fetchImpl(UID + ' ' + FETCH, ids, fetchCommands, callback);
+    return invokeSimpleCommand(fetchCommand(UID + ' ' + FETCH, ids,
+                                            fetchCommands), callback);
   }
 
-  private boolean fetchImpl(String cmd, String ids,
-                            List<String> fetchCommands,
-                            IMAPCallback callback)
+  /**
+   * Sends a UID FETCH command without waiting for its completion.
+   * @param uids the message UIDs, or null for all messages
+   * @param fetchCommands the fetch commands, e.g. FLAGS
+   * @see #fetchAsync
+   */
+  public Future<Boolean> uidFetchAsync(UIDSet uids,
+                                       List<String> fetchCommands,
+                                       IMAPCallback callback)
     throws IOException
+  {
+    String ids = (uids == null) ? "*" : uids.toString();
+    return submit(fetchCommand(UID + ' ' + FETCH, ids, fetchCommands),
+                  callback, false);
+  }
+
+  private String fetchCommand(String cmd, String ids,
+                              List<String> fetchCommands)
   {
     StringBuilder buf = new StringBuilder(cmd);
     buf.append(' ');
@@ -1940,7 +2381,7 @@ public class IMAPConnection
         buf.append(fetchCommands.get(i));
       }
     buf.append(')');
-    return invokeSimpleCommand(buf.toString(), callback);
+    return buf.toString();
   }
 
   /**
@@ -1954,7 +2395,25 @@ public class IMAPConnection
     throws IOException
   {
     String ids = (messages == null) ? "*" : messages.toString();
-    return storeImpl(STORE, ids, flagCommand, flags, callback);
+    return invokeSimpleCommand(storeCommand(STORE, ids, flagCommand, flags),
+                               callback);
+  }
+
+  /**
+   * Sends a STORE command without waiting for its completion.
+   * @param messages the message set, or null for all messages
+   * @param flagCommand FLAGS, +FLAGS, -FLAGS(or .SILENT versions)
+   * @param flags message flags to set
+   * @see #fetchAsync
+   */
+  public Future<Boolean> storeAsync(MessageSet messages, String flagCommand,
+                                    List<String> flags,
+                                    IMAPCallback callback)
+    throws IOException
+  {
+    String ids = (messages == null) ? "*" : messages.toString();
+    return submit(storeCommand(STORE, ids, flagCommand, flags),
+                  callback, false);
   }
 
   /**
@@ -1968,12 +2427,29 @@ public class IMAPConnection
     throws IOException
   {
     String ids = (uids == null) ? "*" : uids.toString();
-    return storeImpl(UID + ' ' + STORE, ids, flagCommand, flags, callback);
+    return invokeSimpleCommand(storeCommand(UID + ' ' + STORE, ids,
+                                            flagCommand, flags), callback);
   }
 
-  private boolean storeImpl(String cmd, String ids, String flagCommand,
-                            List<String> flags, IMAPCallback callback)
+  /**
+   * Sends a UID STORE command without waiting for its completion.
+   * @param uids the message UIDs, or null for all messages
+   * @param flagCommand FLAGS, +FLAGS, -FLAGS(or .SILENT versions)
+   * @param flags message flags to set
+   * @see #fetchAsync
+   */
+  public Future<Boolean> uidStoreAsync(UIDSet uids, String flagCommand,
+                                       List<String> flags,
+                                       IMAPCallback callback)
     throws IOException
+  {
+    String ids = (uids == null) ? "*" : uids.toString();
+    return submit(storeCommand(UID + ' ' + STORE, ids, flagCommand, flags),
+                  callback, false);
+  }
+
+  private String storeCommand(String cmd, String ids, String flagCommand,
+                              List<String> flags)
   {
     StringBuilder buf = new StringBuilder(cmd);
     buf.append(' ');
@@ -1992,7 +2468,7 @@ public class IMAPConnection
         buf.append(flags.get(i));
       }
     buf.append(')');
-    return invokeSimpleCommand(buf.toString(), callback);
+    return buf.toString();
   }
 
   /**
@@ -2008,12 +2484,30 @@ public class IMAPConnection
       {
         return true;
       }
-    StringBuilder buf = new StringBuilder(COPY)
+    return invokeSimpleCommand(copyCommand(messages, mailbox), callback);
+  }
+
+  /**
+   * Sends a COPY command without waiting for its completion.
+   * @param messages the non-empty message-set
+   * @param mailbox the destination mailbox
+   * @see #fetchAsync
+   */
+  public Future<Boolean> copyAsync(MessageSet messages, String mailbox,
+                                   IMAPCallback callback)
+    throws IOException
+  {
+    return submit(copyCommand(messages, mailbox), callback, false);
+  }
+
+  private String copyCommand(MessageSet messages, String mailbox)
+  {
+    return new StringBuilder(COPY)
       .append(' ')
       .append(messages.toString())
       .append(' ')
-      .append(quote(UTF7imap.encode(mailbox)));
-    return invokeSimpleCommand(buf.toString(), callback);
+      .append(quote(UTF7imap.encode(mailbox)))
+      .toString();
   }
 
   /**
@@ -66,6 +66,8 @@ public interface IMAPConstants
   public static final String GETQUOTA = "GETQUOTA";
   public static final String GETQUOTAROOT = "GETQUOTAROOT";
   public static final String UID_EXPUNGE = "UID EXPUNGE";
+  public static final String IDLE = "IDLE";
+  public static final String DONE = "DONE";
 
   // Server responses
   public static final String OK = "OK";
@@ -171,6 +171,15 @@ class Tokenizer
       }
   }
 
+  /**
+   * Returns the number of bytes that can be read without blocking.
+   */
+  int available()
+    throws IOException
+  {
+    return in.available();
+  }
+
   /**
    * We have reached EOL. Reset for the next line.
    */
@@ -22,12 +22,17 @@
 
 package gnu.inet.util;
 
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.IOException;
 
 /**
  * An input stream that can read lines of input.
+ * Lines are located in a buffer owned by this stream, which is reused from
+ * line to line. If the underlying stream supports marking, data is read
+ * from it in blocks and any read-ahead is returned by the <code>read</code>
+ * methods of this stream, or can be handed back to the underlying stream
+ * using <code>release</code>; otherwise it is read one byte at a time, so
+ * that no more than the requested line is consumed.
  *
  * @author <a href="mailto:dog@gnu.org">Chris Burdess</a>
  */
@@ -35,6 +40,8 @@ public class LineInputStream
   extends InputStream
 {
 
+  private static final int DEFAULT_SIZE = 4096;
+
   /**
    * The underlying input stream.
    */
@@ -43,7 +50,29 @@ public class LineInputStream
   /*
    * Line buffer.
    */
-  private ByteArrayOutputStream buf;
+  private byte[] buf;
+
+  /*
+   * Index of the next unread byte in buf.
+   */
+  private int pos;
+
+  /*
+   * Number of valid bytes in buf.
+   */
+  private int count;
+
+  /*
+   * Index in buf of the data read after the underlying stream was last
+   * marked, or -1 if the mark is no longer usable.
+   */
+  private int markStart;
+
+  /*
+   * Start and length of the last line returned by nextLine.
+   */
+  private int lineStart;
+  private int lineLength;
 
   /*
    * Encoding to use when translating bytes to characters.
@@ -77,7 +106,8 @@ public class LineInputStream
   public LineInputStream(InputStream in, String encoding)
   {
     this.in = in;
-    buf = new ByteArrayOutputStream();
+    buf = new byte[DEFAULT_SIZE];
+    markStart = -1;
     this.encoding = encoding;
     eof = false;
     blockReads = in.markSupported();
@@ -86,19 +116,56 @@ public class LineInputStream
   public int read()
     throws IOException
   {
+    if (pos < count)
+      {
+        return buf[pos++] & 0xff;
+      }
     return in.read();
   }
 
   public int read(byte[] buf)
     throws IOException
   {
-    return in.read(buf);
+    return read(buf, 0, buf.length);
   }
 
-  public int read(byte[] buf, int off, int len)
+  public int read(byte[] b, int off, int len)
     throws IOException
   {
-    return in.read(buf, off, len);
+    int avail = count - pos;
+    if (avail > 0)
+      {
+        if (len > avail)
+          {
+            len = avail;
+          }
+        System.arraycopy(buf, pos, b, off, len);
+        pos += len;
+        return len;
+      }
+    return in.read(b, off, len);
+  }
+
+  public long skip(long n)
+    throws IOException
+  {
+    int avail = count - pos;
+    if (avail > 0)
+      {
+        if (n > (long) avail)
+          {
+            n = (long) avail;
+          }
+        pos += (int) n;
+        return n;
+      }
+    return in.skip(n);
+  }
+
+  public int available()
+    throws IOException
+  {
+    return (count - pos) + in.available();
   }
 
   /**
@@ -107,100 +174,152 @@ public class LineInputStream
   public String readLine()
     throws IOException
   {
-    if (eof)
+    int len = nextLine();
+    if (len == -1)
       {
         return null;
       }
-    do
+    return new String(buf, lineStart, len, encoding);
+  }
+
+  /**
+   * Reads the next line of input into this stream's buffer.
+   * The bytes of the line, without the terminating LF, can be obtained
+   * from <code>getLineBuffer</code> starting at
+   * <code>getLineOffset</code>. They remain valid until the next
+   * operation on this stream.
+   * @return the length of the line, or -1 at the end of the stream
+   */
+  public int nextLine()
+    throws IOException
+  {
+    if (eof && pos >= count)
       {
-        if (blockReads)
+        return -1;
+      }
+    int scanned = 0; // bytes after pos already searched
+    while (true)
+      {
+        for (int i = pos + scanned; i < count; i++)
           {
-            // Use mark and reset to read chunks of bytes
-            final int MIN_LENGTH = 1024;
-            int len, pos;
-
-            len = in.available();
-            len = (len < MIN_LENGTH) ? MIN_LENGTH : len;
-            byte[] b = new byte[len];
-            in.mark(len);
-            // Read into buffer b
-            len = in.read(b, 0, len);
-            // Handle EOF
-            if (len == -1)
+            if (buf[i] == 0x0a)             // LF
               {
-                eof = true;
-                if (buf.size() == 0)
-                  {
-                    return null;
-                  }
-                else
-                  {
-                    // We don't care about resetting buf
-                    return buf.toString(encoding);
-                  }
+                lineStart = pos;
+                lineLength = i - pos;
+                pos = i + 1;
+                return lineLength;
               }
-            // Get index of LF in b
-            pos = indexOf(b, len, (byte) 0x0a);
-            if (pos != -1)
-              {
-                // Write pos bytes to buf
-                buf.write(b, 0, pos);
-                // Reset stream, and read pos + 1 bytes
-                in.reset();
-                pos += 1;
-                while (pos > 0)
-                  {
-                    len = in.read(b, 0, pos);
-                    pos = (len == -1) ? -1 : pos - len;
-                  }
-                // Return line
-                String ret = buf.toString(encoding);
-                buf.reset();
-                return ret;
-              }
-            else
+          }
+        scanned = count - pos;
+        if (eof || fill() == -1)
+          {
+            eof = true;
+            if (pos >= count)
               {
-                // Append everything to buf and fall through to re-read.
-                buf.write(b, 0, len);
+                return -1;
               }
+            // Return the remaining data as the last line
+            lineStart = pos;
+            lineLength = count - pos;
+            pos = count;
+            return lineLength;
           }
-        else
+      }
+  }
+
+  /**
+   * Returns the buffer containing the last line read by
+   * <code>nextLine</code>.
+   */
+  public byte[] getLineBuffer()
+  {
+    return buf;
+  }
+
+  /**
+   * Returns the offset in the line buffer of the last line read by
+   * <code>nextLine</code>.
+   */
+  public int getLineOffset()
+  {
+    return lineStart;
+  }
+
+  /**
+   * Hands any data read ahead from the underlying stream back to it, so
+   * that the underlying stream is positioned just after the last byte
+   * consumed from this stream. This stream remains usable afterwards.
+   */
+  public void release()
+    throws IOException
+  {
+    if (pos < count && markStart != -1 && pos >= markStart)
+      {
+        in.reset();
+        long n = pos - markStart;
+        while (n > 0L)
           {
-            // We must use character reads in order not to read too much
-            // from the underlying stream.
-            int c = in.read();
-            switch (c)
+            long l = in.skip(n);
+            if (l <= 0L)
               {
-              case -1:
-                eof = true;
-                if (buf.size() == 0)
-                  {
-                    return null;
-                  }
-                // Fall through and return contents of buffer.
-              case 0x0a:                // LF
-                String ret = buf.toString(encoding);
-                buf.reset();
-                return ret;
-              default:
-                buf.write(c);
+                break;
               }
+            n -= l;
           }
+        pos = count = 0;
+        markStart = -1;
+        eof = false;
       }
-    while (true);
   }
 
-  private int indexOf(byte[] b, int len, byte c)
+  /**
+   * Reads more data into the buffer, keeping the unread data.
+   * @return the number of bytes read, or -1 at the end of the stream
+   */
+  private int fill()
+    throws IOException
   {
-    for (int pos = 0; pos < len; pos++)
+    if (pos > 0)
       {
-        if (b[pos] == c)
+        // Discard consumed data
+        int len = count - pos;
+        System.arraycopy(buf, pos, buf, 0, len);
+        count = len;
+        pos = 0;
+        markStart = -1;
+      }
+    if (count == buf.length)
+      {
+        byte[] nbuf = new byte[buf.length * 2];
+        System.arraycopy(buf, 0, nbuf, 0, count);
+        buf = nbuf;
+      }
+    if (blockReads)
+      {
+        int len = buf.length - count;
+        in.mark(len);
+        int l = in.read(buf, count, len);
+        if (l <= 0)
           {
-            return pos;
+            markStart = -1;
+            return -1;
           }
+        markStart = count;
+        count += l;
+        return l;
+      }
+    else
+      {
+        // We must use character reads in order not to read too much
+        // from the underlying stream.
+        int c = in.read();
+        if (c == -1)
+          {
+            return -1;
+          }
+        buf[count++] = (byte) c;
+        return 1;
       }
-    return -1;
   }
 
 }
-
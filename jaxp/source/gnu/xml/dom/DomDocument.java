@@ -76,6 +76,11 @@ import org.w3c.dom.xpath.XPathNSResolver;
  * of basic XML conformance tests.  (The huge XML character tables are
  * hairy to implement.)
  *
+ * <p> A document whose content is deferred (see {@link #setDeferred})
+ * creates nodes as read-only accessors reach them. This expansion is
+ * synchronized, so a tree that is not being modified may be read from
+ * several threads at once; as with any DOM, mutation is not thread-safe.
+ *
  * @author David Brownell 
  * @author <a href='mailto:dog@gnu.org'>Chris Burdess</a>
  */
@@ -89,6 +94,18 @@ public class DomDocument
   boolean checkingWellformedness = true;
 
   boolean building; // if true, skip mutation events in the tree
+
+  /**
+   * Incremented whenever a node is inserted or removed anywhere in the
+   * document.
+   */
+  int modCount = 1;
+
+  /**
+   * Value of modCount when document order sequence numbers were last
+   * assigned.
+   */
+  private int orderCount;
   
   DomDocumentConfiguration config;
 
@@ -130,6 +147,171 @@ public class DomDocument
     implementation = impl;
   }
 
+  /**
+   * Assigns a sequence number in document order to every node in the
+   * document tree, including attributes, unless the structure of the
+   * document has not changed since they were last assigned.
+   * Nodes whose orderCount equals the return value have a valid
+   * sequence number.
+   * @return the current modification count
+   */
+  synchronized int updateOrder()
+  {
+    if (orderCount == modCount)
+      {
+        return orderCount;
+      }
+    int count = modCount;
+    int seq = 0;
+    order = seq++;
+    orderCount = count;
+    DomNode ctx = first;
+    while (ctx != null)
+      {
+        ctx.order = seq++;
+        ctx.orderCount = count;
+        if (ctx.nodeType == ELEMENT_NODE && ctx.hasAttributes())
+          {
+            DomNamedNodeMap attrs = (DomNamedNodeMap) ctx.getAttributes();
+            for (DomNode attr = attrs.first; attr != null; attr = attr.next)
+              {
+                attr.order = seq++;
+                attr.orderCount = count;
+              }
+          }
+        // Pre-order traversal
+        if (ctx.first != null)
+          {
+            ctx = ctx.first;
+          }
+        else
+          {
+            while (ctx != this && ctx.next == null)
+              {
+                ctx = ctx.parent;
+              }
+            ctx = (ctx == this) ? null : ctx.next;
+          }
+      }
+    return count;
+  }
+
+  /**
+   * Sets the source of the content of this document. The children of
+   * each node are copied from the corresponding source node the first
+   * time they are accessed, so that a large document parsed into a
+   * compact read-only representation costs little until it is used.
+   * The source must not be modified after this call.
+   * @param source a document whose children are to be copied on demand
+   */
+  public void setDeferred(Document source)
+  {
+    deferred = source.hasChildNodes() ? source : null;
+  }
+
+  /**
+   * Creates the children of the given node from its deferred source.
+   * Elements with content become deferred in turn.
+   * Mutation events are not reported.
+   * Expansion is serialized on the document, and the deferred source is
+   * only cleared once the children are linked, so that threads reading
+   * the same tree see either the source or the complete child list.
+   */
+  synchronized void expand(DomNode node)
+  {
+    Node src = node.deferred;
+    if (src == null)
+      {
+        return; // expanded by another thread
+      }
+    boolean save = building;
+    building = true;
+    for (Node ctx = src.getFirstChild(); ctx != null;
+         ctx = ctx.getNextSibling())
+      {
+        DomNode child;
+        switch (ctx.getNodeType())
+          {
+          case ELEMENT_NODE:
+            child = expandElement(node, ctx);
+            break;
+          case TEXT_NODE:
+            child = new DomText(this, ctx.getNodeValue());
+            break;
+          case CDATA_SECTION_NODE:
+            child = new DomCDATASection(this, ctx.getNodeValue());
+            break;
+          case COMMENT_NODE:
+            child = new DomComment(this, ctx.getNodeValue());
+            break;
+          case PROCESSING_INSTRUCTION_NODE:
+            child = new DomProcessingInstruction(this, ctx.getNodeName(),
+                                                 ctx.getNodeValue());
+            break;
+          default:
+            continue;
+          }
+        // Link the child directly; nothing can be listening to it yet
+        child.parent = node;
+        child.depth = node.depth + 1;
+        child.index = node.length++;
+        if (node.last == null)
+          {
+            node.first = child;
+          }
+        else
+          {
+            node.last.next = child;
+            child.previous = node.last;
+          }
+        node.last = child;
+        if (node.readonly)
+          {
+            child.makeReadonly();
+          }
+      }
+    building = save;
+    modCount++;
+    node.deferred = null;
+  }
+
+  private DomNode expandElement(DomNode parent, Node src)
+  {
+    String localName = src.getLocalName();
+    DomElement element =
+      new DomElement(this, src.getNamespaceURI(), src.getNodeName());
+    if (localName == null)
+      {
+        element.localName = null;
+      }
+    // Attributes are reparented at the element's final depth
+    element.depth = parent.depth + 1;
+    NamedNodeMap srcAttrs = src.getAttributes();
+    int len = srcAttrs.getLength();
+    if (len > 0)
+      {
+        DomNamedNodeMap attrs = (DomNamedNodeMap) element.getAttributes();
+        for (int i = 0; i < len; i++)
+          {
+            Attr srcAttr = (Attr) srcAttrs.item(i);
+            DomAttr attr = new DomAttr(this, srcAttr.getNamespaceURI(),
+                                       srcAttr.getNodeName());
+            if (localName == null)
+              {
+                attr.localName = null;
+              }
+            attr.setNodeValue(srcAttr.getValue());
+            attr.setSpecified(srcAttr.getSpecified());
+            attrs.setNamedItem(attr, localName != null);
+          }
+      }
+    if (src.hasChildNodes())
+      {
+        element.deferred = src;
+      }
+    return element;
+  }
+
   /**
    * Sets the <code>building</code> flag.
    * Mutation events in the document are not reported.
@@ -164,6 +346,7 @@ public class DomDocument
    */
   final public Element getDocumentElement()
   {
+    expand();
     for (DomNode ctx = first; ctx != null; ctx = ctx.next)
       {
         if (ctx.nodeType == ELEMENT_NODE)
@@ -180,6 +363,7 @@ public class DomDocument
    */
   final public DocumentType getDoctype()
   {
+    expand();
     for (DomNode ctx = first; ctx != null; ctx = ctx.next)
       {
       if (ctx.nodeType == DOCUMENT_TYPE_NODE)
@@ -1387,6 +1571,7 @@ public class DomDocument
             break;
           }
       }
+    node.expand();
     for (DomNode ctx = node.first; ctx != null; )
       {
         DomNode ctxNext = ctx.next;
@@ -46,6 +46,8 @@ import org.w3c.dom.DOMImplementation;
 import org.w3c.dom.bootstrap.DOMImplementationRegistry;
 import org.w3c.dom.ls.DOMImplementationLS;
 import org.w3c.dom.ls.LSParser;
+import gnu.xml.dom.compact.CompactDocumentBuilder;
+import gnu.xml.dom.ls.DomLSParser;
 
 /**
  * Document builder factory that uses a DOM Level 3 Load &amp; Save
@@ -59,6 +61,8 @@ public class DomDocumentBuilderFactory
 
   final DOMImplementation impl;
   final DOMImplementationLS ls;
+  boolean compact;
+  boolean deferred;
 
   public DomDocumentBuilderFactory()
   {
@@ -82,6 +86,15 @@ public class DomDocumentBuilderFactory
   public DocumentBuilder newDocumentBuilder()
     throws ParserConfigurationException
   {
+    if (compact)
+      {
+        return new CompactDocumentBuilder(isNamespaceAware(),
+                                          isValidating(),
+                                          isXIncludeAware(),
+                                          isIgnoringElementContentWhitespace(),
+                                          isIgnoringComments(),
+                                          isCoalescing());
+      }
     LSParser parser = ls.createLSParser(DOMImplementationLS.MODE_ASYNCHRONOUS,
                                         "http://www.w3.org/TR/REC-xml");
     DOMConfiguration config = parser.getDomConfig();
@@ -100,6 +113,10 @@ public class DomDocumentBuilderFactory
                  isValidating() ? Boolean.TRUE : Boolean.FALSE);
     setParameter(config, "xinclude-aware",
                  isXIncludeAware() ? Boolean.TRUE : Boolean.FALSE);
+    if (deferred)
+      {
+        setParameter(config, DomLSParser.DEFERRED, Boolean.TRUE);
+      }
     return new DomDocumentBuilder(impl, ls, parser);
   }
 
@@ -115,12 +132,32 @@ public class DomDocumentBuilderFactory
 
   public Object getAttribute(String name)
   {
+    if (CompactDocumentBuilder.COMPACT.equals(name))
+      {
+        return compact ? Boolean.TRUE : Boolean.FALSE;
+      }
+    if (DomLSParser.DEFERRED.equals(name))
+      {
+        return deferred ? Boolean.TRUE : Boolean.FALSE;
+      }
     // TODO
     return null;
   }
 
   public void setAttribute(String name, Object value)
   {
+    if (CompactDocumentBuilder.COMPACT.equals(name))
+      {
+        compact = Boolean.TRUE.equals(value) ||
+          "true".equals(value);
+        return;
+      }
+    if (DomLSParser.DEFERRED.equals(name))
+      {
+        deferred = Boolean.TRUE.equals(value) ||
+          "true".equals(value);
+        return;
+      }
     // TODO
   }
   
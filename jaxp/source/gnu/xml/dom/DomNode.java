@@ -142,6 +142,9 @@ public abstract class DomNode
   int index; // index of this node in its parent's children
   int depth; // depth of the node in the document
   int length; // number of children
+  int order; // position in document order, see DomDocument.updateOrder
+  int orderCount; // value of owner.modCount when order was assigned
+  volatile Node deferred; // source of children not yet created, see DomDocument.expand
   final short nodeType;
 
   // Bleech ... "package private" so a builder can populate entity refs.
@@ -241,6 +244,7 @@ public abstract class DomNode
    */
   public Node getFirstChild()
   {
+    expand();
     return first;
   }
 
@@ -250,6 +254,7 @@ public abstract class DomNode
    */
   public Node getLastChild()
   {
+    expand();
     return last;
   }
 
@@ -259,7 +264,7 @@ public abstract class DomNode
    */
   public boolean hasChildNodes()
   {
-    return length != 0;
+    return length != 0 || deferred != null;
   }
 
 
@@ -294,6 +299,7 @@ public abstract class DomNode
   void setOwner(DomDocument doc)
   {
     this.owner = doc;
+    orderCount = 0;
     for (DomNode ctx = first; ctx != null; ctx = ctx.next)
       {
         ctx.setOwner(doc);
@@ -501,12 +507,41 @@ public abstract class DomNode
     eventDataLock = false;
   }
 
+  /**
+   * Creates the children of this node from its deferred source, if
+   * that has not been done yet. Every method that reads the child list
+   * directly must call this first.
+   */
+  final void expand()
+  {
+    if (deferred != null)
+      {
+        DomDocument doc = (nodeType == DOCUMENT_NODE) ?
+          (DomDocument) this : owner;
+        doc.expand(this);
+      }
+  }
+
+  /**
+   * Sets the depth of this node and its descendants.
+   * This is called whenever a node is inserted or removed, so the
+   * owner document's document order numbering is invalidated here.
+   */
   void setDepth(int depth)
+  {
+    if (owner != null)
+      {
+        owner.modCount++;
+      }
+    setDepth0(depth);
+  }
+
+  private void setDepth0(int depth)
   {
     this.depth = depth;
     for (DomNode ctx = first; ctx != null; ctx = ctx.next)
       {
-        ctx.setDepth(depth + 1);
+        ctx.setDepth0(depth + 1);
       }
   }
 
@@ -528,6 +563,7 @@ public abstract class DomNode
    */
   public Node appendChild(Node newChild)
   {
+    expand();
     try
       {
         DomNode	child = (DomNode) newChild;
@@ -607,6 +643,7 @@ public abstract class DomNode
         return appendChild(newChild);
       }
 
+    expand();
     try
       {
         DomNode	child = (DomNode) newChild;
@@ -707,6 +744,7 @@ public abstract class DomNode
    */
   public Node replaceChild(Node newChild, Node refChild)
   {
+    expand();
     try
       {
         DomNode child = (DomNode) newChild;
@@ -932,6 +970,7 @@ public abstract class DomNode
    */
   public Node item(int index)
   {
+    expand();
     DomNode child = first;
     int count = 0;
     while (child != null && count < index)
@@ -951,6 +990,7 @@ public abstract class DomNode
    */
   public int getLength()
   {
+    expand();
     return length;
   }
 
@@ -1116,7 +1156,12 @@ public abstract class DomNode
   {
     DomNode node = (DomNode) clone();
     
-    if (deep)
+    if (deep && deferred != null)
+      {
+        // The clone shares the unexpanded source of this node
+        node.deferred = deferred;
+      }
+    else if (deep)
       {
         DomDocument doc = (nodeType == DOCUMENT_NODE) ?
           (DomDocument) node : node.owner;
@@ -1168,9 +1213,11 @@ public abstract class DomNode
         node.parent = null;
         node.depth = 0;
         node.index = 0;
+        node.orderCount = 0;
         node.length = 0;
         node.first = null;
         node.last = null;
+        node.deferred = null;
         node.previous = null;
         node.next = null;
         
@@ -1777,6 +1824,7 @@ public abstract class DomNode
     // Suspend readonly status
     boolean saved = readonly;
     readonly = false;
+    expand();
     for (DomNode ctx = first; ctx != null; ctx = ctx.next)
       {
         switch (ctx.nodeType)
@@ -1887,6 +1935,18 @@ public abstract class DomNode
           {
             return 0;
           }
+        DomDocument doc = n1.owner;
+        if (doc != null)
+          {
+            // Compare document order sequence numbers if both nodes
+            // are in the document tree
+            int count = doc.updateOrder();
+            if (n1.orderCount == count && n2.orderCount == count)
+              {
+                return (n1.order < n2.order) ? -1 :
+                  (n1.order == n2.order) ? 0 : 1;
+              }
+          }
         int d1 = n1.depth, d2 = n2.depth;
         int delta = d1 - d2;
         while (d1 > d2)
@@ -1934,6 +1994,7 @@ public abstract class DomNode
       case ENTITY_REFERENCE_NODE:
       case DOCUMENT_FRAGMENT_NODE:
         StringBuffer buffer = new StringBuffer();
+        expand();
         for (DomNode ctx = first; ctx != null; ctx = ctx.next)
           {
             String textContent = ctx.getTextContent(false);
@@ -1970,6 +2031,7 @@ public abstract class DomNode
       case ENTITY_NODE:
       case ENTITY_REFERENCE_NODE:
       case DOCUMENT_FRAGMENT_NODE:
+        deferred = null;
         for (DomNode ctx = first; ctx != null; )
           {
             DomNode n = ctx.next;
@@ -0,0 +1,204 @@
+/* CompactAttr.java -- 
+   Copyright (C) 2004 Free Software Foundation, Inc.
+
+This file is part of GNU Classpath.
+
+GNU Classpath is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2, or (at your option)
+any later version.
+
+GNU Classpath is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with GNU Classpath; see the file COPYING.  If not, write to the
+Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+02110-1301 USA.
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library.  Thus, the terms and
+conditions of the GNU General Public License cover the whole
+combination.
+
+As a special exception, the copyright holders of this library give you
+permission to link this library with independent modules to produce an
+executable, regardless of the license terms of these independent
+modules, and to copy and distribute the resulting executable under
+terms of your choice, provided that you also meet, for each linked
+independent module, the terms and conditions of the license of that
+module.  An independent module is a module which is not derived from
+or based on this library.  If you modify this library, you may extend
+this exception to your version of the library, but you are not
+obligated to do so.  If you do not wish to do so, delete this
+exception statement from your version. */
+
+
+package gnu.xml.dom.compact;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.TypeInfo;
+import gnu.xml.dom.DomDocument;
+
+/**
+ * An attribute of a compact document. The index of an attribute
+ * flyweight is its position in the document's attribute arrays.
+ * Like a GNU DOM attribute, a non-empty attribute has a single text
+ * child holding its value.
+ */
+class CompactAttr
+  extends CompactNode
+  implements Attr
+{
+
+  CompactAttr(CompactDocument doc, int index)
+  {
+    super(doc, index);
+  }
+
+  long order()
+  {
+    return (((long) doc.attrOwners[index]) << 33) +
+      (((long) index + 1) << 1);
+  }
+
+  public short getNodeType()
+  {
+    return ATTRIBUTE_NODE;
+  }
+
+  public String getNodeName()
+  {
+    return doc.qNames[doc.attrNames[index]];
+  }
+
+  public String getName()
+  {
+    return doc.qNames[doc.attrNames[index]];
+  }
+
+  public String getNamespaceURI()
+  {
+    return doc.namespaceURIs[doc.attrNames[index]];
+  }
+
+  public String getLocalName()
+  {
+    return doc.localNames[doc.attrNames[index]];
+  }
+
+  public String getPrefix()
+  {
+    return doc.getPrefix(doc.attrNames[index]);
+  }
+
+  public String getNodeValue()
+  {
+    return doc.values[doc.attrValues[index]];
+  }
+
+  public String getValue()
+  {
+    return doc.values[doc.attrValues[index]];
+  }
+
+  public void setValue(String value)
+  {
+    throw CompactDocument.readonly();
+  }
+
+  public boolean getSpecified()
+  {
+    return doc.defaulted == null || !doc.defaulted.get(index);
+  }
+
+  public Element getOwnerElement()
+  {
+    return (Element) doc.node(doc.attrOwners[index]);
+  }
+
+  public Node getParentNode()
+  {
+    return null;
+  }
+
+  public Node cloneNode(boolean deep)
+  {
+    DomDocument copy = new DomDocument();
+    copy.setDocumentURI(doc.documentURI);
+    return doc.copyAttr(copy, index);
+  }
+
+  private int textChild()
+  {
+    return (getValue().length() == 0) ? CompactDocument.NONE :
+      CompactDocument.textAttr(index);
+  }
+
+  public NodeList getChildNodes()
+  {
+    CompactNodeList list = new CompactNodeList(doc);
+    int text = textChild();
+    if (text != CompactDocument.NONE)
+      {
+        list.add(text);
+      }
+    return list;
+  }
+
+  public Node getFirstChild()
+  {
+    return doc.node(textChild());
+  }
+
+  public Node getLastChild()
+  {
+    return doc.node(textChild());
+  }
+
+  public Node getPreviousSibling()
+  {
+    return null;
+  }
+
+  public Node getNextSibling()
+  {
+    return null;
+  }
+
+  public boolean hasChildNodes()
+  {
+    return getValue().length() > 0;
+  }
+
+  public String getTextContent()
+  {
+    return getValue();
+  }
+
+  public String lookupPrefix(String namespaceURI)
+  {
+    return doc.lookupPrefix(doc.attrOwners[index], namespaceURI);
+  }
+
+  public String lookupNamespaceURI(String prefix)
+  {
+    return doc.lookupNamespaceURI(doc.attrOwners[index], prefix);
+  }
+
+  public TypeInfo getSchemaTypeInfo()
+  {
+    return null;
+  }
+
+  public boolean isId()
+  {
+    return doc.idAttrs != null && doc.idAttrs.get(index);
+  }
+
+}
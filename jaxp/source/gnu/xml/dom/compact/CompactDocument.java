@@ -0,0 +1,781 @@
+/* CompactDocument.java -- 
+   Copyright (C) 2004 Free Software Foundation, Inc.
+
+This file is part of GNU Classpath.
+
+GNU Classpath is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2, or (at your option)
+any later version.
+
+GNU Classpath is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with GNU Classpath; see the file COPYING.  If not, write to the
+Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+02110-1301 USA.
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library.  Thus, the terms and
+conditions of the GNU General Public License cover the whole
+combination.
+
+As a special exception, the copyright holders of this library give you
+permission to link this library with independent modules to produce an
+executable, regardless of the license terms of these independent
+modules, and to copy and distribute the resulting executable under
+terms of your choice, provided that you also meet, for each linked
+independent module, the terms and conditions of the license of that
+module.  An independent module is a module which is not derived from
+or based on this library.  If you modify this library, you may extend
+this exception to your version of the library, but you are not
+obligated to do so.  If you do not wish to do so, delete this
+exception statement from your version. */
+
+
+package gnu.xml.dom.compact;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import javax.xml.XMLConstants;
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Comment;
+import org.w3c.dom.DOMConfiguration;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.EntityReference;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
+import gnu.xml.dom.DomAttr;
+import gnu.xml.dom.DomDOMException;
+import gnu.xml.dom.DomDocument;
+import gnu.xml.dom.DomImpl;
+
+/**
+ * A read-only document whose tree is held in parallel primitive arrays
+ * rather than as one object per node.
+ * <p>
+ * Nodes are numbered in document order, the document itself being node
+ * 0, so that the first child of a node is the node following it and
+ * document order is index order. Each node records its type, parent,
+ * next sibling and name; element and qualified attribute names are
+ * pooled, attribute values are interned, and character data is held in
+ * a single shared buffer. {@link Node} objects are lightweight
+ * flyweights created on demand: two flyweights for the same node are
+ * {@link #equals equal} and {@link Node#isSameNode the same node}, but
+ * not necessarily identical.
+ * <p>
+ * Entity references are always expanded and the document type is not
+ * retained. Any attempt to modify the tree raises a
+ * NO_MODIFICATION_ALLOWED_ERR exception; {@link #cloneNode} returns an
+ * ordinary, mutable GNU DOM copy.
+ *
+ * @see CompactDocumentBuilder
+ */
+public class CompactDocument
+  extends CompactNode
+  implements Document
+{
+
+  static final int NONE = -1;
+
+  // Nodes
+  int length;
+  byte[] types;
+  int[] parents;
+  int[] nexts;
+  int[] names;
+  /* Elements: first attribute. Character data: offset into text. */
+  int[] data;
+  /* Elements: number of attributes. Character data: length of text. */
+  int[] lengths;
+  char[] text;
+  int textLength;
+
+  // Names
+  int nameCount;
+  String[] qNames;
+  String[] localNames;
+  String[] namespaceURIs;
+
+  // Attributes
+  int attrCount;
+  int[] attrNames;
+  int[] attrValues;
+  int[] attrOwners;
+  String[] values;
+  BitSet defaulted;
+  BitSet idAttrs;
+  Map ids;
+
+  String documentURI;
+  String inputEncoding;
+  String xmlEncoding;
+  String xmlVersion = "1.0";
+  boolean xmlStandalone;
+  boolean strictErrorChecking = true;
+
+  private Map userData;
+  private DOMConfiguration config;
+
+  CompactDocument()
+  {
+    super(null, 0);
+  }
+
+  // -- Tree navigation --
+
+  /**
+   * Returns the flyweight for the given node, or null for NONE.
+   * Indices below NONE denote the text child of an attribute.
+   */
+  Node node(int index)
+  {
+    if (index == NONE)
+      {
+        return null;
+      }
+    if (index < NONE)
+      {
+        return new CompactText(this, index);
+      }
+    switch (types[index])
+      {
+      case ELEMENT_NODE:
+        return new CompactElement(this, index);
+      case TEXT_NODE:
+        return new CompactText(this, index);
+      case CDATA_SECTION_NODE:
+        return new CompactCDATASection(this, index);
+      case COMMENT_NODE:
+        return new CompactComment(this, index);
+      case PROCESSING_INSTRUCTION_NODE:
+        return new CompactProcessingInstruction(this, index);
+      default:
+        return this;
+      }
+  }
+
+  /**
+   * Returns the index denoting the text child of the given attribute,
+   * or conversely the attribute whose text child is denoted by the
+   * given index.
+   */
+  static int textAttr(int index)
+  {
+    return NONE - 1 - index;
+  }
+
+  int firstChild(int index)
+  {
+    int child = index + 1;
+    return (child < length && parents[child] == index) ? child : NONE;
+  }
+
+  int lastChild(int index)
+  {
+    int child = firstChild(index);
+    if (child != NONE)
+      {
+        while (nexts[child] != NONE)
+          {
+            child = nexts[child];
+          }
+      }
+    return child;
+  }
+
+  int previousSibling(int index)
+  {
+    int parent = parents[index];
+    if (parent == NONE)
+      {
+        return NONE;
+      }
+    int ctx = index - 1;
+    if (ctx == parent)
+      {
+        return NONE;
+      }
+    // The preceding node is the last descendant of the previous sibling
+    while (parents[ctx] != parent)
+      {
+        ctx = parents[ctx];
+      }
+    return ctx;
+  }
+
+  /**
+   * Returns the index following the last descendant of the given node.
+   */
+  int subtreeEnd(int index)
+  {
+    for (int ctx = index; ctx != NONE; ctx = parents[ctx])
+      {
+        if (nexts[ctx] != NONE)
+          {
+            return nexts[ctx];
+          }
+      }
+    return length;
+  }
+
+  String getData(int index)
+  {
+    if (index < NONE)
+      {
+        return values[attrValues[textAttr(index)]];
+      }
+    return new String(text, data[index], lengths[index]);
+  }
+
+  String getTextContent(int index)
+  {
+    int end = subtreeEnd(index);
+    StringBuffer buf = new StringBuffer();
+    for (int i = index + 1; i < end; i++)
+      {
+        switch (types[i])
+          {
+          case TEXT_NODE:
+          case CDATA_SECTION_NODE:
+            buf.append(text, data[i], lengths[i]);
+            break;
+          }
+      }
+    return buf.toString();
+  }
+
+  int findAttribute(int element, String name)
+  {
+    int start = data[element];
+    int end = start + lengths[element];
+    for (int i = start; i < end; i++)
+      {
+        if (qNames[attrNames[i]].equals(name))
+          {
+            return i;
+          }
+      }
+    return NONE;
+  }
+
+  int findAttributeNS(int element, String uri, String localName)
+  {
+    if ("".equals(uri))
+      {
+        uri = null;
+      }
+    int start = data[element];
+    int end = start + lengths[element];
+    for (int i = start; i < end; i++)
+      {
+        int name = attrNames[i];
+        String ln = localNames[name];
+        if (ln == null)
+          {
+            ln = qNames[name];
+          }
+        if (ln.equals(localName) && equal(namespaceURIs[name], uri))
+          {
+            return i;
+          }
+      }
+    return NONE;
+  }
+
+  NodeList getElementsByTagName(int index, String name)
+  {
+    boolean any = "*".equals(name);
+    CompactNodeList list = new CompactNodeList(this);
+    int end = subtreeEnd(index);
+    for (int i = index + 1; i < end; i++)
+      {
+        if (types[i] == ELEMENT_NODE &&
+            (any || qNames[names[i]].equals(name)))
+          {
+            list.add(i);
+          }
+      }
+    return list;
+  }
+
+  NodeList getElementsByTagNameNS(int index, String uri, String localName)
+  {
+    boolean anyURI = "*".equals(uri);
+    boolean anyName = "*".equals(localName);
+    if ("".equals(uri))
+      {
+        uri = null;
+      }
+    CompactNodeList list = new CompactNodeList(this);
+    int end = subtreeEnd(index);
+    for (int i = index + 1; i < end; i++)
+      {
+        if (types[i] == ELEMENT_NODE)
+          {
+            int name = names[i];
+            String ln = localNames[name];
+            if (ln == null)
+              {
+                ln = qNames[name];
+              }
+            if ((anyName || ln.equals(localName)) &&
+                (anyURI || equal(namespaceURIs[name], uri)))
+              {
+                list.add(i);
+              }
+          }
+      }
+    return list;
+  }
+
+  /**
+   * Resolves a namespace prefix in the scope of the given element.
+   */
+  String lookupNamespaceURI(int element, String prefix)
+  {
+    if ("".equals(prefix))
+      {
+        prefix = null;
+      }
+    for (int ctx = element; ctx > 0; ctx = parents[ctx])
+      {
+        int name = names[ctx];
+        String uri = namespaceURIs[name];
+        if (uri != null && equal(getPrefix(name), prefix))
+          {
+            return uri;
+          }
+        int start = data[ctx];
+        int end = start + lengths[ctx];
+        for (int i = start; i < end; i++)
+          {
+            String qName = qNames[attrNames[i]];
+            if (prefix == null)
+              {
+                if (!XMLConstants.XMLNS_ATTRIBUTE.equals(qName))
+                  {
+                    continue;
+                  }
+              }
+            else if (!qName.startsWith("xmlns:") ||
+                     !qName.regionMatches(6, prefix, 0, prefix.length()) ||
+                     qName.length() != prefix.length() + 6)
+              {
+                continue;
+              }
+            String value = values[attrValues[i]];
+            return (value.length() == 0) ? null : value;
+          }
+      }
+    return null;
+  }
+
+  String lookupPrefix(int element, String uri)
+  {
+    if (uri == null || uri.length() == 0)
+      {
+        return null;
+      }
+    for (int ctx = element; ctx > 0; ctx = parents[ctx])
+      {
+        int name = names[ctx];
+        String prefix = getPrefix(name);
+        if (prefix != null && uri.equals(namespaceURIs[name]))
+          {
+            return prefix;
+          }
+        int start = data[ctx];
+        int end = start + lengths[ctx];
+        for (int i = start; i < end; i++)
+          {
+            String qName = qNames[attrNames[i]];
+            if (qName.startsWith("xmlns:") &&
+                uri.equals(values[attrValues[i]]))
+              {
+                return qName.substring(6);
+              }
+          }
+      }
+    return null;
+  }
+
+  /**
+   * Returns the element in scope for namespace lookups from the given
+   * node, or NONE.
+   */
+  int namespaceContext(int index)
+  {
+    while (index != NONE && types[index] != ELEMENT_NODE)
+      {
+        index = parents[index];
+      }
+    return index;
+  }
+
+  String getPrefix(int name)
+  {
+    if (localNames[name] == null)
+      {
+        return null;
+      }
+    String qName = qNames[name];
+    int ci = qName.indexOf(':');
+    return (ci == -1) ? null : qName.substring(0, ci);
+  }
+
+  static boolean equal(String s1, String s2)
+  {
+    return (s1 == null) ? s2 == null : s1.equals(s2);
+  }
+
+  Object getUserData(Node node, String key)
+  {
+    if (userData == null)
+      {
+        return null;
+      }
+    Map map = (Map) userData.get(node);
+    return (map == null) ? null : map.get(key);
+  }
+
+  Object setUserData(Node node, String key, Object value)
+  {
+    if (userData == null)
+      {
+        if (value == null)
+          {
+            return null;
+          }
+        userData = new HashMap();
+      }
+    Map map = (Map) userData.get(node);
+    if (map == null)
+      {
+        if (value == null)
+          {
+            return null;
+          }
+        map = new HashMap();
+        userData.put(node, map);
+      }
+    return (value == null) ? map.remove(key) : map.put(key, value);
+  }
+
+  static DOMException readonly()
+  {
+    return new DomDOMException(DOMException.NO_MODIFICATION_ALLOWED_ERR);
+  }
+
+  // -- Node --
+
+  public short getNodeType()
+  {
+    return DOCUMENT_NODE;
+  }
+
+  public String getNodeName()
+  {
+    return "#document";
+  }
+
+  public Document getOwnerDocument()
+  {
+    return null;
+  }
+
+  public String getTextContent()
+  {
+    return null;
+  }
+
+  public String getBaseURI()
+  {
+    return documentURI;
+  }
+
+  public String lookupNamespaceURI(String prefix)
+  {
+    int element = firstElement();
+    return (element == NONE) ? null : lookupNamespaceURI(element, prefix);
+  }
+
+  public String lookupPrefix(String namespaceURI)
+  {
+    int element = firstElement();
+    return (element == NONE) ? null : lookupPrefix(element, namespaceURI);
+  }
+
+  /**
+   * Returns an ordinary GNU DOM copy of this document.
+   */
+  public Node cloneNode(boolean deep)
+  {
+    DomDocument copy = new DomDocument();
+    copy.setDocumentURI(documentURI);
+    copy.setXmlVersion(xmlVersion);
+    copy.setXmlStandalone(xmlStandalone);
+    if (deep)
+      {
+        copy.setBuilding(true);
+        for (int i = firstChild(0); i != NONE; i = nexts[i])
+          {
+            copy.appendChild(copy(copy, i, true));
+          }
+        copy.setBuilding(false);
+      }
+    return copy;
+  }
+
+  /**
+   * Copies the given node into an ordinary GNU DOM document.
+   */
+  Node copy(DomDocument dst, int index, boolean deep)
+  {
+    switch (types[index])
+      {
+      case ELEMENT_NODE:
+        int name = names[index];
+        Element element = (localNames[name] == null) ?
+          dst.createElement(qNames[name]) :
+          dst.createElementNS(namespaceURIs[name], qNames[name]);
+        int start = data[index];
+        int end = start + lengths[index];
+        for (int i = start; i < end; i++)
+          {
+            Attr attr = copyAttr(dst, i);
+            if (attr.getLocalName() == null)
+              {
+                element.setAttributeNode(attr);
+              }
+            else
+              {
+                element.setAttributeNodeNS(attr);
+              }
+          }
+        if (deep)
+          {
+            for (int i = firstChild(index); i != NONE; i = nexts[i])
+              {
+                element.appendChild(copy(dst, i, true));
+              }
+          }
+        return element;
+      case TEXT_NODE:
+        return dst.createTextNode(getData(index));
+      case CDATA_SECTION_NODE:
+        return dst.createCDATASection(getData(index));
+      case COMMENT_NODE:
+        return dst.createComment(getData(index));
+      case PROCESSING_INSTRUCTION_NODE:
+        return dst.createProcessingInstruction(qNames[names[index]],
+                                               getData(index));
+      default:
+        return cloneNode(deep);
+      }
+  }
+
+  /**
+   * Copies the given attribute into an ordinary GNU DOM document.
+   */
+  Attr copyAttr(DomDocument dst, int attr)
+  {
+    int name = attrNames[attr];
+    DomAttr copy = (DomAttr) ((localNames[name] == null) ?
+                              dst.createAttribute(qNames[name]) :
+                              dst.createAttributeNS(namespaceURIs[name],
+                                                    qNames[name]));
+    copy.setValue(values[attrValues[attr]]);
+    copy.setSpecified(defaulted == null || !defaulted.get(attr));
+    return copy;
+  }
+
+  // -- Document --
+
+  public DocumentType getDoctype()
+  {
+    return null;
+  }
+
+  public DOMImplementation getImplementation()
+  {
+    return new DomImpl();
+  }
+
+  int firstElement()
+  {
+    for (int i = firstChild(0); i != NONE; i = nexts[i])
+      {
+        if (types[i] == ELEMENT_NODE)
+          {
+            return i;
+          }
+      }
+    return NONE;
+  }
+
+  public Element getDocumentElement()
+  {
+    return (Element) node(firstElement());
+  }
+
+  public Element createElement(String tagName)
+  {
+    throw readonly();
+  }
+
+  public DocumentFragment createDocumentFragment()
+  {
+    throw readonly();
+  }
+
+  public Text createTextNode(String data)
+  {
+    throw readonly();
+  }
+
+  public Comment createComment(String data)
+  {
+    throw readonly();
+  }
+
+  public CDATASection createCDATASection(String data)
+  {
+    throw readonly();
+  }
+
+  public ProcessingInstruction createProcessingInstruction(String target,
+                                                           String data)
+  {
+    throw readonly();
+  }
+
+  public Attr createAttribute(String name)
+  {
+    throw readonly();
+  }
+
+  public EntityReference createEntityReference(String name)
+  {
+    throw readonly();
+  }
+
+  public NodeList getElementsByTagName(String tagname)
+  {
+    return getElementsByTagName(0, tagname);
+  }
+
+  public Node importNode(Node importedNode, boolean deep)
+  {
+    throw readonly();
+  }
+
+  public Element createElementNS(String namespaceURI, String qualifiedName)
+  {
+    throw readonly();
+  }
+
+  public Attr createAttributeNS(String namespaceURI, String qualifiedName)
+  {
+    throw readonly();
+  }
+
+  public NodeList getElementsByTagNameNS(String namespaceURI,
+                                         String localName)
+  {
+    return getElementsByTagNameNS(0, namespaceURI, localName);
+  }
+
+  public Element getElementById(String elementId)
+  {
+    Integer element = (ids == null) ? null : (Integer) ids.get(elementId);
+    return (element == null) ? null : (Element) node(element.intValue());
+  }
+
+  public String getInputEncoding()
+  {
+    return inputEncoding;
+  }
+
+  public String getXmlEncoding()
+  {
+    return xmlEncoding;
+  }
+
+  public boolean getXmlStandalone()
+  {
+    return xmlStandalone;
+  }
+
+  public void setXmlStandalone(boolean xmlStandalone)
+  {
+    throw readonly();
+  }
+
+  public String getXmlVersion()
+  {
+    return xmlVersion;
+  }
+
+  public void setXmlVersion(String xmlVersion)
+  {
+    throw readonly();
+  }
+
+  public boolean getStrictErrorChecking()
+  {
+    return strictErrorChecking;
+  }
+
+  public void setStrictErrorChecking(boolean strictErrorChecking)
+  {
+    this.strictErrorChecking = strictErrorChecking;
+  }
+
+  public String getDocumentURI()
+  {
+    return documentURI;
+  }
+
+  public void setDocumentURI(String documentURI)
+  {
+    this.documentURI = documentURI;
+  }
+
+  public Node adoptNode(Node source)
+  {
+    throw readonly();
+  }
+
+  public DOMConfiguration getDomConfig()
+  {
+    if (config == null)
+      {
+        config = new DomDocument().getDomConfig();
+      }
+    return config;
+  }
+
+  public void normalizeDocument()
+  {
+    // Text is coalesced when the document is built
+  }
+
+  public Node renameNode(Node n, String namespaceURI, String qualifiedName)
+  {
+    throw readonly();
+  }
+
+}
@@ -0,0 +1,190 @@
+/* CompactDocumentBuilder.java -- 
+   Copyright (C) 2004 Free Software Foundation, Inc.
+
+This file is part of GNU Classpath.
+
+GNU Classpath is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2, or (at your option)
+any later version.
+
+GNU Classpath is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with GNU Classpath; see the file COPYING.  If not, write to the
+Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+02110-1301 USA.
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library.  Thus, the terms and
+conditions of the GNU General Public License cover the whole
+combination.
+
+As a special exception, the copyright holders of this library give you
+permission to link this library with independent modules to produce an
+executable, regardless of the license terms of these independent
+modules, and to copy and distribute the resulting executable under
+terms of your choice, provided that you also meet, for each linked
+independent module, the terms and conditions of the license of that
+module.  An independent module is a module which is not derived from
+or based on this library.  If you modify this library, you may extend
+this exception to your version of the library, but you are not
+obligated to do so.  If you do not wish to do so, delete this
+exception statement from your version. */
+
+
+package gnu.xml.dom.compact;
+
+import java.io.IOException;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.DOMImplementation;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.XMLReader;
+import gnu.xml.dom.DomDocument;
+import gnu.xml.dom.DomImpl;
+
+/**
+ * Document builder producing read-only {@link CompactDocument}s.
+ * This is used by the GNU DOM document builder factory when its
+ * {@link #COMPACT} attribute is set.
+ * <p>
+ * Entity references are always expanded. New documents created by
+ * {@link #newDocument} are ordinary, mutable GNU DOM documents.
+ */
+public class CompactDocumentBuilder
+  extends DocumentBuilder
+{
+
+  /**
+   * The document builder factory attribute selecting compact,
+   * read-only documents.
+   */
+  public static final String COMPACT = "http://gnu.org/xml/dom/compact";
+
+  final boolean namespaceAware;
+  final boolean validating;
+  final boolean xIncludeAware;
+  final boolean ignoreWhitespace;
+  final boolean ignoreComments;
+  final boolean coalescing;
+  private EntityResolver entityResolver;
+  private ErrorHandler errorHandler;
+  private XMLReader reader;
+
+  public CompactDocumentBuilder(boolean namespaceAware,
+                                boolean validating,
+                                boolean xIncludeAware,
+                                boolean ignoreWhitespace,
+                                boolean ignoreComments,
+                                boolean coalescing)
+  {
+    this.namespaceAware = namespaceAware;
+    this.validating = validating;
+    this.xIncludeAware = xIncludeAware;
+    this.ignoreWhitespace = ignoreWhitespace;
+    this.ignoreComments = ignoreComments;
+    this.coalescing = coalescing;
+  }
+
+  public boolean isNamespaceAware()
+  {
+    return namespaceAware;
+  }
+
+  public boolean isValidating()
+  {
+    return validating;
+  }
+
+  public boolean isXIncludeAware()
+  {
+    return xIncludeAware;
+  }
+
+  public void setEntityResolver(EntityResolver resolver)
+  {
+    entityResolver = resolver;
+  }
+
+  public void setErrorHandler(ErrorHandler handler)
+  {
+    errorHandler = handler;
+  }
+
+  public DOMImplementation getDOMImplementation()
+  {
+    return new DomImpl();
+  }
+
+  public Document newDocument()
+  {
+    return new DomDocument();
+  }
+
+  public Document parse(InputSource is)
+    throws SAXException, IOException
+  {
+    CompactDocumentHandler handler =
+      new CompactDocumentHandler(namespaceAware, ignoreWhitespace,
+                                 ignoreComments, coalescing);
+    XMLReader reader = getXMLReader();
+    reader.setContentHandler(handler);
+    reader.setProperty("http://xml.org/sax/properties/lexical-handler",
+                       handler);
+    reader.setFeature("http://xml.org/sax/features/namespaces",
+                      namespaceAware);
+    reader.setFeature("http://xml.org/sax/features/namespace-prefixes",
+                      true);
+    reader.setFeature("http://xml.org/sax/features/validation",
+                      validating);
+    try
+      {
+        reader.setFeature("http://xml.org/sax/features/use-attributes2",
+                          true);
+      }
+    catch (SAXNotRecognizedException e)
+      {
+        // ignore
+      }
+    reader.setEntityResolver(entityResolver);
+    reader.setErrorHandler(errorHandler);
+    reader.parse(is);
+    CompactDocument doc = handler.getDocument();
+    doc.documentURI = is.getSystemId();
+    return doc;
+  }
+
+  private XMLReader getXMLReader()
+    throws SAXException
+  {
+    if (reader == null)
+      {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(namespaceAware);
+        factory.setValidating(validating);
+        factory.setXIncludeAware(xIncludeAware);
+        try
+          {
+            SAXParser parser = factory.newSAXParser();
+            reader = parser.getXMLReader();
+          }
+        catch (ParserConfigurationException e)
+          {
+            throw new SAXException(e);
+          }
+      }
+    return reader;
+  }
+
+}
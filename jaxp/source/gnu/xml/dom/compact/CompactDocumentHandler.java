@@ -0,0 +1,534 @@
+/* CompactDocumentHandler.java -- 
+   Copyright (C) 2004 Free Software Foundation, Inc.
+
+This file is part of GNU Classpath.
+
+GNU Classpath is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2, or (at your option)
+any later version.
+
+GNU Classpath is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with GNU Classpath; see the file COPYING.  If not, write to the
+Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+02110-1301 USA.
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library.  Thus, the terms and
+conditions of the GNU General Public License cover the whole
+combination.
+
+As a special exception, the copyright holders of this library give you
+permission to link this library with independent modules to produce an
+executable, regardless of the license terms of these independent
+modules, and to copy and distribute the resulting executable under
+terms of your choice, provided that you also meet, for each linked
+independent module, the terms and conditions of the license of that
+module.  An independent module is a module which is not derived from
+or based on this library.  If you modify this library, you may extend
+this exception to your version of the library, but you are not
+obligated to do so.  If you do not wish to do so, delete this
+exception statement from your version. */
+
+
+package gnu.xml.dom.compact;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import javax.xml.XMLConstants;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.Attributes2;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.ext.Locator2;
+
+/**
+ * A SAX content and lexical handler that fills the arrays of a compact
+ * document. Nodes are appended in document order; adjacent character
+ * data is coalesced into a single node.
+ * This is also used to record the content of a deferred GNU DOM
+ * document, see {@link gnu.xml.dom.DomDocument#setDeferred}.
+ */
+public class CompactDocumentHandler
+  implements ContentHandler, LexicalHandler
+{
+
+  private static final int NONE = CompactDocument.NONE;
+
+  boolean namespaceAware;
+  boolean ignoreWhitespace;
+  boolean ignoreComments;
+  boolean coalescing;
+
+  CompactDocument doc;
+  Locator locator;
+
+  // Open nodes and the last child of each
+  private int[] stack;
+  private int[] last;
+  private int depth;
+
+  // Name and value pools, used only while building
+  private HashMap nameIndex;
+  private int[] nameNext;
+  private HashMap valueIndex;
+  private int valueCount;
+
+  private boolean inCDATA;
+  private boolean inDTD;
+  private boolean split;
+
+  public CompactDocumentHandler(boolean namespaceAware,
+                                boolean ignoreWhitespace,
+                                boolean ignoreComments,
+                                boolean coalescing)
+  {
+    this.namespaceAware = namespaceAware;
+    this.ignoreWhitespace = ignoreWhitespace;
+    this.ignoreComments = ignoreComments;
+    this.coalescing = coalescing;
+  }
+
+  /**
+   * Returns the document built by the last parse.
+   */
+  public CompactDocument getDocument()
+  {
+    return doc;
+  }
+
+  // -- ContentHandler --
+
+  public void setDocumentLocator(Locator locator)
+  {
+    this.locator = locator;
+  }
+
+  public void startDocument()
+    throws SAXException
+  {
+    doc = new CompactDocument();
+    int len = 1024;
+    doc.types = new byte[len];
+    doc.parents = new int[len];
+    doc.nexts = new int[len];
+    doc.names = new int[len];
+    doc.data = new int[len];
+    doc.lengths = new int[len];
+    doc.text = new char[len * 8];
+    doc.qNames = new String[64];
+    doc.localNames = new String[64];
+    doc.namespaceURIs = new String[64];
+    doc.attrNames = new int[len];
+    doc.attrValues = new int[len];
+    doc.attrOwners = new int[len];
+    doc.values = new String[len];
+    nameIndex = new HashMap();
+    nameNext = new int[64];
+    valueIndex = new HashMap();
+    valueCount = 0;
+    stack = new int[32];
+    last = new int[32];
+    depth = 0;
+    // The document node
+    doc.types[0] = Node.DOCUMENT_NODE;
+    doc.parents[0] = NONE;
+    doc.nexts[0] = NONE;
+    doc.names[0] = NONE;
+    doc.length = 1;
+    stack[0] = 0;
+    last[0] = NONE;
+    inCDATA = false;
+    inDTD = false;
+    split = false;
+  }
+
+  public void endDocument()
+    throws SAXException
+  {
+    if (locator instanceof Locator2)
+      {
+        Locator2 l2 = (Locator2) locator;
+        String version = l2.getXMLVersion();
+        if (version != null)
+          {
+            doc.xmlVersion = version;
+          }
+        doc.inputEncoding = l2.getEncoding();
+      }
+    trim();
+    nameIndex = null;
+    nameNext = null;
+    valueIndex = null;
+    stack = null;
+    last = null;
+    locator = null;
+  }
+
+  public void startPrefixMapping(String prefix, String uri)
+    throws SAXException
+  {
+    // Declarations are reported as xmlns attributes
+  }
+
+  public void endPrefixMapping(String prefix)
+    throws SAXException
+  {
+  }
+
+  public void startElement(String uri, String localName, String qName,
+                           Attributes atts)
+    throws SAXException
+  {
+    int name = namespaceAware ? name(uri, localName, qName) :
+      name(null, null, qName);
+    int element = addNode(Node.ELEMENT_NODE, name);
+    int len = atts.getLength();
+    doc.data[element] = doc.attrCount;
+    doc.lengths[element] = len;
+    for (int i = 0; i < len; i++)
+      {
+        addAttribute(element, atts, i);
+      }
+    depth++;
+    if (depth == stack.length)
+      {
+        int[] s = new int[depth * 2];
+        System.arraycopy(stack, 0, s, 0, depth);
+        stack = s;
+        int[] l = new int[depth * 2];
+        System.arraycopy(last, 0, l, 0, depth);
+        last = l;
+      }
+    stack[depth] = element;
+    last[depth] = NONE;
+  }
+
+  public void endElement(String uri, String localName, String qName)
+    throws SAXException
+  {
+    depth--;
+  }
+
+  public void characters(char[] c, int off, int len)
+    throws SAXException
+  {
+    if (len == 0)
+      {
+        return;
+      }
+    int type = (inCDATA && !coalescing) ? Node.CDATA_SECTION_NODE :
+      Node.TEXT_NODE;
+    int prev = last[depth];
+    if (!split && prev != NONE && doc.types[prev] == type &&
+        doc.data[prev] + doc.lengths[prev] == doc.textLength)
+      {
+        // Coalesce with the preceding text
+        addChars(c, off, len);
+        doc.lengths[prev] += len;
+      }
+    else
+      {
+        int text = addNode(type, NONE);
+        doc.data[text] = doc.textLength;
+        doc.lengths[text] = len;
+        addChars(c, off, len);
+      }
+    split = false;
+  }
+
+  public void ignorableWhitespace(char[] c, int off, int len)
+    throws SAXException
+  {
+    if (!ignoreWhitespace)
+      {
+        characters(c, off, len);
+      }
+  }
+
+  public void processingInstruction(String target, String data)
+    throws SAXException
+  {
+    if (inDTD)
+      {
+        return;
+      }
+    int pi = addNode(Node.PROCESSING_INSTRUCTION_NODE,
+                     name(null, null, target));
+    int len = data.length();
+    char[] c = data.toCharArray();
+    doc.data[pi] = doc.textLength;
+    doc.lengths[pi] = len;
+    addChars(c, 0, len);
+  }
+
+  public void skippedEntity(String name)
+    throws SAXException
+  {
+  }
+
+  // -- LexicalHandler --
+
+  public void startDTD(String name, String publicId, String systemId)
+    throws SAXException
+  {
+    inDTD = true;
+  }
+
+  public void endDTD()
+    throws SAXException
+  {
+    inDTD = false;
+  }
+
+  public void startEntity(String name)
+    throws SAXException
+  {
+    // Entity references are always expanded
+  }
+
+  public void endEntity(String name)
+    throws SAXException
+  {
+  }
+
+  public void startCDATA()
+    throws SAXException
+  {
+    inCDATA = true;
+    split = !coalescing;
+  }
+
+  public void endCDATA()
+    throws SAXException
+  {
+    inCDATA = false;
+    split = !coalescing;
+  }
+
+  public void comment(char[] c, int off, int len)
+    throws SAXException
+  {
+    if (inDTD || ignoreComments)
+      {
+        return;
+      }
+    int comment = addNode(Node.COMMENT_NODE, NONE);
+    doc.data[comment] = doc.textLength;
+    doc.lengths[comment] = len;
+    addChars(c, off, len);
+  }
+
+  // -- Building --
+
+  private int addNode(int type, int name)
+  {
+    int node = doc.length;
+    if (node == doc.types.length)
+      {
+        int len = node * 2;
+        byte[] t = new byte[len];
+        System.arraycopy(doc.types, 0, t, 0, node);
+        doc.types = t;
+        doc.parents = grow(doc.parents, node, len);
+        doc.nexts = grow(doc.nexts, node, len);
+        doc.names = grow(doc.names, node, len);
+        doc.data = grow(doc.data, node, len);
+        doc.lengths = grow(doc.lengths, node, len);
+      }
+    doc.length++;
+    doc.types[node] = (byte) type;
+    doc.parents[node] = stack[depth];
+    doc.nexts[node] = NONE;
+    doc.names[node] = name;
+    doc.data[node] = 0;
+    doc.lengths[node] = 0;
+    int prev = last[depth];
+    if (prev != NONE)
+      {
+        doc.nexts[prev] = node;
+      }
+    last[depth] = node;
+    return node;
+  }
+
+  private void addChars(char[] c, int off, int len)
+  {
+    int end = doc.textLength + len;
+    if (end > doc.text.length)
+      {
+        int size = doc.text.length * 2;
+        while (size < end)
+          {
+            size *= 2;
+          }
+        char[] t = new char[size];
+        System.arraycopy(doc.text, 0, t, 0, doc.textLength);
+        doc.text = t;
+      }
+    System.arraycopy(c, off, doc.text, doc.textLength, len);
+    doc.textLength = end;
+  }
+
+  private void addAttribute(int element, Attributes atts, int index)
+  {
+    int attr = doc.attrCount;
+    if (attr == doc.attrNames.length)
+      {
+        int len = attr * 2;
+        doc.attrNames = grow(doc.attrNames, attr, len);
+        doc.attrValues = grow(doc.attrValues, attr, len);
+        doc.attrOwners = grow(doc.attrOwners, attr, len);
+      }
+    doc.attrCount++;
+    String qName = atts.getQName(index);
+    doc.attrNames[attr] = namespaceAware ?
+      name(atts.getURI(index), atts.getLocalName(index), qName) :
+      name(null, null, qName);
+    doc.attrOwners[attr] = element;
+    String value = atts.getValue(index);
+    doc.attrValues[attr] = value(value);
+    if (atts instanceof Attributes2 &&
+        !((Attributes2) atts).isSpecified(index))
+      {
+        if (doc.defaulted == null)
+          {
+            doc.defaulted = new BitSet();
+          }
+        doc.defaulted.set(attr);
+      }
+    if ("ID".equals(atts.getType(index)))
+      {
+        if (doc.idAttrs == null)
+          {
+            doc.idAttrs = new BitSet();
+            doc.ids = new HashMap();
+          }
+        doc.idAttrs.set(attr);
+        if (!doc.ids.containsKey(value))
+          {
+            doc.ids.put(value, new Integer(element));
+          }
+      }
+  }
+
+  /**
+   * Returns the pooled name for the given components.
+   */
+  private int name(String uri, String localName, String qName)
+  {
+    if (namespaceAware && localName != null)
+      {
+        if (uri != null && uri.length() == 0)
+          {
+            uri = null;
+          }
+        if (localName.length() == 0)
+          {
+            int ci = qName.indexOf(':');
+            localName = (ci == -1) ? qName : qName.substring(ci + 1);
+          }
+        if (uri == null && (XMLConstants.XMLNS_ATTRIBUTE.equals(qName) ||
+                            qName.startsWith("xmlns:")))
+          {
+            uri = XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+          }
+      }
+    Integer first = (Integer) nameIndex.get(qName);
+    int next = (first == null) ? NONE : first.intValue();
+    for (int id = next; id != NONE; id = nameNext[id])
+      {
+        if (CompactDocument.equal(doc.namespaceURIs[id], uri) &&
+            CompactDocument.equal(doc.localNames[id], localName))
+          {
+            return id;
+          }
+      }
+    int id = doc.nameCount++;
+    if (id == doc.qNames.length)
+      {
+        int len = id * 2;
+        doc.qNames = grow(doc.qNames, id, len);
+        doc.localNames = grow(doc.localNames, id, len);
+        doc.namespaceURIs = grow(doc.namespaceURIs, id, len);
+        nameNext = grow(nameNext, id, len);
+      }
+    doc.qNames[id] = qName;
+    doc.localNames[id] = localName;
+    doc.namespaceURIs[id] = uri;
+    nameNext[id] = next;
+    nameIndex.put(qName, new Integer(id));
+    return id;
+  }
+
+  /**
+   * Returns the pooled attribute value.
+   */
+  private int value(String value)
+  {
+    Integer index = (Integer) valueIndex.get(value);
+    if (index != null)
+      {
+        return index.intValue();
+      }
+    int id = valueCount++;
+    if (id == doc.values.length)
+      {
+        doc.values = grow(doc.values, id, id * 2);
+      }
+    doc.values[id] = value;
+    valueIndex.put(value, new Integer(id));
+    return id;
+  }
+
+  /**
+   * Reduces the document arrays to their used sizes.
+   */
+  private void trim()
+  {
+    int len = doc.length;
+    byte[] t = new byte[len];
+    System.arraycopy(doc.types, 0, t, 0, len);
+    doc.types = t;
+    doc.parents = grow(doc.parents, len, len);
+    doc.nexts = grow(doc.nexts, len, len);
+    doc.names = grow(doc.names, len, len);
+    doc.data = grow(doc.data, len, len);
+    doc.lengths = grow(doc.lengths, len, len);
+    char[] text = new char[doc.textLength];
+    System.arraycopy(doc.text, 0, text, 0, doc.textLength);
+    doc.text = text;
+    int count = doc.nameCount;
+    doc.qNames = grow(doc.qNames, count, count);
+    doc.localNames = grow(doc.localNames, count, count);
+    doc.namespaceURIs = grow(doc.namespaceURIs, count, count);
+    count = doc.attrCount;
+    doc.attrNames = grow(doc.attrNames, count, count);
+    doc.attrValues = grow(doc.attrValues, count, count);
+    doc.attrOwners = grow(doc.attrOwners, count, count);
+    doc.values = grow(doc.values, valueCount, valueCount);
+  }
+
+  private static int[] grow(int[] array, int count, int len)
+  {
+    int[] a = new int[len];
+    System.arraycopy(array, 0, a, 0, count);
+    return a;
+  }
+
+  private static String[] grow(String[] array, int count, int len)
+  {
+    String[] a = new String[len];
+    System.arraycopy(array, 0, a, 0, count);
+    return a;
+  }
+
+}
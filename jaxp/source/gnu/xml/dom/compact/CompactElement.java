@@ -0,0 +1,212 @@
+/* CompactElement.java -- 
+   Copyright (C) 2004 Free Software Foundation, Inc.
+
+This file is part of GNU Classpath.
+
+GNU Classpath is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2, or (at your option)
+any later version.
+
+GNU Classpath is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with GNU Classpath; see the file COPYING.  If not, write to the
+Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+02110-1301 USA.
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library.  Thus, the terms and
+conditions of the GNU General Public License cover the whole
+combination.
+
+As a special exception, the copyright holders of this library give you
+permission to link this library with independent modules to produce an
+executable, regardless of the license terms of these independent
+modules, and to copy and distribute the resulting executable under
+terms of your choice, provided that you also meet, for each linked
+independent module, the terms and conditions of the license of that
+module.  An independent module is a module which is not derived from
+or based on this library.  If you modify this library, you may extend
+this exception to your version of the library, but you are not
+obligated to do so.  If you do not wish to do so, delete this
+exception statement from your version. */
+
+
+package gnu.xml.dom.compact;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.TypeInfo;
+
+/**
+ * An element of a compact document.
+ */
+class CompactElement
+  extends CompactNode
+  implements Element
+{
+
+  CompactElement(CompactDocument doc, int index)
+  {
+    super(doc, index);
+  }
+
+  public short getNodeType()
+  {
+    return ELEMENT_NODE;
+  }
+
+  public String getNodeName()
+  {
+    return doc.qNames[doc.names[index]];
+  }
+
+  public String getTagName()
+  {
+    return doc.qNames[doc.names[index]];
+  }
+
+  public String getNamespaceURI()
+  {
+    return doc.namespaceURIs[doc.names[index]];
+  }
+
+  public String getLocalName()
+  {
+    return doc.localNames[doc.names[index]];
+  }
+
+  public String getPrefix()
+  {
+    return doc.getPrefix(doc.names[index]);
+  }
+
+  public NamedNodeMap getAttributes()
+  {
+    return new CompactNamedNodeMap(doc, index);
+  }
+
+  public boolean hasAttributes()
+  {
+    return doc.lengths[index] > 0;
+  }
+
+  public String getTextContent()
+  {
+    return doc.getTextContent(index);
+  }
+
+  public String getAttribute(String name)
+  {
+    int attr = doc.findAttribute(index, name);
+    return (attr == CompactDocument.NONE) ? "" :
+      doc.values[doc.attrValues[attr]];
+  }
+
+  public void setAttribute(String name, String value)
+  {
+    throw CompactDocument.readonly();
+  }
+
+  public void removeAttribute(String name)
+  {
+    throw CompactDocument.readonly();
+  }
+
+  public Attr getAttributeNode(String name)
+  {
+    int attr = doc.findAttribute(index, name);
+    return (attr == CompactDocument.NONE) ? null :
+      new CompactAttr(doc, attr);
+  }
+
+  public Attr setAttributeNode(Attr newAttr)
+  {
+    throw CompactDocument.readonly();
+  }
+
+  public Attr removeAttributeNode(Attr oldAttr)
+  {
+    throw CompactDocument.readonly();
+  }
+
+  public NodeList getElementsByTagName(String name)
+  {
+    return doc.getElementsByTagName(index, name);
+  }
+
+  public String getAttributeNS(String namespaceURI, String localName)
+  {
+    int attr = doc.findAttributeNS(index, namespaceURI, localName);
+    return (attr == CompactDocument.NONE) ? "" :
+      doc.values[doc.attrValues[attr]];
+  }
+
+  public void setAttributeNS(String namespaceURI, String qualifiedName,
+                             String value)
+  {
+    throw CompactDocument.readonly();
+  }
+
+  public void removeAttributeNS(String namespaceURI, String localName)
+  {
+    throw CompactDocument.readonly();
+  }
+
+  public Attr getAttributeNodeNS(String namespaceURI, String localName)
+  {
+    int attr = doc.findAttributeNS(index, namespaceURI, localName);
+    return (attr == CompactDocument.NONE) ? null :
+      new CompactAttr(doc, attr);
+  }
+
+  public Attr setAttributeNodeNS(Attr newAttr)
+  {
+    throw CompactDocument.readonly();
+  }
+
+  public NodeList getElementsByTagNameNS(String namespaceURI,
+                                         String localName)
+  {
+    return doc.getElementsByTagNameNS(index, namespaceURI, localName);
+  }
+
+  public boolean hasAttribute(String name)
+  {
+    return doc.findAttribute(index, name) != CompactDocument.NONE;
+  }
+
+  public boolean hasAttributeNS(String namespaceURI, String localName)
+  {
+    return doc.findAttributeNS(index, namespaceURI, localName) !=
+      CompactDocument.NONE;
+  }
+
+  public TypeInfo getSchemaTypeInfo()
+  {
+    return null;
+  }
+
+  public void setIdAttribute(String name, boolean isId)
+  {
+    throw CompactDocument.readonly();
+  }
+
+  public void setIdAttributeNS(String namespaceURI, String localName,
+                               boolean isId)
+  {
+    throw CompactDocument.readonly();
+  }
+
+  public void setIdAttributeNode(Attr idAttr, boolean isId)
+  {
+    throw CompactDocument.readonly();
+  }
+
+}
@@ -0,0 +1,344 @@
+/* CompactNode.java -- 
+   Copyright (C) 2004 Free Software Foundation, Inc.
+
+This file is part of GNU Classpath.
+
+GNU Classpath is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2, or (at your option)
+any later version.
+
+GNU Classpath is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with GNU Classpath; see the file COPYING.  If not, write to the
+Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+02110-1301 USA.
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library.  Thus, the terms and
+conditions of the GNU General Public License cover the whole
+combination.
+
+As a special exception, the copyright holders of this library give you
+permission to link this library with independent modules to produce an
+executable, regardless of the license terms of these independent
+modules, and to copy and distribute the resulting executable under
+terms of your choice, provided that you also meet, for each linked
+independent module, the terms and conditions of the license of that
+module.  An independent module is a module which is not derived from
+or based on this library.  If you modify this library, you may extend
+this exception to your version of the library, but you are not
+obligated to do so.  If you do not wish to do so, delete this
+exception statement from your version. */
+
+
+package gnu.xml.dom.compact;
+
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.UserDataHandler;
+import gnu.xml.dom.DomDocument;
+
+/**
+ * A flyweight view of one node of a compact document.
+ * Subclasses supply the type-specific behaviour; the tree itself is
+ * held by the owner document.
+ */
+abstract class CompactNode
+  implements Node
+{
+
+  final CompactDocument doc;
+  final int index;
+
+  CompactNode(CompactDocument doc, int index)
+  {
+    this.doc = (doc == null) ? (CompactDocument) this : doc;
+    this.index = index;
+  }
+
+  /**
+   * Returns a key giving the position of this node in document order.
+   */
+  long order()
+  {
+    return ((long) index) << 33;
+  }
+
+  public String getNodeValue()
+  {
+    return null;
+  }
+
+  public void setNodeValue(String nodeValue)
+  {
+    throw CompactDocument.readonly();
+  }
+
+  public Node getParentNode()
+  {
+    return doc.node(doc.parents[index]);
+  }
+
+  public NodeList getChildNodes()
+  {
+    return new CompactNodeList(doc, index);
+  }
+
+  public Node getFirstChild()
+  {
+    return doc.node(doc.firstChild(index));
+  }
+
+  public Node getLastChild()
+  {
+    return doc.node(doc.lastChild(index));
+  }
+
+  public Node getPreviousSibling()
+  {
+    return doc.node(doc.previousSibling(index));
+  }
+
+  public Node getNextSibling()
+  {
+    return doc.node(doc.nexts[index]);
+  }
+
+  public NamedNodeMap getAttributes()
+  {
+    return null;
+  }
+
+  public Document getOwnerDocument()
+  {
+    return doc;
+  }
+
+  public Node insertBefore(Node newChild, Node refChild)
+  {
+    throw CompactDocument.readonly();
+  }
+
+  public Node replaceChild(Node newChild, Node oldChild)
+  {
+    throw CompactDocument.readonly();
+  }
+
+  public Node removeChild(Node oldChild)
+  {
+    throw CompactDocument.readonly();
+  }
+
+  public Node appendChild(Node newChild)
+  {
+    throw CompactDocument.readonly();
+  }
+
+  public boolean hasChildNodes()
+  {
+    return doc.firstChild(index) != CompactDocument.NONE;
+  }
+
+  /**
+   * Returns an ordinary GNU DOM copy of this node, owned by a new
+   * document.
+   */
+  public Node cloneNode(boolean deep)
+  {
+    DomDocument copy = new DomDocument();
+    copy.setDocumentURI(doc.documentURI);
+    copy.setBuilding(true);
+    Node node = doc.copy(copy, index, deep);
+    copy.setBuilding(false);
+    return node;
+  }
+
+  public void normalize()
+  {
+    // Text is coalesced when the document is built
+  }
+
+  public boolean isSupported(String feature, String version)
+  {
+    return doc.getImplementation().hasFeature(feature, version);
+  }
+
+  public String getNamespaceURI()
+  {
+    return null;
+  }
+
+  public String getPrefix()
+  {
+    return null;
+  }
+
+  public void setPrefix(String prefix)
+  {
+    throw CompactDocument.readonly();
+  }
+
+  public String getLocalName()
+  {
+    return null;
+  }
+
+  public boolean hasAttributes()
+  {
+    return false;
+  }
+
+  public String getBaseURI()
+  {
+    return doc.documentURI;
+  }
+
+  /**
+   * Compares document order in the same way as the GNU DOM: the result
+   * is negative, zero or positive as this node precedes, is the same
+   * as, or follows the other node.
+   */
+  public short compareDocumentPosition(Node other)
+    throws DOMException
+  {
+    if (other instanceof CompactNode)
+      {
+        CompactNode node = (CompactNode) other;
+        if (node.doc == doc)
+          {
+            long o1 = order();
+            long o2 = node.order();
+            return (short) ((o1 < o2) ? -1 : (o1 == o2) ? 0 : 1);
+          }
+      }
+    return 0;
+  }
+
+  public String getTextContent()
+  {
+    return getNodeValue();
+  }
+
+  public void setTextContent(String textContent)
+  {
+    throw CompactDocument.readonly();
+  }
+
+  public boolean isSameNode(Node other)
+  {
+    return equals(other);
+  }
+
+  public String lookupPrefix(String namespaceURI)
+  {
+    int element = doc.namespaceContext(index);
+    return (element == CompactDocument.NONE) ? null :
+      doc.lookupPrefix(element, namespaceURI);
+  }
+
+  public boolean isDefaultNamespace(String namespaceURI)
+  {
+    return CompactDocument.equal(lookupNamespaceURI(null), namespaceURI);
+  }
+
+  public String lookupNamespaceURI(String prefix)
+  {
+    int element = doc.namespaceContext(index);
+    return (element == CompactDocument.NONE) ? null :
+      doc.lookupNamespaceURI(element, prefix);
+  }
+
+  public boolean isEqualNode(Node other)
+  {
+    if (other == null || other.getNodeType() != getNodeType() ||
+        !CompactDocument.equal(getNodeName(), other.getNodeName()) ||
+        !CompactDocument.equal(getLocalName(), other.getLocalName()) ||
+        !CompactDocument.equal(getNamespaceURI(), other.getNamespaceURI()) ||
+        !CompactDocument.equal(getNodeValue(), other.getNodeValue()))
+      {
+        return false;
+      }
+    NamedNodeMap a1 = getAttributes();
+    NamedNodeMap a2 = other.getAttributes();
+    if (a1 != null)
+      {
+        int len = a1.getLength();
+        if (a2 == null || a2.getLength() != len)
+          {
+            return false;
+          }
+        for (int i = 0; i < len; i++)
+          {
+            Node attr = a1.item(i);
+            Node attr2 = (attr.getLocalName() == null) ?
+              a2.getNamedItem(attr.getNodeName()) :
+              a2.getNamedItemNS(attr.getNamespaceURI(), attr.getLocalName());
+            if (attr2 == null || !attr.isEqualNode(attr2))
+              {
+                return false;
+              }
+          }
+      }
+    Node c1 = getFirstChild();
+    Node c2 = other.getFirstChild();
+    while (c1 != null && c2 != null)
+      {
+        if (!c1.isEqualNode(c2))
+          {
+            return false;
+          }
+        c1 = c1.getNextSibling();
+        c2 = c2.getNextSibling();
+      }
+    return c1 == null && c2 == null;
+  }
+
+  public Object getFeature(String feature, String version)
+  {
+    return isSupported(feature, version) ? this : null;
+  }
+
+  public Object setUserData(String key, Object data, UserDataHandler handler)
+  {
+    return doc.setUserData(this, key, data);
+  }
+
+  public Object getUserData(String key)
+  {
+    return doc.getUserData(this, key);
+  }
+
+  public boolean equals(Object other)
+  {
+    if (other == this)
+      {
+        return true;
+      }
+    if (other instanceof CompactNode)
+      {
+        CompactNode node = (CompactNode) other;
+        return node.doc == doc && node.index == index &&
+          node.getNodeType() == getNodeType();
+      }
+    return false;
+  }
+
+  public int hashCode()
+  {
+    return (index * 31) + getNodeType();
+  }
+
+  public String toString()
+  {
+    return getClass().getName() + "[" + getNodeName() + "]";
+  }
+
+}
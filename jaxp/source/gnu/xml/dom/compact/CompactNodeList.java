@@ -0,0 +1,132 @@
+/* CompactNodeList.java -- 
+   Copyright (C) 2004 Free Software Foundation, Inc.
+
+This file is part of GNU Classpath.
+
+GNU Classpath is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2, or (at your option)
+any later version.
+
+GNU Classpath is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with GNU Classpath; see the file COPYING.  If not, write to the
+Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+02110-1301 USA.
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library.  Thus, the terms and
+conditions of the GNU General Public License cover the whole
+combination.
+
+As a special exception, the copyright holders of this library give you
+permission to link this library with independent modules to produce an
+executable, regardless of the license terms of these independent
+modules, and to copy and distribute the resulting executable under
+terms of your choice, provided that you also meet, for each linked
+independent module, the terms and conditions of the license of that
+module.  An independent module is a module which is not derived from
+or based on this library.  If you modify this library, you may extend
+this exception to your version of the library, but you are not
+obligated to do so.  If you do not wish to do so, delete this
+exception statement from your version. */
+
+
+package gnu.xml.dom.compact;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * A node list over a compact document. The list either holds the
+ * children of a node, which are located as they are requested, or an
+ * explicit array of node indices.
+ */
+class CompactNodeList
+  implements NodeList
+{
+
+  final CompactDocument doc;
+  final int parent;
+  int[] nodes;
+  int length;
+
+  // Position of the last child returned, for sequential access
+  int pos;
+  int child;
+
+  /**
+   * Creates a list of the children of the given node.
+   */
+  CompactNodeList(CompactDocument doc, int parent)
+  {
+    this.doc = doc;
+    this.parent = parent;
+    length = -1;
+    child = doc.firstChild(parent);
+  }
+
+  /**
+   * Creates an empty list to be filled by {@link #add}.
+   */
+  CompactNodeList(CompactDocument doc)
+  {
+    this.doc = doc;
+    parent = CompactDocument.NONE;
+    nodes = new int[8];
+  }
+
+  void add(int node)
+  {
+    if (length == nodes.length)
+      {
+        int[] n = new int[length * 2];
+        System.arraycopy(nodes, 0, n, 0, length);
+        nodes = n;
+      }
+    nodes[length++] = node;
+  }
+
+  public Node item(int index)
+  {
+    if (index < 0 || index >= getLength())
+      {
+        return null;
+      }
+    if (nodes != null)
+      {
+        return doc.node(nodes[index]);
+      }
+    if (index < pos)
+      {
+        pos = 0;
+        child = doc.firstChild(parent);
+      }
+    while (pos < index)
+      {
+        child = doc.nexts[child];
+        pos++;
+      }
+    return doc.node(child);
+  }
+
+  public int getLength()
+  {
+    if (length == -1)
+      {
+        int count = 0;
+        for (int ctx = doc.firstChild(parent); ctx != CompactDocument.NONE;
+             ctx = doc.nexts[ctx])
+          {
+            count++;
+          }
+        length = count;
+      }
+    return length;
+  }
+
+}
@@ -0,0 +1,185 @@
+/* CompactText.java -- 
+   Copyright (C) 2004 Free Software Foundation, Inc.
+
+This file is part of GNU Classpath.
+
+GNU Classpath is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2, or (at your option)
+any later version.
+
+GNU Classpath is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with GNU Classpath; see the file COPYING.  If not, write to the
+Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+02110-1301 USA.
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library.  Thus, the terms and
+conditions of the GNU General Public License cover the whole
+combination.
+
+As a special exception, the copyright holders of this library give you
+permission to link this library with independent modules to produce an
+executable, regardless of the license terms of these independent
+modules, and to copy and distribute the resulting executable under
+terms of your choice, provided that you also meet, for each linked
+independent module, the terms and conditions of the license of that
+module.  An independent module is a module which is not derived from
+or based on this library.  If you modify this library, you may extend
+this exception to your version of the library, but you are not
+obligated to do so.  If you do not wish to do so, delete this
+exception statement from your version. */
+
+
+package gnu.xml.dom.compact;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+import gnu.xml.dom.DomDocument;
+
+/**
+ * A text node of a compact document. Text flyweights also represent
+ * the text child of an attribute, in which case the index is derived
+ * from the attribute index and lies below {@link CompactDocument#NONE}.
+ */
+class CompactText
+  extends CompactCharacterData
+  implements Text
+{
+
+  CompactText(CompactDocument doc, int index)
+  {
+    super(doc, index);
+  }
+
+  long order()
+  {
+    if (index < CompactDocument.NONE)
+      {
+        CompactAttr attr =
+          new CompactAttr(doc, CompactDocument.textAttr(index));
+        return attr.order() + 1L;
+      }
+    return super.order();
+  }
+
+  public short getNodeType()
+  {
+    return TEXT_NODE;
+  }
+
+  public String getNodeName()
+  {
+    return "#text";
+  }
+
+  public Node getParentNode()
+  {
+    if (index < CompactDocument.NONE)
+      {
+        return new CompactAttr(doc, CompactDocument.textAttr(index));
+      }
+    return super.getParentNode();
+  }
+
+  public Node getPreviousSibling()
+  {
+    return (index < CompactDocument.NONE) ? null :
+      super.getPreviousSibling();
+  }
+
+  public Node getNextSibling()
+  {
+    return (index < CompactDocument.NONE) ? null : super.getNextSibling();
+  }
+
+  public Node cloneNode(boolean deep)
+  {
+    if (index < CompactDocument.NONE)
+      {
+        DomDocument copy = new DomDocument();
+        copy.setDocumentURI(doc.documentURI);
+        return copy.createTextNode(getData());
+      }
+    return super.cloneNode(deep);
+  }
+
+  public Node getFirstChild()
+  {
+    return null;
+  }
+
+  public Node getLastChild()
+  {
+    return null;
+  }
+
+  public boolean hasChildNodes()
+  {
+    return false;
+  }
+
+  public String lookupPrefix(String namespaceURI)
+  {
+    return (index < CompactDocument.NONE) ?
+      getParentNode().lookupPrefix(namespaceURI) :
+      super.lookupPrefix(namespaceURI);
+  }
+
+  public String lookupNamespaceURI(String prefix)
+  {
+    return (index < CompactDocument.NONE) ?
+      getParentNode().lookupNamespaceURI(prefix) :
+      super.lookupNamespaceURI(prefix);
+  }
+
+  public Text splitText(int offset)
+  {
+    throw CompactDocument.readonly();
+  }
+
+  public boolean isElementContentWhitespace()
+  {
+    return false;
+  }
+
+  public String getWholeText()
+  {
+    if (index < CompactDocument.NONE)
+      {
+        return getData();
+      }
+    // Adjacent text is coalesced, but may adjoin CDATA sections
+    int first = index;
+    for (int ctx = doc.previousSibling(first);
+         ctx != CompactDocument.NONE && isText(ctx);
+         ctx = doc.previousSibling(ctx))
+      {
+        first = ctx;
+      }
+    StringBuffer buf = new StringBuffer();
+    for (int ctx = first; ctx != CompactDocument.NONE && isText(ctx);
+         ctx = doc.nexts[ctx])
+      {
+        buf.append(doc.text, doc.data[ctx], doc.lengths[ctx]);
+      }
+    return buf.toString();
+  }
+
+  private boolean isText(int ctx)
+  {
+    byte type = doc.types[ctx];
+    return type == TEXT_NODE || type == CDATA_SECTION_NODE;
+  }
+
+  public Text replaceWholeText(String content)
+  {
+    throw CompactDocument.readonly();
+  }
+
+}
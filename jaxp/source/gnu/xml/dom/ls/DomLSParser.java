@@ -76,6 +76,13 @@ public class DomLSParser
   implements LSParser, DOMConfiguration, DOMStringList, ErrorHandler
 {
 
+  /**
+   * Parameter to defer the creation of nodes: content is recorded in a
+   * compact form while parsing, and the children of each node are
+   * created when first accessed. This has no effect with a filter.
+   */
+  public static final String DEFERRED = "http://gnu.org/xml/dom/deferred";
+
   private static final List SUPPORTED_PARAMETERS
     = Arrays.asList(new String[] { "cdata-sections",
                     "comments",
@@ -86,7 +93,8 @@ public class DomLSParser
                     "validating",
                     "xinclude-aware",
                     "entity-resolver",
-                    "error-handler" });
+                    "error-handler",
+                    DEFERRED });
 
   private LSParserFilter filter;
   private final boolean async;
@@ -102,6 +110,7 @@ public class DomLSParser
   private boolean coalescing;
   private boolean validating;
   private boolean xIncludeAware;
+  private boolean deferred;
   private EntityResolver entityResolver;
   private ErrorHandler errorHandler;
 
@@ -258,6 +267,7 @@ public class DomLSParser
     eventSink.expandEntityReferences = expandEntityReferences;
     eventSink.ignoreComments = ignoreComments;
     eventSink.coalescing = coalescing;
+    eventSink.deferred = deferred && filter == null;
     // get and configure reader
     XMLReader reader = getXMLReader();
     try
@@ -447,6 +457,10 @@ public class DomLSParser
       {
         xIncludeAware = ((Boolean) value).booleanValue();
       }
+    else if (DEFERRED.equals(name))
+      {
+        deferred = ((Boolean) value).booleanValue();
+      }
     else if ("entity-resolver".equals(name))
       {
         entityResolver = (EntityResolver) value;
@@ -499,6 +513,10 @@ public class DomLSParser
       {
         return xIncludeAware ? Boolean.TRUE : Boolean.FALSE;
       }
+    else if (DEFERRED.equals(name))
+      {
+        return deferred ? Boolean.TRUE : Boolean.FALSE;
+      }
     else if ("entity-resolver".equals(name))
       {
         return entityResolver;
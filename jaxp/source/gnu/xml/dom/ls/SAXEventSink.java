@@ -59,6 +59,7 @@ import gnu.xml.aelfred2.ContentHandler2;
 import gnu.xml.dom.DomAttr;
 import gnu.xml.dom.DomDocument;
 import gnu.xml.dom.DomDoctype;
+import gnu.xml.dom.compact.CompactDocumentHandler;
 
 /**
  * A SAX content and lexical handler used to construct a DOM document.
@@ -77,6 +78,7 @@ class SAXEventSink
   boolean expandEntityReferences;
   boolean ignoreComments;
   boolean coalescing;
+  boolean deferred;
   
   DomDocument doc; // document being constructed
   Node ctx; // current context (parent node)
@@ -86,6 +88,7 @@ class SAXEventSink
   boolean inCDATA;
   boolean inDTD;
   boolean interrupted;
+  CompactDocumentHandler recorder; // records content in deferred mode
 
   void interrupt()
   {
@@ -110,6 +113,15 @@ class SAXEventSink
     doc.setStrictErrorChecking(false);
     doc.setBuilding(true);
     ctx = doc;
+    if (deferred)
+      {
+        recorder = new CompactDocumentHandler(namespaceAware,
+                                              ignoreWhitespace,
+                                              ignoreComments,
+                                              coalescing);
+        recorder.setDocumentLocator(locator);
+        recorder.startDocument();
+      }
   }
 
   public void xmlDecl(String version, String encoding, boolean standalone,
@@ -136,6 +148,12 @@ class SAXEventSink
       {
         doctype.makeReadonly();
       }
+    if (recorder != null)
+      {
+        recorder.endDocument();
+        doc.setDeferred(recorder.getDocument());
+        recorder = null;
+      }
     ctx = null;
     locator = null;
   }
@@ -143,6 +161,11 @@ class SAXEventSink
   public void startPrefixMapping(String prefix, String uri)
     throws SAXException
   {
+    if (recorder != null && !inDTD)
+      {
+        recorder.startPrefixMapping(prefix, uri);
+        return;
+      }
     if (namespaceAware)
       {
         String nsName = (prefix != null && prefix.length() > 0) ?
@@ -177,6 +200,11 @@ class SAXEventSink
       {
         return;
       }
+    if (recorder != null && !inDTD)
+      {
+        recorder.startElement(uri, localName, qName, atts);
+        return;
+      }
     Element element = createElement(uri, localName, qName, atts);
     // add element to context
     ctx.appendChild(element);
@@ -255,6 +283,11 @@ class SAXEventSink
       {
         return;
       }
+    if (recorder != null && !inDTD)
+      {
+        recorder.endElement(uri, localName, qName);
+        return;
+      }
     if (namespaceAware)
       {
         pending.clear();
@@ -269,6 +302,11 @@ class SAXEventSink
       {
         return;
       }
+    if (recorder != null && !inDTD)
+      {
+        recorder.characters(c, off, len);
+        return;
+      }
     ctx.appendChild(createText(c, off, len));
   }
 
@@ -288,6 +326,11 @@ class SAXEventSink
       {
         return;
       }
+    if (recorder != null && !inDTD)
+      {
+        recorder.ignorableWhitespace(c, off, len);
+        return;
+      }
     if (!ignoreWhitespace)
       {
         characters(c, off, len);
@@ -301,6 +344,11 @@ class SAXEventSink
       {
         return;
       }
+    if (recorder != null && !inDTD)
+      {
+        recorder.processingInstruction(target, data);
+        return;
+      }
     if (!inDTD)
       {
         Node pi = createProcessingInstruction(target, data);
@@ -354,6 +402,11 @@ class SAXEventSink
   public void startEntity(String name)
     throws SAXException
   {
+    if (recorder != null && !inDTD)
+      {
+        recorder.startEntity(name);
+        return;
+      }
     DocumentType doctype = doc.getDoctype();
     if (doctype == null)
       {
@@ -388,6 +441,11 @@ class SAXEventSink
   public void endEntity(String name)
     throws SAXException
   {
+    if (recorder != null && !inDTD)
+      {
+        recorder.endEntity(name);
+        return;
+      }
     if ("[dtd]".equals(name) || name.charAt(0) == '%')
       {
         // Ignore DTD and parameter entities
@@ -440,12 +498,22 @@ class SAXEventSink
   public void startCDATA()
     throws SAXException
   {
+    if (recorder != null && !inDTD)
+      {
+        recorder.startCDATA();
+        return;
+      }
     inCDATA = true;
   }
 
   public void endCDATA()
     throws SAXException
   {
+    if (recorder != null && !inDTD)
+      {
+        recorder.endCDATA();
+        return;
+      }
     inCDATA = false;
   }
 
@@ -456,6 +524,11 @@ class SAXEventSink
       {
         return;
       }
+    if (recorder != null && !inDTD)
+      {
+        recorder.comment(c, off, len);
+        return;
+      }
     if (!inDTD)
       {
         Node comment = createComment(c, off, len);
@@ -37,30 +37,75 @@
  */
 package gnu.xml.libxmlj.util;
 
+import java.io.FileInputStream;
 import java.io.FilterInputStream;
 import java.io.InputStream;
 import java.io.IOException;
-import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
 
 /**
  * An input stream associated with an XML system ID.
  * It can report the system ID and the first few bytes of the stream
  * in order to detect the character encoding of the stream.
+ * <p>
+ * The stream is also a channel. The native parser reads through
+ * {@link #read(ByteBuffer)} into a direct buffer wrapping its own input
+ * buffer, so that file input is transferred without an intermediate
+ * Java byte array.
  *
  * @author <a href='dog@gnu.org'>Chris Burdess</a>
  */
 public class NamedInputStream
 extends FilterInputStream
+implements ReadableByteChannel
 {
 
   private static int DETECT_BUFFER_SIZE = 50;
   
   private String name;
 
+  /**
+   * Bytes read ahead by getDetectBuffer and not yet consumed.
+   */
+  private byte[] head;
+  private int headPos;
+  private int headLen;
+
+  /**
+   * Channel of the underlying stream, if it has one.
+   */
+  private ReadableByteChannel channel;
+
+  /**
+   * Transfer buffer used to fill non-array buffers from a plain stream.
+   */
+  private byte[] transfer;
+
+  private boolean open;
+
   NamedInputStream (String name, InputStream in, int size)
   {
-    super (new PushbackInputStream (in, size));
+    super (in);
     this.name = name;
+    head = new byte[Math.max (size, DETECT_BUFFER_SIZE)];
+    if (in instanceof FileInputStream)
+      {
+        channel = ((FileInputStream) in).getChannel ();
+      }
+    else if (in instanceof ReadableByteChannel)
+      {
+        channel = (ReadableByteChannel) in;
+      }
+    open = true;
+  }
+
+  NamedInputStream (String name, ReadableByteChannel channel, int size)
+  {
+    this (name, Channels.newInputStream (channel), size);
+    this.channel = channel;
   }
 
   /**
@@ -80,20 +125,137 @@ extends FilterInputStream
   public byte[] getDetectBuffer ()
     throws IOException
   {
-    PushbackInputStream p = (PushbackInputStream) in;
-    byte[] buffer = new byte[DETECT_BUFFER_SIZE];
-    int len = p.read (buffer);
+    int len = read (head, 0, DETECT_BUFFER_SIZE);
     if (len < 0)
       {
         return null;
       }
     else
       {
-        p.unread (buffer, 0, len);
+        headPos = 0;
+        headLen = len;
         byte[] ret = new byte[len];
-        System.arraycopy (buffer, 0, ret, 0, len);
+        System.arraycopy (head, 0, ret, 0, len);
         return ret;
       }
   }
+
+  public int read ()
+    throws IOException
+  {
+    if (headPos < headLen)
+      {
+        return head[headPos++] & 0xff;
+      }
+    return in.read ();
+  }
+
+  public int read (byte[] b, int off, int len)
+    throws IOException
+  {
+    if (headPos < headLen)
+      {
+        len = Math.min (len, headLen - headPos);
+        System.arraycopy (head, headPos, b, off, len);
+        headPos += len;
+        return len;
+      }
+    return in.read (b, off, len);
+  }
+
+  public long skip (long n)
+    throws IOException
+  {
+    if (headPos < headLen)
+      {
+        int len = (int) Math.min (n, (long) (headLen - headPos));
+        headPos += len;
+        return len;
+      }
+    return in.skip (n);
+  }
+
+  public int available ()
+    throws IOException
+  {
+    return (headLen - headPos) + in.available ();
+  }
+
+  public boolean markSupported ()
+  {
+    return false;
+  }
+
+  public void mark (int readlimit)
+  {
+  }
+
+  public void reset ()
+    throws IOException
+  {
+    throw new IOException ("mark not supported");
+  }
+
+  /**
+   * Reads bytes into the given buffer. Read-ahead bytes are delivered
+   * first; thereafter file input is read by the underlying channel
+   * directly into the buffer.
+   */
+  public int read (ByteBuffer dst)
+    throws IOException
+  {
+    if (!open)
+      {
+        throw new ClosedChannelException ();
+      }
+    int len = dst.remaining ();
+    if (len == 0)
+      {
+        return 0;
+      }
+    if (headPos < headLen)
+      {
+        len = Math.min (len, headLen - headPos);
+        dst.put (head, headPos, len);
+        headPos += len;
+        return len;
+      }
+    if (channel != null)
+      {
+        return channel.read (dst);
+      }
+    if (dst.hasArray ())
+      {
+        int pos = dst.position ();
+        len = in.read (dst.array (), dst.arrayOffset () + pos, len);
+        if (len > 0)
+          {
+            dst.position (pos + len);
+          }
+        return len;
+      }
+    if (transfer == null)
+      {
+        transfer = new byte[4096];
+      }
+    len = in.read (transfer, 0, Math.min (len, transfer.length));
+    if (len > 0)
+      {
+        dst.put (transfer, 0, len);
+      }
+    return len;
+  }
+
+  public boolean isOpen ()
+  {
+    return open;
+  }
+
+  public void close ()
+    throws IOException
+  {
+    open = false;
+    super.close ();
+  }
   
 }
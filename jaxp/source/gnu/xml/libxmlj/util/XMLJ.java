@@ -37,6 +37,7 @@
  */
 package gnu.xml.libxmlj.util;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
@@ -48,6 +49,7 @@ import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.ReadableByteChannel;
 
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
@@ -157,7 +159,17 @@ public final class XMLJ
       }
     try
       {
-        return new URL(systemId).openStream();
+        URL url = new URL(systemId);
+        if ("file".equals(url.getProtocol()))
+          {
+            // Open the file directly so that it can be read by channel
+            File file = new File(url.getPath());
+            if (file.isFile())
+              {
+                return new FileInputStream(file);
+              }
+          }
+        return url.openStream();
       }
     catch (MalformedURLException e)
       {
@@ -177,6 +189,18 @@ public final class XMLJ
                                  LOOKAHEAD);
   }
 
+  /**
+   * Returns an input stream for the specified channel.
+   * The returned stream may be supplied as the byte stream of an
+   * InputSource or StreamSource, in which case libxmlj will read from
+   * the channel directly into its native input buffer.
+   */
+  public static NamedInputStream getInputStream (ReadableByteChannel channel,
+                                                 String systemId)
+  {
+    return new NamedInputStream (systemId, channel, LOOKAHEAD);
+  }
+
   /**
    * Convenience method for xmljDocLoader
    */
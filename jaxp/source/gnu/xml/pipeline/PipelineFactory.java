@@ -121,6 +121,16 @@ import org.xml.sax.ext.*;
 	is the output of this stage.</td>
     </tr>
 
+    <tr valign="top" align="center">
+	<td><a href="ThreadedFilter.html">thread</a></td>
+	<td><em>optional</em><br> number of event blocks</td>
+	<td>no</td>
+	<td align="left">Events are batched and passed to the rest of
+	the pipeline in another thread, so parsing overlaps with later
+	processing.  The parameter bounds how many blocks of events may
+	be queued before the producer waits.</td>
+    </tr>
+
     <tr valign="top" align="center">
 	<td><a href="ValidationConsumer.html">validate</a></td>
 	<td><em>none</em></td>
@@ -332,6 +342,7 @@ public class PipelineFactory
 	{ "null",	"gnu.xml.pipeline.EventFilter" },
 	{ "server",	"gnu.xml.pipeline.CallFilter" },
 	{ "tee",	"gnu.xml.pipeline.TeeConsumer" },
+	{ "thread",	"gnu.xml.pipeline.ThreadedFilter" },
 	{ "validate",	"gnu.xml.pipeline.ValidationConsumer" },
 	{ "wf",		"gnu.xml.pipeline.WellFormednessFilter" },
 	{ "xinclude",	"gnu.xml.pipeline.XIncludeFilter" },
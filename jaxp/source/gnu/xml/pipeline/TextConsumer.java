@@ -94,7 +94,7 @@ public class TextConsumer extends XMLWriter implements EventConsumer
     public TextConsumer (OutputStream out)
     throws IOException
     {
-	this (new OutputStreamWriter (out, "UTF8"), false);
+	super (out);
     }
 
     /** <b>EventConsumer</b> Returns the document handler being used. */
@@ -0,0 +1,828 @@
+/* ThreadedFilter.java -- 
+   Copyright (C) 2004 Free Software Foundation, Inc.
+
+This file is part of GNU Classpath.
+
+GNU Classpath is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2, or (at your option)
+any later version.
+
+GNU Classpath is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with GNU Classpath; see the file COPYING.  If not, write to the
+Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+02110-1301 USA.
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library.  Thus, the terms and
+conditions of the GNU General Public License cover the whole
+combination.
+
+As a special exception, the copyright holders of this library give you
+permission to link this library with independent modules to produce an
+executable, regardless of the license terms of these independent
+modules, and to copy and distribute the resulting executable under
+terms of your choice, provided that you also meet, for each linked
+independent module, the terms and conditions of the license of that
+module.  An independent module is a module which is not derived from
+or based on this library.  If you modify this library, you may extend
+this exception to your version of the library, but you are not
+obligated to do so.  If you do not wish to do so, delete this
+exception statement from your version. */
+
+
+package gnu.xml.pipeline;
+
+import org.xml.sax.*;
+import org.xml.sax.ext.*;
+import org.xml.sax.helpers.LocatorImpl;
+
+
+/**
+ * Runs the rest of a pipeline in its own thread, so that parsing and
+ * downstream processing can overlap.  Events are recorded into blocks
+ * which are handed to a consumer thread through a bounded ring; the
+ * blocks (and the attribute and text buffers they hold) are reused, so
+ * steady state processing allocates almost nothing.
+ *
+ * <p> When the ring is full the producer waits, so a slow consumer
+ * throttles the parser instead of buffering the whole document.
+ * Exceptions thrown by the downstream stages are reported to the
+ * producer the next time it hands off a block, and no later than
+ * the <em>endDocument</em> callback, which waits for the consumer
+ * thread to deliver every event.  Since delivery is batched, the
+ * producer may already have reported a few more events by then.
+ *
+ * <p> Locator information is copied with each event, and downstream
+ * stages see a locator which describes the event being delivered.
+ * Error handler callbacks made by downstream stages happen in the
+ * consumer thread.
+ *
+ * <p> This class is available as the <em>thread</em> stage in
+ * {@link PipelineFactory} descriptions; the optional parameter
+ * is the number of event blocks in the ring.
+ */
+final public class ThreadedFilter extends EventFilter
+{
+    /** Default number of event blocks in the ring. */
+    public static final int	DEFAULT_BLOCKS = 8;
+
+    // max events recorded per block
+    private static final int	BLOCK_EVENTS = 512;
+    // hand off a block once this much text is buffered
+    private static final int	BLOCK_TEXT = 8192;
+
+    // event codes; ints and objects recorded per event are noted
+    private static final int	LOCATION = 0;		// o: pub, sys
+    private static final int	START_DOCUMENT = 1;
+    private static final int	END_DOCUMENT = 2;
+    private static final int	XML_DECL = 3;		// i: sa; o: 3
+    private static final int	SKIPPED_ENTITY = 4;	// o: 1
+    private static final int	PI = 5;			// o: 2
+    private static final int	CHARACTERS = 6;		// i: off, len
+    private static final int	IGNORABLE_WS = 7;	// i: off, len
+    private static final int	START_PREFIX = 8;	// o: 2
+    private static final int	END_PREFIX = 9;		// o: 1
+    private static final int	START_ELEMENT = 10;	// o: 4
+    private static final int	END_ELEMENT = 11;	// o: 3
+    private static final int	UNPARSED_ENTITY = 12;	// o: 4
+    private static final int	NOTATION = 13;		// o: 3
+    private static final int	START_DTD = 14;		// o: 3
+    private static final int	END_DTD = 15;
+    private static final int	COMMENT = 16;		// i: off, len
+    private static final int	START_CDATA = 17;
+    private static final int	END_CDATA = 18;
+    private static final int	START_ENTITY = 19;	// o: 1
+    private static final int	END_ENTITY = 20;	// o: 1
+    private static final int	ELEMENT_DECL = 21;	// o: 2
+    private static final int	ATTRIBUTE_DECL = 22;	// o: 5
+    private static final int	EXTERNAL_ENTITY = 23;	// o: 3
+    private static final int	INTERNAL_ENTITY = 24;	// o: 2
+
+    // every event also records two ints:  line and column
+    private static final int	MAX_INTS = 4;
+    private static final int	MAX_OBJS = 5;
+
+    private final Block		ring [];
+    private final Object	lock = new Object ();
+    // guarded by lock
+    private int			tail, count;
+    private Throwable		failure;
+    private Worker		worker;
+
+    // producer side state
+    private Block		block;
+    private Locator		source;
+    private String		publicId, systemId;
+
+
+    /**
+     * Creates a filter which delivers events to the specified
+     * consumer from a separate thread, using the default number
+     * of event blocks.
+     */
+	// constructor used by PipelineFactory
+    public ThreadedFilter (EventConsumer next)
+    {
+	this (DEFAULT_BLOCKS, next);
+    }
+
+    /**
+     * Creates a filter which delivers events to the specified
+     * consumer from a separate thread, using the specified number
+     * of event blocks (at least two).
+     */
+	// constructor used by PipelineFactory
+    public ThreadedFilter (String blocks, EventConsumer next)
+    {
+	this (Integer.parseInt (blocks.trim ()), next);
+    }
+
+    /**
+     * Creates a filter which delivers events to the specified
+     * consumer from a separate thread, using the specified number
+     * of event blocks (at least two).
+     */
+    public ThreadedFilter (int blocks, EventConsumer next)
+    {
+	super (next);
+
+	if (next == null)
+	    throw new NullPointerException ();
+	if (blocks < 2)
+	    throw new IllegalArgumentException ("blocks: " + blocks);
+	ring = new Block [blocks];
+	for (int i = 0; i < blocks; i++)
+	    ring [i] = new Block ();
+
+	// only intercept events the next stage wants to see
+	if (getContentHandler () != null)
+	    setContentHandler (this);
+	if (getDTDHandler () != null)
+	    setDTDHandler (this);
+	try {
+	    if (getProperty (LEXICAL_HANDLER) != null)
+		setProperty (LEXICAL_HANDLER, this);
+	    if (getProperty (DECL_HANDLER) != null)
+		setProperty (DECL_HANDLER, this);
+	} catch (SAXException e) {
+	    // can't happen
+	    throw new RuntimeException (e.getMessage ());
+	}
+    }
+
+
+    //
+    // Producer side:  record events into the current block,
+    // handing it off when it fills up.
+    //
+
+    private Block record (int type)
+    throws SAXException
+    {
+	Block	b = block;
+
+	if (b == null) {
+	    synchronized (lock) {
+		if (failure != null)
+		    rethrow ();
+	    }
+	    throw new SAXException ("no startDocument");
+	}
+	if (b.nevents + 2 > BLOCK_EVENTS || b.ntext >= BLOCK_TEXT)
+	    b = handoff ();
+
+	if (source != null) {
+	    String	pub = source.getPublicId ();
+	    String	sys = source.getSystemId ();
+
+	    // identity test is enough; these rarely change
+	    if (pub != publicId || sys != systemId) {
+		publicId = pub;
+		systemId = sys;
+		b.types [b.nevents++] = LOCATION;
+		b.ints [b.nints++] = source.getLineNumber ();
+		b.ints [b.nints++] = source.getColumnNumber ();
+		b.objs [b.nobjs++] = pub;
+		b.objs [b.nobjs++] = sys;
+	    }
+	    b.ints [b.nints++] = source.getLineNumber ();
+	    b.ints [b.nints++] = source.getColumnNumber ();
+	} else {
+	    b.ints [b.nints++] = -1;
+	    b.ints [b.nints++] = -1;
+	}
+	b.types [b.nevents++] = type;
+	return b;
+    }
+
+    private void recordText (int type, char ch [], int start, int length)
+    throws SAXException
+    {
+	Block	b = record (type);
+
+	b.ints [b.nints++] = b.ntext;
+	b.ints [b.nints++] = length;
+	b.appendText (ch, start, length);
+    }
+
+    // publishes the current block and claims the next free one
+    private Block handoff ()
+    throws SAXException
+    {
+	synchronized (lock) {
+	    tail = (tail + 1) % ring.length;
+	    count++;
+	    lock.notifyAll ();
+	    block = null;
+	    while (count == ring.length && failure == null) {
+		try {
+		    lock.wait ();
+		} catch (InterruptedException e) {
+		    worker.close ();
+		    throw new SAXException ("interrupted", e);
+		}
+	    }
+	    if (failure != null)
+		rethrow ();
+	    block = ring [tail];
+	    block.clear ();
+	}
+	return block;
+    }
+
+    // called with the lock held
+    private void rethrow ()
+    throws SAXException
+    {
+	Throwable	t = failure;
+
+	if (t instanceof SAXException)
+	    throw (SAXException) t;
+	if (t instanceof RuntimeException)
+	    throw (RuntimeException) t;
+	if (t instanceof Error)
+	    throw (Error) t;
+	throw new SAXException (t.toString ());
+    }
+
+
+    /** <b>SAX2:</b> remembers the locator, which is copied per event */
+    public void setDocumentLocator (Locator locator)
+    {
+	source = locator;
+    }
+
+    /**
+     * <b>SAX2:</b> starts the consumer thread, and queues this event.
+     * If a previous document was abandoned before its endDocument
+     * callback, its consumer thread is first told to stop.
+     */
+    public void startDocument ()
+    throws SAXException
+    {
+	Worker	old;
+
+	synchronized (lock) {
+	    old = worker;
+	    if (old != null)
+		old.close ();
+	}
+	if (old != null) {
+	    try {
+		old.join ();
+	    } catch (InterruptedException e) {
+		throw new SAXException ("interrupted", e);
+	    }
+	}
+
+	synchronized (lock) {
+	    tail = count = 0;
+	    failure = null;
+	    worker = new Worker ();
+	    block = ring [0];
+	    block.clear ();
+	}
+	worker.start ();
+
+	publicId = systemId = null;
+	record (START_DOCUMENT);
+    }
+
+    /**
+     * <b>SAX2:</b> queues this event, then waits until the consumer
+     * thread has delivered it.  Any exception reported downstream
+     * is rethrown here.
+     */
+    public void endDocument ()
+    throws SAXException
+    {
+	Worker	w;
+
+	record (END_DOCUMENT);
+	synchronized (lock) {
+	    w = worker;
+	    tail = (tail + 1) % ring.length;
+	    count++;
+	    block = null;
+	    lock.notifyAll ();
+	    while (worker == w && failure == null) {
+		try {
+		    lock.wait ();
+		} catch (InterruptedException e) {
+		    worker.close ();
+		    throw new SAXException ("interrupted", e);
+		}
+	    }
+	    worker = null;
+	    source = null;
+	    if (failure != null) {
+		w.close ();
+		rethrow ();
+	    }
+	}
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void xmlDecl (String version, String encoding, boolean standalone,
+	    String inputEncoding)
+    throws SAXException
+    {
+	Block	b = record (XML_DECL);
+
+	b.ints [b.nints++] = standalone ? 1 : 0;
+	b.objs [b.nobjs++] = version;
+	b.objs [b.nobjs++] = encoding;
+	b.objs [b.nobjs++] = inputEncoding;
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void skippedEntity (String name)
+    throws SAXException
+    {
+	record (SKIPPED_ENTITY).addObject (name);
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void processingInstruction (String target, String data)
+    throws SAXException
+    {
+	Block	b = record (PI);
+
+	b.objs [b.nobjs++] = target;
+	b.objs [b.nobjs++] = data;
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void characters (char ch [], int start, int length)
+    throws SAXException
+    {
+	recordText (CHARACTERS, ch, start, length);
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void ignorableWhitespace (char ch [], int start, int length)
+    throws SAXException
+    {
+	recordText (IGNORABLE_WS, ch, start, length);
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void startPrefixMapping (String prefix, String uri)
+    throws SAXException
+    {
+	Block	b = record (START_PREFIX);
+
+	b.objs [b.nobjs++] = prefix;
+	b.objs [b.nobjs++] = uri;
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void endPrefixMapping (String prefix)
+    throws SAXException
+    {
+	record (END_PREFIX).addObject (prefix);
+    }
+
+    /** <b>SAX2:</b> queues this event, with a copy of the attributes */
+    public void startElement (
+	String uri, String localName,
+	String qName, Attributes atts
+    ) throws SAXException
+    {
+	Block	b = record (START_ELEMENT);
+
+	b.objs [b.nobjs++] = uri;
+	b.objs [b.nobjs++] = localName;
+	b.objs [b.nobjs++] = qName;
+	b.objs [b.nobjs++] = b.copyAttributes (atts);
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void endElement (String uri, String localName, String qName)
+    throws SAXException
+    {
+	Block	b = record (END_ELEMENT);
+
+	b.objs [b.nobjs++] = uri;
+	b.objs [b.nobjs++] = localName;
+	b.objs [b.nobjs++] = qName;
+    }
+
+    /** <b>SAX1:</b> queues this event */
+    public void unparsedEntityDecl (
+	String name,
+	String publicId,
+	String systemId,
+	String notationName
+    ) throws SAXException
+    {
+	Block	b = record (UNPARSED_ENTITY);
+
+	b.objs [b.nobjs++] = name;
+	b.objs [b.nobjs++] = publicId;
+	b.objs [b.nobjs++] = systemId;
+	b.objs [b.nobjs++] = notationName;
+    }
+
+    /** <b>SAX1:</b> queues this event */
+    public void notationDecl (String name, String publicId, String systemId)
+    throws SAXException
+    {
+	Block	b = record (NOTATION);
+
+	b.objs [b.nobjs++] = name;
+	b.objs [b.nobjs++] = publicId;
+	b.objs [b.nobjs++] = systemId;
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void startDTD (String name, String publicId, String systemId)
+    throws SAXException
+    {
+	Block	b = record (START_DTD);
+
+	b.objs [b.nobjs++] = name;
+	b.objs [b.nobjs++] = publicId;
+	b.objs [b.nobjs++] = systemId;
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void endDTD ()
+    throws SAXException
+    {
+	record (END_DTD);
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void comment (char ch [], int start, int length)
+    throws SAXException
+    {
+	recordText (COMMENT, ch, start, length);
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void startCDATA ()
+    throws SAXException
+    {
+	record (START_CDATA);
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void endCDATA ()
+    throws SAXException
+    {
+	record (END_CDATA);
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void startEntity (String name)
+    throws SAXException
+    {
+	record (START_ENTITY).addObject (name);
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void endEntity (String name)
+    throws SAXException
+    {
+	record (END_ENTITY).addObject (name);
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void elementDecl (String name, String model)
+    throws SAXException
+    {
+	Block	b = record (ELEMENT_DECL);
+
+	b.objs [b.nobjs++] = name;
+	b.objs [b.nobjs++] = model;
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void attributeDecl (String eName, String aName,
+	    String type, String mode, String value)
+    throws SAXException
+    {
+	Block	b = record (ATTRIBUTE_DECL);
+
+	b.objs [b.nobjs++] = eName;
+	b.objs [b.nobjs++] = aName;
+	b.objs [b.nobjs++] = type;
+	b.objs [b.nobjs++] = mode;
+	b.objs [b.nobjs++] = value;
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void externalEntityDecl (String name,
+	String publicId, String systemId)
+    throws SAXException
+    {
+	Block	b = record (EXTERNAL_ENTITY);
+
+	b.objs [b.nobjs++] = name;
+	b.objs [b.nobjs++] = publicId;
+	b.objs [b.nobjs++] = systemId;
+    }
+
+    /** <b>SAX2:</b> queues this event */
+    public void internalEntityDecl (String name, String value)
+    throws SAXException
+    {
+	Block	b = record (INTERNAL_ENTITY);
+
+	b.objs [b.nobjs++] = name;
+	b.objs [b.nobjs++] = value;
+    }
+
+
+    //
+    // Consumer side:  replay each block through the superclass,
+    // which delivers events to the next stage.
+    //
+
+    private void replay (Block b, LocatorImpl locator)
+    throws SAXException
+    {
+	int	ip = 0, op = 0;
+	Object	o [] = b.objs;
+	int	n [] = b.ints;
+	char	text [] = b.text;
+
+	for (int i = 0; i < b.nevents; i++) {
+	    int	type = b.types [i];
+
+	    locator.setLineNumber (n [ip++]);
+	    locator.setColumnNumber (n [ip++]);
+
+	    switch (type) {
+	      case LOCATION:
+		locator.setPublicId ((String) o [op++]);
+		locator.setSystemId ((String) o [op++]);
+		break;
+	      case START_DOCUMENT:
+		super.startDocument ();
+		break;
+	      case END_DOCUMENT:
+		super.endDocument ();
+		break;
+	      case XML_DECL:
+		super.xmlDecl ((String) o [op], (String) o [op + 1],
+			n [ip++] != 0, (String) o [op + 2]);
+		op += 3;
+		break;
+	      case SKIPPED_ENTITY:
+		super.skippedEntity ((String) o [op++]);
+		break;
+	      case PI:
+		super.processingInstruction ((String) o [op],
+			(String) o [op + 1]);
+		op += 2;
+		break;
+	      case CHARACTERS:
+		super.characters (text, n [ip], n [ip + 1]);
+		ip += 2;
+		break;
+	      case IGNORABLE_WS:
+		super.ignorableWhitespace (text, n [ip], n [ip + 1]);
+		ip += 2;
+		break;
+	      case START_PREFIX:
+		super.startPrefixMapping ((String) o [op],
+			(String) o [op + 1]);
+		op += 2;
+		break;
+	      case END_PREFIX:
+		super.endPrefixMapping ((String) o [op++]);
+		break;
+	      case START_ELEMENT:
+		super.startElement ((String) o [op], (String) o [op + 1],
+			(String) o [op + 2], (Attributes) o [op + 3]);
+		op += 4;
+		break;
+	      case END_ELEMENT:
+		super.endElement ((String) o [op], (String) o [op + 1],
+			(String) o [op + 2]);
+		op += 3;
+		break;
+	      case UNPARSED_ENTITY:
+		super.unparsedEntityDecl ((String) o [op],
+			(String) o [op + 1], (String) o [op + 2],
+			(String) o [op + 3]);
+		op += 4;
+		break;
+	      case NOTATION:
+		super.notationDecl ((String) o [op], (String) o [op + 1],
+			(String) o [op + 2]);
+		op += 3;
+		break;
+	      case START_DTD:
+		super.startDTD ((String) o [op], (String) o [op + 1],
+			(String) o [op + 2]);
+		op += 3;
+		break;
+	      case END_DTD:
+		super.endDTD ();
+		break;
+	      case COMMENT:
+		super.comment (text, n [ip], n [ip + 1]);
+		ip += 2;
+		break;
+	      case START_CDATA:
+		super.startCDATA ();
+		break;
+	      case END_CDATA:
+		super.endCDATA ();
+		break;
+	      case START_ENTITY:
+		super.startEntity ((String) o [op++]);
+		break;
+	      case END_ENTITY:
+		super.endEntity ((String) o [op++]);
+		break;
+	      case ELEMENT_DECL:
+		super.elementDecl ((String) o [op], (String) o [op + 1]);
+		op += 2;
+		break;
+	      case ATTRIBUTE_DECL:
+		super.attributeDecl ((String) o [op], (String) o [op + 1],
+			(String) o [op + 2], (String) o [op + 3],
+			(String) o [op + 4]);
+		op += 5;
+		break;
+	      case EXTERNAL_ENTITY:
+		super.externalEntityDecl ((String) o [op],
+			(String) o [op + 1], (String) o [op + 2]);
+		op += 3;
+		break;
+	      case INTERNAL_ENTITY:
+		super.internalEntityDecl ((String) o [op],
+			(String) o [op + 1]);
+		op += 2;
+		break;
+	      default:
+		throw new IllegalStateException ("event " + type);
+	    }
+	}
+    }
+
+    private final class Worker extends Thread
+    {
+	// guarded by lock
+	private boolean	closed;
+
+	Worker ()
+	{
+	    super ("ThreadedFilter");
+	    setDaemon (true);
+	}
+
+	public void run ()
+	{
+	    LocatorImpl	locator = new LocatorImpl ();
+	    int		index = 0;
+	    boolean	done = false;
+
+	    ThreadedFilter.super.setDocumentLocator (locator);
+	    try {
+		while (!done) {
+		    Block	b;
+
+		    synchronized (lock) {
+			while (count == 0 && !closed)
+			    lock.wait ();
+			if (closed)
+			    return;
+			b = ring [index];
+		    }
+
+		    replay (b, locator);
+		    done = b.nevents > 0
+			    && b.types [b.nevents - 1] == END_DOCUMENT;
+		    b.release ();
+
+		    synchronized (lock) {
+			if (closed)
+			    return;
+			index = (index + 1) % ring.length;
+			count--;
+			lock.notifyAll ();
+		    }
+		}
+	    } catch (Throwable t) {
+		fail (t);
+		return;
+	    }
+	    synchronized (lock) {
+		if (worker == this)
+		    worker = null;
+		lock.notifyAll ();
+	    }
+	}
+
+	// called with the lock held
+	void close ()
+	{
+	    closed = true;
+	    lock.notifyAll ();
+	}
+
+	private void fail (Throwable t)
+	{
+	    synchronized (lock) {
+		if (failure == null && !closed)
+		    failure = t;
+		lock.notifyAll ();
+	    }
+	}
+    }
+
+
+    // a reusable block of recorded events
+    private static final class Block
+    {
+	final int		types [] = new int [BLOCK_EVENTS];
+	final int		ints [] = new int [BLOCK_EVENTS * MAX_INTS];
+	final Object		objs [] = new Object [BLOCK_EVENTS * MAX_OBJS];
+	char			text [] = new char [BLOCK_TEXT];
+	Attributes2Impl		attrs [] = new Attributes2Impl [16];
+	int			nevents, nints, nobjs, ntext, nattrs;
+
+	void clear ()
+	{
+	    nevents = nints = nobjs = ntext = nattrs = 0;
+	}
+
+	// drop references so recycled blocks don't pin strings
+	void release ()
+	{
+	    for (int i = 0; i < nobjs; i++)
+		objs [i] = null;
+	    clear ();
+	}
+
+	void addObject (Object o)
+	{
+	    objs [nobjs++] = o;
+	}
+
+	void appendText (char ch [], int start, int length)
+	{
+	    if (ntext + length > text.length) {
+		int	size = text.length * 2;
+		char	tmp [];
+
+		if (size < ntext + length)
+		    size = ntext + length;
+		tmp = new char [size];
+		System.arraycopy (text, 0, tmp, 0, ntext);
+		text = tmp;
+	    }
+	    System.arraycopy (ch, start, text, ntext, length);
+	    ntext += length;
+	}
+
+	Attributes copyAttributes (Attributes atts)
+	{
+	    Attributes2Impl	copy;
+
+	    if (nattrs == attrs.length) {
+		Attributes2Impl	tmp [] = new Attributes2Impl [nattrs * 2];
+
+		System.arraycopy (attrs, 0, tmp, 0, nattrs);
+		attrs = tmp;
+	    }
+	    copy = attrs [nattrs];
+	    if (copy == null)
+		copy = attrs [nattrs] = new Attributes2Impl ();
+	    nattrs++;
+	    copy.setAttributes (atts);
+	    return copy;
+	}
+    }
+}
@@ -40,17 +40,22 @@ package gnu.xml.pipeline;
 
 import java.io.*;
 
-import java.util.EmptyStackException;
-import java.util.Enumeration;
-import java.util.Hashtable;
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.StringTokenizer;
-import java.util.Vector;
+
+import javax.xml.XMLConstants;
 
 import org.xml.sax.*;
 import org.xml.sax.ext.*;
 import org.xml.sax.helpers.XMLReaderFactory;
 
+import gnu.xml.util.GrammarPool;
+
 
 /**
  * This class checks SAX2 events to report validity errors; it works as
@@ -192,13 +197,16 @@ import org.xml.sax.helpers.XMLReaderFactory;
  */
 public final class ValidationConsumer extends EventFilter
 {
-    // report error if we happen to notice a non-deterministic choice?
-    // we won't report buggy content models; just buggy instances
-    private static final boolean	warnNonDeterministic = false;
-
-    // for tracking active content models
+    // for tracking active content models:  the declaration of
+    // each open element, and its content model state
     private String		rootName;
-    private Stack		contentStack = new Stack ();
+    private ElementInfo		contentStack [] = new ElementInfo [32];
+    private int			contentStates [] = new int [32];
+    private int			depth;
+
+    // compiled content models, maybe shared with other documents
+    private Grammar		grammar;
+    private String		grammarId;
 
     // flags for "saved DTD" processing
     private boolean		disableDeclarations;
@@ -212,19 +220,19 @@ public final class ValidationConsumer extends EventFilter
     //
 
     // key = element name; value = ElementInfo
-    private Hashtable		elements = new Hashtable ();
+    private HashMap		elements = new HashMap ();
 
     // some VCs relate to ID/IDREF/IDREFS attributes
     // key = id; value = boolean true (defd) or false (refd)
-    private Hashtable		ids = new Hashtable ();
-
-    // we just record declared notation and unparsed entity names.
-    // the implementation here is simple/slow; these features
-    // are seldom used, one hopes they'll wither away soon
-    private Vector		notations = new Vector (5, 5);
-    private Vector		nDeferred = new Vector (5, 5);
-    private Vector		unparsed = new Vector (5, 5);
-    private Vector		uDeferred = new Vector (5, 5);
+    private HashMap		ids = new HashMap ();
+
+    // we just record declared notation and unparsed entity names;
+    // these features are seldom used, one hopes they'll wither
+    // away soon
+    private HashSet		notations = new HashSet ();
+    private ArrayList		nDeferred = new ArrayList ();
+    private HashSet		unparsed = new HashSet ();
+    private ArrayList		uDeferred = new ArrayList ();
 	
 	// note: DocBk 3.1.7 XML defines over 2 dozen notations,
 	// used when defining unparsed entities for graphics
@@ -383,17 +391,38 @@ public final class ValidationConsumer extends EventFilter
 
     private void resetState ()
     {
+	depth = 0;
 	if (!disableReset) {
 	    rootName = null;
-	    contentStack.removeAllElements ();
+	    grammar = null;
+	    grammarId = null;
 	    elements.clear ();
 	    ids.clear ();
 
-	    notations.removeAllElements ();
-	    nDeferred.removeAllElements ();
-	    unparsed.removeAllElements ();
-	    uDeferred.removeAllElements ();
+	    notations.clear ();
+	    nDeferred.clear ();
+	    unparsed.clear ();
+	    uDeferred.clear ();
+	}
+    }
+
+    private Grammar getGrammar ()
+    {
+	if (grammar == null)
+	    grammar = getGrammar (null);
+	return grammar;
+    }
+
+    // declarations may be seen before the content model
+    private ElementInfo getElementInfo (String name)
+    {
+	ElementInfo	info = (ElementInfo) elements.get (name);
+
+	if (info == null) {
+	    info = new ElementInfo (name, getGrammar ().getCode (name));
+	    elements.put (name, info);
 	}
+	return info;
     }
 
 
@@ -559,7 +588,14 @@ public final class ValidationConsumer extends EventFilter
 	if (disableDeclarations)
 	    return;
 
+	Locator		locator = getDocumentLocator ();
+
 	rootName = name;
+	if (locator != null)
+	    grammarId = GrammarPool.resolve (locator.getSystemId (), systemId);
+	else
+	    grammarId = systemId;
+	grammar = getGrammar (grammarId);
 	super.startDTD (name, publicId, systemId);
     }
 
@@ -583,25 +619,25 @@ public final class ValidationConsumer extends EventFilter
 	//	as can NOTATION attribute enumerations and defaults)
 	int length = nDeferred.size ();
 	for (int i = 0; i < length; i++) {
-	    String notation = (String) nDeferred.elementAt (i);
+	    String notation = (String) nDeferred.get (i);
 	    if (!notations.contains (notation)) {
 		error ("A declaration referred to notation '" + notation
 			+ "' which was never declared");
 	    }
 	}
-	nDeferred.removeAllElements ();
+	nDeferred.clear ();
 
 	// VC: Entity Name (attribute values can refer to them
 	//	before they're declared); VC Attribute Default Legal
 	length = uDeferred.size ();
 	for (int i = 0; i < length; i++) {
-	    String entity = (String) uDeferred.elementAt (i);
+	    String entity = (String) uDeferred.get (i);
 	    if (!unparsed.contains (entity)) {
 		error ("An attribute default referred to entity '" + entity
 			+ "' which was never declared");
 	    }
 	}
-	uDeferred.removeAllElements ();
+	uDeferred.clear ();
 	super.endDTD ();
     }
 
@@ -635,7 +671,7 @@ public final class ValidationConsumer extends EventFilter
 	if (disableDeclarations)
 	    return;
 
-	ElementInfo	info = (ElementInfo) elements.get (eName);
+	ElementInfo	info = getElementInfo (eName);
 	AttributeInfo	ainfo = new AttributeInfo ();
 	boolean		checkOne = false;
 	boolean		interned = false;
@@ -658,11 +694,6 @@ public final class ValidationConsumer extends EventFilter
 	ainfo.mode = mode;
 	ainfo.value = value;
 
-	// we might not have seen the content model yet
-	if (info == null) {
-	    info = new ElementInfo (eName);
-	    elements.put (eName, info);
-	}
 	if ("ID" == type) {
 	    checkOne = true;
 	    if (!("#REQUIRED" == mode || "#IMPLIED".equals (mode))) {
@@ -681,18 +712,17 @@ public final class ValidationConsumer extends EventFilter
 	    while (tokens.hasMoreTokens ()) {
 		String	token = tokens.nextToken ();
 		if (!notations.contains (token))
-		    nDeferred.addElement (token);
+		    nDeferred.add (token);
 	    }
 	}
 	if (checkOne) {
-	    for (Enumeration e = info.attributes.keys ();
-		    e.hasMoreElements ();
+	    for (Iterator i = info.attributes.entrySet ().iterator ();
+		    i.hasNext ();
 		    /* NOP */) {
-		String		name;
-		AttributeInfo	ainfo2;
+		Map.Entry	entry = (Map.Entry) i.next ();
+		String		name = (String) entry.getKey ();
+		AttributeInfo	ainfo2 = (AttributeInfo) entry.getValue ();
 
-		name = (String) e.nextElement ();
-		ainfo2 = (AttributeInfo) info.attributes.get (name);
 		if (type == ainfo2.type || !interned /* NOTATION */) {
 		    // VC: One ID per Element Type
 		    // VC: One Notation per Element TYpe
@@ -732,7 +762,7 @@ public final class ValidationConsumer extends EventFilter
 		// VC: IDREF (is a name) (is declared)
 		isName (value, "attribute default", aName);
 		if ("ENTITY" == type && !unparsed.contains (value))
-		    uDeferred.addElement (value);
+		    uDeferred.add (value);
 
 	    } else if ("IDREFS" == type || "ENTITIES" == type) {
 		// VC: Entity Name (is a name; at least one value)
@@ -745,7 +775,7 @@ public final class ValidationConsumer extends EventFilter
 		    String name = names.nextToken ();
 		    isName (name, "attribute default", aName);
 		    if ("ENTITIES" == type && !unparsed.contains (name))
-			uDeferred.addElement (value);
+			uDeferred.add (value);
 		} while (names.hasMoreTokens ());
 	    
 	    } else if (type.charAt (0) == '(' /*)*/ ) {
@@ -758,7 +788,7 @@ public final class ValidationConsumer extends EventFilter
 
 		// VC: Notation attributes (must be declared)
 		if (!notations.contains (value))
-		    nDeferred.addElement (value);
+		    nDeferred.add (value);
 		
 		// VC: Enumeration (must match)
 		checkEnumeration (value, type, aName);
@@ -767,8 +797,11 @@ public final class ValidationConsumer extends EventFilter
 		throw new RuntimeException ("illegal attribute type: " + type);
 	}
 
-	if (info.attributes.get (aName) == null)
+	if (info.attributes.get (aName) == null) {
 	    info.attributes.put (aName, ainfo);
+	    if ("#REQUIRED" == mode)
+		info.addRequired (aName);
+	}
 	/*
 	else
 	    warning ("Element '" + eName
@@ -805,13 +838,9 @@ public final class ValidationConsumer extends EventFilter
 	if (disableDeclarations)
 	    return;
 
-	ElementInfo	info = (ElementInfo) elements.get (name);
-
 	// we might have seen an attribute decl already
-	if (info == null) {
-	    info = new ElementInfo (name);
-	    elements.put (name, info);
-	}
+	ElementInfo	info = getElementInfo (name);
+
 	if (info.model != null) {
 	    // NOTE:  not all parsers can report such duplicates.
 	    // VC: Unique Element Type Declaration
@@ -822,11 +851,31 @@ public final class ValidationConsumer extends EventFilter
 
 	    // VC: No Duplicate Types (in mixed content models)
 	    if (model.charAt (1) == '#') 	// (#PCDATA...
-		info.getRecognizer (this);
+		checkMixed (model);
 	}
 	super.elementDecl (name, model);
     }
 
+    private void checkMixed (String model)
+    throws SAXException
+    {
+	// (#PCDATA...)* or (#PCDATA) ==> ... or empty
+	// with the "..." being "|elname|..."
+	StringTokenizer	tokens = new StringTokenizer (
+	    model.substring (8, model.lastIndexOf (')')),
+	    "|");
+	HashSet		seen = new HashSet ();
+
+	while (tokens.hasMoreTokens ()) {
+	    String token = tokens.nextToken ();
+
+	    if (!seen.add (token))
+		error ("element " + token
+		    + " is repeated in mixed content model: "
+		    + model);
+	}
+    }
+
     /**
      * <b>DecllHandler</b> passed to the next consumer, unless this
      * one was preloaded with a particular DTD
@@ -863,7 +912,7 @@ public final class ValidationConsumer extends EventFilter
 	if (disableDeclarations)
 	    return;
 
-	notations.addElement (name);
+	notations.add (name);
 	super.notationDecl (name, publicId, systemId);
     }
 
@@ -883,9 +932,9 @@ public final class ValidationConsumer extends EventFilter
 	if (disableDeclarations)
 	    return;
 
-	unparsed.addElement (name);
+	unparsed.add (name);
 	if (!notations.contains (notationName))
-	    nDeferred.addElement (notationName);
+	    nDeferred.add (notationName);
 	super.unparsedEntityDecl (name, publicId, systemId, notationName);
     }
     
@@ -947,10 +996,14 @@ public final class ValidationConsumer extends EventFilter
 	Attributes	atts
     ) throws SAXException
     {
+	ElementInfo		info;
+
+	info = (ElementInfo) elements.get (qName);
+
 	//
 	// First check content model for the enclosing scope.
 	//
-	if (contentStack.isEmpty ()) {
+	if (depth == 0) {
 	    // VC:  Root Element Type
 	    if (!qName.equals (rootName)) {
 		if (rootName == null)
@@ -960,44 +1013,62 @@ public final class ValidationConsumer extends EventFilter
 			+ "' was declared to be '" + rootName + "'");
 	    }
 	} else {
-	    Recognizer state = (Recognizer) contentStack.peek ();
+	    ElementInfo parent = contentStack [depth - 1];
 
-	    if (state != null) {
-		Recognizer newstate = state.acceptElement (qName);
+	    if (parent != null) {
+		int	code;
+		int	state;
 
-		if (newstate == null)
+		if (info != null)
+		    code = info.code;
+		else
+		    code = getGrammar ().lookupCode (qName);
+		state = parent.getRecognizer (grammar)
+			.acceptElement (contentStates [depth - 1], code);
+
+		if (state < 0) {
 		    error ("Element type '" + qName
-			+ "' in element '" + state.type.name
-			+ "' violates content model " + state.type.model
+			+ "' in element '" + parent.name
+			+ "' violates content model " + parent.model
 			);
-		if (newstate != state) {
-		    contentStack.pop ();
-		    contentStack.push (newstate);
-		}
+		    // don't check the rest of the parent's content
+		    contentStack [depth - 1] = null;
+		} else
+		    contentStates [depth - 1] = state;
 	    }
 	}
 
 	//
-	// Then check that this element was declared, and push the
-	// object used to validate its content model onto our stack.
+	// Then check that this element was declared, and push its
+	// declaration onto our stack, with the initial state of its
+	// content model.
 	//
 	// This is where the recognizer gets created, if needed; if
-	// it's a "children" (elements) content model, an NDFA is
-	// created.  (One recognizer is used per content type, no
-	// matter how complex that recognizer is.)
+	// it's a "children" (elements) content model, a DFA is
+	// compiled.  (One recognizer is used per content model, no
+	// matter how many element types share it.)
 	//
-	ElementInfo		info;
-
-	info = (ElementInfo) elements.get (qName);
+	if (depth == contentStack.length) {
+	    ElementInfo	tmp [] = new ElementInfo [depth * 2];
+	    int		tmpStates [] = new int [depth * 2];
+
+	    System.arraycopy (contentStack, 0, tmp, 0, depth);
+	    System.arraycopy (contentStates, 0, tmpStates, 0, depth);
+	    contentStack = tmp;
+	    contentStates = tmpStates;
+	}
+	contentStates [depth] = 0;
 	if (info == null || info.model == null) {
 	    // VC: Element Valid (base clause)
 	    error ("Element type '" + qName + "' was not declared");
-	    contentStack.push (null);
+	    contentStack [depth++] = null;
 
 	    // for less diagnostic noise, fake a declaration.
 	    elementDecl (qName, "ANY");
-	} else
-	    contentStack.push (info.getRecognizer (this));
+	} else {
+	    info.getRecognizer (getGrammar ());
+	    contentStack [depth++] = info;
+	}
 
 	//
 	// Then check each attribute present
@@ -1161,24 +1232,14 @@ public final class ValidationConsumer extends EventFilter
 	// Last, check that all #REQUIRED attributes were provided
 	//
 	if (info != null) {
-	    Hashtable	table = info.attributes;
-
-	    if (table.size () != 0) {
-		Enumeration	e = table.keys ();
-
-		// XXX table.keys uses the heap, bleech -- slows things
-
-		while (e.hasMoreElements ()) {
-		    aname = (String) e.nextElement ();
-		    ainfo = (AttributeInfo) table.get (aname);
-
-		    // "#REQUIRED" mode was interned in attributeDecl
-		    if ("#REQUIRED" == ainfo.mode
-			    && atts.getValue (aname) == null) {
-			// VC: Required Attribute
-			error ("Attribute '" + aname + "' must be specified "
-			    + "for element type " + qName);
-		    }
+	    String	required [] = info.required;
+
+	    for (int i = 0; i < required.length; i++) {
+		aname = required [i];
+		if (atts.getValue (aname) == null) {
+		    // VC: Required Attribute
+		    error ("Attribute '" + aname + "' must be specified "
+			+ "for element type " + qName);
 		}
 	    }
 	}
@@ -1193,21 +1254,21 @@ public final class ValidationConsumer extends EventFilter
     public void characters (char ch [], int start, int length)
     throws SAXException
     {
-	Recognizer state;
+	ElementInfo	info;
 
-	if (contentStack.empty ())
-	    state = null;
+	if (depth == 0)
+	    info = null;
 	else
-	    state = (Recognizer) contentStack.peek ();
+	    info = contentStack [depth - 1];
 
 	// NOTE:  if this ever supports with SAX parsers that don't
 	// report ignorable whitespace as such (only XP?), this class
 	// needs to morph it into ignorableWhitespace() as needed ...
 
-	if (state != null && !state.acceptCharacters ())
+	if (info != null && !info.getRecognizer (grammar).acceptCharacters ())
 	    // VC: Element Valid (clauses three, four -- see recognizer)
 	    error ("Character content not allowed in element "
-		+ state.type.name);
+		+ info.name);
 	
 	super.characters (ch, start, length);
     }
@@ -1222,25 +1283,27 @@ public final class ValidationConsumer extends EventFilter
     public void endElement (String uri, String localName, String qName)
     throws SAXException
     {
-	try {
-	    Recognizer state = (Recognizer) contentStack.pop ();
-
-	    if (state != null && !state.completed ())
-		// VC: Element valid (clauses two, three, four; see Recognizer)
-		error ("Premature end for element '"
-		    + state.type.name
-		    + "', content model "
-		    + state.type.model);
-	    
-	    // could insist on match of start element, but that's
-	    // something the input stream must to guarantee.
-
-	} catch (EmptyStackException e) {
+	if (depth == 0)
 	    fatalError ("endElement without startElement: " + qName
 		+ ((uri == null)
 		    ? ""
 		    : ( " { '" + uri + "', " + localName + " }")));
-	}
+
+	ElementInfo	info = contentStack [--depth];
+
+	contentStack [depth] = null;
+	if (info != null
+		&& !info.getRecognizer (grammar)
+			.completed (contentStates [depth]))
+	    // VC: Element valid (clauses two, three, four; see Recognizer)
+	    error ("Premature end for element '"
+		+ info.name
+		+ "', content model "
+		+ info.model);
+
+	// could insist on match of start element, but that's
+	// something the input stream must to guarantee.
+
 	super.endElement (uri, localName, qName);
     }
 
@@ -1254,57 +1317,64 @@ public final class ValidationConsumer extends EventFilter
     public void endDocument ()
     throws SAXException
     {
-	for (Enumeration idNames = ids.keys ();
-		idNames.hasMoreElements ();
-		/* NOP */) {
-	    String id = (String) idNames.nextElement ();
-	    
-	    if (Boolean.FALSE == ids.get (id)) {
+	for (Iterator i = ids.entrySet ().iterator (); i.hasNext (); ) {
+	    Map.Entry	entry = (Map.Entry) i.next ();
+	    String	id = (String) entry.getKey ();
+
+	    if (Boolean.FALSE == entry.getValue ()) {
 		// VC: IDREF (must match ID)
 		error ("Undeclared ID value '" + id
 		    + "' was referred to by an IDREF/IDREFS attribute");
 	    }
 	}
 
+	if (grammarId != null && grammar.isModified ())
+	    grammar = putGrammar (grammarId, grammar);
 	resetState ();
 	super.endDocument ();
     }
 
 
+
+
     /** Holds per-element declarations */
     static private final class ElementInfo
     {
-	String			name;
+	final String		name;
+	final int		code;
 	String			model;
 
 	// key = attribute name; value = AttributeInfo
-	Hashtable		attributes = new Hashtable (11);
+	HashMap			attributes = new HashMap (11);
 
-	ElementInfo (String n) { name = n; }
+	// names of #REQUIRED attributes, checked on each start tag
+	String			required [] = NO_NAMES;
+
+	ElementInfo (String n, int c) { name = n; code = c; }
 
 	private Recognizer	recognizer;
 
-	// for validating content models:  one per type, shared,
-	// and constructed only on demand ... so unused elements do
-	// not need to consume resources.
-	Recognizer	getRecognizer (ValidationConsumer consumer)
-	throws SAXException
+	// for validating content models:  compiled on demand, and
+	// shared by all element types with the same content model
+	Recognizer	getRecognizer (Grammar grammar)
 	{
-	    if (recognizer == null) {
-		if ("ANY".equals (model))
-		    recognizer = ANY;
-		else if ("EMPTY".equals (model))
-		    recognizer = new EmptyRecognizer (this);
-		else if ('#' == model.charAt (1))
-		    // n.b. this constructor does a validity check
-		    recognizer = new MixedRecognizer (this, consumer);
-		else
-		    recognizer = new ChildrenRecognizer (this, consumer);
-	    }
+	    if (recognizer == null)
+		recognizer = grammar.getRecognizer (model);
 	    return recognizer;
 	}
+
+	void addRequired (String aName)
+	{
+	    String	tmp [] = new String [required.length + 1];
+
+	    System.arraycopy (required, 0, tmp, 0, required.length);
+	    tmp [required.length] = aName;
+	    required = tmp;
+	}
     }
 
+    private static final String		NO_NAMES [] = new String [0];
+
     /** Holds per-attribute declarations */
     static private final class AttributeInfo
     {
@@ -1315,468 +1385,317 @@ public final class ValidationConsumer extends EventFilter
 
 
     //
-    // Content model validation
+    // Compiled content models are shared between documents using
+    // the same external DTD subset, through the process-wide grammar
+    // pool.  Each grammar codes element names as small integers;
+    // compiled models refer only to those codes, and are keyed by the
+    // model text, so sharing them is correct even when documents have
+    // different internal subsets.
     //
+    // Pooled grammars are never modified.  Each document gets its own
+    // grammar layered over the pooled one; names and models it adds are
+    // kept locally, and at the end of the document a merged copy
+    // replaces the pooled grammar.  Codes are never renumbered, so
+    // recognizers compiled against either one stay valid.
+    //
+
+    private static Grammar getGrammar (String systemId)
+    {
+	Grammar		shared = null;
+
+	if (systemId != null)
+	    shared = (Grammar) GrammarPool.getInstance ()
+		    .get (XMLConstants.XML_DTD_NS_URI, systemId);
+	return new Grammar (shared);
+    }
 
-    static private final Recognizer	ANY = new Recognizer (null);
+    // returns a grammar layered over the one now pooled
+    private static Grammar putGrammar (String systemId, Grammar grammar)
+    {
+	Grammar		shared = grammar.merge ();
+
+	GrammarPool.getInstance ()
+		.put (XMLConstants.XML_DTD_NS_URI, systemId, shared);
+	return new Grammar (shared);
+    }
+
+    static private final class Grammar
+    {
+	// pooled grammar, or null; never modified
+	private final Grammar	parent;
+	// codes below this belong to the parent
+	private final int	base;
+	// key = element name; value = Integer code
+	private final HashMap	codes;
+	// key = content model; value = Recognizer
+	private final HashMap	models;
+
+	Grammar (Grammar parent)
+	{
+	    this.parent = parent;
+	    base = (parent == null) ? 0 : parent.codes.size ();
+	    codes = new HashMap ();
+	    models = new HashMap ();
+	}
+
+	private Grammar (HashMap codes, HashMap models)
+	{
+	    parent = null;
+	    base = 0;
+	    this.codes = codes;
+	    this.models = models;
+	}
+
+	// returns the code for this name, assigning one if needed
+	int getCode (String name)
+	{
+	    int		code = lookupCode (name);
+
+	    if (code < 0) {
+		code = base + codes.size ();
+		codes.put (name, new Integer (code));
+	    }
+	    return code;
+	}
+
+	// returns -1 if no content model mentions this name
+	int lookupCode (String name)
+	{
+	    Integer	code = null;
+
+	    if (parent != null)
+		code = (Integer) parent.codes.get (name);
+	    if (code == null)
+		code = (Integer) codes.get (name);
+	    return (code == null) ? -1 : code.intValue ();
+	}
+
+	Recognizer getRecognizer (String model)
+	{
+	    Recognizer	recognizer = null;
+
+	    if (parent != null)
+		recognizer = (Recognizer) parent.models.get (model);
+	    if (recognizer == null)
+		recognizer = (Recognizer) models.get (model);
+	    if (recognizer == null) {
+		if ("ANY".equals (model))
+		    recognizer = ANY;
+		else if ("EMPTY".equals (model))
+		    recognizer = EMPTY;
+		else if ('#' == model.charAt (1))
+		    recognizer = new MixedRecognizer (model, this);
+		else
+		    recognizer = new ChildrenRecognizer (model, this);
+		models.put (model, recognizer);
+	    }
+	    return recognizer;
+	}
+
+	// true iff names or models were added to the parent's
+	boolean isModified ()
+	{
+	    return !codes.isEmpty () || !models.isEmpty ();
+	}
+
+	// returns a grammar holding the parent's entries and these
+	Grammar merge ()
+	{
+	    HashMap	allCodes = new HashMap ();
+	    HashMap	allModels = new HashMap ();
+
+	    if (parent != null) {
+		allCodes.putAll (parent.codes);
+		allModels.putAll (parent.models);
+	    }
+	    allCodes.putAll (codes);
+	    allModels.putAll (models);
+	    return new Grammar (allCodes, allModels);
+	}
+    }
+
+
+    //
+    // Content model validation.  Recognizers are immutable and
+    // shared; the state of each open element is an int, kept on
+    // the content stack next to its ElementInfo.
+    //
+
+    static private final Recognizer	ANY = new Recognizer ();
+    static private final Recognizer	EMPTY = new EmptyRecognizer ();
 
 
     // Base class defines the calls used to validate content,
     // and supports the "ANY" content model
     static private class Recognizer
     {
-	final ElementInfo	type;
-
-	Recognizer (ElementInfo t) { type = t; }
-
 	// return true iff character data is legal here
 	boolean acceptCharacters ()
-	throws SAXException
 	    // VC: Element Valid (third and fourth clauses)
 	    { return true; }
 
-	// null return = failure
+	// -1 return = failure
 	// otherwise, next state (like an FSM)
-	// prerequisite: tested that name was declared
-	Recognizer acceptElement (String name)
-	throws SAXException
+	int acceptElement (int state, int code)
 	    // VC: Element Valid (fourth clause)
-	    { return this; }
+	    { return state; }
 
 	// return true iff model is completed, can finish
-	boolean completed ()
-	throws SAXException
+	boolean completed (int state)
 	    // VC: Element Valid (fourth clause)
 	    { return true; }
-	
-	public String toString ()
-	    // n.b. "children" is the interesting case!
-	    { return (type == null) ? "ANY" : type.model; }
     }
 
     // "EMPTY" content model -- no characters or elements
     private static final class EmptyRecognizer extends Recognizer
     {
-	public EmptyRecognizer (ElementInfo type)
-	    { super (type); }
-
 	// VC: Element Valid (first clause)
 	boolean acceptCharacters ()
 	    { return false; }
 
 	// VC: Element Valid (first clause)
-	Recognizer acceptElement (String name)
-	    { return null; }
+	int acceptElement (int state, int code)
+	    { return -1; }
     }
 
     // "Mixed" content model -- ANY, but restricts elements
     private static final class MixedRecognizer extends Recognizer
     {
-	private String	permitted [];
+	// indexed by element code
+	private boolean	permitted [];
 
-	// N.B. constructor tests for duplicated element names (VC)
-	public MixedRecognizer (ElementInfo t, ValidationConsumer v)
-	throws SAXException
+	MixedRecognizer (String model, Grammar grammar)
 	{
-	    super (t);
-
 	    // (#PCDATA...)* or (#PCDATA) ==> ... or empty
 	    // with the "..." being "|elname|..."
 	    StringTokenizer	tokens = new StringTokenizer (
-		t.model.substring (8, t.model.lastIndexOf (')')),
+		model.substring (8, model.lastIndexOf (')')),
 		"|");
-	    Vector		vec = new Vector ();
+	    int			codes [] = new int [tokens.countTokens ()];
+	    int			max = -1;
 
-	    while (tokens.hasMoreTokens ()) {
-		String token = tokens.nextToken ();
-
-		if (vec.contains (token))
-		    v.error ("element " + token
-			+ " is repeated in mixed content model: "
-			+ t.model);
-		else
-		    vec.addElement (token.intern ());
+	    for (int i = 0; i < codes.length; i++) {
+		codes [i] = grammar.getCode (tokens.nextToken ());
+		if (codes [i] > max)
+		    max = codes [i];
 	    }
-	    permitted = new String [vec.size ()];
-	    for (int i = 0; i < permitted.length; i++)
-		permitted [i] = (String) vec.elementAt (i);
-	    
-	    // in one large machine-derived DTD sample, most of about
-	    // 250 mixed content models were empty, and 25 had ten or
-	    // more entries.  2 had over a hundred elements.  Linear
-	    // search isn't obviously wrong.
+	    permitted = new boolean [max + 1];
+	    for (int i = 0; i < codes.length; i++)
+		permitted [codes [i]] = true;
 	}
 
 	// VC: Element Valid (third clause)
-	Recognizer acceptElement (String name)
+	int acceptElement (int state, int code)
 	{
-	    int		length = permitted.length;
-
-	    // first pass -- optimistic w.r.t. event source interning
-	    // (and document validity)
-	    for (int i = 0; i < length; i++)
-		if (permitted [i] == name)
-		    return this;
-	    // second pass -- pessimistic w.r.t. event source interning
-	    for (int i = 0; i < length; i++)
-		if (permitted [i].equals (name))
-		    return this;
-	    return null;
+	    if (code >= 0 && code < permitted.length && permitted [code])
+		return state;
+	    return -1;
 	}
     }
 
-
-    // recognizer loop flags, see later
-    private static final int		F_LOOPHEAD = 0x01;
-    private static final int		F_LOOPNEXT = 0x02;
-
-    // for debugging -- used to label/count nodes in toString()
-    private static int			nodeCount;
-
     /**
-     * "Children" content model -- these are nodes in NDFA state graphs.
-     * They work in fixed space.  Note that these graphs commonly have
-     * cycles, handling features such as zero-or-more and one-or-more.
+     * "Children" content model, compiled to a DFA.  The model is first
+     * turned into a position (Glushkov) automaton, whose states are the
+     * element names in the model; subset construction then makes that
+     * deterministic.  Deterministic models, as XML requires, need no
+     * more states than they have positions.
      *
-     * <p>It's readonly, so only one copy is ever needed.  The content model
-     * stack may have any number of pointers into each graph, when a model
-     * happens to be needed more than once due to element nesting.  Since
-     * traversing the graph just moves to another node, and never changes
-     * it, traversals never interfere with each other.
-     *
-     * <p>There is an option to report non-deterministic models.  These are
-     * always XML errors, but ones which are not often reported despite the
-     * fact that they can lead to different validating parsers giving
-     * different results for the same input.  (The XML spec doesn't require
-     * them to be reported.)
-     *
-     * <p><b>FIXME</b> There's currently at least one known bug here, in that
-     * it's not actually detecting the non-determinism it tries to detect.
-     * (Of the "optional.xml" test, the once-or-twice-2* tests are all non-D;
-     * maybe some others.)  This may relate to the issue flagged below as
-     * "should not" happen (but it was), which showed up when patching the
-     * graph to have one exit node (or more EMPTY nodes).
+     * <p> Transitions are held in one table, with a row per state and a
+     * column per distinct element in the model; element codes are mapped
+     * to columns, so validating each child is a pair of array lookups.
      */
     private static final class ChildrenRecognizer extends Recognizer
-	implements Cloneable
     {
-	// for reporting non-deterministic content models
-	// ... a waste of space if we're not reporting those!
-	// ... along with the 'model' member (in base class)
-	private ValidationConsumer	consumer;
-
-	// for CHOICE nodes -- each component is an arc that
-	// accepts a different NAME (or is EMPTY indicating
-	// NDFA termination).
-	private Recognizer		components [];
-
-	// for NAME/SEQUENCE nodes -- accepts that NAME and
-	// then goes to the next node (CHOICE, NAME, EMPTY).
-	private String			name;
-	private Recognizer		next;
-
-	// loops always point back to a CHOICE node. we mark such choice
-	// nodes (F_LOOPHEAD) for diagnostics and faster deep cloning.
-	// We also mark nodes before back pointers (F_LOOPNEXT), to ensure
-	// termination when we patch sequences and loops.
-	private int			flags;
-
-
-	// prevent a needless indirection between 'this' and 'node'
-	private void copyIn (ChildrenRecognizer node)
+	// element code --> column + 1, or zero
+	private final int	columns [];
+	private final int	ncols;
+	// next [state * ncols + column] --> state, or -1
+	private final int	next [];
+	private final boolean	accept [];
+
+	ChildrenRecognizer (String model, Grammar grammar)
 	{
-	    // model & consumer are already set
-	    components = node.components;
-	    name = node.name;
-	    next = node.next;
-	    flags = node.flags;
-	}
-
-	// used to construct top level "children" content models,
-	public ChildrenRecognizer (ElementInfo type, ValidationConsumer vc)
-	{
-	    this (vc, type);
-	    populate (type.model.toCharArray (), 0);
-	    patchNext (new EmptyRecognizer (type), null);
-	}
-
-	// used internally; populating is separate
-	private ChildrenRecognizer (ValidationConsumer vc, ElementInfo type)
-	{
-	    super (type);
-	    consumer = vc;
-	}
-
-
-	//
-	// When rewriting some graph nodes we need deep clones in one case;
-	// mostly shallow clones (what the JVM handles for us) are fine.
-	//
-	private ChildrenRecognizer shallowClone ()
-	{
-	    try {
-		return (ChildrenRecognizer) clone ();
-	    } catch (CloneNotSupportedException e) {
-		throw new Error ("clone");
-	    }
-	}
-
-	private ChildrenRecognizer deepClone ()
-	{
-	    return deepClone (new Hashtable (37));
-	}
-
-	private ChildrenRecognizer deepClone (Hashtable table)
-	{
-	    ChildrenRecognizer retval;
-
-	    if ((flags & F_LOOPHEAD) != 0) {
-		retval = (ChildrenRecognizer) table.get (this);
-		if (retval != null)
-		    return this;
-
-		retval = shallowClone ();
-		table.put (this, retval);
-	    } else
-		retval = shallowClone ();
-
-	    if (next != null) {
-		if (next instanceof ChildrenRecognizer)
-		    retval.next = ((ChildrenRecognizer)next)
-			    .deepClone (table);
-		else if (!(next instanceof EmptyRecognizer))
-		    throw new RuntimeException ("deepClone");
-	    }
-
-	    if (components != null) {
-		retval.components = new Recognizer [components.length];
-		for (int i = 0; i < components.length; i++) {
-		    Recognizer temp = components [i];
-
-		    if (temp == null)
-			retval.components [i] = null;
-		    else if (temp instanceof ChildrenRecognizer)
-			retval.components [i] = ((ChildrenRecognizer)temp)
-				.deepClone (table);
-		    else if (!(temp instanceof EmptyRecognizer))
-			throw new RuntimeException ("deepClone");
+	    ModelCompiler	compiler = new ModelCompiler (model, grammar);
+	    Particle		root = compiler.particle ();
+	    int			start;
+
+	    if (compiler.pos != compiler.buf.length)
+		throw new RuntimeException ("corrupt content model");
+
+	    // a virtual start position precedes the whole model
+	    start = compiler.addPosition (-1);
+	    compiler.follow (start).or (root.first);
+	    if (root.nullable)
+		root.last.set (start);
+
+	    // map element codes to columns
+	    int		symbols [] = compiler.symbols;
+	    int		max = -1, count = 0;
+
+	    for (int p = 0; p < start; p++)
+		if (symbols [p] > max)
+		    max = symbols [p];
+	    columns = new int [max + 1];
+	    for (int p = 0; p < start; p++)
+		if (columns [symbols [p]] == 0)
+		    columns [symbols [p]] = ++count;
+	    ncols = count;
+
+	    BitSet	byColumn [] = new BitSet [ncols];
+
+	    for (int c = 0; c < ncols; c++)
+		byColumn [c] = new BitSet ();
+	    for (int p = 0; p < start; p++)
+		byColumn [columns [symbols [p]] - 1].set (p);
+
+	    // subset construction
+	    ArrayList	states = new ArrayList ();
+	    HashMap	ids = new HashMap ();
+	    int		table [] = new int [ncols * 8];
+	    BitSet	initial = new BitSet ();
+
+	    initial.set (start);
+	    states.add (initial);
+	    ids.put (initial, new Integer (0));
+	    for (int s = 0; s < states.size (); s++) {
+		BitSet	state = (BitSet) states.get (s);
+		BitSet	reach = new BitSet ();
+
+		for (int p = state.nextSetBit (0);
+			p >= 0;
+			p = state.nextSetBit (p + 1))
+		    reach.or (compiler.follow (p));
+
+		if (table.length < (s + 1) * ncols) {
+		    int	tmp [] = new int [table.length * 2];
+
+		    System.arraycopy (table, 0, tmp, 0, table.length);
+		    table = tmp;
 		}
-	    }
-
-	    return retval;
-	}
-
-	// connect subgraphs, first to next (sequencing)
-	private void patchNext (Recognizer theNext, Hashtable table)
-	{
-	    // backpointers must not be repatched or followed
-	    if ((flags & F_LOOPNEXT) != 0)
-		return;
-
-	    // XXX this table "shouldn't" be needed, right?
-	    // but some choice nodes looped if it isn't there.
-	    if (table != null && table.get (this) != null)
-		return;
-	    if (table == null)
-		table = new Hashtable ();
-
-	    // NAME/SEQUENCE
-	    if (name != null) {
-		if (next == null)
-		    next = theNext;
-		else if (next instanceof ChildrenRecognizer) {
-		    ((ChildrenRecognizer)next).patchNext (theNext, table);
-		} else if (!(next instanceof EmptyRecognizer))
-		    throw new RuntimeException ("patchNext");
-		return;
-	    }
-
-	    // CHOICE
-	    for (int i = 0; i < components.length; i++) {
-		if (components [i] == null)
-		    components [i] = theNext;
-		else if (components [i] instanceof ChildrenRecognizer) {
-		    ((ChildrenRecognizer)components [i])
-			    .patchNext (theNext, table);
-		} else if (!(components [i] instanceof EmptyRecognizer))
-		    throw new RuntimeException ("patchNext");
-	    }
-
-	    if (table != null && (flags | F_LOOPHEAD) != 0)
-		table.put (this, this);
-	}
-
-	/**
-	 * Parses a 'children' spec (or recursively 'cp') and makes this
-	 * become a regular graph node.
-	 *
-	 * @return index after this particle
-	 */
-	private int populate (char parseBuf [], int startPos)
-	{
-	    int		nextPos = startPos + 1;
-	    char	c;
-
-	    if (nextPos < 0 || nextPos >= parseBuf.length)
-		throw new IndexOutOfBoundsException ();
-
-	    // Grammar of the string is from the XML spec, but
-	    // with whitespace removed by the SAX parser.
-
-	    // children ::= (choice | seq) ('?' | '*' | '+')?
-	    // cp ::= (Name | choice | seq) ('?' | '*' | '+')?
-	    // choice ::= '(' cp ('|' choice)* ')'
-	    // seq ::= '(' cp (',' choice)* ')'
-
-	    // interior nodes only
-	    //   cp ::= name ...
-	    if (parseBuf [startPos] != '('/*)*/) {
-		boolean		done = false;
-		do {
-		    switch (c = parseBuf [nextPos]) {
-			case '?': case '*': case '+':
-			case '|': case ',':
-			case /*(*/ ')':
-			    done = true;
-			    continue;
-			default:
-			    nextPos++;
-			    continue;
+		for (int c = 0; c < ncols; c++) {
+		    BitSet	target = (BitSet) reach.clone ();
+		    Integer	id;
+
+		    target.and (byColumn [c]);
+		    if (target.isEmpty ()) {
+			table [s * ncols + c] = -1;
+			continue;
 		    }
-		} while (!done);
-		name = new String (parseBuf, startPos, nextPos - startPos);
-
-	    // interior OR toplevel nodes
-	    //   cp ::= choice ..
-	    //   cp ::= seq ..
-	    } else {
-		// collect everything as a separate list, and merge it
-		// into "this" later if we can (SEQUENCE or singleton)
-		ChildrenRecognizer	first;
-	       
-		first = new ChildrenRecognizer (consumer, type);
-		nextPos = first.populate (parseBuf, nextPos);
-		c = parseBuf [nextPos++];
-
-		if (c == ',' || c == '|') {
-		    ChildrenRecognizer	current = first;
-		    char		separator = c;
-		    Vector		v = null;
-
-		    if (separator == '|') {
-			v = new Vector ();
-			v.addElement (first);
-		    }
-
-		    do {
-			ChildrenRecognizer link;
-
-			link = new ChildrenRecognizer (consumer, type);
-			nextPos = link.populate (parseBuf, nextPos);
-
-			if (separator == ',') {
-			    current.patchNext (link, null);
-			    current = link;
-			} else
-			    v.addElement (link);
-
-			c = parseBuf [nextPos++];
-		    } while (c == separator);
-
-		    // choice ... collect everything into one array.
-		    if (separator == '|') {
-			// assert v.size() > 1
-			components = new Recognizer [v.size ()];
-			for (int i = 0; i < components.length; i++) {
-			    components [i] = (Recognizer)
-				    v.elementAt (i);
-			}
-			// assert flags == 0
-
-		    // sequence ... merge into "this" to be smaller.
-		    } else
-			copyIn (first);
-
-		// treat singletons like one-node sequences.
-		} else
-		    copyIn (first);
-
-		if (c != /*(*/ ')')
-		    throw new RuntimeException ("corrupt content model");
-	    }
-
-	    //
-	    // Arity is optional, and the root of all fun.  We keep the
-	    // FSM state graph simple by only having NAME/SEQUENCE and
-	    // CHOICE nodes (or EMPTY to terminate a model), easily
-	    // evaluated.  So we rewrite each node that has arity, using
-	    // those primitives.  We create loops here, if needed.
-	    //
-	    if (nextPos < parseBuf.length) {
-		c = parseBuf [nextPos];
-		if (c == '?' || c == '*' || c == '+') {
-		    nextPos++;
-
-		    // Rewrite 'zero-or-one' "?" arity to a CHOICE:
-		    //   - SEQUENCE (clone, what's next)
-		    //   - or, what's next
-		    // Size cost: N --> N + 1
-		    if (c == '?') {
-			Recognizer		once = shallowClone ();
-
-			components = new Recognizer [2];
-			components [0] = once;
-			// components [1] initted to null
-			name = null;
-			next = null;
-			flags = 0;
-
-			    
-		    // Rewrite 'zero-or-more' "*" arity to a CHOICE.
-		    //   - LOOP (clone, back to this CHOICE)
-		    //   - or, what's next
-		    // Size cost: N --> N + 1
-		    } else if (c == '*') {
-			ChildrenRecognizer	loop = shallowClone ();
-
-			loop.patchNext (this, null);
-			loop.flags |= F_LOOPNEXT;
-			flags = F_LOOPHEAD;
-
-			components = new Recognizer [2];
-			components [0] = loop;
-			// components [1] initted to null
-			name = null;
-			next = null;
-
-
-		    // Rewrite 'one-or-more' "+" arity to a SEQUENCE.
-		    // Basically (a)+ --> ((a),(a)*).
-		    //   - this
-		    //   - CHOICE
-		    //	    * LOOP (clone, back to the CHOICE)
-		    //	    * or, whatever's next
-		    // Size cost: N --> 2N + 1
-		    } else if (c == '+') {
-			ChildrenRecognizer loop = deepClone ();
-			ChildrenRecognizer choice;
-
-			choice = new ChildrenRecognizer (consumer, type);
-			loop.patchNext (choice, null);
-			loop.flags |= F_LOOPNEXT;
-			choice.flags = F_LOOPHEAD;
-
-			choice.components = new Recognizer [2];
-			choice.components [0] = loop;
-			// choice.components [1] initted to null
-			// choice.name, choice.next initted to null
-
-			patchNext (choice, null);
+		    id = (Integer) ids.get (target);
+		    if (id == null) {
+			id = new Integer (states.size ());
+			states.add (target);
+			ids.put (target, id);
 		    }
+		    table [s * ncols + c] = id.intValue ();
 		}
 	    }
 
-	    return nextPos;
+	    next = new int [states.size () * ncols];
+	    System.arraycopy (table, 0, next, 0, next.length);
+	    accept = new boolean [states.size ()];
+	    for (int s = 0; s < accept.length; s++)
+		accept [s] = ((BitSet) states.get (s)).intersects (root.last);
 	}
 
 	// VC: Element Valid (second clause)
@@ -1784,140 +1703,142 @@ public final class ValidationConsumer extends EventFilter
 	    { return false; }
 
 	// VC: Element Valid (second clause)
-	Recognizer acceptElement (String type)
-	throws SAXException
+	int acceptElement (int state, int code)
 	{
-	    // NAME/SEQUENCE
-	    if (name != null) {
-		if (name.equals (type))
-		    return next;
-		return null;
-	    }
+	    int		column;
+
+	    if (code < 0 || code >= columns.length)
+		return -1;
+	    column = columns [code];
+	    if (column == 0)
+		return -1;
+	    return next [state * ncols + column - 1];
+	}
 
-	    // CHOICE ... optionally reporting nondeterminism we
-	    // run across.  we won't check out every transition
-	    // for nondeterminism; only the ones we follow.
-	    Recognizer	retval = null;
+	// VC: Element Valid (second clause)
+	boolean completed (int state)
+	    { return accept [state]; }
+    }
 
-	    for (int i = 0; i < components.length; i++) {
-		Recognizer temp = components [i].acceptElement (type);
+    // a parsed subexpression of a content model
+    private static final class Particle
+    {
+	boolean		nullable;
+	BitSet		first = new BitSet ();
+	BitSet		last = new BitSet ();
+    }
 
-		if (temp == null)
-		    continue;
-		else if (!warnNonDeterministic)
-		    return temp;
-		else if (retval == null)
-		    retval = temp;
-		else if (retval != temp)
-		    consumer.error ("Content model " + this.type.model
-			+ " is non-deterministic for " + type);
-	    }
-	    return retval;
-	}
+    // builds the position automaton for a "children" content model
+    private static final class ModelCompiler
+    {
+	final char	buf [];
+	int		pos;
+	final Grammar	grammar;
 
-	// VC: Element Valid (second clause)
-	boolean completed ()
-	throws SAXException
-	{
-	    // expecting a specific element
-	    if (name != null)
-		return false;
-	    
-	    // choice, some sequences
-	    for (int i = 0; i < components.length; i++) {
-		if (components [i].completed ())
-		    return true;
-	    }
+	// per position:  element code, and the positions that may follow
+	int		symbols [] = new int [16];
+	ArrayList	follows = new ArrayList ();
 
-	    return false;
+	ModelCompiler (String model, Grammar g)
+	{
+	    buf = model.toCharArray ();
+	    grammar = g;
 	}
 
-/** /
-	// FOR DEBUGGING ... flattens the graph for printing.
-
-	public String toString ()
+	int addPosition (int code)
 	{
-	    StringBuffer buf = new StringBuffer ();
+	    int		p = follows.size ();
 
-	    // only one set of loop labels can be generated
-	    // at a time...
-	    synchronized (ANY) {
-		nodeCount = 0;
+	    if (p == symbols.length) {
+		int	tmp [] = new int [p * 2];
 
-		toString (buf, new Hashtable ());
-		return buf.toString ();
+		System.arraycopy (symbols, 0, tmp, 0, p);
+		symbols = tmp;
 	    }
+	    symbols [p] = code;
+	    follows.add (new BitSet ());
+	    return p;
 	}
 
-	private void toString (StringBuffer buf, Hashtable table)
+	BitSet follow (int p)
+	    { return (BitSet) follows.get (p); }
+
+	// every position in 'from' may be followed by those in 'to'
+	private void link (BitSet from, BitSet to)
 	{
-	    // When we visit a node, label and count it.
-	    // Nodes are never visited/counted more than once.
-	    // For small models labels waste space, but if arity
-	    // mappings were used the savings are substantial.
-	    // (Plus, the output can be more readily understood.)
-	    String temp = (String) table.get (this);
-
-	    if (temp != null) {
-		buf.append ('{');
-		buf.append (temp);
-		buf.append ('}');
-		return;
-	    } else {
-		StringBuffer scratch = new StringBuffer (15);
+	    for (int p = from.nextSetBit (0);
+		    p >= 0;
+		    p = from.nextSetBit (p + 1))
+		follow (p).or (to);
+	}
 
-		if ((flags & F_LOOPHEAD) != 0)
-		    scratch.append ("loop");
-		else
-		    scratch.append ("node");
-		scratch.append ('-');
-		scratch.append (++nodeCount);
-		temp = scratch.toString ();
-
-		table.put (this, temp);
-		buf.append ('[');
-		buf.append (temp);
-		buf.append (']');
-		buf.append (':');
-	    }
+	// Grammar of the string is from the XML spec, but
+	// with whitespace removed by the SAX parser.
+
+	// children ::= (choice | seq) ('?' | '*' | '+')?
+	// cp ::= (Name | choice | seq) ('?' | '*' | '+')?
+	// choice ::= '(' cp ('|' choice)* ')'
+	// seq ::= '(' cp (',' choice)* ')'
+	Particle particle ()
+	{
+	    Particle	retval;
+	    char	c;
 
-	    // NAME/SEQUENCE
-	    if (name != null) {
-		// n.b. some output encodings turn some name chars into '?'
-		// e.g. with Japanese names and ASCII output
-		buf.append (name);
-		if (components != null)		// bug!
-		    buf.append ('$');
-		if (next == null)
-		    buf.append (",*");
-		else if (next instanceof EmptyRecognizer) // patch-to-next
-		    buf.append (",{}");
-		else if (next instanceof ChildrenRecognizer) {
-		    buf.append (',');
-		    ((ChildrenRecognizer)next).toString (buf, table);
-		} else				// bug!
-		    buf.append (",+");
-		return;
+	    if (pos >= buf.length)
+		throw new RuntimeException ("corrupt content model");
+
+	    if (buf [pos] == '('/*)*/) {
+		pos++;
+		retval = particle ();
+		c = buf [pos++];
+		while (c == ',' || c == '|') {
+		    Particle	p = particle ();
+
+		    if (c == ',') {
+			link (retval.last, p.first);
+			if (retval.nullable)
+			    p.first.or (retval.first);
+			else
+			    p.first = retval.first;
+			if (p.nullable)
+			    p.last.or (retval.last);
+			p.nullable &= retval.nullable;
+		    } else {
+			p.first.or (retval.first);
+			p.last.or (retval.last);
+			p.nullable |= retval.nullable;
+		    }
+		    retval = p;
+		    c = buf [pos++];
+		}
+		if (c != /*(*/ ')')
+		    throw new RuntimeException ("corrupt content model");
+	    } else {
+		int	start = pos;
+		int	p;
+
+		while (pos < buf.length
+			&& "?*+|,)".indexOf (buf [pos]) == -1)
+		    pos++;
+		p = addPosition (grammar.getCode (
+			new String (buf, start, pos - start)));
+		retval = new Particle ();
+		retval.first.set (p);
+		retval.last.set (p);
 	    }
 
-	    // CHOICE
-	    buf.append ("<");
-	    for (int i = 0; i < components.length; i++) {
-		if (i != 0)
-		    buf.append ("|");
-		if (components [i] instanceof EmptyRecognizer) {
-		    buf.append ("{}");
-		} else if (components [i] == null) {	// patch-to-next
-		    buf.append ('*');
-		} else {
-		    ChildrenRecognizer r;
-
-		    r = (ChildrenRecognizer) components [i];
-		    r.toString (buf, table);
+	    // arity
+	    if (pos < buf.length) {
+		c = buf [pos];
+		if (c == '?' || c == '*' || c == '+') {
+		    pos++;
+		    if (c != '?')
+			link (retval.last, retval.first);
+		    if (c != '+')
+			retval.nullable = true;
 		}
 	    }
-	    buf.append (">");
+	    return retval;
 	}
-/**/
     }
 }
@@ -76,14 +76,14 @@ final class ApplyTemplatesNode
 
   TemplateNode clone(Stylesheet stylesheet)
   {
-    int len = sortKeys.size();
-    List sortKeys2 = new ArrayList(len);
+    int len = (sortKeys == null) ? 0 : sortKeys.size();
+    List sortKeys2 = (sortKeys == null) ? null : new ArrayList(len);
     for (int i = 0; i < len; i++)
       {
-        sortKeys2.add(((Key) sortKeys.get(i)).clone(stylesheet));
+        sortKeys2.add(((SortKey) sortKeys.get(i)).clone(stylesheet));
       }
-    len = withParams.size();
-    List withParams2 = new ArrayList(len);
+    len = (withParams == null) ? 0 : withParams.size();
+    List withParams2 = (withParams == null) ? null : new ArrayList(len);
     for (int i = 0; i < len; i++)
       {
         withParams2.add(((WithParam) withParams.get(i)).clone(stylesheet));
@@ -90,16 +90,31 @@ public class Bindings
       }
   }
 
-  public Object clone()
+  /**
+   * Copy constructor. The stacks are copied frame by frame, so that the
+   * copy can be pushed to and popped independently of the original.
+   */
+  private Bindings(Bindings bindings)
   {
-    try
-      {
-        return (Bindings) super.clone();
-      }
-    catch (CloneNotSupportedException e)
+    stylesheet = bindings.stylesheet;
+    variables = copyFrames(bindings.variables);
+    parameters = copyFrames(bindings.parameters);
+    withParameters = copyFrames(bindings.withParameters);
+  }
+
+  private static LinkedList copyFrames(LinkedList frames)
+  {
+    LinkedList copy = new LinkedList();
+    for (Iterator i = frames.iterator(); i.hasNext(); )
       {
-        throw new Error(e.getMessage());
+        copy.add(new HashMap((Map) i.next()));
       }
+    return copy;
+  }
+
+  public Object clone()
+  {
+    return new Bindings(this);
   }
 
   void push(int type)
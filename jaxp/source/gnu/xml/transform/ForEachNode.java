@@ -67,11 +67,11 @@ final class ForEachNode
 
   TemplateNode clone(Stylesheet stylesheet)
   {
-    int len = sortKeys.size();
-    List sortKeys2 = new ArrayList(len);
+    int len = (sortKeys == null) ? 0 : sortKeys.size();
+    List sortKeys2 = (sortKeys == null) ? null : new ArrayList(len);
     for (int i = 0; i < len; i++)
       {
-        sortKeys2.add(((Key) sortKeys.get(i)).clone(stylesheet));
+        sortKeys2.add(((SortKey) sortKeys.get(i)).clone(stylesheet));
       }
     TemplateNode ret = new ForEachNode(select.clone(stylesheet),
                                        sortKeys2);
@@ -77,10 +77,7 @@ final class IfNode
              Node parent, Node nextSibling)
     throws TransformerException
   {
-    Object ret = test.evaluate(context, pos, len);
-    boolean success = (ret instanceof Boolean) ?
-      ((Boolean) ret).booleanValue() :
-      Expr._boolean(context, ret);
+    boolean success = test.evaluateBoolean(context, pos, len);
     if (success)
       {
         if (children != null)
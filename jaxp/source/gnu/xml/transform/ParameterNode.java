@@ -70,6 +70,7 @@ final class ParameterNode
   TemplateNode clone(Stylesheet stylesheet)
   {
     TemplateNode ret = new ParameterNode(name,
+                                         (select == null) ? null :
                                          select.clone(stylesheet),
                                          type);
     if (children != null)
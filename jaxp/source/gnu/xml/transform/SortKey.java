@@ -77,6 +77,19 @@ final class SortKey
     this.caseOrderTemplate = caseOrder;
   }
 
+  SortKey clone(Stylesheet stylesheet)
+  {
+    return new SortKey(select.clone(stylesheet),
+                       (langTemplate == null) ? null :
+                       langTemplate.clone(stylesheet),
+                       (dataTypeTemplate == null) ? null :
+                       dataTypeTemplate.clone(stylesheet),
+                       (orderTemplate == null) ? null :
+                       orderTemplate.clone(stylesheet),
+                       (caseOrderTemplate == null) ? null :
+                       caseOrderTemplate.clone(stylesheet));
+  }
+
   String key(Node node)
   {
     Object ret = select.evaluate(node, 1, 1);
@@ -37,14 +37,10 @@ exception statement from your version. */
 
 package gnu.xml.transform;
 
+import gnu.xml.util.XMLOutputBuffer;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
-import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetEncoder;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -65,13 +61,38 @@ import org.w3c.dom.Node;
 public class StreamSerializer
 {
   
-  static final int SPACE = 0x20;
-  static final int BANG = 0x21; // !
-  static final int APOS = 0x27; // '
-  static final int SLASH = 0x2f; // /
-  static final int BRA = 0x3c; // <
-  static final int KET = 0x3e; // >
-  static final int EQ = 0x3d; // =
+  static final char SPACE = 0x20;
+  static final char BANG = 0x21; // !
+  static final char APOS = 0x27; // '
+  static final char SLASH = 0x2f; // /
+  static final char BRA = 0x3c; // <
+  static final char KET = 0x3e; // >
+  static final char EQ = 0x3d; // =
+
+  /**
+   * Replacements for markup characters in character data.
+   */
+  static final String[] TEXT_ESCAPES = new String[0x3f];
+
+  /**
+   * Replacements for markup and control characters in attribute values.
+   */
+  static final String[] ATTRIBUTE_ESCAPES = new String[0x3f];
+  static
+  {
+    TEXT_ESCAPES['<'] = "&lt;";
+    TEXT_ESCAPES['>'] = "&gt;";
+    TEXT_ESCAPES['&'] = "&amp;";
+    for (int c = 0; c < 0x20; c++)
+      {
+        ATTRIBUTE_ESCAPES[c] = "&#" + c + ";";
+      }
+    ATTRIBUTE_ESCAPES['<'] = "&lt;";
+    ATTRIBUTE_ESCAPES['>'] = "&gt;";
+    ATTRIBUTE_ESCAPES['&'] = "&amp;";
+    ATTRIBUTE_ESCAPES['\''] = "&apos;";
+    ATTRIBUTE_ESCAPES['"'] = "&quot;";
+  }
 
   /**
    * HTML 4.01 boolean attributes
@@ -150,8 +171,7 @@ public class StreamSerializer
   }
 
   protected final String encoding;
-  final Charset charset;
-  final CharsetEncoder encoder;
+  final XMLOutputBuffer buffer;
   final int mode;
   final Map namespaces;
   protected String eol;
@@ -178,8 +198,7 @@ public class StreamSerializer
         encoding = "UTF-8";
       }
     this.encoding = encoding.intern();
-    charset = Charset.forName(this.encoding);
-    encoder = charset.newEncoder();
+    buffer = new XMLOutputBuffer(null, this.encoding);
     this.eol = (eol != null) ? eol : System.getProperty("line.separator");
     namespaces = new HashMap();
   }
@@ -198,6 +217,19 @@ public class StreamSerializer
   void serialize(Node node, final OutputStream out,
                  boolean convertToCdata)
     throws IOException
+  {
+    if (out == null)
+      {
+        throw new NullPointerException("no output stream");
+      }
+    buffer.setOutputStream(out);
+    serialize(node, buffer, convertToCdata);
+    buffer.flushBuffer();
+  }
+
+  void serialize(Node node, final XMLOutputBuffer out,
+                 boolean convertToCdata)
+    throws IOException
   {
     while (node != null)
       {
@@ -207,14 +239,10 @@ public class StreamSerializer
       }
   }
 
-  private void doSerialize(final Node node, final OutputStream out,
+  private void doSerialize(final Node node, final XMLOutputBuffer out,
                            boolean convertToCdata)
     throws IOException
   {
-    if (out == null)
-      {
-        throw new NullPointerException("no output stream");
-      }
     String value, prefix;
     Node children;
     String uri = node.getNamespaceURI();
@@ -249,15 +277,16 @@ public class StreamSerializer
             prefix = define(uri, prefix);
             String nsname = (prefix == null) ? "xmlns" : "xmlns:" + prefix;
             out.write(SPACE);
-            out.write(encodeText(nsname));
+            out.write(nsname);
             out.write(EQ);
-            String nsvalue = "'" + encode(uri, true, true) + "'";
-            out.write(nsvalue.getBytes(encoding));
+            out.write(APOS);
+            out.write(uri, ATTRIBUTE_ESCAPES);
+            out.write(APOS);
             defined = true;
           }
         out.write(SPACE);
         String a_nodeName = node.getNodeName();
-        out.write(encodeText(a_nodeName));
+        out.write(a_nodeName);
         String a_nodeValue = node.getNodeValue();
         if (mode == Stylesheet.OUTPUT_HTML &&
             a_nodeName.equals(a_nodeValue) &&
@@ -266,22 +295,24 @@ public class StreamSerializer
             break;
           }
         out.write(EQ);
-        value = "'" + encode(a_nodeValue, true, true) + "'";
-        out.write(encodeText(value));
+        out.write(APOS);
+        writeEscaped(out, a_nodeValue, ATTRIBUTE_ESCAPES);
+        out.write(APOS);
         break;
       case Node.ELEMENT_NODE:
         value = node.getNodeName();
         out.write(BRA);
-        out.write(encodeText(value));
+        out.write(value);
         if (uri != null && !isDefined(uri))
           {
             prefix = define(uri, node.getPrefix());
             String nsname = (prefix == null) ? "xmlns" : "xmlns:" + prefix;
             out.write(SPACE);
-            out.write(encodeText(nsname));
+            out.write(nsname);
             out.write(EQ);
-            String nsvalue = "'" + encode(uri, true, true) + "'";
-            out.write(encodeText(nsvalue));
+            out.write(APOS);
+            out.write(uri, ATTRIBUTE_ESCAPES);
+            out.write(APOS);
             defined = true;
           }
         NamedNodeMap attrs = node.getAttributes();
@@ -314,7 +345,7 @@ public class StreamSerializer
             serialize(children, out, convertToCdata);
             out.write(BRA);
             out.write(SLASH);
-            out.write(encodeText(value));
+            out.write(value);
             out.write(KET);
           }
         break;
@@ -322,21 +353,26 @@ public class StreamSerializer
         value = node.getNodeValue();
         if (!"yes".equals(node.getUserData("disable-output-escaping")))
           {
-            value = encode(value, false, false);
+            writeEscaped(out, value, TEXT_ESCAPES);
+          }
+        else
+          {
+            out.write(value);
           }
-        out.write(encodeText(value));
         break;
       case Node.CDATA_SECTION_NODE:
-        value = "<![CDATA[" + node.getNodeValue() + "]]>";
-        out.write(encodeText(value));
+        out.writeASCII("<![CDATA[");
+        out.write(node.getNodeValue());
+        out.writeASCII("]]>");
         break;
       case Node.COMMENT_NODE:
-        value = "<!--" + node.getNodeValue() + "-->";
-        out.write(encodeText(value));
+        out.writeASCII("<!--");
+        out.write(node.getNodeValue());
+        out.writeASCII("-->");
         Node cp = node.getParentNode();
         if (cp != null && cp.getNodeType() == Node.DOCUMENT_NODE)
           {
-            out.write(encodeText(eol));
+            out.write(eol);
           }
         break;
       case Node.DOCUMENT_NODE:
@@ -345,8 +381,8 @@ public class StreamSerializer
           {
             if ("UTF-16".equalsIgnoreCase(encoding))
               {
-                out.write(0xfe);
-                out.write(0xff);
+                out.writeRaw(0xfe);
+                out.writeRaw(0xff);
               }
             if (!"yes".equals(node.getUserData("omit-xml-declaration")) &&
                 xmlDeclaration)
@@ -363,24 +399,24 @@ public class StreamSerializer
                     version = "1.0";
                   }
                 out.write(BRA);
-                out.write(0x3f);
-                out.write("xml version='".getBytes("US-ASCII"));
-                out.write(version.getBytes("US-ASCII"));
+                out.write('?');
+                out.writeASCII("xml version='");
+                out.write(version);
                 out.write(APOS);
                 if (!("UTF-8".equalsIgnoreCase(encoding)))
                   {
-                    out.write(" encoding='".getBytes("US-ASCII"));
-                    out.write(encoding.getBytes("US-ASCII"));
+                    out.writeASCII(" encoding='");
+                    out.write(encoding);
                     out.write(APOS);
                   }
                 if ((doc != null && doc.getXmlStandalone()) ||
                     "yes".equals(node.getUserData("standalone")))
                   {
-                    out.write(" standalone='yes'".getBytes("US-ASCII"));
+                    out.writeASCII(" standalone='yes'");
                   }
-                out.write(0x3f);
+                out.write('?');
                 out.write(KET);
-                out.write(encodeText(eol));
+                out.write(eol);
               }
             // TODO warn if not outputting the declaration would be a
             // problem
@@ -529,44 +565,50 @@ public class StreamSerializer
         DocumentType doctype = (DocumentType) node;
         out.write(BRA);
         out.write(BANG);
-	out.write(encodeText("DOCTYPE "));
+        out.writeASCII("DOCTYPE ");
         value = doctype.getNodeName();
-        out.write(encodeText(value));
+        out.write(value);
         String publicId = doctype.getPublicId();
         if (publicId != null)
           {
-            out.write(encodeText(" PUBLIC "));
+            out.writeASCII(" PUBLIC ");
             out.write(APOS);
-            out.write(encodeText(publicId));
+            out.write(publicId);
             out.write(APOS);
           }
         String systemId = doctype.getSystemId();
         if (systemId != null)
           {
-            out.write(encodeText(" SYSTEM "));
+            out.writeASCII(" SYSTEM ");
             out.write(APOS);
-            out.write(encodeText(systemId));
+            out.write(systemId);
             out.write(APOS);
           }
         String internalSubset = doctype.getInternalSubset();
         if (internalSubset != null)
           {
-            out.write(encodeText(internalSubset));
+            out.write(internalSubset);
           }
         out.write(KET);
-        out.write(eol.getBytes(encoding));
+        out.write(eol);
         break;
       case Node.ENTITY_REFERENCE_NODE:
-        value = "&" + node.getNodeValue() + ";";
-        out.write(encodeText(value));
+        out.write('&');
+        out.write(node.getNodeValue());
+        out.write(';');
         break;
       case Node.PROCESSING_INSTRUCTION_NODE:
-        value = "<?" + node.getNodeName() + " " + node.getNodeValue() + "?>";
-        out.write(encodeText(value));
+        out.write(BRA);
+        out.write('?');
+        out.write(node.getNodeName());
+        out.write(SPACE);
+        out.write(node.getNodeValue());
+        out.write('?');
+        out.write(KET);
         Node pp = node.getParentNode();
         if (pp != null && pp.getNodeType() == Node.DOCUMENT_NODE)
           {
-            out.write(encodeText(eol));
+            out.write(eol);
           }
         break;
       }
@@ -599,135 +641,29 @@ public class StreamSerializer
     namespaces.remove(uri);
   }
 
-  final byte[] encodeText(String text)
+  /**
+   * Writes character data, replacing markup characters.
+   */
+  void writeEscaped(XMLOutputBuffer out, String text, String[] escapes)
     throws IOException
   {
-    encoder.reset();
-    if (!encoder.canEncode(text))
+    int start = 0;
+    if (mode == Stylesheet.OUTPUT_HTML)
       {
-        // Check each character
-        StringBuffer buf = new StringBuffer();
-        int len = text.length();
-        for (int i = 0; i < len; i++)
+        // In HTML, an ampersand followed by a brace is not escaped
+        for (int i = text.indexOf("&{"); i != -1;
+             i = text.indexOf("&{", start))
           {
-            char c = text.charAt(i);
-            if (encoder.canEncode(c))
-              {
-                buf.append(c);
-              }
-            else
-              {
-                // Replace with character entity reference
-                String hex = Integer.toHexString((int) c);
-                buf.append("&#x");
-                buf.append(hex);
-                buf.append(';');
-              }
-          }
-        text = buf.toString();
-      }
-    ByteBuffer encoded = encoder.encode(CharBuffer.wrap(text));
-    int len = encoded.limit() - encoded.position();
-    if (encoded.hasArray())
-      {
-        byte[] ret = encoded.array();
-        if (ret.length > len)
-          {
-            // Why?
-            byte[] ret2 = new byte[len];
-            System.arraycopy(ret, 0, ret2, 0, len);
-            ret = ret2;
-          }
-        return ret;
-      }
-    encoded.flip();
-    byte[] ret = new byte[len];
-    encoded.get(ret, 0, len);
-    return ret;
-  }
-
-  String encode(String text, boolean encodeCtl, boolean inAttr)
-  {
-    int len = text.length();
-    StringBuffer buf = null;
-    for (int i = 0; i < len; i++)
-      {
-        char c = text.charAt(i);
-        if (c == '<')
-          {
-            if (buf == null)
-              {
-                buf = new StringBuffer(text.substring(0, i));
-              }
-            buf.append("&lt;");
-          }
-        else if (c == '>')
-          {
-            if (buf == null)
-              {
-                buf = new StringBuffer(text.substring(0, i));
-              }
-            buf.append("&gt;");
-          }
-        else if (c == '&')
-          {
-            if (mode == Stylesheet.OUTPUT_HTML && (i + 1) < len &&
-                text.charAt(i + 1) == '{')
-              {
-                if (buf != null)
-                  {
-                    buf.append(c);
-                  }
-              }
-            else
-              {
-                if (buf == null)
-                  {
-                    buf = new StringBuffer(text.substring(0, i));
-                  }
-                buf.append("&amp;");
-              }
-          }
-        else if (c == '\'' && inAttr)
-          {
-            if (buf == null)
-              {
-                buf = new StringBuffer(text.substring(0, i));
-              }
-            buf.append("&apos;");
-          }
-        else if (c == '"' && inAttr)
-          {
-            if (buf == null)
-              {
-                buf = new StringBuffer(text.substring(0, i));
-              }
-            buf.append("&quot;");
-          }
-        else if (encodeCtl)
-          {
-            if (c < 0x20)
-              {
-                if (buf == null)
-                  {
-                    buf = new StringBuffer(text.substring(0, i));
-                  }
-                buf.append('&');
-                buf.append('#');
-                buf.append((int) c);
-                buf.append(';');
-              }
-            else if (buf != null)
-              {
-                buf.append(c);
-              }
+            out.write(text.substring(start, i), escapes);
+            out.write('&');
+            start = i + 1;
           }
-        else if (buf != null)
+        if (start > 0)
           {
-            buf.append(c);
+            text = text.substring(start);
           }
       }
-    return (buf == null) ? text : buf.toString();
+    out.write(text, escapes);
   }
 
   String toString(Node node)
@@ -61,6 +61,7 @@ import javax.xml.transform.TransformerException;
 import javax.xml.xpath.XPathFunction;
 import javax.xml.xpath.XPathFunctionResolver;
 import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathVariableResolver;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.DOMException;
@@ -84,7 +85,8 @@ import gnu.xml.xpath.XPathImpl;
  * @author <a href='mailto:dog@gnu.org'>Chris Burdess</a>
  */
 class Stylesheet
-  implements NamespaceContext, XPathFunctionResolver, UserDataHandler, Cloneable
+  implements NamespaceContext, XPathFunctionResolver, XPathVariableResolver,
+             UserDataHandler, Cloneable
 {
 
   static final String XSL_NS = "http://www.w3.org/1999/XSL/Transform";
@@ -340,7 +342,17 @@ class Stylesheet
             keys2.add(k.clone(clone));
           }
         clone.keys = keys2;
-        
+
+        // format-number applies its pattern to the decimal format
+        LinkedHashMap decimalFormats2 = new LinkedHashMap();
+        for (Iterator i = decimalFormats.entrySet().iterator(); i.hasNext(); )
+          {
+            Map.Entry entry = (Map.Entry) i.next();
+            DecimalFormat df = (DecimalFormat) entry.getValue();
+            decimalFormats2.put(entry.getKey(), df.clone());
+          }
+        clone.decimalFormats = decimalFormats2;
+
         return clone;
       }
     catch (CloneNotSupportedException e)
@@ -349,6 +361,20 @@ class Stylesheet
       }
   }
 
+  /**
+   * Restores the runtime state of this copy to that of the compiled
+   * stylesheet it was cloned from, so that it can be used for another
+   * transformation.
+   */
+  void reset(Stylesheet compiled)
+  {
+    bindings = (Bindings) compiled.bindings.clone();
+    current = compiled.current;
+    currentTemplate = null;
+    terminated = false;
+    transformer = null;
+  }
+
   // -- Variable evaluation --
 
   void initTopLevelVariables(Node context)
@@ -364,6 +390,12 @@ class Stylesheet
     for (Iterator i = topLevel.iterator(); i.hasNext(); )
       {
         ParameterNode var = (ParameterNode) i.next();
+        if (var.type == Bindings.PARAM &&
+            bindings.containsKey(var.name, Bindings.PARAM))
+          {
+            // Value supplied by the transformer
+            continue;
+          }
         bindings.set(var.name,
                      var.getValue(this, null, context, 1, 1),
                      var.type);
@@ -371,6 +403,17 @@ class Stylesheet
     current = null;
   }
 
+  // -- XPathVariableResolver --
+
+  /**
+   * Variable references in a cloned stylesheet resolve through the
+   * stylesheet, so that they see the bindings of that copy.
+   */
+  public Object resolveVariable(QName qName)
+  {
+    return bindings.resolveVariable(qName);
+  }
+
   // -- NamespaceContext --
 
   public String getNamespaceURI(String prefix)
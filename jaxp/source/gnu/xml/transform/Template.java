@@ -115,9 +115,8 @@ class Template
 
   Template clone(Stylesheet stylesheet)
   {
-    // FIXME by cloning we lose the imports() functionality, so
-    // apply-imports will be broken.
-    return new Template(stylesheet,
+    // Keep the declaring stylesheet so that imports() still works
+    return new Template(this.stylesheet,
                         name,
                         (match == null) ? null :
                         (Pattern) match.clone(stylesheet),
@@ -37,6 +37,7 @@ exception statement from your version. */
 
 package gnu.xml.transform;
 
+import java.util.LinkedList;
 import java.util.Properties;
 import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
@@ -44,6 +45,11 @@ import javax.xml.transform.TransformerConfigurationException;
 
 /**
  * GNU precompiled stylesheet implementation.
+ * <p>
+ * The compiled stylesheet itself is never used to perform a
+ * transformation. Each transformation checks out a private copy of it
+ * from a pool, and returns it when done, so creating a transformer is
+ * cheap and a single instance can serve many threads concurrently.
  *
  * @author <a href='mailto:dog@gnu.org'>Chris Burdess</a>
  */
@@ -51,25 +57,65 @@ class TemplatesImpl
   implements Templates
 {
 
+  /**
+   * Maximum number of idle stylesheet copies retained.
+   */
+  static final int MAX_POOL_SIZE = 16;
+
   final TransformerFactoryImpl factory;
   final Stylesheet stylesheet;
   final Properties outputProperties;
 
+  /**
+   * Idle copies of the stylesheet.
+   */
+  final LinkedList pool;
+
   TemplatesImpl(TransformerFactoryImpl factory, Stylesheet stylesheet)
   {
     this.factory = factory;
     this.stylesheet = stylesheet;
     outputProperties = new TransformerOutputProperties(stylesheet);
+    pool = new LinkedList();
   }
 
   public Transformer newTransformer()
     throws TransformerConfigurationException
   {
-    Stylesheet stylesheet = (Stylesheet) this.stylesheet.clone();
-    TransformerImpl transformer =
-      new TransformerImpl(factory, stylesheet, outputProperties);
-    stylesheet.transformer = transformer;
-    return transformer;
+    Properties outputProperties =
+      new TransformerOutputProperties(stylesheet);
+    return new TransformerImpl(factory, this, outputProperties);
+  }
+
+  /**
+   * Returns a copy of the stylesheet for the exclusive use of one
+   * transformation.
+   */
+  Stylesheet acquireStylesheet()
+  {
+    synchronized (pool)
+      {
+        if (!pool.isEmpty())
+          {
+            return (Stylesheet) pool.removeFirst();
+          }
+      }
+    return (Stylesheet) stylesheet.clone();
+  }
+
+  /**
+   * Returns a copy obtained from acquireStylesheet to the pool.
+   */
+  void releaseStylesheet(Stylesheet copy)
+  {
+    copy.reset(stylesheet);
+    synchronized (pool)
+      {
+        if (pool.size() < MAX_POOL_SIZE)
+          {
+            pool.addFirst(copy);
+          }
+      }
   }
 
   public Properties getOutputProperties()
@@ -98,7 +98,7 @@ public class TransformerFactoryImpl
   public Transformer newTransformer()
     throws TransformerConfigurationException
   {
-    return new TransformerImpl(this, null, new Properties());
+    return new TransformerImpl(this, (Stylesheet) null, new Properties());
   }
 
   public Templates newTemplates(Source source)
@@ -49,8 +49,10 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
 import javax.xml.namespace.QName;
@@ -88,29 +90,91 @@ class TransformerImpl
 {
 
   final TransformerFactoryImpl factory;
-  final Stylesheet stylesheet;
+  final TemplatesImpl templates;
   URIResolver uriResolver;
   ErrorListener errorListener;
   Properties outputProperties;
 
+  /**
+   * The stylesheet in use. If this transformer was created from a
+   * Templates, this is only set for the duration of a transformation.
+   */
+  Stylesheet stylesheet;
+
+  /**
+   * Global parameters set by the user.
+   */
+  final Map parameters;
+
   TransformerImpl(TransformerFactoryImpl factory,
                   Stylesheet stylesheet,
                   Properties outputProperties)
     throws TransformerConfigurationException
+  {
+    this(factory, stylesheet, null, outputProperties);
+  }
+
+  TransformerImpl(TransformerFactoryImpl factory,
+                  TemplatesImpl templates,
+                  Properties outputProperties)
+    throws TransformerConfigurationException
+  {
+    this(factory, null, templates, outputProperties);
+  }
+
+  private TransformerImpl(TransformerFactoryImpl factory,
+                          Stylesheet stylesheet,
+                          TemplatesImpl templates,
+                          Properties outputProperties)
   {
     this.factory = factory;
     uriResolver = factory.userResolver;
     errorListener = factory.userListener;
     this.stylesheet = stylesheet;
+    this.templates = templates;
     this.outputProperties = outputProperties;
+    parameters = new LinkedHashMap();
+  }
+
+  public void transform(Source xmlSource, Result outputTarget)
+    throws TransformerException
+  {
+    if (templates != null)
+      {
+        // Check out a private copy of the compiled stylesheet
+        stylesheet = templates.acquireStylesheet();
+        stylesheet.transformer = this;
+      }
     if (stylesheet != null)
       {
-        // Set up parameter context for this transformer
+        // Set up parameter context for this transformation
         stylesheet.bindings.push(Bindings.PARAM);
+        for (Iterator i = parameters.entrySet().iterator(); i.hasNext(); )
+          {
+            Map.Entry entry = (Map.Entry) i.next();
+            stylesheet.bindings.set((QName) entry.getKey(), entry.getValue(),
+                                    Bindings.PARAM);
+          }
+      }
+    try
+      {
+        doTransform(xmlSource, outputTarget);
+      }
+    finally
+      {
+        if (templates != null)
+          {
+            templates.releaseStylesheet(stylesheet);
+            stylesheet = null;
+          }
+        else if (stylesheet != null)
+          {
+            stylesheet.bindings.pop(Bindings.PARAM);
+          }
       }
   }
 
-  public void transform(Source xmlSource, Result outputTarget)
+  void doTransform(Source xmlSource, Result outputTarget)
     throws TransformerException
   {
     // Get the source tree
@@ -171,7 +235,7 @@ class TransformerImpl
         try
           {
             // Set output properties in the underlying stylesheet
-            ((TransformerOutputProperties) outputProperties).apply();
+            ((TransformerOutputProperties) outputProperties).apply(stylesheet);
             stylesheet.initTopLevelVariables(context);
             TemplateNode t = stylesheet.getTemplate(null, context, false);
             if (t != null)
@@ -557,28 +621,17 @@ class TransformerImpl
 
   public void setParameter(String name, Object value)
   {
-    if (stylesheet != null)
-      {
-        stylesheet.bindings.set(new QName(null, name), value, Bindings.PARAM);
-      }
+    parameters.put(new QName(null, name), value);
   }
 
   public Object getParameter(String name)
   {
-    if (stylesheet != null)
-      {
-        return stylesheet.bindings.get(new QName(null, name), null, 1, 1);
-      }
-    return null;
+    return parameters.get(new QName(null, name));
   }
 
   public void clearParameters()
   {
-    if (stylesheet != null)
-      {
-        stylesheet.bindings.pop(Bindings.PARAM);
-        stylesheet.bindings.push(Bindings.PARAM);
-      }
+    parameters.clear();
   }
 
   public void setURIResolver(URIResolver resolver)
@@ -139,35 +139,37 @@ class TransformerOutputProperties
   }
 
   /**
-   * Applies the current set of properties to the underlying stylesheet.
+   * Applies the current set of properties to the given stylesheet.
+   * This is either the underlying stylesheet or a private copy of it
+   * being used for a transformation, which is always updated.
    */
-  void apply()
+  void apply(Stylesheet target)
   {
-    if (!dirty)
+    if (!dirty && target == stylesheet)
       {
         return;
       }
     String method = getProperty(OutputKeys.METHOD);
     if ("xml".equals(method))
       {
-        stylesheet.outputMethod = Stylesheet.OUTPUT_XML;
+        target.outputMethod = Stylesheet.OUTPUT_XML;
       }
     else if ("html".equals(method))
       {
-        stylesheet.outputMethod = Stylesheet.OUTPUT_HTML;
+        target.outputMethod = Stylesheet.OUTPUT_HTML;
       }
     else if ("text".equals(method))
       {
-        stylesheet.outputMethod = Stylesheet.OUTPUT_TEXT;
+        target.outputMethod = Stylesheet.OUTPUT_TEXT;
       }
-    stylesheet.outputVersion = getProperty(OutputKeys.VERSION);
-    stylesheet.outputEncoding = getProperty(OutputKeys.ENCODING);
-    stylesheet.outputOmitXmlDeclaration =
+    target.outputVersion = getProperty(OutputKeys.VERSION);
+    target.outputEncoding = getProperty(OutputKeys.ENCODING);
+    target.outputOmitXmlDeclaration =
       "yes".equals(getProperty(OutputKeys.OMIT_XML_DECLARATION));
-    stylesheet.outputStandalone =
+    target.outputStandalone =
       "yes".equals(getProperty(OutputKeys.STANDALONE));
-    stylesheet.outputPublicId = getProperty(OutputKeys.DOCTYPE_PUBLIC);
-    stylesheet.outputSystemId = getProperty(OutputKeys.DOCTYPE_SYSTEM);
+    target.outputPublicId = getProperty(OutputKeys.DOCTYPE_PUBLIC);
+    target.outputSystemId = getProperty(OutputKeys.DOCTYPE_SYSTEM);
     StringTokenizer st = 
       new StringTokenizer(getProperty(OutputKeys.CDATA_SECTION_ELEMENTS));
     Collection acc = new LinkedHashSet();
@@ -175,10 +177,13 @@ class TransformerOutputProperties
       {
         acc.add(st.nextToken());
       }
-    stylesheet.outputCdataSectionElements = acc;
-    stylesheet.outputIndent = "yes".equals(getProperty(OutputKeys.INDENT));
-    stylesheet.outputMediaType = getProperty(OutputKeys.MEDIA_TYPE);
-    dirty = false;
+    target.outputCdataSectionElements = acc;
+    target.outputIndent = "yes".equals(getProperty(OutputKeys.INDENT));
+    target.outputMediaType = getProperty(OutputKeys.MEDIA_TYPE);
+    if (target == stylesheet)
+      {
+        dirty = false;
+      }
   }
 
 }
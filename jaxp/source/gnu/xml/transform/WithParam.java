@@ -98,6 +98,7 @@ final class WithParam
     if (content == null)
       {
         return new WithParam(name,
+                             (select == null) ? null :
                              select.clone(stylesheet));
       }
     else
@@ -0,0 +1,410 @@
+/* GrammarPool.java -- 
+   Copyright (C) 2004 Free Software Foundation, Inc.
+
+This file is part of GNU Classpath.
+
+GNU Classpath is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2, or (at your option)
+any later version.
+
+GNU Classpath is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with GNU Classpath; see the file COPYING.  If not, write to the
+Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+02110-1301 USA.
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library.  Thus, the terms and
+conditions of the GNU General Public License cover the whole
+combination.
+
+As a special exception, the copyright holders of this library give you
+permission to link this library with independent modules to produce an
+executable, regardless of the license terms of these independent
+modules, and to copy and distribute the resulting executable under
+terms of your choice, provided that you also meet, for each linked
+independent module, the terms and conditions of the license of that
+module.  An independent module is a module which is not derived from
+or based on this library.  If you modify this library, you may extend
+this exception to your version of the library, but you are not
+obligated to do so.  If you do not wish to do so, delete this
+exception statement from your version. */
+
+
+package gnu.xml.util;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded cache of compiled grammars (DTDs, schemas), shared by
+ * the validators in a process.
+ * <p>
+ * Grammars are keyed by the kind of grammar, normally a namespace URI
+ * such as {@link javax.xml.XMLConstants#XML_DTD_NS_URI}, and by the
+ * absolute system ID of the resource they were compiled from. The
+ * last-modified time of the resource is recorded when a grammar is
+ * stored; if it has changed when the grammar is next requested, the
+ * entry is discarded. Local files are checked on every request. HTTP
+ * resources are checked with a HEAD request, at most once per
+ * revalidation interval; other resources are not checked. A grammar
+ * stored in place of one for the same resource keeps the time recorded
+ * for it, so replacing a grammar does not check the resource again.
+ * When the pool is full the least recently used grammar is evicted.
+ * <p>
+ * Grammars stored here are shared between threads, so they must not be
+ * modified once stored. A user that extends a grammar should store a
+ * new one in its place.
+ */
+public final class GrammarPool
+{
+
+  /**
+   * Default maximum number of grammars held.
+   */
+  public static final int DEFAULT_SIZE = 64;
+
+  /**
+   * Default interval, in milliseconds, between checks of a remote
+   * grammar resource.
+   */
+  public static final long DEFAULT_REVALIDATION_INTERVAL = 60000L;
+
+  private static final GrammarPool INSTANCE = new GrammarPool(DEFAULT_SIZE);
+
+  private final int maxSize;
+  private final LinkedHashMap entries;
+  private long revalidationInterval = DEFAULT_REVALIDATION_INTERVAL;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * Returns the process-wide pool.
+   */
+  public static GrammarPool getInstance()
+  {
+    return INSTANCE;
+  }
+
+  /**
+   * Constructs a pool holding at most the given number of grammars.
+   */
+  public GrammarPool(int maxSize)
+  {
+    if (maxSize < 1)
+      {
+        throw new IllegalArgumentException("maxSize: " + maxSize);
+      }
+    this.maxSize = maxSize;
+    entries = new LinkedHashMap(16, 0.75f, true)
+      {
+        protected boolean removeEldestEntry(Map.Entry eldest)
+        {
+          if (size() > GrammarPool.this.maxSize)
+            {
+              evictions++;
+              return true;
+            }
+          return false;
+        }
+      };
+  }
+
+  /**
+   * Returns the grammar stored for the given resource, or null if there
+   * is none or the resource has been modified since it was stored.
+   * @param type the kind of grammar
+   * @param systemId the absolute system ID of the grammar resource
+   */
+  public Object get(String type, String systemId)
+  {
+    String key = type + ' ' + systemId;
+    Entry entry;
+    long now = System.currentTimeMillis();
+    synchronized (this)
+      {
+        entry = (Entry) entries.get(key);
+        if (entry == null)
+          {
+            misses++;
+            return null;
+          }
+        if (!entry.local &&
+            (!entry.remote || now - entry.checked < revalidationInterval))
+          {
+            hits++;
+            return entry.grammar;
+          }
+      }
+    // Check outside the lock: this may touch the network
+    long lastModified = getLastModified(systemId);
+    synchronized (this)
+      {
+        entry.checked = now;
+        if (entry.lastModified != lastModified)
+          {
+            if (entries.get(key) == entry)
+              {
+                entries.remove(key);
+              }
+            misses++;
+            return null;
+          }
+        hits++;
+        return entry.grammar;
+      }
+  }
+
+  /**
+   * Stores a grammar compiled from the given resource, replacing any
+   * previous entry.
+   * @param type the kind of grammar
+   * @param systemId the absolute system ID of the grammar resource
+   * @param grammar the compiled grammar
+   */
+  public void put(String type, String systemId, Object grammar)
+  {
+    if (grammar == null)
+      {
+        throw new NullPointerException();
+      }
+    String key = type + ' ' + systemId;
+    Entry previous;
+    synchronized (this)
+      {
+        previous = (Entry) entries.get(key);
+      }
+    Entry entry;
+    if (previous != null)
+      {
+        entry = new Entry(grammar, previous.lastModified, previous.local,
+                          previous.remote);
+        entry.checked = previous.checked;
+      }
+    else
+      {
+        entry = new Entry(grammar, getLastModified(systemId),
+                          isLocal(systemId), isRemote(systemId));
+      }
+    synchronized (this)
+      {
+        entries.put(key, entry);
+      }
+  }
+
+  /**
+   * Removes all grammars from the pool. Statistics are not reset.
+   */
+  public synchronized void clear()
+  {
+    entries.clear();
+  }
+
+  /**
+   * Removes all grammars of the given kind from the pool.
+   */
+  public synchronized void clear(String type)
+  {
+    String prefix = type + ' ';
+    for (Iterator i = entries.keySet().iterator(); i.hasNext(); )
+      {
+        String key = (String) i.next();
+        if (key.startsWith(prefix))
+          {
+            i.remove();
+          }
+      }
+  }
+
+  /**
+   * Returns the number of grammars in the pool.
+   */
+  public synchronized int size()
+  {
+    return entries.size();
+  }
+
+  /**
+   * Returns the maximum number of grammars in the pool.
+   */
+  public int getMaxSize()
+  {
+    return maxSize;
+  }
+
+  /**
+   * Returns the interval, in milliseconds, between checks of a remote
+   * grammar resource for modification.
+   */
+  public synchronized long getRevalidationInterval()
+  {
+    return revalidationInterval;
+  }
+
+  /**
+   * Sets the interval, in milliseconds, between checks of a remote
+   * grammar resource for modification. Zero checks on every request.
+   */
+  public synchronized void setRevalidationInterval(long interval)
+  {
+    if (interval < 0L)
+      {
+        throw new IllegalArgumentException("interval: " + interval);
+      }
+    revalidationInterval = interval;
+  }
+
+  /**
+   * Returns the number of requests satisfied from the pool.
+   */
+  public synchronized long getHits()
+  {
+    return hits;
+  }
+
+  /**
+   * Returns the number of requests not satisfied from the pool,
+   * including requests for grammars found to be out of date.
+   */
+  public synchronized long getMisses()
+  {
+    return misses;
+  }
+
+  /**
+   * Returns the number of grammars discarded to keep the pool within
+   * its maximum size.
+   */
+  public synchronized long getEvictions()
+  {
+    return evictions;
+  }
+
+  public String toString()
+  {
+    StringBuffer buf = new StringBuffer(getClass().getName());
+    synchronized (this)
+      {
+        buf.append("[size=");
+        buf.append(entries.size());
+        buf.append(",hits=");
+        buf.append(hits);
+        buf.append(",misses=");
+        buf.append(misses);
+        buf.append(",evictions=");
+        buf.append(evictions);
+        buf.append(']');
+      }
+    return buf.toString();
+  }
+
+  /**
+   * Resolves a system ID against a base URI, returning the absolute
+   * system ID, or the system ID itself if it cannot be resolved.
+   */
+  public static String resolve(String base, String systemId)
+  {
+    if (systemId == null || base == null)
+      {
+        return systemId;
+      }
+    try
+      {
+        return new URL(new URL(base), systemId).toString();
+      }
+    catch (MalformedURLException e)
+      {
+        return systemId;
+      }
+  }
+
+  /**
+   * Returns the last-modified time of the given resource, or 0 if it
+   * is not known. Local files are checked directly, and HTTP resources
+   * with a HEAD request, so that the resource itself is not fetched.
+   */
+  static long getLastModified(String systemId)
+  {
+    try
+      {
+        URL url = new URL(systemId);
+        String protocol = url.getProtocol();
+        if ("file".equals(protocol))
+          {
+            File file;
+            try
+              {
+                file = new File(new URI(systemId));
+              }
+            catch (Exception e)
+              {
+                file = new File(url.getPath());
+              }
+            return file.lastModified();
+          }
+        if ("http".equals(protocol) || "https".equals(protocol))
+          {
+            HttpURLConnection connection =
+              (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("HEAD");
+            try
+              {
+                return connection.getLastModified();
+              }
+            finally
+              {
+                connection.disconnect();
+              }
+          }
+        return 0L;
+      }
+    catch (Exception e)
+      {
+        return 0L;
+      }
+  }
+
+  static boolean isLocal(String systemId)
+  {
+    return systemId != null && systemId.startsWith("file:");
+  }
+
+  static boolean isRemote(String systemId)
+  {
+    return systemId != null &&
+      (systemId.startsWith("http:") || systemId.startsWith("https:"));
+  }
+
+  static final class Entry
+  {
+
+    final Object grammar;
+    final long lastModified;
+    final boolean local;
+    final boolean remote;
+    long checked; // when lastModified was last compared
+
+    Entry(Object grammar, long lastModified, boolean local, boolean remote)
+    {
+      this.grammar = grammar;
+      this.lastModified = lastModified;
+      this.local = local;
+      this.remote = remote;
+      checked = System.currentTimeMillis();
+    }
+
+  }
+
+}
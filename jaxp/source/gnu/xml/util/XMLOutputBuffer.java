@@ -0,0 +1,658 @@
+/* XMLOutputBuffer.java --
+   Copyright (C) 2004 Free Software Foundation, Inc.
+
+This file is part of GNU Classpath.
+
+GNU Classpath is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2, or (at your option)
+any later version.
+
+GNU Classpath is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with GNU Classpath; see the file COPYING.  If not, write to the
+Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+02110-1301 USA.
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library.  Thus, the terms and
+conditions of the GNU General Public License cover the whole
+combination.
+
+As a special exception, the copyright holders of this library give you
+permission to link this library with independent modules to produce an
+executable, regardless of the license terms of these independent
+modules, and to copy and distribute the resulting executable under
+terms of your choice, provided that you also meet, for each linked
+independent module, the terms and conditions of the license of that
+module.  An independent module is a module which is not derived from
+or based on this library.  If you modify this library, you may extend
+this exception to your version of the library, but you are not
+obligated to do so.  If you do not wish to do so, delete this
+exception statement from your version. */
+
+package gnu.xml.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * Encodes and escapes XML text directly into a reusable byte buffer,
+ * which is written to an underlying output stream in large chunks.
+ * <p>
+ * Characters that cannot be represented in the output encoding are
+ * written as hexadecimal character references. UTF-8, US-ASCII and
+ * ISO-8859-1 are encoded inline; other encodings use a
+ * {@link CharsetEncoder} working on the same buffers.
+ * <p>
+ * Markup-significant characters are replaced according to an escape
+ * table: an array indexed by character, whose non-null entries are the
+ * (ASCII) replacement text for that character. Runs of characters not
+ * requiring replacement are encoded in bulk.
+ * <p>
+ * Instances are not safe for concurrent use.
+ */
+public final class XMLOutputBuffer
+{
+
+  /**
+   * Default size of the byte buffer.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  static final int UTF_8 = 0;
+  static final int US_ASCII = 1;
+  static final int ISO_8859_1 = 2;
+  static final int OTHER = 3;
+
+  static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private OutputStream out;
+  private final byte[] buf;
+  private int count;
+
+  private final String encoding;
+  private final int type;
+  private final CharsetEncoder encoder;
+  private final ByteBuffer byteBuffer;
+  private final char[] chars;
+  private final CharBuffer charBuffer;
+  private final char[] ref;
+  private final char[] pair;
+
+  /**
+   * A high surrogate at the end of the last run written, whose low
+   * surrogate may begin the next run; otherwise 0.
+   */
+  private char highSurrogate;
+
+  /**
+   * Constructs a buffer writing to the given stream in the given
+   * encoding.
+   * @param out the output stream, which may be set later
+   * @param encoding the name of the encoding, or null for UTF-8
+   */
+  public XMLOutputBuffer(OutputStream out, String encoding)
+  {
+    this(out, encoding, DEFAULT_BUFFER_SIZE);
+  }
+
+  public XMLOutputBuffer(OutputStream out, String encoding, int size)
+  {
+    this.out = out;
+    if (encoding == null)
+      {
+        encoding = "UTF-8";
+      }
+    this.encoding = encoding;
+    buf = new byte[Math.max(size, 16)];
+    chars = new char[Math.max(size / 4, 16)];
+    ref = new char[12];
+    pair = new char[2];
+    Charset charset = Charset.forName(encoding);
+    String name = charset.name();
+    if ("UTF-8".equals(name))
+      {
+        type = UTF_8;
+      }
+    else if ("US-ASCII".equals(name))
+      {
+        type = US_ASCII;
+      }
+    else if ("ISO-8859-1".equals(name))
+      {
+        type = ISO_8859_1;
+      }
+    else
+      {
+        type = OTHER;
+      }
+    if (type == OTHER)
+      {
+        if ("UTF-16".equals(name))
+          {
+            // The Java UTF-16 encoder writes a byte order mark on each
+            // reset; the caller is responsible for writing one
+            charset = Charset.forName("UTF-16BE");
+          }
+        encoder = charset.newEncoder();
+        byteBuffer = ByteBuffer.wrap(buf);
+        charBuffer = CharBuffer.wrap(chars);
+      }
+    else
+      {
+        encoder = null;
+        byteBuffer = null;
+        charBuffer = null;
+      }
+  }
+
+  /**
+   * Returns the name of the encoding used.
+   */
+  public String getEncoding()
+  {
+    return encoding;
+  }
+
+  public OutputStream getOutputStream()
+  {
+    return out;
+  }
+
+  /**
+   * Sets the stream to write to. Any buffered output is first written
+   * to the current stream.
+   */
+  public void setOutputStream(OutputStream out)
+    throws IOException
+  {
+    if (out != this.out)
+      {
+        flushBuffer();
+        this.out = out;
+      }
+  }
+
+  /**
+   * Indicates whether the given character can be written in the output
+   * encoding without using a character reference.
+   */
+  public boolean canEncode(char c)
+  {
+    switch (type)
+      {
+      case UTF_8:
+        return true;
+      case US_ASCII:
+        return c < 0x80;
+      case ISO_8859_1:
+        return c < 0x100;
+      default:
+        return encoder.canEncode(c);
+      }
+  }
+
+  /**
+   * Writes a single byte, without encoding it.
+   * This is intended for byte order marks.
+   */
+  public void writeRaw(int b)
+    throws IOException
+  {
+    writePending();
+    if (count == buf.length)
+      {
+        writeBuffer();
+      }
+    buf[count++] = (byte) b;
+  }
+
+  /**
+   * Writes a single character.
+   */
+  public void write(char c)
+    throws IOException
+  {
+    if (c < 0x80 && type != OTHER)
+      {
+        writePending();
+        if (count == buf.length)
+          {
+            writeBuffer();
+          }
+        buf[count++] = (byte) c;
+      }
+    else
+      {
+        chars[0] = c;
+        writeRun(chars, 0, 1);
+      }
+  }
+
+  /**
+   * Writes the given text without escaping markup.
+   */
+  public void write(String text)
+    throws IOException
+  {
+    write(text, null);
+  }
+
+  /**
+   * Writes the given text, replacing characters according to the
+   * specified escape table.
+   * @param escapes the escape table, or null
+   */
+  public void write(String text, String[] escapes)
+    throws IOException
+  {
+    int len = text.length();
+    int max = chars.length;
+    for (int off = 0; off < len; )
+      {
+        int end = off + max;
+        if (end >= len)
+          {
+            end = len;
+          }
+        else if (isHighSurrogate(text.charAt(end - 1)))
+          {
+            // Do not split a surrogate pair
+            end--;
+          }
+        text.getChars(off, end, chars, 0);
+        write(chars, 0, end - off, escapes);
+        off = end;
+      }
+  }
+
+  /**
+   * Writes the given characters, replacing characters according to the
+   * specified escape table.
+   * @param escapes the escape table, or null
+   */
+  public void write(char[] ch, int off, int len, String[] escapes)
+    throws IOException
+  {
+    int end = off + len;
+    if (escapes == null)
+      {
+        writeRun(ch, off, end);
+        return;
+      }
+    int elen = escapes.length;
+    int start = off;
+    for (int i = off; i < end; i++)
+      {
+        char c = ch[i];
+        if (c < elen && escapes[c] != null)
+          {
+            if (i > start)
+              {
+                writeRun(ch, start, i);
+              }
+            writeASCII(escapes[c]);
+            start = i + 1;
+          }
+      }
+    if (start < end)
+      {
+        writeRun(ch, start, end);
+      }
+  }
+
+  /**
+   * Writes text known to consist only of ASCII characters.
+   */
+  public void writeASCII(String text)
+    throws IOException
+  {
+    writePending();
+    int len = text.length();
+    if (type == OTHER)
+      {
+        writeEncoded(CharBuffer.wrap(text));
+        return;
+      }
+    if (count + len > buf.length)
+      {
+        writeBuffer();
+        if (len > buf.length)
+          {
+            for (int i = 0; i < len; i++)
+              {
+                writeRaw(text.charAt(i));
+              }
+            return;
+          }
+      }
+    for (int i = 0; i < len; i++)
+      {
+        buf[count++] = (byte) text.charAt(i);
+      }
+  }
+
+  /**
+   * Encodes a run of characters that need no escaping.
+   */
+  private void writeRun(char[] ch, int start, int end)
+    throws IOException
+  {
+    if (highSurrogate != 0)
+      {
+        pair[0] = highSurrogate;
+        highSurrogate = 0;
+        if (start < end && isLowSurrogate(ch[start]))
+          {
+            pair[1] = ch[start++];
+            encodeRun(pair, 0, 2);
+          }
+        else
+          {
+            encodeRun(pair, 0, 1);
+          }
+      }
+    if (start < end && isHighSurrogate(ch[end - 1]))
+      {
+        // The low surrogate may be in the next run
+        highSurrogate = ch[--end];
+      }
+    if (start < end)
+      {
+        encodeRun(ch, start, end);
+      }
+  }
+
+  /**
+   * Writes a pending high surrogate that was not followed by a low
+   * surrogate.
+   */
+  private void writePending()
+    throws IOException
+  {
+    if (highSurrogate != 0)
+      {
+        writeRun(pair, 0, 0);
+      }
+  }
+
+  private void encodeRun(char[] ch, int start, int end)
+    throws IOException
+  {
+    switch (type)
+      {
+      case UTF_8:
+        writeUTF8(ch, start, end);
+        break;
+      case US_ASCII:
+        writeSingleByte(ch, start, end, 0x80);
+        break;
+      case ISO_8859_1:
+        writeSingleByte(ch, start, end, 0x100);
+        break;
+      default:
+        CharBuffer in = (ch == chars) ? charBuffer : CharBuffer.wrap(ch);
+        in.limit(end);
+        in.position(start);
+        writeEncoded(in);
+      }
+  }
+
+  private void writeUTF8(char[] ch, int start, int end)
+    throws IOException
+  {
+    byte[] b = buf;
+    int limit = b.length - 4;
+    int n = count;
+    for (int i = start; i < end; i++)
+      {
+        if (n > limit)
+          {
+            count = n;
+            writeBuffer();
+            n = 0;
+          }
+        char c = ch[i];
+        if (c < 0x80)
+          {
+            b[n++] = (byte) c;
+          }
+        else if (c < 0x800)
+          {
+            b[n++] = (byte) (0xc0 | (c >> 6));
+            b[n++] = (byte) (0x80 | (c & 0x3f));
+          }
+        else if (c >= 0xd800 && c <= 0xdfff)
+          {
+            int cp = -1;
+            if (isHighSurrogate(c) && i + 1 < end &&
+                isLowSurrogate(ch[i + 1]))
+              {
+                cp = toCodePoint(c, ch[++i]);
+              }
+            if (cp == -1)
+              {
+                // Unpaired surrogate
+                count = n;
+                writeCharRef(c);
+                n = count;
+              }
+            else
+              {
+                b[n++] = (byte) (0xf0 | (cp >> 18));
+                b[n++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                b[n++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                b[n++] = (byte) (0x80 | (cp & 0x3f));
+              }
+          }
+        else
+          {
+            b[n++] = (byte) (0xe0 | (c >> 12));
+            b[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            b[n++] = (byte) (0x80 | (c & 0x3f));
+          }
+      }
+    count = n;
+  }
+
+  private void writeSingleByte(char[] ch, int start, int end, int max)
+    throws IOException
+  {
+    byte[] b = buf;
+    int n = count;
+    for (int i = start; i < end; i++)
+      {
+        if (n == b.length)
+          {
+            count = n;
+            writeBuffer();
+            n = 0;
+          }
+        char c = ch[i];
+        if (c < max)
+          {
+            b[n++] = (byte) c;
+          }
+        else
+          {
+            int cp = c;
+            if (isHighSurrogate(c) && i + 1 < end &&
+                isLowSurrogate(ch[i + 1]))
+              {
+                cp = toCodePoint(c, ch[++i]);
+              }
+            count = n;
+            writeCharRef(cp);
+            n = count;
+          }
+      }
+    count = n;
+  }
+
+  /**
+   * Encodes the given characters, leaving the encoder in its initial
+   * state.
+   */
+  private void writeEncoded(CharBuffer in)
+    throws IOException
+  {
+    encoder.reset();
+    encode(in);
+    CoderResult result = encoder.encode(in, prepare(), true);
+    count = byteBuffer.position();
+    while (result.isOverflow())
+      {
+        writeBuffer();
+        result = encoder.encode(in, prepare(), true);
+        count = byteBuffer.position();
+      }
+    result = encoder.flush(prepare());
+    count = byteBuffer.position();
+    while (result.isOverflow())
+      {
+        writeBuffer();
+        result = encoder.flush(prepare());
+        count = byteBuffer.position();
+      }
+  }
+
+  /**
+   * Encodes all remaining input using the encoder, writing character
+   * references for unmappable characters.
+   */
+  private void encode(CharBuffer in)
+    throws IOException
+  {
+    while (in.hasRemaining())
+      {
+        CoderResult result = encoder.encode(in, prepare(), false);
+        count = byteBuffer.position();
+        if (result.isOverflow())
+          {
+            writeBuffer();
+          }
+        else if (result.isError())
+          {
+            int len = result.length();
+            int pos = in.position();
+            int cp = in.get(pos);
+            if (len == 2)
+              {
+                cp = toCodePoint((char) cp, in.get(pos + 1));
+              }
+            in.position(pos + len);
+            int rlen = formatCharRef(cp);
+            encode(CharBuffer.wrap(ref, 0, rlen));
+          }
+        else
+          {
+            // Underflow: an incomplete surrogate pair at the end
+            if (in.hasRemaining())
+              {
+                int pos = in.position();
+                in.position(pos + 1);
+                int rlen = formatCharRef(in.get(pos));
+                encode(CharBuffer.wrap(ref, 0, rlen));
+              }
+          }
+      }
+  }
+
+  static boolean isHighSurrogate(char c)
+  {
+    return (c >= 0xd800 && c <= 0xdbff);
+  }
+
+  static boolean isLowSurrogate(char c)
+  {
+    return (c >= 0xdc00 && c <= 0xdfff);
+  }
+
+  static int toCodePoint(char high, char low)
+  {
+    return ((high - 0xd800) << 10) + (low - 0xdc00) + 0x10000;
+  }
+
+  private ByteBuffer prepare()
+  {
+    byteBuffer.clear();
+    byteBuffer.position(count);
+    return byteBuffer;
+  }
+
+  /**
+   * Writes a character reference for the given code point.
+   */
+  private void writeCharRef(int cp)
+    throws IOException
+  {
+    int len = formatCharRef(cp);
+    if (count + len > buf.length)
+      {
+        writeBuffer();
+      }
+    for (int i = 0; i < len; i++)
+      {
+        buf[count++] = (byte) ref[i];
+      }
+  }
+
+  private int formatCharRef(int cp)
+  {
+    int digits = 1;
+    while ((cp >>> (digits * 4)) != 0)
+      {
+        digits++;
+      }
+    ref[0] = '&';
+    ref[1] = '#';
+    ref[2] = 'x';
+    for (int i = digits - 1, shift = 0; i >= 0; i--, shift += 4)
+      {
+        ref[3 + i] = HEX[(cp >>> shift) & 0xf];
+      }
+    ref[3 + digits] = ';';
+    return digits + 4;
+  }
+
+  /**
+   * Writes any buffered bytes to the underlying stream.
+   */
+  public void flushBuffer()
+    throws IOException
+  {
+    writePending();
+    writeBuffer();
+  }
+
+  private void writeBuffer()
+    throws IOException
+  {
+    if (count > 0)
+      {
+        out.write(buf, 0, count);
+        count = 0;
+      }
+  }
+
+  /**
+   * Writes any buffered bytes and flushes the underlying stream.
+   */
+  public void flush()
+    throws IOException
+  {
+    flushBuffer();
+    out.flush();
+  }
+
+}
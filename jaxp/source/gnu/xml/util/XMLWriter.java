@@ -146,6 +146,7 @@ public class XMLWriter
     }
 
     private Writer		out;
+    private XMLOutputBuffer	buffer;
     private boolean		inCDATA;
     private int			elementNestLevel;
     private String		eol = sysEOL;
@@ -189,13 +190,17 @@ public class XMLWriter
     /**
      * Constructs a handler which writes all input to the output stream
      * in the UTF-8 encoding, and closes it when endDocument is called.
+     * Text is encoded directly into a byte buffer, without going
+     * through a Writer, so this is the fastest way to produce output.
      * (Yes it's annoying that this throws an exception -- but there's
      * really no way around it, since it's barely possible a JDK may
      * exist somewhere that doesn't know how to emit UTF-8.)
      */
     public XMLWriter (OutputStream out) throws IOException
     {
-	this (new OutputStreamWriter (out, "UTF8"));
+	buffer = new XMLOutputBuffer (out, "UTF-8");
+	setEncoding ("UTF-8");
+	space.push ("default");
     }
 
     /**
@@ -307,7 +312,7 @@ public class XMLWriter
      */
     final public void setWriter (Writer writer, String encoding)
     {
-	if (out != null)
+	if (out != null || buffer != null)
 	    throw new IllegalStateException (
 		"can't change stream in mid course");
 	out = writer;
@@ -585,7 +590,9 @@ public class XMLWriter
     final public void flush ()
     throws IOException
     {
-	if (out != null)
+	if (buffer != null)
+	    buffer.flush ();
+	else if (out != null)
 	    out.flush ();
     }
 
@@ -673,7 +680,7 @@ public class XMLWriter
     throws SAXException
     {
 	try {
-	    if (out == null)
+	    if (out == null && buffer == null)
 		throw new IllegalStateException (
 		    "null Writer given to XMLWriter");
 
@@ -742,8 +749,14 @@ public class XMLWriter
 		newline ();
 		newline ();
 	    }
-	    out.close ();
-	    out = null;
+	    if (buffer != null) {
+		buffer.flushBuffer ();
+		buffer.getOutputStream ().close ();
+		buffer = null;
+	    } else {
+		out.close ();
+		out = null;
+	    }
 	    locator = null;
 	} catch (IOException e) {
 	    fatal ("can't write", e);
@@ -1531,12 +1544,32 @@ public class XMLWriter
     };
 
 
+    // For each context, flags the ASCII characters escapeChars needs
+    // to look at.  Runs of other characters are written in bulk.
+    private static final boolean	special [][] =
+	new boolean [CTX_NAME + 1][0x80];
+
+    static {
+	for (int code = CTX_ENTITY; code <= CTX_NAME; code++) {
+	    boolean	table [] = special [code];
+
+	    // line ends, and control characters (which are errors)
+	    for (int c = 0; c < 0x20; c++)
+		table [c] = (c != '\t' && c != '\r');
+	    if (code != CTX_ENTITY && code != CTX_UNPARSED)
+		table ['&'] = table ['<'] = table ['>'] = true;
+	    if (code != CTX_CONTENT && code != CTX_UNPARSED)
+		table ['\''] = table ['"'] = true;
+	}
+    }
+
     // General routine to write text and substitute predefined
     // entities (XML, and a special case for XHTML) as needed.
     private void escapeChars (char buf [], int off, int len, int code)
     throws SAXException, IOException
     {
 	int	first = 0;
+	boolean	table [] = special [code];
 
 	if (off < 0) {
 	    off = 0;
@@ -1546,6 +1579,13 @@ public class XMLWriter
 	    String	esc;
 	    char 	c = buf [off + i];
 
+	    // most characters are written as is
+	    if (c < 0x80) {
+		if (!table [c])
+		    continue;
+	    } else if (c <= 0xfffd && (c & dangerMask) == 0)
+		continue;
+
 	    switch (c) {
 	      // Note that CTX_ATTRIBUTE isn't explicitly tested here;
 	      // all syntax delimiters are escaped in CTX_ATTRIBUTE,
@@ -1805,7 +1845,7 @@ public class XMLWriter
     private void newline ()
     throws SAXException, IOException
     {
-	out.write (eol);
+	emit (eol);
 	column = 0;
     }
 
@@ -1818,19 +1858,49 @@ public class XMLWriter
 	column = space;
 	// track tabs only at line starts
 	while (space > 8) {
-	    out.write ("\t");
+	    emit ("\t");
 	    space -= 8;
 	}
 	while (space > 0) {
-	    out.write ("  ");
+	    emit ("  ");
 	    space -= 2;
 	}
     }
 
+    // All output goes through these, writing either to the byte
+    // buffer or to the Writer.
+
+    private void emit (char c)
+    throws IOException
+    {
+	if (buffer != null)
+	    buffer.write (c);
+	else
+	    out.write (c);
+    }
+
+    private void emit (String s)
+    throws IOException
+    {
+	if (buffer != null)
+	    buffer.write (s, null);
+	else
+	    out.write (s);
+    }
+
+    private void emit (char buf [], int offset, int length)
+    throws IOException
+    {
+	if (buffer != null)
+	    buffer.write (buf, offset, length, null);
+	else
+	    out.write (buf, offset, length);
+    }
+
     private void rawWrite (char c)
     throws IOException
     {
-	out.write (c);
+	emit (c);
 	column++;
     }
 
@@ -1841,7 +1911,7 @@ public class XMLWriter
 	    char data [] = s.toCharArray ();
 	    rawWrite (data, 0, data.length);
 	} else {
-	    out.write (s);
+	    emit (s);
 	    column += s.length ();
 	}
     }
@@ -1866,7 +1936,7 @@ public class XMLWriter
 
 	wrap = prettyPrinting && "default".equals (space.peek ());
 	if (!wrap) {
-	    out.write (buf, offset, length);
+	    emit (buf, offset, length);
 	    column += length;
 	    return;
 	}
@@ -1879,7 +1949,7 @@ public class XMLWriter
 
 	    // Do we even have a problem?
 	    if (target > length || noWrap) {
-		out.write (buf, offset, length);
+		emit (buf, offset, length);
 		column += length;
 		return;
 	    }
@@ -1891,7 +1961,7 @@ public class XMLWriter
 	    for (int i = target - 1; i >= 0; i--) {
 		if ((c = buf [offset + i]) == ' ' || c == '\t') {
 		    i++;
-		    out.write (buf, offset, i);
+		    emit (buf, offset, i);
 		    doIndent ();
 		    offset += i;
 		    length -= i;
@@ -1909,7 +1979,7 @@ public class XMLWriter
 	    for (int i = target; i < length; i++)
 		if ((c = buf [offset + i]) == ' ' || c == '\t') {
 		    i++;
-		    out.write (buf, offset, i);
+		    emit (buf, offset, i);
 		    doIndent ();
 		    offset += i;
 		    length -= i;
@@ -1920,7 +1990,7 @@ public class XMLWriter
 		continue;
 	    
 	    // no such luck.
-	    out.write (buf, offset, length);
+	    emit (buf, offset, length);
 	    column += length;
 	    break;
 	}
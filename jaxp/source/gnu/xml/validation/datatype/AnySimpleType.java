@@ -18,7 +18,7 @@ final class AnySimpleType
           null);
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
     return true;
   }
@@ -17,7 +17,7 @@ final class AnyType
           null);
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
     return true;
   }
@@ -32,7 +32,7 @@ final class AnyURIType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
     // TODO
     return true;
@@ -27,15 +27,14 @@ public class AtomicSimpleType
     super(name, ATOMIC, null, 0, baseType, null);
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
     if (baseType != null && !baseType.matches(value))
       {
         return false;
       }
     // TODO fundamentalFacets
-    // TODO facets
-    return true;
+    return super.matches(value);
   }
   
 }
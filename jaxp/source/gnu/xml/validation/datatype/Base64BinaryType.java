@@ -39,7 +39,7 @@ final class Base64BinaryType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
     // TODO value = collapseWhitespace(value);
     int len = value.length();
@@ -1,9 +1,5 @@
 package gnu.xml.validation.datatype;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Set;
-import java.util.TreeSet;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 
@@ -21,9 +17,6 @@ final class BooleanType
     Facet.WHITESPACE
   };
 
-  static final Set VALUE_SPACE =
-    new TreeSet(Arrays.asList(new String[] {"true", "false", "1", "0"}));
-
   BooleanType()
   {
     super(new QName(XMLConstants.W3C_XML_SCHEMA_NS_URI, "boolean"),
@@ -35,9 +28,20 @@ final class BooleanType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
-    return VALUE_SPACE.contains(value);
+    switch (value.length())
+      {
+      case 1:
+        char c = value.charAt(0);
+        return c == '1' || c == '0';
+      case 4:
+        return contentEquals(value, "true");
+      case 5:
+        return contentEquals(value, "false");
+      default:
+        return false;
+      }
   }
   
 }
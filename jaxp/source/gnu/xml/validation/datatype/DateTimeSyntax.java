@@ -0,0 +1,205 @@
+package gnu.xml.validation.datatype;
+
+/**
+ * Checks the parts of the lexical forms of the date/time types.
+ * Each method checks the part beginning at the given index and returns
+ * the index following it, or -1 if the part is not valid.
+ */
+final class DateTimeSyntax
+{
+
+  private DateTimeSyntax()
+  {
+  }
+
+  /**
+   * Checks an optionally signed year of at least four digits. A year
+   * of more than four digits may not have a leading zero, and the year
+   * zero is not allowed.
+   */
+  static int year(CharSequence value, int i)
+  {
+    int len = value.length();
+    if (i < len && value.charAt(i) == '-')
+      {
+        i++;
+      }
+    int start = i;
+    while (i < len && isDigit(value.charAt(i)))
+      {
+        i++;
+      }
+    if (i - start < 4 ||
+        (i - start > 4 && value.charAt(start) == '0') ||
+        SimpleType.isZero(value, start, i))
+      {
+        return -1;
+      }
+    return i;
+  }
+
+  /**
+   * Checks a separator character followed by a two-digit field in the
+   * given range.
+   */
+  static int field(CharSequence value, int i, char separator,
+                   int min, int max)
+  {
+    if (i < 0 || i >= value.length() || value.charAt(i) != separator)
+      {
+        return -1;
+      }
+    int n = twoDigits(value, i + 1);
+    return (n < min || n > max) ? -1 : i + 3;
+  }
+
+  /**
+   * Checks a time of day, hh:mm:ss with optional fractional seconds.
+   * 24:00:00 is allowed.
+   */
+  static int time(CharSequence value, int i)
+  {
+    if (i < 0)
+      {
+        return -1;
+      }
+    int len = value.length();
+    int hour = twoDigits(value, i);
+    int minute = (field(value, i + 2, ':', 0, 59) < 0) ? -1 :
+      twoDigits(value, i + 3);
+    int second = (field(value, i + 5, ':', 0, 59) < 0) ? -1 :
+      twoDigits(value, i + 6);
+    if (hour < 0 || hour > 24 || minute < 0 || second < 0)
+      {
+        return -1;
+      }
+    i += 8;
+    boolean zero = true;
+    if (i < len && value.charAt(i) == '.')
+      {
+        int start = ++i;
+        while (i < len && isDigit(value.charAt(i)))
+          {
+            zero = zero && value.charAt(i) == '0';
+            i++;
+          }
+        if (i == start)
+          {
+            return -1;
+          }
+      }
+    if (hour == 24 && (minute != 0 || second != 0 || !zero))
+      {
+        return -1;
+      }
+    return i;
+  }
+
+  /**
+   * Checks that the value ends at the given index with an optional
+   * time zone, Z or +hh:mm or -hh:mm, no more than fourteen hours.
+   */
+  static boolean timezone(CharSequence value, int i)
+  {
+    if (i < 0)
+      {
+        return false;
+      }
+    int len = value.length();
+    if (i == len)
+      {
+        return true;
+      }
+    char c = value.charAt(i);
+    if (c == 'Z')
+      {
+        return i + 1 == len;
+      }
+    if ((c != '+' && c != '-') || i + 6 != len)
+      {
+        return false;
+      }
+    int hour = twoDigits(value, i + 1);
+    int minute = (field(value, i + 3, ':', 0, 59) < 0) ? -1 :
+      twoDigits(value, i + 4);
+    return hour >= 0 && minute >= 0 &&
+      (hour < 14 || (hour == 14 && minute == 0));
+  }
+
+  /**
+   * Checks a separator followed by a day of the given month.
+   */
+  static int day(CharSequence value, int i, char separator, int month,
+                 boolean leapYear)
+  {
+    int end = field(value, i, separator, 1, 31);
+    if (end < 0)
+      {
+        return -1;
+      }
+    int day = twoDigits(value, i + 1);
+    int max;
+    switch (month)
+      {
+      case 2:
+        max = leapYear ? 29 : 28;
+        break;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        max = 30;
+        break;
+      default:
+        max = 31;
+      }
+    return (day > max) ? -1 : end;
+  }
+
+  /**
+   * Returns the value of the two digits at the given index, or -1.
+   */
+  static int twoDigits(CharSequence value, int i)
+  {
+    if (i < 0 || i + 2 > value.length())
+      {
+        return -1;
+      }
+    char c1 = value.charAt(i);
+    char c2 = value.charAt(i + 1);
+    if (!isDigit(c1) || !isDigit(c2))
+      {
+        return -1;
+      }
+    return (c1 - '0') * 10 + (c2 - '0');
+  }
+
+  /**
+   * Indicates whether the year ending at the given index is a leap year
+   * in the proleptic Gregorian calendar.
+   */
+  static boolean isLeapYear(CharSequence value, int end)
+  {
+    // The sign and all but the last four digits do not change the
+    // residue modulo 400
+    int y = 0;
+    int scale = 1;
+    for (int i = end - 1; i >= 0 && scale <= 1000; i--)
+      {
+        char c = value.charAt(i);
+        if (!isDigit(c))
+          {
+            break;
+          }
+        y += (c - '0') * scale;
+        scale *= 10;
+      }
+    return (y % 4 == 0 && y % 100 != 0) || y % 400 == 0;
+  }
+
+  static boolean isDigit(char c)
+  {
+    return c >= '0' && c <= '9';
+  }
+
+}
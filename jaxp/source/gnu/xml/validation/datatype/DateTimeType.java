@@ -33,166 +33,22 @@ final class DateTimeType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
-    int len = value.length();
-    int state = 0;
-    int start = 0;
-    for (int i = 0; i < len; i++)
+    int year = DateTimeSyntax.year(value, 0);
+    int month = DateTimeSyntax.field(value, year, '-', 1, 12);
+    if (month < 0)
       {
-        char c = value.charAt(i);
-        if (c == '-' && i == 0)
-          {
-            start++;
-            continue;
-          }
-        if (c >= 0x30 && c <= 0x39)
-          {
-            continue;
-          }
-        switch (state)
-          {
-          case 0: // year
-            if (c == '-')
-              {
-                String year = value.substring(start, i);
-                if ("0000".equals(year) || year.length() < 4)
-                  {
-                    return false;
-                  }
-                state = 1;
-                start = i + 1;
-                continue;
-              }
-            break;
-          case 1: // month
-            if (c == '-')
-              {
-                if (i - start != 2)
-                  {
-                    return false;
-                  }
-                state = 2;
-                start = i + 1;
-                continue;
-              }
-            break;
-          case 2: // day
-            if (c == 'T')
-              {
-                if (i - start != 2)
-                  {
-                    return false;
-                  }
-                state = 3;
-                start = i + 1;
-                continue;
-              }
-            break;
-          case 3: // hour
-            if (c == ':')
-              {
-                if (i - start != 2)
-                  {
-                    return false;
-                  }
-                state = 4;
-                start = i + 1;
-                continue;
-              }
-            break;
-          case 4: // minute
-            if (c == ':')
-              {
-                if (i - start != 2)
-                  {
-                    return false;
-                  }
-                state = 5;
-                start = i + 1;
-                continue;
-              }
-            break;
-          case 5: // second
-            if (c == '.')
-              {
-                if (i - start != 2)
-                  {
-                    return false;
-                  }
-                state = 6;
-                start = i + 1;
-                continue;
-              }
-            else if (c == ' ')
-              {
-                if (i - start != 2)
-                  {
-                    return false;
-                  }
-                state = 7;
-                start = i + 1;
-                continue;
-              }
-            break;
-          case 6: // second fraction
-            if (c == ' ')
-              {
-                state = 7;
-                start = i + 1;
-                continue;
-              }
-            break;
-          case 7: // timezone 1
-            if (start == i)
-              {
-                if (c == '+' || c == '-')
-                  {
-                    continue;
-                  }
-                else if (c == 'Z')
-                  {
-                    state = 9;
-                    start = i + 1;
-                    continue;
-                  }
-              }
-            if (c == ':')
-              {
-                if (i - start != 2)
-                  {
-                    return false;
-                  }
-                state = 8;
-                start = i + 1;
-                continue;
-              }
-            break;
-          }
         return false;
       }
-    switch (state)
+    int day = DateTimeSyntax.day(value, month, '-',
+                                 DateTimeSyntax.twoDigits(value, year + 1),
+                                 DateTimeSyntax.isLeapYear(value, year));
+    if (day < 0 || day >= value.length() || value.charAt(day) != 'T')
       {
-      case 5: // second
-        if (len - start != 2)
-          {
-            return false;
-          }
-        break;
-      case 6: // second fraction
-        break;
-      case 8: // timezone 2
-        if (len - start != 2)
-          {
-            return false;
-          }
-        break;
-      case 9: // post Z
-        break;
-      default:
         return false;
       }
-    return true;
+    return DateTimeSyntax.timezone(value, DateTimeSyntax.time(value, day + 1));
   }
   
 }
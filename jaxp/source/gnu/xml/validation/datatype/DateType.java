@@ -33,65 +33,18 @@ final class DateType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
-    int len = value.length();
-    int state = 0;
-    int start = 0;
-    for (int i = 0; i < len; i++)
+    int year = DateTimeSyntax.year(value, 0);
+    int month = DateTimeSyntax.field(value, year, '-', 1, 12);
+    if (month < 0)
       {
-        char c = value.charAt(i);
-        if (c == '-' && i == 0)
-          {
-            start++;
-            continue;
-          }
-        if (c >= 0x30 && c <= 0x39)
-          {
-            continue;
-          }
-        switch (state)
-          {
-          case 0: // year
-            if (c == '-')
-              {
-                String year = value.substring(start, i);
-                if ("0000".equals(year) || year.length() < 4)
-                  {
-                    return false;
-                  }
-                state = 1;
-                start = i + 1;
-                continue;
-              }
-            break;
-          case 1: // month
-            if (c == '-')
-              {
-                if (i - start != 2)
-                  {
-                    return false;
-                  }
-                state = 2;
-                start = i + 1;
-                continue;
-              }
-            break;
-          }
         return false;
       }
-    switch (state)
-      {
-      case 2: // day
-        if (len - start != 2)
-          {
-            return false;
-          }
-        break;
-      default:
-        return false;
-      }
-    return true;
+    int day = DateTimeSyntax.day(value, month, '-',
+                                 DateTimeSyntax.twoDigits(value, year + 1),
+                                 DateTimeSyntax.isLeapYear(value, year));
+    return DateTimeSyntax.timezone(value, day);
   }
   
 }
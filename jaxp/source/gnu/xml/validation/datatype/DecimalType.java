@@ -37,7 +37,7 @@ final class DecimalType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
     int len = value.length();
     if (len == 0)
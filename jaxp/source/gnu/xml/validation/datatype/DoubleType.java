@@ -1,9 +1,5 @@
 package gnu.xml.validation.datatype;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Set;
-import java.util.TreeSet;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 
@@ -26,9 +22,6 @@ final class DoubleType
     Facet.MIN_EXCLUSIVE
   };
 
-  static final Set SPECIAL =
-    new TreeSet(Arrays.asList(new String[] {"INF", "-INF", "NaN"}));
-
   DoubleType()
   {
     super(new QName(XMLConstants.W3C_XML_SCHEMA_NS_URI, "double"),
@@ -40,21 +33,68 @@ final class DoubleType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
+  {
+    return isFloatingPoint(value);
+  }
+
+  /**
+   * Indicates whether the value is in the lexical space shared by the
+   * float and double types.
+   */
+  static boolean isFloatingPoint(CharSequence value)
   {
-    if (SPECIAL.contains(value))
+    if (contentEquals(value, "INF") ||
+        contentEquals(value, "-INF") ||
+        contentEquals(value, "NaN"))
       {
         return true;
       }
-    try
+    int len = value.length();
+    int i = 0;
+    char c = (len == 0) ? 0 : value.charAt(0);
+    if (c == '+' || c == '-')
       {
-        Double.parseDouble(value);
-        return true;
+        i++;
+      }
+    int digits = 0;
+    for (; i < len && isDigit(value.charAt(i)); i++)
+      {
+        digits++;
       }
-    catch (NumberFormatException e)
+    if (i < len && value.charAt(i) == '.')
+      {
+        for (i++; i < len && isDigit(value.charAt(i)); i++)
+          {
+            digits++;
+          }
+      }
+    if (digits == 0)
       {
         return false;
       }
+    if (i < len && (value.charAt(i) == 'e' || value.charAt(i) == 'E'))
+      {
+        i++;
+        if (i < len && (value.charAt(i) == '+' || value.charAt(i) == '-'))
+          {
+            i++;
+          }
+        int exponent = i;
+        for (; i < len && isDigit(value.charAt(i)); i++)
+          {
+          }
+        if (i == exponent)
+          {
+            return false;
+          }
+      }
+    return i == len;
+  }
+
+  private static boolean isDigit(char c)
+  {
+    return c >= 0x30 && c <= 0x39;
   }
   
 }
@@ -22,6 +22,9 @@ final class DurationType
     Facet.MIN_EXCLUSIVE
   };
 
+  // the component designators, in order, date before time
+  private static final String DESIGNATORS = "YMDHMS";
+
   DurationType()
   {
     super(new QName(XMLConstants.W3C_XML_SCHEMA_NS_URI, "duration"),
@@ -33,65 +36,76 @@ final class DurationType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
+    // -?PnYnMnDTnHnMnS, each component optional but at least one
+    // present, and at least one following T; the seconds may be a
+    // fraction with no integer part
     int len = value.length();
-    char expect = 'P';
-    boolean seenT = false;
-    for (int i = 0; i < len; i++)
+    int i = 0;
+    if (i < len && value.charAt(i) == '-')
+      {
+        i++;
+      }
+    if (i >= len || value.charAt(i) != 'P')
+      {
+        return false;
+      }
+    i++;
+    boolean time = false;
+    boolean any = false;
+    int next = 0; // index in DESIGNATORS of the next allowed component
+    while (i < len)
       {
-        char c = value.charAt(i);
-        if (c == '-' && expect == 'P')
+        if (value.charAt(i) == 'T')
           {
+            if (time)
+              {
+                return false;
+              }
+            time = true;
+            any = false;
+            next = 3;
+            i++;
             continue;
           }
-        if (c == expect)
+        int start = i;
+        while (i < len && DateTimeSyntax.isDigit(value.charAt(i)))
           {
-            if (c == 'P')
-              {
-                expect = 'Y';
-              }
-            else if (c == 'Y')
-              {
-                expect = 'M';
-              }
-            else if (c == 'M' && !seenT)
-              {
-                expect = 'D';
-              }
-            else if (c == 'D')
-              {
-                expect = 'T';
-              }
-            else if (c == 'T')
-              {
-                expect = 'H';
-                seenT = true;
-              }
-            else if (c == 'H')
-              {
-                expect = 'M';
-              }
-            else if (c == 'M' && seenT)
+            i++;
+          }
+        boolean fraction = false;
+        if (i < len && value.charAt(i) == '.')
+          {
+            int point = ++i;
+            while (i < len && DateTimeSyntax.isDigit(value.charAt(i)))
               {
-                expect = 'S';
+                i++;
               }
-            else if (c == 'S')
+            if (i == point)
               {
-                if (i + 1 != len)
-                  {
-                    return false;
-                  }
+                return false;
               }
-            continue;
+            fraction = true;
           }
-        if (c >= 0x30 && c <= 0x39 && expect != 'P' && expect != 'T')
+        else if (i == start)
           {
-            continue;
+            return false;
           }
-        return false;
+        if (i >= len)
+          {
+            return false;
+          }
+        int d = DESIGNATORS.indexOf(value.charAt(i), next);
+        if (d == -1 || (d < 3) == time || (fraction && d != 5))
+          {
+            return false;
+          }
+        next = d + 1;
+        any = true;
+        i++;
       }
-    return true;
+    return any;
   }
   
 }
@@ -1,9 +1,5 @@
 package gnu.xml.validation.datatype;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Set;
-import java.util.TreeSet;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 
@@ -26,9 +22,6 @@ final class FloatType
     Facet.MIN_EXCLUSIVE
   };
 
-  static final Set SPECIAL =
-    new TreeSet(Arrays.asList(new String[] {"INF", "-INF", "NaN"}));
-
   FloatType()
   {
     super(new QName(XMLConstants.W3C_XML_SCHEMA_NS_URI, "float"),
@@ -40,21 +33,9 @@ final class FloatType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
-    if (SPECIAL.contains(value))
-      {
-        return true;
-      }
-    try
-      {
-        Float.parseFloat(value);
-        return true;
-      }
-    catch (NumberFormatException e)
-      {
-        return false;
-      }
+    return DoubleType.isFloatingPoint(value);
   }
   
 }
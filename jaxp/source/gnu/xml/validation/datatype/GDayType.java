@@ -33,63 +33,16 @@ final class GDayType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
-    int len = value.length();
-    int state = 0;
-    int start = 0;
-    for (int i = 0; i < len; i++)
+    // ---DD
+    if (value.length() < 2 || value.charAt(0) != '-' ||
+        value.charAt(1) != '-')
       {
-        char c = value.charAt(i);
-        if (c >= 0x30 && c <= 0x39)
-          {
-            continue;
-          }
-        switch (state)
-          {
-          case 0: // year
-            if (c == '-')
-              {
-                switch (i)
-                  {
-                  case 0:
-                    continue;
-                  case 1:
-                    state = 1;
-                    start = i + 1;
-                    continue;
-                  default:
-                    return false;
-                  }
-              }
-            break;
-          case 1: // month
-            if (c == '-')
-              {
-                if (i - start != 0)
-                  {
-                    return false;
-                  }
-                state = 2;
-                start = i + 1;
-                continue;
-              }
-            break;
-          }
         return false;
       }
-    switch (state)
-      {
-      case 2: // day
-        if (len - start != 2)
-          {
-            return false;
-          }
-        break;
-      default:
-        return false;
-      }
-    return true;
+    return DateTimeSyntax.timezone(value,
+                                   DateTimeSyntax.field(value, 2, '-', 1, 31));
   }
   
 }
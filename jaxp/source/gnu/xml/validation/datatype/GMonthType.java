@@ -33,51 +33,20 @@ final class GMonthType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
-    int len = value.length();
-    int state = 0;
-    int start = 0;
-    for (int i = 0; i < len; i++)
+    // --MM, or --MM-- as in the first edition of XML Schema
+    if (value.length() == 0 || value.charAt(0) != '-')
       {
-        char c = value.charAt(i);
-        if (c >= 0x30 && c <= 0x39)
-          {
-            continue;
-          }
-        switch (state)
-          {
-          case 0: // year
-            if (c == '-')
-              {
-                switch (i)
-                  {
-                  case 0:
-                    continue;
-                  case 1:
-                    state = 1;
-                    start = i + 1;
-                    continue;
-                  default:
-                    return false;
-                  }
-              }
-            break;
-          }
         return false;
       }
-    switch (state)
+    int month = DateTimeSyntax.field(value, 1, '-', 1, 12);
+    if (month > 0 && value.length() >= month + 2 &&
+        value.charAt(month) == '-' && value.charAt(month + 1) == '-')
       {
-      case 1: // month
-        if (len - start != 2)
-          {
-            return false;
-          }
-        break;
-      default:
-        return false;
+        month += 2;
       }
-    return true;
+    return DateTimeSyntax.timezone(value, month);
   }
   
 }
@@ -33,53 +33,12 @@ final class GYearMonthType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
-    int len = value.length();
-    int state = 0;
-    int start = 0;
-    for (int i = 0; i < len; i++)
-      {
-        char c = value.charAt(i);
-        if (c == '-' && i == 0)
-          {
-            start++;
-            continue;
-          }
-        if (c >= 0x30 && c <= 0x39)
-          {
-            continue;
-          }
-        switch (state)
-          {
-          case 0: // year
-            if (c == '-')
-              {
-                String year = value.substring(start, i);
-                if (year.length() < 4 || Integer.parseInt(year) == 0)
-                  {
-                    return false;
-                  }
-                state = 1;
-                start = i + 1;
-                continue;
-              }
-            break;
-          }
-        return false;
-      }
-    switch (state)
-      {
-      case 1: // month
-        if (len - start != 2)
-          {
-            return false;
-          }
-        break;
-      default:
-        return false;
-      }
-    return true;
+    int year = DateTimeSyntax.year(value, 0);
+    return DateTimeSyntax.timezone(value,
+                                   DateTimeSyntax.field(value, year, '-',
+                                                        1, 12));
   }
   
 }
@@ -33,38 +33,9 @@ final class GYearType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
-    int len = value.length();
-    int state = 0;
-    int start = 0;
-    for (int i = 0; i < len; i++)
-      {
-        char c = value.charAt(i);
-        if (c == '-' && i == 0)
-          {
-            start++;
-            continue;
-          }
-        if (c >= 0x30 && c <= 0x39)
-          {
-            continue;
-          }
-        return false;
-      }
-    switch (state)
-      {
-      case 0: // year
-        String year = value.substring(start, len);
-        if (year.length() < 4 || Integer.parseInt(year) == 0)
-          {
-            return false;
-          }
-        break;
-      default:
-        return false;
-      }
-    return true;
+    return DateTimeSyntax.timezone(value, DateTimeSyntax.year(value, 0));
   }
   
 }
@@ -14,8 +14,6 @@ final class HexBinaryType
   extends AtomicSimpleType
 {
 
-  static final String HEX = "0123456789ABCDEF";
-
   static final int[] CONSTRAINING_FACETS = {
     Facet.LENGTH,
     Facet.MIN_LENGTH,
@@ -36,13 +34,19 @@ final class HexBinaryType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
     int len = value.length();
+    if (len % 2 != 0)
+      {
+        return false;
+      }
     for (int i = 0; i < len; i++)
       {
         char c = value.charAt(i);
-        if (HEX.indexOf(c) == -1)
+        if (!((c >= '0' && c <= '9') ||
+              (c >= 'A' && c <= 'F') ||
+              (c >= 'a' && c <= 'f')))
           {
             return false;
           }
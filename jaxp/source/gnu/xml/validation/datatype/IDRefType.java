@@ -32,10 +32,9 @@ final class IDRefType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
-    // TODO
-    return true;
+    return NameType.isName(value, false);
   }
   
 }
@@ -39,7 +39,7 @@ final class IntType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
     int len = value.length();
     if (len == 0)
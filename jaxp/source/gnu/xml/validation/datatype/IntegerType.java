@@ -35,7 +35,7 @@ final class IntegerType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
     int len = value.length();
     if (len == 0)
@@ -1,6 +1,5 @@
 package gnu.xml.validation.datatype;
 
-import java.util.regex.Pattern;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 
@@ -22,8 +21,6 @@ final class LanguageType
     Facet.WHITESPACE
   };
 
-  static final Pattern PATTERN =
-    Pattern.compile("[a-zA-Z]{1,8}(-[a-zA-Z0-9]{1,8})*");
 
   LanguageType()
   {
@@ -36,9 +33,36 @@ final class LanguageType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
-    return PATTERN.matcher(value).matches();
+    // [a-zA-Z]{1,8}(-[a-zA-Z0-9]{1,8})*
+    int len = value.length();
+    int count = 0;
+    boolean first = true;
+    for (int i = 0; i < len; i++)
+      {
+        char c = value.charAt(i);
+        if (c == '-')
+          {
+            if (count == 0)
+              {
+                return false;
+              }
+            first = false;
+            count = 0;
+            continue;
+          }
+        if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+              (!first && c >= '0' && c <= '9')))
+          {
+            return false;
+          }
+        if (++count > 8)
+          {
+            return false;
+          }
+      }
+    return count > 0;
   }
   
 }
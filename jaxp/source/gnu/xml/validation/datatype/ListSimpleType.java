@@ -1,7 +1,6 @@
 package gnu.xml.validation.datatype;
 
 import java.util.Set;
-import java.util.StringTokenizer;
 import javax.xml.namespace.QName;
 
 /**
@@ -17,6 +16,11 @@ public class ListSimpleType
    * The type of the items in this list (atomic or union).
    */
   public final SimpleType itemType;
+
+  /**
+   * The slice through which each thread checks list items.
+   */
+  private final ThreadLocal item = new ThreadLocal();
   
   public ListSimpleType(QName name, Set facets,
                         int fundamentalFacets, SimpleType baseType,
@@ -26,23 +30,79 @@ public class ListSimpleType
     this.itemType = itemType;
   }
   
-  public boolean matches(String value)
+  /**
+   * Checks each item of the list against the item type, then the facets
+   * of this type. A list derived by restriction from another list has
+   * its items checked by that list.
+   */
+  public boolean matches(CharSequence value)
   {
-    StringTokenizer st = new StringTokenizer(value, " ");
-    if (!st.hasMoreTokens())
+    if (baseType instanceof ListSimpleType)
+      {
+        if (!baseType.matches(value))
+          {
+            return false;
+          }
+      }
+    else if (!matchesItems(value))
       {
         return false;
       }
-    while (st.hasMoreTokens())
+    return super.matches(value);
+  }
+
+  private boolean matchesItems(CharSequence value)
+  {
+    Slice item = (Slice) this.item.get();
+    if (item == null)
+      {
+        item = new Slice();
+        this.item.set(item);
+      }
+    int len = value.length();
+    int start = -1;
+    for (int i = 0; i <= len; i++)
       {
-        String token = st.nextToken();
-        if (!itemType.matches(token))
+        if (i == len || value.charAt(i) == ' ')
           {
-            return false;
+            if (start != -1)
+              {
+                item.set(value, start, i);
+                if (!itemType.matches(item))
+                  {
+                    item.set(null, 0, 0); // don't retain the caller's buffer
+                    return false;
+                  }
+                start = -1;
+              }
+          }
+        else if (start == -1)
+          {
+            start = i;
           }
       }
+    item.set(null, 0, 0);
     return true;
   }
+
+  /**
+   * Returns the number of items in the list.
+   */
+  int length(CharSequence value)
+  {
+    int count = 0;
+    int len = value.length();
+    boolean space = true;
+    for (int i = 0; i < len; i++)
+      {
+        boolean c = value.charAt(i) == ' ';
+        if (space && !c)
+          {
+            count++;
+          }
+        space = c;
+      }
+    return count;
+  }
   
 }
-
@@ -9,11 +9,14 @@ public final class MaxExclusiveFacet
   extends Facet
 {
   
-  public final int value;
+  /**
+   * The lexical form of the bound.
+   */
+  public final String value;
 
   public final boolean fixed;
 
-  public MaxExclusiveFacet(int value, boolean fixed, Annotation annotation)
+  public MaxExclusiveFacet(String value, boolean fixed, Annotation annotation)
   {
     super(MAX_EXCLUSIVE, annotation);
     this.value = value;
@@ -22,13 +25,13 @@ public final class MaxExclusiveFacet
   
   public int hashCode()
   {
-    return value;
+    return value.hashCode();
   }
 
   public boolean equals(Object other)
   {
     return (other instanceof MaxExclusiveFacet &&
-            ((MaxExclusiveFacet) other).value == value);
+            ((MaxExclusiveFacet) other).value.equals(value));
   }
   
 }
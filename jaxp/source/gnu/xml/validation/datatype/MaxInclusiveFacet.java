@@ -9,11 +9,14 @@ public final class MaxInclusiveFacet
   extends Facet
 {
   
-  public final int value;
+  /**
+   * The lexical form of the bound.
+   */
+  public final String value;
 
   public final boolean fixed;
 
-  public MaxInclusiveFacet(int value, boolean fixed, Annotation annotation)
+  public MaxInclusiveFacet(String value, boolean fixed, Annotation annotation)
   {
     super(MAX_INCLUSIVE, annotation);
     this.value = value;
@@ -22,13 +25,13 @@ public final class MaxInclusiveFacet
   
   public int hashCode()
   {
-    return value;
+    return value.hashCode();
   }
 
   public boolean equals(Object other)
   {
     return (other instanceof MaxInclusiveFacet &&
-            ((MaxInclusiveFacet) other).value == value);
+            ((MaxInclusiveFacet) other).value.equals(value));
   }
   
 }
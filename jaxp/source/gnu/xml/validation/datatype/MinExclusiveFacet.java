@@ -9,11 +9,14 @@ public final class MinExclusiveFacet
   extends Facet
 {
   
-  public final int value;
+  /**
+   * The lexical form of the bound.
+   */
+  public final String value;
 
   public final boolean fixed;
 
-  public MinExclusiveFacet(int value, boolean fixed, Annotation annotation)
+  public MinExclusiveFacet(String value, boolean fixed, Annotation annotation)
   {
     super(MIN_EXCLUSIVE, annotation);
     this.value = value;
@@ -22,13 +25,13 @@ public final class MinExclusiveFacet
   
   public int hashCode()
   {
-    return value;
+    return value.hashCode();
   }
 
   public boolean equals(Object other)
   {
     return (other instanceof MinExclusiveFacet &&
-            ((MinExclusiveFacet) other).value == value);
+            ((MinExclusiveFacet) other).value.equals(value));
   }
   
 }
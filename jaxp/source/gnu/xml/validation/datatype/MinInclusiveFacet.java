@@ -9,11 +9,14 @@ public final class MinInclusiveFacet
   extends Facet
 {
   
-  public final int value;
+  /**
+   * The lexical form of the bound.
+   */
+  public final String value;
 
   public final boolean fixed;
 
-  public MinInclusiveFacet(int value, boolean fixed, Annotation annotation)
+  public MinInclusiveFacet(String value, boolean fixed, Annotation annotation)
   {
     super(MIN_INCLUSIVE, annotation);
     this.value = value;
@@ -22,13 +25,13 @@ public final class MinInclusiveFacet
   
   public int hashCode()
   {
-    return value;
+    return value.hashCode();
   }
 
   public boolean equals(Object other)
   {
     return (other instanceof MinInclusiveFacet &&
-            ((MinInclusiveFacet) other).value == value);
+            ((MinInclusiveFacet) other).value.equals(value));
   }
   
 }
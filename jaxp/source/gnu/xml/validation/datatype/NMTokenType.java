@@ -32,9 +32,21 @@ final class NMTokenType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
-    // TODO
+    int len = value.length();
+    if (len == 0)
+      {
+        return false;
+      }
+    for (int i = 0; i < len; i++)
+      {
+        char c = value.charAt(i);
+        if (c != ':' && !NameType.isNameChar(c))
+          {
+            return false;
+          }
+      }
     return true;
   }
   
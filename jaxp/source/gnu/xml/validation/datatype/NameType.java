@@ -32,11 +32,113 @@ final class NameType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
-    // TODO
+    return isName(value, true);
+  }
+
+  /**
+   * Indicates whether the value is an XML name. If colons are not
+   * allowed, this is an NCName.
+   */
+  static boolean isName(CharSequence value, boolean colons)
+  {
+    int len = value.length();
+    if (len == 0)
+      {
+        return false;
+      }
+    for (int i = 0; i < len; i++)
+      {
+        char c = value.charAt(i);
+        if (c == ':')
+          {
+            if (!colons)
+              {
+                return false;
+              }
+          }
+        else if ((i == 0) ? !isNameStartChar(c) : !isNameChar(c))
+          {
+            return false;
+          }
+      }
     return true;
   }
+
+  /**
+   * Indicates whether the value is a list of one or more items separated
+   * by spaces, each an NCName, or if tokens is set an NMTOKEN.
+   */
+  static boolean isNameList(CharSequence value, boolean tokens)
+  {
+    int len = value.length();
+    int count = 0;
+    boolean start = true;
+    for (int i = 0; i < len; i++)
+      {
+        char c = value.charAt(i);
+        if (c == ' ')
+          {
+            start = true;
+            continue;
+          }
+        if (start)
+          {
+            count++;
+          }
+        if (tokens)
+          {
+            if (c != ':' && !isNameChar(c))
+              {
+                return false;
+              }
+          }
+        else if (c == ':' || (start ? !isNameStartChar(c) : !isNameChar(c)))
+          {
+            return false;
+          }
+        start = false;
+      }
+    return count > 0;
+  }
+
+  /**
+   * Indicates whether the character, other than a colon, may start a
+   * name. Supplementary characters are allowed by their surrogates.
+   */
+  static boolean isNameStartChar(char c)
+  {
+    return (c >= 0x0041 && c <= 0x005a) ||
+      (c >= 0x0061 && c <= 0x007a) ||
+      c == '_' ||
+      (c >= 0x00c0 && c <= 0x00d6) ||
+      (c >= 0x00d8 && c <= 0x00f6) ||
+      (c >= 0x00f8 && c <= 0x02ff) ||
+      (c >= 0x0370 && c <= 0x037d) ||
+      (c >= 0x037f && c <= 0x1fff) ||
+      (c >= 0x200c && c <= 0x200d) ||
+      (c >= 0x2070 && c <= 0x218f) ||
+      (c >= 0x2c00 && c <= 0x2fef) ||
+      (c >= 0x3001 && c <= 0xd7ff) ||
+      (c >= 0xd800 && c <= 0xdbff) ||
+      (c >= 0xdc00 && c <= 0xdfff) ||
+      (c >= 0xf900 && c <= 0xfdcf) ||
+      (c >= 0xfdf0 && c <= 0xfffd);
+  }
+
+  /**
+   * Indicates whether the character, other than a colon, may appear in
+   * a name.
+   */
+  static boolean isNameChar(char c)
+  {
+    return isNameStartChar(c) ||
+      (c >= 0x0030 && c <= 0x0039) ||
+      c == '-' || c == '.' || c == 0x00b7 ||
+      (c >= 0x0300 && c <= 0x036f) ||
+      (c >= 0x203f && c <= 0x2040);
+  }
   
 }
 
@@ -32,7 +32,7 @@ final class NormalizedStringType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
     int len = value.length();
     for (int i = 0; i < len; i++)
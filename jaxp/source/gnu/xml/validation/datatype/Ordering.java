@@ -0,0 +1,410 @@
+package gnu.xml.validation.datatype;
+
+/**
+ * Compares the lexical forms of values of the ordered primitive types,
+ * for the bounds facets. Values are assumed to be lexically valid.
+ * Decimals are compared digit by digit, without conversion.
+ */
+final class Ordering
+{
+
+  /**
+   * The result of comparing two values that are not ordered with
+   * respect to each other, such as a date with a time zone and one
+   * without, or NaN.
+   */
+  static final int INDETERMINATE = 2;
+
+  // fourteen hours, the largest time zone offset, in seconds
+  private static final long MAX_OFFSET = 14L * 3600L;
+
+  private Ordering()
+  {
+  }
+
+  /**
+   * Returns the primitive type from which the given type is derived.
+   */
+  static SimpleType getPrimitiveType(SimpleType type)
+  {
+    SimpleType t = type;
+    while (t != null && t.baseType != null &&
+           t.baseType != Type.ANY_SIMPLE_TYPE)
+      {
+        t = t.baseType;
+      }
+    return t;
+  }
+
+  /**
+   * Indicates whether values of the given primitive type can be
+   * compared.
+   */
+  static boolean isOrdered(SimpleType primitive)
+  {
+    return primitive == Type.DECIMAL ||
+      primitive == Type.FLOAT ||
+      primitive == Type.DOUBLE ||
+      isDateTime(primitive);
+  }
+
+  private static boolean isDateTime(SimpleType primitive)
+  {
+    return primitive == Type.DATE_TIME ||
+      primitive == Type.DATE ||
+      primitive == Type.TIME ||
+      primitive == Type.G_YEAR_MONTH ||
+      primitive == Type.G_YEAR ||
+      primitive == Type.G_MONTH_DAY ||
+      primitive == Type.G_DAY ||
+      primitive == Type.G_MONTH;
+  }
+
+  /**
+   * Compares two values of the given primitive type.
+   * @return a negative number, zero or a positive number as the first
+   * value is less than, equal to or greater than the second, or
+   * INDETERMINATE
+   */
+  static int compare(SimpleType primitive, CharSequence v1, CharSequence v2)
+  {
+    if (primitive == Type.DECIMAL)
+      {
+        return compareDecimal(v1, v2);
+      }
+    if (primitive == Type.FLOAT || primitive == Type.DOUBLE)
+      {
+        double d1 = parseDouble(v1);
+        double d2 = parseDouble(v2);
+        if (Double.isNaN(d1) || Double.isNaN(d2))
+          {
+            return INDETERMINATE;
+          }
+        return (d1 < d2) ? -1 : (d1 > d2) ? 1 : 0;
+      }
+    if (isDateTime(primitive))
+      {
+        return compareDateTime(new DateTimeValue(primitive, v1),
+                               new DateTimeValue(primitive, v2));
+      }
+    return INDETERMINATE;
+  }
+
+  private static double parseDouble(CharSequence value)
+  {
+    String s = value.toString();
+    if ("INF".equals(s))
+      {
+        return Double.POSITIVE_INFINITY;
+      }
+    if ("-INF".equals(s))
+      {
+        return Double.NEGATIVE_INFINITY;
+      }
+    if ("NaN".equals(s))
+      {
+        return Double.NaN;
+      }
+    return Double.parseDouble(s);
+  }
+
+  /**
+   * Compares two decimal lexical forms.
+   */
+  static int compareDecimal(CharSequence v1, CharSequence v2)
+  {
+    boolean neg1 = v1.length() > 0 && v1.charAt(0) == '-';
+    boolean neg2 = v2.length() > 0 && v2.charAt(0) == '-';
+    boolean zero1 = isZero(v1);
+    boolean zero2 = isZero(v2);
+    int sign1 = zero1 ? 0 : neg1 ? -1 : 1;
+    int sign2 = zero2 ? 0 : neg2 ? -1 : 1;
+    if (sign1 != sign2)
+      {
+        return (sign1 < sign2) ? -1 : 1;
+      }
+    if (sign1 == 0)
+      {
+        return 0;
+      }
+    int cmp = compareMagnitude(v1, v2);
+    return neg1 ? -cmp : cmp;
+  }
+
+  private static boolean isZero(CharSequence value)
+  {
+    int len = value.length();
+    for (int i = 0; i < len; i++)
+      {
+        char c = value.charAt(i);
+        if (c >= '1' && c <= '9')
+          {
+            return false;
+          }
+      }
+    return true;
+  }
+
+  /**
+   * Compares the absolute values of two decimal lexical forms.
+   */
+  private static int compareMagnitude(CharSequence v1, CharSequence v2)
+  {
+    int s1 = firstSignificant(v1);
+    int s2 = firstSignificant(v2);
+    int e1 = endOfInteger(v1, s1);
+    int e2 = endOfInteger(v2, s2);
+    // More integer digits means a larger magnitude
+    if (e1 - s1 != e2 - s2)
+      {
+        return (e1 - s1 < e2 - s2) ? -1 : 1;
+      }
+    for (int i = 0; i < e1 - s1; i++)
+      {
+        char c1 = v1.charAt(s1 + i);
+        char c2 = v2.charAt(s2 + i);
+        if (c1 != c2)
+          {
+            return (c1 < c2) ? -1 : 1;
+          }
+      }
+    // Fraction digits, padded with zeros
+    int f1 = (e1 < v1.length()) ? e1 + 1 : e1;
+    int f2 = (e2 < v2.length()) ? e2 + 1 : e2;
+    int len = Math.max(v1.length() - f1, v2.length() - f2);
+    for (int i = 0; i < len; i++)
+      {
+        char c1 = (f1 + i < v1.length()) ? v1.charAt(f1 + i) : '0';
+        char c2 = (f2 + i < v2.length()) ? v2.charAt(f2 + i) : '0';
+        if (c1 != c2)
+          {
+            return (c1 < c2) ? -1 : 1;
+          }
+      }
+    return 0;
+  }
+
+  // index of the first non-zero integer digit
+  private static int firstSignificant(CharSequence value)
+  {
+    int len = value.length();
+    int i = 0;
+    if (i < len && (value.charAt(i) == '-' || value.charAt(i) == '+'))
+      {
+        i++;
+      }
+    while (i < len && value.charAt(i) == '0')
+      {
+        i++;
+      }
+    return i;
+  }
+
+  // index of the decimal point, or the length
+  private static int endOfInteger(CharSequence value, int start)
+  {
+    int len = value.length();
+    int i = start;
+    while (i < len && value.charAt(i) != '.')
+      {
+        i++;
+      }
+    return i;
+  }
+
+  /**
+   * Compares two date/time values. When only one has a time zone, they
+   * are ordered only if the order holds for every possible time zone of
+   * the other.
+   */
+  static int compareDateTime(DateTimeValue p, DateTimeValue q)
+  {
+    if (p.timezone == q.timezone)
+      {
+        return p.compareTo(q, 0L);
+      }
+    if (!p.timezone)
+      {
+        int cmp = compareDateTime(q, p);
+        return (cmp == INDETERMINATE) ? cmp : -cmp;
+      }
+    // p has a time zone, q does not
+    if (p.compareTo(q, -MAX_OFFSET) < 0)
+      {
+        return -1;
+      }
+    if (p.compareTo(q, MAX_OFFSET) > 0)
+      {
+        return 1;
+      }
+    return INDETERMINATE;
+  }
+
+  /**
+   * The fields of a date/time value, normalized to UTC if it has a time
+   * zone.
+   */
+  static final class DateTimeValue
+  {
+
+    final boolean timezone;
+    final long seconds;
+    private final CharSequence text;
+    private final int fractionStart;
+    private final int fractionEnd;
+
+    DateTimeValue(SimpleType primitive, CharSequence value)
+    {
+      text = value;
+      int len = value.length();
+      int i = 0;
+      long year = 1972L;
+      int month = 1;
+      int day = 1;
+      int hour = 0;
+      int minute = 0;
+      int second = 0;
+      if (primitive == Type.G_MONTH_DAY || primitive == Type.G_MONTH)
+        {
+          month = digits(value, 2, 4);
+          i = 4;
+          if (primitive == Type.G_MONTH_DAY)
+            {
+              day = digits(value, 5, 7);
+              i = 7;
+            }
+        }
+      else if (primitive == Type.G_DAY)
+        {
+          day = digits(value, 3, 5);
+          i = 5;
+        }
+      else if (primitive != Type.TIME)
+        {
+          boolean negative = value.charAt(0) == '-';
+          if (negative)
+            {
+              i++;
+            }
+          int start = i;
+          while (i < len && value.charAt(i) >= '0' && value.charAt(i) <= '9')
+            {
+              i++;
+            }
+          year = 0L;
+          for (int j = start; j < i; j++)
+            {
+              year = year * 10L + (value.charAt(j) - '0');
+            }
+          if (negative)
+            {
+              year = -year;
+            }
+          if (primitive != Type.G_YEAR)
+            {
+              month = digits(value, i + 1, i + 3);
+              i += 3;
+              if (primitive != Type.G_YEAR_MONTH)
+                {
+                  day = digits(value, i + 1, i + 3);
+                  i += 3;
+                }
+            }
+          if (primitive == Type.DATE_TIME)
+            {
+              i++; // 'T'
+            }
+        }
+      int fs = i;
+      int fe = i;
+      if (primitive == Type.DATE_TIME || primitive == Type.TIME)
+        {
+          hour = digits(value, i, i + 2);
+          minute = digits(value, i + 3, i + 5);
+          second = digits(value, i + 6, i + 8);
+          i += 8;
+          if (i < len && value.charAt(i) == '.')
+            {
+              i++;
+              fs = i;
+              while (i < len && value.charAt(i) >= '0' &&
+                     value.charAt(i) <= '9')
+                {
+                  i++;
+                }
+              fe = i;
+            }
+        }
+      fractionStart = fs;
+      fractionEnd = fe;
+      long offset = 0L;
+      timezone = i < len;
+      if (timezone && value.charAt(i) != 'Z')
+        {
+          offset = digits(value, i + 1, i + 3) * 3600L +
+            digits(value, i + 4, i + 6) * 60L;
+          if (value.charAt(i) == '-')
+            {
+              offset = -offset;
+            }
+        }
+      seconds = daysFromCivil(year, month, day) * 86400L +
+        hour * 3600L + minute * 60L + second - offset;
+    }
+
+    /**
+     * Compares this value with another, adjusted by the given number of
+     * seconds.
+     */
+    int compareTo(DateTimeValue other, long adjust)
+    {
+      long s1 = seconds;
+      long s2 = other.seconds + adjust;
+      if (s1 != s2)
+        {
+          return (s1 < s2) ? -1 : 1;
+        }
+      int len1 = fractionEnd - fractionStart;
+      int len2 = other.fractionEnd - other.fractionStart;
+      int len = Math.max(len1, len2);
+      for (int i = 0; i < len; i++)
+        {
+          char c1 = (i < len1) ? text.charAt(fractionStart + i) : '0';
+          char c2 = (i < len2) ?
+            other.text.charAt(other.fractionStart + i) : '0';
+          if (c1 != c2)
+            {
+              return (c1 < c2) ? -1 : 1;
+            }
+        }
+      return 0;
+    }
+
+    private static int digits(CharSequence value, int start, int end)
+    {
+      int ret = 0;
+      for (int i = start; i < end; i++)
+        {
+          ret = ret * 10 + (value.charAt(i) - '0');
+        }
+      return ret;
+    }
+
+    /**
+     * Returns the number of days from 1970-01-01 to the given date in
+     * the proleptic Gregorian calendar.
+     */
+    private static long daysFromCivil(long year, int month, int day)
+    {
+      long y = (month <= 2) ? year - 1L : year;
+      long era = ((y >= 0L) ? y : y - 399L) / 400L;
+      long yoe = y - era * 400L;
+      long doy = (153L * (month + ((month > 2) ? -3 : 9)) + 2L) / 5L +
+        day - 1L;
+      long doe = yoe * 365L + yoe / 4L - yoe / 100L + doy;
+      return era * 146097L + doe - 719468L;
+    }
+
+  }
+
+}
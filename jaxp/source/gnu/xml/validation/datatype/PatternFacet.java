@@ -1,5 +1,8 @@
 package gnu.xml.validation.datatype;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -11,12 +14,74 @@ public final class PatternFacet
   extends Facet
 {
 
+  /**
+   * The maximum number of compiled patterns kept for sharing.
+   */
+  static final int MAX_CACHED = 128;
+
+  /**
+   * Recently used compiled patterns, keyed by regular expression.
+   */
+  static final Map cache = new LinkedHashMap(16, 0.75f, true)
+    {
+      protected boolean removeEldestEntry(Map.Entry eldest)
+      {
+        return size() > MAX_CACHED;
+      }
+    };
+
   public final Pattern value;
 
+  /**
+   * A matcher for each thread, reset for each value checked.
+   */
+  private final ThreadLocal matcher;
+
   public PatternFacet(Pattern value, Annotation annotation)
   {
     super(PATTERN, annotation);
     this.value = value;
+    matcher = new ThreadLocal();
+  }
+
+  /**
+   * Returns the compiled form of the given regular expression. Recently
+   * used patterns are shared, since many schemas repeat the same
+   * expressions.
+   */
+  public static Pattern compile(String regex)
+  {
+    synchronized (cache)
+      {
+        Pattern ret = (Pattern) cache.get(regex);
+        if (ret == null)
+          {
+            ret = Pattern.compile(regex);
+            cache.put(regex, ret);
+          }
+        return ret;
+      }
+  }
+
+  /**
+   * Indicates whether the entire value matches this pattern.
+   * Pattern facets are implicitly anchored at both ends.
+   */
+  public boolean matches(CharSequence text)
+  {
+    Matcher m = (Matcher) matcher.get();
+    if (m == null)
+      {
+        m = value.matcher(text);
+        matcher.set(m);
+      }
+    else
+      {
+        m.reset(text);
+      }
+    boolean ret = m.matches();
+    m.reset(""); // don't retain the caller's buffer
+    return ret;
   }
 
   public int hashCode()
@@ -32,10 +32,32 @@ final class QNameType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  /**
+   * Checks the lexical form, an NCName optionally prefixed by an NCName
+   * and a colon. Whether the prefix is bound is not checked here.
+   */
+  public boolean matches(CharSequence value)
   {
-    // TODO
-    return true;
+    int len = value.length();
+    int colon = -1;
+    for (int i = 0; i < len; i++)
+      {
+        char c = value.charAt(i);
+        if (c == ':')
+          {
+            if (colon != -1 || i == 0)
+              {
+                return false;
+              }
+            colon = i;
+          }
+        else if ((i == colon + 1) ? !NameType.isNameStartChar(c) :
+                 !NameType.isNameChar(c))
+          {
+            return false;
+          }
+      }
+    return len > 0 && colon != len - 1;
   }
   
 }
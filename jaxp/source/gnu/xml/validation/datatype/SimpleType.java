@@ -2,7 +2,6 @@ package gnu.xml.validation.datatype;
 
 import java.util.Iterator;
 import java.util.Set;
-import java.util.regex.Matcher;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 
@@ -73,80 +72,226 @@ public class SimpleType
     this.annotation = annotation;
   }
 
+  /**
+   * The facets as an array, built on first use so that checking a value
+   * does not allocate an iterator.
+   */
+  private Facet[] facetArray;
+
   /**
    * Indicates whether this type permits the specified value.
+   * The value is only read during the call, so callers may pass a
+   * reusable buffer.
    */
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
-    if (facets != null)
+    if (facets == null)
+      {
+        return true;
+      }
+    Facet[] fa = facetArray;
+    if (fa == null)
+      {
+        fa = (Facet[]) facets.toArray(new Facet[facets.size()]);
+        facetArray = fa;
+      }
+    boolean enumerated = false;
+    boolean enumeratedMatch = false;
+    int length = -1;
+    for (int i = 0; i < fa.length; i++)
       {
-        for (Iterator i = facets.iterator(); i.hasNext(); )
+        Facet facet = fa[i];
+        switch (facet.type)
           {
-            Facet facet = (Facet) i.next();
-            switch (facet.type)
+          case Facet.LENGTH:
+            LengthFacet lf = (LengthFacet) facet;
+            if (length == -1)
               {
-              case Facet.LENGTH:
-                LengthFacet lf = (LengthFacet) facet;
-                if (value.length() != lf.value)
-                  {
-                    return false;
-                  }
-                break;
-              case Facet.MIN_LENGTH:
-                MinLengthFacet nlf = (MinLengthFacet) facet;
-                if (value.length() < nlf.value)
-                  {
-                    return false;
-                  }
-                break;
-              case Facet.MAX_LENGTH:
-                MaxLengthFacet xlf = (MaxLengthFacet) facet;
-                if (value.length() > xlf.value)
-                  {
-                    return false;
-                  }
-                break;
-              case Facet.PATTERN:
-                PatternFacet pf = (PatternFacet) facet;
-                Matcher matcher = pf.value.matcher(value);
-                if (!matcher.find())
-                  {
-                    return false;
-                  }
-                break;
-              case Facet.ENUMERATION:
-                // TODO
-                break;
-              case Facet.WHITESPACE:
-                // TODO
-                break;
-              case Facet.MAX_INCLUSIVE:
-              case Facet.MAX_EXCLUSIVE:
-              case Facet.MIN_EXCLUSIVE:
-              case Facet.MIN_INCLUSIVE:
-                // TODO
-                break;
-              case Facet.TOTAL_DIGITS:
-                TotalDigitsFacet tdf = (TotalDigitsFacet) facet;
-                if (countDigits(value, true) > tdf.value)
-                  {
-                    return false;
-                  }
-                break;
-              case Facet.FRACTION_DIGITS:
-                FractionDigitsFacet fdf = (FractionDigitsFacet) facet;
-                if (countDigits(value, false) > fdf.value)
+                length = length(value);
+              }
+            if (length != lf.value)
+              {
+                return false;
+              }
+            break;
+          case Facet.MIN_LENGTH:
+            MinLengthFacet nlf = (MinLengthFacet) facet;
+            if (length == -1)
+              {
+                length = length(value);
+              }
+            if (length < nlf.value)
+              {
+                return false;
+              }
+            break;
+          case Facet.MAX_LENGTH:
+            MaxLengthFacet xlf = (MaxLengthFacet) facet;
+            if (length == -1)
+              {
+                length = length(value);
+              }
+            if (length > xlf.value)
+              {
+                return false;
+              }
+            break;
+          case Facet.PATTERN:
+            PatternFacet pf = (PatternFacet) facet;
+            if (!pf.matches(value))
+              {
+                return false;
+              }
+            break;
+          case Facet.ENUMERATION:
+            // The value must equal one of the enumerated values
+            enumerated = true;
+            if (!enumeratedMatch)
+              {
+                EnumerationFacet ef = (EnumerationFacet) facet;
+                enumeratedMatch = contentEquals(value, ef.value);
+              }
+            break;
+          case Facet.WHITESPACE:
+            // Applied by the validator before the value is checked
+            break;
+          case Facet.MAX_INCLUSIVE:
+            int xic = compareBound(value, ((MaxInclusiveFacet) facet).value);
+            if (xic == Ordering.INDETERMINATE || xic > 0)
+              {
+                return false;
+              }
+            break;
+          case Facet.MAX_EXCLUSIVE:
+            int xec = compareBound(value, ((MaxExclusiveFacet) facet).value);
+            if (xec == Ordering.INDETERMINATE || xec >= 0)
+              {
+                return false;
+              }
+            break;
+          case Facet.MIN_EXCLUSIVE:
+            int nec = compareBound(value, ((MinExclusiveFacet) facet).value);
+            if (nec == Ordering.INDETERMINATE || nec <= 0)
+              {
+                return false;
+              }
+            break;
+          case Facet.MIN_INCLUSIVE:
+            int nic = compareBound(value, ((MinInclusiveFacet) facet).value);
+            if (nic == Ordering.INDETERMINATE || nic < 0)
+              {
+                return false;
+              }
+            break;
+          case Facet.TOTAL_DIGITS:
+            TotalDigitsFacet tdf = (TotalDigitsFacet) facet;
+            if (countDigits(value, true) > tdf.value)
+              {
+                return false;
+              }
+            break;
+          case Facet.FRACTION_DIGITS:
+            FractionDigitsFacet fdf = (FractionDigitsFacet) facet;
+            if (countDigits(value, false) > fdf.value)
+              {
+                return false;
+              }
+            break;
+          }
+      }
+    return !enumerated || enumeratedMatch;
+  }
+
+  /**
+   * Returns the length of a value as constrained by the length facets:
+   * the number of characters, or for lists the number of items.
+   */
+  int length(CharSequence value)
+  {
+    return value.length();
+  }
+
+  /**
+   * Compares a value of this type with the lexical form of a bound.
+   * @return a negative number, zero or a positive number as the value
+   * is less than, equal to or greater than the bound, or
+   * Ordering.INDETERMINATE
+   */
+  int compareBound(CharSequence value, String bound)
+  {
+    return Ordering.compare(Ordering.getPrimitiveType(this), value, bound);
+  }
+
+  /**
+   * Indicates whether values of this type are ordered, so that bounds
+   * facets may be applied to it.
+   */
+  public boolean isOrdered()
+  {
+    return Ordering.isOrdered(Ordering.getPrimitiveType(this));
+  }
+
+  /**
+   * Returns the whiteSpace facet value (one of the WhiteSpaceFacet
+   * constants) that applies to this type, or -1 if none is specified by
+   * this type or the types it is derived from.
+   */
+  public int getWhiteSpace()
+  {
+    for (SimpleType t = this; t != null; t = t.baseType)
+      {
+        if (t.facets != null)
+          {
+            for (Iterator i = t.facets.iterator(); i.hasNext(); )
+              {
+                Object facet = i.next();
+                if (facet instanceof WhiteSpaceFacet)
                   {
-                    return false;
+                    return ((WhiteSpaceFacet) facet).value;
                   }
-                break;
               }
           }
       }
+    return -1;
+  }
+
+  /**
+   * Compares a character sequence with a string, without converting the
+   * sequence to a string.
+   */
+  public static boolean contentEquals(CharSequence value, String s)
+  {
+    int len = s.length();
+    if (value.length() != len)
+      {
+        return false;
+      }
+    for (int i = 0; i < len; i++)
+      {
+        if (value.charAt(i) != s.charAt(i))
+          {
+            return false;
+          }
+      }
+    return true;
+  }
+
+  /**
+   * Indicates whether all the characters in the given range are '0'.
+   */
+  static boolean isZero(CharSequence value, int start, int end)
+  {
+    for (int i = start; i < end; i++)
+      {
+        if (value.charAt(i) != 0x30)
+          {
+            return false;
+          }
+      }
     return true;
   }
 
-  private static int countDigits(String value, boolean any)
+  private static int countDigits(CharSequence value, boolean any)
   {
     int count = 0;
     int len = value.length();
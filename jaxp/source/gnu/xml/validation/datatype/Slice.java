@@ -0,0 +1,43 @@
+package gnu.xml.validation.datatype;
+
+/**
+ * A window onto part of another character sequence. It is repositioned
+ * in place, so that the items of a list value can be checked without
+ * copying them.
+ */
+final class Slice
+  implements CharSequence
+{
+
+  private CharSequence text;
+  private int start;
+  private int end;
+
+  void set(CharSequence text, int start, int end)
+  {
+    this.text = text;
+    this.start = start;
+    this.end = end;
+  }
+
+  public int length()
+  {
+    return end - start;
+  }
+
+  public char charAt(int index)
+  {
+    return text.charAt(start + index);
+  }
+
+  public CharSequence subSequence(int s, int e)
+  {
+    return text.subSequence(start + s, start + e);
+  }
+
+  public String toString()
+  {
+    return text.subSequence(start, end).toString();
+  }
+  
+}
@@ -34,7 +34,7 @@ final class StringType
     return CONSTRAINING_FACETS;
   }
 
-  public boolean matches(String value)
+  public boolean matches(CharSequence value)
   {
     return true;
   }
@@ -1,6 +1,5 @@
 package gnu.xml.validation.datatype;
 
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import javax.xml.namespace.QName;
@@ -27,11 +26,33 @@ public class UnionSimpleType
     this.memberTypes = memberTypes;
   }
 
-  public boolean matches(String value)
+  /**
+   * Checks the value against each member type in turn, then the facets
+   * of this type. A union derived by restriction from another union has
+   * its members checked by that union.
+   */
+  public boolean matches(CharSequence value)
+  {
+    if (baseType instanceof UnionSimpleType)
+      {
+        if (!baseType.matches(value))
+          {
+            return false;
+          }
+      }
+    else if (!matchesMember(value))
+      {
+        return false;
+      }
+    return super.matches(value);
+  }
+
+  private boolean matchesMember(CharSequence value)
   {
-    for (Iterator i = memberTypes.iterator(); i.hasNext(); )
+    int len = memberTypes.size();
+    for (int i = 0; i < len; i++)
       {
-        SimpleType type = (SimpleType) i.next();
+        SimpleType type = (SimpleType) memberTypes.get(i);
         if (type.matches(value))
           {
             return true;
@@ -41,4 +62,3 @@ public class UnionSimpleType
   }
   
 }
-
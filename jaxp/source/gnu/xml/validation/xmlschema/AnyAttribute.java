@@ -1,6 +1,7 @@
 package gnu.xml.validation.xmlschema;
 
-import gnu.xml.validation.datatype.Annotation;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * An attribute wildcard.
@@ -8,23 +9,79 @@ import gnu.xml.validation.datatype.Annotation;
  * @author <a href='mailto:dog@gnu.org'>Chris Burdess</a>
  */
 final class AnyAttribute
+  extends Wildcard
 {
 
-  static final int STRICT = 0;
-  static final int LAX = 1;
-  static final int SKIP = 2;
-
-  final String namespace;
+  AnyAttribute(String namespace, int processContents, String targetNamespace)
+  {
+    super(namespace, processContents, targetNamespace);
+  }
 
-  final int processContents;
+  AnyAttribute(Set namespaces, String other, int processContents)
+  {
+    super(namespaces, other, processContents);
+  }
 
-  Annotation annotation;
+  /**
+   * Returns the wildcard allowing the attributes allowed by both the
+   * given wildcards, as for a type referring to an attribute group.
+   * Either may be null, for no wildcard. The processContents of the
+   * first is used.
+   */
+  static AnyAttribute intersect(AnyAttribute a, AnyAttribute b)
+  {
+    if (a == null || b == null)
+      {
+        return (a == null) ? b : a;
+      }
+    if (a.namespaces == null && b.namespaces == null)
+      {
+        // ##any or ##other: the more specific one. Two different
+        // ##other constraints cannot be intersected, so keep the first.
+        String other = (a.other != null) ? a.other : b.other;
+        return new AnyAttribute(null, other, a.processContents);
+      }
+    return new AnyAttribute(intersectNamespaces(a, b), null,
+                            a.processContents);
+  }
 
-  AnyAttribute(String namespace, int processContents)
+  /**
+   * Returns the wildcard allowing the attributes allowed by either of
+   * the given wildcards, as for a type extending another. Either may be
+   * null, for no wildcard. The processContents of the first is used.
+   */
+  static AnyAttribute union(AnyAttribute a, AnyAttribute b)
   {
-    this.namespace = namespace;
-    this.processContents = processContents;
+    if (a == null || b == null)
+      {
+        return (a == null) ? b : a;
+      }
+    int processContents = a.processContents;
+    if ((a.namespaces == null && a.other == null) ||
+        (b.namespaces == null && b.other == null))
+      {
+        return new AnyAttribute(null, null, processContents);
+      }
+    if (a.namespaces != null && b.namespaces != null)
+      {
+        Set namespaces = new HashSet(a.namespaces);
+        namespaces.addAll(b.namespaces);
+        return new AnyAttribute(namespaces, null, processContents);
+      }
+    if (a.namespaces == null && b.namespaces == null)
+      {
+        String other = a.other.equals(b.other) ? a.other : "";
+        return new AnyAttribute(null, other, processContents);
+      }
+    Set namespaces = (a.namespaces != null) ? a.namespaces : b.namespaces;
+    String other = (a.other != null) ? a.other : b.other;
+    if (namespaces.contains(other))
+      {
+        // Everything, or everything qualified
+        return new AnyAttribute(null, namespaces.contains("") ? null : "",
+                                processContents);
+      }
+    return new AnyAttribute(null, other, processContents);
   }
   
 }
-
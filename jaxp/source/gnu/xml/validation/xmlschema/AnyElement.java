@@ -0,0 +1,15 @@
+package gnu.xml.validation.xmlschema;
+
+/**
+ * An element wildcard.
+ */
+final class AnyElement
+  extends Wildcard
+{
+
+  AnyElement(String namespace, int processContents, String targetNamespace)
+  {
+    super(namespace, processContents, targetNamespace);
+  }
+
+}
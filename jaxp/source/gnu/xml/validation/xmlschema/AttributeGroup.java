@@ -0,0 +1,29 @@
+package gnu.xml.validation.xmlschema;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import javax.xml.namespace.QName;
+
+/**
+ * An attribute group definition.
+ */
+final class AttributeGroup
+{
+
+  final QName name;
+
+  /**
+   * The attribute uses of this group, including those of the groups it
+   * refers to.
+   */
+  final Set attributeUses;
+
+  AnyAttribute attributeWildcard;
+
+  AttributeGroup(QName name)
+  {
+    this.name = name;
+    attributeUses = new LinkedHashSet();
+  }
+
+}
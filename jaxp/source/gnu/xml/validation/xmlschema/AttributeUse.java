@@ -13,6 +13,12 @@ class AttributeUse
    */
   final boolean required;
 
+  /**
+   * Whether the attribute is prohibited, in a restriction of a type
+   * declaring it.
+   */
+  boolean prohibited;
+
   /**
    * The constraint type.
    * One of NONE, DEFAULT, FIXED.
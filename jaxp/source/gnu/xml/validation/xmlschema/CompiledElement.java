@@ -0,0 +1,21 @@
+package gnu.xml.validation.xmlschema;
+
+/**
+ * An element declaration compiled for streaming validation.
+ * The type information objects are created once and shared by every
+ * occurrence of the element.
+ */
+final class CompiledElement
+{
+
+  final ElementDeclaration decl;
+  CompiledType type;
+  XMLSchemaElementTypeInfo typeInfo;
+  XMLSchemaElementTypeInfo nilTypeInfo;
+
+  CompiledElement(ElementDeclaration decl)
+  {
+    this.decl = decl;
+  }
+  
+}
@@ -0,0 +1,152 @@
+package gnu.xml.validation.xmlschema;
+
+import gnu.xml.validation.datatype.SimpleType;
+import gnu.xml.validation.datatype.Type;
+import gnu.xml.validation.datatype.WhiteSpaceFacet;
+
+/**
+ * A type definition compiled for streaming validation.
+ * Attribute uses are held in parallel arrays keyed by name code.
+ */
+final class CompiledType
+{
+
+  /**
+   * Content type for anyType: content and attributes are not checked.
+   */
+  static final int CONTENT_ANY = 0x04;
+
+  static final int WHITESPACE_PRESERVE = 0;
+  static final int WHITESPACE_REPLACE = 1;
+  static final int WHITESPACE_COLLAPSE = 2;
+
+  static final int[] NO_CODES = new int[0];
+  static final AttributeUse[] NO_USES = new AttributeUse[0];
+  static final XMLSchemaAttributeTypeInfo[] NO_INFOS =
+    new XMLSchemaAttributeTypeInfo[0];
+
+  final Type type;
+
+  /**
+   * One of the XMLSchema CONTENT_ constants, or CONTENT_ANY.
+   */
+  int contentType;
+
+  /**
+   * The type of simple content.
+   */
+  SimpleType simpleType;
+
+  /**
+   * The whitespace processing applied to simple content.
+   */
+  int whitespace;
+
+  /**
+   * The model for element-only or mixed content.
+   */
+  ContentModel model;
+
+  int[] attributeCodes = NO_CODES;
+  AttributeUse[] attributeUses = NO_USES;
+
+  /**
+   * The value constraint type of each attribute use, one of the
+   * AttributeDeclaration constants.
+   */
+  int[] attributeConstraints = NO_CODES;
+
+  /**
+   * The default or fixed value of each attribute use.
+   */
+  String[] attributeValues;
+
+  /**
+   * The whitespace processing applied to each attribute value.
+   */
+  int[] attributeWhitespace = NO_CODES;
+
+  /**
+   * Type information for each attribute use when specified.
+   */
+  XMLSchemaAttributeTypeInfo[] attributeInfos = NO_INFOS;
+
+  /**
+   * Type information for each attribute use when defaulted.
+   */
+  XMLSchemaAttributeTypeInfo[] defaultInfos = NO_INFOS;
+
+  /**
+   * Whether any attribute use is required or has a default.
+   */
+  boolean checkAbsent;
+
+  AnyAttribute attributeWildcard;
+
+  /**
+   * Whether the type is abstract, and so may not be used to validate an
+   * element.
+   */
+  boolean isAbstract;
+
+  CompiledType(Type type)
+  {
+    this.type = type;
+  }
+
+  /**
+   * Returns the index of the attribute use with the given name code,
+   * or -1.
+   */
+  int attribute(int code)
+  {
+    int[] codes = attributeCodes;
+    for (int i = 0; i < codes.length; i++)
+      {
+        if (codes[i] == code)
+          {
+            return i;
+          }
+      }
+    return -1;
+  }
+
+  /**
+   * Returns the whitespace processing for values of the given type:
+   * that of its whiteSpace facet, if it or a type it is derived from has
+   * one, otherwise that of the built-in type it is derived from.
+   */
+  static int getWhitespace(SimpleType type)
+  {
+    switch ((type == null) ? -1 : type.getWhiteSpace())
+      {
+      case WhiteSpaceFacet.PRESERVE:
+        return WHITESPACE_PRESERVE;
+      case WhiteSpaceFacet.REPLACE:
+        return WHITESPACE_REPLACE;
+      case WhiteSpaceFacet.COLLAPSE:
+        return WHITESPACE_COLLAPSE;
+      }
+    for (SimpleType t = type; t != null; t = t.baseType)
+      {
+        if (t == Type.TOKEN)
+          {
+            return WHITESPACE_COLLAPSE;
+          }
+        if (t == Type.NORMALIZED_STRING)
+          {
+            return WHITESPACE_REPLACE;
+          }
+        if (t == Type.STRING || t == Type.ANY_SIMPLE_TYPE)
+          {
+            return WHITESPACE_PRESERVE;
+          }
+        if (t.baseType == Type.ANY_SIMPLE_TYPE)
+          {
+            break;
+          }
+      }
+    return WHITESPACE_COLLAPSE;
+  }
+  
+}
@@ -59,6 +59,7 @@ class ComplexType
     this.prohibitedSubstitutions = prohibitedSubstitutions;
     this.finality = finality;
     attributeUses = new LinkedHashSet();
+    annotations = new LinkedHashSet();
   }
   
 }
@@ -0,0 +1,194 @@
+package gnu.xml.validation.xmlschema;
+
+import java.util.Arrays;
+
+/**
+ * A compiled element content model.
+ * Most models are deterministic automata over element name codes: state
+ * 0 is the start state and a transition to -1 means the child is not
+ * allowed. Element wildcards have the columns after those of the name
+ * codes. Models for all groups instead use a bit mask of the members
+ * seen so far as their state.
+ * A particle with large occurrence bounds may be matched by a single
+ * position with a counter: the validator counts the transitions that
+ * stay in a state of the counter and checks them against its bounds.
+ */
+final class ContentModel
+{
+
+  static final AnyElement[] NO_WILDCARDS = new AnyElement[0];
+
+  /**
+   * The element name codes recognised, in ascending order.
+   * Each code's index in this array is its column.
+   */
+  final int[] symbols;
+
+  /**
+   * The element declaration matched by each column.
+   */
+  final CompiledElement[] elements;
+
+  /**
+   * The wildcard matched by each column after the symbols.
+   */
+  final AnyElement[] wildcards;
+
+  /**
+   * The number of columns.
+   */
+  private final int width;
+
+  /**
+   * Transition table, indexed by state * number of columns + column.
+   */
+  final int[] next;
+
+  /**
+   * Whether each state is an accepting state.
+   */
+  final boolean[] accept;
+
+  /**
+   * For all groups, the member matched by each column.
+   */
+  final int[] members;
+
+  /**
+   * For all groups, the mask of members that must be present.
+   */
+  final int required;
+
+  /**
+   * For all groups, whether the group as a whole may be absent.
+   */
+  final boolean optional;
+
+  /**
+   * The counter of each state, or -1 if the state does not count
+   * occurrences. Null if the model has no counters.
+   */
+  int[] counters;
+
+  /**
+   * The bounds of each counter. A maximum of -1 means unbounded.
+   */
+  int[] minOccurs;
+  int[] maxOccurs;
+
+  ContentModel(int[] symbols, CompiledElement[] elements,
+               AnyElement[] wildcards, int[] next, boolean[] accept)
+  {
+    this.symbols = symbols;
+    this.elements = elements;
+    this.wildcards = wildcards;
+    width = symbols.length + wildcards.length;
+    this.next = next;
+    this.accept = accept;
+    members = null;
+    required = 0;
+    optional = false;
+  }
+
+  ContentModel(int[] symbols, CompiledElement[] elements, int[] members,
+               int required, boolean optional)
+  {
+    this.symbols = symbols;
+    this.elements = elements;
+    this.members = members;
+    wildcards = NO_WILDCARDS;
+    width = symbols.length;
+    this.required = required;
+    this.optional = optional;
+    next = null;
+    accept = null;
+  }
+
+  /**
+   * Returns the column for the given name code, or -1.
+   */
+  int column(int code)
+  {
+    int col = Arrays.binarySearch(symbols, code);
+    return (col < 0) ? -1 : col;
+  }
+
+  /**
+   * Returns the state reached from the given state on the given
+   * column, or -1 if the element is not allowed there.
+   */
+  int next(int state, int col)
+  {
+    if (next == null)
+      {
+        int bit = 1 << members[col];
+        return ((state & bit) != 0) ? -1 : state | bit;
+      }
+    return next[state * width + col];
+  }
+
+  /**
+   * Returns the column of a wildcard allowing elements in the given
+   * namespace and having a transition from the given state, or -1.
+   */
+  int wildcardColumn(int state, String uri)
+  {
+    for (int i = 0; i < wildcards.length; i++)
+      {
+        int col = symbols.length + i;
+        if (next[state * width + col] >= 0 && wildcards[i].allows(uri))
+          {
+            return col;
+          }
+      }
+    return -1;
+  }
+
+  /**
+   * Returns the number of occurrences counted after a transition from
+   * one state to another, given the count before it, or -1 if this
+   * violates the bounds of a counter.
+   */
+  int count(int state, int next, int count)
+  {
+    int from = counters[state];
+    int to = counters[next];
+    if (from >= 0 && from == to)
+      {
+        count++;
+        return (maxOccurs[to] >= 0 && count > maxOccurs[to]) ? -1 : count;
+      }
+    if (from >= 0 && count < minOccurs[from])
+      {
+        return -1;
+      }
+    return 1;
+  }
+
+  /**
+   * Indicates whether the content seen so far is complete.
+   */
+  boolean accepts(int state)
+  {
+    if (next == null)
+      {
+        return (state == 0 && optional) || (state & required) == required;
+      }
+    return accept[state];
+  }
+
+  /**
+   * Indicates whether the content seen so far is complete, given the
+   * number of occurrences counted in the current state.
+   */
+  boolean accepts(int state, int count)
+  {
+    if (!accepts(state))
+      {
+        return false;
+      }
+    return counters == null || counters[state] < 0 ||
+      count >= minOccurs[counters[state]];
+  }
+  
+}
@@ -21,6 +21,12 @@ class ElementDeclaration
    * The type definition corresponding to this element.
    */
   Type datatype;
+
+  /**
+   * The name of the type definition, if it could not be resolved when
+   * the declaration was read.
+   */
+  QName typeName;
   
   /**
    * The scope of this schema component.
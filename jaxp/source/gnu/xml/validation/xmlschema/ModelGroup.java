@@ -0,0 +1,32 @@
+package gnu.xml.validation.xmlschema;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A model group: a sequence, choice or all group of particles.
+ */
+final class ModelGroup
+{
+
+  static final int SEQUENCE = 0;
+  static final int CHOICE = 1;
+  static final int ALL = 2;
+
+  /**
+   * One of SEQUENCE, CHOICE, or ALL.
+   */
+  final int compositor;
+
+  /**
+   * The particles in this group.
+   */
+  final List particles;
+
+  ModelGroup(int compositor)
+  {
+    this.compositor = compositor;
+    particles = new ArrayList();
+  }
+  
+}
@@ -0,0 +1,81 @@
+package gnu.xml.validation.xmlschema;
+
+import java.util.HashMap;
+
+/**
+ * Assigns a small integer code to each expanded name used in a schema,
+ * so that validators can compare names without allocating QNames.
+ * Names are interned while the schema is compiled; afterwards the table
+ * is only read and may be shared between validators.
+ */
+final class NameTable
+{
+
+  /**
+   * Namespace URI to map of local name to code.
+   */
+  private final HashMap namespaces;
+  private int count;
+
+  NameTable()
+  {
+    namespaces = new HashMap();
+  }
+
+  /**
+   * Returns the code for the given name, assigning a new one if
+   * necessary.
+   */
+  int intern(String uri, String localName)
+  {
+    HashMap localNames = getLocalNames(uri);
+    if (localNames == null)
+      {
+        localNames = new HashMap();
+        namespaces.put((uri == null) ? "" : uri, localNames);
+      }
+    Integer code = (Integer) localNames.get(localName);
+    if (code == null)
+      {
+        code = new Integer(count++);
+        localNames.put(localName, code);
+      }
+    return code.intValue();
+  }
+
+  /**
+   * Returns the local name table for the given namespace URI, or null
+   * if no names in that namespace are known.
+   */
+  HashMap getLocalNames(String uri)
+  {
+    return (HashMap) namespaces.get((uri == null) ? "" : uri);
+  }
+
+  /**
+   * Returns the code for the given name, or -1 if it is not known.
+   */
+  int lookup(String uri, String localName)
+  {
+    return lookup(getLocalNames(uri), localName);
+  }
+
+  static int lookup(HashMap localNames, String localName)
+  {
+    if (localNames == null)
+      {
+        return -1;
+      }
+    Integer code = (Integer) localNames.get(localName);
+    return (code == null) ? -1 : code.intValue();
+  }
+
+  /**
+   * Returns the number of codes assigned.
+   */
+  int size()
+  {
+    return count;
+  }
+  
+}
@@ -0,0 +1,128 @@
+package gnu.xml.validation.xmlschema;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.StringTokenizer;
+import gnu.xml.validation.datatype.Annotation;
+
+/**
+ * An element or attribute wildcard, with its namespace constraint.
+ */
+abstract class Wildcard
+{
+
+  static final int STRICT = 0;
+  static final int LAX = 1;
+  static final int SKIP = 2;
+
+  final int processContents;
+
+  Annotation annotation;
+
+  /**
+   * The namespace URIs allowed, or null if the constraint is ##any or
+   * ##other. The empty string stands for no namespace.
+   */
+  final Set namespaces;
+
+  /**
+   * For ##other, the namespace that is not allowed.
+   */
+  final String other;
+
+  Wildcard(String namespace, int processContents, String targetNamespace)
+  {
+    this.processContents = processContents;
+    String tns = (targetNamespace == null) ? "" : targetNamespace;
+    if (namespace == null || "##any".equals(namespace.trim()))
+      {
+        namespaces = null;
+        other = null;
+      }
+    else if ("##other".equals(namespace.trim()))
+      {
+        namespaces = null;
+        other = tns;
+      }
+    else
+      {
+        namespaces = new HashSet();
+        other = null;
+        StringTokenizer st = new StringTokenizer(namespace, " \t\r\n");
+        while (st.hasMoreTokens())
+          {
+            String token = st.nextToken();
+            if ("##targetNamespace".equals(token))
+              {
+                namespaces.add(tns);
+              }
+            else if ("##local".equals(token))
+              {
+                namespaces.add("");
+              }
+            else
+              {
+                namespaces.add(token);
+              }
+          }
+      }
+  }
+
+  Wildcard(Set namespaces, String other, int processContents)
+  {
+    this.namespaces = namespaces;
+    this.other = other;
+    this.processContents = processContents;
+  }
+
+  /**
+   * Indicates whether names in the given namespace match this wildcard.
+   */
+  boolean allows(String uri)
+  {
+    if (uri == null)
+      {
+        uri = "";
+      }
+    if (namespaces != null)
+      {
+        return namespaces.contains(uri);
+      }
+    if (other != null)
+      {
+        // ##other excludes unqualified names as well
+        return uri.length() > 0 && !uri.equals(other);
+      }
+    return true;
+  }
+
+  /**
+   * Returns the namespaces allowed by both wildcards, or null for
+   * ##any or ##other.
+   */
+  static Set intersectNamespaces(Wildcard a, Wildcard b)
+  {
+    if (a.namespaces == null && b.namespaces == null)
+      {
+        return null;
+      }
+    if (a.namespaces == null)
+      {
+        Wildcard t = a;
+        a = b;
+        b = t;
+      }
+    Set ret = new HashSet();
+    for (Iterator i = a.namespaces.iterator(); i.hasNext(); )
+      {
+        String uri = (String) i.next();
+        if (b.allows(uri))
+          {
+            ret.add(uri);
+          }
+      }
+    return ret;
+  }
+
+}
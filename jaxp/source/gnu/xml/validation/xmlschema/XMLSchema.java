@@ -1,10 +1,16 @@
 package gnu.xml.validation.xmlschema;
 
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
 import javax.xml.validation.Schema;
 import javax.xml.validation.Validator;
 import javax.xml.validation.ValidatorHandler;
+import gnu.xml.validation.datatype.SimpleType;
+import gnu.xml.validation.datatype.Type;
+import gnu.xml.validation.datatype.UnionSimpleType;
 
 /**
  * An XML Schema schema.
@@ -63,6 +69,45 @@ final class XMLSchema
    */
   final Map types;
 
+  /**
+   * The named model group definitions in this schema.
+   */
+  final Map groups;
+
+  /**
+   * The attribute group definitions in this schema.
+   */
+  final Map attributeGroups;
+
+  /**
+   * The element declarations that may substitute for each substitution
+   * group head, keyed by the name of the head. Each list holds the
+   * direct members of the group.
+   */
+  final Map substitutionGroups;
+
+  /**
+   * Name codes for the compiled schema.
+   */
+  NameTable names;
+
+  /**
+   * Compiled global element declarations, indexed by name code.
+   */
+  CompiledElement[] globalElements;
+
+  /**
+   * Compiled type definitions, keyed by type.
+   */
+  Map compiledTypes;
+
+  /**
+   * The global attribute declarations, compiled as the attribute uses of
+   * a type. Attributes matched by a strict or lax wildcard are validated
+   * against these.
+   */
+  CompiledType globalAttributes;
+
   XMLSchema(String targetNamespace, String version,
             int finalDefault, int blockDefault,
             boolean attributeFormQualified,
@@ -77,20 +122,148 @@ final class XMLSchema
     elementDeclarations = new LinkedHashMap();
     attributeDeclarations = new LinkedHashMap();
     types = new LinkedHashMap();
+    groups = new LinkedHashMap();
+    attributeGroups = new LinkedHashMap();
+    substitutionGroups = new LinkedHashMap();
+  }
+
+  /**
+   * Compiles this schema for validation, if that has not already been
+   * done. The compiled form is not modified afterwards, so validators
+   * in different threads may share it.
+   */
+  synchronized void compile()
+  {
+    if (names == null)
+      {
+        XMLSchemaCompiler.compile(this);
+      }
+  }
+
+  /**
+   * Returns the type definition with the given name, or null.
+   */
+  Type getType(QName name)
+  {
+    Type ret = (Type) types.get(name);
+    if (ret == null &&
+        XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(name.getNamespaceURI()))
+      {
+        ret = Type.forName(name.getLocalPart());
+      }
+    return ret;
+  }
+
+  /**
+   * Returns the type of an element declaration, which defaults to that
+   * of its substitution group head.
+   */
+  Type resolveType(ElementDeclaration decl)
+  {
+    if (decl.datatype == null)
+      {
+        if (decl.typeName != null)
+          {
+            decl.datatype = getType(decl.typeName);
+          }
+        else if (decl.substitutionGroup != null)
+          {
+            ElementDeclaration head = (ElementDeclaration)
+              elementDeclarations.get(decl.substitutionGroup);
+            if (head != null && head != decl)
+              {
+                decl.datatype = resolveType(head);
+              }
+          }
+        if (decl.datatype == null)
+          {
+            decl.datatype = Type.ANY_TYPE;
+          }
+      }
+    return decl.datatype;
+  }
+
+  /**
+   * Indicates whether a type is validly derived from a base type without
+   * using any of the blocked derivation methods (Type Derivation OK).
+   * @param blocked a set of FINAL_EXTENSION and FINAL_RESTRICTION
+   */
+  boolean isDerived(Type type, Type base, int blocked)
+  {
+    if (type == base)
+      {
+        return true;
+      }
+    if (base instanceof UnionSimpleType &&
+        (blocked & FINAL_RESTRICTION) == 0)
+      {
+        // Type Derivation OK (Simple) 2.2.4
+        List members = ((UnionSimpleType) base).memberTypes;
+        for (int i = 0; i < members.size(); i++)
+          {
+            if (isDerived(type, (Type) members.get(i), blocked))
+              {
+                return true;
+              }
+          }
+      }
+    Type baseType;
+    int method;
+    if (type instanceof ComplexType)
+      {
+        ComplexType complexType = (ComplexType) type;
+        baseType = (complexType.baseType == null) ? Type.ANY_TYPE :
+          getType(complexType.baseType);
+        // A type without a derivation restricts anyType
+        method = (complexType.derivationMethod == 0) ? FINAL_RESTRICTION :
+          complexType.derivationMethod;
+      }
+    else if (type instanceof SimpleType && type != Type.ANY_TYPE)
+      {
+        baseType = ((SimpleType) type).baseType;
+        method = FINAL_RESTRICTION;
+      }
+    else
+      {
+        return false;
+      }
+    if (baseType == null || (blocked & method) != 0)
+      {
+        return false;
+      }
+    return isDerived(baseType, base, blocked);
+  }
+
+  /**
+   * Returns the compiled form of the given type, or null if it cannot
+   * be used in this schema.
+   */
+  CompiledType getCompiledType(Type type)
+  {
+    CompiledType ret = (CompiledType) compiledTypes.get(type);
+    if (ret == null && type == Type.ANY_TYPE)
+      {
+        ret = new CompiledType(type);
+        ret.contentType = CompiledType.CONTENT_ANY;
+      }
+    else if (ret == null && type instanceof SimpleType)
+      {
+        ret = new CompiledType(type);
+        ret.contentType = CONTENT_SIMPLE;
+        ret.simpleType = (SimpleType) type;
+        ret.whitespace = CompiledType.getWhitespace(ret.simpleType);
+      }
+    return ret;
   }
 
   public Validator newValidator()
   {
-    // TODO
-    //return new XMLSchemaValidator(this);
-    return null;
+    return new XMLSchemaValidator(this);
   }
 
   public ValidatorHandler newValidatorHandler()
   {
-    // TODO
-    //return new XMLSchemaValidatorHandler(this);
-    return null;
+    return new XMLSchemaValidatorHandler(this);
   }
   
 }
@@ -33,6 +33,10 @@ final class XMLSchemaAttributeTypeInfo
       {
         return "CDATA";
       }
+    if (type.name == null)
+      {
+        return null;
+      }
     return type.name.getLocalPart();
   }
 
@@ -42,6 +46,10 @@ final class XMLSchemaAttributeTypeInfo
       {
         return "";
       }
+    if (type.name == null)
+      {
+        return null;
+      }
     return type.name.getNamespaceURI();
   }
 
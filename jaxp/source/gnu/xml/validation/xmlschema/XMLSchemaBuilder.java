@@ -2,20 +2,40 @@ package gnu.xml.validation.xmlschema;
 
 import gnu.xml.validation.datatype.Annotation;
 import gnu.xml.validation.datatype.AtomicSimpleType;
+import gnu.xml.validation.datatype.EnumerationFacet;
+import gnu.xml.validation.datatype.FractionDigitsFacet;
+import gnu.xml.validation.datatype.LengthFacet;
 import gnu.xml.validation.datatype.ListSimpleType;
+import gnu.xml.validation.datatype.MaxExclusiveFacet;
+import gnu.xml.validation.datatype.MaxInclusiveFacet;
+import gnu.xml.validation.datatype.MaxLengthFacet;
+import gnu.xml.validation.datatype.MinExclusiveFacet;
+import gnu.xml.validation.datatype.MinInclusiveFacet;
+import gnu.xml.validation.datatype.MinLengthFacet;
+import gnu.xml.validation.datatype.PatternFacet;
 import gnu.xml.validation.datatype.SimpleType;
+import gnu.xml.validation.datatype.TotalDigitsFacet;
 import gnu.xml.validation.datatype.Type;
 import gnu.xml.validation.datatype.UnionSimpleType;
+import gnu.xml.validation.datatype.WhiteSpaceFacet;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 
+import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
 
 /**
  * Parses an XML Schema DOM tree, constructing a compiled internal
@@ -28,7 +48,37 @@ class XMLSchemaBuilder
 
   XMLSchema schema;
 
+  /**
+   * Top-level model group definitions not yet parsed, by name.
+   */
+  final Map groupDefinitions = new HashMap();
+
+  /**
+   * Top-level type, attribute, and attribute group definitions not yet
+   * parsed, by name. Like model groups, they are parsed when first
+   * referenced, so that a definition may refer to those that follow it.
+   */
+  final Map typeDefinitions = new HashMap();
+  final Map attributeDefinitions = new HashMap();
+  final Map attributeGroupDefinitions = new HashMap();
+
+  /**
+   * Element declarations whose type was not yet defined when they were
+   * read.
+   */
+  final List typeReferences = new ArrayList();
+
+  /**
+   * Complex types derived from another type. Their content and
+   * attributes are completed from the base type once all the top-level
+   * components are known.
+   */
+  final List derivedTypes = new ArrayList();
+  final Set resolvingTypes = new HashSet();
+  final Set resolvedTypes = new HashSet();
+
   void parseSchema(Node node)
+    throws SAXException
   {
     String uri = node.getNamespaceURI();
     String name = node.getLocalName();
@@ -52,18 +102,129 @@ class XMLSchemaBuilder
                                    finalDefault, blockDefault,
                                    attributeFormQualified,
                                    elementFormQualified);
+            for (Node child = node.getFirstChild(); child != null;
+                 child = child.getNextSibling())
+              {
+                if (!XMLConstants.W3C_XML_SCHEMA_NS_URI
+                    .equals(child.getNamespaceURI()))
+                  {
+                    continue;
+                  }
+                String childName = child.getLocalName();
+                Map definitions = null;
+                if ("simpleType".equals(childName) ||
+                    "complexType".equals(childName))
+                  {
+                    definitions = typeDefinitions;
+                  }
+                else if ("group".equals(childName))
+                  {
+                    definitions = groupDefinitions;
+                  }
+                else if ("attribute".equals(childName))
+                  {
+                    definitions = attributeDefinitions;
+                  }
+                else if ("attributeGroup".equals(childName))
+                  {
+                    definitions = attributeGroupDefinitions;
+                  }
+                if (definitions != null)
+                  {
+                    definitions.put(getDefinitionName(child), child);
+                  }
+              }
             for (Node child = node.getFirstChild(); child != null;
                  child = child.getNextSibling())
               {
                 parseTopLevelElement(child);
               }
+            for (Iterator i = typeReferences.iterator(); i.hasNext(); )
+              {
+                ElementDeclaration ed = (ElementDeclaration) i.next();
+                ed.datatype = schema.getType(ed.typeName);
+                if (ed.datatype == null)
+                  {
+                    throw schemaError("Can't resolve type " + ed.typeName +
+                                      " of element " + ed.name, node);
+                  }
+              }
+            for (Iterator i = derivedTypes.iterator(); i.hasNext(); )
+              {
+                resolveDerivation((ComplexType) i.next(), node);
+              }
+            resolveSubstitutionGroups(node);
             return;
           }
       }
-    // TODO throw schema exception
+    throw schemaError("Not a schema document: " + node.getNodeName(), node);
+  }
+
+  /**
+   * Returns the name defined by a top-level definition.
+   */
+  QName getDefinitionName(Node node)
+  {
+    String name = getAttribute(node.getAttributes(), "name");
+    return new QName(schema.targetNamespace, (name == null) ? "" : name);
+  }
+
+  /**
+   * Adds each global element declaration with a substitution group
+   * affiliation to the substitution group of its head.
+   */
+  void resolveSubstitutionGroups(Node context)
+    throws SAXException
+  {
+    for (Iterator i = schema.elementDeclarations.values().iterator();
+         i.hasNext(); )
+      {
+        ElementDeclaration member = (ElementDeclaration) i.next();
+        if (member.substitutionGroup == null)
+          {
+            continue;
+          }
+        ElementDeclaration head = (ElementDeclaration)
+          schema.elementDeclarations.get(member.substitutionGroup);
+        if (head == null)
+          {
+            throw schemaError("Can't resolve substitution group head " +
+                              member.substitutionGroup, context);
+          }
+        // The chain of heads must end
+        int limit = schema.elementDeclarations.size();
+        for (ElementDeclaration e = head; e != null;
+             e = (ElementDeclaration)
+               schema.elementDeclarations.get(e.substitutionGroup))
+          {
+            if (e == member || --limit < 0)
+              {
+                throw schemaError("Circular substitution group " +
+                                  member.name, context);
+              }
+          }
+        // Substitution Group OK (Transitive) 2: disallowedSubstitutions
+        // holds the head's final set
+        Type type = schema.resolveType(member);
+        Type headType = schema.resolveType(head);
+        if (!schema.isDerived(type, headType,
+                              head.disallowedSubstitutions))
+          {
+            throw schemaError("Type of " + member.name + " is not validly " +
+                              "derived from that of " + head.name, context);
+          }
+        List members = (List) schema.substitutionGroups.get(head.name);
+        if (members == null)
+          {
+            members = new ArrayList();
+            schema.substitutionGroups.put(head.name, members);
+          }
+        members.add(member);
+      }
   }
 
   void parseTopLevelElement(Node node)
+    throws SAXException
   {
     String uri = node.getNamespaceURI();
     String name = node.getLocalName();
@@ -75,26 +236,22 @@ class XMLSchemaBuilder
             ElementDeclaration ed =
               (ElementDeclaration) parseElement(node, null);
             schema.elementDeclarations.put(ed.name, ed);
-            // TODO
           }
         else if ("attribute".equals(name))
           {
-            AttributeDeclaration ad =
-              (AttributeDeclaration) parseAttribute(node, true);
-            schema.attributeDeclarations.put(ad.name, ad);
-            // TODO
+            getAttributeDeclaration(getDefinitionName(node));
           }
-        else if ("type".equals(name))
+        else if ("complexType".equals(name) || "simpleType".equals(name))
           {
-            // TODO
+            getType(getDefinitionName(node));
           }
         else if ("group".equals(name))
           {
-            // TODO
+            getModelGroup(getDefinitionName(node), node);
           }
         else if ("attributeGroup".equals(name))
           {
-            // TODO
+            getAttributeGroup(getDefinitionName(node), node);
           }
         else if ("notation".equals(name))
           {
@@ -109,6 +266,7 @@ class XMLSchemaBuilder
   }
 
   Object parseAttribute(Node node, boolean scope)
+    throws SAXException
   {
     NamedNodeMap attrs = node.getAttributes();
     String def = getAttribute(attrs, "default");
@@ -125,14 +283,19 @@ class XMLSchemaBuilder
         constraintType = AttributeDeclaration.FIXED;
         constraintValue = fixed;
       }
-    // TODO form = (qualified | unqualified)
     String attrName = getAttribute(attrs, "name");
-    String attrNamespace = getAttribute(attrs, "targetNamespace");
+    String attrNamespace = null;
+    String form = getAttribute(attrs, "form");
+    if (scope || "qualified".equals(form) ||
+        (form == null && schema.attributeFormQualified))
+      {
+        attrNamespace = schema.targetNamespace;
+      }
     String ref = getAttribute(attrs, "ref");
     String use = getAttribute(attrs, "use");
     String type = getAttribute(attrs, "type");
     SimpleType datatype = (type == null) ? null :
-      parseSimpleType(asQName(type, node));
+      getSimpleType(asQName(type, node), node);
     Annotation annotation = null;
     for (Node child = node.getFirstChild(); child != null;
          child = child.getNextSibling())
@@ -168,19 +331,31 @@ class XMLSchemaBuilder
     else 
       {
         boolean required = "required".equals(use);
-        // TODO ref
-        AttributeDeclaration decl = (ref == null) ?
-              new AttributeDeclaration(scope,
-                                       AttributeDeclaration.NONE,
-                                       null,
-                                       new QName(attrNamespace, attrName),
-                                       datatype,
-                                       annotation) :
-              /*schema.getAttributeDeclaration(ref)*/ null;
-        return new AttributeUse(required,
-                                constraintType,
-                                constraintValue,
-                                decl);
+        AttributeDeclaration decl;
+        if (ref == null)
+          {
+            decl = new AttributeDeclaration(scope,
+                                            AttributeDeclaration.NONE,
+                                            null,
+                                            new QName(attrNamespace,
+                                                      attrName),
+                                            datatype,
+                                            annotation);
+          }
+        else
+          {
+            decl = getAttributeDeclaration(asQName(ref, node));
+            if (decl == null)
+              {
+                throw schemaError("Can't resolve attribute " + ref, node);
+              }
+          }
+        AttributeUse ret = new AttributeUse(required,
+                                            constraintType,
+                                            constraintValue,
+                                            decl);
+        ret.prohibited = "prohibited".equals(use);
+        return ret;
       }
   }
 
@@ -191,7 +366,7 @@ class XMLSchemaBuilder
       {
         ret = XMLSchema.FINAL_ALL;
       }
-    else
+    else if (value != null)
       {
         StringTokenizer st = new StringTokenizer(value, " ");
         while (st.hasMoreTokens())
@@ -227,7 +402,7 @@ class XMLSchemaBuilder
           XMLSchema.FINAL_UNION |
           XMLSchema.FINAL_RESTRICTION;
       }
-    else
+    else if (value != null)
       {
         StringTokenizer st = new StringTokenizer(value, " ");
         while (st.hasMoreTokens())
@@ -257,7 +432,7 @@ class XMLSchemaBuilder
       {
         ret = XMLSchema.FINAL_EXTENSION | XMLSchema.FINAL_RESTRICTION;
       }
-    else
+    else if (value != null)
       {
         StringTokenizer st = new StringTokenizer(value, " ");
         while (st.hasMoreTokens())
@@ -283,7 +458,7 @@ class XMLSchemaBuilder
       {
         ret = XMLSchema.BLOCK_ALL;
       }
-    else
+    else if (value != null)
       {
         StringTokenizer st = new StringTokenizer(value, " ");
         while (st.hasMoreTokens())
@@ -313,7 +488,7 @@ class XMLSchemaBuilder
       {
         ret = XMLSchema.BLOCK_EXTENSION | XMLSchema.BLOCK_RESTRICTION;
       }
-    else
+    else if (value != null)
       {
         StringTokenizer st = new StringTokenizer(value, " ");
         while (st.hasMoreTokens())
@@ -333,6 +508,7 @@ class XMLSchemaBuilder
   }
 
   Object parseElement(Node node, ElementDeclaration parent)
+    throws SAXException
   {
     NamedNodeMap attrs = node.getAttributes();
     Integer minOccurs = null;
@@ -346,19 +522,18 @@ class XMLSchemaBuilder
           {
             minOccurs = getOccurrence(getAttribute(attrs, "minOccurs"));
             maxOccurs = getOccurrence(getAttribute(attrs, "maxOccurs"));
-            // TODO resolve top-level element declaration
-            ElementDeclaration ad = null;
-            return new Particle(minOccurs, maxOccurs, ad);
+            // Resolved when the schema is compiled
+            return new Particle(minOccurs, maxOccurs, asQName(ref, node));
           }
       }
     String elementName = getAttribute(attrs, "name");
-    String elementNamespace = getAttribute(attrs, "targetNamespace");
+    String elementNamespace = notTopLevel ? null : schema.targetNamespace;
     String type = getAttribute(attrs, "type");
-    Type datatype = (type != null) ?
-      parseSimpleType(asQName(type, node)) : null;
-    int scope = (parent == null) ?
-      XMLSchema.GLOBAL :
-      XMLSchema.LOCAL;
+    QName typeName = (type != null) ? asQName(type, node) : null;
+    Type datatype = (typeName != null) ? getType(typeName) : null;
+    int scope = notTopLevel ?
+      XMLSchema.LOCAL :
+      XMLSchema.GLOBAL;
     String def = getAttribute(attrs, "default");
     String fixed = getAttribute(attrs, "fixed");
     int constraintType = AttributeDeclaration.NONE;
@@ -374,14 +549,7 @@ class XMLSchemaBuilder
         constraintValue = fixed;
       }
     String sg = getAttribute(attrs, "substitutionGroup");
-    QName substitutionGroup = QName.valueOf(sg);
-    String sgPrefix = substitutionGroup.getPrefix();
-    if (sgPrefix != null && !"".equals(sgPrefix))
-      {
-        String sgName = substitutionGroup.getLocalPart();
-        String sgNamespace = node.lookupNamespaceURI(sgPrefix);
-        substitutionGroup = new QName(sgNamespace, sgName);
-      }
+    QName substitutionGroup = (sg == null) ? null : asQName(sg, node);
     
     String block = getAttribute(attrs, "block");
     int substitutionGroupExclusions = (block == null) ?
@@ -422,6 +590,12 @@ class XMLSchemaBuilder
                              substitutionGroupExclusions, 
                              disallowedSubstitutions,
                              isAbstract);
+    if (typeName != null && datatype == null)
+      {
+        // Resolved once all the top-level definitions have been read
+        ed.typeName = typeName;
+        typeReferences.add(ed);
+      }
     
     for (Node child = node.getFirstChild(); child != null;
          child = child.getNextSibling())
@@ -476,18 +650,139 @@ class XMLSchemaBuilder
       }
   }
 
-  SimpleType parseSimpleType(QName typeName)
+  /**
+   * Returns the named type definition, parsing it if this is the first
+   * reference to it, or null if it is not defined. A type is not yet
+   * available while its own definition is being parsed.
+   */
+  Type getType(QName name)
+    throws SAXException
   {
-    SimpleType type = (SimpleType) schema.types.get(typeName);
-    if (type == null &&
-        XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(typeName.getNamespaceURI()))
+    Type type = schema.getType(name);
+    if (type != null)
+      {
+        return type;
+      }
+    Node definition = (Node) typeDefinitions.remove(name);
+    if (definition == null)
+      {
+        return null;
+      }
+    if ("complexType".equals(definition.getLocalName()))
+      {
+        type = parseComplexType(definition, null);
+      }
+    else
       {
-        type = (SimpleType) Type.forName(typeName.getLocalPart());
+        type = parseSimpleType(definition);
       }
+    schema.types.put(name, type);
     return type;
   }
 
+  /**
+   * Returns the named simple type definition.
+   */
+  SimpleType getSimpleType(QName name, Node context)
+    throws SAXException
+  {
+    Type type = getType(name);
+    if (!(type instanceof SimpleType))
+      {
+        throw schemaError("Can't resolve simple type " + name, context);
+      }
+    return (SimpleType) type;
+  }
+
+  /**
+   * Returns the named top-level attribute declaration, parsing it if
+   * this is the first reference to it, or null if it is not declared.
+   */
+  AttributeDeclaration getAttributeDeclaration(QName name)
+    throws SAXException
+  {
+    AttributeDeclaration decl = (AttributeDeclaration)
+      schema.attributeDeclarations.get(name);
+    if (decl == null)
+      {
+        Node definition = (Node) attributeDefinitions.remove(name);
+        if (definition != null)
+          {
+            decl = (AttributeDeclaration) parseAttribute(definition, true);
+            schema.attributeDeclarations.put(name, decl);
+          }
+      }
+    return decl;
+  }
+
+  /**
+   * Returns the named attribute group, parsing its definition if this
+   * is the first reference to it.
+   */
+  AttributeGroup getAttributeGroup(QName name, Node context)
+    throws SAXException
+  {
+    AttributeGroup group = (AttributeGroup) schema.attributeGroups.get(name);
+    if (group != null)
+      {
+        return group;
+      }
+    Node definition = (Node) attributeGroupDefinitions.remove(name);
+    if (definition == null)
+      {
+        // Either undefined, or being parsed: a group may not refer to
+        // itself
+        throw schemaError("Can't resolve attribute group " + name, context);
+      }
+    group = new AttributeGroup(name);
+    for (Node child = definition.getFirstChild(); child != null;
+         child = child.getNextSibling())
+      {
+        String uri = child.getNamespaceURI();
+        String childName = child.getLocalName();
+        if (XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(uri) &&
+            child.getNodeType() == Node.ELEMENT_NODE)
+          {
+            if ("attribute".equals(childName))
+              {
+                group.attributeUses.add(parseAttribute(child, false));
+              }
+            else if ("attributeGroup".equals(childName))
+              {
+                AttributeGroup ref = parseAttributeGroupReference(child);
+                group.attributeUses.addAll(ref.attributeUses);
+                group.attributeWildcard =
+                  AnyAttribute.intersect(group.attributeWildcard,
+                                         ref.attributeWildcard);
+              }
+            else if ("anyAttribute".equals(childName))
+              {
+                group.attributeWildcard =
+                  AnyAttribute.intersect(parseAnyAttribute(child),
+                                         group.attributeWildcard);
+              }
+          }
+      }
+    schema.attributeGroups.put(name, group);
+    return group;
+  }
+
+  /**
+   * Returns the attribute group referred to by the given node.
+   */
+  AttributeGroup parseAttributeGroupReference(Node node)
+    throws SAXException
+  {
+    String ref = getAttribute(node.getAttributes(), "ref");
+    if (ref == null)
+      {
+        throw schemaError("attribute group reference without ref", node);
+      }
+    return getAttributeGroup(asQName(ref, node), node);
+  }
+
   SimpleType parseSimpleType(Node simpleType)
+    throws SAXException
   {
     NamedNodeMap attrs = simpleType.getAttributes();
     String typeFinal = getAttribute(attrs, "final");
@@ -505,11 +800,15 @@ class XMLSchemaBuilder
           }
       }
     int typeFinality = parseSimpleTypeDerivationSet(typeFinal);
-    QName typeName = asQName(getAttribute(attrs, "name"), simpleType);
+    String typeNameValue = getAttribute(attrs, "name");
+    QName typeName = (typeNameValue == null) ? null :
+      new QName(schema.targetNamespace, typeNameValue);
     int variety = 0;
     Set facets = new LinkedHashSet();
     int fundamentalFacets = 0; // TODO
-    SimpleType baseType = null; // TODO
+    SimpleType baseType = null;
+    SimpleType itemType = null;
+    List memberTypes = null;
     Annotation annotation = null;
     for (Node child = simpleType.getFirstChild(); child != null;
          child = child.getNextSibling())
@@ -525,28 +824,267 @@ class XMLSchemaBuilder
               }
             else if ("restriction".equals(name))
               {
-                // TODO
+                variety = SimpleType.ATOMIC;
+                baseType = parseSimpleTypeRestriction(child, facets);
               }
             else if ("list".equals(name))
               {
                 variety = SimpleType.LIST;
-                // TODO
+                baseType = Type.ANY_SIMPLE_TYPE;
+                itemType = parseListItemType(child);
               }
             else if ("union".equals(name))
               {
                 variety = SimpleType.UNION;
-                // TODO
+                baseType = Type.ANY_SIMPLE_TYPE;
+                memberTypes = parseUnionMemberTypes(child);
               }
           }
       }
-    return new SimpleType(typeName, variety, facets, fundamentalFacets,
-                          baseType, annotation);
+    if (variety == SimpleType.ATOMIC)
+      {
+        // A restriction of a list or union type has its variety
+        if (baseType instanceof ListSimpleType)
+          {
+            variety = SimpleType.LIST;
+            itemType = ((ListSimpleType) baseType).itemType;
+          }
+        else if (baseType instanceof UnionSimpleType)
+          {
+            variety = SimpleType.UNION;
+            memberTypes = ((UnionSimpleType) baseType).memberTypes;
+          }
+      }
+    switch (variety)
+      {
+      case SimpleType.ATOMIC:
+        return new AtomicSimpleType(typeName, facets, fundamentalFacets,
+                                    baseType, annotation);
+      case SimpleType.LIST:
+        return new ListSimpleType(typeName, facets, fundamentalFacets,
+                                  baseType, annotation, itemType);
+      case SimpleType.UNION:
+        return new UnionSimpleType(typeName, facets, fundamentalFacets,
+                                   baseType, annotation, memberTypes);
+      }
+    throw schemaError("Simple type without restriction, list, or union",
+                      simpleType);
+  }
+
+  /**
+   * Returns the item type of a list type.
+   */
+  SimpleType parseListItemType(Node list)
+    throws SAXException
+  {
+    String itemTypeName = getAttribute(list.getAttributes(), "itemType");
+    SimpleType itemType = (itemTypeName == null) ? null :
+      getSimpleType(asQName(itemTypeName, list), list);
+    for (Node child = list.getFirstChild(); child != null;
+         child = child.getNextSibling())
+      {
+        if (XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(child.getNamespaceURI())
+            && "simpleType".equals(child.getLocalName()))
+          {
+            itemType = parseSimpleType(child);
+          }
+      }
+    if (itemType == null)
+      {
+        throw schemaError("list without item type", list);
+      }
+    return itemType;
+  }
+
+  /**
+   * Returns the member types of a union type.
+   */
+  List parseUnionMemberTypes(Node union)
+    throws SAXException
+  {
+    List memberTypes = new ArrayList();
+    String names = getAttribute(union.getAttributes(), "memberTypes");
+    if (names != null)
+      {
+        StringTokenizer st = new StringTokenizer(names, " \t\n\r");
+        while (st.hasMoreTokens())
+          {
+            memberTypes.add(getSimpleType(asQName(st.nextToken(), union),
+                                          union));
+          }
+      }
+    for (Node child = union.getFirstChild(); child != null;
+         child = child.getNextSibling())
+      {
+        if (XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(child.getNamespaceURI())
+            && "simpleType".equals(child.getLocalName()))
+          {
+            memberTypes.add(parseSimpleType(child));
+          }
+      }
+    if (memberTypes.isEmpty())
+      {
+        throw schemaError("union without member types", union);
+      }
+    return memberTypes;
+  }
+
+  /**
+   * Returns the base type of a simple type restriction, adding its
+   * constraining facets to the given set.
+   */
+  SimpleType parseSimpleTypeRestriction(Node restriction, Set facets)
+    throws SAXException
+  {
+    NamedNodeMap attrs = restriction.getAttributes();
+    String base = getAttribute(attrs, "base");
+    SimpleType baseType = null;
+    if (base != null)
+      {
+        baseType = getSimpleType(asQName(base, restriction), restriction);
+      }
+    for (Node child = restriction.getFirstChild(); child != null;
+         child = child.getNextSibling())
+      {
+        String uri = child.getNamespaceURI();
+        String name = child.getLocalName();
+        if (XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(uri) &&
+            child.getNodeType() == Node.ELEMENT_NODE)
+          {
+            if ("simpleType".equals(name) && base == null)
+              {
+                baseType = parseSimpleType(child);
+              }
+            else
+              {
+                parseFacet(child, baseType, facets);
+              }
+          }
+      }
+    if (baseType == null)
+      {
+        throw schemaError("restriction without base type", restriction);
+      }
+    return baseType;
+  }
+
+  /**
+   * Adds the constraining facet represented by the given node, if it is
+   * one, to the given set.
+   * @param baseType the type being restricted, or null if unknown
+   * @return true if the node is a facet
+   */
+  boolean parseFacet(Node node, SimpleType baseType, Set facets)
+    throws SAXException
+  {
+    String name = node.getLocalName();
+    NamedNodeMap facetAttrs = node.getAttributes();
+    String value = getAttribute(facetAttrs, "value");
+    boolean fixed = "true".equals(getAttribute(facetAttrs, "fixed"));
+    if ("enumeration".equals(name))
+      {
+        facets.add(new EnumerationFacet(value, null));
+      }
+    else if ("pattern".equals(name))
+      {
+        // XML Schema regular expressions are, for the most part,
+        // a subset of those understood by java.util.regex
+        facets.add(new PatternFacet(PatternFacet.compile(value), null));
+      }
+    else if ("length".equals(name))
+      {
+        facets.add(new LengthFacet(Integer.parseInt(value), fixed, null));
+      }
+    else if ("minLength".equals(name))
+      {
+        facets.add(new MinLengthFacet(Integer.parseInt(value), fixed, null));
+      }
+    else if ("maxLength".equals(name))
+      {
+        facets.add(new MaxLengthFacet(Integer.parseInt(value), fixed, null));
+      }
+    else if ("totalDigits".equals(name))
+      {
+        facets.add(new TotalDigitsFacet(Integer.parseInt(value), fixed,
+                                        null));
+      }
+    else if ("fractionDigits".equals(name))
+      {
+        facets.add(new FractionDigitsFacet(Integer.parseInt(value), fixed,
+                                           null));
+      }
+    else if ("whiteSpace".equals(name))
+      {
+        int ws;
+        if ("preserve".equals(value))
+          {
+            ws = WhiteSpaceFacet.PRESERVE;
+          }
+        else if ("replace".equals(value))
+          {
+            ws = WhiteSpaceFacet.REPLACE;
+          }
+        else if ("collapse".equals(value))
+          {
+            ws = WhiteSpaceFacet.COLLAPSE;
+          }
+        else
+          {
+            throw schemaError("Invalid whiteSpace value " + value, node);
+          }
+        facets.add(new WhiteSpaceFacet(ws, null));
+      }
+    else if ("minInclusive".equals(name) ||
+             "minExclusive".equals(name) ||
+             "maxInclusive".equals(name) ||
+             "maxExclusive".equals(name))
+      {
+        if (baseType == null)
+          {
+            throw schemaError("Can't resolve base type of " + name +
+                              " facet", node);
+          }
+        if (!baseType.isOrdered())
+          {
+            throw schemaError(name + " facet requires an ordered base type",
+                              node);
+          }
+        value = (value == null) ? "" : value.trim();
+        if (!baseType.matches(value))
+          {
+            throw schemaError("Invalid " + name + " value " + value, node);
+          }
+        if ("minInclusive".equals(name))
+          {
+            facets.add(new MinInclusiveFacet(value, fixed, null));
+          }
+        else if ("minExclusive".equals(name))
+          {
+            facets.add(new MinExclusiveFacet(value, fixed, null));
+          }
+        else if ("maxInclusive".equals(name))
+          {
+            facets.add(new MaxInclusiveFacet(value, fixed, null));
+          }
+        else
+          {
+            facets.add(new MaxExclusiveFacet(value, fixed, null));
+          }
+      }
+    else
+      {
+        return false;
+      }
+    return true;
   }
 
   Type parseComplexType(Node complexType, ElementDeclaration parent)
+    throws SAXException
   {
     NamedNodeMap attrs = complexType.getAttributes();
-    QName typeName = asQName(getAttribute(attrs, "name"), complexType);
+    String typeNameValue = getAttribute(attrs, "name");
+    QName typeName = (typeNameValue == null) ? null :
+      new QName(schema.targetNamespace, typeNameValue);
     boolean isAbstract = "true".equals(getAttribute(attrs, "abstract"));
     String block = getAttribute(attrs, "block");
     int prohibitedSubstitutions = (block == null) ?
@@ -567,10 +1105,48 @@ class XMLSchemaBuilder
         if (XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(uri) &&
             child.getNodeType() == Node.ELEMENT_NODE)
           {
-            if ("simpleContent".equals(name))
+            if ("annotation".equals(name))
+              {
+                type.annotations.add(parseAnnotation(child));
+              }
+            else if ("simpleContent".equals(name))
               {
                 parseSimpleContent(child, type);
               }
+            else if ("complexContent".equals(name))
+              {
+                parseComplexContent(child, type, parent);
+              }
+            else if ("sequence".equals(name) ||
+                     "choice".equals(name) ||
+                     "all".equals(name))
+              {
+                type.contentType = XMLSchema.CONTENT_ELEMENT_ONLY;
+                type.contentModel = parseModelGroup(child, parent);
+              }
+            else if ("group".equals(name))
+              {
+                type.contentType = XMLSchema.CONTENT_ELEMENT_ONLY;
+                type.contentModel = parseGroupReference(child);
+              }
+            else if ("attribute".equals(name))
+              {
+                type.attributeUses.add(parseAttribute(child, false));
+              }
+            else if ("attributeGroup".equals(name))
+              {
+                AttributeGroup group = parseAttributeGroupReference(child);
+                type.attributeUses.addAll(group.attributeUses);
+                type.attributeWildcard =
+                  AnyAttribute.intersect(type.attributeWildcard,
+                                         group.attributeWildcard);
+              }
+            else if ("anyAttribute".equals(name))
+              {
+                type.attributeWildcard =
+                  AnyAttribute.intersect(parseAnyAttribute(child),
+                                         type.attributeWildcard);
+              }
           }
       }
     if (mixed)
@@ -580,9 +1156,27 @@ class XMLSchemaBuilder
     return type;
   }
 
-  void parseSimpleContent(Node simpleContent, ComplexType type)
+  /**
+   * Parses a sequence, choice, or all group into a particle.
+   */
+  Particle parseModelGroup(Node node, ElementDeclaration parent)
+    throws SAXException
   {
-    for (Node child = simpleContent.getFirstChild(); child != null;
+    NamedNodeMap attrs = node.getAttributes();
+    Integer minOccurs = getOccurrence(getAttribute(attrs, "minOccurs"));
+    Integer maxOccurs = getOccurrence(getAttribute(attrs, "maxOccurs"));
+    String groupName = node.getLocalName();
+    int compositor = ModelGroup.SEQUENCE;
+    if ("choice".equals(groupName))
+      {
+        compositor = ModelGroup.CHOICE;
+      }
+    else if ("all".equals(groupName))
+      {
+        compositor = ModelGroup.ALL;
+      }
+    ModelGroup group = new ModelGroup(compositor);
+    for (Node child = node.getFirstChild(); child != null;
          child = child.getNextSibling())
       {
         String uri = child.getNamespaceURI();
@@ -590,31 +1184,133 @@ class XMLSchemaBuilder
         if (XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(uri) &&
             child.getNodeType() == Node.ELEMENT_NODE)
           {
-            if ("annotation".equals(name))
+            if ("element".equals(name))
               {
-                type.annotations.add(parseAnnotation(child));
+                group.particles.add(parseElement(child, parent));
               }
-            else if ("restriction".equals(name))
+            else if ("sequence".equals(name) ||
+                     "choice".equals(name) ||
+                     "all".equals(name))
               {
-                type.derivationMethod = XMLSchema.FINAL_RESTRICTION;
-                parseRestriction(child, type);
+                group.particles.add(parseModelGroup(child, parent));
               }
-            else if ("extension".equals(name))
+            else if ("group".equals(name))
               {
-                type.derivationMethod = XMLSchema.FINAL_EXTENSION;
-                parseExtension(child, type);
+                group.particles.add(parseGroupReference(child));
+              }
+            else if ("any".equals(name))
+              {
+                group.particles.add(parseAny(child));
               }
           }
       }
+    return new Particle(minOccurs, maxOccurs, group);
   }
 
-  void parseRestriction(Node restriction, ComplexType type)
+  /**
+   * Parses a reference to a named model group into a particle.
+   */
+  Particle parseGroupReference(Node node)
+    throws SAXException
   {
-    NamedNodeMap attrs = restriction.getAttributes();
-    String base = getAttribute(attrs, "base");
-    QName baseType = asQName(base, restriction);
-    SimpleType simpleType = null;
-    for (Node child = restriction.getFirstChild(); child != null;
+    NamedNodeMap attrs = node.getAttributes();
+    String ref = getAttribute(attrs, "ref");
+    if (ref == null)
+      {
+        throw schemaError("model group reference without ref", node);
+      }
+    Integer minOccurs = getOccurrence(getAttribute(attrs, "minOccurs"));
+    Integer maxOccurs = getOccurrence(getAttribute(attrs, "maxOccurs"));
+    ModelGroup group = getModelGroup(asQName(ref, node), node);
+    return new Particle(minOccurs, maxOccurs, group);
+  }
+
+  /**
+   * Returns the named model group, parsing its definition if this is the
+   * first reference to it.
+   */
+  ModelGroup getModelGroup(QName name, Node context)
+    throws SAXException
+  {
+    ModelGroup group = (ModelGroup) schema.groups.get(name);
+    if (group != null)
+      {
+        return group;
+      }
+    Node definition = (Node) groupDefinitions.remove(name);
+    if (definition == null)
+      {
+        // Either undefined, or being parsed: a group may not contain
+        // itself
+        throw schemaError("Can't resolve model group " + name, context);
+      }
+    for (Node child = definition.getFirstChild(); child != null;
+         child = child.getNextSibling())
+      {
+        String uri = child.getNamespaceURI();
+        String childName = child.getLocalName();
+        if (XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(uri) &&
+            child.getNodeType() == Node.ELEMENT_NODE &&
+            ("sequence".equals(childName) ||
+             "choice".equals(childName) ||
+             "all".equals(childName)))
+          {
+            Particle particle = parseModelGroup(child, null);
+            group = (ModelGroup) particle.term;
+          }
+      }
+    if (group == null)
+      {
+        throw schemaError("No content in model group " + name, definition);
+      }
+    schema.groups.put(name, group);
+    return group;
+  }
+
+  /**
+   * Parses an element wildcard into a particle.
+   */
+  Particle parseAny(Node node)
+  {
+    NamedNodeMap attrs = node.getAttributes();
+    Integer minOccurs = getOccurrence(getAttribute(attrs, "minOccurs"));
+    Integer maxOccurs = getOccurrence(getAttribute(attrs, "maxOccurs"));
+    String namespace = getAttribute(attrs, "namespace");
+    String pc = getAttribute(attrs, "processContents");
+    int processContents = AnyElement.STRICT;
+    if ("lax".equals(pc))
+      {
+        processContents = AnyElement.LAX;
+      }
+    else if ("skip".equals(pc))
+      {
+        processContents = AnyElement.SKIP;
+      }
+    AnyElement any = new AnyElement(namespace, processContents,
+                                    schema.targetNamespace);
+    for (Node child = node.getFirstChild(); child != null;
+         child = child.getNextSibling())
+      {
+        if (XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(child.getNamespaceURI())
+            && "annotation".equals(child.getLocalName()))
+          {
+            any.annotation = parseAnnotation(child);
+          }
+      }
+    return new Particle(minOccurs, maxOccurs, any);
+  }
+
+  /**
+   * Parses complex content. The content and attributes inherited from
+   * the base type are added later, by resolveDerivation.
+   */
+  void parseComplexContent(Node complexContent, ComplexType type,
+                           ElementDeclaration parent)
+    throws SAXException
+  {
+    NamedNodeMap ccAttrs = complexContent.getAttributes();
+    boolean mixed = "true".equals(getAttribute(ccAttrs, "mixed"));
+    for (Node child = complexContent.getFirstChild(); child != null;
          child = child.getNextSibling())
       {
         String uri = child.getNamespaceURI();
@@ -626,75 +1322,314 @@ class XMLSchemaBuilder
               {
                 type.annotations.add(parseAnnotation(child));
               }
-            else if ("simpleType".equals(name))
+            else if ("restriction".equals(name) || "extension".equals(name))
               {
-                type.contentType = XMLSchema.CONTENT_SIMPLE;
-                simpleType = parseSimpleType(child);
+                type.derivationMethod = "extension".equals(name) ?
+                  XMLSchema.FINAL_EXTENSION :
+                  XMLSchema.FINAL_RESTRICTION;
+                NamedNodeMap attrs = child.getAttributes();
+                String base = getAttribute(attrs, "base");
+                if (base == null)
+                  {
+                    throw schemaError(name + " without base type", child);
+                  }
+                type.baseType = asQName(base, child);
+                parseDerivation(child, type, parent);
               }
-            else if ("minExclusive".equals(name))
-              {
-              }
-            else if ("minInclusive".equals(name))
+          }
+      }
+    if (mixed)
+      {
+        type.contentType = XMLSchema.CONTENT_MIXED;
+      }
+    derivedTypes.add(type);
+  }
+
+  /**
+   * Parses the particle and attributes of a complex content restriction
+   * or extension.
+   */
+  void parseDerivation(Node derivation, ComplexType type,
+                       ElementDeclaration parent)
+    throws SAXException
+  {
+    for (Node child = derivation.getFirstChild(); child != null;
+         child = child.getNextSibling())
+      {
+        String uri = child.getNamespaceURI();
+        String name = child.getLocalName();
+        if (XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(uri) &&
+            child.getNodeType() == Node.ELEMENT_NODE)
+          {
+            if ("annotation".equals(name))
               {
+                type.annotations.add(parseAnnotation(child));
               }
-            else if ("maxExclusive".equals(name))
+            else if ("sequence".equals(name) ||
+                     "choice".equals(name) ||
+                     "all".equals(name))
               {
+                type.contentType = XMLSchema.CONTENT_ELEMENT_ONLY;
+                type.contentModel = parseModelGroup(child, parent);
               }
-            else if ("maxInclusive".equals(name))
+            else if ("group".equals(name))
               {
+                type.contentType = XMLSchema.CONTENT_ELEMENT_ONLY;
+                type.contentModel = parseGroupReference(child);
               }
-            else if ("totalDigits".equals(name))
+            else if ("attribute".equals(name))
               {
+                type.attributeUses.add(parseAttribute(child, false));
               }
-            else if ("fractionDigits".equals(name))
+            else if ("attributeGroup".equals(name))
               {
+                AttributeGroup group = parseAttributeGroupReference(child);
+                type.attributeUses.addAll(group.attributeUses);
+                type.attributeWildcard =
+                  AnyAttribute.intersect(type.attributeWildcard,
+                                         group.attributeWildcard);
               }
-            else if ("length".equals(name))
+            else if ("anyAttribute".equals(name))
               {
+                type.attributeWildcard =
+                  AnyAttribute.intersect(parseAnyAttribute(child),
+                                         type.attributeWildcard);
               }
-            else if ("minLength".equals(name))
+          }
+      }
+  }
+
+  /**
+   * Completes a complex type derived from its base type. An extension's
+   * content model follows that of its base type, and it has the base
+   * type's attributes and attribute wildcard as well as its own. A
+   * restriction states its whole content model and attribute wildcard,
+   * and inherits the attributes it does not redeclare or prohibit.
+   * Types with simple content get their content type when parsed.
+   */
+  void resolveDerivation(ComplexType type, Node context)
+    throws SAXException
+  {
+    if (resolvedTypes.contains(type))
+      {
+        return;
+      }
+    if (!resolvingTypes.add(type))
+      {
+        throw schemaError("Circular derivation of type " + type.name,
+                          context);
+      }
+    Type base = schema.getType(type.baseType);
+    if (base == null)
+      {
+        throw schemaError("Can't resolve base type " + type.baseType,
+                          context);
+      }
+    boolean simpleContent = type.contentType == XMLSchema.CONTENT_SIMPLE;
+    if (!simpleContent && base != Type.ANY_TYPE &&
+        !(base instanceof ComplexType))
+      {
+        throw schemaError("Complex content can't be derived from simple " +
+                          "type " + type.baseType, context);
+      }
+    ComplexType baseType = null;
+    if (base instanceof ComplexType)
+      {
+        baseType = (ComplexType) base;
+        if ((baseType.finality & type.derivationMethod) != 0)
+          {
+            throw schemaError("Type " + type.baseType + " is final",
+                              context);
+          }
+        if (derivedTypes.contains(baseType))
+          {
+            resolveDerivation(baseType, context);
+          }
+      }
+    resolvedTypes.add(type);
+    if (baseType == null)
+      {
+        return;
+      }
+    // Attributes: the base type's, except those redeclared here
+    Set uses = new LinkedHashSet();
+    for (Iterator i = baseType.attributeUses.iterator(); i.hasNext(); )
+      {
+        Object use = i.next();
+        if (!(use instanceof AttributeUse) ||
+            findAttributeUse(type, (AttributeUse) use) == null)
+          {
+            uses.add(use);
+          }
+      }
+    uses.addAll(type.attributeUses);
+    type.attributeUses = uses;
+    if (type.derivationMethod == XMLSchema.FINAL_EXTENSION)
+      {
+        type.attributeWildcard =
+          AnyAttribute.union(type.attributeWildcard,
+                             baseType.attributeWildcard);
+        if (simpleContent)
+          {
+            return;
+          }
+        boolean mixed = type.contentType == XMLSchema.CONTENT_MIXED ||
+          baseType.contentType == XMLSchema.CONTENT_MIXED;
+        Object baseModel = baseType.contentModel;
+        if (!(type.contentModel instanceof Particle))
+          {
+            type.contentModel = baseModel;
+          }
+        else if (baseModel instanceof Particle)
+          {
+            ModelGroup group = new ModelGroup(ModelGroup.SEQUENCE);
+            group.particles.add(baseModel);
+            group.particles.add(type.contentModel);
+            type.contentModel = new Particle(new Integer(1), new Integer(1),
+                                             group);
+          }
+        if (type.contentModel instanceof Particle)
+          {
+            type.contentType = mixed ? XMLSchema.CONTENT_MIXED :
+              XMLSchema.CONTENT_ELEMENT_ONLY;
+          }
+        else
+          {
+            type.contentType = mixed ? XMLSchema.CONTENT_MIXED :
+              baseType.contentType;
+          }
+      }
+  }
+
+  /**
+   * Returns the attribute use of the given type with the same name as
+   * the given use, or null.
+   */
+  static AttributeUse findAttributeUse(ComplexType type, AttributeUse use)
+  {
+    if (use.declaration == null)
+      {
+        return null;
+      }
+    QName name = use.declaration.name;
+    for (Iterator i = type.attributeUses.iterator(); i.hasNext(); )
+      {
+        Object other = i.next();
+        if (other instanceof AttributeUse &&
+            ((AttributeUse) other).declaration != null &&
+            name.equals(((AttributeUse) other).declaration.name))
+          {
+            return (AttributeUse) other;
+          }
+      }
+    return null;
+  }
+
+  /**
+   * Parses simple content. The attributes inherited from the base type
+   * are added later, by resolveDerivation.
+   */
+  void parseSimpleContent(Node simpleContent, ComplexType type)
+    throws SAXException
+  {
+    type.contentType = XMLSchema.CONTENT_SIMPLE;
+    derivedTypes.add(type);
+    for (Node child = simpleContent.getFirstChild(); child != null;
+         child = child.getNextSibling())
+      {
+        String uri = child.getNamespaceURI();
+        String name = child.getLocalName();
+        if (XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(uri) &&
+            child.getNodeType() == Node.ELEMENT_NODE)
+          {
+            if ("annotation".equals(name))
               {
+                type.annotations.add(parseAnnotation(child));
               }
-            else if ("maxLength".equals(name))
+            else if ("restriction".equals(name))
               {
+                type.derivationMethod = XMLSchema.FINAL_RESTRICTION;
+                parseRestriction(child, type);
               }
-            else if ("enumeration".equals(name))
+            else if ("extension".equals(name))
               {
+                type.derivationMethod = XMLSchema.FINAL_EXTENSION;
+                parseExtension(child, type);
               }
-            else if ("whiteSpace".equals(name))
+          }
+      }
+  }
+
+  void parseRestriction(Node restriction, ComplexType type)
+    throws SAXException
+  {
+    NamedNodeMap attrs = restriction.getAttributes();
+    String base = getAttribute(attrs, "base");
+    QName baseType = asQName(base, restriction);
+    type.baseType = baseType;
+    type.contentModel = getSimpleContentType(baseType, restriction);
+    SimpleType simpleType = null;
+    Set facets = new LinkedHashSet();
+    for (Node child = restriction.getFirstChild(); child != null;
+         child = child.getNextSibling())
+      {
+        String uri = child.getNamespaceURI();
+        String name = child.getLocalName();
+        if (XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(uri) &&
+            child.getNodeType() == Node.ELEMENT_NODE)
+          {
+            if ("annotation".equals(name))
               {
+                type.annotations.add(parseAnnotation(child));
               }
-            else if ("pattern".equals(name))
+            else if ("simpleType".equals(name))
               {
+                type.contentType = XMLSchema.CONTENT_SIMPLE;
+                simpleType = parseSimpleType(child);
+                type.contentModel = simpleType;
               }
             else if ("attribute".equals(name))
               {
-                AttributeUse use =
-                  (AttributeUse) parseAttribute(child, false);
-                schema.attributeDeclarations.put(use.declaration.name,
-                                                 use.declaration);
-                type.attributeUses.add(use);
+                type.attributeUses.add(parseAttribute(child, false));
               }
             else if ("attributeGroup".equals(name))
               {
-                NamedNodeMap agAttrs = child.getAttributes();
-                String ref = getAttribute(agAttrs, "ref");
-                QName ag = asQName(ref, child);
-                type.attributeUses.add(ag);
+                AttributeGroup group = parseAttributeGroupReference(child);
+                type.attributeUses.addAll(group.attributeUses);
+                type.attributeWildcard =
+                  AnyAttribute.intersect(type.attributeWildcard,
+                                         group.attributeWildcard);
               }
             else if ("anyAttribute".equals(name))
               {
-                type.attributeWildcard = parseAnyAttribute(child);
+                type.attributeWildcard =
+                  AnyAttribute.intersect(parseAnyAttribute(child),
+                                         type.attributeWildcard);
+              }
+            else
+              {
+                SimpleType contentBase = (SimpleType) type.contentModel;
+                parseFacet(child, contentBase, facets);
               }
           }
       }
+    if (!facets.isEmpty())
+      {
+        // Restrict the base content type by the facets
+        type.contentModel =
+          new AtomicSimpleType(null, facets, 0,
+                               (SimpleType) type.contentModel, null);
+      }
   }
 
   void parseExtension(Node extension, ComplexType type)
+    throws SAXException
   {
     NamedNodeMap attrs = extension.getAttributes();
     String base = getAttribute(attrs, "base");
     QName baseType = asQName(base, extension);
+    type.baseType = baseType;
+    type.contentModel = getSimpleContentType(baseType, extension);
     for (Node child = extension.getFirstChild(); child != null;
          child = child.getNextSibling())
       {
@@ -709,27 +1644,47 @@ class XMLSchemaBuilder
               }
             else if ("attribute".equals(name))
               {
-                AttributeUse use =
-                  (AttributeUse) parseAttribute(child, false);
-                schema.attributeDeclarations.put(use.declaration.name,
-                                                 use.declaration);
-                type.attributeUses.add(use);
+                type.attributeUses.add(parseAttribute(child, false));
               }
             else if ("attributeGroup".equals(name))
               {
-                NamedNodeMap agAttrs = child.getAttributes();
-                String ref = getAttribute(agAttrs, "ref");
-                QName ag = asQName(ref, child);
-                type.attributeUses.add(ag);
+                AttributeGroup group = parseAttributeGroupReference(child);
+                type.attributeUses.addAll(group.attributeUses);
+                type.attributeWildcard =
+                  AnyAttribute.intersect(type.attributeWildcard,
+                                         group.attributeWildcard);
               }
             else if ("anyAttribute".equals(name))
               {
-                type.attributeWildcard = parseAnyAttribute(child);
+                type.attributeWildcard =
+                  AnyAttribute.intersect(parseAnyAttribute(child),
+                                         type.attributeWildcard);
               }
           }
       }
   }
 
+  /**
+   * Returns the simple type of content derived from the given base
+   * type, or null if the base type does not have simple content.
+   */
+  SimpleType getSimpleContentType(QName baseType, Node context)
+    throws SAXException
+  {
+    Type base = getType(baseType);
+    if (base == null)
+      {
+        throw schemaError("Can't resolve base type " + baseType, context);
+      }
+    if (base instanceof ComplexType)
+      {
+        Object contentModel = ((ComplexType) base).contentModel;
+        return (contentModel instanceof SimpleType) ?
+          (SimpleType) contentModel : null;
+      }
+    return (SimpleType) base;
+  }
+
   AnyAttribute parseAnyAttribute(Node node)
   {
     NamedNodeMap attrs = node.getAttributes();
@@ -744,7 +1699,8 @@ class XMLSchemaBuilder
       {
         processContents = AnyAttribute.SKIP;
       }
-    AnyAttribute ret = new AnyAttribute(namespace, processContents);
+    AnyAttribute ret = new AnyAttribute(namespace, processContents,
+                                        schema.targetNamespace);
     for (Node child = node.getFirstChild(); child != null;
          child = child.getNextSibling())
       {
@@ -768,22 +1724,34 @@ class XMLSchemaBuilder
     return null;
   }
 
+  /**
+   * Returns an exception reporting an error in the schema document.
+   */
+  private static SAXParseException schemaError(String message, Node node)
+  {
+    Document doc = node.getOwnerDocument();
+    String systemId = (doc == null) ? null : doc.getDocumentURI();
+    return new SAXParseException(message, null, systemId, -1, -1);
+  }
+
   private static String getAttribute(NamedNodeMap attrs, String name)
   {
     Node attr = attrs.getNamedItem(name);
     return (attr == null) ? null : attr.getNodeValue();
   }
 
+  /**
+   * Resolves a QName-valued attribute against the namespace declarations
+   * in scope. Unprefixed names take the default namespace.
+   */
   private static QName asQName(String text, Node resolver)
   {
-    QName name = QName.valueOf(text);
-    String prefix = name.getPrefix();
-    if (prefix != null && prefix.length() > 0)
-      {
-        String uri = resolver.lookupNamespaceURI(prefix);
-        name = new QName(uri, name.getLocalPart());
-      }
-    return name;
+    text = text.trim();
+    int ci = text.indexOf(':');
+    String prefix = (ci < 0) ? null : text.substring(0, ci);
+    String localName = text.substring(ci + 1);
+    String uri = resolver.lookupNamespaceURI(prefix);
+    return new QName((uri == null) ? "" : uri, localName);
   }
   
 }
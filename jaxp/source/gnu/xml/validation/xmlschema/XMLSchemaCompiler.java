@@ -0,0 +1,838 @@
+package gnu.xml.validation.xmlschema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.xml.namespace.QName;
+import gnu.xml.validation.datatype.SimpleType;
+import gnu.xml.validation.datatype.Type;
+
+/**
+ * Compiles the components of a schema into the form used by the
+ * streaming validator: names become integer codes, and each content
+ * model becomes a deterministic automaton built from the Glushkov
+ * positions of its particles. Element wildcards get columns of their
+ * own after those of the element names. A reference to a substitution
+ * group head matches the members of the group as well.
+ */
+final class XMLSchemaCompiler
+{
+
+  /**
+   * Particles with occurrence bounds above this that match a single
+   * element declaration or wildcard, and are not themselves inside a
+   * repeated particle, are matched by one position with a counter
+   * instead of by a copy of their term for each occurrence.
+   */
+  static final int MAX_UNROLL = 32;
+
+  final XMLSchema schema;
+  final NameTable names;
+  final Map elements;
+  final Map types;
+
+  // Glushkov positions of the model being compiled. The code of a
+  // wildcard position is -1 - its index in wildcards.
+  private int npos;
+  private final List wildcards;
+  private int[] posCodes;
+  private ElementDeclaration[] posDecls;
+  private BitSet[] follow;
+
+  // Counted particles of the model being compiled: the counter of each
+  // position, or -1, and the bounds of each counter
+  private int[] posCounters;
+  private final List counterBounds;
+
+  // The number of enclosing particles that are repeated
+  private int repeatDepth;
+
+  private XMLSchemaCompiler(XMLSchema schema)
+  {
+    this.schema = schema;
+    names = new NameTable();
+    elements = new HashMap();
+    types = new HashMap();
+    wildcards = new ArrayList();
+    posCodes = new int[16];
+    posDecls = new ElementDeclaration[16];
+    follow = new BitSet[16];
+    posCounters = new int[16];
+    counterBounds = new ArrayList();
+  }
+
+  /**
+   * Compiles all the global element declarations and named types in
+   * the given schema.
+   */
+  static void compile(XMLSchema schema)
+  {
+    XMLSchemaCompiler compiler = new XMLSchemaCompiler(schema);
+    List globals = new ArrayList();
+    for (Iterator i = schema.elementDeclarations.values().iterator();
+         i.hasNext(); )
+      {
+        ElementDeclaration decl = (ElementDeclaration) i.next();
+        globals.add(compiler.compileElement(decl));
+      }
+    for (Iterator i = schema.types.values().iterator(); i.hasNext(); )
+      {
+        compiler.compileType((Type) i.next());
+      }
+    CompiledElement[] globalElements =
+      new CompiledElement[compiler.names.size()];
+    for (Iterator i = globals.iterator(); i.hasNext(); )
+      {
+        CompiledElement element = (CompiledElement) i.next();
+        QName name = element.decl.name;
+        int code = compiler.names.lookup(name.getNamespaceURI(),
+                                         name.getLocalPart());
+        globalElements[code] = element;
+      }
+    List attributeUses = new ArrayList();
+    for (Iterator i = schema.attributeDeclarations.values().iterator();
+         i.hasNext(); )
+      {
+        AttributeDeclaration decl = (AttributeDeclaration) i.next();
+        attributeUses.add(new AttributeUse(false, AttributeDeclaration.NONE,
+                                           null, decl));
+      }
+    CompiledType globalAttributes = new CompiledType(null);
+    compiler.compileAttributes(globalAttributes, attributeUses, null);
+    schema.names = compiler.names;
+    schema.globalElements = globalElements;
+    schema.compiledTypes = compiler.types;
+    schema.globalAttributes = globalAttributes;
+  }
+
+  CompiledElement compileElement(ElementDeclaration decl)
+  {
+    CompiledElement ret = (CompiledElement) elements.get(decl);
+    if (ret == null)
+      {
+        ret = new CompiledElement(decl);
+        elements.put(decl, ret);
+        QName name = decl.name;
+        names.intern(name.getNamespaceURI(), name.getLocalPart());
+        Type type = schema.resolveType(decl);
+        ret.typeInfo = new XMLSchemaElementTypeInfo(schema, decl, type);
+        ret.nilTypeInfo = new XMLSchemaElementTypeInfo(schema, decl, type);
+        ret.nilTypeInfo.nil = true;
+        ret.type = compileType(type);
+      }
+    return ret;
+  }
+
+  CompiledType compileType(Type type)
+  {
+    CompiledType ret = (CompiledType) types.get(type);
+    if (ret != null)
+      {
+        return ret;
+      }
+    ret = new CompiledType(type);
+    types.put(type, ret);
+    if (type == null || type == Type.ANY_TYPE)
+      {
+        ret.contentType = CompiledType.CONTENT_ANY;
+      }
+    else if (type instanceof SimpleType)
+      {
+        ret.contentType = XMLSchema.CONTENT_SIMPLE;
+        ret.simpleType = (SimpleType) type;
+        ret.whitespace = CompiledType.getWhitespace(ret.simpleType);
+      }
+    else
+      {
+        ComplexType complexType = (ComplexType) type;
+        ret.contentType = complexType.contentType;
+        Object contentModel = complexType.contentModel;
+        switch (ret.contentType)
+          {
+          case XMLSchema.CONTENT_SIMPLE:
+            ret.simpleType = (contentModel instanceof SimpleType) ?
+              (SimpleType) contentModel : Type.ANY_SIMPLE_TYPE;
+            ret.whitespace = CompiledType.getWhitespace(ret.simpleType);
+            break;
+          case XMLSchema.CONTENT_MIXED:
+          case XMLSchema.CONTENT_ELEMENT_ONLY:
+            if (contentModel instanceof Particle)
+              {
+                ret.model = compileModel((Particle) contentModel);
+              }
+            else
+              {
+                ret.model = new ContentModel(CompiledType.NO_CODES,
+                                             new CompiledElement[0],
+                                             ContentModel.NO_WILDCARDS,
+                                             CompiledType.NO_CODES,
+                                             new boolean[] { true });
+              }
+            break;
+          }
+        ret.isAbstract = complexType.isAbstract;
+        compileAttributes(ret, complexType.attributeUses,
+                          complexType.attributeWildcard);
+      }
+    return ret;
+  }
+
+  void compileAttributes(CompiledType ret, Collection attributeUses,
+                         AnyAttribute attributeWildcard)
+  {
+    List uses = new ArrayList();
+    for (Iterator i = attributeUses.iterator(); i.hasNext(); )
+      {
+        AttributeUse use = (AttributeUse) i.next();
+        if (use.declaration != null && !use.prohibited)
+          {
+            uses.add(use);
+          }
+      }
+    int len = uses.size();
+    ret.attributeWildcard = attributeWildcard;
+    if (len == 0)
+      {
+        return;
+      }
+    ret.attributeCodes = new int[len];
+    ret.attributeUses = new AttributeUse[len];
+    ret.attributeConstraints = new int[len];
+    ret.attributeValues = new String[len];
+    ret.attributeWhitespace = new int[len];
+    ret.attributeInfos = new XMLSchemaAttributeTypeInfo[len];
+    ret.defaultInfos = new XMLSchemaAttributeTypeInfo[len];
+    for (int i = 0; i < len; i++)
+      {
+        AttributeUse use = (AttributeUse) uses.get(i);
+        AttributeDeclaration decl = use.declaration;
+        ret.attributeUses[i] = use;
+        ret.attributeCodes[i] = names.intern(decl.name.getNamespaceURI(),
+                                             decl.name.getLocalPart());
+        if (use.type != AttributeDeclaration.NONE)
+          {
+            ret.attributeConstraints[i] = use.type;
+            ret.attributeValues[i] = use.value;
+          }
+        else
+          {
+            ret.attributeConstraints[i] = decl.type;
+            ret.attributeValues[i] = decl.value;
+          }
+        ret.attributeWhitespace[i] = (decl.datatype == null) ?
+          CompiledType.WHITESPACE_PRESERVE :
+          CompiledType.getWhitespace(decl.datatype);
+        boolean id = isId(decl.datatype);
+        ret.attributeInfos[i] =
+          new XMLSchemaAttributeTypeInfo(schema, decl, true);
+        ret.attributeInfos[i].id = id;
+        ret.defaultInfos[i] =
+          new XMLSchemaAttributeTypeInfo(schema, decl, false);
+        ret.defaultInfos[i].id = id;
+        if (use.required ||
+            ret.attributeConstraints[i] != AttributeDeclaration.NONE)
+          {
+            ret.checkAbsent = true;
+          }
+      }
+  }
+
+  static boolean isId(SimpleType type)
+  {
+    for (SimpleType t = type; t != null; t = t.baseType)
+      {
+        if (t == Type.ID)
+          {
+            return true;
+          }
+        if (t == Type.ANY_SIMPLE_TYPE)
+          {
+            break;
+          }
+      }
+    return false;
+  }
+
+  /**
+   * Compiles the given particle into a content model.
+   */
+  ContentModel compileModel(Particle particle)
+  {
+    ContentModel ret = compileAll(particle);
+    if (ret != null)
+      {
+        return ret;
+      }
+    npos = 0;
+    wildcards.clear();
+    counterBounds.clear();
+    Fragment f = particle(particle);
+    // Columns
+    int[] codes = new int[npos];
+    int nnames = 0;
+    for (int i = 0; i < npos; i++)
+      {
+        if (posCodes[i] >= 0)
+          {
+            codes[nnames++] = posCodes[i];
+          }
+      }
+    Arrays.sort(codes, 0, nnames);
+    int nsymbols = 0;
+    for (int i = 0; i < nnames; i++)
+      {
+        if (i == 0 || codes[i] != codes[i - 1])
+          {
+            codes[nsymbols++] = codes[i];
+          }
+      }
+    int[] symbols = new int[nsymbols];
+    System.arraycopy(codes, 0, symbols, 0, nsymbols);
+    AnyElement[] colWildcards = (AnyElement[])
+      wildcards.toArray(new AnyElement[wildcards.size()]);
+    int ncols = nsymbols + colWildcards.length;
+    int[] posCols = new int[npos];
+    ElementDeclaration[] colDecls = new ElementDeclaration[nsymbols];
+    for (int i = 0; i < npos; i++)
+      {
+        if (posCodes[i] < 0)
+          {
+            posCols[i] = nsymbols - 1 - posCodes[i];
+            continue;
+          }
+        int col = Arrays.binarySearch(symbols, posCodes[i]);
+        posCols[i] = col;
+        if (colDecls[col] == null)
+          {
+            colDecls[col] = posDecls[i];
+          }
+      }
+    // Subset construction. Each state is the set of positions just
+    // matched; the start state is marked by the extra bit npos.
+    List states = new ArrayList();
+    Map index = new HashMap();
+    BitSet start = new BitSet();
+    start.set(npos);
+    states.add(start);
+    index.put(start, new Integer(0));
+    int[] next = new int[ncols * 4];
+    boolean[] accept = new boolean[4];
+    int[] counters = new int[4];
+    BitSet[] targets = new BitSet[ncols];
+    for (int s = 0; s < states.size(); s++)
+      {
+        BitSet state = (BitSet) states.get(s);
+        BitSet candidates;
+        if (s == 0)
+          {
+            candidates = f.first;
+            accept[s] = f.nullable;
+          }
+        else
+          {
+            candidates = new BitSet();
+            for (int p = state.nextSetBit(0); p >= 0;
+                 p = state.nextSetBit(p + 1))
+              {
+                candidates.or(follow[p]);
+              }
+            accept[s] = state.intersects(f.last);
+          }
+        counters[s] = -1;
+        for (int p = state.nextSetBit(0); p >= 0 && p < npos;
+             p = state.nextSetBit(p + 1))
+          {
+            if (posCounters[p] >= 0)
+              {
+                counters[s] = posCounters[p];
+                break;
+              }
+          }
+        Arrays.fill(targets, null);
+        for (int q = candidates.nextSetBit(0); q >= 0;
+             q = candidates.nextSetBit(q + 1))
+          {
+            int col = posCols[q];
+            if (targets[col] == null)
+              {
+                targets[col] = new BitSet();
+              }
+            targets[col].set(q);
+          }
+        for (int col = 0; col < ncols; col++)
+          {
+            int target = -1;
+            if (targets[col] != null)
+              {
+                Integer t = (Integer) index.get(targets[col]);
+                if (t == null)
+                  {
+                    t = new Integer(states.size());
+                    states.add(targets[col]);
+                    index.put(targets[col], t);
+                    if (states.size() > accept.length)
+                      {
+                        boolean[] newAccept = new boolean[accept.length * 2];
+                        System.arraycopy(accept, 0, newAccept, 0,
+                                         accept.length);
+                        accept = newAccept;
+                        int[] newNext = new int[next.length * 2];
+                        System.arraycopy(next, 0, newNext, 0, next.length);
+                        next = newNext;
+                        int[] newCounters = new int[counters.length * 2];
+                        System.arraycopy(counters, 0, newCounters, 0,
+                                         counters.length);
+                        counters = newCounters;
+                      }
+                  }
+                target = t.intValue();
+              }
+            next[s * ncols + col] = target;
+          }
+      }
+    int nstates = states.size();
+    if (accept.length != nstates)
+      {
+        boolean[] newAccept = new boolean[nstates];
+        System.arraycopy(accept, 0, newAccept, 0, nstates);
+        accept = newAccept;
+        int[] newNext = new int[nstates * ncols];
+        System.arraycopy(next, 0, newNext, 0, newNext.length);
+        next = newNext;
+        int[] newCounters = new int[nstates];
+        System.arraycopy(counters, 0, newCounters, 0, nstates);
+        counters = newCounters;
+      }
+    CompiledElement[] colElements = new CompiledElement[nsymbols];
+    ret = new ContentModel(symbols, colElements, colWildcards, next, accept);
+    int ncounters = counterBounds.size();
+    if (ncounters > 0)
+      {
+        ret.counters = counters;
+        ret.minOccurs = new int[ncounters];
+        ret.maxOccurs = new int[ncounters];
+        for (int i = 0; i < ncounters; i++)
+          {
+            int[] bounds = (int[]) counterBounds.get(i);
+            ret.minOccurs[i] = bounds[0];
+            ret.maxOccurs[i] = bounds[1];
+          }
+      }
+    // Children are compiled last, since compiling them reuses the
+    // position tables.
+    for (int col = 0; col < nsymbols; col++)
+      {
+        if (colDecls[col] != null)
+          {
+            colElements[col] = compileElement(colDecls[col]);
+          }
+      }
+    return ret;
+  }
+
+  /**
+   * Compiles an all group into a bit mask model, or returns null if the
+   * particle is not a simple all group.
+   */
+  ContentModel compileAll(Particle particle)
+  {
+    if (!(particle.term instanceof ModelGroup))
+      {
+        return null;
+      }
+    ModelGroup group = (ModelGroup) particle.term;
+    int len = group.particles.size();
+    if (group.compositor != ModelGroup.ALL || len > 31)
+      {
+        return null;
+      }
+    // Each member has a column for each element that may appear in its
+    // place
+    List codes = new ArrayList();
+    List decls = new ArrayList();
+    List members = new ArrayList();
+    int mask = 0;
+    for (int i = 0; i < len; i++)
+      {
+        Particle member = (Particle) group.particles.get(i);
+        if (member.maxOccurs == null || member.maxOccurs.intValue() > 1)
+          {
+            return null;
+          }
+        Object term = member.term;
+        ElementDeclaration decl = getElementDeclaration(term);
+        List substitutes;
+        if (term instanceof QName && decl != null)
+          {
+            substitutes = getSubstitutes(decl);
+          }
+        else if (term instanceof ElementDeclaration)
+          {
+            substitutes = Collections.singletonList(decl);
+          }
+        else if (term instanceof QName)
+          {
+            substitutes = Collections.singletonList(term);
+          }
+        else
+          {
+            return null;
+          }
+        for (Iterator j = substitutes.iterator(); j.hasNext(); )
+          {
+            Object substitute = j.next();
+            QName name = (substitute instanceof QName) ? (QName) substitute :
+              ((ElementDeclaration) substitute).name;
+            codes.add(new Integer(names.intern(name.getNamespaceURI(),
+                                               name.getLocalPart())));
+            decls.add((substitute instanceof ElementDeclaration) ?
+                      substitute : null);
+            members.add(new Integer(i));
+          }
+        if (member.minOccurs == null || member.minOccurs.intValue() > 0)
+          {
+            mask |= 1 << i;
+          }
+      }
+    // Sort columns by code, keeping declarations and members in step
+    int ncols = codes.size();
+    Integer[] order = new Integer[ncols];
+    for (int i = 0; i < ncols; i++)
+      {
+        order[i] = new Integer(i);
+      }
+    final List sortCodes = codes;
+    Arrays.sort(order, new Comparator()
+      {
+        public int compare(Object o1, Object o2)
+        {
+          Integer c1 = (Integer) sortCodes.get(((Integer) o1).intValue());
+          Integer c2 = (Integer) sortCodes.get(((Integer) o2).intValue());
+          return c1.compareTo(c2);
+        }
+      });
+    int[] symbols = new int[ncols];
+    int[] colMembers = new int[ncols];
+    ElementDeclaration[] colDecls = new ElementDeclaration[ncols];
+    for (int i = 0; i < ncols; i++)
+      {
+        int j = order[i].intValue();
+        symbols[i] = ((Integer) codes.get(j)).intValue();
+        colMembers[i] = ((Integer) members.get(j)).intValue();
+        colDecls[i] = (ElementDeclaration) decls.get(j);
+        if (i > 0 && symbols[i] == symbols[i - 1])
+          {
+            // The same element in two members violates Unique Particle
+            // Attribution
+            return null;
+          }
+      }
+    boolean optional = particle.minOccurs != null &&
+      particle.minOccurs.intValue() == 0;
+    CompiledElement[] colElements = new CompiledElement[ncols];
+    ContentModel ret = new ContentModel(symbols, colElements, colMembers,
+                                        mask, optional);
+    for (int i = 0; i < ncols; i++)
+      {
+        if (colDecls[i] != null)
+          {
+            colElements[i] = compileElement(colDecls[i]);
+          }
+      }
+    return ret;
+  }
+
+  /**
+   * Returns the element declarations that may appear in place of the
+   * given global element declaration: the declaration itself, and the
+   * members of its substitution group, directly or transitively, whose
+   * type derivation the head does not block.
+   */
+  List getSubstitutes(ElementDeclaration head)
+  {
+    List ret = new ArrayList();
+    ret.add(head);
+    int exclusions = head.substitutionGroupExclusions;
+    if ((exclusions & XMLSchema.BLOCK_SUBSTITUTION) != 0)
+      {
+        return ret;
+      }
+    Type headType = schema.resolveType(head);
+    int blocked = exclusions;
+    if (headType instanceof ComplexType)
+      {
+        blocked |= ((ComplexType) headType).prohibitedSubstitutions;
+      }
+    blocked &= XMLSchema.BLOCK_EXTENSION | XMLSchema.BLOCK_RESTRICTION;
+    List candidates = new ArrayList();
+    candidates.add(head);
+    for (int i = 0; i < candidates.size(); i++)
+      {
+        ElementDeclaration decl = (ElementDeclaration) candidates.get(i);
+        List members = (List) schema.substitutionGroups.get(decl.name);
+        if (members == null)
+          {
+            continue;
+          }
+        for (Iterator j = members.iterator(); j.hasNext(); )
+          {
+            ElementDeclaration member = (ElementDeclaration) j.next();
+            if (candidates.contains(member))
+              {
+                continue;
+              }
+            candidates.add(member);
+            if (schema.isDerived(schema.resolveType(member), headType,
+                                 blocked))
+              {
+                ret.add(member);
+              }
+          }
+      }
+    return ret;
+  }
+
+  ElementDeclaration getElementDeclaration(Object term)
+  {
+    if (term instanceof QName)
+      {
+        return (ElementDeclaration) schema.elementDeclarations.get(term);
+      }
+    if (term instanceof ElementDeclaration)
+      {
+        return (ElementDeclaration) term;
+      }
+    return null;
+  }
+
+  Fragment particle(Particle particle)
+  {
+    int min = (particle.minOccurs == null) ? 1 :
+      particle.minOccurs.intValue();
+    int max = (particle.maxOccurs == null) ? -1 :
+      particle.maxOccurs.intValue();
+    if (min == 1 && max == 1)
+      {
+        return term(particle.term);
+      }
+    if ((max > MAX_UNROLL || (max < 0 && min > MAX_UNROLL)) &&
+        repeatDepth == 0 && isSingle(particle.term))
+      {
+        // One position, repeated while the counter is within bounds
+        Fragment f = term(particle.term);
+        int pos = npos - 1;
+        follow[pos].set(pos);
+        posCounters[pos] = counterBounds.size();
+        counterBounds.add(new int[] { min, max });
+        f.nullable = (min == 0);
+        return f;
+      }
+    repeatDepth++;
+    Fragment ret = new Fragment(true);
+    for (int i = 0; i < min; i++)
+      {
+        ret = sequence(ret, term(particle.term));
+      }
+    if (max < 0)
+      {
+        Fragment f = term(particle.term);
+        repeat(f);
+        ret = sequence(ret, f);
+      }
+    else if (max > min)
+      {
+        // The optional occurrences are nested, (t (t (t)?)?)?, so that
+        // each position is followed only by the next occurrence
+        Fragment tail = new Fragment(true);
+        for (int i = min; i < max; i++)
+          {
+            tail = sequence(term(particle.term), tail);
+            tail.nullable = true;
+          }
+        ret = sequence(ret, tail);
+      }
+    repeatDepth--;
+    return ret;
+  }
+
+  /**
+   * Indicates whether the given term is matched by a single position.
+   */
+  boolean isSingle(Object term)
+  {
+    if (term instanceof ModelGroup)
+      {
+        return false;
+      }
+    ElementDeclaration decl = getElementDeclaration(term);
+    return !(term instanceof QName) || decl == null ||
+      getSubstitutes(decl).size() == 1;
+  }
+
+  Fragment term(Object term)
+  {
+    if (term instanceof ModelGroup)
+      {
+        ModelGroup group = (ModelGroup) term;
+        Fragment ret = new Fragment(group.compositor == ModelGroup.SEQUENCE);
+        for (Iterator i = group.particles.iterator(); i.hasNext(); )
+          {
+            Fragment f = particle((Particle) i.next());
+            if (group.compositor == ModelGroup.SEQUENCE)
+              {
+                ret = sequence(ret, f);
+              }
+            else
+              {
+                ret = choice(ret, f);
+              }
+          }
+        if (group.compositor == ModelGroup.ALL)
+          {
+            // Nested all groups are approximated as (a | b | ...)*
+            repeat(ret);
+          }
+        return ret;
+      }
+    ElementDeclaration decl = getElementDeclaration(term);
+    if (term instanceof QName && decl != null)
+      {
+        List substitutes = getSubstitutes(decl);
+        if (substitutes.size() > 1)
+          {
+            Fragment ret = new Fragment(false);
+            for (Iterator i = substitutes.iterator(); i.hasNext(); )
+              {
+                ret = choice(ret, position((ElementDeclaration) i.next()));
+              }
+            return ret;
+          }
+      }
+    QName name = (term instanceof QName) ? (QName) term :
+      (decl != null) ? decl.name : null;
+    int code;
+    if (name != null)
+      {
+        code = names.intern(name.getNamespaceURI(), name.getLocalPart());
+      }
+    else if (term instanceof AnyElement)
+      {
+        int index = wildcards.indexOf(term);
+        if (index < 0)
+          {
+            index = wildcards.size();
+            wildcards.add(term);
+          }
+        code = -1 - index;
+      }
+    else
+      {
+        return new Fragment(true);
+      }
+    return position(code, decl);
+  }
+
+  /**
+   * Returns a fragment matching the given global element declaration.
+   */
+  Fragment position(ElementDeclaration decl)
+  {
+    QName name = decl.name;
+    return position(names.intern(name.getNamespaceURI(),
+                                 name.getLocalPart()), decl);
+  }
+
+  /**
+   * Returns a fragment for a new position.
+   */
+  Fragment position(int code, ElementDeclaration decl)
+  {
+    if (npos == posCodes.length)
+      {
+        int[] newCodes = new int[npos * 2];
+        System.arraycopy(posCodes, 0, newCodes, 0, npos);
+        posCodes = newCodes;
+        ElementDeclaration[] newDecls = new ElementDeclaration[npos * 2];
+        System.arraycopy(posDecls, 0, newDecls, 0, npos);
+        posDecls = newDecls;
+        BitSet[] newFollow = new BitSet[npos * 2];
+        System.arraycopy(follow, 0, newFollow, 0, npos);
+        follow = newFollow;
+        int[] newCounters = new int[npos * 2];
+        System.arraycopy(posCounters, 0, newCounters, 0, npos);
+        posCounters = newCounters;
+      }
+    int pos = npos++;
+    posCodes[pos] = code;
+    posDecls[pos] = decl;
+    posCounters[pos] = -1;
+    follow[pos] = new BitSet();
+    Fragment ret = new Fragment(false);
+    ret.first.set(pos);
+    ret.last.set(pos);
+    return ret;
+  }
+
+  Fragment sequence(Fragment a, Fragment b)
+  {
+    for (int p = a.last.nextSetBit(0); p >= 0; p = a.last.nextSetBit(p + 1))
+      {
+        follow[p].or(b.first);
+      }
+    if (a.nullable)
+      {
+        a.first.or(b.first);
+      }
+    if (b.nullable)
+      {
+        b.last.or(a.last);
+      }
+    a.last = b.last;
+    a.nullable = a.nullable && b.nullable;
+    return a;
+  }
+
+  Fragment choice(Fragment a, Fragment b)
+  {
+    a.first.or(b.first);
+    a.last.or(b.last);
+    a.nullable = a.nullable || b.nullable;
+    return a;
+  }
+
+  void repeat(Fragment f)
+  {
+    for (int p = f.last.nextSetBit(0); p >= 0; p = f.last.nextSetBit(p + 1))
+      {
+        follow[p].or(f.first);
+      }
+    f.nullable = true;
+  }
+
+  /**
+   * The first and last positions of a model fragment.
+   */
+  static final class Fragment
+  {
+
+    boolean nullable;
+    BitSet first;
+    BitSet last;
+
+    Fragment(boolean nullable)
+    {
+      this.nullable = nullable;
+      first = new BitSet();
+      last = new BitSet();
+    }
+
+  }
+
+}
@@ -28,12 +28,12 @@ final class XMLSchemaElementTypeInfo
 
   public String getTypeName()
   {
-    return type.name.getLocalPart();
+    return (type.name == null) ? null : type.name.getLocalPart();
   }
 
   public String getTypeNamespace()
   {
-    return type.name.getNamespaceURI();
+    return (type.name == null) ? null : type.name.getNamespaceURI();
   }
 
   public boolean isDerivedFrom(String typeNamespace, String typeName,
@@ -0,0 +1,180 @@
+package gnu.xml.validation.xmlschema;
+
+import gnu.xml.util.GrammarPool;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * JAXP schema factory for W3C XML Schema.
+ * Each schema is read from a single schema document; include, import
+ * and redefine are not supported. Schemas read from a source with an
+ * absolute system ID are kept in the process-wide grammar pool, and
+ * reused while the schema document is unchanged.
+ *
+ * @author <a href='mailto:dog@gnu.org'>Chris Burdess</a>
+ */
+public class XMLSchemaSchemaFactory
+  extends SchemaFactory
+{
+
+  ErrorHandler errorHandler;
+  LSResourceResolver resourceResolver;
+
+  public boolean isSchemaLanguageSupported(String schemaLanguage)
+  {
+    return XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(schemaLanguage);
+  }
+
+  public ErrorHandler getErrorHandler()
+  {
+    return errorHandler;
+  }
+
+  public void setErrorHandler(ErrorHandler errorHandler)
+  {
+    this.errorHandler = errorHandler;
+  }
+
+  public LSResourceResolver getResourceResolver()
+  {
+    return resourceResolver;
+  }
+
+  public void setResourceResolver(LSResourceResolver resourceResolver)
+  {
+    this.resourceResolver = resourceResolver;
+  }
+
+  public Schema newSchema()
+    throws SAXException
+  {
+    throw new UnsupportedOperationException("schema location hints are " +
+                                            "not supported");
+  }
+
+  public Schema newSchema(Source[] schemata)
+    throws SAXException
+  {
+    if (schemata == null || schemata.length != 1)
+      {
+        throw new IllegalArgumentException("must specify one source");
+      }
+    Source source = schemata[0];
+    String systemId = getSystemId(source);
+    GrammarPool pool = GrammarPool.getInstance();
+    if (systemId != null)
+      {
+        Schema schema = (Schema)
+          pool.get(XMLConstants.W3C_XML_SCHEMA_NS_URI, systemId);
+        if (schema != null)
+          {
+            return schema;
+          }
+      }
+    Node node;
+    if (source instanceof DOMSource)
+      {
+        node = ((DOMSource) source).getNode();
+      }
+    else if (source instanceof StreamSource || source instanceof SAXSource)
+      {
+        node = parse(SAXSource.sourceToInputSource(source));
+      }
+    else
+      {
+        throw new IllegalArgumentException("unsupported source: " + source);
+      }
+    if (node instanceof Document)
+      {
+        node = ((Document) node).getDocumentElement();
+      }
+    XMLSchemaBuilder builder = new XMLSchemaBuilder();
+    try
+      {
+        builder.parseSchema(node);
+      }
+    catch (SAXParseException e)
+      {
+        if (errorHandler != null)
+          {
+            errorHandler.fatalError(e);
+          }
+        throw e;
+      }
+    if (systemId != null)
+      {
+        pool.put(XMLConstants.W3C_XML_SCHEMA_NS_URI, systemId,
+                 builder.schema);
+      }
+    return builder.schema;
+  }
+
+  /**
+   * Returns the system ID of the given source if it is absolute, or
+   * null.
+   */
+  static String getSystemId(Source source)
+  {
+    String systemId = source.getSystemId();
+    if (systemId == null)
+      {
+        return null;
+      }
+    try
+      {
+        return new URI(systemId).isAbsolute() ? systemId : null;
+      }
+    catch (URISyntaxException e)
+      {
+        return null;
+      }
+  }
+
+  /**
+   * Parses a schema document.
+   */
+  Document parse(InputSource input)
+    throws SAXException
+  {
+    try
+      {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setExpandEntityReferences(true);
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        if (errorHandler != null)
+          {
+            builder.setErrorHandler(errorHandler);
+          }
+        return builder.parse(input);
+      }
+    catch (ParserConfigurationException e)
+      {
+        throw new SAXException(e);
+      }
+    catch (IOException e)
+      {
+        throw new SAXException(e);
+      }
+  }
+
+}
@@ -1,12 +1,22 @@
 package gnu.xml.validation.xmlschema;
 
 import java.io.IOException;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 import javax.xml.validation.Validator;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
 import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import gnu.xml.util.DomParser;
 
 /**
  * JAXP validator for an XML Schema.
@@ -21,6 +31,13 @@ final class XMLSchemaValidator
 
   ErrorHandler errorHandler;
   LSResourceResolver resourceResolver;
+
+  /**
+   * The parser and handler are kept between calls to validate, so
+   * that validating many documents does not create new ones each time.
+   */
+  XMLReader reader;
+  XMLSchemaValidatorHandler handler;
   
   XMLSchemaValidator(XMLSchema schema)
   {
@@ -29,12 +46,79 @@ final class XMLSchemaValidator
 
   public void reset()
   {
+    handler = null;
   }
 
+  /**
+   * Validates the given source as a stream of SAX events, without
+   * building a tree. A SAXResult receives the events, with defaulted
+   * attributes added; any other kind of result is not supported.
+   */
   public void validate(Source source, Result result)
     throws SAXException, IOException
   {
-    // TODO
+    ContentHandler out = null;
+    if (result instanceof SAXResult)
+      {
+        out = ((SAXResult) result).getHandler();
+      }
+    else if (result != null)
+      {
+        throw new IllegalArgumentException("unsupported result: " + result);
+      }
+    XMLReader parser;
+    InputSource input;
+    if (source instanceof DOMSource)
+      {
+        parser = new DomParser(((DOMSource) source).getNode());
+        input = new InputSource(source.getSystemId());
+      }
+    else if (source instanceof SAXSource || source instanceof StreamSource)
+      {
+        parser = (source instanceof SAXSource) ?
+          ((SAXSource) source).getXMLReader() : null;
+        if (parser == null)
+          {
+            parser = getReader();
+          }
+        input = SAXSource.sourceToInputSource(source);
+      }
+    else
+      {
+        throw new IllegalArgumentException("unsupported source: " + source);
+      }
+    if (handler == null)
+      {
+        handler = new XMLSchemaValidatorHandler(schema);
+      }
+    handler.setContentHandler(out);
+    handler.setErrorHandler(errorHandler);
+    handler.setResourceResolver(resourceResolver);
+    parser.setContentHandler(handler);
+    if (errorHandler != null)
+      {
+        parser.setErrorHandler(errorHandler);
+      }
+    parser.parse(input);
+  }
+
+  XMLReader getReader()
+    throws SAXException
+  {
+    if (reader == null)
+      {
+        try
+          {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            reader = factory.newSAXParser().getXMLReader();
+          }
+        catch (ParserConfigurationException e)
+          {
+            throw new SAXException(e);
+          }
+      }
+    return reader;
   }
 
   public ErrorHandler getErrorHandler()
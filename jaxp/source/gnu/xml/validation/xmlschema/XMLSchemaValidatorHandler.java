@@ -1,7 +1,6 @@
 package gnu.xml.validation.xmlschema;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.HashMap;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 import javax.xml.validation.TypeInfoProvider;
@@ -15,6 +14,7 @@ import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.ext.Attributes2Impl;
 import org.xml.sax.helpers.NamespaceSupport;
+import gnu.xml.validation.datatype.SimpleType;
 import gnu.xml.validation.datatype.Type;
 
 /**
@@ -33,16 +33,47 @@ final class XMLSchemaValidatorHandler
   ContentHandler contentHandler;
   ErrorHandler errorHandler;
   LSResourceResolver resourceResolver;
-  final LinkedList context; // element context
-  final ArrayList attributes; // attribute context;
+  boolean contextPushed;
+
+  // element context, indexed by depth. A null type means the element
+  // is not being validated.
+  int depth;
+  CompiledElement[] elements;
+  CompiledType[] types;
+  XMLSchemaElementTypeInfo[] typeInfos;
+  int[] states;
+  int[] counts;
+
+  // simple content of the current element
+  final StringBuffer text;
+  final StringBuffer buf;
+
+  // attribute context of the current element
+  final Attributes2Impl atts2;
+  final XMLSchemaAttributeTypeInfo undeclared;
+  XMLSchemaAttributeTypeInfo[] attributeInfos;
+  int attributeCount;
+
+  // last namespace looked up in the name table
+  String lastUri;
+  HashMap lastLocalNames;
 
   XMLSchemaValidatorHandler(XMLSchema schema)
   {
     this.schema = schema;
+    schema.compile();
     typeInfoProvider = new XMLSchemaTypeInfoProvider(this);
     namespaceSupport = new NamespaceSupport();
-    context = new LinkedList();
-    attributes = new ArrayList();
+    elements = new CompiledElement[16];
+    types = new CompiledType[16];
+    typeInfos = new XMLSchemaElementTypeInfo[16];
+    states = new int[16];
+    counts = new int[16];
+    text = new StringBuffer();
+    buf = new StringBuffer();
+    atts2 = new Attributes2Impl();
+    undeclared = new XMLSchemaAttributeTypeInfo(schema, null, true);
+    attributeInfos = new XMLSchemaAttributeTypeInfo[8];
   }
 
   public ContentHandler getContentHandler()
@@ -82,26 +113,22 @@ final class XMLSchemaValidatorHandler
 
   TypeInfo getElementTypeInfo()
   {
-    return (XMLSchemaElementTypeInfo) context.getFirst();
+    return (depth == 0) ? null : typeInfos[depth - 1];
   }
 
   TypeInfo getAttributeTypeInfo(int index)
   {
-    return (XMLSchemaAttributeTypeInfo) attributes.get(index);
+    return (index < attributeCount) ? attributeInfos[index] : null;
   }
 
   boolean isIdAttribute(int index)
   {
-    XMLSchemaAttributeTypeInfo typeInfo =
-      (XMLSchemaAttributeTypeInfo) attributes.get(index);
-    return typeInfo.id;
+    return (index < attributeCount) ? attributeInfos[index].id : false;
   }
 
   boolean isSpecified(int index)
   {
-    XMLSchemaAttributeTypeInfo typeInfo =
-      (XMLSchemaAttributeTypeInfo) attributes.get(index);
-    return typeInfo.specified;
+    return (index < attributeCount) ? attributeInfos[index].specified : true;
   }
 
   public void setDocumentLocator(Locator locator)
@@ -117,8 +144,15 @@ final class XMLSchemaValidatorHandler
     throws SAXException
   {
     namespaceSupport.reset();
-    context.clear();
-    attributes.clear();
+    contextPushed = false;
+    for (int i = 0; i < depth; i++)
+      {
+        elements[i] = null;
+        types[i] = null;
+        typeInfos[i] = null;
+      }
+    depth = 0;
+    attributeCount = 0;
     if (contentHandler != null)
       {
         contentHandler.startDocument();
@@ -137,6 +171,12 @@ final class XMLSchemaValidatorHandler
   public void startPrefixMapping(String prefix, String uri)
     throws SAXException
   {
+    // Declarations belong to the context of the element that follows
+    if (!contextPushed)
+      {
+        namespaceSupport.pushContext();
+        contextPushed = true;
+      }
     namespaceSupport.declarePrefix(prefix, uri);
     if (contentHandler != null)
       {
@@ -157,139 +197,470 @@ final class XMLSchemaValidatorHandler
                            Attributes atts)
     throws SAXException
   {
-    namespaceSupport.pushContext();
-    QName name = new QName(uri, localName);
-    ElementDeclaration decl =
-      (ElementDeclaration) schema.elementDeclarations.get(name);
-    // Validation Rule: Element Locally Valid (Element)
-    String xsiType =
-      atts.getValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "type");
-    xsiType = xsiType.trim(); // normalise
-    String xsiNil =
-      atts.getValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "nil");
-    Type type = decl.datatype;
-    if (xsiType.length() > 0)
-      {
-        Type specifiedType = resolveType(xsiType);
-        if (specifiedType == null) // 4.1, 4.2
-          {
-            throw new ValidationException("Can't resolve type " + xsiType,
-                                          loc);
-          }
-        //  TODO 4.3
-        type = specifiedType;
+    if (!contextPushed)
+      {
+        namespaceSupport.pushContext();
       }
-    XMLSchemaElementTypeInfo typeInfo =
-      new XMLSchemaElementTypeInfo(schema, decl, type);
-    if (decl == null) // 1
+    contextPushed = false;
+    if (uri == null)
       {
-        throw new ValidationException("No declaration for " + name, loc);
+        uri = "";
       }
-    if (decl.isAbstract) // 2
+    if (depth == elements.length)
       {
-        throw new ValidationException("Declaration for " + name +
-                                      " is abstract", loc);
+        grow();
       }
-    if (xsiNil.length() > 0)
+    int code = getCode(uri, localName);
+    CompiledElement element = null;
+    if (depth == 0)
       {
-        if (!decl.nillable) // 3.1
+        element = (code < 0) ? null : schema.globalElements[code];
+        if (element == null) // Element Locally Valid (Element) 1
           {
-            throw new ValidationException("Declaration for " + name +
-                                          " is nillable but xsi:nil present",
-                                          loc);
+            error("No declaration for " + qName);
           }
-        else if ("true".equals(xsiNil)) // 3.2
+      }
+    else if (types[depth - 1] != null)
+      {
+        int parent = depth - 1;
+        CompiledType parentType = types[parent];
+        if (typeInfos[parent].nil) // Element Locally Valid (Element) 3.2.1
+          {
+            error("Parent of " + qName + " is declared xsi:nil");
+          }
+        else
           {
-            typeInfo.nil = true;
-            if (decl.type == XMLSchema.CONSTRAINT_FIXED) // 3.2.2
+            switch (parentType.contentType)
               {
-                throw new ValidationException("Declaration for " + name +
-                                              " is fixed but xsi:nil is true",
-                                              loc);
+              case CompiledType.CONTENT_ANY:
+                // Lax: validate children that have global declarations
+                element = (code < 0) ? null : schema.globalElements[code];
+                break;
+              case XMLSchema.CONTENT_EMPTY:
+              case XMLSchema.CONTENT_SIMPLE:
+                error("Element " + qName + " not allowed in content of " +
+                      elements[parent].decl.name);
+                break;
+              default:
+                int state = states[parent];
+                if (state >= 0)
+                  {
+                    ContentModel model = parentType.model;
+                    int col = (code < 0) ? -1 : model.column(code);
+                    int next = (col < 0) ? -1 : model.next(state, col);
+                    if (next < 0 && model.wildcards.length > 0)
+                      {
+                        col = model.wildcardColumn(state, uri);
+                        next = (col < 0) ? -1 : model.next(state, col);
+                      }
+                    if (next >= 0 && model.counters != null)
+                      {
+                        int count = model.count(state, next, counts[parent]);
+                        counts[parent] = count;
+                        if (count < 0)
+                          {
+                            next = -1;
+                          }
+                      }
+                    states[parent] = next;
+                    if (next < 0) // Element Locally Valid (Complex Type) 2.4
+                      {
+                        error("Element " + qName + " not allowed here in " +
+                              "content of " + elements[parent].decl.name);
+                      }
+                    else if (col < model.elements.length)
+                      {
+                        element = model.elements[col];
+                      }
+                    else
+                      {
+                        element = matchWildcard(model, col, code, qName);
+                      }
+                  }
               }
           }
       }
-    // TODO 5, 6, 7
-    
-    // parent
-    if (!context.isEmpty())
+    CompiledType type = null;
+    XMLSchemaElementTypeInfo typeInfo = null;
+    if (element != null)
       {
-        XMLSchemaElementTypeInfo parent =
-          (XMLSchemaElementTypeInfo) context.getFirst();
-        if (parent.nil) // Element Locally Valid (Element) 3.2.1
+        ElementDeclaration decl = element.decl;
+        type = element.type;
+        typeInfo = element.typeInfo;
+        if (decl.isAbstract) // 2
           {
-            throw new ValidationException("Parent of " + qName +
-                                          " is declared xsi:nil", loc);
+            error("Declaration for " + decl.name + " is abstract");
           }
-        // TODO
+        // Validation Rule: Element Locally Valid (Element)
+        String xsiType =
+          atts.getValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "type");
+        if (xsiType != null)
+          {
+            xsiType = xsiType.trim(); // normalise
+            Type specifiedType = resolveType(xsiType);
+            CompiledType specified = (specifiedType == null) ? null :
+              schema.getCompiledType(specifiedType);
+            if (specified == null) // 4.1, 4.2
+              {
+                error("Can't resolve type " + xsiType);
+              }
+            else
+              {
+                Type declared = schema.resolveType(decl);
+                int blocked = decl.substitutionGroupExclusions;
+                if (declared instanceof ComplexType)
+                  {
+                    blocked |= ((ComplexType) declared).prohibitedSubstitutions;
+                  }
+                blocked &= XMLSchema.BLOCK_EXTENSION |
+                  XMLSchema.BLOCK_RESTRICTION;
+                if (!schema.isDerived(specifiedType, declared, blocked)) // 4.3
+                  {
+                    error("Type " + xsiType + " is not validly derived " +
+                          "from the type of " + decl.name);
+                  }
+                type = specified;
+                typeInfo = new XMLSchemaElementTypeInfo(schema, decl,
+                                                        specifiedType);
+              }
+          }
+        if (type.isAbstract) // Schema-Validity Assessment (Element) 1.2
+          {
+            error("Type of " + decl.name + " is abstract");
+          }
+        String xsiNil =
+          atts.getValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "nil");
+        if (xsiNil != null)
+          {
+            xsiNil = xsiNil.trim();
+            boolean nil = "true".equals(xsiNil) || "1".equals(xsiNil);
+            if (!nil && !"false".equals(xsiNil) && !"0".equals(xsiNil))
+              {
+                error("Invalid xsi:nil value '" + xsiNil + "'");
+              }
+            else if (!decl.nillable) // 3.1
+              {
+                error("Declaration for " + decl.name +
+                      " is not nillable but xsi:nil present");
+              }
+            else if (nil) // 3.2
+              {
+                if (decl.type == XMLSchema.CONSTRAINT_FIXED) // 3.2.2
+                  {
+                    error("Declaration for " + decl.name +
+                          " is fixed but xsi:nil is true");
+                  }
+                if (typeInfo == element.typeInfo)
+                  {
+                    typeInfo = element.nilTypeInfo;
+                  }
+                else
+                  {
+                    typeInfo = new XMLSchemaElementTypeInfo(schema, decl,
+                                                            typeInfo.type);
+                    typeInfo.nil = true;
+                  }
+              }
+          }
+        // TODO 5, 6, 7
+      }
+    elements[depth] = element;
+    types[depth] = type;
+    typeInfos[depth] = typeInfo;
+    states[depth] = 0;
+    counts[depth] = 0;
+    depth++;
+    text.setLength(0);
+    attributeCount = 0;
+    Attributes out = atts;
+    if (type != null && type.contentType != CompiledType.CONTENT_ANY)
+      {
+        out = validateAttributes(element, type, atts);
       }
-    context.addFirst(typeInfo);
-    // attributes
+    if (contentHandler != null)
+      {
+        contentHandler.startElement(uri, localName, qName, out);
+      }
+  }
+
+  /**
+   * Returns the declaration used to validate an element matched by a
+   * wildcard, or null if the element is not to be validated.
+   */
+  CompiledElement matchWildcard(ContentModel model, int col, int code,
+                                String qName)
+    throws SAXException
+  {
+    AnyElement wildcard = model.wildcards[col - model.elements.length];
+    if (wildcard.processContents == AnyElement.SKIP)
+      {
+        return null;
+      }
+    CompiledElement element = (code < 0) ? null :
+      schema.globalElements[code];
+    if (element == null && wildcard.processContents == AnyElement.STRICT)
+      {
+        error("No declaration for " + qName);
+      }
+    return element;
+  }
+
+  /**
+   * Validates the attributes of the current element.
+   * Returns the attributes to pass downstream, including any defaults.
+   */
+  Attributes validateAttributes(CompiledElement element, CompiledType type,
+                                Attributes atts)
+    throws SAXException
+  {
     int len = atts.getLength();
-    Attributes2Impl atts2 = new Attributes2Impl();
-    int count = 0;
+    int max = len + type.attributeCodes.length;
+    if (max > attributeInfos.length)
+      {
+        attributeInfos = new XMLSchemaAttributeTypeInfo[max];
+      }
+    long seen = 0L;
     for (int i = 0; i < len; i++)
       {
+        XMLSchemaAttributeTypeInfo info = undeclared;
         String attUri = atts.getURI(i);
-        String attLocalName = atts.getLocalName(i);
-        String attQName = atts.getQName(i);
-        String attValue = atts.getValue(i);
-
+        if (attUri == null)
+          {
+            attUri = "";
+          }
         if (XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(attUri))
           {
-            continue; // ?
+            String localName = atts.getLocalName(i);
+            if (!"type".equals(localName) && !"nil".equals(localName) &&
+                !"schemaLocation".equals(localName) &&
+                !"noNamespaceSchemaLocation".equals(localName))
+              {
+                error("Attribute " + atts.getQName(i) + " not allowed on " +
+                      element.decl.name);
+              }
+          }
+        else if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attUri) ||
+                 (attUri.length() == 0 &&
+                  atts.getQName(i).startsWith("xmlns")))
+          {
+            // not validated
+          }
+        else
+          {
+            int code = getCode(attUri, atts.getLocalName(i));
+            int k = (code < 0) ? -1 : type.attribute(code);
+            if (k < 0)
+              {
+                AnyAttribute wildcard = type.attributeWildcard;
+                if (wildcard == null || !wildcard.allows(attUri))
+                  {
+                    // Complex Type 3
+                    error("Attribute " + atts.getQName(i) +
+                          " not allowed on " + element.decl.name);
+                  }
+                else if (wildcard.processContents != AnyAttribute.SKIP)
+                  {
+                    // Validate against a global declaration, if any
+                    CompiledType globals = schema.globalAttributes;
+                    int g = (code < 0) ? -1 : globals.attribute(code);
+                    if (g >= 0)
+                      {
+                        info = globals.attributeInfos[g];
+                        validateAttribute(globals, g, atts.getQName(i),
+                                          atts.getValue(i));
+                      }
+                    else if (wildcard.processContents == AnyAttribute.STRICT)
+                      {
+                        error("No declaration for attribute " +
+                              atts.getQName(i));
+                      }
+                  }
+              }
+            else
+              {
+                info = type.attributeInfos[k];
+                if (k < 64)
+                  {
+                    seen |= 1L << k;
+                  }
+                validateAttribute(type, k, atts.getQName(i),
+                                  atts.getValue(i));
+              }
+          }
+        attributeInfos[i] = info;
+      }
+    attributeCount = len;
+    if (!type.checkAbsent)
+      {
+        return atts;
+      }
+    Attributes ret = atts;
+    for (int k = 0; k < type.attributeCodes.length; k++)
+      {
+        QName name = type.attributeUses[k].declaration.name;
+        boolean present = (k < 64) ? (seen & (1L << k)) != 0 :
+          atts.getIndex(name.getNamespaceURI(), name.getLocalPart()) >= 0;
+        if (present)
+          {
+            continue;
           }
+        if (type.attributeUses[k].required) // Complex Type 4
+          {
+            error("Missing required attribute " + name + " on " +
+                  element.decl.name);
+          }
+        else if (type.attributeConstraints[k] != AttributeDeclaration.NONE &&
+                 contentHandler != null)
+          {
+            // add defaulted attribute
+            if (ret == atts)
+              {
+                atts2.setAttributes(atts);
+                ret = atts2;
+              }
+            String attUri = name.getNamespaceURI();
+            String attLocalName = name.getLocalPart();
+            String attQName = attLocalName;
+            if (attUri.length() > 0)
+              {
+                String prefix = namespaceSupport.getPrefix(attUri);
+                if (prefix != null)
+                  {
+                    attQName = prefix + ':' + attLocalName;
+                  }
+              }
+            XMLSchemaAttributeTypeInfo info = type.defaultInfos[k];
+            atts2.addAttribute(attUri, attLocalName, attQName,
+                               info.id ? "ID" : "CDATA",
+                               type.attributeValues[k]);
+            atts2.setSpecified(attributeCount, false);
+            atts2.setDeclared(attributeCount, true);
+            attributeInfos[attributeCount++] = info;
+          }
+      }
+    return ret;
+  }
 
-        QName attName = new QName(attUri, attLocalName);
-        AttributeDeclaration attDecl =
-          (AttributeDeclaration) schema.attributeDeclarations.get(attName);
-        boolean declared = (attDecl != null);
-
-        String attType = (attDecl != null) ?
-          attDecl.datatype.toString() : "CDATA";
-        XMLSchemaAttributeTypeInfo attTypeInfo =
-          new XMLSchemaAttributeTypeInfo(schema, attDecl, true);
-        attributes.add(attTypeInfo);
-        
-        atts2.addAttribute(attUri, attLocalName, attQName, attType, attValue);
-        atts2.setDeclared(count, declared);
-        atts2.setSpecified(count, true);
-        count++;
-      }
-    // add defaulted attributes to atts2
-    // TODO
-    // atts2.setSpecified(count, false);
-    if (contentHandler != null)
+  void validateAttribute(CompiledType type, int index, String qName,
+                         String value)
+    throws SAXException
+  {
+    SimpleType datatype = type.attributeInfos[index].type;
+    boolean fixed =
+      type.attributeConstraints[index] == AttributeDeclaration.FIXED;
+    if (datatype == null && !fixed)
+      {
+        return;
+      }
+    CharSequence normalized =
+      normalize(value, type.attributeWhitespace[index]);
+    if (datatype != null && !datatype.matches(normalized))
       {
-        contentHandler.startElement(uri, localName, qName, atts2);
+        error("Invalid value '" + normalized + "' for attribute " + qName);
+      }
+    else if (fixed &&
+             !SimpleType.contentEquals(normalized,
+                                       type.attributeValues[index]))
+      {
+        error("Attribute " + qName + " must have the fixed value '" +
+              type.attributeValues[index] + "'");
       }
   }
 
   public void endElement(String uri, String localName, String qName)
     throws SAXException
   {
-    // TODO check all required have been seen
-    context.removeFirst();
-    attributes.clear();
-    namespaceSupport.popContext();
+    int current = depth - 1;
+    CompiledType type = types[current];
+    if (type != null && !typeInfos[current].nil)
+      {
+        switch (type.contentType)
+          {
+          case XMLSchema.CONTENT_SIMPLE:
+            validateSimpleContent(elements[current], type);
+            break;
+          case XMLSchema.CONTENT_MIXED:
+          case XMLSchema.CONTENT_ELEMENT_ONLY:
+            int state = states[current];
+            if (state >= 0 && !type.model.accepts(state, counts[current]))
+              {
+                error("Content of " + elements[current].decl.name +
+                      " is incomplete");
+              }
+            break;
+          }
+      }
+    attributeCount = 0;
     if (contentHandler != null)
       {
         contentHandler.endElement(uri, localName, qName);
       }
+    elements[current] = null;
+    types[current] = null;
+    typeInfos[current] = null;
+    depth = current;
+    namespaceSupport.popContext();
+  }
+
+  void validateSimpleContent(CompiledElement element, CompiledType type)
+    throws SAXException
+  {
+    ElementDeclaration decl = element.decl;
+    String fixed = null;
+    if (decl.type == XMLSchema.CONSTRAINT_FIXED)
+      {
+        fixed = normalize(decl.value, type.whitespace).toString();
+      }
+    // The content is checked in place, without copying it to a string
+    CharSequence value = text;
+    if (value.length() == 0 && decl.value != null)
+      {
+        value = decl.value; // default
+      }
+    value = normalize(value, type.whitespace);
+    if (!type.simpleType.matches(value))
+      {
+        error("Invalid value '" + value + "' for element " + decl.name);
+      }
+    else if (fixed != null && !SimpleType.contentEquals(value, fixed))
+      {
+        error("Element " + decl.name + " must have the fixed value '" +
+              decl.value + "'");
+      }
   }
 
   public void characters(char[] ch, int start, int length)
     throws SAXException
   {
-    XMLSchemaElementTypeInfo parent =
-      (XMLSchemaElementTypeInfo) context.getFirst();
-    if (parent.nil) // Element Locally Valid (Element) 3.2.1
+    CompiledType type = (depth == 0) ? null : types[depth - 1];
+    if (type != null)
       {
-        throw new ValidationException(parent.decl.name.toString() +
-                                      " is declared xsi:nil",
-                                      loc);
+        if (typeInfos[depth - 1].nil) // Element Locally Valid (Element) 3.2.1
+          {
+            if (!isWhitespace(ch, start, length))
+              {
+                error(elements[depth - 1].decl.name + " is declared xsi:nil");
+              }
+          }
+        else
+          {
+            switch (type.contentType)
+              {
+              case XMLSchema.CONTENT_SIMPLE:
+                text.append(ch, start, length);
+                break;
+              case XMLSchema.CONTENT_EMPTY:
+              case XMLSchema.CONTENT_ELEMENT_ONLY:
+                // Element Locally Valid (Complex Type) 2.1, 2.3
+                if (!isWhitespace(ch, start, length))
+                  {
+                    error("Character content not allowed in " +
+                          elements[depth - 1].decl.name);
+                  }
+                break;
+              }
+          }
       }
-    // TODO
     if (contentHandler != null)
       {
         contentHandler.characters(ch, start, length);
@@ -323,23 +694,158 @@ final class XMLSchemaValidatorHandler
       }
   }
 
-  Type resolveType(String value)
+  /**
+   * Reports a validation error to the error handler.
+   * If there is no error handler the error is thrown.
+   */
+  void error(String message)
+    throws SAXException
   {
-    QName name = QName.valueOf(value);
-    String prefix = name.getPrefix();
-    if (prefix != null && prefix.length() > 0)
+    ValidationException e = new ValidationException(message, loc);
+    if (errorHandler == null)
       {
-        String uri = namespaceSupport.getURI(prefix);
-        name = new QName(uri, name.getLocalPart());
+        throw e;
       }
-    Type ret = (Type) schema.types.get(name);
-    if (ret == null &&
-        XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(name.getNamespaceURI()))
+    errorHandler.error(e);
+  }
+
+  /**
+   * Returns the name code for the given expanded name, or -1.
+   */
+  int getCode(String uri, String localName)
+  {
+    if (uri != lastUri && !uri.equals(lastUri))
       {
-        ret = Type.forName(name.getLocalPart());
+        lastUri = uri;
+        lastLocalNames = schema.names.getLocalNames(uri);
       }
-    return ret;
+    return NameTable.lookup(lastLocalNames, localName);
+  }
+
+  void grow()
+  {
+    int len = elements.length * 2;
+    CompiledElement[] newElements = new CompiledElement[len];
+    System.arraycopy(elements, 0, newElements, 0, depth);
+    elements = newElements;
+    CompiledType[] newTypes = new CompiledType[len];
+    System.arraycopy(types, 0, newTypes, 0, depth);
+    types = newTypes;
+    XMLSchemaElementTypeInfo[] newTypeInfos =
+      new XMLSchemaElementTypeInfo[len];
+    System.arraycopy(typeInfos, 0, newTypeInfos, 0, depth);
+    typeInfos = newTypeInfos;
+    int[] newStates = new int[len];
+    System.arraycopy(states, 0, newStates, 0, depth);
+    states = newStates;
+    int[] newCounts = new int[len];
+    System.arraycopy(counts, 0, newCounts, 0, depth);
+    counts = newCounts;
+  }
+
+  /**
+   * Applies whitespace processing to a value.
+   * The result may be the shared buffer, which is only valid until the
+   * next call.
+   */
+  CharSequence normalize(CharSequence value, int whitespace)
+  {
+    int len = value.length();
+    if (whitespace == CompiledType.WHITESPACE_PRESERVE)
+      {
+        return value;
+      }
+    else if (whitespace == CompiledType.WHITESPACE_REPLACE)
+      {
+        int i = 0;
+        while (i < len && !isSpecialWhitespace(value.charAt(i)))
+          {
+            i++;
+          }
+        if (i == len)
+          {
+            return value;
+          }
+        buf.setLength(0);
+        for (i = 0; i < len; i++)
+          {
+            char c = value.charAt(i);
+            buf.append(isSpecialWhitespace(c) ? ' ' : c);
+          }
+        return buf;
+      }
+    boolean collapsed = true;
+    char last = ' ';
+    for (int i = 0; i < len && collapsed; i++)
+      {
+        char c = value.charAt(i);
+        collapsed = (c != ' ' || last != ' ') && !isSpecialWhitespace(c);
+        last = c;
+      }
+    if (collapsed && last != ' ')
+      {
+        return value;
+      }
+    buf.setLength(0);
+    boolean space = false;
+    for (int i = 0; i < len; i++)
+      {
+        char c = value.charAt(i);
+        if (c == ' ' || isSpecialWhitespace(c))
+          {
+            space = (buf.length() > 0);
+          }
+        else
+          {
+            if (space)
+              {
+                buf.append(' ');
+                space = false;
+              }
+            buf.append(c);
+          }
+      }
+    return buf;
+  }
+
+  private static boolean isSpecialWhitespace(char c)
+  {
+    return c == '\t' || c == '\n' || c == '\r';
+  }
+
+  static boolean isWhitespace(char[] ch, int start, int length)
+  {
+    int end = start + length;
+    for (int i = start; i < end; i++)
+      {
+        char c = ch[i];
+        if (c != ' ' && c != '\t' && c != '\n' && c != '\r')
+          {
+            return false;
+          }
+      }
+    return true;
+  }
+
+  /**
+   * Resolves an xsi:type value against the namespace declarations in
+   * scope. Returns null if the prefix is not declared or the type is not
+   * defined.
+   */
+  Type resolveType(String value)
+  {
+    int ci = value.indexOf(':');
+    String prefix = (ci < 0) ? "" : value.substring(0, ci);
+    String uri = namespaceSupport.getURI(prefix);
+    if (uri == null)
+      {
+        if (ci >= 0)
+          {
+            return null;
+          }
+        uri = "";
+      }
+    return schema.getType(new QName(uri, value.substring(ci + 1)));
   }
   
 }
-
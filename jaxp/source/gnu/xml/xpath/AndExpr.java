@@ -38,6 +38,7 @@ exception statement from your version. */
 package gnu.xml.xpath;
 
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -60,13 +61,19 @@ public final class AndExpr
 
   public Object evaluate(Node context, int pos, int len)
   {
-    Object left = lhs.evaluate(context, pos, len);
-    if (!_boolean(context, left))
-      {
-        return Boolean.FALSE;
-      }
-    Object right = rhs.evaluate(context, pos, len);
-    return _boolean(context, right) ? Boolean.TRUE : Boolean.FALSE;
+    return evaluateBoolean(context, pos, len) ? Boolean.TRUE :
+      Boolean.FALSE;
+  }
+
+  public boolean evaluateBoolean(Node context, int pos, int len)
+  {
+    return (lhs.evaluateBoolean(context, pos, len) &&
+            rhs.evaluateBoolean(context, pos, len));
+  }
+
+  public QName getResultType()
+  {
+    return XPathConstants.BOOLEAN;
   }
 
   public Expr clone(Object context)
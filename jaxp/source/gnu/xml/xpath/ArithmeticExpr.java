@@ -38,6 +38,7 @@ exception statement from your version. */
 package gnu.xml.xpath;
 
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -79,40 +80,47 @@ final class ArithmeticExpr
 
   public Object evaluate(Node context, int pos, int len)
   {
-    Object left = lhs.evaluate(context, pos, len);
-    Object right = rhs.evaluate(context, pos, len);
+    return new Double(evaluateNumber(context, pos, len));
+  }
 
-    double ln = _number(context, left);
-    double rn = _number(context, right);
+  public double evaluateNumber(Node context, int pos, int len)
+  {
+    double ln = lhs.evaluateNumber(context, pos, len);
+    double rn = rhs.evaluateNumber(context, pos, len);
     switch (op)
       {
       case ADD:
-        return new Double(ln + rn);
+        return ln + rn;
       case SUBTRACT:
-        return new Double(ln - rn);
+        return ln - rn;
       case MULTIPLY:
-        return new Double(ln * rn);
+        return ln * rn;
       case DIVIDE:
         if (rn == 0.0d || rn == -0.0d)
           {
-            return new Double(ln < 0.0d ?
-                              Double.NEGATIVE_INFINITY :
-                              Double.POSITIVE_INFINITY);
+            return (ln < 0.0d) ?
+              Double.NEGATIVE_INFINITY :
+              Double.POSITIVE_INFINITY;
           }
-        return new Double(ln / rn);
+        return ln / rn;
       case MODULO:
         if (rn == 0.0d || rn == -0.0d)
           {
-            return new Double(ln < 0.0d ?
-                              Double.NEGATIVE_INFINITY :
-                              Double.POSITIVE_INFINITY);
+            return (ln < 0.0d) ?
+              Double.NEGATIVE_INFINITY :
+              Double.POSITIVE_INFINITY;
           }
-        return new Double(ln % rn);
+        return ln % rn;
       default:
         throw new IllegalStateException();
       }
   }
 
+  public QName getResultType()
+  {
+    return XPathConstants.NUMBER;
+  }
+
   public Expr clone(Object context)
   {
     return new ArithmeticExpr(lhs.clone(context), rhs.clone(context), op);
@@ -39,6 +39,7 @@ package gnu.xml.xpath;
 
 import java.util.List;
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -73,8 +74,18 @@ final class BooleanFunction
   
   public Object evaluate(Node context, int pos, int len)
   {
-    Object val = arg.evaluate(context, pos, len);
-    return _boolean(context, val) ? Boolean.TRUE : Boolean.FALSE;
+    return arg.evaluateBoolean(context, pos, len) ? Boolean.TRUE :
+      Boolean.FALSE;
+  }
+
+  public boolean evaluateBoolean(Node context, int pos, int len)
+  {
+    return arg.evaluateBoolean(context, pos, len);
+  }
+
+  public QName getResultType()
+  {
+    return XPathConstants.BOOLEAN;
   }
 
   public Expr clone(Object context)
@@ -41,6 +41,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -71,6 +72,11 @@ final class ConcatFunction
     return buf.toString();
   }
 
+  public QName getResultType()
+  {
+    return XPathConstants.STRING;
+  }
+
   public Expr clone(Object context)
   {
     int len = args.size();
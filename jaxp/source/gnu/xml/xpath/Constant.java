@@ -38,10 +38,12 @@ exception statement from your version. */
 package gnu.xml.xpath;
 
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
- * Constant value (string literal or number).
+ * Constant value (string literal or number, or the value of an
+ * expression folded at compile time).
  *
  * @author <a href='mailto:dog@gnu.org'>Chris Burdess</a>
  */
@@ -61,6 +63,33 @@ public final class Constant
     return value;
   }
 
+  public double evaluateNumber(Node context, int pos, int len)
+  {
+    return _number(context, value);
+  }
+
+  public boolean evaluateBoolean(Node context, int pos, int len)
+  {
+    return _boolean(context, value);
+  }
+
+  public QName getResultType()
+  {
+    if (value instanceof Double)
+      {
+        return XPathConstants.NUMBER;
+      }
+    if (value instanceof String)
+      {
+        return XPathConstants.STRING;
+      }
+    if (value instanceof Boolean)
+      {
+        return XPathConstants.BOOLEAN;
+      }
+    return null;
+  }
+
   public Expr clone(Object context)
   {
     return new Constant(value);
@@ -73,6 +102,11 @@ public final class Constant
 
   public String toString()
   {
+    if (value instanceof Boolean)
+      {
+        // Result of constant folding
+        return ((Boolean) value).booleanValue() ? "true()" : "false()";
+      }
     String ret = value.toString();
     if (value instanceof String)
       {
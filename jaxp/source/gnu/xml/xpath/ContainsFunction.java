@@ -39,6 +39,7 @@ package gnu.xml.xpath;
 
 import java.util.List;
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -74,6 +75,11 @@ final class ContainsFunction
     return (s1.indexOf(s2) != -1) ? Boolean.TRUE : Boolean.FALSE;
   }
 
+  public QName getResultType()
+  {
+    return XPathConstants.BOOLEAN;
+  }
+
   public Expr clone(Object context)
   {
     return new ContainsFunction(arg1.clone(context), arg2.clone(context));
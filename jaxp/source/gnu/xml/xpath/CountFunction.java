@@ -40,6 +40,7 @@ package gnu.xml.xpath;
 import java.util.Collection;
 import java.util.List;
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -65,9 +66,19 @@ final class CountFunction
   }
 
   public Object evaluate(Node context, int pos, int len)
+  {
+    return new Double(evaluateNumber(context, pos, len));
+  }
+
+  public double evaluateNumber(Node context, int pos, int len)
   {
     Object val = arg.evaluate(context, pos, len);
-    return new Double((double) ((Collection) val).size());
+    return (double) ((Collection) val).size();
+  }
+
+  public QName getResultType()
+  {
+    return XPathConstants.NUMBER;
   }
 
   public Expr clone(Object context)
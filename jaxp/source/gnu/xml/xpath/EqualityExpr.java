@@ -40,6 +40,8 @@ package gnu.xml.xpath;
 import java.util.Collection;
 import java.util.Iterator;
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
 /**
@@ -51,28 +53,168 @@ final class EqualityExpr
   extends Expr
 {
 
+  /**
+   * Compare operands according to the general rules for objects of
+   * any type.
+   */
+  static final int GENERAL = 0;
+
+  /**
+   * Compare operands converted to booleans.
+   */
+  static final int BOOLEAN = 1;
+
+  /**
+   * Compare operands converted to numbers.
+   */
+  static final int NUMBER = 2;
+
+  /**
+   * Compare operands converted to strings.
+   */
+  static final int STRING = 3;
+
+  /**
+   * Compare the values of the context node's attributes selected by an
+   * attribute step, e.g. <code>@type</code>, to a string literal.
+   */
+  static final int ATTRIBUTE = 4;
+
   final Expr lhs;
   final Expr rhs;
   final boolean invert;
 
+  /**
+   * How the operands are compared, determined from their result types
+   * when the expression is compiled.
+   */
+  final int mode;
+
+  /**
+   * The attribute step and string literal in ATTRIBUTE mode.
+   */
+  final Selector attribute;
+  final String literal;
+
   EqualityExpr(Expr lhs, Expr rhs, boolean invert)
   {
     this.lhs = lhs;
     this.rhs = rhs;
     this.invert = invert;
+    QName ltype = lhs.getResultType();
+    QName rtype = rhs.getResultType();
+    Selector attr = null;
+    String lit = null;
+    if (XPathConstants.BOOLEAN == ltype || XPathConstants.BOOLEAN == rtype)
+      {
+        // A node-set is also converted to a boolean in this case
+        mode = BOOLEAN;
+      }
+    else if (ltype != null && rtype != null &&
+             XPathConstants.NODESET != ltype &&
+             XPathConstants.NODESET != rtype)
+      {
+        mode = (XPathConstants.NUMBER == ltype ||
+                XPathConstants.NUMBER == rtype) ? NUMBER : STRING;
+      }
+    else
+      {
+        attr = attributeStep(lhs);
+        if (attr != null && XPathConstants.STRING == rtype &&
+            rhs instanceof Constant)
+          {
+            lit = (String) ((Constant) rhs).value;
+          }
+        else
+          {
+            attr = attributeStep(rhs);
+            if (attr != null && XPathConstants.STRING == ltype &&
+                lhs instanceof Constant)
+              {
+                lit = (String) ((Constant) lhs).value;
+              }
+          }
+        mode = (lit != null) ? ATTRIBUTE : GENERAL;
+      }
+    attribute = (lit != null) ? attr : null;
+    literal = lit;
+  }
+
+  /**
+   * Returns the given expression if it is a single attribute step
+   * without predicates, otherwise null.
+   */
+  static Selector attributeStep(Expr expr)
+  {
+    if (expr instanceof Selector)
+      {
+        Selector s = (Selector) expr;
+        if (s.axis == Selector.ATTRIBUTE &&
+            s.nodeTestCount == s.tests.length)
+          {
+            return s;
+          }
+      }
+    return null;
   }
 
   public Object evaluate(Node context, int pos, int len)
   {
-    boolean val = evaluateImpl(context, pos, len);
-    if (invert)
+    return evaluateBoolean(context, pos, len) ? Boolean.TRUE :
+      Boolean.FALSE;
+  }
+
+  public boolean evaluateBoolean(Node context, int pos, int len)
+  {
+    switch (mode)
       {
-        return val ? Boolean.FALSE : Boolean.TRUE;
+      case BOOLEAN:
+        return (lhs.evaluateBoolean(context, pos, len) ==
+                rhs.evaluateBoolean(context, pos, len)) != invert;
+      case NUMBER:
+        return (lhs.evaluateNumber(context, pos, len) ==
+                rhs.evaluateNumber(context, pos, len)) != invert;
+      case STRING:
+        String ls = _string(context, lhs.evaluate(context, pos, len));
+        String rs = _string(context, rhs.evaluate(context, pos, len));
+        return ls.equals(rs) != invert;
+      case ATTRIBUTE:
+        return evaluateAttributes(context);
+      default:
+        return evaluateImpl(context, pos, len) != invert;
       }
-    else
+  }
+
+  /**
+   * True if there is an attribute selected by the attribute step whose
+   * value is equal (or for <code>!=</code>, not equal) to the literal.
+   * This avoids constructing the node-set of attributes.
+   */
+  private boolean evaluateAttributes(Node context)
+  {
+    NamedNodeMap attrs = context.getAttributes();
+    if (attrs == null)
+      {
+        return false;
+      }
+    int ntests = attribute.nodeTestCount;
+    int attrLen = attrs.getLength();
+    for (int i = 0; i < attrLen; i++)
       {
-        return val ? Boolean.TRUE : Boolean.FALSE;
+        Node attr = attrs.item(i);
+        if (!attribute.isNamespaceAttribute(attr) &&
+            attribute.passes(attr, ntests) &&
+            stringValue(attr).equals(literal) != invert)
+          {
+            return true;
+          }
       }
+    return false;
+  }
+
+  public QName getResultType()
+  {
+    return XPathConstants.BOOLEAN;
   }
 
   private boolean evaluateImpl(Node context, int pos, int len)
@@ -88,21 +88,20 @@ public abstract class Expr
     if (item instanceof Node)
       {
         context = (Node) item;
-        ret = evaluate(context, 1, 1);
-        if (XPathConstants.STRING == returnType &&
-            !(ret instanceof String))
+        if (XPathConstants.BOOLEAN == returnType)
           {
-            ret = _string(context, ret);
+            return evaluateBoolean(context, 1, 1) ? Boolean.TRUE :
+              Boolean.FALSE;
           }
-        else if (XPathConstants.NUMBER == returnType &&
-                 !(ret instanceof Double))
+        if (XPathConstants.NUMBER == returnType)
           {
-            ret = new Double(_number(context, ret));
+            return new Double(evaluateNumber(context, 1, 1));
           }
-        else if (XPathConstants.BOOLEAN == returnType &&
-                 !(ret instanceof Boolean))
+        ret = evaluate(context, 1, 1);
+        if (XPathConstants.STRING == returnType &&
+            !(ret instanceof String))
           {
-            ret = _boolean(context, ret) ? Boolean.TRUE : Boolean.FALSE;
+            ret = _string(context, ret);
           }
         else if (XPathConstants.NODE == returnType)
           {
@@ -176,6 +175,37 @@ public abstract class Expr
 
   public abstract Object evaluate(Node context, int pos, int len);
 
+  /**
+   * Evaluates this expression in a boolean context.
+   * Expressions that can determine their boolean value without
+   * computing their full result, such as location paths, which need
+   * only find one node, override this.
+   */
+  public boolean evaluateBoolean(Node context, int pos, int len)
+  {
+    return _boolean(context, evaluate(context, pos, len));
+  }
+
+  /**
+   * Evaluates this expression in a numeric context.
+   * Expressions whose result is a number override this to avoid
+   * creating intermediate Double objects.
+   */
+  public double evaluateNumber(Node context, int pos, int len)
+  {
+    return _number(context, evaluate(context, pos, len));
+  }
+
+  /**
+   * Returns the type of value this expression always evaluates to, as
+   * one of the XPathConstants types, or null if this cannot be
+   * determined when the expression is compiled.
+   */
+  public QName getResultType()
+  {
+    return null;
+  }
+
   public abstract Expr clone(Object context);
 
   public abstract boolean references(QName var);
@@ -0,0 +1,278 @@
+/* ExprCache.java -- 
+   Copyright (C) 2004 Free Software Foundation, Inc.
+
+This file is part of GNU Classpath.
+
+GNU Classpath is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2, or (at your option)
+any later version.
+
+GNU Classpath is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with GNU Classpath; see the file COPYING.  If not, write to the
+Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+02110-1301 USA.
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library.  Thus, the terms and
+conditions of the GNU General Public License cover the whole
+combination.
+
+As a special exception, the copyright holders of this library give you
+permission to link this library with independent modules to produce an
+executable, regardless of the license terms of these independent
+modules, and to copy and distribute the resulting executable under
+terms of your choice, provided that you also meet, for each linked
+independent module, the terms and conditions of the license of that
+module.  An independent module is a module which is not derived from
+or based on this library.  If you modify this library, you may extend
+this exception to your version of the library, but you are not
+obligated to do so.  If you do not wish to do so, delete this
+exception statement from your version. */
+
+package gnu.xml.xpath;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPathFunctionResolver;
+import javax.xml.xpath.XPathVariableResolver;
+
+/**
+ * A bounded, least-recently-used cache of compiled XPath expressions.
+ * Expressions are keyed by their text and the namespace URIs bound to any
+ * prefixes they use.
+ * <p>
+ * The parser binds variable references and calls to functions outside
+ * the XPath core function library to the resolvers in force. Such
+ * expressions are not cached when the corresponding resolver is present,
+ * so that the cache never holds on to resolvers, or to whatever they
+ * refer to, such as a stylesheet.
+ * <p>
+ * A single cache is shared by all the XPath objects created by an
+ * XPathFactoryImpl, and is safe for concurrent use.
+ */
+public class ExprCache
+{
+
+  /**
+   * Default maximum number of expressions held.
+   */
+  public static final int DEFAULT_MAX_SIZE = 512;
+
+  static final Set CORE_NAMES =
+    Collections.unmodifiableSet(new HashSet(Arrays.asList(new String[] {
+      "last", "position", "count", "id", "local-name", "namespace-uri",
+      "name", "string", "concat", "starts-with", "contains",
+      "substring-before", "substring-after", "substring", "string-length",
+      "normalize-space", "translate", "boolean", "not", "true", "false",
+      "lang", "number", "sum", "floor", "ceiling", "round",
+      // node type tests
+      "node", "text", "comment", "processing-instruction",
+      // operators
+      "and", "or", "div", "mod"
+    })));
+
+  final int maxSize;
+  final Map entries;
+  long hits;
+  long misses;
+
+  public ExprCache(int maxSize)
+  {
+    this.maxSize = maxSize;
+    entries = new LRUMap(maxSize);
+  }
+
+  /**
+   * Returns the maximum number of expressions held by this cache.
+   */
+  public int getMaxSize()
+  {
+    return maxSize;
+  }
+
+  /**
+   * Returns the number of expressions currently held by this cache.
+   */
+  public synchronized int size()
+  {
+    return entries.size();
+  }
+
+  /**
+   * Returns the number of lookups that found a compiled expression.
+   */
+  public synchronized long getHits()
+  {
+    return hits;
+  }
+
+  /**
+   * Returns the number of lookups that did not find a compiled
+   * expression.
+   */
+  public synchronized long getMisses()
+  {
+    return misses;
+  }
+
+  /**
+   * Discards all the expressions in this cache and resets the
+   * statistics.
+   */
+  public synchronized void clear()
+  {
+    entries.clear();
+    hits = 0L;
+    misses = 0L;
+  }
+
+  synchronized Expr get(Object key)
+  {
+    Expr expr = (Expr) entries.get(key);
+    if (expr == null)
+      {
+        misses++;
+      }
+    else
+      {
+        hits++;
+      }
+    return expr;
+  }
+
+  synchronized void put(Object key, Expr expr)
+  {
+    if (maxSize > 0)
+      {
+        entries.put(key, expr);
+      }
+  }
+
+  /**
+   * Returns the cache key for the given expression, or null if the
+   * expression cannot be cached.
+   */
+  static Object key(String expression,
+                    NamespaceContext namespaceContext,
+                    XPathVariableResolver variableResolver,
+                    XPathFunctionResolver functionResolver)
+  {
+    StringBuffer buf = null;
+    int len = expression.length();
+    int start = -1; // start of current name
+    for (int i = 0; i < len; i++)
+      {
+        char c = expression.charAt(i);
+        if (c == '"' || c == '\'')
+          {
+            // Skip literal
+            int end = expression.indexOf(c, i + 1);
+            if (end == -1)
+              {
+                return null;
+              }
+            i = end;
+            start = -1;
+          }
+        else if (c == '$')
+          {
+            if (variableResolver != null)
+              {
+                return null;
+              }
+            start = -1;
+          }
+        else if (isNameChar(c))
+          {
+            if (start == -1)
+              {
+                start = i;
+              }
+          }
+        else
+          {
+            if (start != -1 && c == ':' && i + 1 < len &&
+                expression.charAt(i + 1) != ':' &&
+                (i == 0 || expression.charAt(i - 1) != ':'))
+              {
+                // Namespace prefix
+                String prefix = expression.substring(start, i);
+                String uri = (namespaceContext == null) ? null :
+                  namespaceContext.getNamespaceURI(prefix);
+                if (buf == null)
+                  {
+                    buf = new StringBuffer(expression);
+                  }
+                buf.append('\u0000');
+                buf.append(prefix);
+                buf.append('=');
+                buf.append(uri);
+                // The local name must not be taken for a function name
+                i++;
+                while (i < len && isNameChar(expression.charAt(i)))
+                  {
+                    i++;
+                  }
+                i--;
+                start = -1;
+                continue;
+              }
+            if (start != -1 && functionResolver != null)
+              {
+                int j = i;
+                while (j < len && Character.isWhitespace(expression.charAt(j)))
+                  {
+                    j++;
+                  }
+                if (j < len && expression.charAt(j) == '(' &&
+                    !CORE_NAMES.contains(expression.substring(start, i)))
+                  {
+                    return null;
+                  }
+              }
+            start = -1;
+          }
+      }
+    return (buf == null) ? expression : buf.toString();
+  }
+
+  static boolean isNameChar(char c)
+  {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '-' ||
+      c == '.' || c > 0x7f;
+  }
+
+  /**
+   * Access-ordered map that discards its eldest entry when full.
+   */
+  static final class LRUMap
+    extends LinkedHashMap
+  {
+
+    final int maxSize;
+
+    LRUMap(int maxSize)
+    {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    protected boolean removeEldestEntry(Map.Entry eldest)
+    {
+      return size() > maxSize;
+    }
+
+  }
+
+}
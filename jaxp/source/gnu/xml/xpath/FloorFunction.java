@@ -39,6 +39,7 @@ package gnu.xml.xpath;
 
 import java.util.List;
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -66,9 +67,17 @@ final class FloorFunction
 
   public Object evaluate(Node context, int pos, int len)
   {
-    Object val = arg.evaluate(context, pos, len);
-    double n = _number(context, val);
-    return new Double(Math.floor(n));
+    return new Double(evaluateNumber(context, pos, len));
+  }
+
+  public double evaluateNumber(Node context, int pos, int len)
+  {
+    return Math.floor(arg.evaluateNumber(context, pos, len));
+  }
+
+  public QName getResultType()
+  {
+    return XPathConstants.NUMBER;
   }
 
   public Expr clone(Object context)
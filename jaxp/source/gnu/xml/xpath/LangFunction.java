@@ -39,6 +39,7 @@ package gnu.xml.xpath;
 
 import java.util.List;
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
@@ -98,6 +99,11 @@ final class LangFunction
     return null;
   }
   
+  public QName getResultType()
+  {
+    return XPathConstants.BOOLEAN;
+  }
+
   public Expr clone(Object context)
   {
     return new IdFunction(arg.clone(context));
@@ -38,6 +38,7 @@ exception statement from your version. */
 package gnu.xml.xpath;
 
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -52,7 +53,17 @@ final class LastFunction
 
   public Object evaluate(Node context, int pos, int len)
   {
-    return new Double((double) len);
+    return new Double(evaluateNumber(context, pos, len));
+  }
+
+  public double evaluateNumber(Node context, int pos, int len)
+  {
+    return (double) len;
+  }
+
+  public QName getResultType()
+  {
+    return XPathConstants.NUMBER;
   }
 
   public Expr clone(Object context)
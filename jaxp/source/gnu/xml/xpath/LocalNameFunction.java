@@ -40,6 +40,7 @@ package gnu.xml.xpath;
 import java.util.Collection;
 import java.util.List;
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -74,6 +75,11 @@ final class LocalNameFunction
     return _local_name(context, (Collection) val);
   }
 
+  public QName getResultType()
+  {
+    return XPathConstants.STRING;
+  }
+
   public Expr clone(Object context)
   {
     return new LocalNameFunction((arg == null) ? null :
@@ -38,6 +38,7 @@ exception statement from your version. */
 package gnu.xml.xpath;
 
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -58,9 +59,17 @@ final class NegativeExpr
 
   public Object evaluate(Node context, int pos, int len)
   {
-    Object val = expr.evaluate(context, pos, len);
-    double n = _number(context, val);
-    return new Double(-n);
+    return new Double(evaluateNumber(context, pos, len));
+  }
+
+  public double evaluateNumber(Node context, int pos, int len)
+  {
+    return -expr.evaluateNumber(context, pos, len);
+  }
+
+  public QName getResultType()
+  {
+    return XPathConstants.NUMBER;
   }
 
   public Expr clone(Object context)
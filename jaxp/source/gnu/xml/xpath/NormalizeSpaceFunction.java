@@ -40,6 +40,7 @@ package gnu.xml.xpath;
 import java.util.List;
 import java.util.StringTokenizer;
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -87,6 +88,11 @@ final class NormalizeSpaceFunction
     return buf.toString();
   }
 
+  public QName getResultType()
+  {
+    return XPathConstants.STRING;
+  }
+
   public Expr clone(Object context)
   {
     return new NormalizeSpaceFunction(arg.clone(context));
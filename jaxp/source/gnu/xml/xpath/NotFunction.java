@@ -39,6 +39,7 @@ package gnu.xml.xpath;
 
 import java.util.List;
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -65,8 +66,18 @@ final class NotFunction
 
   public Object evaluate(Node context, int pos, int len)
   {
-    Object val = arg.evaluate(context, pos, len);
-    return _boolean(context, val) ? Boolean.FALSE : Boolean.TRUE;
+    return arg.evaluateBoolean(context, pos, len) ? Boolean.FALSE :
+      Boolean.TRUE;
+  }
+
+  public boolean evaluateBoolean(Node context, int pos, int len)
+  {
+    return !arg.evaluateBoolean(context, pos, len);
+  }
+
+  public QName getResultType()
+  {
+    return XPathConstants.BOOLEAN;
   }
 
   public Expr clone(Object context)
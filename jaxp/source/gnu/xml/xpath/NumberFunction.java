@@ -39,6 +39,7 @@ package gnu.xml.xpath;
 
 import java.util.List;
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -80,8 +81,21 @@ final class NumberFunction
 
   public Object evaluate(Node context, int pos, int len)
   {
-    Object val = (arg == null) ? null : arg.evaluate(context, pos, len);
-    return new Double(_number(context, val));
+    return new Double(evaluateNumber(context, pos, len));
+  }
+
+  public double evaluateNumber(Node context, int pos, int len)
+  {
+    if (arg == null)
+      {
+        return _number(context, null);
+      }
+    return arg.evaluateNumber(context, pos, len);
+  }
+
+  public QName getResultType()
+  {
+    return XPathConstants.NUMBER;
   }
 
   public Expr clone(Object context)
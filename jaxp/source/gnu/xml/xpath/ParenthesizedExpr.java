@@ -72,6 +72,22 @@ final class ParenthesizedExpr
     return ret;
   }
 
+  public boolean evaluateBoolean(Node context, int pos, int len)
+  {
+    // Document order is irrelevant here
+    return expr.evaluateBoolean(context, pos, len);
+  }
+
+  public double evaluateNumber(Node context, int pos, int len)
+  {
+    return expr.evaluateNumber(context, pos, len);
+  }
+
+  public QName getResultType()
+  {
+    return expr.getResultType();
+  }
+
   public Expr clone(Object context)
   {
     return new ParenthesizedExpr(expr.clone(context));
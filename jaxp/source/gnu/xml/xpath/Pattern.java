@@ -37,6 +37,8 @@ exception statement from your version. */
 
 package gnu.xml.xpath;
 
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -50,5 +52,10 @@ public abstract class Pattern
 
   public abstract boolean matches(Node context);
 
+  public QName getResultType()
+  {
+    return XPathConstants.NODESET;
+  }
+
 }
 
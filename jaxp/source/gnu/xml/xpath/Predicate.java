@@ -38,6 +38,7 @@ exception statement from your version. */
 package gnu.xml.xpath;
 
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -58,13 +59,68 @@ class Predicate
 
   public boolean matches(Node node, int pos, int len)
   {
+    QName type = expr.getResultType();
+    if (XPathConstants.NUMBER == type)
+      {
+        // Same as [position() = x]
+        return ((int) expr.evaluateNumber(node, pos, len)) == pos;
+      }
+    if (type != null || expr instanceof Path)
+      {
+        // Node-sets only need to find one node
+        return expr.evaluateBoolean(node, pos, len);
+      }
     Object ret = expr.evaluate(node, pos, len);
     if (ret instanceof Double)
       {
         // Same as [position() = x]
         return ((Double) ret).intValue() == pos;
       }
-    return Expr._boolean(node, expr.evaluate(node, pos, len));
+    return Expr._boolean(node, ret);
+  }
+
+  /**
+   * If this predicate always selects a single fixed position, i.e. it
+   * is of the form [n] or [position() = n], returns that position,
+   * otherwise 0.
+   */
+  int getPosition()
+  {
+    Expr e = expr;
+    if (e instanceof EqualityExpr)
+      {
+        EqualityExpr ee = (EqualityExpr) e;
+        if (ee.invert)
+          {
+            return 0;
+          }
+        if (ee.lhs instanceof PositionFunction)
+          {
+            e = ee.rhs;
+          }
+        else if (ee.rhs instanceof PositionFunction)
+          {
+            e = ee.lhs;
+          }
+        else
+          {
+            return 0;
+          }
+      }
+    if (e instanceof Constant)
+      {
+        Object value = ((Constant) e).value;
+        if (value instanceof Double)
+          {
+            double d = ((Double) value).doubleValue();
+            int pos = (int) d;
+            if (pos > 0 && d == pos)
+              {
+                return pos;
+              }
+          }
+      }
+    return 0;
   }
 
   public Test clone(Object context)
@@ -38,6 +38,7 @@ exception statement from your version. */
 package gnu.xml.xpath;
 
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -64,29 +65,31 @@ final class RelationalExpr
 
   public Object evaluate(Node context, int pos, int len)
   {
-    Object left = lhs.evaluate(context, pos, len);
-    Object right = rhs.evaluate(context, pos, len);
-    double ln = _number(context, left);
-    double rn = _number(context, right);
+    return evaluateBoolean(context, pos, len) ? Boolean.TRUE :
+      Boolean.FALSE;
+  }
+
+  public boolean evaluateBoolean(Node context, int pos, int len)
+  {
+    double ln = lhs.evaluateNumber(context, pos, len);
+    double rn = rhs.evaluateNumber(context, pos, len);
     if (eq && ln == rn)
       {
-        return Boolean.TRUE;
+        return true;
       }
     if (lt)
       {
-        if (ln < rn || Double.isInfinite(rn))
-          {
-            return Boolean.TRUE;
-          }
+        return (ln < rn || Double.isInfinite(rn));
       }
     else
       {
-        if (ln > rn || Double.isInfinite(ln))
-          {
-            return Boolean.TRUE;
-          }
+        return (ln > rn || Double.isInfinite(ln));
       }
-    return Boolean.FALSE;
+  }
+
+  public QName getResultType()
+  {
+    return XPathConstants.BOOLEAN;
   }
 
   public Expr clone(Object context)
@@ -39,6 +39,7 @@ package gnu.xml.xpath;
 
 import java.util.List;
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -72,10 +73,19 @@ final class RoundFunction
 
   public Object evaluate(Node context, int pos, int len)
   {
-    Object val = arg.evaluate(context, pos, len);
-    double n = _number(context, val);
-    return (Double.isNaN(n) || Double.isInfinite(n)) ?
-      new Double(n) : new Double(Math.round(n));
+    return new Double(evaluateNumber(context, pos, len));
+  }
+
+  public double evaluateNumber(Node context, int pos, int len)
+  {
+    double n = arg.evaluateNumber(context, pos, len);
+    return (Double.isNaN(n) || Double.isInfinite(n)) ? n :
+      (double) Math.round(n);
+  }
+
+  public QName getResultType()
+  {
+    return XPathConstants.NUMBER;
   }
 
   public Expr clone(Object context)
@@ -42,7 +42,6 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Set;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 import org.w3c.dom.Attr;
@@ -82,6 +81,19 @@ public final class Selector
    */
   final Test[] tests;
 
+  /**
+   * Number of leading tests that do not depend on the context position
+   * or size. These are applied while the axis is walked.
+   */
+  final int nodeTestCount;
+
+  /**
+   * If the first predicate selects a fixed position, e.g. [1], the
+   * number of candidates that need to be generated for each context
+   * node; otherwise 0.
+   */
+  final int positionLimit;
+
   public Selector(int axis, List tests)
   {
     this.axis = axis;
@@ -94,6 +106,18 @@ public final class Selector
         NameTest nt = (NameTest) this.tests[0];
         this.tests[0] = new NamespaceTest(nt.qName, nt.anyLocalName, nt.any);
       }
+    int count = 0;
+    while (count < this.tests.length && !(this.tests[count] instanceof Predicate))
+      {
+        count++;
+      }
+    nodeTestCount = count;
+    int limit = 0;
+    if (count < this.tests.length)
+      {
+        limit = ((Predicate) this.tests[count]).getPosition();
+      }
+    positionLimit = limit;
   }
 
   /**
@@ -172,169 +196,287 @@ public final class Selector
 
   public Object evaluate(Node context, int pos, int len)
   {
-    Set acc = new LinkedHashSet();
-    addCandidates(context, acc);
-    List candidates = new ArrayList(acc);
-    //Collections.sort(candidates, documentOrderComparator);
-    List ret = filterCandidates(candidates, false);
-    return ret;
+    List acc = new ArrayList();
+    addCandidates(context, acc, nodeTestCount, positionLimit, false);
+    filterCandidates(acc);
+    return acc;
+  }
+
+  public boolean evaluateBoolean(Node context, int pos, int len)
+  {
+    List acc = new ArrayList();
+    int limit = (nodeTestCount == tests.length) ? 1 : positionLimit;
+    addCandidates(context, acc, nodeTestCount, limit, false);
+    filterCandidates(acc);
+    return !acc.isEmpty();
   }
 
   Collection evaluate(Node context, Collection ns)
   {
-    Set acc = new LinkedHashSet();
+    return evaluate(ns, 0);
+  }
+
+  /**
+   * Evaluates this selector for each node in the given node-set.
+   * Except on the self axis, positions are relative to the candidates
+   * selected by each context node. Candidates are generated lazily: node tests are applied as
+   * the axis is walked, and the walk stops as soon as no further
+   * candidate could be selected.
+   * @param ns the context node-set
+   * @param limit if positive, the maximum number of nodes to return
+   */
+  Collection evaluate(Collection ns, int limit)
+  {
+    if (axis == SELF)
+      {
+        // This is how filter expressions are represented: positions
+        // are relative to the whole node-set
+        List candidates = new ArrayList(ns.size());
+        for (Iterator i = ns.iterator(); i.hasNext(); )
+          {
+            if (!addSelf((Node) i.next(), candidates, nodeTestCount,
+                         positionLimit, true))
+              {
+                break;
+              }
+          }
+        filterCandidates(candidates);
+        return candidates;
+      }
+    // The same node can only be reached from two different context
+    // nodes on axes other than these
+    boolean disjoint = (ns.size() < 2 ||
+                        axis == CHILD ||
+                        axis == ATTRIBUTE ||
+                        axis == NAMESPACE);
+    Collection acc = disjoint ? (Collection) new ArrayList() :
+      (Collection) new LinkedHashSet();
+    if (nodeTestCount == tests.length)
+      {
+        // Only node tests: select straight into the result
+        for (Iterator i = ns.iterator(); i.hasNext(); )
+          {
+            if (!addCandidates((Node) i.next(), acc, nodeTestCount, limit,
+                               true))
+              {
+                break;
+              }
+          }
+        return acc;
+      }
+    List candidates = new ArrayList();
     for (Iterator i = ns.iterator(); i.hasNext(); )
       {
-        addCandidates((Node) i.next(), acc);
+        candidates.clear();
+        addCandidates((Node) i.next(), candidates, nodeTestCount,
+                      positionLimit, true);
+        filterCandidates(candidates);
+        acc.addAll(candidates);
+        if (limit > 0 && acc.size() >= limit)
+          {
+            break;
+          }
       }
-    List candidates = new ArrayList(acc);
-    //Collections.sort(candidates, documentOrderComparator);
-    List ret = filterCandidates(candidates, true);
-    return ret;
+    return acc;
   }
 
   /**
-   * Filter the given list of candidates according to the node tests.
+   * Filter the given list of candidates, in place, according to the
+   * tests following the initial node tests.
    */
-  List filterCandidates(List candidates, boolean cascade)
+  void filterCandidates(List candidates)
   {
-    int len = candidates.size();
     int tlen = tests.length;
-    if (tlen > 0 && len > 0)
+    for (int j = nodeTestCount; j < tlen; j++)
       {
+        int len = candidates.size();
+        if (len == 0)
+          {
+            break;
+          }
         // Present the result of each successful generation to the next test
-        for (int j = 0; j < tlen && len > 0; j++)
+        Test test = tests[j];
+        int count = 0;
+        for (int i = 0; i < len; i++)
           {
-            Test test = tests[j];
-            List successful = new ArrayList(len);
-            for (int i = 0; i < len; i++)
+            Node node = (Node) candidates.get(i);
+            if (test.matches(node, i + 1, len))
               {
-                Node node = (Node) candidates.get(i);
-                if (cascade)
-                  {
-                    // Documents and DocumentFragments should be considered
-                    // if part of a location path where the axis involves
-                    // the SELF concept
-                    short nodeType = node.getNodeType();
-                    if ((nodeType == Node.DOCUMENT_NODE ||
-                         nodeType == Node.DOCUMENT_FRAGMENT_NODE) &&
-                        (axis == DESCENDANT_OR_SELF ||
-                         axis == ANCESTOR_OR_SELF ||
-                         axis == SELF) &&
-                        (tests.length == 1 &&
-                         tests[0] instanceof NodeTypeTest &&
-                         ((NodeTypeTest) tests[0]).type == (short) 0))
-                      {
-                        successful.add(node);
-                        continue;
-                      }
-                  }
-                if (test.matches(node, i + 1, len))
-                  {
-                    successful.add(node);
-                  }
-                /*
-                   System.err.println("Testing "+node);
-                   int p = getContextPosition(node);
-                   int l = getContextSize(node);
-                   if (test.matches(node, p, l))
-                   {
-                   successful.add(node);
-                   }*/
+                candidates.set(count++, node);
               }
-            candidates = successful;
-            len = candidates.size();
+          }
+        if (count < len)
+          {
+            candidates.subList(count, len).clear();
           }
       }
-    return candidates;
   }
 
-  void addCandidates(Node context, Collection candidates)
+  /**
+   * Adds the nodes on this selector's axis from the given context node
+   * that pass the first <code>ntests</code> tests.
+   * @param limit if positive, stop when the collection reaches this size
+   * @param cascade whether the context node is part of a location path
+   * @return false if the limit was reached
+   */
+  boolean addCandidates(Node context, Collection candidates, int ntests,
+                        int limit, boolean cascade)
   {
-    // Build list of candidates
     switch (axis)
       {
       case CHILD:
-        addChildNodes(context, candidates, false);
-        break;
+        return addChildNodes(context, candidates, false, ntests, limit);
       case DESCENDANT:
-        addChildNodes(context, candidates, true);
-        break;
+        return addChildNodes(context, candidates, true, ntests, limit);
       case DESCENDANT_OR_SELF:
-        candidates.add (context);
-        addChildNodes(context, candidates, true);
-        break;
+        return (addSelf(context, candidates, ntests, limit, cascade) &&
+                addChildNodes(context, candidates, true, ntests, limit));
       case PARENT:
-        addParentNode(context, candidates, false);
-        break;
+        return addParentNode(context, candidates, false, ntests, limit);
       case ANCESTOR:
-        addParentNode(context, candidates, true);
-        break;
+        return addParentNode(context, candidates, true, ntests, limit);
       case ANCESTOR_OR_SELF:
-        candidates.add(context);
-        addParentNode(context, candidates, true);
-        break;
+        return (addSelf(context, candidates, ntests, limit, cascade) &&
+                addParentNode(context, candidates, true, ntests, limit));
       case FOLLOWING_SIBLING:
-        addFollowingNodes(context, candidates, false);
-        break;
+        return addFollowingNodes(context, candidates, false, ntests, limit);
       case PRECEDING_SIBLING:
-        addPrecedingNodes(context, candidates, false);
-        break;
+        return addPrecedingNodes(context, candidates, false, ntests, limit);
       case FOLLOWING:
-        addFollowingNodes(context, candidates, true);
-        break;
+        return addFollowingNodes(context, candidates, true, ntests, limit);
       case PRECEDING:
-        addPrecedingNodes(context, candidates, true);
-        break;
+        return addPrecedingNodes(context, candidates, true, ntests, limit);
       case ATTRIBUTE:
-        addAttributes(context, candidates);
-        break;
+        return addAttributes(context, candidates, false, ntests, limit);
       case NAMESPACE:
-        addNamespaceAttributes(context, candidates);
-        break;
+        return addAttributes(context, candidates, true, ntests, limit);
       case SELF:
-        candidates.add(context);
-        break;
+        return addSelf(context, candidates, ntests, limit, cascade);
+      }
+    return true;
+  }
+
+  /**
+   * Adds the given node if it passes the first <code>ntests</code>
+   * tests, none of which may depend on the context position.
+   * @return false if the limit has been reached
+   */
+  final boolean accept(Node node, Collection acc, int ntests, int limit)
+  {
+    if (!passes(node, ntests))
+      {
+        return true;
+      }
+    acc.add(node);
+    return (limit <= 0 || acc.size() < limit);
+  }
+
+  /**
+   * Indicates whether the given node passes the first
+   * <code>ntests</code> tests, none of which may depend on the context
+   * position.
+   */
+  final boolean passes(Node node, int ntests)
+  {
+    for (int j = 0; j < ntests; j++)
+      {
+        if (!tests[j].matches(node, 1, 1))
+          {
+            return false;
+          }
+      }
+    return true;
+  }
+
+  boolean addSelf(Node context, Collection acc, int ntests, int limit,
+                  boolean cascade)
+  {
+    if (cascade)
+      {
+        // Documents and DocumentFragments should be considered
+        // if part of a location path where the axis involves
+        // the SELF concept
+        short nodeType = context.getNodeType();
+        if ((nodeType == Node.DOCUMENT_NODE ||
+             nodeType == Node.DOCUMENT_FRAGMENT_NODE) &&
+            (tests.length == 1 &&
+             tests[0] instanceof NodeTypeTest &&
+             ((NodeTypeTest) tests[0]).type == (short) 0))
+          {
+            acc.add(context);
+            return (limit <= 0 || acc.size() < limit);
+          }
       }
+    return accept(context, acc, ntests, limit);
   }
 
   void addChildNodes(Node context, Collection acc, boolean recurse)
+  {
+    addChildNodes(context, acc, recurse, 0, 0);
+  }
+
+  boolean addChildNodes(Node context, Collection acc, boolean recurse,
+                        int ntests, int limit)
   {
     Node child = context.getFirstChild();
     while (child != null)
       {
-        acc.add(child);
-        if (recurse)
+        if (!accept(child, acc, ntests, limit))
+          {
+            return false;
+          }
+        if (recurse && !addChildNodes(child, acc, recurse, ntests, limit))
           {
-            addChildNodes(child, acc, recurse);
+            return false;
           }
         child = child.getNextSibling();
       }
+    return true;
   }
 
   void addParentNode(Node context, Collection acc, boolean recurse)
+  {
+    addParentNode(context, acc, recurse, 0, 0);
+  }
+
+  boolean addParentNode(Node context, Collection acc, boolean recurse,
+                        int ntests, int limit)
   {
     Node parent = (context.getNodeType() == Node.ATTRIBUTE_NODE) ?
       ((Attr) context).getOwnerElement() : context.getParentNode();
-    if (parent != null)
+    while (parent != null)
       {
-        acc.add(parent);
-        if (recurse)
+        if (!accept(parent, acc, ntests, limit))
           {
-            addParentNode(parent, acc, recurse);
+            return false;
+          }
+        if (!recurse)
+          {
+            break;
           }
+        parent = parent.getParentNode();
       }
+    return true;
   }
 
   void addFollowingNodes(Node context, Collection acc, boolean recurse)
+  {
+    addFollowingNodes(context, acc, recurse, 0, 0);
+  }
+
+  boolean addFollowingNodes(Node context, Collection acc, boolean recurse,
+                            int ntests, int limit)
   {
     Node cur = context.getNextSibling();
     while (cur != null)
       {
-        acc.add(cur);
-        if (recurse)
+        if (!accept(cur, acc, ntests, limit))
+          {
+            return false;
+          }
+        if (recurse && !addChildNodes(cur, acc, true, ntests, limit))
           {
-            addChildNodes(cur, acc, true);
+            return false;
           }
         cur = cur.getNextSibling();
       }
@@ -344,20 +486,30 @@ public final class Selector
           ((Attr) context).getOwnerElement() : context.getParentNode();
         if (context != null)
           {
-            addFollowingNodes(context, acc, recurse);
+            return addFollowingNodes(context, acc, recurse, ntests, limit);
           }
       }
+    return true;
   }
 
   void addPrecedingNodes(Node context, Collection acc, boolean recurse)
+  {
+    addPrecedingNodes(context, acc, recurse, 0, 0);
+  }
+
+  boolean addPrecedingNodes(Node context, Collection acc, boolean recurse,
+                            int ntests, int limit)
   {
     Node cur = context.getPreviousSibling();
     while (cur != null)
       {
-        acc.add(cur);
-        if (recurse)
+        if (!accept(cur, acc, ntests, limit))
+          {
+            return false;
+          }
+        if (recurse && !addChildNodes(cur, acc, true, ntests, limit))
           {
-            addChildNodes(cur, acc, true);
+            return false;
           }
         cur = cur.getPreviousSibling();
       }
@@ -367,29 +519,14 @@ public final class Selector
           ((Attr) context).getOwnerElement() : context.getParentNode();
         if (context != null)
           {
-            addPrecedingNodes(context, acc, recurse);
-          }
-      }
-  }
-
-  void addAttributes(Node context, Collection acc)
-  {
-    NamedNodeMap attrs = context.getAttributes();
-    if (attrs != null)
-      {
-        int attrLen = attrs.getLength();
-        for (int i = 0; i < attrLen; i++)
-          {
-            Node attr = attrs.item(i);
-            if (!isNamespaceAttribute(attr))
-              {
-                acc.add(attr);
-              }
+            return addPrecedingNodes(context, acc, recurse, ntests, limit);
           }
       }
+    return true;
   }
 
-  void addNamespaceAttributes(Node context, Collection acc)
+  boolean addAttributes(Node context, Collection acc, boolean namespaces,
+                        int ntests, int limit)
   {
     NamedNodeMap attrs = context.getAttributes();
     if (attrs != null)
@@ -398,12 +535,14 @@ public final class Selector
         for (int i = 0; i < attrLen; i++)
           {
             Node attr = attrs.item(i);
-            if (isNamespaceAttribute(attr))
+            if (isNamespaceAttribute(attr) == namespaces &&
+                !accept(attr, acc, ntests, limit))
               {
-                acc.add(attr);
+                return false;
               }
           }
       }
+    return true;
   }
 
   final boolean isNamespaceAttribute(Node node)
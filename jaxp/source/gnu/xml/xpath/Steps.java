@@ -177,6 +177,27 @@ public final class Steps
     return val;
   }
 
+  public boolean evaluateBoolean(Node context, int pos, int len)
+  {
+    // Left to right, stopping at the first node of the last step
+    Iterator i = path.iterator();
+    Expr lhs = (Expr) i.next();
+    Object val = lhs.evaluate(context, pos, len);
+    while (val instanceof Collection && i.hasNext())
+      {
+        Path rhs = (Path) i.next();
+        if (!i.hasNext() && rhs instanceof Selector)
+          {
+            val = ((Selector) rhs).evaluate((Collection) val, 1);
+          }
+        else
+          {
+            val = rhs.evaluate(context, (Collection) val);
+          }
+      }
+    return _boolean(context, val);
+  }
+
   Collection evaluate(Node context, Collection ns)
   {
     // Left to right
@@ -39,6 +39,7 @@ package gnu.xml.xpath;
 
 import java.util.List;
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -72,6 +73,11 @@ final class StringLengthFunction
     return new Double((double) s.length());
   }
 
+  public QName getResultType()
+  {
+    return XPathConstants.NUMBER;
+  }
+
   public Expr clone(Object context)
   {
     return new StringLengthFunction((arg == null) ? null :
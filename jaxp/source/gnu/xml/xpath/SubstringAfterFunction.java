@@ -39,6 +39,7 @@ package gnu.xml.xpath;
 
 import java.util.List;
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -79,6 +80,11 @@ final class SubstringAfterFunction
     return (index == -1) ? "" : s1.substring(index + s2.length());
   }
 
+  public QName getResultType()
+  {
+    return XPathConstants.STRING;
+  }
+
   public Expr clone(Object context)
   {
     return new SubstringAfterFunction(arg1.clone(context),
@@ -39,6 +39,7 @@ package gnu.xml.xpath;
 
 import java.util.List;
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -78,6 +79,11 @@ final class SubstringBeforeFunction
     return (index == -1) ? "" : s1.substring(0, index);
   }
 
+  public QName getResultType()
+  {
+    return XPathConstants.STRING;
+  }
+
   public Expr clone(Object context)
   {
     return new SubstringBeforeFunction(arg1.clone(context),
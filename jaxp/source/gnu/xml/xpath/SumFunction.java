@@ -41,6 +41,7 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -82,6 +83,11 @@ final class SumFunction
     return new Double(sum);
   }
 
+  public QName getResultType()
+  {
+    return XPathConstants.NUMBER;
+  }
+
   public Expr clone(Object context)
   {
     return new SumFunction(arg.clone(context));
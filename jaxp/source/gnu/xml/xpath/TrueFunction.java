@@ -38,6 +38,7 @@ exception statement from your version. */
 package gnu.xml.xpath;
 
 import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
 import org.w3c.dom.Node;
 
 /**
@@ -54,6 +55,16 @@ final class TrueFunction
     return Boolean.TRUE;
   }
 
+  public boolean evaluateBoolean(Node context, int pos, int len)
+  {
+    return true;
+  }
+
+  public QName getResultType()
+  {
+    return XPathConstants.BOOLEAN;
+  }
+
   public Expr clone(Object context)
   {
     return new TrueFunction();
@@ -55,6 +55,30 @@ public class XPathFactoryImpl
   XPathVariableResolver variableResolver;
   XPathFunctionResolver functionResolver;
 
+  /**
+   * Compiled expressions shared by all XPath objects from this factory.
+   * The size can be set with the <code>gnu.xml.xpath.cacheSize</code>
+   * system property; a size of 0 disables the cache.
+   */
+  final ExprCache cache;
+
+  public XPathFactoryImpl()
+  {
+    int size = ExprCache.DEFAULT_MAX_SIZE;
+    String s = System.getProperty("gnu.xml.xpath.cacheSize");
+    if (s != null)
+      {
+        try
+          {
+            size = Integer.parseInt(s);
+          }
+        catch (NumberFormatException e)
+          {
+          }
+      }
+    cache = (size > 0) ? new ExprCache(size) : null;
+  }
+
   public boolean isObjectModelSupported(String objectModel)
   {
     return XPathFactory.DEFAULT_OBJECT_MODEL_URI.equals(objectModel);
@@ -84,7 +108,16 @@ public class XPathFactoryImpl
 
   public XPath newXPath()
   {
-    return new XPathImpl(null, variableResolver, functionResolver);
+    return new XPathImpl(null, variableResolver, functionResolver, cache);
+  }
+
+  /**
+   * Returns the compiled expression cache used by this factory, or null
+   * if caching is disabled.
+   */
+  public ExprCache getExprCache()
+  {
+    return cache;
   }
   
 }
@@ -60,12 +60,22 @@ public class XPathImpl
   NamespaceContext namespaceContext;
   XPathVariableResolver variableResolver;
   XPathFunctionResolver functionResolver;
+  final ExprCache cache;
 
   XPathImpl(NamespaceContext namespaceContext,
             XPathVariableResolver variableResolver,
             XPathFunctionResolver functionResolver)
+  {
+    this(namespaceContext, variableResolver, functionResolver, null);
+  }
+
+  XPathImpl(NamespaceContext namespaceContext,
+            XPathVariableResolver variableResolver,
+            XPathFunctionResolver functionResolver,
+            ExprCache cache)
   {
     parser = new XPathParser();
+    this.cache = cache;
     this.namespaceContext = namespaceContext;
     this.variableResolver = variableResolver;
     this.functionResolver = functionResolver;
@@ -112,10 +122,30 @@ public class XPathImpl
   public XPathExpression compile(String expression)
     throws XPathExpressionException
   {
+    Object key = null;
+    if (cache != null)
+      {
+        key = ExprCache.key(expression, parser.namespaceContext,
+                            parser.variableResolver,
+                            parser.functionResolver);
+        if (key != null)
+          {
+            Expr expr = cache.get(key);
+            if (expr != null)
+              {
+                return expr;
+              }
+          }
+      }
     XPathTokenizer tokenizer = new XPathTokenizer(expression);
     try
       {
-        return (Expr) parser.yyparse(tokenizer);
+        Expr expr = (Expr) parser.yyparse(tokenizer);
+        if (key != null)
+          {
+            cache.put(key, expr);
+          }
+        return expr;
       }
     catch (IOException e)
       {
@@ -43,6 +43,7 @@ package gnu.xml.xpath;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import javax.xml.namespace.NamespaceContext;
@@ -80,6 +81,38 @@ public class XPathParser
     return qName;
   }
 
+  /**
+   * Evaluates when the expression is compiled an operator or core
+   * function whose operands are all constants, e.g. <code>2 * 3</code>
+   * or <code>concat('a', 'b')</code>. Such expressions do not depend
+   * on the context.
+   */
+  Expr fold(Expr expr, Object lhs, Object rhs)
+  {
+    if (lhs instanceof Constant && rhs instanceof Constant)
+      {
+        return new Constant(expr.evaluate(null, 1, 1));
+      }
+    return expr;
+  }
+
+  Expr fold(Expr expr, List args)
+  {
+    if (args.isEmpty())
+      {
+        // Zero-argument forms use the context node
+        return expr;
+      }
+    for (Iterator i = args.iterator(); i.hasNext(); )
+      {
+        if (!(i.next() instanceof Constant))
+          {
+            return expr;
+          }
+      }
+    return new Constant(expr.evaluate(null, 1, 1));
+  }
+
   Expr lookupFunction(String name, List args)
   {
     int arity = args.size();
@@ -93,15 +126,15 @@ public class XPathParser
       }
     else if ("string".equals(name) && (arity == 1 || arity == 0))
       {
-        return new StringFunction(args);
+        return fold(new StringFunction(args), args);
       }
     else if ("number".equals(name) && (arity == 1 || arity == 0))
       {
-        return new NumberFunction(args);
+        return fold(new NumberFunction(args), args);
       }
     else if ("boolean".equals(name) && arity == 1)
       {
-        return new BooleanFunction(args);
+        return fold(new BooleanFunction(args), args);
       }
     else if ("count".equals(name) && arity == 1)
       {
@@ -109,7 +142,7 @@ public class XPathParser
       }
     else if ("not".equals(name) && arity == 1)
       {
-        return new NotFunction(args);
+        return fold(new NotFunction(args), args);
       }
     else if ("id".equals(name) && arity == 1)
       {
@@ -117,7 +150,7 @@ public class XPathParser
       }
     else if ("concat".equals(name) && arity > 1)
       {
-        return new ConcatFunction(args);
+        return fold(new ConcatFunction(args), args);
       }
     else if ("true".equals(name) && arity == 0)
       {
@@ -141,35 +174,35 @@ public class XPathParser
       }
     else if ("starts-with".equals(name) && arity == 2)
       {
-        return new StartsWithFunction(args);
+        return fold(new StartsWithFunction(args), args);
       }
     else if ("contains".equals(name) && arity == 2)
       {
-        return new ContainsFunction(args);
+        return fold(new ContainsFunction(args), args);
       }
     else if ("string-length".equals(name) && (arity == 1 || arity == 0))
       {
-        return new StringLengthFunction(args);
+        return fold(new StringLengthFunction(args), args);
       }
     else if ("translate".equals(name) && arity == 3)
       {
-        return new TranslateFunction(args);
+        return fold(new TranslateFunction(args), args);
       }
     else if ("normalize-space".equals(name) && (arity == 1 || arity == 0))
       {
-        return new NormalizeSpaceFunction(args);
+        return fold(new NormalizeSpaceFunction(args), args);
       }
     else if ("substring".equals(name) && (arity == 2 || arity == 3))
       {
-        return new SubstringFunction(args);
+        return fold(new SubstringFunction(args), args);
       }
     else if ("substring-before".equals(name) && arity == 2)
       {
-        return new SubstringBeforeFunction(args);
+        return fold(new SubstringBeforeFunction(args), args);
       }
     else if ("substring-after".equals(name) && arity == 2)
       {
-        return new SubstringAfterFunction(args);
+        return fold(new SubstringAfterFunction(args), args);
       }
     else if ("lang".equals(name) && arity == 1)
       {
@@ -181,15 +214,15 @@ public class XPathParser
       }
     else if ("floor".equals(name) && arity == 1)
       {
-        return new FloorFunction(args);
+        return fold(new FloorFunction(args), args);
       }
     else if ("ceiling".equals(name) && arity == 1)
       {
-        return new CeilingFunction(args);
+        return fold(new CeilingFunction(args), args);
       }
     else if ("round".equals(name) && arity == 1)
       {
-        return new RoundFunction(args);
+        return fold(new RoundFunction(args), args);
       }
     else if (functionResolver != null)
       {
@@ -708,7 +741,8 @@ case 33:
 case 35:
 					// line 492 "XPathParser.y"
   {
-      yyVal = new ParenthesizedExpr((Expr) yyVals[-1+yyTop]);
+      yyVal = (yyVals[-1+yyTop] instanceof Constant) ? yyVals[-1+yyTop] :
+        new ParenthesizedExpr((Expr) yyVals[-1+yyTop]);
     }
   break;
 case 36:
@@ -822,85 +856,99 @@ case 50:
 case 52:
 					// line 608 "XPathParser.y"
   {
-      yyVal = new OrExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop]);
+      yyVal = fold(new OrExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop]),
+                   yyVals[-2+yyTop], yyVals[0+yyTop]);
     }
   break;
 case 54:
 					// line 616 "XPathParser.y"
   {
-      yyVal = new AndExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop]);
+      yyVal = fold(new AndExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop]),
+                   yyVals[-2+yyTop], yyVals[0+yyTop]);
     }
   break;
 case 56:
 					// line 624 "XPathParser.y"
   {
-      yyVal = new EqualityExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], false);
+      yyVal = fold(new EqualityExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], false),
+                   yyVals[-2+yyTop], yyVals[0+yyTop]);
     }
   break;
 case 57:
 					// line 628 "XPathParser.y"
   {
-      yyVal = new EqualityExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], true);
+      yyVal = fold(new EqualityExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], true),
+                   yyVals[-2+yyTop], yyVals[0+yyTop]);
     }
   break;
 case 59:
 					// line 636 "XPathParser.y"
   {
-      yyVal = new RelationalExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], true, false);
+      yyVal = fold(new RelationalExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], true, false),
+                   yyVals[-2+yyTop], yyVals[0+yyTop]);
     }
   break;
 case 60:
 					// line 640 "XPathParser.y"
   {
-      yyVal = new RelationalExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], false, false);
+      yyVal = fold(new RelationalExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], false, false),
+                   yyVals[-2+yyTop], yyVals[0+yyTop]);
     }
   break;
 case 61:
 					// line 644 "XPathParser.y"
   {
-      yyVal = new RelationalExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], true, true);
+      yyVal = fold(new RelationalExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], true, true),
+                   yyVals[-2+yyTop], yyVals[0+yyTop]);
     }
   break;
 case 62:
 					// line 648 "XPathParser.y"
   {
-      yyVal = new RelationalExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], false, true);
+      yyVal = fold(new RelationalExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], false, true),
+                   yyVals[-2+yyTop], yyVals[0+yyTop]);
     }
   break;
 case 64:
 					// line 656 "XPathParser.y"
   {
-      yyVal = new ArithmeticExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], ArithmeticExpr.ADD);
+      yyVal = fold(new ArithmeticExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], ArithmeticExpr.ADD),
+                   yyVals[-2+yyTop], yyVals[0+yyTop]);
     }
   break;
 case 65:
 					// line 660 "XPathParser.y"
   {
-      yyVal = new ArithmeticExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], ArithmeticExpr.SUBTRACT);
+      yyVal = fold(new ArithmeticExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], ArithmeticExpr.SUBTRACT),
+                   yyVals[-2+yyTop], yyVals[0+yyTop]);
     }
   break;
 case 67:
 					// line 668 "XPathParser.y"
   {
-      yyVal = new ArithmeticExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], ArithmeticExpr.MULTIPLY);
+      yyVal = fold(new ArithmeticExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], ArithmeticExpr.MULTIPLY),
+                   yyVals[-2+yyTop], yyVals[0+yyTop]);
     }
   break;
 case 68:
 					// line 672 "XPathParser.y"
   {
-      yyVal = new ArithmeticExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], ArithmeticExpr.DIVIDE);
+      yyVal = fold(new ArithmeticExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], ArithmeticExpr.DIVIDE),
+                   yyVals[-2+yyTop], yyVals[0+yyTop]);
     }
   break;
 case 69:
 					// line 676 "XPathParser.y"
   {
-      yyVal = new ArithmeticExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], ArithmeticExpr.MODULO);
+      yyVal = fold(new ArithmeticExpr((Expr) yyVals[-2+yyTop], (Expr) yyVals[0+yyTop], ArithmeticExpr.MODULO),
+                   yyVals[-2+yyTop], yyVals[0+yyTop]);
     }
   break;
 case 71:
 					// line 684 "XPathParser.y"
   {
-      yyVal = new NegativeExpr((Expr) yyVals[0+yyTop]);
+      yyVal = fold(new NegativeExpr((Expr) yyVals[0+yyTop]),
+                   yyVals[0+yyTop], yyVals[0+yyTop]);
     }
   break;
 case 72:
@@ -41,6 +41,7 @@ package gnu.xml.xpath;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import javax.xml.namespace.NamespaceContext;
@@ -78,6 +79,38 @@ public class XPathParser
     return qName;
   }
 
+  /**
+   * Evaluates when the expression is compiled an operator or core
+   * function whose operands are all constants, e.g. <code>2 * 3</code>
+   * or <code>concat('a', 'b')</code>. Such expressions do not depend
+   * on the context.
+   */
+  Expr fold(Expr expr, Object lhs, Object rhs)
+  {
+    if (lhs instanceof Constant && rhs instanceof Constant)
+      {
+        return new Constant(expr.evaluate(null, 1, 1));
+      }
+    return expr;
+  }
+
+  Expr fold(Expr expr, List args)
+  {
+    if (args.isEmpty())
+      {
+        // Zero-argument forms use the context node
+        return expr;
+      }
+    for (Iterator i = args.iterator(); i.hasNext(); )
+      {
+        if (!(i.next() instanceof Constant))
+          {
+            return expr;
+          }
+      }
+    return new Constant(expr.evaluate(null, 1, 1));
+  }
+
   Expr lookupFunction(String name, List args)
   {
     int arity = args.size();
@@ -91,15 +124,15 @@ public class XPathParser
       }
     else if ("string".equals(name) && (arity == 1 || arity == 0))
       {
-        return new StringFunction(args);
+        return fold(new StringFunction(args), args);
       }
     else if ("number".equals(name) && (arity == 1 || arity == 0))
       {
-        return new NumberFunction(args);
+        return fold(new NumberFunction(args), args);
       }
     else if ("boolean".equals(name) && arity == 1)
       {
-        return new BooleanFunction(args);
+        return fold(new BooleanFunction(args), args);
       }
     else if ("count".equals(name) && arity == 1)
       {
@@ -107,7 +140,7 @@ public class XPathParser
       }
     else if ("not".equals(name) && arity == 1)
       {
-        return new NotFunction(args);
+        return fold(new NotFunction(args), args);
       }
     else if ("id".equals(name) && arity == 1)
       {
@@ -115,7 +148,7 @@ public class XPathParser
       }
     else if ("concat".equals(name) && arity > 1)
       {
-        return new ConcatFunction(args);
+        return fold(new ConcatFunction(args), args);
       }
     else if ("true".equals(name) && arity == 0)
       {
@@ -139,35 +172,35 @@ public class XPathParser
       }
     else if ("starts-with".equals(name) && arity == 2)
       {
-        return new StartsWithFunction(args);
+        return fold(new StartsWithFunction(args), args);
       }
     else if ("contains".equals(name) && arity == 2)
       {
-        return new ContainsFunction(args);
+        return fold(new ContainsFunction(args), args);
       }
     else if ("string-length".equals(name) && (arity == 1 || arity == 0))
       {
-        return new StringLengthFunction(args);
+        return fold(new StringLengthFunction(args), args);
       }
     else if ("translate".equals(name) && arity == 3)
       {
-        return new TranslateFunction(args);
+        return fold(new TranslateFunction(args), args);
       }
     else if ("normalize-space".equals(name) && (arity == 1 || arity == 0))
       {
-        return new NormalizeSpaceFunction(args);
+        return fold(new NormalizeSpaceFunction(args), args);
       }
     else if ("substring".equals(name) && (arity == 2 || arity == 3))
       {
-        return new SubstringFunction(args);
+        return fold(new SubstringFunction(args), args);
       }
     else if ("substring-before".equals(name) && arity == 2)
       {
-        return new SubstringBeforeFunction(args);
+        return fold(new SubstringBeforeFunction(args), args);
       }
     else if ("substring-after".equals(name) && arity == 2)
       {
-        return new SubstringAfterFunction(args);
+        return fold(new SubstringAfterFunction(args), args);
       }
     else if ("lang".equals(name) && arity == 1)
       {
@@ -179,15 +212,15 @@ public class XPathParser
       }
     else if ("floor".equals(name) && arity == 1)
       {
-        return new FloorFunction(args);
+        return fold(new FloorFunction(args), args);
       }
     else if ("ceiling".equals(name) && arity == 1)
       {
-        return new CeilingFunction(args);
+        return fold(new CeilingFunction(args), args);
       }
     else if ("round".equals(name) && arity == 1)
       {
-        return new RoundFunction(args);
+        return fold(new RoundFunction(args), args);
       }
     else if (functionResolver != null)
       {
@@ -490,7 +523,8 @@ primary_expr:
   variable_reference
   | LP expr RP
     {
-      $$ = new ParenthesizedExpr((Expr) $2);
+      $$ = ($2 instanceof Constant) ? $2 :
+        new ParenthesizedExpr((Expr) $2);
     }
   | LITERAL
     {
@@ -606,7 +640,7 @@ or_expr:
   and_expr
   | or_expr OR and_expr
     {
-      $$ = new OrExpr((Expr) $1, (Expr) $3);
+      $$ = fold(new OrExpr((Expr) $1, (Expr) $3), $1, $3);
     }
   ;
 
@@ -614,7 +648,7 @@ and_expr:
   equality_expr
   | and_expr AND equality_expr
     {
-      $$ = new AndExpr((Expr) $1, (Expr) $3);
+      $$ = fold(new AndExpr((Expr) $1, (Expr) $3), $1, $3);
     }
   ;
 
@@ -622,11 +656,11 @@ equality_expr:
   relational_expr
   | equality_expr EQ relational_expr
     {
-      $$ = new EqualityExpr((Expr) $1, (Expr) $3, false);
+      $$ = fold(new EqualityExpr((Expr) $1, (Expr) $3, false), $1, $3);
     }
   | equality_expr NE relational_expr
     {
-      $$ = new EqualityExpr((Expr) $1, (Expr) $3, true);
+      $$ = fold(new EqualityExpr((Expr) $1, (Expr) $3, true), $1, $3);
     }
   ;
 
@@ -634,19 +668,20 @@ relational_expr:
   additive_expr
   | relational_expr LT additive_expr
     {
-      $$ = new RelationalExpr((Expr) $1, (Expr) $3, true, false);
+      $$ = fold(new RelationalExpr((Expr) $1, (Expr) $3, true, false), $1, $3);
     }
   | relational_expr GT additive_expr
     {
-      $$ = new RelationalExpr((Expr) $1, (Expr) $3, false, false);
+      $$ = fold(new RelationalExpr((Expr) $1, (Expr) $3, false, false),
+                $1, $3);
     }
   | relational_expr LTE additive_expr
     {
-      $$ = new RelationalExpr((Expr) $1, (Expr) $3, true, true);
+      $$ = fold(new RelationalExpr((Expr) $1, (Expr) $3, true, true), $1, $3);
     }
   | relational_expr GTE additive_expr
     {
-      $$ = new RelationalExpr((Expr) $1, (Expr) $3, false, true);
+      $$ = fold(new RelationalExpr((Expr) $1, (Expr) $3, false, true), $1, $3);
     }
   ;
 
@@ -654,11 +689,13 @@ additive_expr:
   multiplicative_expr
   | additive_expr PLUS multiplicative_expr
     {
-      $$ = new ArithmeticExpr((Expr) $1, (Expr) $3, ArithmeticExpr.ADD);
+      $$ = fold(new ArithmeticExpr((Expr) $1, (Expr) $3, ArithmeticExpr.ADD),
+                $1, $3);
     }
   | additive_expr MINUS multiplicative_expr
     {
-      $$ = new ArithmeticExpr((Expr) $1, (Expr) $3, ArithmeticExpr.SUBTRACT);
+      $$ = fold(new ArithmeticExpr((Expr) $1, (Expr) $3, ArithmeticExpr.SUBTRACT),
+                $1, $3);
     }
   ;
 
@@ -666,15 +703,18 @@ multiplicative_expr:
   unary_expr
   | multiplicative_expr STAR unary_expr
     {
-      $$ = new ArithmeticExpr((Expr) $1, (Expr) $3, ArithmeticExpr.MULTIPLY);
+      $$ = fold(new ArithmeticExpr((Expr) $1, (Expr) $3, ArithmeticExpr.MULTIPLY),
+                $1, $3);
     }
   | multiplicative_expr DIV unary_expr
     {
-      $$ = new ArithmeticExpr((Expr) $1, (Expr) $3, ArithmeticExpr.DIVIDE);
+      $$ = fold(new ArithmeticExpr((Expr) $1, (Expr) $3, ArithmeticExpr.DIVIDE),
+                $1, $3);
     }
   | multiplicative_expr MOD unary_expr
     {
-      $$ = new ArithmeticExpr((Expr) $1, (Expr) $3, ArithmeticExpr.MODULO);
+      $$ = fold(new ArithmeticExpr((Expr) $1, (Expr) $3, ArithmeticExpr.MODULO),
+                $1, $3);
     }
   ;
 
@@ -682,7 +722,7 @@ unary_expr:
   union_expr
   | MINUS unary_expr %prec UNARY
     {
-      $$ = new NegativeExpr((Expr) $2);
+      $$ = fold(new NegativeExpr((Expr) $2), $2, $2);
     }
   ;
 
@@ -38,8 +38,14 @@
 
 package javax.xml.validation;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
 import java.net.URL;
+import java.util.Properties;
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 import org.w3c.dom.ls.LSResourceResolver;
@@ -66,15 +72,111 @@ public abstract class SchemaFactory
   /**
    * Returns an implementation of <code>SchemaFactory</code> that supports
    * the specified schema language.
+   * The implementation class to load is the first found in the following
+   * locations that advertises support for the given language:
+   * <ol>
+   * <li>the <code>javax.xml.validation.SchemaFactory:</code><i>language</i>
+   * system property</li>
+   * <li>the above named property value in the
+   * <code><i>$JAVA_HOME</i>/lib/jaxp.properties</code> file</li>
+   * <li>the class name specified in the
+   * <code>META-INF/services/javax.xml.validation.SchemaFactory</code>
+   * system resource</li>
+   * <li>the default factory class, for W3C XML Schema</li>
+   * </ol>
    * @param schemaLanguage the URI of a schema language (see
    * <code>XMLConstants</code>)
    */
   public static final SchemaFactory newInstance(String schemaLanguage)
   {
-    // TODO
+    ClassLoader loader = Thread.currentThread().getContextClassLoader();
+    if (loader == null)
+      {
+        loader = SchemaFactory.class.getClassLoader();
+      }
+    for (int count = 0; count < 4; count++)
+      {
+        String className = getFactoryClassName(loader, schemaLanguage,
+                                               count);
+        if (className != null)
+          {
+            try
+              {
+                Class t = (loader != null) ? loader.loadClass(className) :
+                  Class.forName(className);
+                SchemaFactory ret = (SchemaFactory) t.newInstance();
+                if (ret.isSchemaLanguageSupported(schemaLanguage))
+                  {
+                    return ret;
+                  }
+              }
+            catch (ClassNotFoundException e)
+              {
+              }
+            catch (Exception e)
+              {
+                RuntimeException e2 = new IllegalArgumentException(className);
+                e2.initCause(e);
+                throw e2;
+              }
+          }
+      }
     throw new IllegalArgumentException(schemaLanguage);
   }
 
+  private static String getFactoryClassName(ClassLoader loader,
+                                            String schemaLanguage,
+                                            int attempt)
+  {
+    final String factoryClassName = SchemaFactory.class.getName();
+    final String propertyName = factoryClassName + ":" + schemaLanguage;
+    switch (attempt)
+      {
+        case 0:
+          return System.getProperty(propertyName);
+        case 1:
+          try
+            {
+              File file = new File(System.getProperty("java.home"));
+              file = new File(file, "lib");
+              file = new File(file, "jaxp.properties");
+              InputStream in = new FileInputStream(file);
+              Properties props = new Properties();
+              props.load(in);
+              in.close();
+              return props.getProperty(propertyName);
+            }
+          catch (IOException e)
+            {
+              return null;
+            }
+        case 2:
+          try
+            {
+              String serviceKey = "/META-INF/services/" + factoryClassName;
+              InputStream in = (loader != null) ?
+                loader.getResourceAsStream(serviceKey) :
+                SchemaFactory.class.getResourceAsStream(serviceKey);
+              if (in != null)
+                {
+                  BufferedReader r =
+                    new BufferedReader(new InputStreamReader(in));
+                  String ret = r.readLine();
+                  r.close();
+                  return ret;
+                }
+            }
+          catch (IOException e)
+            {
+            }
+          return null;
+        case 3:
+          return "gnu.xml.validation.xmlschema.XMLSchemaSchemaFactory";
+        default:
+          return null;
+      }
+  }
+
   /**
    * Indicates whether the specified schema language is supported.
    * @param schemaLanguage the URI of a schema language (see
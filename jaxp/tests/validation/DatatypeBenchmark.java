@@ -0,0 +1,236 @@
+package tests.validation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.regex.Pattern;
+import javax.xml.namespace.QName;
+
+import gnu.xml.validation.datatype.PatternFacet;
+import gnu.xml.validation.datatype.SimpleType;
+import gnu.xml.validation.datatype.Type;
+
+/**
+ * Micro-benchmark of the lexical checks of the built-in XML Schema
+ * datatypes.
+ * For each type, every sample value is checked repeatedly with
+ * SimpleType.matches, and the time and the number of bytes allocated
+ * per check are reported. A restriction of string with a pattern facet
+ * is measured as well.
+ * <p>
+ * Run from the jaxp directory with:
+ * <pre>
+ * java -cp classes:tests tests.validation.DatatypeBenchmark [iterations]
+ * </pre>
+ */
+public class DatatypeBenchmark
+{
+
+  /**
+   * Built-in type names, each followed by sample values of the type.
+   */
+  static final String[][] SAMPLES = {
+    { "string", "hello world", "  padded  ", "" },
+    { "normalizedString", "hello world", "a b c" },
+    { "token", "hello world", "abc" },
+    { "language", "en", "en-GB", "x-klingon" },
+    { "NMTOKEN", "abc-123", "_x.y:z" },
+    { "NMTOKENS", "abc def", "a1 b2 c3 d4" },
+    { "Name", "foo:bar", "_x1" },
+    { "NCName", "foo", "a-b.c_d" },
+    { "ID", "id1", "_x" },
+    { "IDREF", "id1", "_x" },
+    { "IDREFS", "id1 id2", "_x _y _z" },
+    { "ENTITY", "ent", "_e1" },
+    { "ENTITIES", "ent1 ent2", "_e" },
+    { "QName", "xs:string", "local" },
+    { "NOTATION", "gif", "png" },
+    { "anyURI", "http://www.gnu.org/software/classpath/", "../a/b#c" },
+    { "boolean", "true", "0", "false" },
+    { "decimal", "-1234.5678", "+0.5", "42" },
+    { "float", "3.14", "-1E4", "INF", "NaN" },
+    { "double", "1.7976931348623157E308", "-0", "-INF" },
+    { "duration", "P1Y2M3DT10H30M", "-PT0.5S" },
+    { "dateTime", "2004-04-12T13:20:00Z", "2004-04-12T13:20:00.5-05:00" },
+    { "time", "13:20:00", "13:20:00.123+01:00" },
+    { "date", "2004-04-12", "-0045-01-01Z" },
+    { "gYearMonth", "2004-04", "2004-04Z" },
+    { "gYear", "2004", "-0045" },
+    { "gMonthDay", "--04-12", "--12-31Z" },
+    { "gDay", "---12", "---01+02:00" },
+    { "gMonth", "--04", "--12Z" },
+    { "hexBinary", "0FB7", "deadBEEF" },
+    { "base64Binary", "R0lGODlh", "SGVsbG8gd29ybGQ=" },
+    { "integer", "-12345678901234567890", "+42", "0" },
+    { "nonPositiveInteger", "-42", "0" },
+    { "negativeInteger", "-1", "-12345678901234567890" },
+    { "long", "-9223372036854775808", "9223372036854775807" },
+    { "int", "-2147483648", "2147483647" },
+    { "short", "-32768", "32767" },
+    { "byte", "-128", "127" },
+    { "nonNegativeInteger", "0", "12345678901234567890" },
+    { "unsignedLong", "18446744073709551615", "0" },
+    { "unsignedInt", "4294967295", "1" },
+    { "unsignedShort", "65535", "1" },
+    { "unsignedByte", "255", "1" },
+    { "positiveInteger", "1", "12345678901234567890" },
+  };
+
+  static final String[] PATTERN_SAMPLES = { "ABC-1234", "XYZ-0000" };
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+    Allocation allocation = new Allocation();
+    System.out.println("type                  ns/check  bytes/check");
+    for (int i = 0; i < SAMPLES.length; i++)
+      {
+        String name = SAMPLES[i][0];
+        SimpleType type = (SimpleType) Type.forName(name);
+        String[] values = new String[SAMPLES[i].length - 1];
+        System.arraycopy(SAMPLES[i], 1, values, 0, values.length);
+        run(name, type, values, iterations, allocation);
+      }
+    SimpleType pattern =
+      new SimpleType(new QName("pattern"), SimpleType.ATOMIC,
+                     Collections.singleton(new PatternFacet(Pattern.compile("[A-Z]{3}-[0-9]{4}"),
+                                                            null)),
+                     0, Type.STRING, null);
+    run("string + pattern", pattern, PATTERN_SAMPLES, iterations, allocation);
+  }
+
+  static void run(String name, SimpleType type, String[] values,
+                  int iterations, Allocation allocation)
+  {
+    int rejected = 0;
+    for (int i = 0; i < values.length; i++)
+      {
+        if (!type.matches(values[i]))
+          {
+            rejected++;
+          }
+      }
+    // Warm up, then keep the fastest of several rounds
+    check(type, values, iterations);
+    long best = Long.MAX_VALUE;
+    long bytes = 0L;
+    for (int round = 0; round < 5; round++)
+      {
+        long allocated = allocation.get();
+        long start = System.nanoTime();
+        check(type, values, iterations);
+        long elapsed = System.nanoTime() - start;
+        bytes = (allocated < 0L) ? -1L : allocation.get() - allocated;
+        if (elapsed < best)
+          {
+            best = elapsed;
+          }
+      }
+    long checks = (long) iterations * values.length;
+    StringBuffer line = new StringBuffer(name);
+    pad(line, 20);
+    String ns = format((double) best / checks, 1);
+    pad(line, 30 - ns.length());
+    line.append(ns);
+    String b = (bytes < 0L) ? "?" : format((double) bytes / checks, 1);
+    pad(line, 43 - b.length());
+    line.append(b);
+    if (rejected > 0)
+      {
+        line.append("  (rejected " + rejected + " of " + values.length + ")");
+      }
+    System.out.println(line);
+  }
+
+  static int sink;
+
+  static void check(SimpleType type, String[] values, int iterations)
+  {
+    int count = 0;
+    for (int i = 0; i < iterations; i++)
+      {
+        for (int j = 0; j < values.length; j++)
+          {
+            if (type.matches(values[j]))
+              {
+                count++;
+              }
+          }
+      }
+    sink += count;
+  }
+
+  static void pad(StringBuffer buf, int column)
+  {
+    do
+      {
+        buf.append(' ');
+      }
+    while (buf.length() < column);
+  }
+
+  static String format(double value, int decimals)
+  {
+    long scale = 1L;
+    for (int i = 0; i < decimals; i++)
+      {
+        scale *= 10L;
+      }
+    long scaled = Math.round(value * scale);
+    String fraction = Long.toString(scaled % scale);
+    while (fraction.length() < decimals)
+      {
+        fraction = "0" + fraction;
+      }
+    return Long.toString(scaled / scale) + "." + fraction;
+  }
+
+  /**
+   * Bytes allocated by the current thread, where the VM reports them.
+   */
+  static class Allocation
+  {
+
+    Object bean;
+    Method method;
+
+    Allocation()
+    {
+      bean = ManagementFactory.getThreadMXBean();
+      try
+        {
+          Class c = Class.forName("com.sun.management.ThreadMXBean");
+          if (c.isInstance(bean))
+            {
+              method = c.getMethod("getThreadAllocatedBytes",
+                                   new Class[] { Long.TYPE });
+            }
+        }
+      catch (Exception e)
+        {
+          method = null;
+        }
+    }
+
+    long get()
+    {
+      if (method == null)
+        {
+          return -1L;
+        }
+      try
+        {
+          Long id = new Long(Thread.currentThread().getId());
+          return ((Long) method.invoke(bean, new Object[] { id }))
+            .longValue();
+        }
+      catch (Exception e)
+        {
+          return -1L;
+        }
+    }
+
+  }
+
+}
@@ -0,0 +1,805 @@
+package tests.validation;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import gnu.xml.validation.xmlschema.XMLSchemaSchemaFactory;
+
+/**
+ * Differential test of the XML Schema validator.
+ * Each schema in the corpus is loaded by both the GNU schema factory and
+ * a reference implementation (the platform's default factory), and every
+ * instance document, together with mutations of each one, is validated
+ * by both. The test fails if they disagree about whether any document
+ * is valid.
+ * <p>
+ * Run with a reference implementation ahead of GNU JAXP, for example
+ * from the jaxp directory with:
+ * <pre>
+ * java -cp classes:tests tests.validation.XMLSchemaTest [-v]
+ * </pre>
+ */
+public class XMLSchemaTest
+{
+
+  static final String XS = XMLConstants.W3C_XML_SCHEMA_NS_URI;
+  static final String XSI = XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI;
+
+  static final String HEAD =
+    "<xs:schema xmlns:xs='" + XS + "'";
+  static final String XSI_DECL = " xmlns:xsi='" + XSI + "'";
+
+  /**
+   * Schemas, each followed by instance documents.
+   */
+  static final String[][] CORPUS = {
+    // Sequences, choices and occurrence bounds
+    {
+      HEAD + ">" +
+      "<xs:element name='r'><xs:complexType><xs:sequence>" +
+      "<xs:element name='a' minOccurs='0'/>" +
+      "<xs:choice minOccurs='1' maxOccurs='3'>" +
+      "<xs:element name='b' type='xs:int'/>" +
+      "<xs:element name='c' type='xs:string'/>" +
+      "</xs:choice>" +
+      "<xs:element name='d' minOccurs='2' maxOccurs='4'/>" +
+      "</xs:sequence></xs:complexType></xs:element>" +
+      "</xs:schema>",
+      "<r><a/><b>1</b><d/><d/></r>",
+      "<r><b>1</b><c>x</c><c>y</c><d/><d/><d/><d/></r>",
+      "<r><b>1</b><c>x</c><c>y</c><b>2</b><d/><d/></r>",
+      "<r><a/><d/><d/></r>",
+      "<r><c/><d/></r>",
+      "<r><c/><d/><d/><d/><d/><d/></r>",
+    },
+    // Large occurrence bounds
+    {
+      HEAD + ">" +
+      "<xs:element name='r'><xs:complexType><xs:sequence>" +
+      "<xs:element name='a' minOccurs='0' maxOccurs='300'/>" +
+      "<xs:element name='b' minOccurs='260' maxOccurs='1000'/>" +
+      "<xs:element name='c' minOccurs='0'/>" +
+      "</xs:sequence></xs:complexType></xs:element>" +
+      "</xs:schema>",
+      repeat("<r>", "<a/>", 300, "", "<b/>", 260, "</r>"),
+      repeat("<r>", "<a/>", 301, "", "<b/>", 260, "</r>"),
+      repeat("<r>", "<a/>", 3, "", "<b/>", 259, "<c/></r>"),
+      repeat("<r>", "", 0, "", "<b/>", 1000, "<c/></r>"),
+      repeat("<r>", "", 0, "", "<b/>", 1001, "</r>"),
+    },
+    // Repeated groups with large bounds
+    {
+      HEAD + ">" +
+      "<xs:element name='r'><xs:complexType>" +
+      "<xs:sequence minOccurs='0' maxOccurs='400'>" +
+      "<xs:element name='a'/><xs:element name='b' minOccurs='0'/>" +
+      "</xs:sequence></xs:complexType></xs:element>" +
+      "</xs:schema>",
+      repeat("<r>", "<a/><b/>", 400, "", "", 0, "</r>"),
+      repeat("<r>", "<a/>", 400, "", "", 0, "</r>"),
+      repeat("<r>", "<a/><b/>", 401, "", "", 0, "</r>"),
+      repeat("<r>", "<a/>", 399, "<b/>", "<a/>", 2, "</r>"),
+      "<r/>",
+    },
+    // Large minimum with no maximum, and a counted wildcard
+    {
+      HEAD + ">" +
+      "<xs:element name='r'><xs:complexType><xs:sequence>" +
+      "<xs:element name='a' minOccurs='40' maxOccurs='unbounded'/>" +
+      "<xs:any namespace='##other' processContents='skip'" +
+      " minOccurs='0' maxOccurs='50'/>" +
+      "<xs:element name='c' minOccurs='0'/>" +
+      "</xs:sequence></xs:complexType></xs:element>" +
+      "</xs:schema>",
+      repeat("<r>", "<a/>", 40, "", "<x:w xmlns:x='urn:x'/>", 50, "</r>"),
+      repeat("<r>", "<a/>", 39, "", "", 0, "<c/></r>"),
+      repeat("<r>", "<a/>", 45, "", "<x:w xmlns:x='urn:x'/>", 51, "</r>"),
+      repeat("<r>", "<a/>", 41, "", "<x:w xmlns:x='urn:x'/>", 3,
+             "<c/></r>"),
+    },
+    // All groups
+    {
+      HEAD + ">" +
+      "<xs:element name='r'><xs:complexType><xs:all>" +
+      "<xs:element name='a'/><xs:element name='b' minOccurs='0'/>" +
+      "<xs:element name='c' type='xs:boolean'/>" +
+      "</xs:all></xs:complexType></xs:element>" +
+      "</xs:schema>",
+      "<r><a/><b/><c>true</c></r>",
+      "<r><c>0</c><a/></r>",
+      "<r><c>1</c><a/><b/><a/></r>",
+      "<r><b/><c>yes</c><a/></r>",
+      "<r><b/><a/></r>",
+    },
+    // Substitution groups
+    {
+      HEAD + " targetNamespace='urn:s' xmlns='urn:s'" +
+      " elementFormDefault='qualified'>" +
+      "<xs:complexType name='Base'><xs:sequence>" +
+      "<xs:element name='x' type='xs:string'/>" +
+      "</xs:sequence></xs:complexType>" +
+      "<xs:complexType name='Ext'><xs:complexContent>" +
+      "<xs:extension base='Base'><xs:sequence>" +
+      "<xs:element name='y' type='xs:int'/>" +
+      "</xs:sequence></xs:extension></xs:complexContent></xs:complexType>" +
+      "<xs:element name='shape' type='Base' abstract='true'/>" +
+      "<xs:element name='circle' substitutionGroup='shape'/>" +
+      "<xs:element name='square' type='Ext' substitutionGroup='shape'/>" +
+      "<xs:element name='cube' substitutionGroup='square'/>" +
+      "<xs:element name='item' type='xs:string'/>" +
+      "<xs:element name='book' type='xs:string' substitutionGroup='item'/>" +
+      "<xs:element name='fixed' type='Base' block='substitution'/>" +
+      "<xs:element name='sub' type='Base' substitutionGroup='fixed'/>" +
+      "<xs:element name='noext' type='Base' block='extension'/>" +
+      "<xs:element name='subext' type='Ext' substitutionGroup='noext'/>" +
+      "<xs:element name='r'><xs:complexType><xs:sequence>" +
+      "<xs:element ref='shape' minOccurs='0' maxOccurs='unbounded'/>" +
+      "<xs:element ref='item' minOccurs='0'/>" +
+      "<xs:element ref='fixed' minOccurs='0'/>" +
+      "<xs:element ref='noext' minOccurs='0'/>" +
+      "</xs:sequence></xs:complexType></xs:element>" +
+      "</xs:schema>",
+      "<r xmlns='urn:s'><circle><x>a</x></circle>" +
+      "<square><x>a</x><y>1</y></square><cube><x/><y>2</y></cube></r>",
+      "<r xmlns='urn:s'><shape><x>a</x></shape></r>",
+      "<r xmlns='urn:s'><item>i</item><book>b</book></r>",
+      "<r xmlns='urn:s'><book>b</book><fixed><x/></fixed></r>",
+      "<r xmlns='urn:s'><sub><x/></sub></r>",
+      "<r xmlns='urn:s'><noext><x/></noext></r>",
+      "<r xmlns='urn:s'><subext><x/><y>1</y></subext></r>",
+      "<r xmlns='urn:s'><square><x>a</x></square></r>",
+    },
+    // Substitution groups in all groups and choices
+    {
+      HEAD + ">" +
+      "<xs:element name='h' type='xs:string'/>" +
+      "<xs:element name='m' type='xs:token' substitutionGroup='h'/>" +
+      "<xs:element name='n' substitutionGroup='h'/>" +
+      "<xs:element name='r'><xs:complexType><xs:choice>" +
+      "<xs:sequence><xs:element name='s'/><xs:element ref='h'/>" +
+      "</xs:sequence>" +
+      "<xs:element name='t'><xs:complexType><xs:all>" +
+      "<xs:element ref='h'/><xs:element name='u'/>" +
+      "</xs:all></xs:complexType></xs:element>" +
+      "</xs:choice></xs:complexType></xs:element>" +
+      "</xs:schema>",
+      "<r><s/><h>v</h></r>",
+      "<r><s/><m>v</m></r>",
+      "<r><s/><n>v</n></r>",
+      "<r><t><m>v</m><u/></t></r>",
+      "<r><t><u/><n/></t></r>",
+      "<r><t><u/><h/><m/></t></r>",
+    },
+    // xsi:type
+    {
+      HEAD + " targetNamespace='urn:t' xmlns:t='urn:t'>" +
+      "<xs:complexType name='Base'><xs:sequence>" +
+      "<xs:element name='x' type='xs:string'/>" +
+      "</xs:sequence><xs:attribute name='id' type='xs:ID'/>" +
+      "</xs:complexType>" +
+      "<xs:complexType name='Ext'><xs:complexContent>" +
+      "<xs:extension base='t:Base'><xs:sequence>" +
+      "<xs:element name='y' type='xs:int'/>" +
+      "</xs:sequence></xs:extension></xs:complexContent></xs:complexType>" +
+      "<xs:complexType name='Res'><xs:complexContent>" +
+      "<xs:restriction base='t:Base'><xs:sequence>" +
+      "<xs:element name='x' type='xs:string'/>" +
+      "</xs:sequence></xs:restriction></xs:complexContent>" +
+      "</xs:complexType>" +
+      "<xs:complexType name='Other'><xs:sequence>" +
+      "<xs:element name='x' type='xs:string'/>" +
+      "</xs:sequence></xs:complexType>" +
+      "<xs:complexType name='Abstract' abstract='true'>" +
+      "<xs:complexContent><xs:extension base='t:Base'/>" +
+      "</xs:complexContent></xs:complexType>" +
+      "<xs:complexType name='Final' block='extension'>" +
+      "<xs:sequence><xs:element name='x' type='xs:string'/>" +
+      "</xs:sequence></xs:complexType>" +
+      "<xs:complexType name='FinalExt'><xs:complexContent>" +
+      "<xs:extension base='t:Final'/></xs:complexContent>" +
+      "</xs:complexType>" +
+      "<xs:simpleType name='small'><xs:restriction base='xs:int'>" +
+      "<xs:maxInclusive value='9'/></xs:restriction></xs:simpleType>" +
+      "<xs:element name='r'><xs:complexType><xs:sequence>" +
+      "<xs:element name='e' type='t:Base' maxOccurs='unbounded'/>" +
+      "<xs:element name='f' type='t:Base' block='extension'" +
+      " minOccurs='0'/>" +
+      "<xs:element name='g' type='t:Final' minOccurs='0'/>" +
+      "<xs:element name='n' type='xs:integer' minOccurs='0'/>" +
+      "<xs:element name='a' minOccurs='0'/>" +
+      "</xs:sequence></xs:complexType></xs:element>" +
+      "</xs:schema>",
+      "<t:r xmlns:t='urn:t'" + XSI_DECL + "><e><x/></e>" +
+      "<e xsi:type='t:Ext'><x/><y>1</y></e></t:r>",
+      "<t:r xmlns:t='urn:t'" + XSI_DECL + ">" +
+      "<e xsi:type='t:Res'><x/></e></t:r>",
+      "<t:r xmlns:t='urn:t'" + XSI_DECL + ">" +
+      "<e xsi:type='t:Other'><x/></e></t:r>",
+      "<t:r xmlns:t='urn:t'" + XSI_DECL + ">" +
+      "<e xsi:type='t:Abstract'><x/></e></t:r>",
+      "<t:r xmlns:t='urn:t'" + XSI_DECL + ">" +
+      "<e xsi:type='t:Missing'><x/></e></t:r>",
+      "<t:r xmlns:t='urn:t'" + XSI_DECL + "><e><x/></e>" +
+      "<f xsi:type='t:Ext'><x/><y>1</y></f></t:r>",
+      "<t:r xmlns:t='urn:t'" + XSI_DECL + "><e><x/></e>" +
+      "<f xsi:type='t:Res'><x/></f></t:r>",
+      "<t:r xmlns:t='urn:t'" + XSI_DECL + "><e><x/></e>" +
+      "<g xsi:type='t:FinalExt'><x/></g></t:r>",
+      "<r:r xmlns:r='urn:t' xmlns:q='urn:t'" + XSI_DECL + "><e><x/></e>" +
+      "<n xsi:type='q:small'>5</n></r:r>",
+      "<r:r xmlns:r='urn:t'" + XSI_DECL + "><e><x/></e>" +
+      "<n xsi:type='r:small'>10</n></r:r>",
+      "<r:r xmlns:r='urn:t'" + XSI_DECL + "><e><x/></e>" +
+      "<n xsi:type='xs:string' xmlns:xs='" + XS + "'>5</n></r:r>",
+      "<r:r xmlns:r='urn:t'" + XSI_DECL + "><e><x/></e>" +
+      "<a xsi:type='xs:date' xmlns:xs='" + XS + "'>2001-01-01</a></r:r>",
+      "<r:r xmlns:r='urn:t'" + XSI_DECL + "><e><x/></e>" +
+      "<a xsi:type='undeclared:date'>2001-01-01</a></r:r>",
+    },
+    // xsi:nil
+    {
+      HEAD + ">" +
+      "<xs:element name='r'><xs:complexType><xs:sequence>" +
+      "<xs:element name='a' type='xs:int' nillable='true'" +
+      " maxOccurs='unbounded'/>" +
+      "<xs:element name='b' type='xs:int' minOccurs='0'/>" +
+      "<xs:element name='c' nillable='true' minOccurs='0'>" +
+      "<xs:complexType><xs:sequence><xs:element name='d'/>" +
+      "</xs:sequence><xs:attribute name='k' use='required'/>" +
+      "</xs:complexType></xs:element>" +
+      "<xs:element name='f' type='xs:int' nillable='true' fixed='1'" +
+      " minOccurs='0'/>" +
+      "</xs:sequence></xs:complexType></xs:element>" +
+      "</xs:schema>",
+      "<r" + XSI_DECL + "><a xsi:nil='true'/><a>1</a>" +
+      "<a xsi:nil='1'/><a xsi:nil='false'>2</a><a xsi:nil='0'>3</a>" +
+      "<a xsi:nil=' true '/></r>",
+      "<r" + XSI_DECL + "><a xsi:nil='maybe'/></r>",
+      "<r" + XSI_DECL + "><a xsi:nil='TRUE'/></r>",
+      "<r" + XSI_DECL + "><a xsi:nil='true'>1</a></r>",
+      "<r" + XSI_DECL + "><a xsi:nil='false'/></r>",
+      "<r" + XSI_DECL + "><a/><b xsi:nil='false'>1</b></r>",
+      "<r" + XSI_DECL + "><a>1</a><c xsi:nil='true' k='v'/></r>",
+      "<r" + XSI_DECL + "><a>1</a><c xsi:nil='true'/></r>",
+      "<r" + XSI_DECL + "><a>1</a><c xsi:nil='true' k=''><d/></c></r>",
+      "<r" + XSI_DECL + "><a>1</a><f xsi:nil='true'/></r>",
+      "<r" + XSI_DECL + "><a>1</a><f>1</f></r>",
+      "<r" + XSI_DECL + "><a>1</a><f xsi:nil='false'>2</f></r>",
+    },
+    // List and union types
+    {
+      HEAD + ">" +
+      "<xs:simpleType name='ints'><xs:list itemType='xs:int'/>" +
+      "</xs:simpleType>" +
+      "<xs:simpleType name='three'><xs:restriction base='ints'>" +
+      "<xs:length value='3'/></xs:restriction></xs:simpleType>" +
+      "<xs:simpleType name='dates'><xs:list>" +
+      "<xs:simpleType><xs:restriction base='xs:date'>" +
+      "<xs:minInclusive value='2000-01-01'/></xs:restriction>" +
+      "</xs:simpleType></xs:list></xs:simpleType>" +
+      "<xs:simpleType name='num'><xs:union memberTypes='xs:int small'/>" +
+      "</xs:simpleType>" +
+      "<xs:simpleType name='small'><xs:restriction base='xs:string'>" +
+      "<xs:enumeration value='one'/><xs:enumeration value='two'/>" +
+      "</xs:restriction></xs:simpleType>" +
+      "<xs:simpleType name='mixed'><xs:union memberTypes='xs:boolean'>" +
+      "<xs:simpleType><xs:restriction base='xs:decimal'>" +
+      "<xs:maxExclusive value='5'/></xs:restriction></xs:simpleType>" +
+      "</xs:union></xs:simpleType>" +
+      "<xs:simpleType name='pattern'><xs:restriction base='num'>" +
+      "<xs:pattern value='[a-z0-3]+'/></xs:restriction></xs:simpleType>" +
+      "<xs:simpleType name='nums'><xs:list itemType='num'/>" +
+      "</xs:simpleType>" +
+      "<xs:simpleType name='short'><xs:restriction base='nums'>" +
+      "<xs:maxLength value='2'/></xs:restriction></xs:simpleType>" +
+      "<xs:element name='r'><xs:complexType><xs:sequence>" +
+      "<xs:element name='i' type='ints' minOccurs='0'/>" +
+      "<xs:element name='t' type='three' minOccurs='0'/>" +
+      "<xs:element name='d' type='dates' minOccurs='0'/>" +
+      "<xs:element name='n' type='num' minOccurs='0'/>" +
+      "<xs:element name='m' type='mixed' minOccurs='0'/>" +
+      "<xs:element name='p' type='pattern' minOccurs='0'/>" +
+      "<xs:element name='s' type='short' minOccurs='0'/>" +
+      "</xs:sequence><xs:attribute name='l' type='ints'/>" +
+      "</xs:complexType></xs:element>" +
+      "</xs:schema>",
+      "<r l=' 1  2 3'><i>1 2\n3</i><t> 4 5 6 </t>" +
+      "<d>2000-01-01 2010-12-31</d><n>12</n><m>true</m><p>one</p>" +
+      "<s>1 two</s></r>",
+      "<r><i></i><n>two</n><m>4.99</m><p>13</p><s/></r>",
+      "<r l='1 x'/>",
+      "<r><i>1 2.5</i></r>",
+      "<r><t>1 2</t></r>",
+      "<r><t>1 2 3 4</t></r>",
+      "<r><d>1999-12-31</d></r>",
+      "<r><n>three</n></r>",
+      "<r><m>5</m></r>",
+      "<r><m>1</m></r>",
+      "<r><p>two</p></r>",
+      "<r><p>45</p></r>",
+      "<r><s>1 2 3</s></r>",
+      "<r><s>1 six</s></r>",
+    },
+    // Attribute groups
+    {
+      HEAD + " targetNamespace='urn:a' xmlns='urn:a'>" +
+      "<xs:element name='r'><xs:complexType><xs:sequence>" +
+      "<xs:element name='e' maxOccurs='unbounded'>" +
+      "<xs:complexType><xs:attributeGroup ref='common'/>" +
+      "<xs:attribute name='own' type='xs:int'/>" +
+      "</xs:complexType></xs:element>" +
+      "<xs:element name='f' type='F' minOccurs='0'/>" +
+      "</xs:sequence><xs:attribute ref='global'/>" +
+      "</xs:complexType></xs:element>" +
+      "<xs:complexType name='F'><xs:simpleContent>" +
+      "<xs:extension base='xs:int'><xs:attributeGroup ref='inner'/>" +
+      "</xs:extension></xs:simpleContent></xs:complexType>" +
+      "<xs:attributeGroup name='common'>" +
+      "<xs:attribute name='id' type='xs:ID' use='required'/>" +
+      "<xs:attribute name='size' type='xs:int' default='3'/>" +
+      "<xs:attributeGroup ref='inner'/>" +
+      "</xs:attributeGroup>" +
+      "<xs:attributeGroup name='inner'>" +
+      "<xs:attribute name='lang' type='xs:language'/>" +
+      "<xs:attribute ref='global'/>" +
+      "</xs:attributeGroup>" +
+      "<xs:attribute name='global' type='xs:boolean'/>" +
+      "</xs:schema>",
+      "<r xmlns='urn:a'><e id='a' size='4' own='1' lang='en'/>" +
+      "<e id='b' xmlns:a='urn:a' a:global='true'/>" +
+      "<f lang='fr'>1</f></r>",
+      "<r xmlns='urn:a'><e/></r>",
+      "<r xmlns='urn:a'><e id='a' size='x'/></r>",
+      "<r xmlns='urn:a'><e id='a' lang='not a language'/></r>",
+      "<r xmlns='urn:a'><e id='a' global='true'/></r>",
+      "<r xmlns='urn:a' xmlns:a='urn:a' a:global='1'><e id='a'/>" +
+      "<f a:global='maybe'>1</f></r>",
+      "<r xmlns='urn:a'><e id='a' other='1'/></r>",
+    },
+    // Attribute wildcards
+    {
+      HEAD + " targetNamespace='urn:w' xmlns='urn:w'>" +
+      "<xs:attribute name='g' type='xs:int'/>" +
+      "<xs:element name='r'><xs:complexType><xs:sequence>" +
+      "<xs:element name='any' minOccurs='0'><xs:complexType>" +
+      "<xs:anyAttribute processContents='skip'/>" +
+      "</xs:complexType></xs:element>" +
+      "<xs:element name='other' minOccurs='0'><xs:complexType>" +
+      "<xs:anyAttribute namespace='##other' processContents='lax'/>" +
+      "</xs:complexType></xs:element>" +
+      "<xs:element name='local' minOccurs='0'><xs:complexType>" +
+      "<xs:anyAttribute namespace='##local urn:x'" +
+      " processContents='skip'/>" +
+      "</xs:complexType></xs:element>" +
+      "<xs:element name='strict' minOccurs='0'><xs:complexType>" +
+      "<xs:anyAttribute namespace='##targetNamespace'/>" +
+      "</xs:complexType></xs:element>" +
+      "<xs:element name='lax' minOccurs='0'><xs:complexType>" +
+      "<xs:anyAttribute namespace='##targetNamespace'" +
+      " processContents='lax'/>" +
+      "</xs:complexType></xs:element>" +
+      "</xs:sequence></xs:complexType></xs:element>" +
+      "</xs:schema>",
+      "<r xmlns='urn:w' xmlns:w='urn:w' xmlns:x='urn:x'>" +
+      "<any a='1' x:b='2' w:c='3'/><other x:b='2'/>" +
+      "<local a='1' x:b='2'/><strict w:g='5'/><lax w:g='6' w:h='7'/></r>",
+      "<r xmlns='urn:w'><other a='1'/></r>",
+      "<r xmlns='urn:w' xmlns:w='urn:w'><other w:a='1'/></r>",
+      "<r xmlns='urn:w' xmlns:y='urn:y'><local y:b='2'/></r>",
+      "<r xmlns='urn:w' xmlns:w='urn:w'><strict w:h='5'/></r>",
+      "<r xmlns='urn:w' xmlns:w='urn:w'><strict w:g='x'/></r>",
+      "<r xmlns='urn:w' xmlns:w='urn:w'><lax w:g='x'/></r>",
+      "<r xmlns='urn:w'><strict g='5'/></r>",
+    },
+    // Complex content derivation with attributes and wildcards
+    {
+      HEAD + ">" +
+      "<xs:complexType name='B'><xs:sequence>" +
+      "<xs:element name='a' minOccurs='0'/></xs:sequence>" +
+      "<xs:attribute name='p' type='xs:int'/>" +
+      "<xs:attribute name='q' type='xs:int' use='required'/>" +
+      "<xs:anyAttribute namespace='urn:x' processContents='skip'/>" +
+      "</xs:complexType>" +
+      "<xs:complexType name='R'><xs:complexContent>" +
+      "<xs:restriction base='B'><xs:sequence>" +
+      "<xs:element name='a' minOccurs='0'/></xs:sequence>" +
+      "<xs:attribute name='p' use='prohibited'/>" +
+      "</xs:restriction></xs:complexContent></xs:complexType>" +
+      "<xs:complexType name='E'><xs:complexContent>" +
+      "<xs:extension base='B'><xs:sequence>" +
+      "<xs:element name='b' maxOccurs='2'/></xs:sequence>" +
+      "<xs:attribute name='s' type='xs:string' fixed='v'/>" +
+      "<xs:anyAttribute namespace='urn:y' processContents='skip'/>" +
+      "</xs:extension></xs:complexContent></xs:complexType>" +
+      "<xs:element name='r'><xs:complexType><xs:sequence>" +
+      "<xs:element name='b' type='B' minOccurs='0'/>" +
+      "<xs:element name='rr' type='R' minOccurs='0'/>" +
+      "<xs:element name='e' type='E' minOccurs='0'/>" +
+      "</xs:sequence></xs:complexType></xs:element>" +
+      "</xs:schema>",
+      "<r xmlns:x='urn:x' xmlns:y='urn:y'><b p='1' q='2' x:z='3'><a/></b>" +
+      "<rr q='1'/><e q='1' s='v' y:z='1' x:z='2'><a/><b/><b/></e></r>",
+      "<r><rr q='1' p='2'/></r>",
+      "<r><b p='1'/></r>",
+      "<r><e q='1' s='w'><b/></e></r>",
+      "<r><e q='1'><a/></e></r>",
+      "<r xmlns:y='urn:y'><b q='1' y:z='3'/></r>",
+    },
+    // Element wildcards, mixed and simple content
+    {
+      HEAD + " targetNamespace='urn:e' xmlns='urn:e'" +
+      " elementFormDefault='qualified'>" +
+      "<xs:element name='g' type='xs:int'/>" +
+      "<xs:element name='r'><xs:complexType mixed='true'><xs:sequence>" +
+      "<xs:element name='v' minOccurs='0'><xs:complexType>" +
+      "<xs:simpleContent><xs:extension base='xs:decimal'>" +
+      "<xs:attribute name='unit' type='xs:token' default='m'/>" +
+      "</xs:extension></xs:simpleContent></xs:complexType></xs:element>" +
+      "<xs:any namespace='##other' processContents='lax'" +
+      " minOccurs='0' maxOccurs='2'/>" +
+      "<xs:element name='z' fixed='zz' type='xs:string'/>" +
+      "<xs:any namespace='##targetNamespace' minOccurs='0'/>" +
+      "</xs:sequence></xs:complexType></xs:element>" +
+      "</xs:schema>",
+      "<r xmlns='urn:e'>text<v unit='cm'>1.5</v>more" +
+      "<x:any xmlns:x='urn:x'><x:deep/></x:any><z>zz</z><g>1</g></r>",
+      "<r xmlns='urn:e'><v>abc</v><z>zz</z></r>",
+      "<r xmlns='urn:e'><z>zz</z><g>x</g></r>",
+      "<r xmlns='urn:e'><z>zz</z><h/></r>",
+      "<r xmlns='urn:e'><z>zy</z></r>",
+      "<r xmlns='urn:e'><z/></r>",
+      "<r xmlns='urn:e'><any xmlns=''/><z>zz</z></r>",
+    },
+    // Forward references
+    {
+      HEAD + ">" +
+      "<xs:element name='r' type='T'/>" +
+      "<xs:complexType name='T'><xs:sequence>" +
+      "<xs:element name='a' type='S'/>" +
+      "<xs:group ref='G'/>" +
+      "</xs:sequence><xs:attribute ref='at'/></xs:complexType>" +
+      "<xs:group name='G'><xs:sequence>" +
+      "<xs:element ref='b' minOccurs='0'/></xs:sequence></xs:group>" +
+      "<xs:element name='b' type='U'/>" +
+      "<xs:simpleType name='S'><xs:restriction base='U'>" +
+      "<xs:maxLength value='3'/></xs:restriction></xs:simpleType>" +
+      "<xs:simpleType name='U'><xs:restriction base='xs:NCName'/>" +
+      "</xs:simpleType>" +
+      "<xs:attribute name='at' type='S'/>" +
+      "</xs:schema>",
+      "<r at='abc'><a>abc</a><b>long-name</b></r>",
+      "<r at='abcd'><a>abc</a></r>",
+      "<r><a>1ab</a></r>",
+      "<r><a>abcd</a></r>",
+      "<r><a>a</a><b>1</b></r>",
+    },
+    // Defaults, fixed values and whitespace
+    {
+      HEAD + ">" +
+      "<xs:element name='r'><xs:complexType><xs:sequence>" +
+      "<xs:element name='d' type='xs:int' default='5' minOccurs='0'/>" +
+      "<xs:element name='f' type='xs:token' fixed='a b'" +
+      " minOccurs='0'/>" +
+      "<xs:element name='t' minOccurs='0'><xs:simpleType>" +
+      "<xs:restriction base='xs:string'>" +
+      "<xs:whiteSpace value='collapse'/><xs:maxLength value='3'/>" +
+      "</xs:restriction></xs:simpleType></xs:element>" +
+      "</xs:sequence>" +
+      "<xs:attribute name='x' type='xs:int' fixed='7'/>" +
+      "<xs:attribute name='y' type='xs:normalizedString' default='q'/>" +
+      "</xs:complexType></xs:element>" +
+      "</xs:schema>",
+      "<r x=' 7 '><d/><f>  a   b </f><t>  a b  </t></r>",
+      "<r x='8'/>",
+      "<r><d>x</d></r>",
+      "<r><f>ab</f></r>",
+      "<r><t>abcd</t></r>",
+      "<r><t> a  b </t></r>",
+    },
+  };
+
+  static boolean verbose;
+  static int documents;
+  static int disagreements;
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    verbose = args.length > 0 && "-v".equals(args[0]);
+    SchemaFactory reference = SchemaFactory.newInstance(XS);
+    SchemaFactory gnu = new XMLSchemaSchemaFactory();
+    if (reference.getClass() == gnu.getClass())
+      {
+        System.err.println("No reference implementation to compare with");
+        System.exit(2);
+      }
+    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    DocumentBuilder db = dbf.newDocumentBuilder();
+    Transformer serializer = TransformerFactory.newInstance().newTransformer();
+    serializer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    for (int i = 0; i < CORPUS.length; i++)
+      {
+        String[] c = CORPUS[i];
+        Schema expected = reference.newSchema(source(c[0]));
+        Schema actual = gnu.newSchema(source(c[0]));
+        for (int j = 1; j < c.length; j++)
+          {
+            compare(i, expected, actual, c[j]);
+            List mutations = mutate(db.parse(new InputSource(new StringReader(c[j]))));
+            for (int k = 0; k < mutations.size(); k++)
+              {
+                Document doc = (Document) mutations.get(k);
+                StringWriter out = new StringWriter();
+                serializer.transform(new DOMSource(doc),
+                                     new StreamResult(out));
+                compare(i, expected, actual, out.toString());
+              }
+          }
+      }
+    System.out.println(documents + " documents, " + disagreements +
+                       " disagreements");
+    System.exit((disagreements == 0) ? 0 : 1);
+  }
+
+  static StreamSource source(String text)
+  {
+    return new StreamSource(new StringReader(text));
+  }
+
+  static void compare(int schema, Schema expected, Schema actual,
+                      String doc)
+  {
+    documents++;
+    String e = validate(expected, doc);
+    String a = validate(actual, doc);
+    if ((e == null) != (a == null))
+      {
+        disagreements++;
+        System.out.println("schema " + schema + ": " + abbreviate(doc));
+        System.out.println("  expected " + ((e == null) ? "valid" : e));
+        System.out.println("  actual   " + ((a == null) ? "valid" : a));
+      }
+    else if (verbose)
+      {
+        System.out.println("schema " + schema + ": " + abbreviate(doc) +
+                           ((e == null) ? " valid" : " invalid"));
+      }
+  }
+
+  /**
+   * Returns the first error reported by the schema's validator for the
+   * document, or null if it is valid.
+   */
+  static String validate(Schema schema, String doc)
+  {
+    final List errors = new ArrayList();
+    Validator validator = schema.newValidator();
+    validator.setErrorHandler(new ErrorHandler()
+      {
+        public void warning(SAXParseException e)
+        {
+        }
+        public void error(SAXParseException e)
+        {
+          errors.add(e.getMessage());
+        }
+        public void fatalError(SAXParseException e)
+        {
+          errors.add(e.getMessage());
+        }
+      });
+    try
+      {
+        validator.validate(source(doc));
+      }
+    catch (Exception e)
+      {
+        errors.add(e.toString());
+      }
+    return errors.isEmpty() ? null : (String) errors.get(0);
+  }
+
+  /**
+   * Returns variants of the document: with each element removed,
+   * duplicated or moved after its next sibling, with each attribute
+   * removed, with the text of each element replaced, and with xsi:nil
+   * added.
+   */
+  static List mutate(Document doc)
+  {
+    List ret = new ArrayList();
+    List elements = new ArrayList();
+    collect(doc.getDocumentElement(), elements);
+    int len = elements.size();
+    for (int i = 0; i < len && i < 24; i++)
+      {
+        int[] path = path((Element) elements.get(i));
+        if (i > 0)
+          {
+            Document copy = copy(doc);
+            Element e = find(copy, path);
+            e.getParentNode().removeChild(e);
+            ret.add(copy);
+            copy = copy(doc);
+            e = find(copy, path);
+            e.getParentNode().insertBefore(e.cloneNode(true), e);
+            ret.add(copy);
+            copy = copy(doc);
+            e = find(copy, path);
+            Node next = nextElement(e);
+            if (next != null)
+              {
+                e.getParentNode().insertBefore(next, e);
+                ret.add(copy);
+              }
+          }
+        NamedNodeMap attrs = ((Element) elements.get(i)).getAttributes();
+        for (int j = 0; j < attrs.getLength(); j++)
+          {
+            Attr attr = (Attr) attrs.item(j);
+            if (attr.getName().startsWith("xmlns"))
+              {
+                continue;
+              }
+            Document copy = copy(doc);
+            Element e = find(copy, path);
+            e.removeAttributeNode(e.getAttributeNodeNS(attr.getNamespaceURI(),
+                                                       attr.getLocalName()));
+            ret.add(copy);
+            copy = copy(doc);
+            e = find(copy, path);
+            e.setAttributeNS(attr.getNamespaceURI(), attr.getName(), "x1");
+            ret.add(copy);
+          }
+        String[] texts = { "", "zz", "-1", "true", "a b" };
+        if (nextElement(((Element) elements.get(i)).getFirstChild()) == null)
+          {
+            for (int j = 0; j < texts.length; j++)
+              {
+                Document copy = copy(doc);
+                Element e = find(copy, path);
+                while (e.getFirstChild() != null)
+                  {
+                    e.removeChild(e.getFirstChild());
+                  }
+                e.appendChild(copy.createTextNode(texts[j]));
+                ret.add(copy);
+              }
+          }
+        String[] nils = { "true", "false" };
+        for (int j = 0; j < nils.length; j++)
+          {
+            Document copy = copy(doc);
+            Element e = find(copy, path);
+            copy.getDocumentElement()
+              .setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                              "xmlns:xsi", XSI);
+            e.setAttributeNS(XSI, "xsi:nil", nils[j]);
+            ret.add(copy);
+          }
+        Document copy = copy(doc);
+        Element e = find(copy, path);
+        e.setAttributeNS(null, "undeclared", "1");
+        ret.add(copy);
+      }
+    return ret;
+  }
+
+  static void collect(Element e, List acc)
+  {
+    acc.add(e);
+    for (Node c = e.getFirstChild(); c != null; c = c.getNextSibling())
+      {
+        if (c.getNodeType() == Node.ELEMENT_NODE)
+          {
+            collect((Element) c, acc);
+          }
+      }
+  }
+
+  static Node nextElement(Node node)
+  {
+    while (node != null && node.getNodeType() != Node.ELEMENT_NODE)
+      {
+        node = node.getNextSibling();
+      }
+    if (node != null)
+      {
+        node = node.getNextSibling();
+        while (node != null && node.getNodeType() != Node.ELEMENT_NODE)
+          {
+            node = node.getNextSibling();
+          }
+      }
+    return node;
+  }
+
+  static int[] path(Node node)
+  {
+    List acc = new ArrayList();
+    for (; node.getParentNode() != null; node = node.getParentNode())
+      {
+        int index = 0;
+        for (Node p = node.getPreviousSibling(); p != null;
+             p = p.getPreviousSibling())
+          {
+            index++;
+          }
+        acc.add(0, new Integer(index));
+      }
+    int[] ret = new int[acc.size()];
+    for (int i = 0; i < ret.length; i++)
+      {
+        ret[i] = ((Integer) acc.get(i)).intValue();
+      }
+    return ret;
+  }
+
+  static Element find(Document doc, int[] path)
+  {
+    Node node = doc;
+    for (int i = 0; i < path.length; i++)
+      {
+        node = node.getChildNodes().item(path[i]);
+      }
+    return (Element) node;
+  }
+
+  static Document copy(Document doc)
+  {
+    return (Document) doc.cloneNode(true);
+  }
+
+  /**
+   * Returns a document made of a start, a first part repeated, a middle,
+   * a second part repeated, and an end.
+   */
+  static String repeat(String start, String first, int firstCount,
+                       String middle, String second, int secondCount,
+                       String end)
+  {
+    StringBuffer buf = new StringBuffer(start);
+    for (int i = 0; i < firstCount; i++)
+      {
+        buf.append(first);
+      }
+    buf.append(middle);
+    for (int i = 0; i < secondCount; i++)
+      {
+        buf.append(second);
+      }
+    buf.append(end);
+    return buf.toString();
+  }
+
+  static String abbreviate(String doc)
+  {
+    return (doc.length() > 160) ?
+      doc.substring(0, 150) + "...(" + doc.length() + " chars)" : doc;
+  }
+
+}
@@ -75,6 +75,7 @@ typedef struct _InputStreamContext
   jobject inputStream;
   jmethodID inputStreamReadFunc;
   jmethodID inputStreamCloseFunc;
+  jmethodID channelReadFunc; /* NULL unless a ReadableByteChannel */
   jobject bufferByteArray;
   jint bufferLength;
 
@@ -160,6 +161,46 @@ xmljInputReadCallback (void *context, char *buffer, int len)
   env = inContext->env;
   nread = 0;
 
+  if (inContext->channelReadFunc != NULL)
+    {
+      jobject byteBuffer;
+
+      /* Let the channel write straight into libxml2's input buffer */
+      for (offset = 0; offset < len && nread >= 0;)
+        {
+          byteBuffer = (*env)->NewDirectByteBuffer (env, buffer + offset,
+                                                    (jlong) (len - offset));
+          if (byteBuffer == NULL)
+            {
+              /* Direct buffers unsupported: fall back to byte arrays */
+              (*env)->ExceptionClear (env);
+              inContext->channelReadFunc = NULL;
+              break;
+            }
+          nread = (*env)->CallIntMethod (env,
+                                         inContext->inputStream,
+                                         inContext->channelReadFunc,
+                                         byteBuffer);
+          (*env)->DeleteLocalRef (env, byteBuffer);
+          if ((*env)->ExceptionOccurred (env))
+            {
+              return -1;
+            }
+          if (nread == 0)
+            {
+              break;
+            }
+          if (nread > 0)
+            {
+              offset += nread;
+            }
+        }
+      if (inContext->channelReadFunc != NULL || offset > 0)
+        {
+          return offset;
+        }
+    }
+
   for (offset = 0; offset < len && nread >= 0;)
     {
       nread = (*env)->CallIntMethod (env,
@@ -200,6 +241,7 @@ InputStreamContext *
 xmljNewInputStreamContext (JNIEnv * env, jobject inputStream)
 {
   jclass inputStreamClass;
+  jclass channelClass;
   InputStreamContext *result;
 
   inputStreamClass = (*env)->FindClass (env, "java/io/InputStream");
@@ -207,6 +249,12 @@ xmljNewInputStreamContext (JNIEnv * env, jobject inputStream)
     {
       return NULL;
     }
+  channelClass =
+    (*env)->FindClass (env, "java/nio/channels/ReadableByteChannel");
+  if (channelClass == NULL)
+    {
+      return NULL;
+    }
   result = (InputStreamContext *) malloc (sizeof (InputStreamContext));
   if (result == NULL)
     {
@@ -219,6 +267,13 @@ xmljNewInputStreamContext (JNIEnv * env, jobject inputStream)
     (*env)->GetMethodID (env, inputStreamClass, "read", "([BII)I");
   result->inputStreamCloseFunc =
     (*env)->GetMethodID (env, inputStreamClass, "close", "()V");
+  result->channelReadFunc = NULL;
+  if ((*env)->IsInstanceOf (env, inputStream, channelClass))
+    {
+      result->channelReadFunc =
+        (*env)->GetMethodID (env, channelClass, "read",
+                             "(Ljava/nio/ByteBuffer;)I");
+    }
   result->bufferLength = 4096;
   result->bufferByteArray = (*env)->NewByteArray (env, result->bufferLength);
   return result;
@@ -281,6 +336,9 @@ xmljNewSAXParseContext (JNIEnv * env, jobject obj, xmlParserCtxtPtr ctx,
   ret->loc = NULL;
   ret->publicId = publicId;
   ret->systemId = systemId;
+  ret->text = NULL;
+  ret->textLen = 0;
+  ret->textSize = 0;
   
   ret->startDTD = NULL;
   ret->externalEntityDecl = NULL;
@@ -312,6 +370,10 @@ xmljNewSAXParseContext (JNIEnv * env, jobject obj, xmlParserCtxtPtr ctx,
 void
 xmljFreeSAXParseContext (SAXParseContext * saxCtx)
 {
+  if (saxCtx->text != NULL)
+    {
+      free (saxCtx->text);
+    }
   free (saxCtx);
 }
 
@@ -53,6 +53,9 @@ typedef struct _SAXParseContext
   xmlSAXHandlerPtr sax; /* pristine SAX handler */
   jstring publicId;
   jstring systemId;
+  xmlChar *text; /* character data not yet reported */
+  int textLen;
+  int textSize;
 
   jmethodID startDTD;
   jmethodID externalEntityDecl;
@@ -31,6 +31,9 @@
 #include <unistd.h>
 #include <string.h>
 
+/* Largest run of character data buffered before it is reported */
+#define XMLJ_TEXT_MAX 65536
+
 xmlExternalEntityLoader defaultLoader = NULL;
 
 void
@@ -801,6 +804,7 @@ xmljSAXEndDocument (void *vctx)
     {
       return;
     }
+  xmljSAXFlushCharacters (sax);
 
   if (sax->endDocument == NULL)
     {
@@ -845,6 +849,7 @@ xmljSAXStartElement (void *vctx,
     {
       return;
     }
+  xmljSAXFlushCharacters (sax);
 
   if (sax->startElement == NULL)
     {
@@ -929,6 +934,7 @@ xmljSAXEndElement (void *vctx,
     {
       return;
     }
+  xmljSAXFlushCharacters (sax);
 
   if (sax->endElement == NULL)
     {
@@ -965,16 +971,14 @@ xmljSAXCharacters (void *vctx,
   xmlParserCtxtPtr ctx;
   SAXParseContext *sax;
   JNIEnv *env;
-  jobject target;
-  jstring j_ch;
-  xmlChar *dup;
+  xmlChar *text;
+  int size;
 
   xmlSAX2Characters (vctx, ch, len);
 
   ctx = (xmlParserCtxtPtr) vctx;
   sax = (SAXParseContext *) ctx->_private;
   env = sax->env;
-  target = sax->obj;
 
   xmljCheckWellFormed (ctx);
   if ((*env)->ExceptionOccurred (env))
@@ -982,6 +986,54 @@ xmljSAXCharacters (void *vctx,
       return;
     }
 
+  /* Accumulate adjacent chunks so that each run of text costs one
+   * upcall rather than one per libxml2 input chunk. The pending text is
+   * reported by the next event of any other kind. */
+  if (sax->textLen > 0 && sax->textLen + len > XMLJ_TEXT_MAX)
+    {
+      xmljSAXFlushCharacters (sax);
+    }
+  if (sax->textLen + len + 1 > sax->textSize)
+    {
+      size = (sax->textSize == 0) ? 4096 : sax->textSize;
+      while (size < sax->textLen + len + 1)
+        {
+          size *= 2;
+        }
+      text = (xmlChar *) realloc (sax->text, size);
+      if (text == NULL)
+        {
+          xmljThrowException (env, "java/lang/OutOfMemoryError",
+                              "Unable to buffer character data");
+          return;
+        }
+      sax->text = text;
+      sax->textSize = size;
+    }
+  memcpy (sax->text + sax->textLen, ch, len);
+  sax->textLen += len;
+}
+
+void
+xmljSAXFlushCharacters (SAXParseContext * sax)
+{
+  JNIEnv *env;
+  jobject target;
+  jstring j_ch;
+
+  if (sax->textLen == 0)
+    {
+      return;
+    }
+  env = sax->env;
+  target = sax->obj;
+  sax->text[sax->textLen] = 0;
+  sax->textLen = 0;
+  if ((*env)->ExceptionOccurred (env))
+    {
+      return;
+    }
+
   if (sax->characters == NULL)
     {
       sax->characters = xmljGetMethodID (env,
@@ -994,14 +1046,16 @@ xmljSAXCharacters (void *vctx,
         }
     }
 
-  dup = xmlStrndup (ch, len);
-  j_ch = xmljNewString (env, dup);
-
+  j_ch = (*env)->NewStringUTF (env, (char *) sax->text);
+  if (j_ch == NULL)
+    {
+      return;
+    }
   (*env)->CallVoidMethod (env,
                           target,
                           sax->characters,
                           j_ch);
-  xmlFree (dup);
+  (*env)->DeleteLocalRef (env, j_ch);
 }
 
 void
@@ -1028,6 +1082,7 @@ xmljSAXIgnorableWhitespace (void *vctx,
     {
       return;
     }
+  xmljSAXFlushCharacters (sax);
 
   if (sax->ignorableWhitespace == NULL)
     {
@@ -1075,6 +1130,7 @@ xmljSAXProcessingInstruction (void *vctx,
     {
       return;
     }
+  xmljSAXFlushCharacters (sax);
 
   if (sax->processingInstruction == NULL)
     {
@@ -1121,6 +1177,7 @@ xmljSAXComment (void *vctx,
     {
       return;
     }
+  xmljSAXFlushCharacters (sax);
 
   if (sax->comment == NULL)
     {
@@ -1167,6 +1224,7 @@ xmljSAXCDataBlock (void *vctx,
     {
       return;
     }
+  xmljSAXFlushCharacters (sax);
 
   if (sax->cdataBlock == NULL)
     {
@@ -1205,7 +1263,13 @@ xmljDispatchError (xmlParserCtxtPtr ctx,
   jstring publicId;
   jstring systemId;
   char buffer[2048] = "";
+  SAXParseContext *sax;
 
+  sax = (SAXParseContext *) ctx->_private;
+  if (sax != NULL)
+    {
+      xmljSAXFlushCharacters (sax);
+    }
   if (msg != NULL)
     {
       vsnprintf (buffer, sizeof buffer, msg, args);
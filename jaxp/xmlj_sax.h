@@ -30,6 +30,7 @@
 
 #include "gnu_xml_libxmlj_sax_GnomeLocator.h"
 #include "gnu_xml_libxmlj_sax_GnomeXMLReader.h"
+#include "xmlj_io.h"
 
 #include <libxml/SAX.h>
 #include <libxml/parser.h>
@@ -141,6 +142,8 @@ void xmljSAXFatalError(void *ctx,
 
 void xmljCheckWellFormed(xmlParserCtxtPtr ctx);
 
+void xmljSAXFlushCharacters(SAXParseContext *sax);
+
 jstring xmljAttributeTypeName (JNIEnv *env,
                                int type);
 
@@ -0,0 +1,392 @@
+/*
+ * ConnectionPool.java
+ * Copyright (C) 2005 The Free Software Foundation
+ *
+ * This file is part of GNU Classpath Extensions (classpathx).
+ * For more information please visit https://www.gnu.org/software/classpathx/
+ *
+ * classpathx is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * classpathx is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with classpathx.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gnu.mail.providers.imap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import javax.mail.MessagingException;
+import javax.mail.StoreClosedException;
+
+import gnu.inet.imap.IMAPConnection;
+
+/**
+ * A bounded pool of authenticated connections for the open folders of an
+ * IMAP store.
+ * An open folder holds one connection until it is closed. The connection
+ * is then kept for reuse, and is preferentially handed to a folder opening
+ * the same mailbox again. Idle connections are checked with a NOOP before
+ * reuse, and closed once they have been idle for longer than the idle
+ * timeout; this happens the next time the pool is used, as there is no
+ * background thread.
+ * The pool records which folder is using each connection, so that the
+ * store can close its open folders and their connections when it is
+ * closed.
+ */
+final class ConnectionPool
+{
+
+  private static final ResourceBundle L10N =
+    ResourceBundle.getBundle("gnu.mail.providers.L10N");
+
+  /*
+   * An idle connection.
+   */
+  private static final class Entry
+  {
+
+    final IMAPConnection connection;
+    final String mailbox; // the mailbox last selected, or null
+    final long released;
+
+    Entry(IMAPConnection connection, String mailbox, long released)
+    {
+      this.connection = connection;
+      this.mailbox = mailbox;
+      this.released = released;
+    }
+
+  }
+
+  private final IMAPStore store;
+  private final int size;
+  private final long idleTimeout;
+  private final long waitTimeout;
+
+  /*
+   * The idle connections, most recently released first.
+   */
+  private final LinkedList<Entry> idle = new LinkedList<Entry>();
+
+  /*
+   * The number of connections in use by folders, or being opened for them.
+   */
+  private int active;
+
+  /*
+   * The connections in use, with the folders using them.
+   */
+  private final Map<IMAPConnection,IMAPFolder> inUse =
+    new LinkedHashMap<IMAPConnection,IMAPFolder>();
+
+  private boolean closed;
+
+  /**
+   * Constructor.
+   * @param store the store
+   * @param size the maximum number of connections, in use or idle
+   * @param idleTimeout the time in milliseconds after which an idle
+   * connection is closed, or 0 to keep idle connections open
+   * @param waitTimeout the maximum time in milliseconds to wait for a
+   * connection when the pool is exhausted, or 0 to wait indefinitely
+   */
+  ConnectionPool(IMAPStore store, int size, long idleTimeout,
+                 long waitTimeout)
+  {
+    this.store = store;
+    this.size = size;
+    this.idleTimeout = idleTimeout;
+    this.waitTimeout = waitTimeout;
+  }
+
+  /**
+   * Acquires a connection for the specified folder to select its mailbox.
+   * An idle connection that last selected the mailbox is preferred. If
+   * there is no idle connection, a new one is opened, or if the pool is
+   * exhausted, this method waits for a connection to be released.
+   * @param folder the folder
+   */
+  IMAPConnection acquire(IMAPFolder folder)
+    throws MessagingException
+  {
+    String mailbox = folder.path;
+    long deadline = (waitTimeout > 0L) ?
+      System.currentTimeMillis() + waitTimeout : 0L;
+    while (true)
+      {
+        List<IMAPConnection> expired = new ArrayList<IMAPConnection>();
+        Entry entry = null;
+        try
+          {
+            synchronized (this)
+              {
+                while (true)
+                  {
+                    if (closed)
+                      {
+                        throw new StoreClosedException(store);
+                      }
+                    removeExpired(expired);
+                    entry = take(mailbox);
+                    if (entry != null || active + idle.size() < size)
+                      {
+                        active++;
+                        break;
+                      }
+                    long now = System.currentTimeMillis();
+                    if (deadline != 0L && now >= deadline)
+                      {
+                        String m = L10N.getString("err.pool_exhausted");
+                        throw new MessagingException(m);
+                      }
+                    try
+                      {
+                        wait((deadline == 0L) ? 0L : deadline - now);
+                      }
+                    catch (InterruptedException e)
+                      {
+                        throw new MessagingException(e.getMessage(), e);
+                      }
+                  }
+              }
+          }
+        finally
+          {
+            for (IMAPConnection connection : expired)
+              {
+                close(connection);
+              }
+          }
+        IMAPConnection connection;
+        if (entry == null)
+          {
+            try
+              {
+                connection = store.openConnection();
+              }
+            catch (MessagingException e)
+              {
+                synchronized (this)
+                  {
+                    active--;
+                    notifyAll();
+                  }
+                throw e;
+              }
+            fire(ConnectionPoolEvent.OPENED, mailbox);
+          }
+        else
+          {
+            connection = entry.connection;
+            try
+              {
+                connection.noop(store.new DefaultAdapter(null));
+              }
+            catch (IOException e)
+              {
+                abandon(connection);
+                continue;
+              }
+          }
+        boolean closed;
+        synchronized (this)
+          {
+            closed = this.closed;
+            if (!closed)
+              {
+                inUse.put(connection, folder);
+              }
+          }
+        if (closed)
+          {
+            // The store was closed while the connection was being opened
+            abandon(connection);
+            throw new StoreClosedException(store);
+          }
+        fire(ConnectionPoolEvent.ACQUIRED, mailbox);
+        return connection;
+      }
+  }
+
+  /**
+   * Returns a connection to the pool for reuse.
+   * @param connection the connection
+   * @param mailbox the mailbox the connection has selected, or null
+   */
+  void release(IMAPConnection connection, String mailbox)
+  {
+    List<IMAPConnection> expired = new ArrayList<IMAPConnection>();
+    boolean keep, owned;
+    synchronized (this)
+      {
+        active--;
+        owned = inUse.remove(connection) != null;
+        keep = !closed;
+        if (keep)
+          {
+            long now = System.currentTimeMillis();
+            idle.addFirst(new Entry(connection, mailbox, now));
+            removeExpired(expired);
+          }
+        notifyAll();
+      }
+    if (keep)
+      {
+        fire(ConnectionPoolEvent.RELEASED, mailbox);
+      }
+    else if (owned)
+      {
+        close(connection);
+      }
+    for (IMAPConnection c : expired)
+      {
+        close(c);
+      }
+  }
+
+  /**
+   * Closes a connection that is no longer usable instead of returning it
+   * to the pool.
+   * @param connection the connection
+   */
+  void discard(IMAPConnection connection)
+  {
+    boolean owned;
+    synchronized (this)
+      {
+        active--;
+        // The pool has already closed it if it is no longer in use
+        owned = inUse.remove(connection) != null;
+        notifyAll();
+      }
+    if (owned)
+      {
+        close(connection);
+      }
+  }
+
+  /*
+   * Closes a connection acquired from the pool that was not handed to a
+   * folder.
+   */
+  private void abandon(IMAPConnection connection)
+  {
+    synchronized (this)
+      {
+        active--;
+        notifyAll();
+      }
+    close(connection);
+  }
+
+  /**
+   * Returns the folders currently using connections from this pool.
+   */
+  synchronized List<IMAPFolder> getFolders()
+  {
+    return new ArrayList<IMAPFolder>(inUse.values());
+  }
+
+  /**
+   * Closes all the connections, idle and in use. Folders should be closed
+   * first: a connection still in use is logged out under its folder.
+   * @return the folders that were still using connections
+   */
+  List<IMAPFolder> close()
+  {
+    List<IMAPConnection> acc = new ArrayList<IMAPConnection>();
+    List<IMAPFolder> folders;
+    synchronized (this)
+      {
+        closed = true;
+        for (Entry entry : idle)
+          {
+            acc.add(entry.connection);
+          }
+        idle.clear();
+        acc.addAll(inUse.keySet());
+        folders = new ArrayList<IMAPFolder>(inUse.values());
+        inUse.clear();
+        notifyAll();
+      }
+    for (IMAPConnection connection : acc)
+      {
+        close(connection);
+      }
+    return folders;
+  }
+
+  /*
+   * Removes and returns the idle connection that last selected the
+   * specified mailbox, otherwise the most recently released one.
+   */
+  private Entry take(String mailbox)
+  {
+    for (Iterator<Entry> i = idle.iterator(); i.hasNext(); )
+      {
+        Entry entry = i.next();
+        if (mailbox.equals(entry.mailbox))
+          {
+            i.remove();
+            return entry;
+          }
+      }
+    return idle.isEmpty() ? null : idle.removeFirst();
+  }
+
+  /*
+   * Removes the connections that have been idle for longer than the idle
+   * timeout, adding them to the specified list to be closed.
+   */
+  private void removeExpired(List<IMAPConnection> expired)
+  {
+    if (idleTimeout <= 0L)
+      {
+        return;
+      }
+    long limit = System.currentTimeMillis() - idleTimeout;
+    while (!idle.isEmpty() && idle.getLast().released < limit)
+      {
+        expired.add(idle.removeLast().connection);
+      }
+  }
+
+  private void close(IMAPConnection connection)
+  {
+    try
+      {
+        connection.logout(store.new DefaultAdapter(null));
+      }
+    catch (IOException e)
+      {
+      }
+    fire(ConnectionPoolEvent.CLOSED, null);
+  }
+
+  private void fire(int type, String mailbox)
+  {
+    ConnectionPoolEvent event;
+    synchronized (this)
+      {
+        event = new ConnectionPoolEvent(store, type, mailbox, active,
+                                        idle.size());
+      }
+    store.notifyConnectionPoolListeners(event);
+  }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * ConnectionPoolEvent.java
+ * Copyright (C) 2005 The Free Software Foundation
+ *
+ * This file is part of GNU Classpath Extensions (classpathx).
+ * For more information please visit https://www.gnu.org/software/classpathx/
+ *
+ * classpathx is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * classpathx is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with classpathx.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gnu.mail.providers.imap;
+
+import java.util.EventObject;
+
+/**
+ * An event describing a change in the connection pool of an IMAP store.
+ * Each event carries the pool's counts of connections after the change.
+ */
+public class ConnectionPoolEvent
+  extends EventObject
+{
+
+  /**
+   * A new connection was opened and authenticated.
+   */
+  public static final int OPENED = 1;
+
+  /**
+   * A connection was acquired by a folder.
+   */
+  public static final int ACQUIRED = 2;
+
+  /**
+   * A connection was released by a folder and kept for reuse.
+   */
+  public static final int RELEASED = 3;
+
+  /**
+   * A connection was closed, because it was idle for too long, failed its
+   * health check or an I/O error, or the store was closed.
+   */
+  public static final int CLOSED = 4;
+
+  private final int type;
+  private final String mailbox;
+  private final int activeCount;
+  private final int idleCount;
+
+  /**
+   * Constructor.
+   * @param source the store
+   * @param type the event type
+   * @param mailbox the mailbox the connection was acquired or released
+   * for, or null
+   * @param activeCount the number of connections in use by folders
+   * @param idleCount the number of connections available for reuse
+   */
+  public ConnectionPoolEvent(IMAPStore source, int type, String mailbox,
+                             int activeCount, int idleCount)
+  {
+    super(source);
+    this.type = type;
+    this.mailbox = mailbox;
+    this.activeCount = activeCount;
+    this.idleCount = idleCount;
+  }
+
+  /**
+   * Returns the type of this event.
+   */
+  public int getType()
+  {
+    return type;
+  }
+
+  /**
+   * Returns the mailbox the connection was acquired or released for, or
+   * null if not applicable.
+   */
+  public String getMailbox()
+  {
+    return mailbox;
+  }
+
+  /**
+   * Returns the number of connections in use by open folders.
+   */
+  public int getActiveCount()
+  {
+    return activeCount;
+  }
+
+  /**
+   * Returns the number of idle connections available for reuse.
+   */
+  public int getIdleCount()
+  {
+    return idleCount;
+  }
+
+}
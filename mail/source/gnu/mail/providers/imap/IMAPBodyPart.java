@@ -353,7 +353,8 @@ final class IMAPBodyPart
     throws MessagingException
   {
     final IMAPStore s = (IMAPStore) message.getFolder().getStore();
-    IMAPConnection connection = s.connection;
+    IMAPFolder folder = (IMAPFolder) message.getFolder();
+    IMAPConnection connection = folder.getSelectedConnection();
     int msgnum = message.getMessageNumber();
     try
       {
@@ -23,6 +23,7 @@
 package gnu.mail.providers.imap;
 
 import java.io.ByteArrayOutputStream;
+import java.io.InterruptedIOException;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -33,6 +34,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import javax.mail.Address;
 import javax.mail.FetchProfile;
 import javax.mail.Flags;
@@ -132,8 +135,19 @@ public class IMAPFolder
 
   private boolean seenTryCreate;
 
+  /**
+   * The connection on which this folder is selected while it is open.
+   */
+  IMAPConnection connection;
+
   private static DateFormat searchdf = new SimpleDateFormat("d-MMM-yyyy");
 
+  /**
+   * The maximum number of messages addressed by each of the pipelined
+   * commands that a bulk operation is split into.
+   */
+  static final int BATCH_SIZE = 256;
+
   // -- IMAPCallback --
 
   IMAPCallback callback = new IMAPAdapter()
@@ -148,12 +162,16 @@ public class IMAPFolder
     {
       int oldMessageCount = messageCount;
       messageCount = messages;
+      if (oldMessageCount == -1)
+        {
+          return; // count not known before
+        }
       if (messageCount > oldMessageCount)
         {
           Message[] m = new Message[messageCount - oldMessageCount];
           for (int i = oldMessageCount; i < messageCount; i++)
             {
-              m[i - oldMessageCount] = new IMAPMessage(IMAPFolder.this, i);
+              m[i - oldMessageCount] = new IMAPMessage(IMAPFolder.this, i + 1);
             }
           notifyMessageAddedListeners(m);
         }
@@ -162,12 +180,22 @@ public class IMAPFolder
           Message[] m = new Message[oldMessageCount - messageCount];
           for (int i = messageCount; i < oldMessageCount; i++)
             {
-              m[i - messageCount] = new IMAPMessage(IMAPFolder.this, i);
+              m[i - messageCount] = new IMAPMessage(IMAPFolder.this, i + 1);
             }
           notifyMessageRemovedListeners(false, m);
         }
     }
 
+    public void expunge(int message)
+    {
+      if (messageCount > 0)
+        {
+          messageCount--;
+        }
+      Message[] m = new Message[] { new IMAPMessage(IMAPFolder.this, message) };
+      notifyMessageRemovedListeners(false, m);
+    }
+
     public void recent(int messages)
     {
       newMessageCount = messages;
@@ -293,36 +321,39 @@ public class IMAPFolder
     String parent = (lsi == -1) ? "" : path.substring(0, lsi);
     String name = (lsi == -1) ? path : path.substring(lsi+1);
     IMAPConnection connection = ((IMAPStore) store).connection;
-    try
+    synchronized (store)
       {
-        type = -1;
-        IMAPAdapter adapter = new IMAPAdapter(callback)
-        {
-          public void list(List<String> attributes, String d,
-                           String mailbox)
+        try
           {
-            type = 0;
-            if (!attributes.contains(IMAPConstants.LIST_NOINFERIORS))
-              {
-                type |= Folder.HOLDS_FOLDERS;
-              }
-            if (!attributes.contains(IMAPConstants.LIST_NOSELECT))
-              {
-                type |= Folder.HOLDS_MESSAGES;
-              }
-            delimiter = (d == null) ? '\u0000' : d.charAt(0);
-            if (!d.equals(mailbox))
+            type = -1;
+            IMAPAdapter adapter = new IMAPAdapter(callback)
+            {
+              public void list(List<String> attributes, String d,
+                               String mailbox)
               {
-                path = mailbox;
+                type = 0;
+                if (!attributes.contains(IMAPConstants.LIST_NOINFERIORS))
+                  {
+                    type |= Folder.HOLDS_FOLDERS;
+                  }
+                if (!attributes.contains(IMAPConstants.LIST_NOSELECT))
+                  {
+                    type |= Folder.HOLDS_MESSAGES;
+                  }
+                delimiter = (d == null) ? '\u0000' : d.charAt(0);
+                if (!d.equals(mailbox))
+                  {
+                    path = mailbox;
+                  }
               }
+            };
+            connection.list(parent, name, adapter);
+            return type != -1;
+          }
+        catch (IOException e)
+          {
+            throw new MessagingException(e.getMessage(), e);
           }
-        };
-        connection.list(parent, name, adapter);
-        return type != -1;
-      }
-    catch (IOException e)
-      {
-        throw new MessagingException(e.getMessage(), e);
       }
   }
 
@@ -344,10 +375,16 @@ public class IMAPFolder
     throws MessagingException
   {
     IMAPStore s = (IMAPStore) store;
-    IMAPConnection connection = s.connection;
+    s.getConnection(); // check connected
+    IMAPConnection connection = this.connection;
+    if (connection == null)
+      {
+        connection = s.pool.acquire(this);
+      }
     try
       {
         boolean selected = false;
+        messageCount = -1;
         switch (mode)
           {
           case Folder.READ_WRITE:
@@ -358,17 +395,21 @@ public class IMAPFolder
           }
         if (!selected)
           {
+            this.connection = null;
+            s.pool.release(connection, null);
             if (type == -1 && !exists())
               {
                 throw new FolderNotFoundException(this, path);
               }
             throw new MessagingException();
           }
-        s.setSelected(this);
+        this.connection = connection;
         notifyConnectionListeners(ConnectionEvent.OPENED);
       }
     catch (IOException e)
       {
+        this.connection = null;
+        s.pool.discard(connection);
         throw new MessagingException(e.getMessage(), e);
       }
   }
@@ -380,31 +421,34 @@ public class IMAPFolder
     throws MessagingException
   {
     IMAPConnection connection = ((IMAPStore) store).connection;
-    try
+    synchronized (store)
       {
-        String newPath = path;
-        if ((type & HOLDS_MESSAGES) == 0)
+        try
           {
-            getSeparator();
-            if (delimiter == '\u0000') // this folder cannot be created
+            String newPath = path;
+            if ((type & HOLDS_MESSAGES) == 0)
+              {
+                getSeparator();
+                if (delimiter == '\u0000') // this folder cannot be created
+                  {
+                    throw new FolderNotFoundException(this, newPath);
+                  }
+                newPath = new StringBuffer(newPath)
+                  .append(delimiter)
+                  .toString();
+              }
+            if (connection.create(newPath, callback))
               {
-                throw new FolderNotFoundException(this, newPath);
+                type = -1;
+                notifyFolderListeners(FolderEvent.CREATED);
+                return true;
               }
-            newPath = new StringBuffer(newPath)
-              .append(delimiter)
-              .toString();
+            return false;
           }
-        if (connection.create(newPath, callback))
+        catch (IOException e)
           {
-            type = -1;
-            notifyFolderListeners(FolderEvent.CREATED);
-            return true;
+            throw new MessagingException(e.getMessage(), e);
           }
-        return false;
-      }
-    catch (IOException e)
-      {
-        throw new MessagingException(e.getMessage(), e);
       }
   }
 
@@ -415,19 +459,22 @@ public class IMAPFolder
     throws MessagingException
   {
     IMAPConnection connection = ((IMAPStore) store).connection;
-    try
+    synchronized (store)
       {
-        if (connection.delete(path, callback))
+        try
           {
-            type = -1;
-            notifyFolderListeners(FolderEvent.DELETED);
-            return true;
+            if (connection.delete(path, callback))
+              {
+                type = -1;
+                notifyFolderListeners(FolderEvent.DELETED);
+                return true;
+              }
+            return false;
+          }
+        catch (IOException e)
+          {
+            throw new MessagingException(e.getMessage(), e);
           }
-        return false;
-      }
-    catch (IOException e)
-      {
-        throw new MessagingException(e.getMessage(), e);
       }
   }
 
@@ -438,19 +485,22 @@ public class IMAPFolder
     throws MessagingException
   {
     IMAPConnection connection = ((IMAPStore) store).connection;
-    try
+    synchronized (store)
       {
-        if (connection.rename(path, folder.getFullName(), callback))
+        try
           {
-            type = -1;
-            notifyFolderRenamedListeners(folder);
-            return true;
+            if (connection.rename(path, folder.getFullName(), callback))
+              {
+                type = -1;
+                notifyFolderRenamedListeners(folder);
+                return true;
+              }
+            return false;
+          }
+        catch (IOException e)
+          {
+            throw new MessagingException(e.getMessage(), e);
           }
-        return false;
-      }
-    catch (IOException e)
-      {
-        throw new MessagingException(e.getMessage(), e);
       }
   }
 
@@ -467,16 +517,22 @@ public class IMAPFolder
         return;
       }
     IMAPStore s = (IMAPStore) store;
-    boolean selected = s.isSelected(this);
+    IMAPConnection connection = this.connection;
+    boolean readWrite = (mode == READ_WRITE);
     mode = -1;
-    if (expunge && mode == READ_WRITE)
+    this.connection = null;
+    if (connection == null)
       {
-        if (!selected)
-          {
-            throw new FolderClosedException(this);
-          }
-        IMAPConnection connection = s.connection;
-        try
+        throw new FolderClosedException(this);
+      }
+    // The connection is returned to the pool with this mailbox still
+    // selected, unless it is closed to expunge it
+    String mailbox = path;
+    boolean closed = true;
+    try
+      {
+        endIdle();
+        if (expunge && readWrite)
           {
             final List<Message> acc = new ArrayList<Message>();
             IMAPAdapter adapter = new IMAPAdapter(callback)
@@ -486,9 +542,10 @@ public class IMAPFolder
                 acc.add(new IMAPMessage(IMAPFolder.this, message));
               }
             };
-            if (!connection.close(adapter))
+            closed = connection.close(adapter);
+            if (closed)
               {
-                throw new IllegalWriteException();
+                mailbox = null;
               }
             if (!acc.isEmpty())
               {
@@ -497,15 +554,43 @@ public class IMAPFolder
                 notifyMessageRemovedListeners(false, ret);
               }
           }
-        catch (IOException e)
-          {
-            throw new MessagingException(e.getMessage(), e);
-          }
       }
-    if (selected)
+    catch (IOException e)
+      {
+        s.pool.discard(connection);
+        throw new MessagingException(e.getMessage(), e);
+      }
+    s.pool.release(connection, mailbox);
+    notifyConnectionListeners(ConnectionEvent.CLOSED);
+    if (!closed)
+      {
+        throw new IllegalWriteException();
+      }
+  }
+
+  /**
+   * Closes this folder because its store is being closed. The IDLE state
+   * is ended if possible and the connection is logged out, ignoring any
+   * errors.
+   */
+  void forceClose()
+  {
+    IMAPConnection connection = this.connection;
+    if (connection == null)
+      {
+        return;
+      }
+    mode = -1;
+    this.connection = null;
+    try
       {
-        s.setSelected(null);
+        endIdle();
       }
+    catch (IOException e)
+      {
+        // the connection is being closed anyway
+      }
+    ((IMAPStore) store).pool.discard(connection);
     notifyConnectionListeners(ConnectionEvent.CLOSED);
   }
 
@@ -525,7 +610,7 @@ public class IMAPFolder
       {
         throw new IllegalWriteException();
       }
-    IMAPConnection connection = ((IMAPStore) store).connection;
+    IMAPConnection connection = getSelectedConnection();
     try
       {
         final List<Message> acc = new ArrayList<Message>();
@@ -571,19 +656,18 @@ public class IMAPFolder
   public int getMessageCount()
     throws MessagingException
   {
-    IMAPConnection connection = ((IMAPStore) store).connection;
+    IMAPConnection connection = this.connection;
     try
       {
         messageCount = -1;
-        if (mode != -1)
+        if (connection != null)
           {
+            endIdle();
             connection.noop(callback);
           }
-        if (messageCount == -1 || mode == -1)
+        if (messageCount == -1 || connection == null)
           {
-            List<String> items = new ArrayList<String>();
-            items.add(IMAPConstants.MESSAGES);
-            connection.status(path, items, callback);
+            status(IMAPConstants.MESSAGES);
           }
       }
     catch (IOException e)
@@ -600,19 +684,18 @@ public class IMAPFolder
   public int getNewMessageCount()
     throws MessagingException
   {
-    IMAPConnection connection = ((IMAPStore) store).connection;
+    IMAPConnection connection = this.connection;
     try
       {
         newMessageCount = -1;
-        if (mode != -1)
+        if (connection != null)
           {
+            endIdle();
             connection.noop(callback);
           }
-        if (newMessageCount == -1 || mode == -1)
+        if (newMessageCount == -1 || connection == null)
           {
-            List<String> items = new ArrayList<String>();
-            items.add(IMAPConstants.RECENT);
-            connection.status(path, items, callback);
+            status(IMAPConstants.RECENT);
           }
       }
     catch (IOException e)
@@ -656,16 +739,19 @@ public class IMAPFolder
       }
     if (folder.getStore() == store)
       {
-        IMAPConnection connection = ((IMAPStore) store).connection;
+        IMAPConnection connection = getSelectedConnection();
         try
           {
-            MessageSet messages = new MessageSet();
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
             seenTryCreate = false;
-            for (int i = 0; i < msgs.length; i++)
+            for (int i = 0; i < msgs.length; i += BATCH_SIZE)
               {
-                messages.add(msgs[i].getMessageNumber());
+                MessageSet messages = batch(msgs, i);
+                results.add(connection.copyAsync(messages,
+                                                 folder.getFullName(),
+                                                 callback));
               }
-            if (!connection.copy(messages, folder.getFullName(), callback))
+            if (!awaitAll(results))
               {
                 if (seenTryCreate)
                   {
@@ -692,9 +778,20 @@ public class IMAPFolder
   public void appendMessages(Message[] messages)
     throws MessagingException
   {
-    IMAPConnection connection = ((IMAPStore) store).connection;
+    // Use this folder's connection if it is open
+    IMAPConnection connection = this.connection;
+    Object lock = this;
+    if (connection == null)
+      {
+        connection = ((IMAPStore) store).getConnection();
+        lock = store;
+      }
     try
       {
+        if (lock == this)
+          {
+            endIdle();
+          }
         List<Message> acc = new ArrayList<Message>(messages.length);
         for (int i = 0; i < messages.length; i++)
           {
@@ -704,9 +801,12 @@ public class IMAPFolder
             messages[i].writeTo(out);
             byte[] content = out.toByteArray();
             out = null;
-            if (connection.append(path, flags, date, content, callback))
+            synchronized (lock)
               {
-                acc.add(messages[i]);
+                if (connection.append(path, flags, date, content, callback))
+                  {
+                    acc.add(messages[i]);
+                  }
               }
           }
         messages = new Message[acc.size()];
@@ -768,17 +868,14 @@ public class IMAPFolder
       }
     cmds.add(IMAPConstants.INTERNALDATE); // for received date
     // get message numbers
-    MessageSet messageSet = new MessageSet();
     final Map<Integer,IMAPMessage> num2msg =
       new HashMap<Integer,IMAPMessage>();
     for (int i = 0; i < messages.length; i++)
       {
-        int num = messages[i].getMessageNumber();
-        messageSet.add(num);
-        num2msg.put(num, (IMAPMessage) messages[i]);
+        num2msg.put(messages[i].getMessageNumber(), (IMAPMessage) messages[i]);
       }
-    // execute
-    IMAPConnection connection = ((IMAPStore) store).connection;
+    // execute, one pipelined command per batch
+    IMAPConnection connection = getSelectedConnection();
     try
       {
         IMAPAdapter adapter = new IMAPAdapter(callback)
@@ -786,17 +883,163 @@ public class IMAPFolder
           public void fetch(int message, List<FetchDataItem> data)
           {
             IMAPMessage msg = num2msg.get(message);
-            msg.callback.fetch(message, data);
+            if (msg != null)
+              {
+                msg.callback.fetch(message, data);
+              }
           }
         };
-        connection.fetch(messageSet, cmds, adapter);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < messages.length; i += BATCH_SIZE)
+          {
+            results.add(connection.fetchAsync(batch(messages, i), cmds,
+                                              adapter));
+          }
+        awaitAll(results);
+      }
+    catch (IOException e)
+      {
+        throw new MessagingException(e.getMessage(), e);
+      }
+  }
+
+  /**
+   * Sets the specified flags on the given messages.
+   * The messages belonging to this folder are updated with one pipelined
+   * STORE command per batch rather than a command per message.
+   */
+  public synchronized void setFlags(Message[] msgs, Flags flag, boolean value)
+    throws MessagingException
+  {
+    if (!isOpen())
+      {
+        throw new FolderClosedException(this);
+      }
+    List<Message> acc = new ArrayList<Message>(msgs.length);
+    final Map<Integer,IMAPMessage> num2msg =
+      new HashMap<Integer,IMAPMessage>();
+    for (int i = 0; i < msgs.length; i++)
+      {
+        if (msgs[i] instanceof IMAPMessage && msgs[i].getFolder() == this &&
+            ((IMAPMessage) msgs[i]).section == null)
+          {
+            acc.add(msgs[i]);
+            num2msg.put(msgs[i].getMessageNumber(), (IMAPMessage) msgs[i]);
+          }
+        else
+          {
+            msgs[i].setFlags(flag, value);
+          }
+      }
+    if (acc.isEmpty())
+      {
+        return;
+      }
+    Message[] messages = new Message[acc.size()];
+    acc.toArray(messages);
+    IMAPConnection connection = getSelectedConnection();
+    String flagCommand = value ? IMAPMessage.PLUS_FLAGS :
+      IMAPMessage.MINUS_FLAGS;
+    List<String> f = flagsToString(flag);
+    try
+      {
+        IMAPAdapter adapter = new IMAPAdapter(callback)
+        {
+          public void fetch(int message, List<FetchDataItem> data)
+          {
+            IMAPMessage msg = num2msg.get(message);
+            if (msg != null)
+              {
+                msg.callback.fetch(message, data);
+              }
+          }
+        };
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < messages.length; i += BATCH_SIZE)
+          {
+            results.add(connection.storeAsync(batch(messages, i),
+                                              flagCommand, f, adapter));
+          }
+        boolean ok = true;
+        for (int i = 0; i < messages.length; i += BATCH_SIZE)
+          {
+            boolean stored = awaitAll(results.subList(i / BATCH_SIZE,
+                                                      i / BATCH_SIZE + 1));
+            int end = Math.min(i + BATCH_SIZE, messages.length);
+            for (int j = i; j < end; j++)
+              {
+                ((IMAPMessage) messages[j]).flagsStored(flag, value, stored);
+              }
+            ok = ok && stored;
+          }
+        if (!ok)
+          {
+            throw new MessagingException("Could not store flags");
+          }
       }
     catch (IOException e)
       {
+        for (int i = 0; i < messages.length; i++)
+          {
+            ((IMAPMessage) messages[i]).flagsStored(flag, value, false);
+          }
         throw new MessagingException(e.getMessage(), e);
       }
   }
 
+  /**
+   * Returns the message set of the batch of messages starting at the
+   * specified index.
+   */
+  static MessageSet batch(Message[] msgs, int start)
+  {
+    MessageSet ret = new MessageSet();
+    int end = Math.min(start + BATCH_SIZE, msgs.length);
+    for (int i = start; i < end; i++)
+      {
+        ret.add(msgs[i].getMessageNumber());
+      }
+    return ret;
+  }
+
+  /**
+   * Waits for the completion of the specified pipelined commands.
+   * @return true if all the commands succeeded, false if any returned NO
+   * @exception IOException if BAD was received or an I/O error occurred
+   */
+  static boolean awaitAll(List<Future<Boolean>> results)
+    throws IOException
+  {
+    boolean ret = true;
+    IOException ex = null;
+    for (Future<Boolean> result : results)
+      {
+        try
+          {
+            ret = result.get().booleanValue() && ret;
+          }
+        catch (ExecutionException e)
+          {
+            if (ex == null)
+              {
+                ex = (IOException) e.getCause();
+              }
+          }
+        catch (InterruptedException e)
+          {
+            if (ex == null)
+              {
+                ex = new InterruptedIOException(e.getMessage());
+              }
+          }
+      }
+    if (ex != null)
+      {
+        throw ex;
+      }
+    return ret;
+  }
+
   /**
    * IMAP search function.
    */
@@ -824,7 +1067,7 @@ public class IMAPFolder
         criteria.add(msgset.toString());
       }
     boolean isIMAPSearch = addTerm(term, criteria);
-    IMAPConnection connection = ((IMAPStore) store).connection;
+    IMAPConnection connection = getSelectedConnection();
     try
       {
         Message[] messages;
@@ -1116,23 +1359,26 @@ public class IMAPFolder
     String parent = (lsi == -1) ? "" : path.substring(0, lsi);
     String name = (lsi == -1) ? path : path.substring(lsi+1);
     IMAPConnection connection = ((IMAPStore) store).connection;
-    try
+    synchronized (store)
       {
-        final boolean[] subscribed = new boolean[] { false };
-        IMAPAdapter adapter = new IMAPAdapter(callback)
-        {
-          public void list(List<String> attributes, String d,
-                           String mailbox)
+        try
+          {
+            final boolean[] subscribed = new boolean[] { false };
+            IMAPAdapter adapter = new IMAPAdapter(callback)
+            {
+              public void list(List<String> attributes, String d,
+                               String mailbox)
+              {
+                subscribed[0] = true;
+              }
+            };
+            connection.lsub(parent, name, adapter);
+            return subscribed[0];
+          }
+        catch (IOException e)
           {
-            subscribed[0] = true;
+            return false;
           }
-        };
-        connection.lsub(parent, name, adapter);
-        return subscribed[0];
-      }
-    catch (IOException e)
-      {
-        return false;
       }
   }
 
@@ -1140,21 +1386,24 @@ public class IMAPFolder
     throws MessagingException
   {
     IMAPConnection connection = ((IMAPStore) store).connection;
-    try
+    synchronized (store)
       {
-        if (flag)
+        try
           {
-            connection.subscribe(path, callback);
+            if (flag)
+              {
+                connection.subscribe(path, callback);
+              }
+            else
+              {
+                connection.unsubscribe(path, callback);
+              }
           }
-        else
+        catch (IOException e)
           {
-            connection.unsubscribe(path, callback);
+            throw new MessagingException(e.getMessage(), e);
           }
       }
-    catch (IOException e)
-      {
-        throw new MessagingException(e.getMessage(), e);
-      }
   }
 
   /**
@@ -1167,35 +1416,38 @@ public class IMAPFolder
     String spec = ("".equals(path)) ? "%" :
       new StringBuilder(path).append(delimiter).append(pattern).toString();
     IMAPConnection connection = ((IMAPStore) store).connection;
-    try
+    synchronized (store)
       {
-        final List<Folder> acc = new ArrayList<Folder>();
-        IMAPAdapter adapter = new IMAPAdapter(callback)
-        {
-          public void list(List<String> attributes, String d,
-                           String mailbox)
+        try
           {
-            int type = 0;
-            if (!attributes.contains(IMAPConstants.LIST_NOINFERIORS))
-              {
-                type |= Folder.HOLDS_FOLDERS;
-              }
-            if (!attributes.contains(IMAPConstants.LIST_NOSELECT))
+            final List<Folder> acc = new ArrayList<Folder>();
+            IMAPAdapter adapter = new IMAPAdapter(callback)
+            {
+              public void list(List<String> attributes, String d,
+                               String mailbox)
               {
-                type |= Folder.HOLDS_MESSAGES;
+                int type = 0;
+                if (!attributes.contains(IMAPConstants.LIST_NOINFERIORS))
+                  {
+                    type |= Folder.HOLDS_FOLDERS;
+                  }
+                if (!attributes.contains(IMAPConstants.LIST_NOSELECT))
+                  {
+                    type |= Folder.HOLDS_MESSAGES;
+                  }
+                char delimiter = (d == null) ? '\u0000' : d.charAt(0);
+                acc.add(new IMAPFolder(store, mailbox, type, delimiter));
               }
-            char delimiter = (d == null) ? '\u0000' : d.charAt(0);
-            acc.add(new IMAPFolder(store, mailbox, type, delimiter));
+            };
+            connection.list("", spec, adapter);
+            Folder[] ret = new Folder[acc.size()];
+            acc.toArray(ret);
+            return ret;
+          }
+        catch (IOException e)
+          {
+            throw new MessagingException(e.getMessage(), e);
           }
-        };
-        connection.list("", spec, adapter);
-        Folder[] ret = new Folder[acc.size()];
-        acc.toArray(ret);
-        return ret;
-      }
-    catch (IOException e)
-      {
-        throw new MessagingException(e.getMessage(), e);
       }
   }
 
@@ -1209,35 +1461,38 @@ public class IMAPFolder
     String spec = ("".equals(path)) ? "%" :
       new StringBuffer(path).append(delimiter).append(pattern).toString();
     IMAPConnection connection = ((IMAPStore) store).connection;
-    try
+    synchronized (store)
       {
-        final List<Folder> acc = new ArrayList<Folder>();
-        IMAPAdapter adapter = new IMAPAdapter(callback)
-        {
-          public void list(List<String> attributes, String d,
-                           String mailbox)
+        try
           {
-            int type = 0;
-            if (!attributes.contains(IMAPConstants.LIST_NOINFERIORS))
-              {
-                type |= Folder.HOLDS_FOLDERS;
-              }
-            if (!attributes.contains(IMAPConstants.LIST_NOSELECT))
+            final List<Folder> acc = new ArrayList<Folder>();
+            IMAPAdapter adapter = new IMAPAdapter(callback)
+            {
+              public void list(List<String> attributes, String d,
+                               String mailbox)
               {
-                type |= Folder.HOLDS_MESSAGES;
+                int type = 0;
+                if (!attributes.contains(IMAPConstants.LIST_NOINFERIORS))
+                  {
+                    type |= Folder.HOLDS_FOLDERS;
+                  }
+                if (!attributes.contains(IMAPConstants.LIST_NOSELECT))
+                  {
+                    type |= Folder.HOLDS_MESSAGES;
+                  }
+                char delimiter = (d == null) ? '\u0000' : d.charAt(0);
+                acc.add(new IMAPFolder(store, mailbox, type, delimiter));
               }
-            char delimiter = (d == null) ? '\u0000' : d.charAt(0);
-            acc.add(new IMAPFolder(store, mailbox, type, delimiter));
+            };
+            connection.list("", spec, adapter);
+            Folder[] ret = new Folder[acc.size()];
+            acc.toArray(ret);
+            return ret;
+          }
+        catch (IOException e)
+          {
+            throw new MessagingException(e.getMessage(), e);
           }
-        };
-        connection.list("", spec, adapter);
-        Folder[] ret = new Folder[acc.size()];
-        acc.toArray(ret);
-        return ret;
-      }
-    catch (IOException e)
-      {
-        throw new MessagingException(e.getMessage(), e);
       }
   }
 
@@ -1299,24 +1554,121 @@ public class IMAPFolder
     return super.equals(other);
   }
 
+  /**
+   * Returns the connection on which this folder is selected, ending any
+   * IDLE state so that it can be used for other commands.
+   * @exception FolderClosedException if this folder is not open
+   */
+  IMAPConnection getSelectedConnection()
+    throws MessagingException
+  {
+    IMAPConnection connection = this.connection;
+    if (connection == null)
+      {
+        throw new FolderClosedException(this);
+      }
+    try
+      {
+        endIdle();
+      }
+    catch (IOException e)
+      {
+        throw new MessagingException(e.getMessage(), e);
+      }
+    return connection;
+  }
+
+  /**
+   * Starts waiting for changes to this folder with the IDLE command
+   * (RFC 2177). Message count listeners are then notified as soon as the
+   * server reports new or expunged messages, without polling.
+   * This method returns immediately: the connections of idling folders
+   * are watched by a small number of threads shared by the store.
+   * Any other use of this folder ends the IDLE state, after which this
+   * method must be called again.
+   * @return false if the server does not support IDLE, or if the
+   * connection uses TLS or a SASL security layer, in which case the
+   * folder must be polled instead
+   * @exception FolderClosedException if this folder is not open
+   */
+  public synchronized boolean idle()
+    throws MessagingException
+  {
+    if (isIdle())
+      {
+        return true;
+      }
+    IMAPStore s = (IMAPStore) store;
+    IMAPConnection connection = getSelectedConnection();
+    if (!s.hasCapability(IMAPConstants.IDLE))
+      {
+        return false;
+      }
+    try
+      {
+        return s.getIdleManager().start(this, connection);
+      }
+    catch (IOException e)
+      {
+        throw new MessagingException(e.getMessage(), e);
+      }
+  }
+
+  /**
+   * Indicates whether this folder is waiting for changes with the IDLE
+   * command.
+   */
+  public boolean isIdle()
+  {
+    IdleManager idleManager = ((IMAPStore) store).idleManager;
+    return idleManager != null && idleManager.isIdle(this);
+  }
+
+  /*
+   * Ends the IDLE state of this folder's connection, if any.
+   */
+  private void endIdle()
+    throws IOException
+  {
+    IdleManager idleManager = ((IMAPStore) store).idleManager;
+    if (idleManager != null)
+      {
+        idleManager.stop(this);
+      }
+  }
+
+  /*
+   * Requests a status item for this mailbox over the store connection.
+   */
+  private void status(String item)
+    throws IOException, MessagingException
+  {
+    List<String> items = new ArrayList<String>();
+    items.add(item);
+    IMAPStore s = (IMAPStore) store;
+    synchronized (s)
+      {
+        s.getConnection().status(path, items, callback);
+      }
+  }
+
   // -- UIDFolder --
 
   public long getUIDValidity()
     throws MessagingException
   {
-    IMAPConnection connection = ((IMAPStore) store).connection;
+    IMAPConnection connection = this.connection;
     try
       {
         uidvalidity = -1L;
-        if (mode != -1)
+        if (connection != null)
           {
+            endIdle();
             connection.noop(callback);
           }
-        if (uidvalidity == -1L || mode == -1)
+        if (uidvalidity == -1L || connection == null)
           {
-            List<String> items = new ArrayList<String>();
-            items.add(IMAPConstants.UIDVALIDITY);
-            connection.status(path, items, callback);
+            status(IMAPConstants.UIDVALIDITY);
           }
       }
     catch (IOException e)
@@ -1333,7 +1685,7 @@ public class IMAPFolder
       {
         throw new FolderClosedException(this);
       }
-    IMAPConnection connection = ((IMAPStore) store).connection;
+    IMAPConnection connection = getSelectedConnection();
     try
       {
         final List<Message> acc = new ArrayList<Message>();
@@ -1370,7 +1722,7 @@ public class IMAPFolder
       {
         throw new FolderClosedException(this);
       }
-    IMAPConnection connection = ((IMAPStore) store).connection;
+    IMAPConnection connection = getSelectedConnection();
     try
       {
         final List<Message> acc = new ArrayList<Message>();
@@ -1409,7 +1761,7 @@ public class IMAPFolder
       {
         throw new FolderClosedException(this);
       }
-    IMAPConnection connection = ((IMAPStore) store).connection;
+    IMAPConnection connection = getSelectedConnection();
     try
       {
         final List<Message> acc = new ArrayList<Message>();
@@ -1491,7 +1843,7 @@ public class IMAPFolder
       {
         return -1;
       }
-    IMAPConnection connection = ((IMAPStore) store).connection;
+    IMAPConnection connection = getSelectedConnection();
     try
       {
         List<String> c = new ArrayList<String>();
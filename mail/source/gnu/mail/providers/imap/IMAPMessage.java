@@ -564,7 +564,7 @@ public final class IMAPMessage
         fetchFlags();
       }
     IMAPConnection connection =
-      ((IMAPStore) folder.getStore()).connection;
+      ((IMAPFolder) folder).getSelectedConnection();
     try
       {
         if (set)
@@ -604,6 +604,32 @@ public final class IMAPMessage
       }
   }
 
+  /**
+   * Records the outcome of a STORE of the specified flags that the folder
+   * issued on behalf of this message.
+   * @param flag the flags stored
+   * @param set whether the flags were added or removed
+   * @param stored whether the server accepted the command
+   */
+  void flagsStored(Flags flag, boolean set, boolean stored)
+  {
+    if (!stored)
+      {
+        flags = null; // re-read
+      }
+    else if (flags != null)
+      {
+        if (set)
+          {
+            flags.add(flag);
+          }
+        else
+          {
+            flags.remove(flag);
+          }
+      }
+  }
+
   /**
    * Fetches the flags fo this message.
    */
@@ -705,7 +731,7 @@ public final class IMAPMessage
     throws MessagingException
   {
     IMAPConnection connection =
-      ((IMAPStore) folder.getStore()).connection;
+      ((IMAPFolder) folder).getSelectedConnection();
     try
       {
         MessageSet msgs = new MessageSet();
@@ -41,6 +41,7 @@ import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.StreamHandler;
+import javax.mail.AuthenticationFailedException;
 import javax.mail.Folder;
 import javax.mail.MessagingException;
 import javax.mail.MethodNotSupportedException;
@@ -55,7 +56,6 @@ import javax.mail.event.StoreEvent;
 import javax.net.ssl.TrustManager;
 
 import gnu.inet.imap.IMAPAdapter;
-import gnu.inet.imap.IMAPCallback;
 import gnu.inet.imap.IMAPConnection;
 import gnu.inet.imap.IMAPConstants;
 import gnu.inet.imap.Namespace;
@@ -75,19 +75,43 @@ public class IMAPStore
     ResourceBundle.getBundle("gnu.mail.providers.L10N");
 
   /**
-   * The connection to the IMAP server.
+   * The store connection to the IMAP server, used for commands that do not
+   * need a selected mailbox, such as LIST and STATUS.
    */
   IMAPConnection connection = null;
 
+  /**
+   * The pool of connections used by open folders.
+   */
+  ConnectionPool pool = null;
+
+  /**
+   * The threads waiting for responses on the connections of idling
+   * folders, created when a folder first idles.
+   */
+  IdleManager idleManager = null;
+
+  /**
+   * The capabilities announced by the server.
+   */
+  private volatile List<String> capabilities =
+    Collections.<String>emptyList();
+
   /**
    * Folder representing the root namespace of the IMAP connection.
    */
   IMAPFolder root = null;
 
-  /**
-   * The currently selected folder.
+  private final List<ConnectionPoolListener> poolListeners =
+    new ArrayList<ConnectionPoolListener>();
+
+  /*
+   * The parameters of the store connection, used to open pool connections.
    */
-  IMAPFolder selected = null;
+  private String host;
+  private int port;
+  private String username;
+  private String password;
 
   /**
    * Constructor.
@@ -121,143 +145,230 @@ public class IMAPStore
       {
         port = getIntProperty("port");
       }
-    if (host == null || username == null || password == null)
+    if (host == null)
       {
         return false;
       }
     synchronized (this)
       {
+        // Missing credentials are requested from the session
+        IMAPConnection c = newConnection(host, port, username, password);
+        if (c == null)
+          {
+            return false;
+          }
+        this.host = host;
+        this.port = port;
+        connection = c;
+        // Set up the folder connection pool
+        int size = getIntProperty("connectionpoolsize");
+        int idleTimeout = getIntProperty("connectionpooltimeout");
+        int waitTimeout = getIntProperty("connectionpoolwaittimeout");
+        pool = new ConnectionPool(this,
+                                  (size < 1) ? 4 : size,
+                                  (idleTimeout < 0) ? 45000L : idleTimeout,
+                                  (waitTimeout < 0) ? 30000L : waitTimeout);
+        return true;
+      }
+  }
+
+  /**
+   * Opens a new authenticated connection for the connection pool, with
+   * the credentials that authenticated the store's connection.
+   */
+  IMAPConnection openConnection()
+    throws MessagingException
+  {
+    IMAPConnection c = newConnection(host, port, username, password);
+    if (c == null)
+      {
+        throw new AuthenticationFailedException();
+      }
+    return c;
+  }
+
+  /**
+   * Indicates whether the server announced the specified capability.
+   */
+  boolean hasCapability(String capability)
+  {
+    return capabilities.contains(capability);
+  }
+
+  /**
+   * Returns the manager of idling folders, creating it if necessary.
+   */
+  synchronized IdleManager getIdleManager()
+    throws MessagingException
+  {
+    if (idleManager == null)
+      {
+        int threads = getIntProperty("idlethreads");
+        int refresh = getIntProperty("idlerefresh");
         try
           {
-            int connectionTimeout = getIntProperty("connectiontimeout");
-            int timeout = getIntProperty("timeout");
-            boolean tls = "imaps".equals(url.getProtocol());
-            // Locate custom trust manager
-            TrustManager tm = getTrustManager();
-            connection = new IMAPConnection(host, port,
-                                            connectionTimeout, timeout,
-                                            tls, tm);
-            if (session.getDebug())
-              {
-                Logger logger = connection.getLogger();
-                logger.setLevel(IMAPConnection.IMAP_TRACE);
-                Formatter formatter = new LaconicFormatter();
-                Handler handler =
-                  new StreamHandler(session.getDebugOut(), formatter);
-                handler.setLevel(Level.ALL);
-                logger.addHandler(handler);
-              }
+            idleManager = new IdleManager((threads < 1) ? 1 : threads,
+                                          (refresh < 1) ? 600000L : refresh);
+          }
+        catch (IOException e)
+          {
+            throw new MessagingException(e.getMessage(), e);
+          }
+      }
+    return idleManager;
+  }
+
+  /*
+   * Opens a connection to the IMAP server and authenticates with the
+   * specified parameters. If the username or password is null, the
+   * credentials are obtained from the session. The credentials used are
+   * recorded for the connections opened later for the pool.
+   * @return the connection, or null if authentication failed
+   */
+  private IMAPConnection newConnection(String host, int port,
+                                       String username, String password)
+    throws MessagingException
+  {
+    IMAPConnection connection;
+    try
+      {
+        int connectionTimeout = getIntProperty("connectiontimeout");
+        int timeout = getIntProperty("timeout");
+        boolean tls = "imaps".equals(url.getProtocol());
+        // Locate custom trust manager
+        TrustManager tm = getTrustManager();
+        connection = new IMAPConnection(host, port,
+                                        connectionTimeout, timeout,
+                                        tls, tm);
+        if (session.getDebug())
+          {
+            Logger logger = connection.getLogger();
+            logger.setLevel(IMAPConnection.IMAP_TRACE);
+            Formatter formatter = new LaconicFormatter();
+            Handler handler =
+              new StreamHandler(session.getDebugOut(), formatter);
+            handler.setLevel(Level.ALL);
+            logger.addHandler(handler);
+          }
 
-            final List<String> capabilities = new ArrayList<String>();
-            IMAPAdapter callback = this.new DefaultAdapter(capabilities);
-            connection.capability(callback);
+        final List<String> capabilities = new ArrayList<String>();
+        IMAPAdapter callback = this.new DefaultAdapter(capabilities);
+        connection.capability(callback);
 
-            // Ignore tls settings if we are making the connection
-            // to a dedicated SSL port. (imaps)
-            if (!tls && capabilities.contains(IMAPConstants.STARTTLS))
+        // Ignore tls settings if we are making the connection
+        // to a dedicated SSL port. (imaps)
+        if (!tls && capabilities.contains(IMAPConstants.STARTTLS))
+          {
+            if (!propertyIsFalse("tls"))
               {
-                if (!propertyIsFalse("tls"))
+                if (tm == null)
                   {
-                    if (tm == null)
-                      {
-                        tls = connection.starttls(callback);
-                      }
-                    else
-                      {
-                        tls = connection.starttls(callback, tm);
-                      }
-                    // Capabilities may have changed since STARTTLS
-                    if (tls)
-                      {
-                        capabilities.clear();
-                        connection.capability(callback);
-                      }
+                    tls = connection.starttls(callback);
+                  }
+                else
+                  {
+                    tls = connection.starttls(callback, tm);
+                  }
+                // Capabilities may have changed since STARTTLS
+                if (tls)
+                  {
+                    capabilities.clear();
+                    connection.capability(callback);
                   }
               }
-            if (!tls && "required".equals(getProperty("tls")))
+          }
+        if (!tls && "required".equals(getProperty("tls")))
+          {
+            throw new MessagingException(L10N.getString("err.no_tls"));
+          }
+        this.capabilities = capabilities;
+        // Build list of available SASL mechanisms
+        List<String> mechanisms = new ArrayList<String>();
+        for (String cap : capabilities)
+          {
+            if (cap.startsWith("AUTH="))
               {
-                throw new MessagingException(L10N.getString("err.no_tls"));
+                mechanisms.add(cap.substring(5));
               }
-            // Build list of available SASL mechanisms
-            List<String> mechanisms = new ArrayList<String>();
-            for (String cap : capabilities)
+          }
+        if (username == null || password == null)
+          {
+            PasswordAuthentication pa =
+              session.getPasswordAuthentication(url);
+            if (pa == null)
               {
-                if (cap.startsWith("AUTH="))
-                  {
-                    mechanisms.add(cap.substring(5));
-                  }
+                InetAddress addr = InetAddress.getByName(host);
+                pa = session.requestPasswordAuthentication(addr,
+                                                            port,
+                                                            "imap",
+                                                            null,
+                                                            username);
               }
-            // User authentication
-            if (!mechanisms.isEmpty())
+            if (pa != null)
               {
-                if (username == null || password == null)
-                  {
-                    PasswordAuthentication pa =
-                      session.getPasswordAuthentication(url);
-                    if (pa == null)
-                      {
-                        InetAddress addr = InetAddress.getByName(host);
-                        pa = session.requestPasswordAuthentication(addr,
-                                                                    port,
-                                                                    "imap",
-                                                                    null,
-                                                                    null);
-                      }
-                    if (pa != null)
-                      {
-                        username = pa.getUserName();
-                        password = pa.getPassword();
-                      }
-                  }
-                if (username != null && password != null)
+                username = pa.getUserName();
+                password = pa.getPassword();
+              }
+          }
+        if (username == null || password == null)
+          {
+            logout(connection);
+            return null;
+          }
+        // User authentication
+        if (!mechanisms.isEmpty())
+          {
+            // Discover user ordering preferences for auth
+            // mechanisms
+            String authPrefs = getProperty("auth.mechanisms");
+            Iterator<String> i = null;
+            if (authPrefs == null)
+              {
+                i = mechanisms.iterator();
+              }
+            else
+              {
+                StringTokenizer st =
+                  new StringTokenizer(authPrefs, ",");
+                List<String> authPrefList = new ArrayList<String>();
+                while (st.hasMoreTokens())
                   {
-                    // Discover user ordering preferences for auth
-                    // mechanisms
-                    String authPrefs = getProperty("auth.mechanisms");
-                    Iterator<String> i = null;
-                    if (authPrefs == null)
-                      {
-                        i = mechanisms.iterator();
-                      }
-                    else
-                      {
-                        StringTokenizer st =
-                          new StringTokenizer(authPrefs, ",");
-                        List<String> authPrefList = new ArrayList<String>();
-                        while (st.hasMoreTokens())
-                          {
-                            authPrefList.add(st.nextToken());
-                          }
-                        i = authPrefList.iterator();
-                      }
-                    // Try each mechanism in the list in turn
-                    while (i.hasNext())
-                      {
-                        String mechanism = i.next();
-                        if (mechanisms.contains(mechanism) &&
-                            connection.authenticate(mechanism, username,
-                                                    password, callback))
-                          {
-                            return true;
-                          }
-                      }
+                    authPrefList.add(st.nextToken());
                   }
+                i = authPrefList.iterator();
               }
-            if (capabilities.contains(IMAPConstants.LOGINDISABLED))
+            // Try each mechanism in the list in turn
+            while (i.hasNext())
               {
-                return false; // sorry
+                String mechanism = i.next();
+                if (mechanisms.contains(mechanism) &&
+                    connection.authenticate(mechanism, username,
+                                            password, callback))
+                  {
+                    this.username = username;
+                    this.password = password;
+                    return connection;
+                  }
               }
-            return connection.login(username, password, callback);
-          }
-        catch (UnknownHostException e)
-          {
-            throw new MessagingException(e.getMessage(), e);
           }
-        catch (IOException e)
+        if (!capabilities.contains(IMAPConstants.LOGINDISABLED) &&
+            connection.login(username, password, callback))
           {
-            throw new MessagingException(e.getMessage(), e);
+            this.username = username;
+            this.password = password;
+            return connection;
           }
       }
+    catch (UnknownHostException e)
+      {
+        throw new MessagingException(e.getMessage(), e);
+      }
+    catch (IOException e)
+      {
+        throw new MessagingException(e.getMessage(), e);
+      }
+    logout(connection);
+    return null;
   }
 
   /**
@@ -299,29 +410,68 @@ public class IMAPStore
   }
 
   /**
-   * Closes the connection.
+   * Closes the store. Open folders are closed first, notifying their
+   * connection listeners, and then all the connections to the server.
    */
-  public synchronized void close()
+  public void close()
     throws MessagingException
   {
-    if (connection != null)
+    ConnectionPool pool;
+    synchronized (this)
       {
-        synchronized (this)
+        pool = this.pool;
+      }
+    if (pool != null)
+      {
+        // Not holding the store lock, which listeners may need
+        for (IMAPFolder folder : pool.getFolders())
           {
-            try
-              {
-                IMAPAdapter callback = this.new DefaultAdapter(null);
-                connection.logout(callback);
-              }
-            catch (IOException e)
-              {
-              }
+            folder.forceClose();
+          }
+      }
+    IdleManager idleManager;
+    synchronized (this)
+      {
+        idleManager = this.idleManager;
+        this.idleManager = null;
+      }
+    if (idleManager != null)
+      {
+        // Waits for the threads, which may be delivering events
+        idleManager.close();
+      }
+    List<IMAPFolder> remaining = Collections.<IMAPFolder>emptyList();
+    synchronized (this)
+      {
+        if (connection != null)
+          {
+            logout(connection);
             connection = null;
+            remaining = this.pool.close();
           }
       }
+    // Folders opened meanwhile: their connections are already closed
+    for (IMAPFolder folder : remaining)
+      {
+        folder.forceClose();
+      }
     super.close();
   }
 
+  /**
+   * Logs out the specified connection, ignoring any errors.
+   */
+  void logout(IMAPConnection connection)
+  {
+    try
+      {
+        connection.logout(this.new DefaultAdapter(null));
+      }
+    catch (IOException e)
+      {
+      }
+  }
+
   /**
    * Returns the root folder.
    */
@@ -373,16 +523,7 @@ public class IMAPStore
       {
         synchronized (this)
           {
-            IMAPCallback callback;
-            if (selected == null)
-              {
-                callback = this.new DefaultAdapter(null);
-              }
-            else
-              {
-                callback = selected.callback;
-              }
-            connection.noop(callback);
+            connection.noop(this.new DefaultAdapter(null));
           }
         return true;
       }
@@ -407,19 +548,45 @@ public class IMAPStore
   }
 
   /**
-   * Indicates whether the specified folder is selected.
+   * Adds a listener to be notified of changes in the pool of connections
+   * used by open folders. Events are delivered synchronously, in the
+   * thread that caused the change.
    */
-  protected boolean isSelected(IMAPFolder folder)
+  public void addConnectionPoolListener(ConnectionPoolListener l)
   {
-    return folder.equals(selected);
+    synchronized (poolListeners)
+      {
+        poolListeners.add(l);
+      }
   }
 
   /**
-   * Sets the selected folder.
+   * Removes a connection pool listener.
    */
-  protected void setSelected(IMAPFolder folder)
+  public void removeConnectionPoolListener(ConnectionPoolListener l)
+  {
+    synchronized (poolListeners)
+      {
+        poolListeners.remove(l);
+      }
+  }
+
+  void notifyConnectionPoolListeners(ConnectionPoolEvent event)
   {
-    selected = folder;
+    ConnectionPoolListener[] l;
+    synchronized (poolListeners)
+      {
+        if (poolListeners.isEmpty())
+          {
+            return;
+          }
+        l = new ConnectionPoolListener[poolListeners.size()];
+        poolListeners.toArray(l);
+      }
+    for (int i = 0; i < l.length; i++)
+      {
+        l[i].connectionPoolChanged(event);
+      }
   }
 
   /**
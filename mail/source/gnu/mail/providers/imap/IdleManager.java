@@ -0,0 +1,625 @@
+/*
+ * IdleManager.java
+ * Copyright (C) 2005 The Free Software Foundation
+ *
+ * This file is part of GNU Classpath Extensions (classpathx).
+ * For more information please visit https://www.gnu.org/software/classpathx/
+ *
+ * classpathx is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * classpathx is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with classpathx.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gnu.mail.providers.imap;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import gnu.inet.imap.IMAPAdapter;
+import gnu.inet.imap.IMAPCallback;
+import gnu.inet.imap.IMAPConnection;
+
+/**
+ * Waits for untagged responses on the connections of idling folders.
+ * Connections are shared among a small number of threads, each waiting
+ * on a selector for any of its connections to become readable. The
+ * responses are then read in blocking mode, which delivers them to the
+ * folder's callback, and the connection is registered again.
+ * The IDLE command is reissued periodically, since servers may log out
+ * clients that have been idle for 30 minutes.
+ * Folder events are only delivered once the responses have been read,
+ * so that listeners may use the folder, which ends its IDLE state.
+ */
+final class IdleManager
+{
+
+  /*
+   * An idling folder.
+   */
+  private static final class Entry
+  {
+
+    final IMAPFolder folder;
+    final IMAPConnection connection;
+    final SocketChannel channel;
+    final IMAPCallback callback;
+    private final List<Runnable> events = new ArrayList<Runnable>();
+    Worker worker;
+    SelectionKey key;
+    long refresh; // when to reissue IDLE
+    boolean released; // the worker no longer uses the connection
+    boolean delivering; // the worker is delivering events
+
+    Entry(final IMAPFolder folder, IMAPConnection connection, long refresh)
+    {
+      this.folder = folder;
+      this.connection = connection;
+      this.refresh = refresh;
+      channel = connection.getChannel();
+      // Responses are reported in the middle of parsing them: defer the
+      // callbacks that notify listeners
+      callback = new IMAPAdapter(folder.callback)
+      {
+        public void alert(final String message)
+        {
+          queue(new Runnable()
+          {
+            public void run()
+            {
+              folder.callback.alert(message);
+            }
+          });
+        }
+
+        public void exists(final int messages)
+        {
+          queue(new Runnable()
+          {
+            public void run()
+            {
+              folder.callback.exists(messages);
+            }
+          });
+        }
+
+        public void expunge(final int message)
+        {
+          queue(new Runnable()
+          {
+            public void run()
+            {
+              folder.callback.expunge(message);
+            }
+          });
+        }
+      };
+    }
+
+    synchronized void queue(Runnable event)
+    {
+      events.add(event);
+    }
+
+    synchronized Runnable poll()
+    {
+      return events.isEmpty() ? null : events.remove(0);
+    }
+
+    /**
+     * Delivers the events received so far, on the current thread.
+     */
+    void deliver()
+    {
+      for (Runnable event = poll(); event != null; event = poll())
+        {
+          event.run();
+        }
+    }
+
+    synchronized boolean isReleased()
+    {
+      return released;
+    }
+
+  }
+
+  private final long refreshInterval;
+  private final Worker[] workers;
+  private int next;
+
+  private final Map<IMAPFolder,Entry> entries =
+    new HashMap<IMAPFolder,Entry>();
+
+  /**
+   * Constructor.
+   * @param threads the number of threads to use
+   * @param refreshInterval the interval at which to reissue IDLE
+   */
+  IdleManager(int threads, long refreshInterval)
+    throws IOException
+  {
+    this.refreshInterval = refreshInterval;
+    workers = new Worker[threads];
+    for (int i = 0; i < threads; i++)
+      {
+        workers[i] = new Worker(i);
+        workers[i].start();
+      }
+  }
+
+  /**
+   * Puts the folder's connection into the IDLE state and starts waiting
+   * for responses on it.
+   * @return false if the server refused the IDLE command, or if the
+   * connection cannot be watched because it uses a security layer
+   */
+  boolean start(IMAPFolder folder, IMAPConnection connection)
+    throws IOException
+  {
+    if (connection.getChannel() == null)
+      {
+        return false;
+      }
+    if (isIdle(folder))
+      {
+        return true;
+      }
+    Entry entry = new Entry(folder, connection,
+                            System.currentTimeMillis() + refreshInterval);
+    if (!connection.idle(entry.callback))
+      {
+        entry.deliver();
+        return false;
+      }
+    synchronized (this)
+      {
+        entries.put(folder, entry);
+        entry.worker = workers[next];
+        next = (next + 1) % workers.length;
+      }
+    entry.worker.add(entry);
+    return true;
+  }
+
+  /**
+   * Indicates whether the specified folder is idling.
+   */
+  synchronized boolean isIdle(IMAPFolder folder)
+  {
+    return entries.containsKey(folder);
+  }
+
+  /**
+   * Stops waiting for responses for the specified folder and ends the
+   * IDLE state on its connection, so that the connection can be used for
+   * other commands.
+   * This may be called by a listener on a thread of this manager, in
+   * which case the connection is released immediately. The worker does
+   * not use the connection while it delivers events either, so there is
+   * no need to wait for listeners, which may need locks that the caller
+   * holds.
+   */
+  void stop(IMAPFolder folder)
+    throws IOException
+  {
+    Entry entry;
+    synchronized (this)
+      {
+        entry = entries.remove(folder);
+      }
+    if (entry == null)
+      {
+        return;
+      }
+    if (Thread.currentThread() == entry.worker)
+      {
+        entry.worker.detach(entry);
+      }
+    else
+      {
+        entry.worker.remove(entry);
+        synchronized (entry)
+          {
+            while (!entry.released && !entry.delivering)
+              {
+                try
+                  {
+                    entry.wait();
+                  }
+                catch (InterruptedException e)
+                  {
+                    Thread.currentThread().interrupt();
+                    break;
+                  }
+              }
+            entry.released = true;
+          }
+      }
+    try
+      {
+        entry.connection.done();
+      }
+    finally
+      {
+        entry.deliver();
+      }
+  }
+
+  /**
+   * Stops the threads and waits for them to finish.
+   * The connections of any folders still idling are left in the IDLE
+   * state.
+   */
+  void close()
+  {
+    synchronized (this)
+      {
+        entries.clear();
+      }
+    for (int i = 0; i < workers.length; i++)
+      {
+        workers[i].close();
+      }
+    boolean interrupted = false;
+    for (int i = 0; i < workers.length; i++)
+      {
+        if (workers[i] == Thread.currentThread())
+          {
+            continue; // closed by a listener: the thread exits afterwards
+          }
+        while (workers[i].isAlive())
+          {
+            try
+              {
+                workers[i].join();
+              }
+            catch (InterruptedException e)
+              {
+                interrupted = true;
+              }
+          }
+      }
+    if (interrupted)
+      {
+        Thread.currentThread().interrupt();
+      }
+  }
+
+  private synchronized void forget(Entry entry)
+  {
+    if (entries.get(entry.folder) == entry)
+      {
+        entries.remove(entry.folder);
+      }
+  }
+
+  private static void release(Entry entry)
+  {
+    synchronized (entry)
+      {
+        entry.released = true;
+        entry.notifyAll();
+      }
+  }
+
+  /*
+   * A thread waiting on the connections of some of the idling folders.
+   */
+  private final class Worker
+    extends Thread
+  {
+
+    private final Selector selector;
+    private final List<Entry> added = new ArrayList<Entry>();
+    private final List<Entry> removed = new ArrayList<Entry>();
+    private final List<Entry> active = new ArrayList<Entry>();
+    private boolean closed;
+
+    Worker(int index)
+      throws IOException
+    {
+      super("IMAP IDLE " + index);
+      setDaemon(true);
+      selector = Selector.open();
+    }
+
+    synchronized void add(Entry entry)
+    {
+      added.add(entry);
+      selector.wakeup();
+    }
+
+    synchronized void remove(Entry entry)
+    {
+      if (added.remove(entry))
+        {
+          release(entry);
+        }
+      else
+        {
+          removed.add(entry);
+          selector.wakeup();
+        }
+    }
+
+    synchronized void close()
+    {
+      closed = true;
+      selector.wakeup();
+    }
+
+    /*
+     * Stops watching an entry's connection from this thread, which is
+     * delivering the events of one of its entries.
+     */
+    void detach(Entry entry)
+      throws IOException
+    {
+      synchronized (this)
+        {
+          added.remove(entry);
+          removed.remove(entry);
+        }
+      active.remove(entry);
+      try
+        {
+          List<Entry> list = new ArrayList<Entry>();
+          list.add(entry);
+          deregister(list);
+        }
+      finally
+        {
+          release(entry);
+        }
+    }
+
+    public void run()
+    {
+      try
+        {
+          while (true)
+            {
+              selector.select(timeout());
+              List<Entry> add, remove;
+              synchronized (this)
+                {
+                  if (closed)
+                    {
+                      break;
+                    }
+                  add = new ArrayList<Entry>(added);
+                  remove = new ArrayList<Entry>(removed);
+                  added.clear();
+                  removed.clear();
+                }
+              // Entries whose connections need to be used in blocking mode
+              List<Entry> ready = new ArrayList<Entry>(remove);
+              Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+              while (i.hasNext())
+                {
+                  SelectionKey key = i.next();
+                  i.remove();
+                  Entry entry = (Entry) key.attachment();
+                  if (key.isValid() && !ready.contains(entry))
+                    {
+                      ready.add(entry);
+                    }
+                }
+              long now = System.currentTimeMillis();
+              for (Entry entry : active)
+                {
+                  if (entry.refresh <= now && !ready.contains(entry))
+                    {
+                      ready.add(entry);
+                    }
+                }
+              deregister(ready);
+              for (Entry entry : ready)
+                {
+                  if (entry.isReleased())
+                    {
+                      active.remove(entry); // stopped while delivering events
+                      continue;
+                    }
+                  if (remove.contains(entry))
+                    {
+                      active.remove(entry);
+                      release(entry);
+                    }
+                  else if (service(entry, now))
+                    {
+                      add.add(entry);
+                    }
+                  else
+                    {
+                      active.remove(entry);
+                      forget(entry);
+                      release(entry);
+                    }
+                }
+              for (Entry entry : add)
+                {
+                  if (remove.contains(entry) || entry.isReleased())
+                    {
+                      continue;
+                    }
+                  // Responses may already be buffered for a new entry
+                  if (!active.contains(entry) && !service(entry, now))
+                    {
+                      forget(entry);
+                      release(entry);
+                      continue;
+                    }
+                  try
+                    {
+                      entry.channel.configureBlocking(false);
+                      entry.key = entry.channel.register(selector,
+                                                         SelectionKey.OP_READ,
+                                                         entry);
+                      if (!active.contains(entry))
+                        {
+                          active.add(entry);
+                        }
+                    }
+                  catch (IOException e)
+                    {
+                      active.remove(entry);
+                      forget(entry);
+                      release(entry);
+                    }
+                }
+            }
+        }
+      catch (IOException e)
+        {
+          // selector failure: release the remaining connections below
+        }
+      List<Entry> remaining = new ArrayList<Entry>(active);
+      synchronized (this)
+        {
+          remaining.addAll(added);
+          added.clear();
+        }
+      try
+        {
+          deregister(remaining);
+        }
+      catch (IOException e)
+        {
+        }
+      for (Entry entry : remaining)
+        {
+          forget(entry);
+          release(entry);
+        }
+      try
+        {
+          selector.close();
+        }
+      catch (IOException e)
+        {
+        }
+    }
+
+    /*
+     * Returns the time until the earliest IDLE refresh.
+     */
+    private long timeout()
+    {
+      if (active.isEmpty())
+        {
+          return 0L; // indefinitely
+        }
+      long earliest = Long.MAX_VALUE;
+      for (Entry entry : active)
+        {
+          earliest = Math.min(earliest, entry.refresh);
+        }
+      return Math.max(1L, earliest - System.currentTimeMillis());
+    }
+
+    /*
+     * Cancels the registrations of the specified entries and returns
+     * their channels to blocking mode.
+     */
+    private void deregister(List<Entry> entries)
+      throws IOException
+    {
+      List<Entry> cancelled = new ArrayList<Entry>();
+      for (Entry entry : entries)
+        {
+          if (entry.key != null)
+            {
+              entry.key.cancel();
+              entry.key = null;
+              cancelled.add(entry);
+            }
+        }
+      if (cancelled.isEmpty())
+        {
+          return;
+        }
+      selector.selectNow(); // deregisters the cancelled keys
+      for (Entry entry : cancelled)
+        {
+          try
+            {
+              entry.channel.configureBlocking(true);
+            }
+          catch (IOException e)
+            {
+            }
+        }
+    }
+
+    /*
+     * Reads the available responses on an entry's connection, reissues
+     * IDLE if it is due, and delivers the resulting events.
+     * @return true if the connection is still idling
+     */
+    private boolean service(Entry entry, long now)
+    {
+      boolean idling;
+      try
+        {
+          idling = entry.connection.readIdleResponses();
+          if (idling && entry.refresh <= now)
+            {
+              entry.connection.done();
+              idling = entry.connection.idle(entry.callback);
+              entry.refresh = now + refreshInterval;
+            }
+        }
+      catch (IOException e)
+        {
+          idling = false;
+        }
+      synchronized (entry)
+        {
+          entry.delivering = true;
+          entry.notifyAll();
+        }
+      try
+        {
+          while (!entry.isReleased())
+            {
+              Runnable event = entry.poll();
+              if (event == null)
+                {
+                  break;
+                }
+              event.run();
+            }
+        }
+      finally
+        {
+          synchronized (entry)
+            {
+              entry.delivering = false;
+            }
+        }
+      // The entry may have been stopped meanwhile, by a listener or by
+      // another thread: the remaining events are then delivered by stop
+      return idling && !entry.isReleased();
+    }
+
+  }
+
+}
@@ -414,6 +414,7 @@ public final class MaildirFolder
       dst = new File(newdir.dir, message.uniq);
     if (!src.renameTo(dst))
       throw new MessagingException("Unable to move message");
+    message.file = dst;
   }
 
   /**
@@ -32,6 +32,8 @@ import javax.activation.DataHandler;
 import javax.mail.Flags;
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
+import javax.mail.internet.SharedInputStream;
+import javax.mail.util.SharedFileInputStream;
 import gnu.mail.providers.ReadOnlyMessage;
 
 /**
@@ -190,8 +192,14 @@ public final class MaildirMessage
     try
     {
       InputStream in = new BufferedInputStream(new FileInputStream(file));
-      headers = createInternetHeaders(in);
-      in.close();
+      try
+      {
+        headers = createInternetHeaders(in);
+      }
+      finally
+      {
+        in.close();
+      }
     }
     catch (IOException e)
     {
@@ -205,13 +213,21 @@ public final class MaildirMessage
   void fetch()
     throws MessagingException
   {
-    if (content!=null)
+    if (content!=null || contentStream!=null)
       return;
     try
     {
-      InputStream in = new BufferedInputStream(new FileInputStream(file));
-      parse(in);
-      in.close();
+      // The content is read from the file on demand
+      SharedFileInputStream in = new SharedFileInputStream(file);
+      try
+      {
+        headers = createInternetHeaders(in);
+        contentStream = new ContentStream(in.getPosition());
+      }
+      finally
+      {
+        in.close();
+      }
     }
     catch (IOException e)
     {
@@ -290,7 +306,7 @@ public final class MaildirMessage
   public DataHandler getDataHandler()
     throws MessagingException
   {
-    if (content==null)
+    if (content==null && contentStream==null)
       fetch();
     return super.getDataHandler();
   }
@@ -298,13 +314,99 @@ public final class MaildirMessage
   protected InputStream getContentStream()
     throws MessagingException
   {
-    if (content==null)
+    if (content==null && contentStream==null)
       fetch();
     return super.getContentStream();
   }
 
   // -- Utility methods --
 
+  /**
+   * The content of the message file, from the end of the headers.
+   * No file is held open by the message: each stream created from this
+   * one opens the file, and closes it when it is closed.
+   */
+  final class ContentStream
+    extends InputStream
+    implements SharedInputStream
+  {
+
+    private final long start;
+    private InputStream in;
+
+    ContentStream(long start)
+    {
+      this.start = start;
+    }
+
+    public long getPosition()
+    {
+      return (in==null) ? 0L : ((SharedInputStream)in).getPosition();
+    }
+
+    public InputStream newStream(long start, long end)
+    {
+      try
+      {
+        SharedFileInputStream root = new SharedFileInputStream(file);
+        InputStream ret = root.newStream(this.start + start,
+            (end==-1L) ? -1L : this.start + end);
+        // The new stream keeps the file open until it is closed
+        root.close();
+        return ret;
+      }
+      catch (IOException e)
+      {
+        throw new IllegalStateException(e.getMessage(), e);
+      }
+    }
+
+    public int read()
+      throws IOException
+    {
+      return stream().read();
+    }
+
+    public int read(byte[] b, int off, int len)
+      throws IOException
+    {
+      return stream().read(b, off, len);
+    }
+
+    public long skip(long n)
+      throws IOException
+    {
+      return stream().skip(n);
+    }
+
+    public int available()
+      throws IOException
+    {
+      if (in!=null)
+        return in.available();
+      long len = file.length() - start;
+      return (int)Math.max(0L, Math.min(len, (long)Integer.MAX_VALUE));
+    }
+
+    public void close()
+      throws IOException
+    {
+      if (in!=null)
+      {
+        in.close();
+        in = null;
+      }
+    }
+
+    private InputStream stream()
+    {
+      if (in==null)
+        in = newStream(0L, -1L);
+      return in;
+    }
+
+  }
+
   public boolean equals(Object other)
   {
     if (other instanceof MimeMessage)
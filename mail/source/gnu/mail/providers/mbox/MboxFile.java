@@ -0,0 +1,495 @@
+/*
+ * MboxFile.java
+ * Copyright (C) 2005 The Free Software Foundation
+ *
+ * This file is part of GNU Classpath Extensions (classpathx).
+ * For more information please visit https://www.gnu.org/software/classpathx/
+ *
+ * classpathx is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * classpathx is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with classpathx.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gnu.mail.providers.mbox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A memory-mapped mbox file.
+ * The file is mapped in regions of at most 1GB, so that mailboxes larger
+ * than the 2GB limit of a single mapping can be read. Messages are
+ * located by scanning the mapped bytes for From_ lines; only the offsets
+ * of those lines are kept. The offsets are saved in a sidecar index file
+ * which is reused while the size and modification time of the mbox match.
+ */
+final class MboxFile
+{
+
+  private static final int REGION_SHIFT = 30;
+  private static final int REGION_SIZE = 1 << REGION_SHIFT;
+  private static final int REGION_MASK = REGION_SIZE - 1;
+
+  private static final int COPY_CHUNK = 1 << 20;
+
+  private static final int INDEX_MAGIC = 0x4d424958; // MBIX
+  private static final int INDEX_VERSION = 1;
+
+  final File file;
+  final long length;
+  private RandomAccessFile raf;
+  private ByteBuffer[] regions;
+
+  /**
+   * Offsets of the From_ lines in the file, in ascending order.
+   */
+  long[] offsets;
+  int count;
+
+  /**
+   * Maps the specified file.
+   */
+  MboxFile(File file)
+    throws IOException
+  {
+    this.file = file;
+    raf = new RandomAccessFile(file, "r");
+    length = raf.length();
+    FileChannel channel = raf.getChannel();
+    int n = (int) ((length + REGION_MASK) >>> REGION_SHIFT);
+    regions = new ByteBuffer[n];
+    for (int i = 0; i < n; i++)
+      {
+        long pos = ((long) i) << REGION_SHIFT;
+        long size = Math.min(REGION_SIZE, length - pos);
+        regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+      }
+    offsets = new long[256];
+    count = 0;
+  }
+
+  /**
+   * Constructs an in-memory copy of part of an mbox file.
+   */
+  private MboxFile(byte[] data)
+  {
+    file = null;
+    length = data.length;
+    regions = new ByteBuffer[] { ByteBuffer.wrap(data) };
+    offsets = new long[0];
+    count = 0;
+  }
+
+  /**
+   * Returns an in-memory copy of the specified range of this file.
+   * This is used to preserve the content of messages whose data is
+   * about to be overwritten.
+   */
+  MboxFile copy(long start, long end)
+  {
+    byte[] data = new byte[(int) (end - start)];
+    get(start, data, 0, data.length);
+    return new MboxFile(data);
+  }
+
+  /**
+   * Returns the byte at the specified file offset.
+   */
+  int get(long pos)
+  {
+    return regions[(int) (pos >>> REGION_SHIFT)]
+      .get((int) (pos & REGION_MASK)) & 0xff;
+  }
+
+  /**
+   * Copies bytes starting at the specified file offset into the given
+   * array. The caller ensures that the bytes lie within the file.
+   */
+  void get(long pos, byte[] b, int off, int len)
+  {
+    while (len > 0)
+      {
+        ByteBuffer region = regions[(int) (pos >>> REGION_SHIFT)];
+        int rpos = (int) (pos & REGION_MASK);
+        int l = Math.min(len, region.limit() - rpos);
+        // Absolute bulk get: use a duplicate so that concurrent readers
+        // do not share a position
+        ByteBuffer dup = region.duplicate();
+        dup.position(rpos);
+        dup.get(b, off, l);
+        pos += l;
+        off += l;
+        len -= l;
+      }
+  }
+
+  /**
+   * Indicates whether a From_ line starts at the specified offset.
+   */
+  boolean isFromLine(long pos)
+  {
+    if (pos + 5 > length)
+      {
+        return false;
+      }
+    return (get(pos) == 'F' && get(pos + 1) == 'r' && get(pos + 2) == 'o' &&
+            get(pos + 3) == 'm' && get(pos + 4) == ' ');
+  }
+
+  /**
+   * Scans the file from the specified offset, which must be the start of
+   * a line, and appends the offset of each From_ line to the index.
+   */
+  void scan(long pos)
+  {
+    if (pos < length && isFromLine(pos))
+      {
+        add(pos);
+      }
+    for (int i = (int) (pos >>> REGION_SHIFT); i < regions.length; i++)
+      {
+        ByteBuffer region = regions[i];
+        long base = ((long) i) << REGION_SHIFT;
+        int limit = region.limit();
+        int start = (int) Math.max(0L, pos - base);
+        for (int j = start; j < limit; j++)
+          {
+            if (region.get(j) == '\n')
+              {
+                long next = base + j + 1;
+                if (isFromLine(next))
+                  {
+                    add(next);
+                    j += 5;
+                  }
+              }
+          }
+      }
+  }
+
+  /**
+   * Takes over the index of the specified mapping of an earlier, shorter
+   * version of this file, and scans only the data added since.
+   */
+  void index(MboxFile previous)
+  {
+    offsets = new long[Math.max(previous.count * 2, 256)];
+    System.arraycopy(previous.offsets, 0, offsets, 0, previous.count);
+    count = previous.count;
+    long pos = previous.length;
+    if (count > 0)
+      {
+        // The last message may have been completed by the new data
+        pos = offsets[--count];
+      }
+    scan(pos);
+  }
+
+  private void add(long pos)
+  {
+    if (count == offsets.length)
+      {
+        long[] o = new long[count * 2];
+        System.arraycopy(offsets, 0, o, 0, count);
+        offsets = o;
+      }
+    offsets[count++] = pos;
+  }
+
+  /**
+   * Returns the offset of the first byte after the From_ line of the
+   * specified message.
+   */
+  long getContentStart(int index)
+  {
+    long pos = offsets[index];
+    long end = getEnd(index);
+    while (pos < end && get(pos) != '\n')
+      {
+        pos++;
+      }
+    return (pos < end) ? pos + 1 : end;
+  }
+
+  /**
+   * Returns the offset of the end of the specified message.
+   */
+  long getEnd(int index)
+  {
+    return (index + 1 < count) ? offsets[index + 1] : length;
+  }
+
+  /**
+   * Returns the From_ line of the specified message.
+   */
+  String getFromLine(int index)
+  {
+    long start = offsets[index];
+    int len = (int) (getContentStart(index) - start);
+    byte[] b = new byte[len];
+    get(start, b, 0, len);
+    while (len > 0 && (b[len - 1] == '\n' || b[len - 1] == '\r'))
+      {
+        len--;
+      }
+    return new String(b, 0, len);
+  }
+
+  /**
+   * Removes the specified messages from the file.
+   * Only the data following the first deleted message is rewritten: each
+   * run of remaining messages is shifted down over the deleted ones, and
+   * the file is then truncated. The sidecar index is deleted before the
+   * file is modified and the data is forced to disk before truncation,
+   * so that after a crash the mailbox is rescanned and at most the
+   * message being shifted at the time is damaged; the remaining ones
+   * then appear twice.
+   * @param deleted which messages to remove
+   * @param delta receives, for each remaining message, the distance by
+   * which it moved towards the start of the file
+   * @return a new mapping of the compacted file, with its index
+   */
+  MboxFile compact(boolean[] deleted, long[] delta)
+    throws IOException
+  {
+    int first = 0;
+    while (first < count && !deleted[first])
+      {
+        first++;
+      }
+    if (first == count)
+      {
+        return this;
+      }
+    getIndexFile(file).delete();
+    RandomAccessFile rf = new RandomAccessFile(file, "r");
+    RandomAccessFile wf = new RandomAccessFile(file, "rw");
+    long dst = offsets[first];
+    try
+      {
+        FileChannel in = rf.getChannel();
+        FileChannel out = wf.getChannel();
+        ByteBuffer buf = null;
+        int i = first;
+        while (i < count)
+          {
+            if (deleted[i])
+              {
+                i++;
+                continue;
+              }
+            // Shift the run of remaining messages starting at i
+            long src = offsets[i];
+            int j = i;
+            while (j < count && !deleted[j])
+              {
+                delta[j] = src - dst;
+                j++;
+              }
+            long len = getEnd(j - 1) - src;
+            while (len > 0L)
+              {
+                long gap = src - dst;
+                long n;
+                if (gap >= COPY_CHUNK)
+                  {
+                    // Source and destination do not overlap
+                    out.position(dst);
+                    n = in.transferTo(src, Math.min(len, gap), out);
+                  }
+                else
+                  {
+                    if (buf == null)
+                      {
+                        buf = ByteBuffer.allocateDirect(COPY_CHUNK);
+                      }
+                    buf.clear();
+                    buf.limit((int) Math.min(len, (long) COPY_CHUNK));
+                    while (buf.hasRemaining())
+                      {
+                        if (in.read(buf, src + buf.position()) < 0)
+                          {
+                            throw new IOException("unexpected end of file");
+                          }
+                      }
+                    buf.flip();
+                    while (buf.hasRemaining())
+                      {
+                        out.write(buf, dst + buf.position());
+                      }
+                    n = buf.limit();
+                  }
+                src += n;
+                dst += n;
+                len -= n;
+              }
+            i = j;
+          }
+        out.force(false);
+        out.truncate(dst);
+        out.force(true);
+      }
+    finally
+      {
+        wf.close();
+        rf.close();
+      }
+    MboxFile ret = new MboxFile(file);
+    ret.offsets = new long[Math.max(count, 1)];
+    for (int i = 0; i < count; i++)
+      {
+        if (i < first)
+          {
+            ret.offsets[ret.count++] = offsets[i];
+          }
+        else if (!deleted[i])
+          {
+            ret.offsets[ret.count++] = offsets[i] - delta[i];
+          }
+      }
+    return ret;
+  }
+
+  /**
+   * Returns the sidecar index file for the specified mbox.
+   */
+  static File getIndexFile(File file)
+  {
+    return new File(file.getParentFile(), "." + file.getName() + ".idx");
+  }
+
+  /**
+   * Builds the index, reusing the sidecar index file if it is still
+   * valid. If the mbox has only grown since the index was written, and
+   * the last indexed message is still in place, only the new data is
+   * scanned.
+   * @return true if the index was read completely from the sidecar file
+   */
+  boolean index()
+  {
+    File idx = getIndexFile(file);
+    long lastModified = file.lastModified();
+    if (idx.exists())
+      {
+        DataInputStream in = null;
+        try
+          {
+            in = new DataInputStream(new BufferedInputStream(
+                                     new FileInputStream(idx)));
+            if (in.readInt() == INDEX_MAGIC && in.readInt() == INDEX_VERSION)
+              {
+                long ilength = in.readLong();
+                long imodified = in.readLong();
+                int icount = in.readInt();
+                if (ilength == length && imodified == lastModified)
+                  {
+                    offsets = new long[Math.max(icount, 1)];
+                    for (int i = 0; i < icount; i++)
+                      {
+                        offsets[i] = in.readLong();
+                      }
+                    count = icount;
+                    return true;
+                  }
+                if (ilength < length && icount > 0)
+                  {
+                    long[] o = new long[Math.max(icount * 2, 256)];
+                    for (int i = 0; i < icount; i++)
+                      {
+                        o[i] = in.readLong();
+                      }
+                    if (isFromLine(o[icount - 1]))
+                      {
+                        // The mbox has been appended to
+                        offsets = o;
+                        count = icount - 1;
+                        scan(o[icount - 1]);
+                        return false;
+                      }
+                  }
+              }
+          }
+        catch (IOException e)
+          {
+            // Corrupt index: rescan
+          }
+        finally
+          {
+            if (in != null)
+              {
+                try
+                  {
+                    in.close();
+                  }
+                catch (IOException e)
+                  {
+                  }
+              }
+          }
+      }
+    count = 0;
+    scan(0L);
+    return false;
+  }
+
+  /**
+   * Saves the index to the sidecar index file.
+   */
+  void saveIndex()
+    throws IOException
+  {
+    File idx = getIndexFile(file);
+    DataOutputStream out =
+      new DataOutputStream(new BufferedOutputStream(new FileOutputStream(idx)));
+    try
+      {
+        out.writeInt(INDEX_MAGIC);
+        out.writeInt(INDEX_VERSION);
+        out.writeLong(length);
+        out.writeLong(file.lastModified());
+        out.writeInt(count);
+        for (int i = 0; i < count; i++)
+          {
+            out.writeLong(offsets[i]);
+          }
+      }
+    finally
+      {
+        out.close();
+      }
+  }
+
+  /**
+   * Releases the file. The mappings themselves are released when they
+   * are no longer referenced by any message stream.
+   */
+  void close()
+    throws IOException
+  {
+    if (raf != null)
+      {
+        raf.close();
+        raf = null;
+      }
+  }
+
+}
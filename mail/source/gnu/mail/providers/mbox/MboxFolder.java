@@ -29,6 +29,7 @@
 
 package gnu.mail.providers.mbox;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -39,6 +40,10 @@ import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -78,7 +83,9 @@ public class MboxFolder
 
   final File file;
   final boolean inbox;
-  MboxMessage[] messages;
+  MboxFile mbox; // mapped mailbox, if not compressed
+  MboxMessage[] messages; // created on demand from mbox
+  MboxInputStream.Source[] sources; // content of messages created from mbox
   boolean open;
   boolean readOnly;
 
@@ -216,6 +223,11 @@ public class MboxFolder
         throw new MessagingException("Can't read folder: " + filename);
       }
 
+    if (!isGzip())
+      {
+        openMapped();
+        return;
+      }
     LineInputStream in = null;
     try
       {
@@ -224,9 +236,9 @@ public class MboxFolder
         mstore.log("reading " + filename);
 
         List acc = new ArrayList(256);
-        in = new LineInputStream(getInputStream());
+        in = new LineInputStream(new BufferedInputStream(getInputStream()));
         int count = 1;
-        String line, fromLine = null;
+        String fromLine = null;
         ByteArrayOutputStream buf = null;
 
         // notify listeners
@@ -236,9 +248,12 @@ public class MboxFolder
                                 "open");
         mstore.processStatusEvent(event);
 
-        for (line = in.readLine(); line != null; line = in.readLine())
+        for (int len = in.nextLine(); len != -1; len = in.nextLine())
           {
-            if (line.indexOf(FROM) == 0)
+            byte[] line = in.getLineBuffer();
+            int off = in.getLineOffset();
+            int depth = fromDepth(line, off, len);
+            if (depth == 0)
               {
                 if (buf != null)
                   {
@@ -256,13 +271,18 @@ public class MboxFolder
                                             count - 1);
                     mstore.processStatusEvent(event);
                   }
-                fromLine = line;
+                fromLine = new String(line, off, len, "US-ASCII");
                 buf = new ByteArrayOutputStream();
               }
             else if (buf != null)
               {
-                byte[] bytes = decodeFrom(line).getBytes();
-                buf.write(bytes, 0, bytes.length);
+                if (depth > 0)
+                  {
+                    // Unescape From_ line
+                    off++;
+                    len--;
+                  }
+                buf.write(line, off, len);
                 buf.write(10); // LF
               }
           }
@@ -316,6 +336,68 @@ public class MboxFolder
       }
   }
 
+  /**
+   * Opens an uncompressed mbox by mapping it into memory.
+   * Only the offsets of the messages are read; each message is created
+   * when it is first requested, and reads its content directly from the
+   * mapped file.
+   */
+  private void openMapped()
+    throws MessagingException
+  {
+    String filename = file.getPath();
+    MboxStore mstore = (MboxStore) this.store;
+    mstore.log("indexing " + filename);
+    StatusEvent event;
+    event = new StatusEvent(mstore,
+                            StatusEvent.OPERATION_START,
+                            "open");
+    mstore.processStatusEvent(event);
+    try
+      {
+        mbox = new MboxFile(file);
+        if (!mbox.index())
+          {
+            saveIndex();
+          }
+        messages = new MboxMessage[mbox.count];
+        sources = new MboxInputStream.Source[mbox.count];
+      }
+    catch (IOException e)
+      {
+        throw new MessagingException("Unable to open folder: " + filename, e);
+      }
+    event = new StatusEvent(mstore,
+                            StatusEvent.OPERATION_END,
+                            "open");
+    mstore.processStatusEvent(event);
+
+    // OK
+    open = true;
+    notifyConnectionListeners(ConnectionEvent.OPENED);
+  }
+
+  /**
+   * Returns the message at the specified index, creating it from the
+   * mapped mbox if necessary.
+   */
+  MboxMessage getMboxMessage(int index)
+    throws MessagingException
+  {
+    MboxMessage m = messages[index];
+    if (m == null)
+      {
+        long start = mbox.getContentStart(index);
+        MboxInputStream.Source src = new MboxInputStream.Source(mbox, start);
+        InputStream in = new MboxInputStream(src, 0L,
+                                             mbox.getEnd(index) - start);
+        m = new MboxMessage(this, mbox.getFromLine(index), in, index + 1);
+        messages[index] = m;
+        sources[index] = src;
+      }
+    return m;
+  }
+
   /**
    * Returns the specified line with any From_ line encoding removed.
    */
@@ -345,6 +427,30 @@ public class MboxFolder
     return line;
   }
 
+  /**
+   * Returns the number of '&gt;' characters preceding "From " at the
+   * start of the specified line, or -1 if it is neither a From_ line nor
+   * an escaped From_ line.
+   */
+  private static int fromDepth(byte[] b, int off, int len)
+  {
+    int i = 0;
+    while (i < len && b[off + i] == '>')
+      {
+        i++;
+      }
+    if (len - i < 5 ||
+        b[off + i] != 'F' ||
+        b[off + i + 1] != 'r' ||
+        b[off + i + 2] != 'o' ||
+        b[off + i + 3] != 'm' ||
+        b[off + i + 4] != ' ')
+      {
+        return -1;
+      }
+    return i;
+  }
+
   /**
    * Closes this folder.
    * @param expunge if the folder is to be expunged before it is closed
@@ -360,10 +466,12 @@ public class MboxFolder
             expunge();
           }
 
-        if (!readOnly)
+        MboxStore mstore = (MboxStore) this.store;
+        if (!readOnly && mbox == null)
           {
             // Save messages
-            MboxStore mstore = (MboxStore) this.store;
+            // (mapped mailboxes are updated as messages are appended
+            // and expunged)
             StatusEvent event;
             mstore.log("saving " + file.getAbsolutePath());
             synchronized (this)
@@ -423,14 +531,27 @@ public class MboxFolder
                       }
                   }
               }
-            if (!releaseLock())
+          }
+        if (!readOnly && !releaseLock())
+          {
+            mstore.log("unable to clear up lock file!");
+          }
+
+        if (mbox != null)
+          {
+            try
+              {
+                mbox.close();
+              }
+            catch (IOException e)
               {
-                mstore.log("unable to clear up lock file!");
+                // we tried
               }
+            mbox = null;
           }
-
         open = false;
         messages = new MboxMessage[0]; // release memory
+        sources = null;
         notifyConnectionListeners(ConnectionEvent.CLOSED);
       }
   }
@@ -441,10 +562,11 @@ public class MboxFolder
    * since it was last opened), we will attempt to generate a suitable From_
    * line for it.
    */
-  protected String fromLine(MboxMessage message)
+  protected String fromLine(MimeMessage message)
     throws MessagingException
   {
-    String fromLine = message.fromLine;
+    String fromLine = (message instanceof MboxMessage) ?
+      ((MboxMessage) message).fromLine : null;
     if (fromLine == null)
       {
         StringBuffer buf = new StringBuffer("From ");
@@ -500,11 +622,16 @@ public class MboxFolder
     synchronized (this)
       {
         List elist = new ArrayList();
-        if (open)
+        if (open && mbox != null && !readOnly)
+          {
+            expungeMapped(elist);
+          }
+        else if (open)
           {
             List mlist = new ArrayList();
             for (int i=0; i<messages.length; i++)
               {
+                getMboxMessage(i);
                 Flags flags = messages[i].getFlags();
                 if (flags.contains(Flags.Flag.DELETED))
                   {
@@ -532,6 +659,96 @@ public class MboxFolder
     return expunged;
   }
 
+  /**
+   * Removes the deleted messages from the mapped mailbox file.
+   * Messages that have not been requested yet cannot have been marked
+   * as deleted, so only the ones already created are examined.
+   * @param elist the list to add the expunged messages to
+   */
+  private void expungeMapped(List elist)
+    throws MessagingException
+  {
+    int len = messages.length;
+    boolean[] deleted = new boolean[len];
+    int kept = 0;
+    for (int i = 0; i < len; i++)
+      {
+        MboxMessage m = messages[i];
+        if (m != null && m.getFlags().contains(Flags.Flag.DELETED))
+          {
+            deleted[i] = true;
+            elist.add(m);
+            m.setExpunged(true);
+            // Keep the content of the expunged message readable
+            sources[i].mbox = mbox.copy(sources[i].offset, mbox.getEnd(i));
+            sources[i].offset = 0L;
+          }
+        else
+          {
+            kept++;
+          }
+      }
+    if (kept == len)
+      {
+        return;
+      }
+    MboxStore mstore = (MboxStore) store;
+    mstore.log("expunging " + file.getPath());
+    long[] delta = new long[len];
+    MboxFile compacted;
+    try
+      {
+        compacted = mbox.compact(deleted, delta);
+      }
+    catch (IOException e)
+      {
+        throw new MessagingException("I/O error writing mailbox", e);
+      }
+    MboxMessage[] m = new MboxMessage[kept];
+    MboxInputStream.Source[] s = new MboxInputStream.Source[kept];
+    for (int i = 0, j = 0; i < len; i++)
+      {
+        if (!deleted[i])
+          {
+            if (sources[i] != null)
+              {
+                sources[i].mbox = compacted;
+                sources[i].offset -= delta[i];
+              }
+            m[j] = messages[i];
+            s[j] = sources[i];
+            j++;
+          }
+      }
+    messages = m;
+    sources = s;
+    try
+      {
+        mbox.close();
+      }
+    catch (IOException e)
+      {
+        // we tried
+      }
+    mbox = compacted;
+    saveIndex();
+  }
+
+  /**
+   * Saves the index of the mapped mailbox.
+   */
+  private void saveIndex()
+  {
+    try
+      {
+        mbox.saveIndex();
+      }
+    catch (IOException e)
+      {
+        ((MboxStore) store).log("unable to save index for " + file.getPath());
+      }
+  }
+
   /**
    * Indicates whether this folder is open.
    */
@@ -578,7 +795,7 @@ public class MboxFolder
       {
         throw new MessagingException("No such message: "+msgnum);
       }
-    return messages[index];
+    return getMboxMessage(index);
   }
 
   /**
@@ -590,7 +807,10 @@ public class MboxFolder
   {
     // Return a copy of the message array
     Message[] m = new Message[messages.length];
-    System.arraycopy(messages, 0, m, 0, messages.length);
+    for (int i = 0; i < messages.length; i++)
+      {
+        m[i] = getMboxMessage(i);
+      }
     return m;
   }
 
@@ -603,6 +823,11 @@ public class MboxFolder
   public synchronized void appendMessages(Message[] m)
     throws MessagingException
   {
+    if (!isGzip())
+      {
+        appendMapped(m);
+        return;
+      }
     MboxMessage[] n;
     synchronized (this)
       {
@@ -641,6 +866,145 @@ public class MboxFolder
       }
   }
 
+  /**
+   * Appends messages to an uncompressed mailbox by writing them directly
+   * to the end of the file. If the folder is open, the mapping and index
+   * are extended to cover the new messages.
+   */
+  private void appendMapped(Message[] m)
+    throws MessagingException
+  {
+    boolean locked = open && !readOnly;
+    if (!locked && !acquireLock())
+      {
+        throw new MessagingException("Unable to acquire lock: " +
+                                     file.getPath());
+      }
+    try
+      {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+          {
+            FileChannel channel = raf.getChannel();
+            long pos = channel.size();
+            boolean written = false;
+            try
+              {
+                if (pos > 0L)
+                  {
+                    // Ensure the new From_ line starts a line
+                    ByteBuffer last = ByteBuffer.allocate(1);
+                    channel.read(last, pos - 1L);
+                    if (last.get(0) != '\n')
+                      {
+                        last.clear();
+                        last.put(0, (byte) '\n');
+                        channel.write(last, pos);
+                      }
+                  }
+                channel.position(channel.size());
+                BufferedOutputStream bos =
+                  new BufferedOutputStream(Channels.newOutputStream(channel));
+                MboxOutputStream mos = new MboxOutputStream(bos);
+                for (int i = 0; i < m.length; i++)
+                  {
+                    if (m[i] instanceof MimeMessage)
+                      {
+                        MimeMessage message = (MimeMessage) m[i];
+                        bos.write(fromLine(message).getBytes());
+                        bos.write('\n');
+                        message.writeTo(mos);
+                        mos.flush();
+                      }
+                  }
+                bos.flush();
+                channel.force(false);
+                written = true;
+              }
+            finally
+              {
+                if (!written)
+                  {
+                    // Don't leave a partial message in the mailbox
+                    try
+                      {
+                        channel.truncate(pos);
+                        channel.force(false);
+                      }
+                    catch (IOException e)
+                      {
+                        // we tried
+                      }
+                  }
+              }
+          }
+        finally
+          {
+            raf.close();
+          }
+      }
+    catch (IOException e)
+      {
+        throw new MessagingException("I/O error writing mailbox", e);
+      }
+    finally
+      {
+        if (!locked)
+          {
+            releaseLock();
+          }
+      }
+    if (!open || mbox == null)
+      {
+        return;
+      }
+    // Extend the mapping and index over the new messages
+    MboxFile extended;
+    try
+      {
+        extended = new MboxFile(file);
+      }
+    catch (IOException e)
+      {
+        throw new MessagingException("Unable to open folder: " +
+                                     file.getPath(), e);
+      }
+    extended.index(mbox);
+    int len = messages.length;
+    MboxMessage[] n = new MboxMessage[extended.count];
+    MboxInputStream.Source[] s = new MboxInputStream.Source[extended.count];
+    System.arraycopy(messages, 0, n, 0, len);
+    System.arraycopy(sources, 0, s, 0, len);
+    for (int i = 0; i < len; i++)
+      {
+        if (s[i] != null)
+          {
+            s[i].mbox = extended;
+          }
+      }
+    try
+      {
+        mbox.close();
+      }
+    catch (IOException e)
+      {
+        // we tried
+      }
+    mbox = extended;
+    messages = n;
+    sources = s;
+    saveIndex();
+    Message[] added = new Message[n.length - len];
+    for (int i = len; i < n.length; i++)
+      {
+        added[i - len] = getMboxMessage(i);
+      }
+    if (added.length > 0)
+      {
+        notifyMessageAddedListeners(added);
+      }
+  }
+
   /**
    * Returns the parent folder.
    */
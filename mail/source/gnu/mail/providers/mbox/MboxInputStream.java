@@ -0,0 +1,294 @@
+/*
+ * MboxInputStream.java
+ * Copyright (C) 2005 The Free Software Foundation
+ *
+ * This file is part of GNU Classpath Extensions (classpathx).
+ * For more information please visit https://www.gnu.org/software/classpathx/
+ *
+ * classpathx is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * classpathx is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with classpathx.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gnu.mail.providers.mbox;
+
+import java.io.InputStream;
+import java.io.IOException;
+import javax.mail.internet.SharedInputStream;
+
+/**
+ * A shared input stream over a slice of a memory-mapped mbox file.
+ * Escaped From_ lines (lines consisting of one or more '&gt;' characters
+ * followed by "From ") are unescaped as they are read. Positions, and the
+ * bounds passed to newStream, count the unescaped bytes returned by this
+ * stream, from the start of the slice.
+ */
+class MboxInputStream
+  extends InputStream
+  implements SharedInputStream
+{
+
+  /**
+   * The location of a message's content. All the streams created for a
+   * message share one source, so that they follow the content when the
+   * folder moves it.
+   */
+  static final class Source
+  {
+
+    MboxFile mbox;
+    long offset;
+
+    Source(MboxFile mbox, long offset)
+    {
+      this.mbox = mbox;
+      this.offset = offset;
+    }
+
+  }
+
+  private final Source src;
+  private final long start;
+  private final long end;
+  private final long limit; // end of the message
+  private long pos;
+  private long removed; // escape characters skipped before pos
+  private boolean bol; // at beginning of line
+  private long[] escapes; // offsets of escape characters in the slice
+
+  /**
+   * Constructor.
+   * @param src the content source
+   * @param start the start of the slice, relative to the source offset
+   * @param end the end of the slice, relative to the source offset
+   */
+  MboxInputStream(Source src, long start, long end)
+  {
+    this(src, start, end, end);
+  }
+
+  private MboxInputStream(Source src, long start, long end, long limit)
+  {
+    this.src = src;
+    this.start = start;
+    this.end = end;
+    this.limit = limit;
+    pos = start;
+    bol = isLineStart(start);
+  }
+
+  private boolean isLineStart(long p)
+  {
+    return (src.offset + p == 0L || get(p - 1L) == '\n');
+  }
+
+  private int get(long p)
+  {
+    return src.mbox.get(src.offset + p);
+  }
+
+  /**
+   * Indicates whether the line starting at the specified offset is an
+   * escaped From_ line. The whole line is examined even if it extends
+   * beyond the end of this stream, so that every stream over the message
+   * agrees on which characters are escapes.
+   */
+  private boolean isEscaped(long p)
+  {
+    if (get(p) != '>')
+      {
+        return false;
+      }
+    for (p++; p < limit && get(p) == '>'; p++)
+      {
+      }
+    return (p + 5 <= limit && src.mbox.isFromLine(src.offset + p));
+  }
+
+  /**
+   * Returns the offsets of the escape characters that this stream skips,
+   * in ascending order. These are located by scanning the slice the first
+   * time they are needed.
+   */
+  private long[] getEscapes()
+  {
+    if (escapes == null)
+      {
+        long[] acc = new long[8];
+        int count = 0;
+        boolean b = isLineStart(start);
+        for (long p = start; p < end; p++)
+          {
+            int c = get(p);
+            if (b && c == '>' && isEscaped(p))
+              {
+                if (count == acc.length)
+                  {
+                    long[] tmp = new long[count * 2];
+                    System.arraycopy(acc, 0, tmp, 0, count);
+                    acc = tmp;
+                  }
+                acc[count++] = p;
+              }
+            b = (c == '\n');
+          }
+        escapes = new long[count];
+        System.arraycopy(acc, 0, escapes, 0, count);
+      }
+    return escapes;
+  }
+
+  /**
+   * Returns the offset of the byte at the specified position.
+   */
+  private long toOffset(long position)
+  {
+    long p = start + position;
+    long[] e = getEscapes();
+    for (int i = 0; i < e.length && e[i] <= p; i++)
+      {
+        p++;
+      }
+    return Math.min(p, end);
+  }
+
+  /**
+   * Returns the offset following the byte before the specified position,
+   * not including any escape characters after it.
+   */
+  private long toEndOffset(long position)
+  {
+    long p = start + position;
+    long[] e = getEscapes();
+    for (int i = 0; i < e.length && e[i] < p; i++)
+      {
+        p++;
+      }
+    return Math.min(p, end);
+  }
+
+  public int read()
+    throws IOException
+  {
+    if (bol && pos < end && isEscaped(pos))
+      {
+        pos++;
+        removed++;
+      }
+    if (pos >= end)
+      {
+        return -1;
+      }
+    int c = get(pos++);
+    bol = (c == '\n');
+    return c;
+  }
+
+  public int read(byte[] b, int off, int len)
+    throws IOException
+  {
+    if (len == 0)
+      {
+        return 0;
+      }
+    if (bol && pos < end && isEscaped(pos))
+      {
+        pos++;
+        removed++;
+      }
+    if (pos >= end)
+      {
+        return -1;
+      }
+    int n = (int) Math.min((long) len, end - pos);
+    src.mbox.get(src.offset + pos, b, off, n);
+    // Stop after any line that is followed by an escaped From_ line
+    int limit = off + n;
+    for (int i = off; i < limit; i++)
+      {
+        if (b[i] == '\n' && i + 1 < limit && b[i + 1] == '>' &&
+            isEscaped(pos + (i + 1 - off)))
+          {
+            n = i + 1 - off;
+            break;
+          }
+      }
+    pos += n;
+    bol = (b[off + n - 1] == '\n');
+    return n;
+  }
+
+  public long skip(long n)
+    throws IOException
+  {
+    if (n <= 0L || pos >= end)
+      {
+        return 0L;
+      }
+    long position = getPosition();
+    long p = toOffset(position + n);
+    long ret = (p - pos) - countEscapes(pos, p);
+    removed += (p - pos) - ret;
+    pos = p;
+    bol = isLineStart(pos);
+    return ret;
+  }
+
+  public int available()
+    throws IOException
+  {
+    long n = (end - pos) - countEscapes(pos, end);
+    return (int) Math.min((long) Integer.MAX_VALUE, n);
+  }
+
+  /**
+   * Returns the number of escape characters in the specified range.
+   */
+  private int countEscapes(long from, long to)
+  {
+    int count = 0;
+    long[] e = getEscapes();
+    for (int i = 0; i < e.length && e[i] < to; i++)
+      {
+        if (e[i] >= from)
+          {
+            count++;
+          }
+      }
+    return count;
+  }
+
+  // -- SharedInputStream --
+
+  public long getPosition()
+  {
+    return pos - start - removed;
+  }
+
+  public InputStream newStream(long start, long end)
+  {
+    long s;
+    if (start == getPosition())
+      {
+        // The usual case: the remainder of the stream after the headers
+        s = pos;
+      }
+    else
+      {
+        s = toOffset(start);
+      }
+    long e = (end == -1L) ? this.end : toEndOffset(end);
+    return new MboxInputStream(src, s, Math.max(s, e), limit);
+  }
+
+}
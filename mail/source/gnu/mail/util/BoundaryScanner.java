@@ -0,0 +1,277 @@
+/*
+ * BoundaryScanner.java
+ * Copyright (C) 2005 The Free Software Foundation
+ *
+ * This file is part of GNU Classpath Extensions (classpathx).
+ * For more information please visit https://www.gnu.org/software/classpathx/
+ *
+ * classpathx is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * classpathx is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with classpathx.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gnu.mail.util;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Locates the delimiter lines separating the parts of a MIME multipart.
+ * The stream is read in blocks into a sliding window, which is searched
+ * for the boundary using the Boyer-Moore-Horspool algorithm. A delimiter
+ * line consists of the boundary at the start of a line, optionally
+ * followed by "--" for the close delimiter, then any linear whitespace and
+ * a line break. The line break preceding the boundary belongs to the
+ * delimiter, not to the part content.
+ * Offsets are relative to the position of the stream when the scanner was
+ * created, which should be the start of the first part.
+ */
+public final class BoundaryScanner
+{
+
+  private static final int BLOCK_SIZE = 8192;
+
+  private final InputStream in;
+  private final byte[] pattern;
+  private final int[] skip;
+
+  private byte[] buf;
+  private int start; // first byte of buf not yet passed to the caller
+  private int count;
+  private long base; // stream offset of buf[0]
+  private boolean eof;
+
+  private long partStart;
+  private long partEnd;
+  private boolean close;
+
+  /**
+   * Constructor.
+   * @param in the multipart content, positioned at the start of the first
+   * part
+   * @param boundary the boundary, including the leading "--"
+   */
+  public BoundaryScanner(InputStream in, byte[] boundary)
+  {
+    this.in = in;
+    pattern = boundary;
+    int m = pattern.length;
+    skip = new int[256];
+    for (int i = 0; i < 256; i++)
+      {
+        skip[i] = m;
+      }
+    for (int i = 0; i < m - 1; i++)
+      {
+        skip[pattern[i] & 0xff] = m - 1 - i;
+      }
+    buf = new byte[Math.max(BLOCK_SIZE, m * 4)];
+  }
+
+  /**
+   * Reads the content of the current part, up to the next delimiter line.
+   * @param out if not null, receives the content of the part
+   * @return true if a delimiter line ended the part, false if the end of
+   * the stream was reached first
+   */
+  public boolean next(OutputStream out)
+    throws IOException
+  {
+    partStart = base + start;
+    int m = pattern.length;
+    int i = start;
+    while (true)
+      {
+        while (i + m <= count)
+          {
+            int j = m - 1;
+            while (j >= 0 && buf[i + j] == pattern[j])
+              {
+                j--;
+              }
+            if (j < 0)
+              {
+                int end = delimiterEnd(i);
+                if (end == -1)
+                  {
+                    break; // need more data
+                  }
+                if (end > 0)
+                  {
+                    int contentEnd = i;
+                    if (base + i > partStart)
+                      {
+                        contentEnd--; // line break
+                        if (buf[contentEnd] == '\n' &&
+                            base + contentEnd > partStart &&
+                            buf[contentEnd - 1] == '\r')
+                          {
+                            contentEnd--;
+                          }
+                      }
+                    if (out != null)
+                      {
+                        out.write(buf, start, contentEnd - start);
+                      }
+                    partEnd = base + contentEnd;
+                    start = end;
+                    return true;
+                  }
+              }
+            i += skip[buf[i + m - 1] & 0xff];
+          }
+        // Pass on the data that cannot belong to a delimiter line
+        int safe = Math.min(i, count) - 2;
+        if (safe > start)
+          {
+            if (out != null)
+              {
+                out.write(buf, start, safe - start);
+              }
+            start = safe;
+          }
+        int shift = fill();
+        if (shift == -1)
+          {
+            // End of stream: the rest is content
+            if (out != null)
+              {
+                out.write(buf, start, count - start);
+              }
+            start = count;
+            partEnd = base + count;
+            return false;
+          }
+        i -= shift;
+      }
+  }
+
+  /**
+   * Examines the text following an occurrence of the boundary.
+   * @param i the index of the boundary in the buffer
+   * @return the index following the delimiter line, 0 if this is not a
+   * delimiter line, or -1 if more data is needed to decide
+   */
+  private int delimiterEnd(int i)
+  {
+    if (base + i > partStart && buf[i - 1] != '\n' && buf[i - 1] != '\r')
+      {
+        return 0;
+      }
+    int k = i + pattern.length;
+    if (k + 2 > count && !eof)
+      {
+        return -1;
+      }
+    close = false;
+    if (k + 1 < count && buf[k] == '-' && buf[k + 1] == '-')
+      {
+        close = true;
+        return k + 2;
+      }
+    while (k < count && (buf[k] == ' ' || buf[k] == '\t'))
+      {
+        k++;
+      }
+    if (k == count)
+      {
+        return eof ? 0 : -1;
+      }
+    if (buf[k] == '\n')
+      {
+        return k + 1;
+      }
+    if (buf[k] == '\r')
+      {
+        if (k + 1 == count && !eof)
+          {
+            return -1;
+          }
+        return (k + 1 < count && buf[k + 1] == '\n') ? k + 2 : k + 1;
+      }
+    return 0;
+  }
+
+  /**
+   * Discards the data already passed on, keeping the two bytes before it
+   * (which may be the line break preceding a boundary), and reads more.
+   * @return the number of bytes by which the buffer contents moved, or -1
+   * at the end of the stream
+   */
+  private int fill()
+    throws IOException
+  {
+    if (eof)
+      {
+        return -1;
+      }
+    int shift = Math.max(0, start - 2);
+    if (shift > 0)
+      {
+        System.arraycopy(buf, shift, buf, 0, count - shift);
+        count -= shift;
+        start -= shift;
+        base += shift;
+      }
+    if (count == buf.length)
+      {
+        byte[] nbuf = new byte[buf.length * 2];
+        System.arraycopy(buf, 0, nbuf, 0, count);
+        buf = nbuf;
+      }
+    int len = in.read(buf, count, buf.length - count);
+    if (len == -1)
+      {
+        // Any boundary waiting for its line end is examined again
+        eof = true;
+        return shift;
+      }
+    count += len;
+    return shift;
+  }
+
+  /**
+   * Indicates whether the last delimiter line found was the close
+   * delimiter.
+   */
+  public boolean isClose()
+  {
+    return close;
+  }
+
+  /**
+   * Returns the offset of the start of the last part read.
+   */
+  public long getPartStart()
+  {
+    return partStart;
+  }
+
+  /**
+   * Returns the offset of the end of the content of the last part read.
+   */
+  public long getPartEnd()
+  {
+    return partEnd;
+  }
+
+  /**
+   * Returns the offset following the last delimiter line found.
+   */
+  public long getPosition()
+  {
+    return base + start;
+  }
+
+}
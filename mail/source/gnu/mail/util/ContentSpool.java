@@ -0,0 +1,333 @@
+/*
+ * ContentSpool.java
+ * Copyright (C) 2005 The Free Software Foundation
+ *
+ * This file is part of GNU Classpath Extensions (classpathx).
+ * For more information please visit https://www.gnu.org/software/classpathx/
+ *
+ * classpathx is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * classpathx is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with classpathx.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package gnu.mail.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import javax.mail.util.SharedByteArrayInputStream;
+import javax.mail.util.SharedFileInputStream;
+
+import gnu.inet.util.GetSystemPropertyAction;
+
+/**
+ * An output stream that accumulates content for a MIME part.
+ * Content is kept in memory until it exceeds a threshold, after which
+ * it is written to a temporary file. In either case it can then be read
+ * back as a shared input stream.
+ */
+public final class ContentSpool
+  extends OutputStream
+{
+
+  /**
+   * The system property giving the size in bytes above which content is
+   * written to a temporary file. If it is not set, content is always kept
+   * in memory.
+   */
+  public static final String THRESHOLD_PROPERTY = "mail.mime.spoolthreshold";
+
+  private static final int BLOCK_SIZE = 65536;
+
+  private final long threshold;
+  private byte[] buf;
+  private int count;
+  private File file;
+  private OutputStream out;
+
+  /**
+   * Constructor.
+   * @param threshold the number of bytes above which content is written to
+   * a temporary file, or -1 to keep all content in memory
+   */
+  public ContentSpool(long threshold)
+  {
+    this.threshold = threshold;
+    buf = new byte[1024];
+  }
+
+  /**
+   * Returns the threshold configured by the
+   * <code>mail.mime.spoolthreshold</code> property, or -1 if none is
+   * configured.
+   */
+  public static long getThreshold()
+  {
+    PrivilegedAction a = new GetSystemPropertyAction(THRESHOLD_PROPERTY);
+    String value = (String) AccessController.doPrivileged(a);
+    if (value != null)
+      {
+        try
+          {
+            return Long.parseLong(value.trim());
+          }
+        catch (NumberFormatException e)
+          {
+          }
+      }
+    return -1L;
+  }
+
+  public void write(int c)
+    throws IOException
+  {
+    if (out == null && (count == buf.length || count == threshold))
+      {
+        ensureCapacity(1);
+      }
+    if (out != null)
+      {
+        out.write(c);
+      }
+    else
+      {
+        buf[count++] = (byte) c;
+      }
+  }
+
+  public void write(byte[] b, int off, int len)
+    throws IOException
+  {
+    if (out == null)
+      {
+        ensureCapacity(len);
+      }
+    if (out != null)
+      {
+        out.write(b, off, len);
+      }
+    else
+      {
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+      }
+  }
+
+  /**
+   * Makes room in memory for the specified number of bytes, or switches
+   * to the temporary file if that would exceed the threshold.
+   */
+  private void ensureCapacity(int len)
+    throws IOException
+  {
+    long size = (long) count + len;
+    if (threshold >= 0L && size > threshold)
+      {
+        file = File.createTempFile("mime", ".tmp");
+        out = new BufferedOutputStream(new FileOutputStream(file),
+                                       BLOCK_SIZE);
+        out.write(buf, 0, count);
+        buf = null;
+      }
+    else if (size > buf.length)
+      {
+        long n = Math.max(size, (long) buf.length * 2);
+        if (threshold >= 0L)
+          {
+            // No larger than the most that will be kept in memory
+            n = Math.min(n, Math.max(size, threshold));
+          }
+        byte[] nbuf = new byte[(int) Math.min(n, (long) Integer.MAX_VALUE)];
+        System.arraycopy(buf, 0, nbuf, 0, count);
+        buf = nbuf;
+      }
+  }
+
+  /**
+   * Reads the remainder of the specified stream into this spool, in large
+   * blocks.
+   * @param in the stream to read
+   */
+  public void readFrom(InputStream in)
+    throws IOException
+  {
+    byte[] b = null;
+    while (true)
+      {
+        if (out == null)
+          {
+            // Read directly into the memory buffer
+            if (count == buf.length)
+              {
+                long grow = Math.min(count, BLOCK_SIZE);
+                if (threshold >= 0L)
+                  {
+                    grow = Math.min(grow, threshold - count);
+                  }
+                if (grow > 0L)
+                  {
+                    ensureCapacity((int) grow);
+                    continue;
+                  }
+                // At the threshold: spool only if there is more content
+                if (b == null)
+                  {
+                    b = new byte[BLOCK_SIZE];
+                  }
+                int len = in.read(b, 0, b.length);
+                if (len == -1)
+                  {
+                    break;
+                  }
+                write(b, 0, len);
+                continue;
+              }
+            int len = in.read(buf, count, buf.length - count);
+            if (len == -1)
+              {
+                break;
+              }
+            if (threshold >= 0L && (long) count + len > threshold)
+              {
+                // Let write decide where these bytes go
+                int off = count;
+                byte[] tmp = buf;
+                ensureCapacity(len);
+                if (out != null)
+                  {
+                    out.write(tmp, off, len);
+                  }
+                else
+                  {
+                    count += len;
+                  }
+              }
+            else
+              {
+                count += len;
+              }
+          }
+        else
+          {
+            if (b == null)
+              {
+                b = new byte[BLOCK_SIZE];
+              }
+            int len = in.read(b, 0, b.length);
+            if (len == -1)
+              {
+                break;
+              }
+            out.write(b, 0, len);
+          }
+      }
+  }
+
+  /**
+   * Returns a stream that reads from the specified stream, adding all the
+   * data read to this spool.
+   * @param in the stream to read
+   */
+  public InputStream tee(InputStream in)
+  {
+    return new FilterInputStream(in)
+      {
+
+        public int read()
+          throws IOException
+        {
+          int c = in.read();
+          if (c != -1)
+            {
+              write(c);
+            }
+          return c;
+        }
+
+        public int read(byte[] b, int off, int len)
+          throws IOException
+        {
+          int l = in.read(b, off, len);
+          if (l > 0)
+            {
+              write(b, off, l);
+            }
+          return l;
+        }
+
+        public long skip(long n)
+          throws IOException
+        {
+          byte[] b = new byte[(int) Math.min(n, (long) BLOCK_SIZE)];
+          int l = read(b, 0, b.length);
+          return (l == -1) ? 0L : (long) l;
+        }
+
+        public boolean markSupported()
+        {
+          return false;
+        }
+
+      };
+  }
+
+  /**
+   * Indicates whether the content has been written to a temporary file.
+   */
+  public boolean isSpooled()
+  {
+    return out != null;
+  }
+
+  /**
+   * Returns the content held in memory.
+   */
+  public byte[] toByteArray()
+  {
+    if (buf.length == count)
+      {
+        return buf;
+      }
+    byte[] ret = new byte[count];
+    System.arraycopy(buf, 0, ret, 0, count);
+    return ret;
+  }
+
+  /**
+   * Completes the content and returns a shared input stream over it.
+   * A temporary file is deleted when it is no longer in use.
+   */
+  public InputStream getInputStream()
+    throws IOException
+  {
+    if (out == null)
+      {
+        return new SharedByteArrayInputStream(buf, 0, count);
+      }
+    out.close();
+    InputStream in = new SharedFileInputStream(file);
+    // The open file remains readable once it has been unlinked
+    if (!file.delete())
+      {
+        file.deleteOnExit();
+      }
+    return in;
+  }
+
+}
@@ -24,10 +24,14 @@ package javax.mail.internet;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import javax.mail.Header;
 import javax.mail.MessagingException;
@@ -64,10 +68,19 @@ public class InternetHeaders
 
     /**
      * The value.
+     * For a header loaded from a stream this is <code>null</code> until the
+     * header line is first accessed.
      * @since JavaMail 1.4
      */
     protected String line;
 
+    /*
+     * The raw bytes of a loaded header line that has not been decoded yet.
+     */
+    private byte[] raw;
+    private int rawOffset;
+    private int rawLength;
+
     public InternetHeader(String line)
     {
       super(null, null);
@@ -91,13 +104,59 @@ public class InternetHeaders
         }
     }
 
+    /**
+     * Constructor for a header line loaded from a stream.
+     * Only the name is decoded here.
+     */
+    InternetHeader(byte[] raw, int offset, int length)
+    {
+      super(null, null);
+      int end = offset + length;
+      int i;
+      for (i = offset; i < end && raw[i] != ':'; i++)
+        {
+        }
+      name = decode(raw, offset, i - offset).trim();
+      this.raw = raw;
+      rawOffset = offset;
+      rawLength = length;
+    }
+
     public String getName()
     {
       return name;
     }
 
+    /**
+     * Returns the header line, decoding it if necessary.
+     */
+    String getLine()
+    {
+      if (line == null && raw != null)
+        {
+          line = decode(raw, rawOffset, rawLength);
+          raw = null;
+        }
+      return line;
+    }
+
+    /**
+     * Indicates whether this header has a line, i.e. has not been removed.
+     */
+    boolean hasLine()
+    {
+      return (line != null || raw != null);
+    }
+
+    void removeLine()
+    {
+      line = null;
+      raw = null;
+    }
+
     public String getValue()
     {
+      String line = getLine();
       int i = line.indexOf(':');
       if (i < 0)
         {
@@ -125,6 +184,7 @@ public class InternetHeaders
       buffer.append(' ');
       buffer.append(value);
       line = buffer.toString();
+      raw = null;
     }
 
     boolean nameEquals(String other)
@@ -203,7 +263,7 @@ public class InternetHeaders
 
       if (stringForm)
         {
-          return header.line;
+          return header.getLine();
         }
       return header;
     }
@@ -218,7 +278,7 @@ public class InternetHeaders
       while (source.hasNext())
         {
           InternetHeader header = (InternetHeader) source.next();
-          if (header.line == null)
+          if (!header.hasLine())
             {
               continue;
             }
@@ -259,31 +319,44 @@ public class InternetHeaders
    */
   protected List headers = new ArrayList(20);
 
+  /*
+   * Index of the headers by lowercased name. Each entry is a list of the
+   * headers with that name, in the order they appear in headers. The index
+   * is rebuilt if the size of headers shows that it has been changed other
+   * than through the methods of this class.
+   */
+  private Map index;
+
+  /*
+   * The size of headers when the index was last brought up to date.
+   */
+  private int indexSize;
+
   /**
    * Constructor for an empty InternetHeaders.
    */
   public InternetHeaders()
   {
-    headers.add(new InternetHeader("Return-Path", null));
-    headers.add(new InternetHeader("Received", null));
-    headers.add(new InternetHeader("Message-Id", null));
-    headers.add(new InternetHeader("Resent-Date", null));
-    headers.add(new InternetHeader("Date", null));
-    headers.add(new InternetHeader("Resent-From", null));
-    headers.add(new InternetHeader("From", null));
-    headers.add(new InternetHeader("Reply-To", null));
-    headers.add(new InternetHeader("To", null));
-    headers.add(new InternetHeader("Subject", null));
-    headers.add(new InternetHeader("Cc", null));
-    headers.add(new InternetHeader("In-Reply-To", null));
-    headers.add(new InternetHeader("Resent-Message-Id", null));
-    headers.add(new InternetHeader("Errors-To", null));
-    headers.add(new InternetHeader("Mime-Version", null));
-    headers.add(new InternetHeader("Content-Type", null));
-    headers.add(new InternetHeader("Content-Transfer-Encoding", null));
-    headers.add(new InternetHeader("Content-MD5", null));
-    headers.add(new InternetHeader("Content-Length", null));
-    headers.add(new InternetHeader("Status", null));
+    add(new InternetHeader("Return-Path", null));
+    add(new InternetHeader("Received", null));
+    add(new InternetHeader("Message-Id", null));
+    add(new InternetHeader("Resent-Date", null));
+    add(new InternetHeader("Date", null));
+    add(new InternetHeader("Resent-From", null));
+    add(new InternetHeader("From", null));
+    add(new InternetHeader("Reply-To", null));
+    add(new InternetHeader("To", null));
+    add(new InternetHeader("Subject", null));
+    add(new InternetHeader("Cc", null));
+    add(new InternetHeader("In-Reply-To", null));
+    add(new InternetHeader("Resent-Message-Id", null));
+    add(new InternetHeader("Errors-To", null));
+    add(new InternetHeader("Mime-Version", null));
+    add(new InternetHeader("Content-Type", null));
+    add(new InternetHeader("Content-Transfer-Encoding", null));
+    add(new InternetHeader("Content-MD5", null));
+    add(new InternetHeader("Content-Length", null));
+    add(new InternetHeader("Status", null));
   }
 
   /**
@@ -310,23 +383,80 @@ public class InternetHeaders
   public void load(InputStream is)
     throws MessagingException
   {
+    // The header lines are copied into one array, with folded lines
+    // joined by CRLF, and are only decoded when they are accessed
     LineInputStream in = new LineInputStream(is);
+    byte[] data = new byte[1024];
+    int count = 0;
+    int[] starts = new int[32];
+    int n = 0;
     try
       {
-        for (String line = in.readLine(); line != null; line = in.readLine())
+        for (int len = in.nextLine(); len != -1; len = in.nextLine())
           {
-            line = trim(line);
-            if (line.length() == 0)
+            byte[] b = in.getLineBuffer();
+            int off = in.getLineOffset();
+            if (len > 0 && b[off + len - 1] == 0x0d)
+              {
+                len--;
+              }
+            if (len == 0)
               {
                 break;
               }
-            addHeaderLine(line);
+            boolean continuation = (b[off] == ' ' || b[off] == '\t');
+            if (continuation && n == 0)
+              {
+                // Continues a header that was not loaded from this stream
+                addHeaderLine(decode(b, off, len));
+                continue;
+              }
+            if (count + len + 2 > data.length)
+              {
+                byte[] d = new byte[Math.max(data.length * 2,
+                                             count + len + 2)];
+                System.arraycopy(data, 0, d, 0, count);
+                data = d;
+              }
+            if (continuation)
+              {
+                data[count++] = 0x0d;
+                data[count++] = 0x0a;
+              }
+            else
+              {
+                if (n == starts.length)
+                  {
+                    int[] s = new int[n * 2];
+                    System.arraycopy(starts, 0, s, 0, n);
+                    starts = s;
+                  }
+                starts[n++] = count;
+              }
+            System.arraycopy(b, off, data, count, len);
+            count += len;
           }
+        // Leave the stream positioned at the start of the body
+        in.release();
       }
     catch (IOException e)
       {
         throw new MessagingException(null, e);
       }
+    if (count < data.length)
+      {
+        byte[] d = new byte[count];
+        System.arraycopy(data, 0, d, 0, count);
+        data = d;
+      }
+    synchronized (headers)
+      {
+        for (int i = 0; i < n; i++)
+          {
+            int end = (i + 1 < n) ? starts[i + 1] : count;
+            add(new InternetHeader(data, starts[i], end - starts[i]));
+          }
+      }
   }
 
   /**
@@ -335,13 +465,23 @@ public class InternetHeaders
    */
   public String[] getHeader(String name)
   {
-    ArrayList acc = new ArrayList(headers.size());
-    for (Iterator i = headers.iterator(); i.hasNext(); )
+    ArrayList acc;
+    synchronized (headers)
       {
-        InternetHeader header = (InternetHeader) i.next();
-        if (header.nameEquals(name) && header.line != null)
+        List named = getIndexed(name);
+        if (named == null)
+          {
+            return null;
+          }
+        int len = named.size();
+        acc = new ArrayList(len);
+        for (int i = 0; i < len; i++)
           {
-            acc.add(header.getValue());
+            InternetHeader header = (InternetHeader) named.get(i);
+            if (header.hasLine())
+              {
+                acc.add(header.getValue());
+              }
           }
       }
     int size = acc.size();
@@ -395,27 +535,21 @@ public class InternetHeaders
    */
   public void setHeader(String name, String value)
   {
-    boolean first = true;
-    for (int i = 0; i < headers.size(); i++)
-    {
-      InternetHeader header = (InternetHeader) headers.get(i);
-      if (header.nameEquals(name))
-        {
-          if (first)
-            {
-              header.setValue(value);
-              first = false;
-            }
-          else
-            {
-              headers.remove(i);
-              i--;
-            }
-        }
-    }
-    if (first)
+    synchronized (headers)
       {
-        addHeader(name, value);
+        List named = getIndexed(name);
+        if (named == null)
+          {
+            addHeader(name, value);
+            return;
+          }
+        ((InternetHeader) named.get(0)).setValue(value);
+        while (named.size() > 1)
+          {
+            Object header = named.remove(named.size() - 1);
+            headers.remove(indexOf(header));
+            indexSize--;
+          }
       }
   }
 
@@ -428,21 +562,21 @@ public class InternetHeaders
   {
     synchronized (headers)
       {
-        int len = headers.size();
-        for (int i = len - 1; i >= 0; i--)
+        // Add after the last header with this name, otherwise before the
+        // first ":" placeholder, otherwise at the end
+        int pos;
+        List named = getIndexed(name);
+        if (named != null)
           {
-            InternetHeader header = (InternetHeader) headers.get(i);
-            if (header.nameEquals(name))
-              {
-                headers.add(i + 1, new InternetHeader(name, value));
-                return;
-              }
-            if (header.nameEquals(":"))
-              {
-                len = i;
-              }
+            pos = indexOf(named.get(named.size() - 1)) + 1;
           }
-        headers.add(len, new InternetHeader(name, value));
+        else
+          {
+            named = getIndexed(":");
+            pos = (named != null) ? indexOf(named.get(0)) : headers.size();
+          }
+        headers.add(pos, new InternetHeader(name, value));
+        addIndex((InternetHeader) headers.get(pos));
       }
   }
 
@@ -454,13 +588,13 @@ public class InternetHeaders
   {
     synchronized (headers)
       {
-        int len = headers.size();
-        for (int i = 0; i < len; i++)
+        List named = getIndexed(name);
+        if (named != null)
           {
-            InternetHeader header = (InternetHeader) headers.get(i);
-            if (header.nameEquals(name))
+            int len = named.size();
+            for (int i = 0; i < len; i++)
               {
-                header.line = null;
+                ((InternetHeader) named.get(i)).removeLine();
               }
           }
       }
@@ -503,33 +637,28 @@ public class InternetHeaders
    */
   public void addHeaderLine(String line)
   {
-    try
+    if (line.length() == 0)
+      {
+        return;
+      }
+    synchronized (headers)
       {
         char c = line.charAt(0);
-        if (c == ' ' || c == '\t') // continuation character
+        int len = headers.size();
+        if ((c == ' ' || c == '\t') && len > 0) // continuation character
           {
-            int len = headers.size();
             InternetHeader header = (InternetHeader) headers.get(len - 1);
             StringBuffer buffer = new StringBuffer();
-            buffer.append(header.line);
+            buffer.append(header.getLine());
             buffer.append("\r\n");
             buffer.append(line);
             header.line = buffer.toString();
           }
         else
           {
-            synchronized (headers)
-              {
-                headers.add(new InternetHeader(line));
-              }
+            add(new InternetHeader(line));
           }
       }
-    catch (StringIndexOutOfBoundsException e)
-      {
-      }
-    catch (NoSuchElementException e)
-      {
-      }
   }
 
   /**
@@ -559,14 +688,89 @@ public class InternetHeaders
     return new HeaderEnumeration(headers.iterator(), names, true, false);
   }
 
-  private static String trim(String line)
+  /*
+   * Appends a header to the list.
+   */
+  private void add(InternetHeader header)
+  {
+    headers.add(header);
+    addIndex(header);
+  }
+
+  /*
+   * Records a header just added to the list in the index. The header must
+   * follow every other header with the same name in the list.
+   */
+  private void addIndex(InternetHeader header)
   {
-    int len = line.length();
-    if (len > 0 && line.charAt(len - 1) == '\r')
+    if (index == null || indexSize != headers.size() - 1)
+      {
+        // Rebuilt on next use
+        index = null;
+        return;
+      }
+    put(header);
+    indexSize++;
+  }
+
+  private void put(InternetHeader header)
+  {
+    String key = header.getName().toLowerCase(Locale.ENGLISH);
+    List named = (List) index.get(key);
+    if (named == null)
+      {
+        named = new ArrayList(1);
+        index.put(key, named);
+      }
+    named.add(header);
+  }
+
+  /*
+   * Returns the list of headers with the specified name, or null if there
+   * are none.
+   */
+  private List getIndexed(String name)
+  {
+    int len = headers.size();
+    if (index == null || indexSize != len)
+      {
+        index = new HashMap();
+        for (int i = 0; i < len; i++)
+          {
+            put((InternetHeader) headers.get(i));
+          }
+        indexSize = len;
+      }
+    List named = (List) index.get(name.toLowerCase(Locale.ENGLISH));
+    return (named == null || named.isEmpty()) ? null : named;
+  }
+
+  /*
+   * Returns the position of the specified header in the list, searching
+   * from the end.
+   */
+  private int indexOf(Object header)
+  {
+    for (int i = headers.size() - 1; i >= 0; i--)
+      {
+        if (headers.get(i) == header)
+          {
+            return i;
+          }
+      }
+    return -1;
+  }
+
+  static String decode(byte[] b, int off, int len)
+  {
+    try
+      {
+        return new String(b, off, len, "US-ASCII");
+      }
+    catch (UnsupportedEncodingException e)
       {
-        line = line.substring(0, len - 1);
+        return new String(b, off, len);
       }
-    return line;
   }
 
 }
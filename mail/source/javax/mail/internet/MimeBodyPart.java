@@ -24,7 +24,6 @@ package javax.mail.internet;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -47,8 +46,10 @@ import javax.mail.EncodingAware;
 import javax.mail.MessagingException;
 import javax.mail.Multipart;
 import javax.mail.Part;
+import javax.mail.util.SharedByteArrayInputStream;
 
 import gnu.inet.util.GetSystemPropertyAction;
+import gnu.mail.util.ContentSpool;
 
 /**
  * A MIME body part.
@@ -153,23 +154,26 @@ public class MimeBodyPart
     // Read stream into byte array(see MimeMessage.parse())
     try
       {
-        // TODO Make buffer size configurable
-        int len = 1024;
         if (is instanceof ByteArrayInputStream)
           {
-            len = is.available();
+            int len = is.available();
             content = new byte[len];
             is.read(content, 0, len);
           }
         else
           {
-            ByteArrayOutputStream bos = new ByteArrayOutputStream(len);
-            byte[] b = new byte[len];
-            for (int l = is.read(b); l != -1; l = is.read(b))
+            // Keep large content in a temporary file if so configured
+            ContentSpool spool =
+              new ContentSpool(ContentSpool.getThreshold());
+            spool.readFrom(is);
+            if (spool.isSpooled())
               {
-                bos.write(b, 0, l);
+                contentStream = spool.getInputStream();
+              }
+            else
+              {
+                content = spool.toByteArray();
               }
-            content = bos.toByteArray();
           }
       }
     catch (IOException e)
@@ -662,7 +666,7 @@ public class MimeBodyPart
       }
     if (content != null)
       {
-        return new ByteArrayInputStream(content);
+        return new SharedByteArrayInputStream(content);
       }
     String m = L10N.getString("err.no_content");
     throw new MessagingException(m);
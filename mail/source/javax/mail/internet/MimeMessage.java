@@ -48,8 +48,10 @@ import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.Multipart;
 import javax.mail.Session;
+import javax.mail.util.SharedByteArrayInputStream;
 
 import gnu.inet.util.GetSystemPropertyAction;
+import gnu.mail.util.ContentSpool;
 
 /**
  * A MIME mail message.
@@ -301,23 +303,26 @@ public class MimeMessage
         // Read stream into byte array
         try
           {
-            // TODO Make buffer size configurable
-            int len = 1024;
             if (is instanceof ByteArrayInputStream)
               {
-                len = is.available();
+                int len = is.available();
                 content = new byte[len];
                 is.read(content, 0, len);
               }
             else
               {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream(len);
-                byte[] b = new byte[len];
-                for (int l = is.read(b); l != -1; l = is.read(b))
+                // Keep large content in a temporary file if so configured
+                ContentSpool spool =
+                  new ContentSpool(ContentSpool.getThreshold());
+                spool.readFrom(is);
+                if (spool.isSpooled())
                   {
-                    bos.write(b, 0, l);
+                    contentStream = spool.getInputStream();
+                  }
+                else
+                  {
+                    content = spool.toByteArray();
                   }
-                content = bos.toByteArray();
               }
           }
         catch (IOException e)
@@ -1319,7 +1324,7 @@ public class MimeMessage
       }
     if (content != null)
       {
-        return new ByteArrayInputStream(content);
+        return new SharedByteArrayInputStream(content);
       }
     else
       {
@@ -24,14 +24,13 @@ package javax.mail.internet;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.text.MessageFormat;
 import java.util.ResourceBundle;
+import java.util.Vector;
 import javax.activation.DataSource;
 import javax.mail.BodyPart;
 import javax.mail.MessageAware;
@@ -42,6 +41,8 @@ import javax.mail.MultipartDataSource;
 
 import gnu.inet.util.GetSystemPropertyAction;
 import gnu.inet.util.LineInputStream;
+import gnu.mail.util.BoundaryScanner;
+import gnu.mail.util.ContentSpool;
 
 /**
  * A MIME multipart container.
@@ -119,6 +120,12 @@ public class MimeMultipart
    */
   protected boolean allowEmpty = false;
 
+  /**
+   * The shared stream over the multipart content from which parts that
+   * have not yet been accessed are created.
+   */
+  private SharedInputStream source;
+
   /**
    * Constructor for an empty MIME multipart of type "multipart/mixed".
    */
@@ -155,8 +162,8 @@ public class MimeMultipart
       }
     if (ds instanceof MultipartDataSource)
       {
-        setMultipartDataSource((MultipartDataSource) ds);
         parsed = true;
+        setMultipartDataSource((MultipartDataSource) ds);
       }
     else
       {
@@ -250,7 +257,7 @@ public class MimeMultipart
     synchronized (this)
       {
         parse();
-        return super.getBodyPart(index);
+        return getPart(index);
       }
   }
 
@@ -278,8 +285,88 @@ public class MimeMultipart
       }
   }
 
+  /**
+   * Removes the specified body part from this multipart.
+   * @param part the body part to remove
+   */
+  public boolean removeBodyPart(BodyPart part)
+    throws MessagingException
+  {
+    synchronized (this)
+      {
+        parse();
+        return super.removeBodyPart(part);
+      }
+  }
+
+  /**
+   * Removes the body part at the specified index.
+   * @param index index of the part to remove
+   */
+  public void removeBodyPart(int index)
+    throws MessagingException
+  {
+    synchronized (this)
+      {
+        parse();
+        getPart(index);
+        super.removeBodyPart(index);
+      }
+  }
+
+  /**
+   * Adds a body part to this multipart.
+   * @param part the body part to be appended
+   */
+  public synchronized void addBodyPart(BodyPart part)
+    throws MessagingException
+  {
+    parse();
+    super.addBodyPart(part);
+  }
+
+  /**
+   * Inserts a body part at the specified index.
+   * @param part the body part to be inserted
+   * @param index where to insert the part
+   */
+  public synchronized void addBodyPart(BodyPart part, int index)
+    throws MessagingException
+  {
+    parse();
+    super.addBodyPart(part, index);
+  }
+
+  /**
+   * Returns the body part at the specified index, creating it from its
+   * range of the content if it has not been accessed before.
+   */
+  private BodyPart getPart(int index)
+    throws MessagingException
+  {
+    if (parts == null)
+      {
+        throw new IndexOutOfBoundsException();
+      }
+    synchronized (parts)
+      {
+        Object part = parts.get(index);
+        if (part instanceof PartRange)
+          {
+            PartRange range = (PartRange) part;
+            InputStream in = source.newStream(range.start, range.end);
+            MimeBodyPart bp = createMimeBodyPart(in);
+            parts.remove(index);
+            super.addBodyPart(bp, index);
+            return bp;
+          }
+        return (BodyPart) part;
+      }
+  }
+
   /**
    * Updates the headers of this part to be consistent with its content.
+   * Parts that have never been accessed are unchanged, and are skipped.
    */
   protected void updateHeaders()
     throws MessagingException
@@ -293,7 +380,11 @@ public class MimeMultipart
       int len = parts.size();
       for (int i = 0; i < len; i++)
         {
-         ((MimeBodyPart) parts.get(i)).updateHeaders();
+          Object part = parts.get(i);
+          if (part instanceof MimeBodyPart)
+            {
+              ((MimeBodyPart) part).updateHeaders();
+            }
         }
     }
   }
@@ -333,7 +424,17 @@ public class MimeMultipart
             os.write(boundary);
             os.write(sep);
             os.flush();
-            ((MimeBodyPart) parts.get(i)).writeTo(os);
+            Object part = parts.get(i);
+            if (part instanceof PartRange)
+              {
+                // Copy the part as it was parsed
+                PartRange range = (PartRange) part;
+                copy(source.newStream(range.start, range.end), os);
+              }
+            else
+              {
+                ((MimeBodyPart) part).writeTo(os);
+              }
             os.write(sep);
           }
       }
@@ -364,12 +465,14 @@ public class MimeMultipart
             is = ds.getInputStream();
             if (is instanceof SharedInputStream)
               {
+                // Parts will be slices of this stream, so it must not be
+                // wrapped
                 sis = (SharedInputStream) is;
               }
-            // buffer it
-            if (!(is instanceof ByteArrayInputStream) &&
-                !(is instanceof BufferedInputStream))
+            else if (!(is instanceof ByteArrayInputStream) &&
+                     !(is instanceof BufferedInputStream))
               {
+                // buffer it
                 is = new BufferedInputStream(is);
               }
             ContentType ct = new ContentType(contentType);
@@ -397,7 +500,7 @@ public class MimeMultipart
                 if (boundary == null && l.startsWith("--") &&
                     !l.endsWith("--"))
                   {
-                    boundary = l.substring(2).trim();
+                    boundary = "--" + l.substring(2).trim();
                     break;
                   }
                 else if (l.equals(boundary))
@@ -411,6 +514,7 @@ public class MimeMultipart
                 preambleBuf.append(line);
                 preambleBuf.append('\n');
               }
+            lis.release();
             if (preambleBuf != null)
               {
                 preamble = preambleBuf.toString();
@@ -421,157 +525,10 @@ public class MimeMultipart
                 throw new MessagingException(m);
               }
 
-            byte[] bbytes = boundary.getBytes("US-ASCII");
-            long start = 0L, end = 0L;
-            for (boolean done = false; !done;)
+            if (line != null)
               {
-                InternetHeaders headers = null;
-                if (sis != null)
-                  {
-                    start = sis.getPosition();
-                    do
-                      {
-                        line = trim(lis.readLine());
-                      }
-                    while (line != null && line.length() > 0);
-                    if (line == null)
-                      {
-                        if (!ignoreMissingEndBoundary)
-                          {
-                            String m =
-                              L10N.getString("err.missing_end_boundary");
-                            throw new MessagingException(m);
-                          }
-                        break;
-                      }
-                  }
-                else
-                  {
-                    headers = createInternetHeaders(is);
-                  }
-                ByteArrayOutputStream bos = null;
-                if (sis == null)
-                  {
-                    bos = new ByteArrayOutputStream();
-                  }
-
-                // NB this routine uses the InputStream.mark() method
-                // if it is not supported by the underlying stream
-                // we will run into problems
-                if (!is.markSupported())
-                  {
-                    String m = L10N.getString("err.mark_not_supported");
-                    Object[] args = new Object[] { is.getClass().getName() };
-                    m = MessageFormat.format(m, args);
-                    throw new MessagingException(m);
-                  }
-                boolean eol = true;
-                int last = -1;
-                int afterLast = -1;
-                while (true)
-                  {
-                    int c;
-                    if (eol)
-                      {
-                        is.mark(bbytes.length + 1024);
-                        int pos = 0;
-                        while (pos < bbytes.length)
-                          {
-                            if (is.read() != bbytes[pos])
-                              {
-                                break;
-                              }
-                            pos++;
-                          }
-
-                        if (pos == bbytes.length)
-                          {
-                            c = is.read();
-                            if (c == '-' && is.read() == '-')
-                              {
-                                done = true;
-                                complete = true;
-                                break;
-                              }
-                            while (c == ' ' || c == '\t')
-                              {
-                                c = is.read();
-                              }
-                            if (c == '\r')
-                              {
-                                is.mark(1);
-                                if (is.read() != '\n')
-                                  {
-                                    is.reset();
-                                  }
-                                break;
-                              }
-                            if (c == '\n')
-                              {
-                                break;
-                              }
-                          }
-                        if (bos != null && last != -1)
-                          {
-                            bos.write(last);
-                            if (afterLast != -1)
-                              {
-                                bos.write(afterLast);
-                              }
-                            last = afterLast = -1;
-                          }
-                        is.reset();
-                      }
-                    c = is.read();
-                    if (c < 0)
-                      {
-                        done = true;
-                        break;
-                      }
-                    else if (c == '\r' || c == '\n')
-                      {
-                        eol = true;
-                        if (sis != null)
-                          {
-                            end = sis.getPosition() - 1L;
-                          }
-                        last = c;
-                        if (c == '\r')
-                          {
-                            is.mark(1);
-                            if ((c = is.read()) == '\n')
-                              {
-                                afterLast = c;
-                              }
-                            else
-                              {
-                                is.reset();
-                              }
-                          }
-                      }
-                    else
-                      {
-                        eol = false;
-                        if (bos != null)
-                          {
-                            bos.write(c);
-                          }
-                      }
-                  }
-
-                // Create a body part from the stream
-                MimeBodyPart bp;
-                if (sis != null)
-                  {
-                    bp = createMimeBodyPart(sis.newStream(start, end));
-                  }
-                else
-                  {
-                    bp = createMimeBodyPart(headers, bos.toByteArray());
-                  }
-                addBodyPart(bp);
+                parseParts(is, sis, boundary.getBytes("US-ASCII"));
               }
-
           }
         catch (IOException e)
           {
@@ -589,6 +546,63 @@ public class MimeMultipart
       }
   }
 
+  /**
+   * Indexes the body parts in the content following the start boundary
+   * line. The delimiter lines are located by a single block scan of the
+   * stream, and only the range of each part is recorded: its headers are
+   * parsed when it is first accessed. A stream that is not a shared input
+   * stream is copied into memory, or into a temporary file if it is larger
+   * than the spool threshold, as it is scanned. Part ranges are the
+   * position of the shared input stream plus the number of bytes read
+   * from it, so its positions must count the bytes it returns.
+   * @param is the stream, positioned after the start boundary line
+   * @param sis the same stream if it is a shared input stream, otherwise
+   * null
+   * @param boundary the boundary, including the leading "--"
+   */
+  private void parseParts(InputStream is, SharedInputStream sis,
+                          byte[] boundary)
+    throws IOException, MessagingException
+  {
+    long offset = 0L;
+    ContentSpool spool = null;
+    if (sis != null)
+      {
+        offset = sis.getPosition();
+      }
+    else
+      {
+        spool = new ContentSpool(ContentSpool.getThreshold());
+        is = spool.tee(is);
+      }
+    if (parts == null)
+      {
+        parts = new Vector();
+      }
+    BoundaryScanner scanner = new BoundaryScanner(is, boundary);
+    boolean found;
+    do
+      {
+        found = scanner.next(null);
+        parts.add(new PartRange(offset + scanner.getPartStart(),
+                                offset + scanner.getPartEnd()));
+      }
+    while (found && !scanner.isClose());
+    complete = found;
+    source = (sis != null) ? sis : (SharedInputStream) spool.getInputStream();
+  }
+
+  private static void copy(InputStream in, OutputStream out)
+    throws IOException
+  {
+    byte[] buf = new byte[4096];
+    for (int len = in.read(buf); len != -1; len = in.read(buf))
+      {
+        out.write(buf, 0, len);
+      }
+    in.close();
+  }
+
   /**
    * Indicates whether the final boundary line for this multipart has been
    * parsed.
@@ -672,5 +686,23 @@ public class MimeMultipart
     return new MimeBodyPart(is);
   }
 
+  /**
+   * The range of the content occupied by a body part that has not yet
+   * been accessed.
+   */
+  private static final class PartRange
+  {
+
+    final long start;
+    final long end;
+
+    PartRange(long start, long end)
+    {
+      this.start = start;
+      this.end = end;
+    }
+
+  }
+
 }
 
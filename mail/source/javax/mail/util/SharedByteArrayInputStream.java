@@ -74,10 +74,15 @@ public class SharedByteArrayInputStream
    * Returns a new shared input stream, representing the subset of this
    * stream's data from <code>start</code> to <code>end</code>.
    * @param start the starting offset within the stream
-   * @param end the end offset within the stream (exclusive)
+   * @param end the end offset within the stream (exclusive), or -1 for
+   * the end of this stream
    */
   public InputStream newStream(long start, long end)
   {
+    if (end == -1L)
+      {
+        end = (long) (count - off);
+      }
     int len = (int) (end - start);
     return new SharedByteArrayInputStream(buf, off + (int) start, len);
   }
@@ -27,11 +27,17 @@ import java.io.File;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import javax.mail.internet.SharedInputStream;
 
 /**
  * A buffered input stream that reads data from an underlying file and is
  * shareable between multiple readers.
+ * Each stream has its own read buffer and reads the file at explicit
+ * positions through a shared channel, so streams created with
+ * <code>newStream</code> are independent of each other and may be used
+ * from different threads.
  *
  * @author <a href="mailto:dog@gnu.org">Chris Burdess</a>
  * @version 1.5
@@ -42,6 +48,8 @@ public class SharedFileInputStream
   implements SharedInputStream
 {
 
+  private static final int DEFAULT_SIZE = 8192;
+
   /**
    * The underlying file.
    */
@@ -67,6 +75,11 @@ public class SharedFileInputStream
    */
   protected long datalen;
 
+  /**
+   * The channel of the underlying file, used for positional reads.
+   */
+  private FileChannel channel;
+
   /**
    * The open streams count;
    */
@@ -79,11 +92,7 @@ public class SharedFileInputStream
   public SharedFileInputStream(File file)
     throws IOException
   {
-    super(null);
-    bufsize = buf.length;
-    in = new RandomAccessFile(file, "r");
-    datalen = in.length();
-    openCount = new int[]{1};
+    this(file, DEFAULT_SIZE);
   }
 
   /**
@@ -93,11 +102,7 @@ public class SharedFileInputStream
   public SharedFileInputStream(String file)
     throws IOException
   {
-    super(null);
-    bufsize = buf.length;
-    in = new RandomAccessFile(file, "r");
-    datalen = in.length();
-    openCount = new int[]{1};
+    this(file, DEFAULT_SIZE);
   }
 
   /**
@@ -108,11 +113,7 @@ public class SharedFileInputStream
   public SharedFileInputStream(File file, int size)
     throws IOException
   {
-    super(null, size);
-    bufsize = size;
-    in = new RandomAccessFile(file, "r");
-    datalen = in.length();
-    openCount = new int[]{1};
+    this(new RandomAccessFile(file, "r"), size);
   }
 
   /**
@@ -122,10 +123,17 @@ public class SharedFileInputStream
    */
   public SharedFileInputStream(String file, int size)
     throws IOException
+  {
+    this(new RandomAccessFile(file, "r"), size);
+  }
+
+  private SharedFileInputStream(RandomAccessFile in, int size)
+    throws IOException
   {
     super(null, size);
     bufsize = size;
-    in = new RandomAccessFile(file, "r");
+    this.in = in;
+    channel = in.getChannel();
     datalen = in.length();
     openCount = new int[]{1};
   }
@@ -136,96 +144,249 @@ public class SharedFileInputStream
     super(null, parent.bufsize);
     this.openCount = parent.openCount;
     this.in = parent.in;
+    this.channel = parent.channel;
     this.bufsize = parent.bufsize;
     this.start = start;
     this.datalen = datalen;
     bufpos = start;
   }
 
-  public int read()
+  private void ensureOpen()
     throws IOException
   {
-    in.seek(bufpos);
-    int ret = in.read();
-    if (ret != -1)
-      bufpos++;
-    return ret;
+    if (in == null)
+      {
+        throw new IOException("Stream closed");
+      }
   }
 
-  public int read(byte[] b, int off, int len)
+  /**
+   * Reads more data into the buffer, keeping any marked data.
+   * This must only be called when the buffer has been consumed.
+   * @return the number of bytes read, or -1 at the end of the data
+   */
+  private int fill()
     throws IOException
   {
-    in.seek(bufpos);
-    int ret = in.read(b, off, len);
-    if (ret > 0)
-      bufpos += ret;
-    return ret;
+    if (markpos < 0)
+      {
+        // Discard the buffer
+        bufpos += pos;
+        pos = 0;
+      }
+    else if (pos >= buf.length)
+      {
+        if (markpos > 0)
+          {
+            // Move the marked data to the start of the buffer
+            int len = pos - markpos;
+            System.arraycopy(buf, markpos, buf, 0, len);
+            bufpos += markpos;
+            pos = len;
+            markpos = 0;
+          }
+        else if (buf.length >= marklimit)
+          {
+            // Mark limit exceeded: invalidate the mark
+            markpos = -1;
+            bufpos += pos;
+            pos = 0;
+          }
+        else
+          {
+            int size = (int) Math.min((long) buf.length * 2,
+                                      (long) marklimit);
+            byte[] nbuf = new byte[size];
+            System.arraycopy(buf, 0, nbuf, 0, pos);
+            buf = nbuf;
+          }
+      }
+    count = pos;
+    long fpos = bufpos + pos;
+    int len = (int) Math.min((long) (buf.length - pos),
+                             start + datalen - fpos);
+    if (len <= 0)
+      {
+        return -1;
+      }
+    int n = channel.read(ByteBuffer.wrap(buf, pos, len), fpos);
+    if (n > 0)
+      {
+        count += n;
+      }
+    return n;
+  }
+
+  public synchronized int read()
+    throws IOException
+  {
+    ensureOpen();
+    if (pos >= count && fill() <= 0)
+      {
+        return -1;
+      }
+    return buf[pos++] & 0xff;
+  }
+
+  public synchronized int read(byte[] b, int off, int len)
+    throws IOException
+  {
+    ensureOpen();
+    if (off < 0 || len < 0 || len > b.length - off)
+      {
+        throw new IndexOutOfBoundsException();
+      }
+    if (len == 0)
+      {
+        return 0;
+      }
+    int avail = count - pos;
+    if (avail <= 0)
+      {
+        if (len >= buf.length && markpos < 0)
+          {
+            // Read directly into the caller's array
+            long fpos = bufpos + pos;
+            len = (int) Math.min((long) len, start + datalen - fpos);
+            if (len <= 0)
+              {
+                return -1;
+              }
+            int n = channel.read(ByteBuffer.wrap(b, off, len), fpos);
+            if (n <= 0)
+              {
+                return -1;
+              }
+            bufpos = fpos + n;
+            pos = count = 0;
+            return n;
+          }
+        if (fill() <= 0)
+          {
+            return -1;
+          }
+        avail = count - pos;
+      }
+    int n = (avail < len) ? avail : len;
+    System.arraycopy(buf, pos, b, off, n);
+    pos += n;
+    return n;
   }
 
-  public long skip(long n)
+  public synchronized long skip(long n)
     throws IOException
   {
-    long l1 = in.length();
-    long l2 = start + datalen;
-    long l3 = Math.min(l1, l2);
-    long ret = (bufpos + n > l3) ? l3 - (bufpos + n) : n;
-    bufpos += ret;
+    ensureOpen();
+    if (n <= 0L)
+      {
+        return 0L;
+      }
+    long avail = count - pos;
+    if (avail <= 0L)
+      {
+        if (markpos < 0)
+          {
+            // Skip without reading
+            long fpos = bufpos + pos;
+            long ret = Math.max(0L, Math.min(n, start + datalen - fpos));
+            bufpos = fpos + ret;
+            pos = count = 0;
+            return ret;
+          }
+        if (fill() <= 0)
+          {
+            return 0L;
+          }
+        avail = count - pos;
+      }
+    long ret = (avail < n) ? avail : n;
+    pos += (int) ret;
     return ret;
   }
 
-  public int available()
+  public synchronized int available()
     throws IOException
   {
-    long l1 = in.length();
-    long l2 = start + datalen;
-    long l3 = Math.min(l1, l2);
-    return (int) (l3 - bufpos);
+    ensureOpen();
+    long ret = start + datalen - (bufpos + pos);
+    return (int) Math.min(ret, (long) Integer.MAX_VALUE);
   }
 
-  public void mark(int limit)
+  public synchronized void mark(int limit)
   {
-    super.mark(limit);
+    marklimit = limit;
+    markpos = pos;
   }
 
-  public void reset()
+  public synchronized void reset()
     throws IOException
   {
-    super.reset();
+    ensureOpen();
+    if (markpos < 0)
+      {
+        throw new IOException("Resetting to invalid mark");
+      }
+    pos = markpos;
   }
 
   public boolean markSupported()
   {
-    return super.markSupported();
+    return true;
   }
 
   public void close()
     throws IOException
   {
-    if (in != null) {
-      synchronized(openCount) {
-        if (openCount[0] > 0) {
-          --openCount[0];
-          if (openCount[0] == 0) {
-            in.close();
+    if (in != null)
+      {
+        synchronized (openCount)
+          {
+            if (openCount[0] > 0)
+              {
+                --openCount[0];
+                if (openCount[0] == 0)
+                  {
+                    in.close();
+                  }
+              }
           }
-        }
+        buf = null;
+        in = null;
+        channel = null;
       }
-      buf = null;
-      in = null;
-    }
   }
 
   public long getPosition()
   {
-    return bufpos - start;
+    return bufpos + pos - start;
   }
 
+  /**
+   * Returns a new shared input stream, representing the subset of this
+   * stream's data from <code>start</code> to <code>end</code>.
+   * @param start the starting offset within the stream
+   * @param end the end offset within the stream (exclusive), or -1 for
+   * the end of this stream
+   */
   public InputStream newStream(long start, long end)
   {
-    synchronized(openCount) {
-       ++openCount[0];
-    }
-    return new SharedFileInputStream(this, start, end - start);
+    if (in == null)
+      {
+        throw new IllegalStateException("Stream closed");
+      }
+    if (start < 0L)
+      {
+        throw new IllegalArgumentException("start < 0");
+      }
+    if (end == -1L)
+      {
+        end = datalen;
+      }
+    synchronized (openCount)
+      {
+        ++openCount[0];
+      }
+    return new SharedFileInputStream(this, this.start + start, end - start);
   }
 
   /**
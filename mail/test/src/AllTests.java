@@ -17,6 +17,13 @@ public class AllTests
     addTest(FolderTest.suite());
     addTest(NonFolderTest.suite());
     addTest(MimeMessageTest.suite());
+    addTest(BoundaryScannerTest.suite());
+    addTest(ContentSpoolTest.suite());
+    addTest(MimeMultipartTest.suite());
+    addTest(MboxFolderTest.suite());
+    addTest(IMAPPipelineTest.suite());
+    addTest(IMAPConnectionPoolTest.suite());
+    addTest(IMAPIdleTest.suite());
   }
 
   public static void main(String[] args)
@@ -0,0 +1,207 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import gnu.mail.util.BoundaryScanner;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests for the delimiter line scanner used to parse multiparts.
+ * Delimiters are placed at every offset around the scanner's block size,
+ * and the stream is read in short chunks, so that both the boundary and
+ * the line breaks around it are split across reads.
+ */
+public class BoundaryScannerTest
+  extends TestCase
+{
+
+  private static final byte[] BOUNDARY = "--simple boundary".getBytes();
+  private static final int BLOCK_SIZE = 8192;
+
+  public BoundaryScannerTest(String name)
+  {
+    super(name);
+  }
+
+  public void testSimple()
+    throws IOException
+  {
+    String text = "one\r\n--simple boundary\r\ntwo\r\n--simple boundary--\r\n";
+    BoundaryScanner scanner = scanner(text.getBytes(), 0);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertTrue(scanner.next(out));
+    assertEquals("one", out.toString());
+    assertFalse(scanner.isClose());
+    assertEquals(0L, scanner.getPartStart());
+    assertEquals(3L, scanner.getPartEnd());
+    out.reset();
+    assertTrue(scanner.next(out));
+    assertEquals("two", out.toString());
+    assertTrue(scanner.isClose());
+  }
+
+  public void testEmptyPart()
+    throws IOException
+  {
+    String text = "--simple boundary\r\nx\r\n--simple boundary--";
+    BoundaryScanner scanner = scanner(text.getBytes(), 0);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertTrue(scanner.next(out));
+    assertEquals("", out.toString());
+    out.reset();
+    assertTrue(scanner.next(out));
+    assertEquals("x", out.toString());
+    assertTrue(scanner.isClose());
+  }
+
+  public void testNotDelimiter()
+    throws IOException
+  {
+    // The boundary must start a line and be followed by a line end
+    String content = "a --simple boundary\r\n--simple boundaryx\r\nb";
+    String text = content + "\r\n--simple boundary \t\r\nc";
+    BoundaryScanner scanner = scanner(text.getBytes(), 0);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertTrue(scanner.next(out));
+    assertEquals(content, out.toString());
+    assertFalse(scanner.isClose());
+    out.reset();
+    assertFalse(scanner.next(out));
+    assertEquals("c", out.toString());
+  }
+
+  public void testMissingClose()
+    throws IOException
+  {
+    String text = "one\n--simple boundary\ntwo";
+    BoundaryScanner scanner = scanner(text.getBytes(), 0);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertTrue(scanner.next(out));
+    assertEquals("one", out.toString());
+    out.reset();
+    assertFalse(scanner.next(out));
+    assertEquals("two", out.toString());
+    assertEquals((long) text.length(), scanner.getPartEnd());
+  }
+
+  public void testBlockEdges()
+    throws IOException
+  {
+    String[] breaks = { "\r\n", "\n" };
+    int[] chunks = { 0, 1, 7, 4093 };
+    for (int b = 0; b < breaks.length; b++)
+      {
+        for (int c = 0; c < chunks.length; c++)
+          {
+            for (int pos = BLOCK_SIZE - BOUNDARY.length - 4;
+                 pos <= BLOCK_SIZE + 4; pos++)
+              {
+                checkDelimiterAt(pos, breaks[b], chunks[c]);
+              }
+          }
+      }
+  }
+
+  /**
+   * Scans a part of the given length followed by a delimiter, a second
+   * part, and the close delimiter.
+   */
+  private void checkDelimiterAt(int len, String lineBreak, int chunk)
+    throws IOException
+  {
+    byte[] first = content(len, 'a');
+    byte[] second = content(BLOCK_SIZE + 11, 'b');
+    ByteArrayOutputStream text = new ByteArrayOutputStream();
+    text.write(first);
+    text.write(lineBreak.getBytes());
+    text.write(BOUNDARY);
+    text.write(lineBreak.getBytes());
+    text.write(second);
+    text.write(lineBreak.getBytes());
+    text.write(BOUNDARY);
+    text.write("--".getBytes());
+    text.write(lineBreak.getBytes());
+    text.write("epilogue".getBytes());
+    String msg = "len=" + len + " chunk=" + chunk;
+
+    BoundaryScanner scanner = scanner(text.toByteArray(), chunk);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertTrue(msg, scanner.next(out));
+    assertFalse(msg, scanner.isClose());
+    assertEquals(msg, 0L, scanner.getPartStart());
+    assertEquals(msg, (long) len, scanner.getPartEnd());
+    assertTrue(msg, Arrays.equals(first, out.toByteArray()));
+
+    long start = len + 2 * lineBreak.length() + BOUNDARY.length;
+    assertEquals(msg, start, scanner.getPosition());
+    out.reset();
+    assertTrue(msg, scanner.next(out));
+    assertTrue(msg, scanner.isClose());
+    assertEquals(msg, start, scanner.getPartStart());
+    assertEquals(msg, start + second.length, scanner.getPartEnd());
+    assertTrue(msg, Arrays.equals(second, out.toByteArray()));
+  }
+
+  private static byte[] content(int len, char c)
+  {
+    byte[] ret = new byte[len];
+    for (int i = 0; i < len; i++)
+      {
+        // Lines that begin like the boundary, to exercise the shift table
+        ret[i] = (i % 80 == 79) ? (byte) '\n' :
+          (i % 80 < 2) ? (byte) '-' : (byte) c;
+      }
+    return ret;
+  }
+
+  private static BoundaryScanner scanner(byte[] text, int chunk)
+  {
+    InputStream in = new ByteArrayInputStream(text);
+    if (chunk > 0)
+      {
+        in = new ChunkedInputStream(in, chunk);
+      }
+    return new BoundaryScanner(in, BOUNDARY);
+  }
+
+  /*
+   * Returns at most the given number of bytes from each read.
+   */
+  static class ChunkedInputStream
+    extends InputStream
+  {
+
+    private final InputStream in;
+    private final int chunk;
+
+    ChunkedInputStream(InputStream in, int chunk)
+    {
+      this.in = in;
+      this.chunk = chunk;
+    }
+
+    public int read()
+      throws IOException
+    {
+      return in.read();
+    }
+
+    public int read(byte[] b, int off, int len)
+      throws IOException
+    {
+      return in.read(b, off, Math.min(len, chunk));
+    }
+
+  }
+
+  public static Test suite()
+  {
+    return new TestSuite(BoundaryScannerTest.class);
+  }
+
+}
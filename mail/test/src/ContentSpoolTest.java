@@ -0,0 +1,164 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.mail.internet.SharedInputStream;
+import javax.mail.util.SharedByteArrayInputStream;
+import javax.mail.util.SharedFileInputStream;
+
+import gnu.mail.util.ContentSpool;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests for the spool that keeps MIME content in memory or, above a
+ * threshold, in a temporary file.
+ */
+public class ContentSpoolTest
+  extends TestCase
+{
+
+  public ContentSpoolTest(String name)
+  {
+    super(name);
+  }
+
+  public void testInMemory()
+    throws IOException
+  {
+    byte[] data = data(100000);
+    ContentSpool spool = new ContentSpool(-1L);
+    spool.readFrom(new ByteArrayInputStream(data));
+    assertFalse(spool.isSpooled());
+    assertTrue(Arrays.equals(data, spool.toByteArray()));
+    InputStream in = spool.getInputStream();
+    assertTrue(in instanceof SharedByteArrayInputStream);
+    assertTrue(Arrays.equals(data, readAll(in)));
+  }
+
+  public void testBelowThreshold()
+    throws IOException
+  {
+    // Content up to the threshold stays in memory however the buffer grows
+    int[] sizes = { 4096, 4500, 5000 };
+    for (int i = 0; i < sizes.length; i++)
+      {
+        byte[] data = data(sizes[i]);
+        ContentSpool spool = new ContentSpool(5000L);
+        spool.readFrom(new ByteArrayInputStream(data));
+        assertFalse(String.valueOf(sizes[i]), spool.isSpooled());
+        assertTrue(Arrays.equals(data, spool.toByteArray()));
+      }
+    ContentSpool spool = new ContentSpool(5000L);
+    spool.readFrom(new ByteArrayInputStream(data(5001)));
+    assertTrue(spool.isSpooled());
+    assertTrue(Arrays.equals(data(5001), readAll(spool.getInputStream())));
+  }
+
+  public void testSpooled()
+    throws IOException
+  {
+    byte[] data = data(200000);
+    ContentSpool spool = new ContentSpool(4096L);
+    spool.readFrom(new ByteArrayInputStream(data));
+    assertTrue(spool.isSpooled());
+    InputStream in = spool.getInputStream();
+    assertTrue(in instanceof SharedFileInputStream);
+    // A slice reads the same data as the whole
+    InputStream slice = ((SharedInputStream) in).newStream(5000L, 6000L);
+    byte[] expected = new byte[1000];
+    System.arraycopy(data, 5000, expected, 0, 1000);
+    assertTrue(Arrays.equals(expected, readAll(slice)));
+    assertTrue(Arrays.equals(data, readAll(in)));
+  }
+
+  public void testWrite()
+    throws IOException
+  {
+    byte[] data = data(10000);
+    ContentSpool spool = new ContentSpool(5000L);
+    spool.write(data, 0, 4000);
+    assertFalse(spool.isSpooled());
+    spool.write(data[4000]);
+    spool.write(data, 4001, 999);
+    assertFalse(spool.isSpooled());
+    spool.write(data[5000]);
+    assertTrue(spool.isSpooled());
+    spool.write(data, 5001, data.length - 5001);
+    assertTrue(Arrays.equals(data, readAll(spool.getInputStream())));
+  }
+
+  public void testTee()
+    throws IOException
+  {
+    byte[] data = data(30000);
+    ContentSpool spool = new ContentSpool(8192L);
+    InputStream in = spool.tee(new ByteArrayInputStream(data));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(in.read());
+    byte[] buf = new byte[777];
+    for (int len = in.read(buf); len != -1; len = in.read(buf))
+      {
+        out.write(buf, 0, len);
+      }
+    assertTrue(Arrays.equals(data, out.toByteArray()));
+    assertTrue(spool.isSpooled());
+    assertTrue(Arrays.equals(data, readAll(spool.getInputStream())));
+  }
+
+  public void testThresholdProperty()
+  {
+    String key = ContentSpool.THRESHOLD_PROPERTY;
+    String saved = System.getProperty(key);
+    try
+      {
+        System.setProperty(key, " 65536 ");
+        assertEquals(65536L, ContentSpool.getThreshold());
+        System.setProperty(key, "many");
+        assertEquals(-1L, ContentSpool.getThreshold());
+      }
+    finally
+      {
+        if (saved == null)
+          {
+            System.getProperties().remove(key);
+          }
+        else
+          {
+            System.setProperty(key, saved);
+          }
+      }
+  }
+
+  private static byte[] data(int len)
+  {
+    byte[] ret = new byte[len];
+    for (int i = 0; i < len; i++)
+      {
+        ret[i] = (byte) (i * 31 + (i >> 8));
+      }
+    return ret;
+  }
+
+  private static byte[] readAll(InputStream in)
+    throws IOException
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[4096];
+    for (int len = in.read(buf); len != -1; len = in.read(buf))
+      {
+        out.write(buf, 0, len);
+      }
+    in.close();
+    return out.toByteArray();
+  }
+
+  public static Test suite()
+  {
+    return new TestSuite(ContentSpoolTest.class);
+  }
+
+}
@@ -0,0 +1,248 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import javax.mail.Authenticator;
+import javax.mail.Folder;
+import javax.mail.MessagingException;
+import javax.mail.PasswordAuthentication;
+import javax.mail.Session;
+import javax.mail.URLName;
+
+import gnu.mail.providers.imap.ConnectionPoolEvent;
+import gnu.mail.providers.imap.ConnectionPoolListener;
+import gnu.mail.providers.imap.IMAPStore;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests for the connection pool of the folders of an IMAP store, against
+ * a local test server.
+ */
+public class IMAPConnectionPoolTest
+  extends TestCase
+  implements ConnectionPoolListener
+{
+
+  private IMAPTestServer server;
+  private IMAPStore store;
+  private final List<String> events = new ArrayList<String>();
+  private int requests;
+
+  public IMAPConnectionPoolTest(String name)
+  {
+    super(name);
+  }
+
+  protected void setUp()
+    throws Exception
+  {
+    server = new IMAPTestServer();
+  }
+
+  protected void tearDown()
+    throws Exception
+  {
+    if (store != null)
+      {
+        store.close();
+        store = null;
+      }
+    server.close();
+  }
+
+  /**
+   * Connections opened for the pool use the credentials obtained from the
+   * session for the store.
+   */
+  public void testCredentials()
+    throws Exception
+  {
+    Authenticator authenticator = new Authenticator()
+      {
+        protected PasswordAuthentication getPasswordAuthentication()
+        {
+          requests++;
+          return new PasswordAuthentication("user", "secret");
+        }
+      };
+    Session session = Session.getInstance(new Properties(), authenticator);
+    URLName url = new URLName("imap://localhost:" + server.getPort() + "/");
+    store = new IMAPStore(session, url);
+    store.connect("localhost", server.getPort(), "user", null);
+    Folder inbox = store.getFolder("INBOX");
+    inbox.open(Folder.READ_WRITE);
+    Folder other = store.getFolder("Other");
+    other.open(Folder.READ_WRITE);
+    assertEquals(1, requests);
+    assertEquals(Arrays.asList("user secret", "user secret", "user secret"),
+                 server.getLogins());
+  }
+
+  /**
+   * A folder is preferentially given the connection that last selected
+   * its mailbox.
+   */
+  public void testAffinity()
+    throws Exception
+  {
+    connect(new Properties());
+    Folder inbox = store.getFolder("INBOX");
+    inbox.open(Folder.READ_WRITE);
+    Folder other = store.getFolder("Other");
+    other.open(Folder.READ_WRITE);
+    List<String> selects = server.getSelects();
+    assertEquals(2, selects.size());
+    other.close(false);
+    inbox.close(false);
+    // The connection that selected Other is the least recently released
+    other.open(Folder.READ_WRITE);
+    selects = server.getSelects();
+    assertEquals(3, selects.size());
+    assertEquals(selects.get(1), selects.get(2));
+    inbox.open(Folder.READ_WRITE);
+    selects = server.getSelects();
+    assertEquals(selects.get(0), selects.get(3));
+    assertEquals(Arrays.asList("opened INBOX", "acquired INBOX",
+                               "opened Other", "acquired Other",
+                               "released Other", "released INBOX",
+                               "acquired Other", "acquired INBOX"),
+                 events);
+  }
+
+  public void testIdleTimeout()
+    throws Exception
+  {
+    Properties props = new Properties();
+    props.put("mail.imap.connectionpooltimeout", "100");
+    connect(props);
+    Folder folder = store.getFolder("INBOX");
+    folder.open(Folder.READ_WRITE);
+    folder.close(false);
+    assertEquals(2, server.getConnections());
+    Thread.sleep(300L);
+    // The expired connection is closed the next time the pool is used
+    folder.open(Folder.READ_WRITE);
+    assertEquals(Arrays.asList("opened INBOX", "acquired INBOX",
+                               "released INBOX", "closed", "opened INBOX",
+                               "acquired INBOX"),
+                 events);
+    assertEquals(0, server.getCount("NOOP"));
+  }
+
+  /**
+   * An idle connection is checked with NOOP before reuse, and replaced if
+   * it fails.
+   */
+  public void testHealthCheck()
+    throws Exception
+  {
+    connect(new Properties());
+    Folder folder = store.getFolder("INBOX");
+    folder.open(Folder.READ_WRITE);
+    folder.close(false);
+    folder.open(Folder.READ_WRITE);
+    assertEquals(1, server.getCount("NOOP"));
+    folder.close(false);
+    server.setDropOnNoop(true);
+    folder.open(Folder.READ_WRITE);
+    assertEquals(2, server.getCount("NOOP"));
+    server.setDropOnNoop(false);
+    assertEquals(10, folder.getMessageCount());
+    assertEquals(Arrays.asList("opened INBOX", "acquired INBOX",
+                               "released INBOX", "acquired INBOX",
+                               "released INBOX", "closed", "opened INBOX",
+                               "acquired INBOX"),
+                 events);
+  }
+
+  public void testExhaustion()
+    throws Exception
+  {
+    Properties props = new Properties();
+    props.put("mail.imap.connectionpoolsize", "1");
+    props.put("mail.imap.connectionpoolwaittimeout", "200");
+    connect(props);
+    final Folder inbox = store.getFolder("INBOX");
+    inbox.open(Folder.READ_WRITE);
+    Folder other = store.getFolder("Other");
+    long start = System.currentTimeMillis();
+    try
+      {
+        other.open(Folder.READ_WRITE);
+        fail("pool was not exhausted");
+      }
+    catch (MessagingException e)
+      {
+        // expected
+      }
+    assertTrue(System.currentTimeMillis() - start >= 200L);
+    assertFalse(other.isOpen());
+    // A folder waiting for a connection gets the one released
+    Thread thread = new Thread()
+      {
+        public void run()
+        {
+          try
+            {
+              Thread.sleep(100L);
+              inbox.close(false);
+            }
+          catch (Exception e)
+            {
+            }
+        }
+      };
+    thread.start();
+    other.open(Folder.READ_WRITE);
+    thread.join();
+    assertTrue(other.isOpen());
+    assertEquals(2, server.getConnections());
+  }
+
+  private void connect(Properties props)
+    throws Exception
+  {
+    Session session = Session.getInstance(props);
+    URLName url = new URLName("imap://localhost:" + server.getPort() + "/");
+    store = new IMAPStore(session, url);
+    store.connect("localhost", server.getPort(), "user", "secret");
+    store.addConnectionPoolListener(this);
+  }
+
+  public void connectionPoolChanged(ConnectionPoolEvent e)
+  {
+    String event = null;
+    switch (e.getType())
+      {
+      case ConnectionPoolEvent.OPENED:
+        event = "opened";
+        break;
+      case ConnectionPoolEvent.ACQUIRED:
+        event = "acquired";
+        break;
+      case ConnectionPoolEvent.RELEASED:
+        event = "released";
+        break;
+      case ConnectionPoolEvent.CLOSED:
+        event = "closed";
+        break;
+      }
+    if (e.getMailbox() != null)
+      {
+        event += " " + e.getMailbox();
+      }
+    synchronized (events)
+      {
+        events.add(event);
+      }
+  }
+
+  public static Test suite()
+  {
+    return new TestSuite(IMAPConnectionPoolTest.class);
+  }
+
+}
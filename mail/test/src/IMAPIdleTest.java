@@ -0,0 +1,471 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import javax.mail.FetchProfile;
+import javax.mail.Flags;
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.URLName;
+import javax.mail.event.MessageCountAdapter;
+import javax.mail.event.MessageCountEvent;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import gnu.mail.providers.imap.IMAPFolder;
+import gnu.mail.providers.imap.IMAPStore;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests for folders waiting for changes with the IDLE command, against a
+ * local test server.
+ */
+public class IMAPIdleTest
+  extends TestCase
+{
+
+  private static final long TIMEOUT = 5000L;
+
+  private IMAPTestServer server;
+  private IMAPStore store;
+  private final List<String> events = new ArrayList<String>();
+
+  public IMAPIdleTest(String name)
+  {
+    super(name);
+  }
+
+  protected void setUp()
+    throws Exception
+  {
+    server = new IMAPTestServer();
+  }
+
+  protected void tearDown()
+    throws Exception
+  {
+    if (store != null)
+      {
+        store.close();
+        store = null;
+      }
+    server.close();
+  }
+
+  public void testEvents()
+    throws Exception
+  {
+    IMAPFolder folder = open("INBOX", "1000000");
+    folder.addMessageCountListener(new Recorder());
+    assertTrue(folder.idle());
+    assertTrue(folder.isIdle());
+    assertTrue(server.awaitIdlers(1, TIMEOUT));
+    server.push("* 12 EXISTS");
+    awaitEvents(1);
+    server.push("* 3 EXPUNGE");
+    awaitEvents(2);
+    assertEquals("added 11 12", events.get(0));
+    assertEquals("removed 3", events.get(1));
+    assertTrue(folder.isIdle());
+  }
+
+  public void testCommandEndsIdle()
+    throws Exception
+  {
+    IMAPFolder folder = open("INBOX", "1000000");
+    folder.idle();
+    assertTrue(server.awaitIdlers(1, TIMEOUT));
+    assertEquals(10, folder.getMessageCount());
+    assertFalse(folder.isIdle());
+    assertEquals(0, server.getIdlers());
+    // and again
+    assertTrue(folder.idle());
+    assertTrue(server.awaitIdlers(1, TIMEOUT));
+    folder.close(false);
+    assertFalse(folder.isIdle());
+    assertEquals(0, server.getIdlers());
+  }
+
+  /**
+   * A listener using the folder ends its IDLE state from the thread that
+   * delivers the event.
+   */
+  public void testListenerUsesFolder()
+    throws Exception
+  {
+    final IMAPFolder folder = open("INBOX", "1000000");
+    folder.addMessageCountListener(new MessageCountAdapter()
+      {
+        public void messagesAdded(MessageCountEvent e)
+        {
+          try
+            {
+              Message[] messages = e.getMessages();
+              FetchProfile fp = new FetchProfile();
+              fp.add(FetchProfile.Item.FLAGS);
+              folder.fetch(messages, fp);
+              record("count " + folder.getMessageCount() +
+                     " seen " + messages[0].isSet(Flags.Flag.SEEN));
+            }
+          catch (Exception x)
+            {
+              record(x.toString());
+            }
+        }
+      });
+    folder.idle();
+    assertTrue(server.awaitIdlers(1, TIMEOUT));
+    server.setCount("INBOX", 11);
+    server.push("* 11 EXISTS");
+    awaitEvents(1);
+    assertEquals("count 11 seen true", events.get(0));
+    assertFalse(folder.isIdle());
+    // The connection is usable again, and may idle again
+    assertEquals(11, folder.getMessageCount());
+    assertTrue(folder.idle());
+    assertTrue(server.awaitIdlers(1, TIMEOUT));
+    server.setCount("INBOX", 12);
+    server.push("* 12 EXISTS");
+    awaitEvents(2);
+    assertEquals("count 12 seen true", events.get(1));
+  }
+
+  /**
+   * A listener uses another folder idling on the same thread.
+   */
+  public void testListenerUsesOtherFolder()
+    throws Exception
+  {
+    IMAPFolder folder = open("INBOX", "1000000");
+    final IMAPFolder other = (IMAPFolder) store.getFolder("Other");
+    other.open(Folder.READ_ONLY);
+    folder.addMessageCountListener(new MessageCountAdapter()
+      {
+        public void messagesAdded(MessageCountEvent e)
+        {
+          try
+            {
+              record("other " + other.getMessageCount());
+            }
+          catch (Exception x)
+            {
+              record(x.toString());
+            }
+        }
+      });
+    other.idle();
+    folder.idle();
+    assertTrue(server.awaitIdlers(2, TIMEOUT));
+    server.setCount("INBOX", 12);
+    server.setCount("Other", 12);
+    server.push("* 12 EXISTS");
+    awaitEvents(1);
+    assertEquals("other 12", events.get(0));
+    assertTrue(folder.isIdle());
+    assertFalse(other.isIdle());
+    assertTrue(server.awaitIdlers(1, TIMEOUT));
+  }
+
+  /**
+   * A thread holding a lock that a listener is waiting for ends the IDLE
+   * state.
+   */
+  public void testStopWhileDelivering()
+    throws Exception
+  {
+    final IMAPFolder folder = open("INBOX", "1000000");
+    final Object lock = new Object();
+    folder.addMessageCountListener(new MessageCountAdapter()
+      {
+        public void messagesAdded(MessageCountEvent e)
+        {
+          record("delivering");
+          synchronized (lock)
+            {
+              record("delivered");
+            }
+        }
+      });
+    folder.idle();
+    assertTrue(server.awaitIdlers(1, TIMEOUT));
+    final int[] count = new int[1];
+    Thread thread = new Thread()
+      {
+        public void run()
+        {
+          try
+            {
+              synchronized (lock)
+                {
+                  server.setCount("INBOX", 11);
+                  server.push("* 11 EXISTS");
+                  awaitEvents(1);
+                  count[0] = folder.getMessageCount();
+                }
+            }
+          catch (Exception e)
+            {
+              record(e.toString());
+            }
+        }
+      };
+    thread.start();
+    thread.join(TIMEOUT);
+    assertFalse("deadlock", thread.isAlive());
+    awaitEvents(2);
+    assertEquals("delivered", events.get(1));
+    assertEquals(11, count[0]);
+    assertFalse(folder.isIdle());
+  }
+
+  public void testRefresh()
+    throws Exception
+  {
+    IMAPFolder folder = open("INBOX", "100");
+    folder.addMessageCountListener(new Recorder());
+    folder.idle();
+    assertTrue(server.awaitIdlers(1, TIMEOUT));
+    int idles = server.getIdles();
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (server.getIdles() < idles + 2 &&
+           System.currentTimeMillis() < deadline)
+      {
+        Thread.sleep(20L);
+      }
+    assertTrue(server.getIdles() >= idles + 2);
+    assertTrue(folder.isIdle());
+    // The response is lost if the connection is between IDLE commands
+    for (int i = 0; i < 50; i++)
+      {
+        assertTrue(server.awaitIdlers(1, TIMEOUT));
+        server.push("* 11 EXISTS");
+        synchronized (events)
+          {
+            if (events.isEmpty())
+              {
+                events.wait(100L);
+              }
+            if (!events.isEmpty())
+              {
+                break;
+              }
+          }
+      }
+    awaitEvents(1);
+    assertEquals("added 11", events.get(0));
+  }
+
+  public void testStoreClose()
+    throws Exception
+  {
+    List<Thread> before = idleThreads();
+    IMAPFolder folder = open("INBOX", "1000000");
+    folder.idle();
+    assertTrue(server.awaitIdlers(1, TIMEOUT));
+    List<Thread> threads = idleThreads();
+    threads.removeAll(before);
+    assertEquals(1, threads.size());
+    store.close();
+    // The threads have finished
+    assertFalse(threads.get(0).isAlive());
+    assertFalse(folder.isOpen());
+    assertTrue(server.awaitIdlers(0, TIMEOUT));
+  }
+
+  public void testStoreCloseFromListener()
+    throws Exception
+  {
+    List<Thread> before = idleThreads();
+    IMAPFolder folder = open("INBOX", "1000000");
+    folder.addMessageCountListener(new MessageCountAdapter()
+      {
+        public void messagesAdded(MessageCountEvent e)
+        {
+          try
+            {
+              store.close();
+              record("closed");
+            }
+          catch (Exception x)
+            {
+              record(x.toString());
+            }
+        }
+      });
+    folder.idle();
+    assertTrue(server.awaitIdlers(1, TIMEOUT));
+    List<Thread> threads = idleThreads();
+    threads.removeAll(before);
+    server.push("* 11 EXISTS");
+    awaitEvents(1);
+    assertEquals("closed", events.get(0));
+    threads.get(0).join(TIMEOUT);
+    assertFalse(threads.get(0).isAlive());
+    assertFalse(folder.isOpen());
+  }
+
+  /**
+   * A connection secured with STARTTLS cannot be watched for responses,
+   * and the folder must be polled instead.
+   */
+  public void testTLS()
+    throws Exception
+  {
+    server.close();
+    server = new IMAPTestServer(createContext());
+    IMAPFolder folder = open("INBOX", "1000000");
+    assertTrue(server.getSecured() > 0);
+    assertFalse(folder.idle());
+    assertFalse(folder.isIdle());
+    assertEquals(0, server.getIdles());
+    assertEquals(10, folder.getMessageCount());
+  }
+
+  /*
+   * Returns a server SSL context with a self-signed certificate.
+   */
+  private static SSLContext createContext()
+    throws Exception
+  {
+    // The provider only enables TLSv1 and SSLv3
+    Security.setProperty("jdk.tls.disabledAlgorithms", "");
+    File file = File.createTempFile("imap", ".p12");
+    file.delete();
+    try
+      {
+        String keytool = System.getProperty("java.home") + File.separator +
+          "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair",
+                                             "-alias", "test",
+                                             "-keyalg", "RSA",
+                                             "-dname", "CN=localhost",
+                                             "-validity", "1",
+                                             "-storetype", "PKCS12",
+                                             "-keystore", file.getPath(),
+                                             "-storepass", "secret",
+                                             "-keypass", "secret")
+          .redirectErrorStream(true).start();
+        InputStream out = process.getInputStream();
+        while (out.read() != -1)
+          {
+          }
+        assertEquals(0, process.waitFor());
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        InputStream in = new FileInputStream(file);
+        keyStore.load(in, "secret".toCharArray());
+        in.close();
+        KeyManagerFactory kmf =
+          KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, "secret".toCharArray());
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), null, null);
+        return context;
+      }
+    finally
+      {
+        file.delete();
+      }
+  }
+
+  private IMAPFolder open(String name, String refresh)
+    throws Exception
+  {
+    Properties props = new Properties();
+    props.put("mail.imap.idlethreads", "1");
+    props.put("mail.imap.idlerefresh", refresh);
+    Session session = Session.getInstance(props);
+    URLName url = new URLName("imap://localhost:" + server.getPort() + "/");
+    store = new IMAPStore(session, url);
+    store.connect("localhost", server.getPort(), "user", "secret");
+    IMAPFolder folder = (IMAPFolder) store.getFolder(name);
+    folder.open(Folder.READ_WRITE);
+    return folder;
+  }
+
+  void record(String event)
+  {
+    synchronized (events)
+      {
+        events.add(event);
+        events.notifyAll();
+      }
+  }
+
+  void awaitEvents(int count)
+    throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    synchronized (events)
+      {
+        while (events.size() < count)
+          {
+            long delay = deadline - System.currentTimeMillis();
+            if (delay <= 0L)
+              {
+                fail("timed out waiting for events: " + events);
+              }
+            events.wait(delay);
+          }
+      }
+  }
+
+  private static List<Thread> idleThreads()
+  {
+    List<Thread> ret = new ArrayList<Thread>();
+    for (Iterator<Thread> i = Thread.getAllStackTraces().keySet().iterator();
+         i.hasNext(); )
+      {
+        Thread thread = i.next();
+        if (thread.getName().startsWith("IMAP IDLE"))
+          {
+            ret.add(thread);
+          }
+      }
+    return ret;
+  }
+
+  /*
+   * Records message count events.
+   */
+  class Recorder
+    extends MessageCountAdapter
+  {
+
+    public void messagesAdded(MessageCountEvent e)
+    {
+      record("added" + numbers(e.getMessages()));
+    }
+
+    public void messagesRemoved(MessageCountEvent e)
+    {
+      record("removed" + numbers(e.getMessages()));
+    }
+
+    private String numbers(Message[] messages)
+    {
+      StringBuffer buf = new StringBuffer();
+      for (int i = 0; i < messages.length; i++)
+        {
+          buf.append(' ');
+          buf.append(messages[i].getMessageNumber());
+        }
+      return buf.toString();
+    }
+
+  }
+
+  public static Test suite()
+  {
+    return new TestSuite(IMAPIdleTest.class);
+  }
+
+}
@@ -0,0 +1,212 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import javax.mail.FetchProfile;
+import javax.mail.Flags;
+import javax.mail.Folder;
+import javax.mail.FolderNotFoundException;
+import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.URLName;
+
+import gnu.inet.imap.FetchDataItem;
+import gnu.inet.imap.IMAPAdapter;
+import gnu.inet.imap.IMAPConnection;
+import gnu.inet.imap.MessageSet;
+import gnu.mail.providers.imap.IMAPStore;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests for pipelined FETCH, STORE and COPY commands, against a local
+ * test server.
+ */
+public class IMAPPipelineTest
+  extends TestCase
+{
+
+  private IMAPTestServer server;
+  private IMAPStore store;
+
+  public IMAPPipelineTest(String name)
+  {
+    super(name);
+  }
+
+  protected void setUp()
+    throws Exception
+  {
+    server = new IMAPTestServer();
+  }
+
+  protected void tearDown()
+    throws Exception
+  {
+    if (store != null)
+      {
+        store.close();
+        store = null;
+      }
+    server.close();
+  }
+
+  public void testAsyncCommands()
+    throws Exception
+  {
+    IMAPConnection connection =
+      new IMAPConnection("localhost", server.getPort());
+    assertTrue(connection.login("user", "secret", new IMAPAdapter()));
+    assertTrue(connection.select("INBOX", new IMAPAdapter()));
+    final List<String> received =
+      Collections.synchronizedList(new ArrayList<String>());
+    List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    for (int i = 1; i <= 5; i++)
+      {
+        final int command = i;
+        IMAPAdapter callback = new IMAPAdapter()
+        {
+          public void fetch(int message, List<FetchDataItem> data)
+          {
+            received.add(command + ":" + message);
+          }
+        };
+        results.add(connection.fetchAsync(set(i), Arrays.asList("FLAGS"),
+                                          callback));
+      }
+    // A synchronous command waits for the commands before it
+    connection.noop(new IMAPAdapter());
+    for (Future<Boolean> result : results)
+      {
+        assertTrue(result.isDone());
+        assertEquals(Boolean.TRUE, result.get());
+      }
+    assertEquals(Arrays.asList("1:1", "2:2", "3:3", "4:4", "5:5"), received);
+    assertTrue(server.getPipelined() > 0);
+    connection.logout(new IMAPAdapter());
+  }
+
+  public void testBadFailsOneCommand()
+    throws Exception
+  {
+    IMAPConnection connection =
+      new IMAPConnection("localhost", server.getPort());
+    connection.login("user", "secret", new IMAPAdapter());
+    connection.select("INBOX", new IMAPAdapter());
+    Future<Boolean> store =
+      connection.storeAsync(set(3), "+FLAGS", Arrays.asList("\\Flagged"),
+                            new IMAPAdapter());
+    // A message set that the server rejects
+    MessageSet invalid = new MessageSet()
+    {
+      public String toString()
+      {
+        return "0";
+      }
+    };
+    Future<Boolean> bad = connection.fetchAsync(invalid,
+                                                Arrays.asList("FLAGS"),
+                                                new IMAPAdapter());
+    Future<Boolean> copy = connection.copyAsync(set(3), "Other",
+                                                new IMAPAdapter());
+    assertEquals(Boolean.TRUE, copy.get());
+    assertEquals(Boolean.TRUE, store.get());
+    try
+      {
+        bad.get();
+        fail("BAD response did not fail the command");
+      }
+    catch (ExecutionException e)
+      {
+        // expected
+      }
+    connection.logout(new IMAPAdapter());
+  }
+
+  public void testBulkFetch()
+    throws Exception
+  {
+    Folder folder = open("Big");
+    Message[] messages = folder.getMessages();
+    assertEquals(5000, messages.length);
+    FetchProfile fp = new FetchProfile();
+    fp.add(FetchProfile.Item.FLAGS);
+    int commands = server.getCommands();
+    folder.fetch(messages, fp);
+    // One command per batch of 256 messages
+    assertEquals(20, server.getCommands() - commands);
+    assertTrue(server.getPipelined() > 0);
+    assertTrue(messages[0].isSet(Flags.Flag.SEEN));
+    assertTrue(messages[4999].isSet(Flags.Flag.SEEN));
+    folder.close(false);
+  }
+
+  public void testBulkSetFlags()
+    throws Exception
+  {
+    Folder folder = open("Big");
+    Message[] messages = folder.getMessages();
+    int commands = server.getCommands();
+    folder.setFlags(messages, new Flags(Flags.Flag.DELETED), true);
+    assertEquals(20, server.getCommands() - commands);
+    assertTrue(messages[0].isSet(Flags.Flag.DELETED));
+    assertTrue(messages[4999].isSet(Flags.Flag.DELETED));
+    folder.setFlags(new Message[] { messages[7] },
+                    new Flags(Flags.Flag.DELETED), false);
+    assertFalse(messages[7].isSet(Flags.Flag.DELETED));
+    assertTrue(messages[8].isSet(Flags.Flag.DELETED));
+    folder.close(false);
+  }
+
+  public void testCopy()
+    throws Exception
+  {
+    Folder folder = open("Big");
+    Message[] messages = folder.getMessages();
+    int commands = server.getCommands();
+    folder.copyMessages(messages, store.getFolder("Other"));
+    assertEquals(20, server.getCommands() - commands);
+    try
+      {
+        folder.copyMessages(messages, store.getFolder("Missing"));
+        fail("copy to a missing folder succeeded");
+      }
+    catch (FolderNotFoundException e)
+      {
+        // expected
+      }
+    // The connection is still usable
+    assertEquals(5000, folder.getMessageCount());
+    folder.close(false);
+  }
+
+  private Folder open(String name)
+    throws Exception
+  {
+    Session session = Session.getInstance(new Properties());
+    URLName url = new URLName("imap://localhost:" + server.getPort() + "/");
+    store = new IMAPStore(session, url);
+    store.connect("localhost", server.getPort(), "user", "secret");
+    Folder folder = store.getFolder(name);
+    folder.open(Folder.READ_WRITE);
+    return folder;
+  }
+
+  private static MessageSet set(int message)
+  {
+    MessageSet ret = new MessageSet();
+    ret.add(new Integer(message));
+    return ret;
+  }
+
+  public static Test suite()
+  {
+    return new TestSuite(IMAPPipelineTest.class);
+  }
+
+}
@@ -0,0 +1,509 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * A minimal IMAP server on a local port, for testing the IMAP provider
+ * without a real server.
+ * The mailbox named "Big" contains 5000 messages, every other mailbox 10
+ * unless set otherwise.
+ * Every message has the \Seen flag. Copying to the mailbox named
+ * "Missing" fails with TRYCREATE, and a message set beginning with 0 is
+ * rejected with BAD. The server may be told to drop connections that send
+ * NOOP.
+ * Untagged responses may be pushed to the clients that are idling.
+ * If created with an SSL context, the server offers STARTTLS.
+ */
+public class IMAPTestServer
+  implements Runnable
+{
+
+  private final ServerSocket server;
+  private final List<Socket> sockets = new ArrayList<Socket>();
+  private final List<OutputStream> idlers = new ArrayList<OutputStream>();
+  private final Map<String,Integer> counts = new HashMap<String,Integer>();
+  private final Map<String,Integer> received = new HashMap<String,Integer>();
+  private final List<String> logins = new ArrayList<String>();
+  private final List<String> selects = new ArrayList<String>();
+  private final SSLContext context;
+  private int commands;
+  private int pipelined;
+  private int idles;
+  private int secured;
+  private int accepted;
+  private boolean dropOnNoop;
+
+  public IMAPTestServer()
+    throws IOException
+  {
+    this(null);
+  }
+
+  /**
+   * Creates a server offering STARTTLS with the specified context.
+   */
+  public IMAPTestServer(SSLContext context)
+    throws IOException
+  {
+    this.context = context;
+    server = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+    Thread thread = new Thread(this, "IMAP test server");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public int getPort()
+  {
+    return server.getLocalPort();
+  }
+
+  /**
+   * Returns the number of commands received, including DONE.
+   */
+  public synchronized int getCommands()
+  {
+    return commands;
+  }
+
+  /**
+   * Returns the number of commands received with the specified name.
+   */
+  public synchronized int getCount(String command)
+  {
+    Integer count = received.get(command);
+    return (count == null) ? 0 : count.intValue();
+  }
+
+  /**
+   * Returns the arguments of the LOGIN commands received.
+   */
+  public synchronized List<String> getLogins()
+  {
+    return new ArrayList<String>(logins);
+  }
+
+  /**
+   * Returns the mailboxes selected, each preceded by the number of the
+   * connection selecting it, counting from 1.
+   */
+  public synchronized List<String> getSelects()
+  {
+    return new ArrayList<String>(selects);
+  }
+
+  /**
+   * Sets whether connections are closed when they send NOOP.
+   */
+  public synchronized void setDropOnNoop(boolean dropOnNoop)
+  {
+    this.dropOnNoop = dropOnNoop;
+  }
+
+  /**
+   * Returns the number of commands that were received before the
+   * response to the previous command on the same connection was sent.
+   */
+  public synchronized int getPipelined()
+  {
+    return pipelined;
+  }
+
+  /**
+   * Returns the number of IDLE commands received.
+   */
+  public synchronized int getIdles()
+  {
+    return idles;
+  }
+
+  /**
+   * Returns the number of connections that have started TLS.
+   */
+  public synchronized int getSecured()
+  {
+    return secured;
+  }
+
+  /**
+   * Returns the number of connections currently idling.
+   */
+  public synchronized int getIdlers()
+  {
+    return idlers.size();
+  }
+
+  /**
+   * Returns the number of open connections.
+   */
+  public synchronized int getConnections()
+  {
+    return sockets.size();
+  }
+
+  /**
+   * Waits until the specified number of connections are idling.
+   * @return false on timeout
+   */
+  public synchronized boolean awaitIdlers(int count, long timeout)
+    throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + timeout;
+    while (idlers.size() != count)
+      {
+        long delay = deadline - System.currentTimeMillis();
+        if (delay <= 0L)
+          {
+            return false;
+          }
+        wait(delay);
+      }
+    return true;
+  }
+
+  /**
+   * Sets the number of messages in a mailbox, as reported by subsequent
+   * SELECT and STATUS commands.
+   */
+  public synchronized void setCount(String mailbox, int count)
+  {
+    counts.put(mailbox, new Integer(count));
+  }
+
+  /**
+   * Sends an untagged response to every idling connection.
+   */
+  public synchronized void push(String response)
+    throws IOException
+  {
+    for (OutputStream out : idlers)
+      {
+        write(out, response + "\r\n");
+      }
+  }
+
+  public void close()
+    throws IOException
+  {
+    server.close();
+    synchronized (this)
+      {
+        for (Socket socket : sockets)
+          {
+            socket.close();
+          }
+      }
+  }
+
+  public void run()
+  {
+    try
+      {
+        while (true)
+          {
+            final Socket socket = server.accept();
+            final int id;
+            synchronized (this)
+              {
+                sockets.add(socket);
+                id = ++accepted;
+              }
+            Thread thread = new Thread("IMAP test connection")
+              {
+                public void run()
+                {
+                  serve(socket, id);
+                }
+              };
+            thread.setDaemon(true);
+            thread.start();
+          }
+      }
+    catch (IOException e)
+      {
+        // closed
+      }
+  }
+
+  void serve(Socket socket, int id)
+  {
+    try
+      {
+        BufferedReader in =
+          new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                                                   "US-ASCII"));
+        OutputStream out = socket.getOutputStream();
+        write(out, "* OK IMAP test server ready\r\n");
+        String selected = null;
+        for (String line = in.readLine(); line != null; line = in.readLine())
+          {
+            synchronized (this)
+              {
+                commands++;
+                if (in.ready())
+                  {
+                    pipelined++;
+                  }
+              }
+            String[] words = line.split(" ", 3);
+            String tag = words[0];
+            String command = words[1].toUpperCase();
+            String args = (words.length > 2) ? words[2] : "";
+            if (command.equals("UID"))
+              {
+                words = args.split(" ", 2);
+                command = words[0].toUpperCase();
+                args = words[1];
+              }
+            boolean drop;
+            synchronized (this)
+              {
+                Integer count = received.get(command);
+                received.put(command,
+                             new Integer((count == null) ? 1 :
+                                         count.intValue() + 1));
+                if (command.equals("LOGIN"))
+                  {
+                    logins.add(args);
+                  }
+                drop = command.equals("NOOP") && dropOnNoop;
+              }
+            if (drop)
+              {
+                break;
+              }
+            StringBuffer response = new StringBuffer();
+            if (command.equals("IDLE"))
+              {
+                if (!idle(in, out))
+                  {
+                    write(out, tag + " BAD expected DONE\r\n");
+                    continue;
+                  }
+              }
+            else if (command.equals("CAPABILITY"))
+              {
+                response.append("* CAPABILITY IMAP4rev1 IDLE");
+                if (context != null)
+                  {
+                    response.append(" STARTTLS");
+                  }
+                response.append("\r\n");
+              }
+            else if (command.equals("STARTTLS") && context != null)
+              {
+                write(out, tag + " OK begin TLS\r\n");
+                SSLSocket ss = (SSLSocket) context.getSocketFactory()
+                  .createSocket(socket, null, socket.getPort(), true);
+                ss.setUseClientMode(false);
+                ss.setEnabledProtocols(ss.getSupportedProtocols());
+                ss.startHandshake();
+                in = new BufferedReader(new InputStreamReader(ss.getInputStream(),
+                                                              "US-ASCII"));
+                out = ss.getOutputStream();
+                synchronized (this)
+                  {
+                    secured++;
+                  }
+                continue;
+              }
+            else if (command.equals("SELECT") || command.equals("EXAMINE"))
+              {
+                selected = unquote(args);
+                synchronized (this)
+                  {
+                    selects.add(id + " " + selected);
+                  }
+                response.append("* " + count(selected) + " EXISTS\r\n");
+                response.append("* 0 RECENT\r\n");
+                response.append("* OK [UIDVALIDITY 7] UIDs valid\r\n");
+                response.append(tag + " OK [");
+                response.append(command.equals("SELECT") ?
+                                "READ-WRITE" : "READ-ONLY");
+                response.append("] done\r\n");
+                write(out, response.toString());
+                continue;
+              }
+            else if (command.equals("LIST") || command.equals("LSUB"))
+              {
+                String mailbox = args.substring(args.lastIndexOf(' ') + 1);
+                response.append("* " + command + " () \"/\" " + mailbox +
+                                "\r\n");
+              }
+            else if (command.equals("STATUS"))
+              {
+                String mailbox = unquote(args.substring(0, args.indexOf(" (")));
+                response.append("* STATUS " + mailbox + " (MESSAGES " +
+                                count(mailbox) + " UIDVALIDITY 7)\r\n");
+              }
+            else if (command.equals("FETCH") || command.equals("STORE"))
+              {
+                if (args.startsWith("0"))
+                  {
+                    write(out, tag + " BAD invalid message set\r\n");
+                    continue;
+                  }
+                words = args.split(" ", 3);
+                String flags = "(\\Seen)";
+                if (command.equals("STORE"))
+                  {
+                    flags = words[1].startsWith("-") ? "()" : words[2];
+                  }
+                int[] messages = parseSet(words[0]);
+                for (int i = 0; i < messages.length; i++)
+                  {
+                    response.append("* " + messages[i] + " FETCH (FLAGS " +
+                                    flags + " UID " + messages[i] + ")\r\n");
+                  }
+              }
+            else if (command.equals("COPY"))
+              {
+                if (args.indexOf("Missing") != -1)
+                  {
+                    write(out, tag + " NO [TRYCREATE] no such mailbox\r\n");
+                    continue;
+                  }
+              }
+            else if (command.equals("SEARCH"))
+              {
+                response.append("* SEARCH 1 2\r\n");
+              }
+            else if (command.equals("CLOSE"))
+              {
+                selected = null;
+              }
+            else if (command.equals("LOGOUT"))
+              {
+                write(out, "* BYE logging out\r\n" + tag + " OK done\r\n");
+                break;
+              }
+            response.append(tag + " OK " + command + " done\r\n");
+            write(out, response.toString());
+          }
+      }
+    catch (IOException e)
+      {
+        // connection closed
+      }
+    finally
+      {
+        synchronized (this)
+          {
+            sockets.remove(socket);
+          }
+        try
+          {
+            socket.close();
+          }
+        catch (IOException e)
+          {
+          }
+      }
+  }
+
+  /*
+   * Idles until DONE is received.
+   */
+  private boolean idle(BufferedReader in, OutputStream out)
+    throws IOException
+  {
+    synchronized (this)
+      {
+        idles++;
+        write(out, "+ idling\r\n");
+        idlers.add(out);
+        notifyAll();
+      }
+    String line = null;
+    try
+      {
+        line = in.readLine();
+      }
+    finally
+      {
+        synchronized (this)
+          {
+            idlers.remove(out);
+            notifyAll();
+            if (line != null)
+              {
+                commands++;
+              }
+          }
+      }
+    return "DONE".equals(line);
+  }
+
+  private static void write(OutputStream out, String text)
+    throws IOException
+  {
+    synchronized (out)
+      {
+        out.write(text.getBytes("US-ASCII"));
+        out.flush();
+      }
+  }
+
+  synchronized int count(String mailbox)
+  {
+    Integer count = counts.get(mailbox);
+    if (count != null)
+      {
+        return count.intValue();
+      }
+    return "Big".equals(mailbox) ? 5000 : 10;
+  }
+
+  static String unquote(String text)
+  {
+    text = text.trim();
+    if (text.startsWith("\""))
+      {
+        return text.substring(1, text.length() - 1);
+      }
+    return text;
+  }
+
+  /*
+   * Returns the message numbers in a message set.
+   */
+  static int[] parseSet(String set)
+  {
+    List<Integer> acc = new ArrayList<Integer>();
+    String[] ranges = set.split(",");
+    for (int i = 0; i < ranges.length; i++)
+      {
+        int colon = ranges[i].indexOf(':');
+        if (colon == -1)
+          {
+            acc.add(new Integer(ranges[i]));
+          }
+        else
+          {
+            int start = Integer.parseInt(ranges[i].substring(0, colon));
+            String last = ranges[i].substring(colon + 1);
+            int end = "*".equals(last) ? start : Integer.parseInt(last);
+            for (int j = start; j <= end; j++)
+              {
+                acc.add(new Integer(j));
+              }
+          }
+      }
+    int[] ret = new int[acc.size()];
+    for (int i = 0; i < ret.length; i++)
+      {
+        ret[i] = acc.get(i).intValue();
+      }
+    return ret;
+  }
+
+}
@@ -0,0 +1,197 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+import javax.mail.Folder;
+import javax.mail.Session;
+import javax.mail.Store;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.internet.MimePartDataSource;
+import javax.mail.internet.SharedInputStream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests for messages read from a mapped mbox file, whose escaped From_
+ * lines are unescaped as they are read.
+ */
+public class MboxFolderTest
+  extends TestCase
+{
+
+  static final String BODY =
+    "first line\n" +
+    ">From the start of a line\n" +
+    ">>From an escaped line\n" +
+    "last line\n" +
+    "\n";
+
+  static final String PART1 =
+    "From the first line of a part\n" +
+    ">From an escaped line";
+
+  static final String MULTIPART =
+    "--simple boundary\n" +
+    "Content-Type: text/plain\n" +
+    "\n" +
+    PART1 + "\n" +
+    "--simple boundary\n" +
+    "Content-Type: text/plain\n" +
+    "\n" +
+    "From the second part\n" +
+    "--simple boundary--\n" +
+    "\n";
+
+  static final String MBOX =
+    "From sender@example.org Mon Jan  1 00:00:00 2024\n" +
+    "Subject: escaped\n" +
+    "\n" +
+    BODY.replaceAll("(?m)^(>*From )", ">$1") +
+    "From sender@example.org Mon Jan  1 00:00:01 2024\n" +
+    "Subject: multipart\n" +
+    "MIME-Version: 1.0\n" +
+    "Content-Type: multipart/mixed; boundary=\"simple boundary\"\n" +
+    "\n" +
+    MULTIPART.replaceAll("(?m)^(>*From )", ">$1") +
+    "From sender@example.org Mon Jan  1 00:00:02 2024\n" +
+    "Subject: plain\n" +
+    "\n" +
+    "plain\n";
+
+  private File file;
+  private Store store;
+  private Folder folder;
+
+  public MboxFolderTest(String name)
+  {
+    super(name);
+  }
+
+  protected void setUp()
+    throws Exception
+  {
+    file = File.createTempFile("mbox", null);
+    OutputStream out = new FileOutputStream(file);
+    out.write(MBOX.getBytes("US-ASCII"));
+    out.close();
+    Session session = Session.getInstance(new Properties());
+    store = session.getStore("mbox");
+    store.connect();
+    folder = store.getFolder(file.getAbsolutePath());
+    folder.open(Folder.READ_ONLY);
+  }
+
+  protected void tearDown()
+    throws Exception
+  {
+    folder.close(false);
+    store.close();
+    file.delete();
+  }
+
+  public void testUnescape()
+    throws Exception
+  {
+    MimeMessage message = (MimeMessage) folder.getMessage(1);
+    assertEquals("escaped", message.getSubject());
+    assertEquals(BODY, read(message.getRawInputStream()));
+    assertEquals(BODY.length(), message.getSize());
+    message = (MimeMessage) folder.getMessage(3);
+    assertEquals("plain\n", read(message.getRawInputStream()));
+    assertEquals(6, message.getSize());
+  }
+
+  /**
+   * Positions count the unescaped bytes returned.
+   */
+  public void testPositions()
+    throws Exception
+  {
+    MimeMessage message = (MimeMessage) folder.getMessage(1);
+    InputStream in = message.getRawInputStream();
+    SharedInputStream sis = (SharedInputStream) in;
+    int len = BODY.length();
+    for (int i = 0; i < len; i++)
+      {
+        assertEquals(i, sis.getPosition());
+        assertEquals(len - i, in.available());
+        assertEquals(BODY.charAt(i), (char) in.read());
+      }
+    assertEquals(len, sis.getPosition());
+    assertEquals(-1, in.read());
+    for (int start = 0; start <= len; start++)
+      {
+        for (int end = start; end <= len; end++)
+          {
+            InputStream slice = sis.newStream(start, end);
+            assertEquals(start + "-" + end, BODY.substring(start, end),
+                         read(slice));
+          }
+        assertEquals(BODY.substring(start), read(sis.newStream(start, -1L)));
+      }
+  }
+
+  /**
+   * Body parts are sliced from the unescaped content.
+   */
+  public void testMultipart()
+    throws Exception
+  {
+    MimeMessage message = (MimeMessage) folder.getMessage(2);
+    assertEquals(MULTIPART, read(message.getRawInputStream()));
+    MimeMultipart multipart =
+      new MimeMultipart(new MimePartDataSource(message));
+    assertEquals(2, multipart.getCount());
+    MimeBodyPart part = (MimeBodyPart) multipart.getBodyPart(0);
+    assertEquals("text/plain", part.getContentType());
+    assertEquals(PART1, read(part.getInputStream()));
+    part = (MimeBodyPart) multipart.getBodyPart(1);
+    assertEquals("text/plain", part.getContentType());
+    assertEquals("From the second part", read(part.getInputStream()));
+    assertTrue(multipart.isComplete());
+  }
+
+  public void testSkip()
+    throws Exception
+  {
+    MimeMessage message = (MimeMessage) folder.getMessage(1);
+    InputStream in = message.getRawInputStream();
+    SharedInputStream sis = (SharedInputStream) in;
+    int pos = 0;
+    for (int n = 1; pos < BODY.length(); n++)
+      {
+        long skipped = in.skip(n);
+        assertEquals(Math.min(n, BODY.length() - pos), skipped);
+        pos += skipped;
+        assertEquals(pos, sis.getPosition());
+        assertEquals(BODY.substring(pos), read(sis.newStream(pos, -1L)));
+      }
+    assertEquals(0L, in.skip(1L));
+  }
+
+  static String read(InputStream in)
+    throws IOException
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[7];
+    for (int len = in.read(buf); len != -1; len = in.read(buf))
+      {
+        out.write(buf, 0, len);
+      }
+    in.close();
+    return out.toString("US-ASCII");
+  }
+
+  public static Test suite()
+  {
+    return new TestSuite(MboxFolderTest.class);
+  }
+
+}
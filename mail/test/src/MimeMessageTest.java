@@ -15,8 +15,11 @@ import junit.framework.TestSuite;
 import junit.textui.TestRunner;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,9 +43,21 @@ public class MimeMessageTest
       this.msgnum = msgnum;
     }
 
+  /**
+   * Constructor for tests that don't read a message from a store.
+   */
+  public MimeMessageTest(String name)
+    {
+      super(name);
+    }
+
   protected void setUp()
     {
       session = Session.getInstance(System.getProperties());
+      if (url == null)
+        {
+          return;
+        }
       try
         {
           store = session.getStore(url);
@@ -170,6 +185,93 @@ public class MimeMessageTest
     //assertFalse(flags.contains("hoho"));
   }
 
+  /**
+   * Header lookups must not depend on the default locale: in Turkish,
+   * "I".toLowerCase() is a dotless i.
+   */
+  public void testHeaderLocale()
+    throws Exception
+  {
+    Locale locale = Locale.getDefault();
+    Locale.setDefault(new Locale("tr", "TR"));
+    try
+      {
+        MimeMessage m = parse("MIME-Version: 1.0\r\n" +
+                              "X-Item-ID: 1\r\n" +
+                              "Subject: test\r\n\r\nbody\r\n");
+        assertEquals("1.0", m.getHeader("Mime-Version", null));
+        assertEquals("1.0", m.getHeader("mime-version", null));
+        assertEquals("1", m.getHeader("x-item-id", null));
+        m.addHeader("x-item-id", "2");
+        String[] ids = m.getHeader("X-ITEM-ID");
+        assertEquals(2, ids.length);
+        assertEquals("2", ids[1]);
+        m.removeHeader("x-item-id");
+        assertNull(m.getHeader("X-Item-ID"));
+      }
+    finally
+      {
+        Locale.setDefault(locale);
+      }
+  }
+
+  /**
+   * Headers keep their order in the message as they are added, replaced
+   * and removed through the name index.
+   */
+  public void testHeaderOrder()
+    throws Exception
+  {
+    MimeMessage m = parse("Received: a\r\n" +
+                          "Subject: s\r\n" +
+                          "Received: b\r\n" +
+                          "X-A: 1\r\n\r\nbody\r\n");
+    String[] received = m.getHeader("Received");
+    assertEquals(2, received.length);
+    assertEquals("a", received[0]);
+    assertEquals("b", received[1]);
+    // added after the last header with the same name
+    m.addHeader("Received", "c");
+    assertEquals("Received: a|Subject: s|Received: b|Received: c|X-A: 1",
+                 headerLines(m));
+    // replaces the first and removes the others
+    m.setHeader("received", "d");
+    assertEquals("Received: d|Subject: s|X-A: 1", headerLines(m));
+    // a removed header keeps its place for a new one with the same name
+    m.removeHeader("SUBJECT");
+    assertEquals("Received: d|X-A: 1", headerLines(m));
+    m.addHeader("Subject", "t");
+    assertEquals("Received: d|Subject: t|X-A: 1", headerLines(m));
+    assertEquals("t", m.getHeader("subject", null));
+    m.addHeader("X-A", "2");
+    m.addHeader("X-B", "3");
+    assertEquals("Received: d|Subject: t|X-A: 1|X-A: 2|X-B: 3",
+                 headerLines(m));
+    assertEquals("1,2", m.getHeader("x-a", ","));
+  }
+
+  MimeMessage parse(String text)
+    throws MessagingException
+  {
+    return new MimeMessage(session,
+                           new ByteArrayInputStream(text.getBytes()));
+  }
+
+  static String headerLines(MimeMessage m)
+    throws MessagingException
+  {
+    StringBuffer buf = new StringBuffer();
+    for (Enumeration e = m.getAllHeaderLines(); e.hasMoreElements(); )
+      {
+        if (buf.length() > 0)
+          {
+            buf.append('|');
+          }
+        buf.append((String) e.nextElement());
+      }
+    return buf.toString();
+  }
+
   static Test suite(String url, int msgnum)
     {
       TestSuite suite = new TestSuite();
@@ -181,6 +283,8 @@ public class MimeMessageTest
   public static Test suite()
     {
       TestSuite suite = new TestSuite();
+      suite.addTest(new MimeMessageTest("testHeaderLocale"));
+      suite.addTest(new MimeMessageTest("testHeaderOrder"));
       try
         {
           BufferedReader r = new BufferedReader(new FileReader("message-urls"));
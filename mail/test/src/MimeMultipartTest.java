@@ -0,0 +1,264 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.activation.DataSource;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.SharedByteArrayInputStream;
+
+import gnu.mail.util.ContentSpool;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests for multipart parsing, where only the range of each body part is
+ * recorded until the part is first accessed.
+ */
+public class MimeMultipartTest
+  extends TestCase
+{
+
+  static final String CONTENT_TYPE =
+    "multipart/mixed; boundary=\"simple boundary\"";
+
+  static final String PART1 =
+    "Content-Type: text/plain\r\n" +
+    "\r\n" +
+    "first part\r\n" +
+    "--simple boundary is not a delimiter here";
+
+  static final String PART2 =
+    "Content-Type: text/plain\r\n" +
+    "Content-Transfer-Encoding: base64\r\n" +
+    "X-Order: 2\r\n" +
+    "\r\n" +
+    "c2Vjb25kIHBhcnQ=";
+
+  static final String PART3 =
+    "Content-Type: text/plain\r\n" +
+    "Content-ID: <three@example.org>\r\n" +
+    "\r\n" +
+    "third\r\n" +
+    "part";
+
+  static final String TEXT =
+    "preamble\r\n" +
+    "--simple boundary\r\n" +
+    PART1 + "\r\n" +
+    "--simple boundary\r\n" +
+    PART2 + "\r\n" +
+    "--simple boundary  \r\n" +
+    PART3 + "\r\n" +
+    "--simple boundary--\r\n" +
+    "epilogue\r\n";
+
+  public MimeMultipartTest(String name)
+  {
+    super(name);
+  }
+
+  public void testLazyParts()
+    throws Exception
+  {
+    checkParts(new MimeMultipart(new TestDataSource(TEXT, true)));
+  }
+
+  public void testLazyPartsUnshared()
+    throws Exception
+  {
+    checkParts(new MimeMultipart(new TestDataSource(TEXT, false)));
+  }
+
+  public void testLazyPartsSpooled()
+    throws Exception
+  {
+    String key = ContentSpool.THRESHOLD_PROPERTY;
+    String saved = System.getProperty(key);
+    System.setProperty(key, "16");
+    try
+      {
+        checkParts(new MimeMultipart(new TestDataSource(TEXT, false)));
+      }
+    finally
+      {
+        if (saved == null)
+          {
+            System.getProperties().remove(key);
+          }
+        else
+          {
+            System.setProperty(key, saved);
+          }
+      }
+  }
+
+  /**
+   * Accesses the parts out of order and checks their headers and content.
+   */
+  void checkParts(MimeMultipart mp)
+    throws Exception
+  {
+    assertEquals(3, mp.getCount());
+    assertTrue(mp.isComplete());
+    assertEquals("preamble\r\n", mp.getPreamble());
+    MimeBodyPart p3 = (MimeBodyPart) mp.getBodyPart(2);
+    assertEquals("<three@example.org>", p3.getContentID());
+    assertEquals("third\r\npart", read(p3.getInputStream()));
+    MimeBodyPart p1 = (MimeBodyPart) mp.getBodyPart(0);
+    assertEquals("first part\r\n--simple boundary is not a delimiter here",
+                 read(p1.getInputStream()));
+    assertSame(p1, mp.getBodyPart(0));
+    MimeBodyPart p2 = (MimeBodyPart) mp.getBodyPart(1);
+    assertEquals("2", p2.getHeader("X-Order", null));
+    assertEquals("second part", read(p2.getInputStream()));
+    assertSame(p3, mp.getBodyPart("<three@example.org>"));
+  }
+
+  public void testWriteUnaccessed()
+    throws Exception
+  {
+    MimeMultipart mp = new MimeMultipart(new TestDataSource(TEXT, true));
+    // Untouched parts are copied exactly as they were parsed
+    assertEquals(expected(new String[] { PART1, PART2, PART3 }), write(mp));
+    mp.getBodyPart(1);
+    assertEquals(expected(new String[] { PART1, PART2, PART3 }), write(mp));
+  }
+
+  public void testModify()
+    throws Exception
+  {
+    MimeMultipart mp = new MimeMultipart(new TestDataSource(TEXT, false));
+    mp.removeBodyPart(0);
+    assertEquals(2, mp.getCount());
+    MimeBodyPart p = (MimeBodyPart) mp.getBodyPart(0);
+    assertEquals("2", p.getHeader("X-Order", null));
+    InputStream in = new ByteArrayInputStream(PART1.getBytes());
+    mp.addBodyPart(new MimeBodyPart(in), 1);
+    assertEquals(3, mp.getCount());
+    assertEquals(expected(new String[] { PART2, PART1, PART3 }), write(mp));
+  }
+
+  public void testMissingEndBoundary()
+    throws Exception
+  {
+    String text = TEXT.substring(0, TEXT.indexOf("--simple boundary--"));
+    MimeMultipart mp = new MimeMultipart(new TestDataSource(text, true));
+    assertEquals(3, mp.getCount());
+    assertFalse(mp.isComplete());
+    MimeBodyPart p3 = (MimeBodyPart) mp.getBodyPart(2);
+    // The line break before the end of the stream belongs to the part
+    assertEquals("third\r\npart\r\n", read(p3.getInputStream()));
+  }
+
+  public void testManyParts()
+    throws Exception
+  {
+    StringBuffer buf = new StringBuffer();
+    for (int i = 0; i < 2000; i++)
+      {
+        buf.append("--simple boundary\r\n\r\npart ");
+        buf.append(i);
+        buf.append("\r\n");
+      }
+    buf.append("--simple boundary--\r\n");
+    MimeMultipart mp =
+      new MimeMultipart(new TestDataSource(buf.toString(), true));
+    assertEquals(2000, mp.getCount());
+    assertEquals("part 1234",
+                 read(mp.getBodyPart(1234).getInputStream()));
+    assertEquals("part 0", read(mp.getBodyPart(0).getInputStream()));
+    assertEquals("part 1999", read(mp.getBodyPart(1999).getInputStream()));
+  }
+
+  static String expected(String[] parts)
+  {
+    StringBuffer buf = new StringBuffer("preamble\r\n");
+    for (int i = 0; i < parts.length; i++)
+      {
+        buf.append("--simple boundary\r\n");
+        buf.append(parts[i]);
+        buf.append("\r\n");
+      }
+    buf.append("--simple boundary--\r\n");
+    return buf.toString();
+  }
+
+  static String write(MimeMultipart mp)
+    throws IOException, MessagingException
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    mp.writeTo(out);
+    return out.toString("US-ASCII");
+  }
+
+  static String read(InputStream in)
+    throws IOException
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[4096];
+    for (int len = in.read(buf); len != -1; len = in.read(buf))
+      {
+        out.write(buf, 0, len);
+      }
+    in.close();
+    return out.toString("US-ASCII");
+  }
+
+  /*
+   * Provides the multipart text as a shared input stream, or as a plain
+   * stream that must be copied as it is parsed.
+   */
+  static class TestDataSource
+    implements DataSource
+  {
+
+    private final byte[] data;
+    private final boolean shared;
+
+    TestDataSource(String text, boolean shared)
+    {
+      data = text.getBytes();
+      this.shared = shared;
+    }
+
+    public String getContentType()
+    {
+      return CONTENT_TYPE;
+    }
+
+    public InputStream getInputStream()
+    {
+      if (shared)
+        {
+          return new SharedByteArrayInputStream(data);
+        }
+      return new FilterInputStream(new ByteArrayInputStream(data))
+        {
+        };
+    }
+
+    public String getName()
+    {
+      return null;
+    }
+
+    public OutputStream getOutputStream()
+      throws IOException
+    {
+      throw new IOException("read-only");
+    }
+
+  }
+
+  public static Test suite()
+  {
+    return new TestSuite(MimeMultipartTest.class);
+  }
+
+}